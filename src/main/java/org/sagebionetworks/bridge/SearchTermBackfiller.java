@@ -0,0 +1,86 @@
+package org.sagebionetworks.bridge;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.dao.AccountDao;
+import org.sagebionetworks.bridge.dao.AdherenceReportDao;
+
+/**
+ * Rebuilds the search terms of the accounts and weekly adherence reports that the bridge:90 database migration queued
+ * because their terms, as first backfilled in SQL, may not match the terms the server writes (see SearchTrigrams).
+ * This runs once on startup, after the migrations, in the background so it doesn't hold up startup. Every server
+ * drains the same queue, and an account or report is only rebuilt by the server that removes it from the queue. Once
+ * the queue is empty, this is a single query on an empty table.
+ */
+@Component
+@Profile("default")
+public class SearchTermBackfiller implements ApplicationListener<ContextRefreshedEvent> {
+    private static final Logger LOG = LoggerFactory.getLogger(SearchTermBackfiller.class);
+
+    static final int BATCH_SIZE = 100;
+
+    private final AccountDao accountDao;
+    private final AdherenceReportDao adherenceReportDao;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private ExecutorService executor;
+
+    @Autowired
+    public SearchTermBackfiller(AccountDao accountDao, AdherenceReportDao adherenceReportDao) {
+        this.accountDao = accountDao;
+        this.adherenceReportDao = adherenceReportDao;
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        // The event is published again if the context is refreshed, but the backfill only needs to run once.
+        if (started.compareAndSet(false, true)) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("search-term-backfill-%d").setDaemon(true).build());
+            executor.execute(this::backfill);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            // Whatever is left in the queue is picked up on the next startup.
+            executor.shutdownNow();
+        }
+    }
+
+    // Package-scoped for unit tests.
+    void backfill() {
+        try {
+            int accountCount = 0;
+            int count;
+            while ((count = accountDao.backfillSearchTerms(BATCH_SIZE)) > 0
+                    && !Thread.currentThread().isInterrupted()) {
+                accountCount += count;
+            }
+            int reportCount = 0;
+            while ((count = adherenceReportDao.backfillSearchTerms(BATCH_SIZE)) > 0
+                    && !Thread.currentThread().isInterrupted()) {
+                reportCount += count;
+            }
+            if (accountCount > 0 || reportCount > 0) {
+                LOG.info("Backfilled search terms for " + accountCount + " accounts and " + reportCount
+                        + " weekly adherence reports");
+            }
+        } catch (RuntimeException ex) {
+            LOG.error("Search term backfill failed, will try again on the next startup", ex);
+        }
+    }
+}
@@ -45,6 +45,9 @@ public final class CacheKey {
     public static final CacheKey tagList() {
         return new CacheKey("TagList");
     }
+    public static final CacheKey tagValues() {
+        return new CacheKey("TagValues");
+    }
     public static final CacheKey reauthTokenLookupKey(String userId, String appId) {
         return new CacheKey(userId, appId, "ReauthToken");
     }
@@ -83,6 +86,14 @@ public final class CacheKey {
     public static final CacheKey lock(String value, Class<?> clazz) {
         return new CacheKey(value, clazz.getCanonicalName(), "lock");
     }
+    /** A counter incremented on every lock acquisition, to issue fencing tokens. */
+    public static final CacheKey lockFencingToken() {
+        return new CacheKey("LockFencingToken");
+    }
+    /** A counter of the permits taken from a cluster-wide rate limit in one second (epoch seconds). */
+    public static final CacheKey rateLimit(String name, long epochSecond) {
+        return new CacheKey(name, Long.toString(epochSecond), "RateLimit");
+    }
     public static final CacheKey passwordResetForEmail(String sptoken, String appId) {
         return new CacheKey(sptoken, appId); // no type, not great
     }
@@ -23,6 +23,7 @@ import org.springframework.stereotype.Component;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableSet;
 
 /**
  * A wrapper around our use of Redis.
@@ -376,6 +377,36 @@ public class CacheProvider {
         }
     }
     
+    /**
+     * Get the members of a set, or an empty set if the set does not exist.
+     */
+    public Set<String> getSetMembers(CacheKey cacheKey) {
+        checkNotNull(cacheKey);
+        try {
+            Set<String> members = jedisOps.smembers(cacheKey.toString());
+            return (members == null) ? ImmutableSet.of() : members;
+        } catch(Throwable e) {
+            promptToStartRedisIfLocal(e);
+            throw new BridgeServiceException(e);
+        }
+    }
+    
+    /**
+     * Add members to a set, creating the set if it does not exist. Returns the number of members that were not 
+     * already in the set.
+     */
+    public long addSetMembers(CacheKey cacheKey, String... members) {
+        checkNotNull(cacheKey);
+        checkNotNull(members);
+        try {
+            Long added = jedisOps.sadd(cacheKey.toString(), members);
+            return (added == null) ? 0L : added;
+        } catch(Throwable e) {
+            promptToStartRedisIfLocal(e);
+            throw new BridgeServiceException(e);
+        }
+    }
+    
     public void removeSetOfCacheKeys(CacheKey cacheKeyOfSet) {
         checkNotNull(cacheKeyOfSet);
         
@@ -0,0 +1,111 @@
+package org.sagebionetworks.bridge.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sagebionetworks.bridge.BridgeUtils.generateGuid;
+
+import java.util.List;
+
+import javax.annotation.Resource;
+
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.dao.DistributedLockDao;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.redis.JedisOps;
+import org.sagebionetworks.bridge.redis.JedisTransaction;
+
+/**
+ * Locks held as Redis keys with an expiration. The value of the key is the lock string, which is 
+ * the fencing token (from a counter that is incremented on every acquisition) followed by a GUID. 
+ * Releasing and renewing a lock compare the stored lock string to the caller's in a transaction 
+ * that watches the key, so a caller whose lease has expired cannot release or extend the lock of 
+ * the caller that acquired it next.
+ */
+@Component
+public class RedisDistributedLockDao implements DistributedLockDao {
+
+    static final int DEFAULT_EXPIRE_IN_SECONDS = 60;
+    
+    private JedisOps jedisOps;
+
+    @Resource(name = "jedisOps")
+    final void setJedisOps(JedisOps jedisOps) {
+        this.jedisOps = jedisOps;
+    }
+
+    @Override
+    public String acquireLock(Class<?> clazz, String identifier) {
+        return acquireLock(clazz, identifier, DEFAULT_EXPIRE_IN_SECONDS);
+    }
+
+    @Override
+    public String acquireLock(Class<?> clazz, String identifier, int expireInSeconds) {
+        checkNotNull(clazz);
+        checkNotNull(identifier);
+        checkArgument(expireInSeconds > 0);
+        
+        String redisKey = CacheKey.lock(identifier, clazz).toString();
+        Long fencingToken = jedisOps.incr(CacheKey.lockFencingToken().toString());
+        String lock = fencingToken + ":" + generateGuid();
+        
+        Long result = jedisOps.setnx(redisKey, lock);
+        if (result == null || result != 1L) {
+            // If a holder failed between setting the key and setting its expiration, the lock would 
+            // never be released. Give it an expiration so it is eventually freed.
+            Long ttl = jedisOps.ttl(redisKey);
+            if (ttl != null && ttl == -1L) {
+                jedisOps.expire(redisKey, expireInSeconds);
+            }
+            return null;
+        }
+        expire(redisKey, expireInSeconds);
+        return lock;
+    }
+
+    @Override
+    public boolean renewLock(Class<?> clazz, String identifier, String lock, int expireInSeconds) {
+        checkNotNull(clazz);
+        checkNotNull(identifier);
+        checkNotNull(lock);
+        checkArgument(expireInSeconds > 0);
+        
+        String redisKey = CacheKey.lock(identifier, clazz).toString();
+        try (JedisTransaction transaction = jedisOps.getTransaction(redisKey)) {
+            if (!lock.equals(jedisOps.get(redisKey))) {
+                return false;
+            }
+            List<Object> results = transaction.setex(redisKey, expireInSeconds, lock).exec();
+            return results != null;
+        } catch (Throwable e) {
+            throw new BridgeServiceException(e);
+        }
+    }
+
+    @Override
+    public boolean releaseLock(Class<?> clazz, String identifier, String lock) {
+        checkNotNull(clazz);
+        checkNotNull(identifier);
+        checkNotNull(lock);
+        
+        String redisKey = CacheKey.lock(identifier, clazz).toString();
+        try (JedisTransaction transaction = jedisOps.getTransaction(redisKey)) {
+            if (!lock.equals(jedisOps.get(redisKey))) {
+                return false;
+            }
+            List<Object> results = transaction.del(redisKey).exec();
+            return results != null;
+        } catch (Throwable e) {
+            throw new BridgeServiceException(e);
+        }
+    }
+    
+    private void expire(String redisKey, int expireInSeconds) {
+        Long result = jedisOps.expire(redisKey, expireInSeconds);
+        if (result == null || result != 1L) {
+            // Don't leave a lock behind that will never expire.
+            jedisOps.del(redisKey);
+            throw new BridgeServiceException("Lock expiration not set.");
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.sagebionetworks.bridge.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Resource;
+
+import org.joda.time.DateTimeUtils;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.dao.RateLimitDao;
+import org.sagebionetworks.bridge.redis.JedisOps;
+
+/**
+ * Rate limits counted in Redis, with one counter per limit per second. Every server increments the same counter, so
+ * the limit applies to the whole cluster, however many servers are running. Counters expire shortly after their
+ * second has passed. Seconds are taken from each server's clock, so the limit is only as precise as the servers'
+ * clocks agree.
+ */
+@Component
+public class RedisRateLimitDao implements RateLimitDao {
+
+    static final int EXPIRE_IN_SECONDS = 2;
+
+    private JedisOps jedisOps;
+
+    @Resource(name = "jedisOps")
+    final void setJedisOps(JedisOps jedisOps) {
+        this.jedisOps = jedisOps;
+    }
+
+    @Override
+    public long tryAcquire(String name, int permitsPerSecond) {
+        checkNotNull(name);
+        checkArgument(permitsPerSecond > 0);
+
+        long nowMillis = DateTimeUtils.currentTimeMillis();
+        String redisKey = CacheKey.rateLimit(name, nowMillis / 1000L).toString();
+        Long count = jedisOps.incr(redisKey);
+        if (count != null && count == 1L) {
+            jedisOps.expire(redisKey, EXPIRE_IN_SECONDS);
+        }
+        if (count != null && count <= permitsPerSecond) {
+            return 0L;
+        }
+        return 1000L - (nowMillis % 1000L);
+    }
+}
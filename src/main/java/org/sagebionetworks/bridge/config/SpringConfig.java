@@ -3,6 +3,7 @@ package org.sagebionetworks.bridge.config;
 import static com.amazonaws.regions.Regions.US_EAST_1;
 import static org.hibernate.event.spi.EventType.DELETE;
 import static org.hibernate.event.spi.EventType.MERGE;
+import static org.hibernate.event.spi.EventType.PERSIST;
 import static org.hibernate.event.spi.EventType.SAVE_UPDATE;
 
 import java.net.URI;
@@ -40,7 +41,8 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.mchange.v2.c3p0.DriverManagerDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.hibernate.SessionFactory;
@@ -61,6 +63,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
 
 import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.BridgeUtils;
@@ -106,7 +109,9 @@ import org.sagebionetworks.bridge.dynamodb.DynamoUtils;
 import org.sagebionetworks.bridge.file.FileHelper;
 import org.sagebionetworks.bridge.heartbeat.HeartbeatLogger;
 import org.sagebionetworks.bridge.hibernate.AccountPersistenceExceptionConverter;
+import org.sagebionetworks.bridge.hibernate.ConnectionPoolMetrics;
 import org.sagebionetworks.bridge.hibernate.HibernateAccount;
+import org.sagebionetworks.bridge.hibernate.HibernateAccountSearchTerm;
 import org.sagebionetworks.bridge.hibernate.HibernateAccountSecret;
 import org.sagebionetworks.bridge.hibernate.HibernateEnrollment;
 import org.sagebionetworks.bridge.hibernate.HibernateHelper;
@@ -122,6 +127,8 @@ import org.sagebionetworks.bridge.hibernate.SponsorPersistenceExceptionConverter
 import org.sagebionetworks.bridge.hibernate.TagEventListener;
 import org.sagebionetworks.bridge.hibernate.BasicPersistenceExceptionConverter;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.OutboundMessage;
+import org.sagebionetworks.bridge.models.ParticipantVersionQueueEntry;
 import org.sagebionetworks.bridge.models.RequestInfo;
 import org.sagebionetworks.bridge.models.Tag;
 import org.sagebionetworks.bridge.models.activities.StudyActivityEvent;
@@ -291,6 +298,18 @@ public class SpringConfig {
         return Executors.newFixedThreadPool(bridgeConfig.getPropertyAsInt("async.worker.thread.count"));
     }
 
+    @Bean(name = "accountDeletionExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService accountDeletionExecutorService(BridgeConfig bridgeConfig) {
+        return Executors.newFixedThreadPool(bridgeConfig.getPropertyAsInt("account.deletion.thread.count"));
+    }
+
+    @Bean(name = "snsExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService snsExecutorService(BridgeConfig bridgeConfig) {
+        return Executors.newFixedThreadPool(bridgeConfig.getPropertyAsInt("sns.fanout.thread.count"));
+    }
+
     @Bean(name = "supportEmail")
     @Resource(name = "bridgeConfig")
     public String supportEmail(BridgeConfig bridgeConfig) {
@@ -601,9 +620,32 @@ public class SpringConfig {
         return url;
     }
 
+    // The connection pool is deliberately not a DataSource bean: the Liquibase data sources below are the only
+    // DataSource beans Spring Boot should see.
+    private HikariDataSource hibernateDataSource(ConnectionPoolMetrics poolMetrics) {
+        BridgeConfig config = bridgeConfig();
+        
+        HikariConfig poolConfig = new HikariConfig();
+        poolConfig.setPoolName("hibernate");
+        poolConfig.setDriverClassName("com.mysql.jdbc.Driver");
+        poolConfig.setJdbcUrl(databaseURL());
+        poolConfig.setUsername(config.get("hibernate.connection.username"));
+        poolConfig.setPassword(config.get("hibernate.connection.password"));
+        poolConfig.addDataSourceProperty("characterEncoding", "UTF-8");
+        poolConfig.addDataSourceProperty("useUnicode", "true");
+        poolConfig.setMinimumIdle(config.getInt("hibernate.pool.min.idle"));
+        poolConfig.setMaximumPoolSize(config.getInt("hibernate.pool.max.size"));
+        poolConfig.setConnectionTimeout(config.getInt("hibernate.pool.connection.timeout.millis"));
+        poolConfig.setIdleTimeout(config.getInt("hibernate.pool.idle.timeout.millis"));
+        poolConfig.setMaxLifetime(config.getInt("hibernate.pool.max.lifetime.millis"));
+        poolConfig.setLeakDetectionThreshold(config.getInt("hibernate.pool.leak.detection.threshold.millis"));
+        poolConfig.setMetricsTrackerFactory(poolMetrics);
+        return new HikariDataSource(poolConfig);
+    }
+
     @Bean
     @Autowired
-    public SessionFactory hibernateSessionFactory(TagEventListener listener) {
+    public SessionFactory hibernateSessionFactory(TagEventListener listener, ConnectionPoolMetrics poolMetrics) {
         ClassLoader classLoader = getClass().getClassLoader();
 
         // Need to set env vars to find the truststore so we can validate Amazon's RDS SSL certificate. Note that
@@ -624,28 +666,17 @@ public class SpringConfig {
 
         // Hibernate configs
         Properties props = new Properties();
-        props.put("hibernate.connection.characterEncoding", "UTF-8");
-        props.put("hibernate.connection.CharSet", "UTF-8");
-        props.put("hibernate.connection.useUnicode", true);
         props.put("hibernate.dialect", "org.hibernate.dialect.MySQLDialect");
 
-        // c3p0 connection pool properties
-        props.put("hibernate.c3p0.min_size", 5);
-        props.put("hibernate.c3p0.max_size", 20);
-        props.put("hibernate.c3p0.timeout", 300);
-        props.put("hibernate.c3p0.idle_test_period", 300);
-
-        // Connection properties come from Bridge configs
-        BridgeConfig config = bridgeConfig();
-        props.put("hibernate.connection.password", config.get("hibernate.connection.password"));
-        props.put("hibernate.connection.username", config.get("hibernate.connection.username"));
-        props.put("hibernate.connection.url", databaseURL());
+        // Connections come from the HikariCP pool, which is configured from Bridge configs
+        props.put("hibernate.connection.datasource", hibernateDataSource(poolMetrics));
 
         StandardServiceRegistry reg = new StandardServiceRegistryBuilder().applySettings(props).build();
         
         // For whatever reason, we need to list each Hibernate-enabled class individually.
         MetadataSources metadataSources = new MetadataSources(reg);
         metadataSources.addAnnotatedClass(HibernateAccount.class);
+        metadataSources.addAnnotatedClass(HibernateAccountSearchTerm.class);
         metadataSources.addAnnotatedClass(HibernateStudy.class);
         metadataSources.addAnnotatedClass(HibernateUploadTableJob.class);
         metadataSources.addAnnotatedClass(HibernateUploadTableRow.class);
@@ -674,6 +705,8 @@ public class SpringConfig {
         metadataSources.addAnnotatedClass(DemographicUser.class);
         metadataSources.addAnnotatedClass(DemographicValue.class);
         metadataSources.addAnnotatedClass(Alert.class);
+        metadataSources.addAnnotatedClass(OutboundMessage.class);
+        metadataSources.addAnnotatedClass(ParticipantVersionQueueEntry.class);
         
         SessionFactory factory = metadataSources.buildMetadata().buildSessionFactory();
         
@@ -683,6 +716,7 @@ public class SpringConfig {
         eventRegistry.appendListeners(SAVE_UPDATE, listener);
         eventRegistry.appendListeners(DELETE, listener);
         eventRegistry.appendListeners(MERGE, listener);
+        eventRegistry.appendListeners(PERSIST, listener);
         
         return factory;
     }
@@ -692,9 +726,9 @@ public class SpringConfig {
     public DataSource primaryDataSource() {
         BridgeConfig config = bridgeConfig();
         DriverManagerDataSource dataSource = new DriverManagerDataSource();
-        dataSource.setDriverClass("com.mysql.jdbc.Driver");
-        dataSource.setJdbcUrl(databaseURL());
-        dataSource.setUser(config.get("hibernate.connection.username"));
+        dataSource.setDriverClassName("com.mysql.jdbc.Driver");
+        dataSource.setUrl(databaseURL());
+        dataSource.setUsername(config.get("hibernate.connection.username"));
         dataSource.setPassword(config.get("hibernate.connection.password"));
         return dataSource;
     }
@@ -705,9 +739,9 @@ public class SpringConfig {
     public DataSource dataSource() {
         BridgeConfig config = bridgeConfig();
         DriverManagerDataSource dataSource = new DriverManagerDataSource();
-        dataSource.setDriverClass("com.mysql.jdbc.Driver");
-        dataSource.setJdbcUrl(databaseURL());
-        dataSource.setUser(config.get("hibernate.connection.username"));
+        dataSource.setDriverClassName("com.mysql.jdbc.Driver");
+        dataSource.setUrl(databaseURL());
+        dataSource.setUsername(config.get("hibernate.connection.username"));
         dataSource.setPassword(config.get("hibernate.connection.password"));
         return dataSource;
     }
@@ -67,4 +67,11 @@ public interface AccountDao {
             Integer offsetBy, Integer pageSize);
     
     void deleteAllAccounts(String appId);
+    
+    /**
+     * Rebuild the search terms of up to limit accounts that are queued for a search term backfill, and remove them 
+     * from the queue. Returns the number of accounts that were taken from the queue, which is zero once the queue 
+     * is empty.
+     */
+    int backfillSearchTerms(int limit);
 }    
@@ -1,5 +1,7 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.List;
+
 import org.sagebionetworks.bridge.models.AdherenceReportSearch;
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.schedules2.adherence.AdherenceStatistics;
@@ -9,9 +11,21 @@ public interface AdherenceReportDao {
 
     void saveWeeklyAdherenceReport(WeeklyAdherenceReport report);
     
+    /**
+     * Create or replace a set of weekly adherence reports (and their searchable labels) in batches. 
+     */
+    void saveWeeklyAdherenceReports(List<WeeklyAdherenceReport> reports);
+    
     PagedResourceList<WeeklyAdherenceReport> getWeeklyAdherenceReports(String appId, String studyId,
             AdherenceReportSearch search);
     
     AdherenceStatistics getAdherenceStatistics(String appId, String studyId, Integer adherenceThreshold);
     
+    /**
+     * Rebuild the search terms of up to limit reports that are queued for a search term backfill, and remove them 
+     * from the queue. Returns the number of reports that were taken from the queue, which is zero once the queue 
+     * is empty.
+     */
+    int backfillSearchTerms(int limit);
+    
 }
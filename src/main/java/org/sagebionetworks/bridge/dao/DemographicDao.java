@@ -1,5 +1,6 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.List;
 import java.util.Optional;
 
 import org.sagebionetworks.bridge.models.PagedResourceList;
@@ -74,6 +75,19 @@ public interface DemographicDao {
      */
     Optional<DemographicUser> getDemographicUser(String appId, String studyId, String userId);
 
+    /**
+     * Fetches the app-level DemographicUser and all study-level DemographicUsers
+     * for a user, with their demographics, in a single query.
+     * 
+     * @param appId  The appId of the app which contains the DemographicUsers to
+     *               fetch.
+     * @param userId The userId of the user who is associated with the
+     *               DemographicUsers to be fetched.
+     * @return the DemographicUsers for the user, or an empty list if there are
+     *         none. The app-level DemographicUser has a null studyId.
+     */
+    List<DemographicUser> getDemographicUsersForUser(String appId, String userId);
+
     /**
      * Fetches all app-level DemographicUsers for an app or all study-level
      * DemographicUsers for a study.
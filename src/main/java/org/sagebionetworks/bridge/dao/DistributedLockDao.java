@@ -4,12 +4,28 @@ package org.sagebionetworks.bridge.dao;
  * Lock on an identifier for any specific class of system objects 
  * (thought to make this BridgeEntity but that's not used systematically
  * at this point).
+ * 
+ * A lock is a lease: it expires if it is not released or renewed before its expiration. The lock 
+ * string returned when a lock is acquired identifies the holder, and starts with a fencing token 
+ * that increases with every acquisition across the cluster, so a holder whose lease expired can 
+ * be told apart from the holder that replaced it.
  */
 public interface DistributedLockDao {
 
+    /** Acquires the lock, returning the lock string, or null if another caller holds the lock. */
     String acquireLock(Class<?> clazz, String identifier);
 
+    /** Acquires the lock, returning the lock string, or null if another caller holds the lock. */
     String acquireLock(Class<?> clazz, String identifier, int expireInSeconds);
 
+    /** Extends the lease. Returns false if the lock is no longer held by this lock string. */
+    boolean renewLock(Class<?> clazz, String identifier, String lock, int expireInSeconds);
+
+    /** Releases the lock. Returns false if the lock is no longer held by this lock string. */
     boolean releaseLock(Class<?> clazz, String identifier, String lock);
+    
+    /** The fencing token of a lock string returned by acquireLock. */
+    static long getFencingToken(String lock) {
+        return Long.parseLong(lock.substring(0, lock.indexOf(':')));
+    }
 }
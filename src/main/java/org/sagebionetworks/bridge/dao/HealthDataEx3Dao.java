@@ -1,5 +1,6 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.List;
 import java.util.Optional;
 
 import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
@@ -19,6 +20,9 @@ public interface HealthDataEx3Dao {
     /** Retrieves the record for the given ID. */
     Optional<HealthDataRecordEx3> getRecord(String id);
 
+    /** Retrieves the records for the given IDs, in no particular order. IDs with no record are skipped. */
+    List<HealthDataRecordEx3> getRecords(List<String> ids);
+
     /** Retrieves all records for the given healthcode and time range. */
     ForwardCursorPagedResourceList<HealthDataRecordEx3> getRecordsForHealthCode(String healthCode, long createdOnStart,
             long createdOnEnd, int pageSize, String offsetKey);
@@ -0,0 +1,40 @@
+package org.sagebionetworks.bridge.dao;
+
+import java.util.List;
+import java.util.Set;
+
+import org.sagebionetworks.bridge.models.OutboundMessage;
+import org.sagebionetworks.bridge.models.OutboundMessage.Channel;
+import org.sagebionetworks.bridge.models.OutboundMessage.Status;
+
+/** The outbox of email and SMS messages waiting to be sent, shared by all servers. */
+public interface OutboundMessageDao {
+
+    /** Adds a message to the outbox. */
+    void createMessage(OutboundMessage message);
+
+    /**
+     * Claims up to the given number of pending messages of the channel that are due at the given time and are not
+     * claimed by another server, oldest first, and returns them. The claim lasts until claimedUntil.
+     */
+    List<OutboundMessage> claimMessages(Channel channel, long now, long claimedUntil, int limit);
+
+    /**
+     * Saves the attempts, schedule, status and last error of a message that is claimed with the given token, and
+     * releases the claim. Returns false, and saves nothing, if the message is no longer claimed with the token
+     * (the claim ran out, and another server has claimed the message since).
+     */
+    boolean updateMessage(OutboundMessage message, String claimToken);
+
+    /** Removes a message that has been sent. */
+    void deleteMessage(String id);
+
+    /** Removes every message, in any state, that was created before the given time. Returns the number removed. */
+    int deleteMessagesCreatedBefore(long createdOn);
+
+    /** Removes every message, in any state, of the app that is addressed to one of the given recipients. */
+    void deleteMessagesForRecipients(String appId, Set<String> recipients);
+
+    /** The number of messages of the channel with the given status, on all servers. */
+    int countMessages(Channel channel, Status status);
+}
@@ -18,6 +18,12 @@ public interface ParticipantVersionDao {
     /** Retrieves the latest participant version for health code. */
     Optional<ParticipantVersion> getLatestParticipantVersionForHealthCode(String appId, String healthCode);
 
+    /**
+     * Retrieves only the version number of the latest participant version for health code. This is cheaper than
+     * reading the whole latest version when only the number is needed.
+     */
+    Optional<Integer> getLatestParticipantVersionNumber(String appId, String healthCode);
+
     /** Retrieves the participant version. */
     Optional<ParticipantVersion> getParticipantVersion(String appId, String healthCode, int participantVersion);
 }
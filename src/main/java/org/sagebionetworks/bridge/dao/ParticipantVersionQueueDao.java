@@ -0,0 +1,42 @@
+package org.sagebionetworks.bridge.dao;
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.sagebionetworks.bridge.models.ParticipantVersionQueueEntry;
+
+/** The participant versions waiting to be written and exported, shared by all servers. */
+public interface ParticipantVersionQueueDao {
+
+    /**
+     * Adds an entry for the participant, due at the given time. If the participant already has an entry, its payload
+     * is replaced, its revision is incremented and its failed attempts are cleared, but it keeps its due time. Returns
+     * true if an existing entry was replaced.
+     */
+    boolean enqueue(String appId, String healthCode, JsonNode payload, long nextAttemptOn);
+
+    /** The apps that have entries due at the given time. */
+    List<String> getAppIdsWithDueEntries(long now);
+
+    /** Returns up to the given number of the app's entries that are due at the given time, earliest first. */
+    List<ParticipantVersionQueueEntry> getDueEntries(String appId, long now, int limit);
+
+    /**
+     * Saves the attempts, due time and written version of an entry. If the entry's payload was replaced since it was
+     * read, only the written version is saved.
+     */
+    void updateEntry(ParticipantVersionQueueEntry entry);
+
+    /**
+     * Removes an entry, unless its payload was replaced since it was read. Returns false, and removes nothing, if the
+     * payload was replaced.
+     */
+    boolean deleteEntry(ParticipantVersionQueueEntry entry);
+
+    /** Removes the participant's entry, if there is one. */
+    void deleteEntry(String appId, String healthCode);
+
+    /** The number of entries, on all servers. */
+    int countEntries();
+}
@@ -0,0 +1,14 @@
+package org.sagebionetworks.bridge.dao;
+
+/**
+ * A rate limit shared by all servers, counted in one-second windows. Used to keep the cluster as a whole under a
+ * quota, such as the AWS sending quota for email and SMS.
+ */
+public interface RateLimitDao {
+
+    /**
+     * Takes a permit from the named limit for the current second. Returns 0 if a permit was taken, or the number of
+     * milliseconds until the next second, when the caller can try again, if the second's permits are used up.
+     */
+    long tryAcquire(String name, int permitsPerSecond);
+}
@@ -1,5 +1,7 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.List;
+
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 
@@ -22,6 +24,13 @@ public interface ReportDataDao {
      */
     DateRangeResourceList<? extends ReportData> getReportData(ReportDataKey key, LocalDate startDate, LocalDate endDate);
 
+    /**
+     * Get report data records for the given date range, loading them from the backing store one page at a time as 
+     * the returned iterable is iterated, so only the current page is held in memory. The iterable can only be 
+     * iterated once.
+     */
+    Iterable<? extends ReportData> streamReportData(ReportDataKey key, LocalDate startDate, LocalDate endDate);
+
     /**
      * Get report data in a given date range, with paging. Since individual records in this API can 
      * be returned with DateTime range keys, paging must be introduced over earlier versions of this 
@@ -38,6 +47,13 @@ public interface ReportDataDao {
      */
     void saveReportData(ReportData reportData);
     
+    /**
+     * Writes a list of report data records to the backing store, in as few requests as the store allows. Records 
+     * are written in batches, so if this throws an exception, some of the records may have been saved. Saving a 
+     * record again overwrites it, so the whole list can be saved again.
+     */
+    void saveReportDataBatch(List<ReportData> reportDataList);
+    
     /***
      * Delete all records regardless of date for a report. This can be used as part of testing, 
      * and in development, but there will be too many records in production to do a deletion.
@@ -52,4 +68,10 @@ public interface ReportDataDao {
      * DateTime value expressed as a string 
      */
     void deleteReportDataRecord(ReportDataKey key, String dateValue);
+    
+    /**
+     * Delete the records in a report with the given date values, in as few requests as the store allows. Dates 
+     * without a record are ignored.
+     */
+    void deleteReportDataRecords(ReportDataKey key, List<String> dateValues);
 }
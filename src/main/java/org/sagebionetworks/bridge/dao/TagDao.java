@@ -1,11 +1,11 @@
 package org.sagebionetworks.bridge.dao;
 
 import java.util.List;
-import java.util.Map;
 
 public interface TagDao {
     
-    public Map<String, List<String>> getTags();
+    /** The values of all tags, including their category prefixes. */
+    public List<String> getTagValues();
     
     public void addTag(String tag);
     
@@ -80,6 +80,14 @@ public interface UploadDao {
     void writeValidationStatus(@Nonnull Upload upload, @Nonnull UploadStatus status,
             @Nonnull List<String> validationMessageList, String recordId);
     
+    /**
+     * Get the IDs of all the upload records for a given health code.
+     * @param healthCode
+     *      the health code of the user whose uploads are listed.
+     * @return a list of upload IDs
+     */
+    List<String> getUploadIdsForHealthCode(@Nonnull String healthCode);
+    
     /**
      * Delete all the upload records for a given health code. This is used to clean up records when a user is deleted, 
      * typically as part of testing. 
@@ -1,7 +1,10 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.upload.UploadTableRow;
 import org.sagebionetworks.bridge.upload.UploadTableRowQuery;
@@ -17,6 +20,22 @@ public interface UploadTableRowDao {
     /** Query for upload table rows. */
     PagedResourceList<UploadTableRow> queryUploadTableRows(UploadTableRowQuery query);
 
+    /**
+     * Query for upload table rows in (createdOn, recordId) order, starting after the query's offset key. The total is
+     * only counted if the query asks for it.
+     */
+    ForwardCursorPagedResourceList<UploadTableRow> queryUploadTableRowsByCursor(UploadTableRowQuery query);
+
+    /**
+     * Pass every upload table row that matches the query to the consumer, in (assessmentGuid, createdOn, recordId)
+     * order. Rows are streamed from the database as they are consumed, so the number of rows held in memory doesn't
+     * depend on the number of rows in the study. Paging parameters are ignored.
+     */
+    void streamUploadTableRows(UploadTableRowQuery query, Consumer<UploadTableRow> consumer);
+
     /** Create a new upload table row, or overwrite it if the row already exists. */
     void saveUploadTableRow(UploadTableRow row);
+
+    /** Create or overwrite a list of upload table rows in batches. */
+    void saveUploadTableRows(List<UploadTableRow> rows);
 }
@@ -15,15 +15,14 @@ import org.sagebionetworks.bridge.dao.ActivityEventDao;
 import org.sagebionetworks.bridge.models.activities.ActivityEvent;
 import org.sagebionetworks.bridge.models.activities.ActivityEventType;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMap.Builder;
-import com.google.common.collect.Lists;
 
 @Component
 public class DynamoActivityEventDao implements ActivityEventDao {
@@ -31,12 +30,18 @@ public class DynamoActivityEventDao implements ActivityEventDao {
     private static final String ANSWERED_EVENT_POSTFIX = ":"+ActivityEventType.ANSWERED.name().toLowerCase();
     
     private DynamoDBMapper mapper;
+    private DynamoPageReader pageReader;
 
     @Resource(name = "activityEventDdbMapper")
     public final void setDdbMapper(DynamoDBMapper mapper) {
         this.mapper = mapper;
     }
 
+    @Autowired
+    final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
+
     @Override
     public boolean deleteCustomEvent(ActivityEvent event) {
         checkNotNull(event);
@@ -78,7 +83,8 @@ public class DynamoActivityEventDao implements ActivityEventDao {
         DynamoDBQueryExpression<DynamoActivityEvent> query = new DynamoDBQueryExpression<DynamoActivityEvent>()
             .withHashKeyValues(hashKey);
 
-        PaginatedQueryList<DynamoActivityEvent> queryResults = mapper.query(DynamoActivityEvent.class, query);
+        List<DynamoActivityEvent> queryResults = pageReader.queryAll(mapper, DynamoActivityEvent.class, query,
+                "DynamoActivityEventDao.getActivityEventMap");
         
         Builder<String,DateTime> builder = ImmutableMap.<String,DateTime>builder();
         for (DynamoActivityEvent event : queryResults) {
@@ -96,10 +102,8 @@ public class DynamoActivityEventDao implements ActivityEventDao {
         DynamoDBQueryExpression<DynamoActivityEvent> query = new DynamoDBQueryExpression<DynamoActivityEvent>()
             .withHashKeyValues(hashKey);
 
-        PaginatedQueryList<DynamoActivityEvent> queryResults = mapper.query(DynamoActivityEvent.class, query);
-        
-        List<DynamoActivityEvent> objectsToDelete = Lists.newArrayList();
-        objectsToDelete.addAll(queryResults);
+        List<DynamoActivityEvent> objectsToDelete = pageReader.queryAll(mapper, DynamoActivityEvent.class, query,
+                "DynamoActivityEventDao.deleteActivityEvents");
         
         if (!objectsToDelete.isEmpty()) {
             List<FailedBatch> failures = mapper.batchDelete(objectsToDelete);
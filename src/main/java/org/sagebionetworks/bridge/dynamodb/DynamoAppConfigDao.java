@@ -16,7 +16,6 @@ import org.springframework.stereotype.Component;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
@@ -26,12 +25,18 @@ import com.google.common.collect.Lists;
 public class DynamoAppConfigDao implements AppConfigDao {
 
     private DynamoDBMapper mapper;
+    private DynamoPageReader pageReader;
     private CriteriaDao criteriaDao;
     
     @Resource(name = "appConfigDdbMapper")
     final void setMapper(DynamoDBMapper mapper) {
         this.mapper = mapper;
     }
+
+    @Autowired
+    final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
     
     @Autowired
     final void setCriteriaDao(CriteriaDao criteriaDao) {
@@ -66,7 +71,8 @@ public class DynamoAppConfigDao implements AppConfigDao {
                 .withComparisonOperator(ComparisonOperator.NE)
                 .withAttributeValueList(new AttributeValue().withN("1")));
         }
-        PaginatedQueryList<DynamoAppConfig> results = mapper.query(DynamoAppConfig.class, query);
+        List<DynamoAppConfig> results = pageReader.queryAll(mapper, DynamoAppConfig.class, query,
+                "DynamoAppConfigDao.getAppConfigs");
         
         List<AppConfig> list = Lists.newArrayListWithCapacity(results.size());
         for (DynamoAppConfig appConfig : results) {
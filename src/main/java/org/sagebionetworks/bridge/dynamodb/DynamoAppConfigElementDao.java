@@ -4,7 +4,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import javax.annotation.Resource;
 
@@ -13,15 +12,16 @@ import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
 import org.sagebionetworks.bridge.models.VersionHolder;
 import org.sagebionetworks.bridge.models.appconfig.AppConfigElement;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
@@ -30,11 +30,17 @@ public class DynamoAppConfigElementDao implements AppConfigElementDao {
     static final String STUDY_ID_INDEX_NAME = "studyId-index";
     
     private DynamoDBMapper mapper;
+    private DynamoPageReader pageReader;
     
     @Resource(name = "appConfigElementDdbMapper")
     final void setMapper(DynamoDBMapper mapper) {
         this.mapper = mapper;
     }
+
+    @Autowired
+    final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
     
     @Override
     public List<AppConfigElement> getMostRecentElements(String appId, boolean includeDeleted) {
@@ -47,7 +53,8 @@ public class DynamoAppConfigElementDao implements AppConfigElementDao {
                 .withConsistentRead(false)
                 .withScanIndexForward(false);
         
-        List<DynamoAppConfigElement> elementIndices = mapper.query(DynamoAppConfigElement.class, query);
+        List<DynamoAppConfigElement> elementIndices = pageReader.queryAll(mapper, DynamoAppConfigElement.class, query,
+                "DynamoAppConfigElementDao.getMostRecentElements");
         
         Map<String,AppConfigElement> versionMap = Maps.newHashMap();
         
@@ -88,9 +95,10 @@ public class DynamoAppConfigElementDao implements AppConfigElementDao {
         query.setScanIndexForward(false);
         query.setLimit(1);
         
-        PaginatedQueryList<DynamoAppConfigElement> results = mapper.query(DynamoAppConfigElement.class, query);
-        
-        return (results.isEmpty()) ? null : results.get(0);
+        // The limit applies before the deleted filter, so the first page can be empty when the most recent revision
+        // is deleted. Read pages until there's a revision that isn't.
+        return pageReader.queryFirst(mapper, DynamoAppConfigElement.class, query,
+                "DynamoAppConfigElementDao.getMostRecentElement");
     }
 
     @Override
@@ -105,9 +113,10 @@ public class DynamoAppConfigElementDao implements AppConfigElementDao {
         if (!includeDeleted) {
             excludeDeleted(query);
         }
-        PaginatedQueryList<DynamoAppConfigElement> results = mapper.query(DynamoAppConfigElement.class, query);
+        List<DynamoAppConfigElement> results = pageReader.queryAll(mapper, DynamoAppConfigElement.class, query,
+                "DynamoAppConfigElementDao.getElementRevisions");
         
-        return results.stream().collect(Collectors.toList());
+        return ImmutableList.copyOf(results);
     }
     
     private void excludeDeleted(DynamoDBQueryExpression<DynamoAppConfigElement> query) {
@@ -7,6 +7,7 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.google.common.collect.ImmutableList;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.BridgeUtils;
@@ -19,6 +20,7 @@ import org.sagebionetworks.bridge.models.schedules.CompoundActivityDefinition;
 @Component
 public class DynamoCompoundActivityDefinitionDao implements CompoundActivityDefinitionDao {
     private DynamoDBMapper mapper;
+    private DynamoPageReader pageReader;
 
     /** DDB mapper, configured by Spring. */
     @Resource(name = "compoundActivityDefinitionDdbMapper")
@@ -26,6 +28,11 @@ public class DynamoCompoundActivityDefinitionDao implements CompoundActivityDefi
         this.mapper = mapper;
     }
 
+    @Autowired
+    final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
+
     /** {@inheritDoc} */
     @Override
     public CompoundActivityDefinition createCompoundActivityDefinition(
@@ -93,9 +100,8 @@ public class DynamoCompoundActivityDefinitionDao implements CompoundActivityDefi
                 new DynamoDBQueryExpression<DynamoCompoundActivityDefinition>().withHashKeyValues(ddbHashKey);
 
         // execute query
-        List<DynamoCompoundActivityDefinition> defList = mapper.query(DynamoCompoundActivityDefinition.class,
-                ddbQueryExpr);
-        return defList;
+        return pageReader.queryAll(mapper, DynamoCompoundActivityDefinition.class, ddbQueryExpr,
+                "DynamoCompoundActivityDefinitionDao.getAllHelper");
     }
 
     /** {@inheritDoc} */
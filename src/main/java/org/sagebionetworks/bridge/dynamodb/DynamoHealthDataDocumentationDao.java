@@ -11,6 +11,7 @@ import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.dao.HealthDataDocumentationDao;
 import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.HealthDataDocumentation;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nonnull;
@@ -20,6 +21,7 @@ import java.util.List;
 @Component
 public class DynamoHealthDataDocumentationDao implements HealthDataDocumentationDao {
     private DynamoDBMapper mapper;
+    private DynamoPageReader pageReader;
 
     /** DynamoDB mapper for the HealthDataDocumentation table, configured by Spring. */
     @Resource(name = "healthDataDocumentationDbMapper")
@@ -27,6 +29,11 @@ public class DynamoHealthDataDocumentationDao implements HealthDataDocumentation
         this.mapper = mapper;
     }
 
+    @Autowired
+    final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
+
     /** {@inheritDoc} */
     @Override
     public HealthDataDocumentation createOrUpdateDocumentation(@Nonnull HealthDataDocumentation documentation) {
@@ -115,6 +122,7 @@ public class DynamoHealthDataDocumentationDao implements HealthDataDocumentation
     }
 
     List<DynamoHealthDataDocumentation> queryHelper(DynamoDBQueryExpression<DynamoHealthDataDocumentation> query) {
-        return mapper.query(DynamoHealthDataDocumentation.class, query);
+        return pageReader.queryAll(mapper, DynamoHealthDataDocumentation.class, query,
+                "DynamoHealthDataDocumentationDao.queryHelper");
     }
 }
\ No newline at end of file
@@ -1,16 +1,21 @@
 package org.sagebionetworks.bridge.dynamodb;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import javax.annotation.Resource;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
 import com.google.common.collect.ImmutableList;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.BridgeUtils;
@@ -21,13 +26,28 @@ import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordEx3;
 
 @Component
 public class DynamoHealthDataEx3Dao implements HealthDataEx3Dao {
+    static final String OFFSET_KEY_SEPARATOR = ":";
+
+    // Attribute names of the table and index keys, for building the exclusive start key of a page.
+    private static final String ID = "id";
+    private static final String APP_ID = "appId";
+    private static final String APP_STUDY_KEY = "appStudyKey";
+    private static final String HEALTH_CODE = "healthCode";
+    private static final String CREATED_ON = "createdOn";
+
     private DynamoDBMapper mapper;
+    private DynamoPageReader pageReader;
 
     @Resource(name = "healthDataEx3DdbMapper")
     public final void setMapper(DynamoDBMapper mapper) {
         this.mapper = mapper;
     }
 
+    @Autowired
+    public final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
+
     @Override
     public HealthDataRecordEx3 createOrUpdateRecord(HealthDataRecordEx3 record) {
         DynamoHealthDataRecordEx3 dynamoRecord = (DynamoHealthDataRecordEx3) record;
@@ -65,6 +85,30 @@ public class DynamoHealthDataEx3Dao implements HealthDataEx3Dao {
         return Optional.ofNullable(mapper.load(DynamoHealthDataRecordEx3.class, id));
     }
 
+    @Override
+    public List<HealthDataRecordEx3> getRecords(List<String> ids) {
+        if (ids.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        List<Object> keyList = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            DynamoHealthDataRecordEx3 key = new DynamoHealthDataRecordEx3();
+            key.setId(id);
+            keyList.add(key);
+        }
+
+        // batchLoad() splits the keys into as many batch gets as it needs, and returns the results in a map by table.
+        List<HealthDataRecordEx3> recordList = new ArrayList<>(ids.size());
+        Map<String, List<Object>> resultMap = mapper.batchLoad(keyList);
+        for (List<Object> resultList : resultMap.values()) {
+            for (Object oneResult : resultList) {
+                recordList.add((HealthDataRecordEx3) oneResult);
+            }
+        }
+        return recordList;
+    }
+
     @Override
     public ForwardCursorPagedResourceList<HealthDataRecordEx3> getRecordsForHealthCode(String healthCode,
             long createdOnStart, long createdOnEnd, int pageSize, String offsetKey) {
@@ -75,7 +119,8 @@ public class DynamoHealthDataEx3Dao implements HealthDataEx3Dao {
         // Query.
         DynamoDBQueryExpression<DynamoHealthDataRecordEx3> query = new DynamoDBQueryExpression<DynamoHealthDataRecordEx3>()
                 .withIndexName(DynamoHealthDataRecordEx3.HEALTHCODE_CREATEDON_INDEX).withHashKeyValues(key);
-        return pagingHelper(query, createdOnStart, createdOnEnd, pageSize, offsetKey);
+        return pagingHelper(query, HEALTH_CODE, healthCode, createdOnStart, createdOnEnd, pageSize, offsetKey,
+                "DynamoHealthDataEx3Dao.getRecordsForHealthCode");
     }
 
     @Override
@@ -88,7 +133,8 @@ public class DynamoHealthDataEx3Dao implements HealthDataEx3Dao {
         // Query.
         DynamoDBQueryExpression<DynamoHealthDataRecordEx3> query = new DynamoDBQueryExpression<DynamoHealthDataRecordEx3>()
                 .withIndexName(DynamoHealthDataRecordEx3.APPID_CREATEDON_INDEX).withHashKeyValues(key);
-        return pagingHelper(query, createdOnStart, createdOnEnd, pageSize, offsetKey);
+        return pagingHelper(query, APP_ID, appId, createdOnStart, createdOnEnd, pageSize, offsetKey,
+                "DynamoHealthDataEx3Dao.getRecordsForApp");
     }
 
     @Override
@@ -102,56 +148,93 @@ public class DynamoHealthDataEx3Dao implements HealthDataEx3Dao {
         // Query.
         DynamoDBQueryExpression<DynamoHealthDataRecordEx3> query = new DynamoDBQueryExpression<DynamoHealthDataRecordEx3>()
                 .withIndexName(DynamoHealthDataRecordEx3.APPSTUDYKEY_CREATEDON_INDEX).withHashKeyValues(key);
-        return pagingHelper(query, createdOnStart, createdOnEnd, pageSize, offsetKey);
+        return pagingHelper(query, APP_STUDY_KEY, key.getAppStudyKey(), createdOnStart, createdOnEnd, pageSize,
+                offsetKey, "DynamoHealthDataEx3Dao.getRecordsForAppAndStudy");
     }
 
+    // Reads a single DynamoDB page. (mapper.query() returns a list that fetches every remaining page in the range as
+    // it's iterated, so the limit would only set the size of each page, not the number of records read.)
+    //
+    // The offsetKey is the createdOn and ID of the last record returned, which is the index's LastEvaluatedKey, so
+    // records that share a createdOn are not skipped or repeated across pages. An offsetKey that is only a createdOn
+    // (the format of earlier versions of this API) is still accepted, and starts the page at that createdOn.
     private ForwardCursorPagedResourceList<HealthDataRecordEx3> pagingHelper(
-            DynamoDBQueryExpression<DynamoHealthDataRecordEx3> query, long createdOnStart, long createdOnEnd,
-            int pageSize, String offsetKey) {
-        // offsetKey is a long epoch milliseconds using the createdOn index. The real createdOnStart is whichever is
-        // the larger of the two.
+            DynamoDBQueryExpression<DynamoHealthDataRecordEx3> query, String hashKeyName, String hashKeyValue,
+            long createdOnStart, long createdOnEnd, int pageSize, String offsetKey, String operation) {
         long indexStart = createdOnStart;
         if (offsetKey != null) {
-            long offsetKeyMillis;
-            try {
-                offsetKeyMillis = Long.parseLong(offsetKey);
-            } catch (NumberFormatException ex) {
-                throw new BadRequestException("Invalid offsetKey " + offsetKey);
+            int separatorIndex = offsetKey.indexOf(OFFSET_KEY_SEPARATOR);
+            if (separatorIndex < 0) {
+                indexStart = Math.max(createdOnStart, parseCreatedOn(offsetKey, offsetKey));
+            } else {
+                long offsetCreatedOn = parseCreatedOn(offsetKey.substring(0, separatorIndex), offsetKey);
+                String offsetId = offsetKey.substring(separatorIndex + 1);
+                if (offsetCreatedOn > createdOnEnd) {
+                    // The range has been read to the end.
+                    return new ForwardCursorPagedResourceList<>(ImmutableList.of(), null);
+                }
+                // DynamoDB rejects a start key outside of the range condition, so an offsetKey from before the start
+                // of the range starts at the beginning of the range.
+                if (offsetCreatedOn >= createdOnStart) {
+                    Map<String, AttributeValue> exclusiveStartKey = new HashMap<>();
+                    exclusiveStartKey.put(ID, new AttributeValue().withS(offsetId));
+                    exclusiveStartKey.put(hashKeyName, new AttributeValue().withS(hashKeyValue));
+                    exclusiveStartKey.put(CREATED_ON, new AttributeValue().withN(String.valueOf(offsetCreatedOn)));
+                    query.withExclusiveStartKey(exclusiveStartKey);
+                }
             }
-            indexStart = Math.max(createdOnStart, offsetKeyMillis);
         }
 
         // Range key.
         Condition rangeKeyCondition = new Condition().withComparisonOperator(ComparisonOperator.BETWEEN)
                 .withAttributeValueList(new AttributeValue().withN(String.valueOf(indexStart)),
                         new AttributeValue().withN(String.valueOf(createdOnEnd)));
-        query.withRangeKeyCondition("createdOn", rangeKeyCondition);
+        query.withRangeKeyCondition(CREATED_ON, rangeKeyCondition);
 
-        // Limit is pageSize+1 so we can calculate the nextOffsetKey.
+        // Limit is pageSize+1 so we can tell if this is the last page without reading an empty page after it.
         query.setLimit(pageSize+1);
 
         // Can't do consistent reads with global secondary indices.
         query.setConsistentRead(false);
 
         // Query. Results should be sorted by createdOn, since this is the dynamo range key.
-        List<DynamoHealthDataRecordEx3> dynamoRecordList = queryHelper(query);
+        QueryResultPage<DynamoHealthDataRecordEx3> page = queryPageHelper(query, operation);
 
         // Copy the list, because of generic typing reasons.
-        List<HealthDataRecordEx3> recordList = ImmutableList.copyOf(dynamoRecordList);
+        List<HealthDataRecordEx3> recordList = ImmutableList.copyOf(page.getResults());
 
-        // Calculate the nextOffsetKey, if present. We'll know there's a next page if more than pageSize entries is
-        // returned.
+        // Calculate the nextOffsetKey, if present. There's a next page if more than pageSize entries are returned, or
+        // if DynamoDB stopped short of the limit (it returns at most 1MB per page).
         String nextOffsetKey = null;
         if (recordList.size() > pageSize) {
-            nextOffsetKey = String.valueOf(recordList.get(pageSize).getCreatedOn());
             recordList = recordList.subList(0, pageSize);
+            HealthDataRecordEx3 lastRecord = recordList.get(pageSize - 1);
+            nextOffsetKey = lastRecord.getCreatedOn() + OFFSET_KEY_SEPARATOR + lastRecord.getId();
+        } else if (page.getLastEvaluatedKey() != null) {
+            Map<String, AttributeValue> lastEvaluatedKey = page.getLastEvaluatedKey();
+            nextOffsetKey = lastEvaluatedKey.get(CREATED_ON).getN() + OFFSET_KEY_SEPARATOR +
+                    lastEvaluatedKey.get(ID).getS();
         }
 
         return new ForwardCursorPagedResourceList<>(recordList, nextOffsetKey);
     }
 
-    // Helper method that wraps around mapper.query(). Because of typing issues, mapper.query() is hard to mock.
+    private static long parseCreatedOn(String value, String offsetKey) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            throw new BadRequestException("Invalid offsetKey " + offsetKey);
+        }
+    }
+
+    // Helper methods that wrap around the page reader. Because of typing issues, queries are hard to mock.
+    QueryResultPage<DynamoHealthDataRecordEx3> queryPageHelper(
+            DynamoDBQueryExpression<DynamoHealthDataRecordEx3> query, String operation) {
+        return pageReader.queryPage(mapper, DynamoHealthDataRecordEx3.class, query, operation);
+    }
+
     List<DynamoHealthDataRecordEx3> queryHelper(DynamoDBQueryExpression<DynamoHealthDataRecordEx3> query) {
-        return mapper.query(DynamoHealthDataRecordEx3.class, query);
+        return pageReader.queryAll(mapper, DynamoHealthDataRecordEx3.class, query,
+                "DynamoHealthDataEx3Dao.deleteRecordsForHealthCode");
     }
 }
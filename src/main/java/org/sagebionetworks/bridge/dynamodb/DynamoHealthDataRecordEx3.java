@@ -41,6 +41,7 @@ public class DynamoHealthDataRecordEx3 implements HealthDataRecordEx3 {
     private Map<String, String> metadata;
     private SharingScope sharingScope;
     private String userAgent;
+    private String rawS3Key;
     private Long version;
     private String downloadUrl;
     private long downloadExpiration;
@@ -233,6 +234,18 @@ public class DynamoHealthDataRecordEx3 implements HealthDataRecordEx3 {
         this.userAgent = userAgent;
     }
 
+    /** Internal to the server. Participants and the worker get download URLs instead. */
+    @JsonIgnore
+    @Override
+    public String getRawS3Key() {
+        return rawS3Key;
+    }
+
+    @Override
+    public void setRawS3Key(String rawS3Key) {
+        this.rawS3Key = rawS3Key;
+    }
+
     @DynamoDBVersionAttribute
     @Override
     public Long getVersion() {
@@ -2,12 +2,13 @@ package org.sagebionetworks.bridge.dynamodb;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import javax.annotation.Resource;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.BridgeUtils;
@@ -38,6 +39,7 @@ public class DynamoNotificationRegistrationDao implements NotificationRegistrati
     private static final String TOKEN = "Token";
 
     private DynamoDBMapper mapper;
+    private DynamoPageReader pageReader;
     
     private AmazonSNS snsClient;
     
@@ -45,13 +47,17 @@ public class DynamoNotificationRegistrationDao implements NotificationRegistrati
     final void setNotificationRegistrationMapper(DynamoDBMapper mapper) {
         this.mapper = mapper;
     }
+
+    @Autowired
+    final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
     
     @Resource(name = "snsClient")
     final void setSnsClient(AmazonSNS snsClient) {
         this.snsClient = snsClient;
     }
 
-    @SuppressWarnings("SimplifyStreamApiCallChains")
     @Override
     public List<NotificationRegistration> listRegistrations(String healthCode) {
         checkNotNull(healthCode);
@@ -62,10 +68,10 @@ public class DynamoNotificationRegistrationDao implements NotificationRegistrati
         DynamoDBQueryExpression<DynamoNotificationRegistration> query =
                 new DynamoDBQueryExpression<DynamoNotificationRegistration>().withHashKeyValues(hashKey);
 
-        // This will force all records to be loaded if there's more than a page, in any non-pathological 
-        // account there will be half a dozen, tops
-        return mapper.query(DynamoNotificationRegistration.class, query)
-                .stream().collect(Collectors.toList());
+        // This loads all records if there's more than a page, in any non-pathological account there will be half a
+        // dozen, tops
+        return new ArrayList<>(pageReader.queryAll(mapper, DynamoNotificationRegistration.class, query,
+                "DynamoNotificationRegistrationDao.listRegistrations"));
     }
 
     @Override
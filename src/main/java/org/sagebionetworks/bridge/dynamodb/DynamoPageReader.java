@@ -0,0 +1,142 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.models.DynamoQueryStatus;
+
+/**
+ * Reads DynamoDB query results one page at a time. mapper.query() returns a PaginatedQueryList, which reads further
+ * pages as the list is iterated (or in full, if the list's size is taken), so the number of pages a DAO method reads
+ * is hidden in the caller's iteration. Every page read here is an explicit request, and the pages, items and read
+ * capacity consumed are counted for the DAO method (the "operation") that made the query.
+ */
+@Component
+public class DynamoPageReader {
+
+    // Counters for one operation.
+    private static final class OperationStats {
+        private final AtomicLong callCount = new AtomicLong();
+        private final AtomicLong pageCount = new AtomicLong();
+        private final AtomicLong itemCount = new AtomicLong();
+        private final DoubleAdder consumedCapacityUnits = new DoubleAdder();
+        private final LongAccumulator maxPagesPerCall = new LongAccumulator(Long::max, 0L);
+    }
+
+    private final ConcurrentMap<String, OperationStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * Reads a single page of the query, starting at the query's exclusive start key. The query's limit, if any, is
+     * the maximum number of items evaluated for the page.
+     */
+    public <T> QueryResultPage<T> queryPage(DynamoDBMapper mapper, Class<T> clazz, DynamoDBQueryExpression<T> query,
+            String operation) {
+        OperationStats operationStats = getStats(operation);
+        operationStats.callCount.incrementAndGet();
+        operationStats.maxPagesPerCall.accumulate(1L);
+        return readPage(mapper, clazz, query, operationStats);
+    }
+
+    /**
+     * Reads every page of the query and returns all of the results. This is for queries whose callers need the whole
+     * result set, such as all the revisions of one item; the pages are counted so that unexpectedly large reads show
+     * up in the operation's metrics. The query's exclusive start key is modified as the pages are read.
+     */
+    public <T> List<T> queryAll(DynamoDBMapper mapper, Class<T> clazz, DynamoDBQueryExpression<T> query,
+            String operation) {
+        OperationStats operationStats = getStats(operation);
+        operationStats.callCount.incrementAndGet();
+        List<T> results = new ArrayList<>();
+        long pages = 0;
+        Map<String, AttributeValue> lastEvaluatedKey;
+        do {
+            QueryResultPage<T> page = readPage(mapper, clazz, query, operationStats);
+            pages++;
+            results.addAll(page.getResults());
+            lastEvaluatedKey = page.getLastEvaluatedKey();
+            query.setExclusiveStartKey(lastEvaluatedKey);
+        } while (lastEvaluatedKey != null);
+        operationStats.maxPagesPerCall.accumulate(pages);
+        return results;
+    }
+
+    /**
+     * Returns the first result of the query, or null if there are no results. A page can be empty and still have a
+     * next page when the query has a filter (the limit applies before the filter), so pages are read until one has a
+     * result or there are no more pages. The query's exclusive start key is modified as the pages are read.
+     */
+    public <T> T queryFirst(DynamoDBMapper mapper, Class<T> clazz, DynamoDBQueryExpression<T> query,
+            String operation) {
+        OperationStats operationStats = getStats(operation);
+        operationStats.callCount.incrementAndGet();
+        long pages = 0;
+        try {
+            while (true) {
+                QueryResultPage<T> page = readPage(mapper, clazz, query, operationStats);
+                pages++;
+                if (!page.getResults().isEmpty()) {
+                    return page.getResults().get(0);
+                }
+                if (page.getLastEvaluatedKey() == null) {
+                    return null;
+                }
+                query.setExclusiveStartKey(page.getLastEvaluatedKey());
+            }
+        } finally {
+            operationStats.maxPagesPerCall.accumulate(pages);
+        }
+    }
+
+    /** Returns the counters for each operation that has queried through this reader, sorted by operation. */
+    public List<DynamoQueryStatus> getStatus() {
+        List<DynamoQueryStatus> statusList = new ArrayList<>();
+        for (Map.Entry<String, OperationStats> entry : stats.entrySet()) {
+            OperationStats operationStats = entry.getValue();
+            DynamoQueryStatus status = new DynamoQueryStatus();
+            status.setOperation(entry.getKey());
+            status.setCallCount(operationStats.callCount.get());
+            status.setPageCount(operationStats.pageCount.get());
+            status.setItemCount(operationStats.itemCount.get());
+            status.setConsumedCapacityUnits(operationStats.consumedCapacityUnits.sum());
+            status.setMaxPagesPerCall(operationStats.maxPagesPerCall.get());
+            statusList.add(status);
+        }
+        statusList.sort(Comparator.comparing(DynamoQueryStatus::getOperation));
+        return statusList;
+    }
+
+    private <T> QueryResultPage<T> readPage(DynamoDBMapper mapper, Class<T> clazz, DynamoDBQueryExpression<T> query,
+            OperationStats operationStats) {
+        query.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        QueryResultPage<T> page = mapper.queryPage(clazz, query);
+        operationStats.pageCount.incrementAndGet();
+        operationStats.itemCount.addAndGet(page.getResults().size());
+        ConsumedCapacity consumedCapacity = page.getConsumedCapacity();
+        if (consumedCapacity != null && consumedCapacity.getCapacityUnits() != null) {
+            operationStats.consumedCapacityUnits.add(consumedCapacity.getCapacityUnits());
+        }
+        return page;
+    }
+
+    private OperationStats getStats(String operation) {
+        checkNotNull(operation);
+        return stats.computeIfAbsent(operation, k -> new OperationStats());
+    }
+}
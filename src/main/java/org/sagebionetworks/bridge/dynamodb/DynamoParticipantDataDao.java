@@ -11,6 +11,7 @@ import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.dao.ParticipantDataDao;
 import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.ParticipantData;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
@@ -22,12 +23,18 @@ import static com.google.common.base.Preconditions.checkNotNull;
 @Component
 public class DynamoParticipantDataDao implements ParticipantDataDao {
     private DynamoDBMapper mapper;
+    private DynamoPageReader pageReader;
 
     @Resource(name = "participantDataMapper")
     final void setParticipantStateMapper(DynamoDBMapper participantStateMapper) {
         this.mapper = participantStateMapper;
     }
 
+    @Autowired
+    final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
+
     public ForwardCursorPagedResourceList<ParticipantData> getAllParticipantData(String userId, String offsetKey, int pageSize) {
         checkNotNull(userId);
 
@@ -105,8 +112,9 @@ public class DynamoParticipantDataDao implements ParticipantDataDao {
         }
     }
 
-    // Helper method that wraps around mapper.query(). Because of typing issues, mapper.query() is hard to mock.
+    // Helper method that wraps around the page reader, so that tests can spy on it.
     List<DynamoParticipantData> queryHelper(DynamoDBQueryExpression<DynamoParticipantData> query) {
-        return mapper.query(DynamoParticipantData.class, query);
+        return pageReader.queryAll(mapper, DynamoParticipantData.class, query,
+                "DynamoParticipantDataDao.queryHelper");
     }
 }
@@ -23,6 +23,8 @@ public class DynamoParticipantFile implements ParticipantFile {
     private String uploadUrl;
     private String downloadUrl;
     private DateTime expiresOn;
+    private Long size;
+    private String checksum;
 
     public DynamoParticipantFile() {
     }
@@ -135,4 +137,33 @@ public class DynamoParticipantFile implements ParticipantFile {
     public void setExpiresOn(DateTime expiresOn) {
         this.expiresOn = expiresOn;
     }
+
+    /**
+     * The size of the uploaded file in bytes, as stored in S3. Null until the upload has been confirmed.
+     */
+    @Override
+    @DynamoDBAttribute(attributeName = "size")
+    public Long getSize() {
+        return this.size;
+    }
+
+    @Override
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    /**
+     * The S3 ETag of the uploaded file, which is the MD5 of its content for a single-part upload. Null until the
+     * upload has been confirmed.
+     */
+    @Override
+    @DynamoDBAttribute(attributeName = "checksum")
+    public String getChecksum() {
+        return this.checksum;
+    }
+
+    @Override
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
 }
@@ -2,7 +2,7 @@ package org.sagebionetworks.bridge.dynamodb;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 
 import org.sagebionetworks.bridge.BridgeUtils;
@@ -12,6 +12,7 @@ import org.sagebionetworks.bridge.models.ResourceList;
 import org.sagebionetworks.bridge.models.files.ParticipantFile;
 
 import com.google.common.collect.ImmutableList;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
@@ -19,7 +20,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -28,12 +28,18 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 @Component
 public class DynamoParticipantFileDao implements ParticipantFileDao {
     private DynamoDBMapper mapper;
+    private DynamoPageReader pageReader;
 
     @Resource(name = "participantFileDdbMapper")
     public final void setMapper(DynamoDBMapper mapper) {
         this.mapper = mapper;
     }
 
+    @Autowired
+    public final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
+
     @Override
     public ForwardCursorPagedResourceList<ParticipantFile> getParticipantFiles(String userId, String offsetKey, int pageSize) {
         checkArgument(isNotBlank(userId));
@@ -49,11 +55,13 @@ public class DynamoParticipantFileDao implements ParticipantFileDao {
         }
         queryExpression.withLimit(pageSize).withExpressionAttributeValues(keyCondition).withConsistentRead(true);
 
-        PaginatedQueryList<DynamoParticipantFile> results = mapper.query(DynamoParticipantFile.class, queryExpression);
-        List<ParticipantFile> fileResults = results.stream()
-                .limit(pageSize).map(i -> (ParticipantFile) i).collect(Collectors.toList());
+        // One page, of at most pageSize files. There are more files if DynamoDB returns a LastEvaluatedKey, which can
+        // also happen on a short page, if the page reached DynamoDB's 1MB limit.
+        QueryResultPage<DynamoParticipantFile> page = pageReader.queryPage(mapper, DynamoParticipantFile.class,
+                queryExpression, "DynamoParticipantFileDao.getParticipantFiles");
+        List<ParticipantFile> fileResults = ImmutableList.copyOf(page.getResults());
         String nextPageOffsetKey = null;
-        if (fileResults.size() == pageSize) {
+        if (page.getLastEvaluatedKey() != null && !fileResults.isEmpty()) {
             nextPageOffsetKey = fileResults.get(fileResults.size() - 1).getFileId();
         }
 
@@ -72,14 +80,11 @@ public class DynamoParticipantFileDao implements ParticipantFileDao {
         queryExpression.setHashKeyValues(hashKey);
 
         // Query.
-        PaginatedQueryList<DynamoParticipantFile> results = mapper.query(DynamoParticipantFile.class, queryExpression);
+        List<DynamoParticipantFile> results = pageReader.queryAll(mapper, DynamoParticipantFile.class,
+                queryExpression, "DynamoParticipantFileDao.getAllFilesForParticipant");
 
         // Convert to List<ParticipantFile> because of Java type weirdness.
-        // Note that we use the stream API instead of ImmutableList.copyOf() because of wonkiness with mocking
-        // mapper.query().
-        //noinspection SimplifyStreamApiCallChains
-        List<ParticipantFile> fileResults = results.stream().collect(Collectors.toList());
-        return fileResults;
+        return ImmutableList.copyOf(results);
     }
 
     @Override
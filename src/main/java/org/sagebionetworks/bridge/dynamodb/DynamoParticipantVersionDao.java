@@ -8,6 +8,7 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.google.common.collect.ImmutableList;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.BridgeUtils;
@@ -16,13 +17,21 @@ import org.sagebionetworks.bridge.models.accounts.ParticipantVersion;
 
 @Component
 public class DynamoParticipantVersionDao implements ParticipantVersionDao {
+    static final String PARTICIPANT_VERSION_ATTRIBUTE = "participantVersion";
+
     private DynamoDBMapper mapper;
+    private DynamoPageReader pageReader;
 
     @Resource(name = "participantVersionDdbMapper")
     public final void setMapper(DynamoDBMapper mapper) {
         this.mapper = mapper;
     }
 
+    @Autowired
+    public final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
+
     @Override
     public void createParticipantVersion(ParticipantVersion participantVersion) {
         // Clear version to guarantee that we're creating a new row instead of potentially updating an existing one.
@@ -64,11 +73,12 @@ public class DynamoParticipantVersionDao implements ParticipantVersionDao {
         key.setAppId(appId);
         key.setHealthCode(healthCode);
 
-        // We use queryPage() instead of query() because we only need 1 result and limit is per page.
+        // We read one page because we only need 1 result and limit is per page.
         DynamoDBQueryExpression<DynamoParticipantVersion> query = new DynamoDBQueryExpression<DynamoParticipantVersion>()
                 .withHashKeyValues(key).withScanIndexForward(false).withLimit(1);
-        QueryResultPage<DynamoParticipantVersion> queryResultPage = mapper.queryPage(DynamoParticipantVersion.class,
-                query);
+        QueryResultPage<DynamoParticipantVersion> queryResultPage = pageReader.queryPage(mapper,
+                DynamoParticipantVersion.class, query,
+                "DynamoParticipantVersionDao.getLatestParticipantVersionForHealthCode");
         List<DynamoParticipantVersion> participantVersionList = queryResultPage.getResults();
 
         if (participantVersionList.isEmpty()) {
@@ -78,6 +88,29 @@ public class DynamoParticipantVersionDao implements ParticipantVersionDao {
         }
     }
 
+    @Override
+    public Optional<Integer> getLatestParticipantVersionNumber(String appId, String healthCode) {
+        DynamoParticipantVersion key = new DynamoParticipantVersion();
+        key.setAppId(appId);
+        key.setHealthCode(healthCode);
+
+        // Same as getLatestParticipantVersionForHealthCode(), but only the range key is returned, so we don't transfer
+        // and unmarshall the demographics.
+        DynamoDBQueryExpression<DynamoParticipantVersion> query = new DynamoDBQueryExpression<DynamoParticipantVersion>()
+                .withHashKeyValues(key).withScanIndexForward(false).withLimit(1)
+                .withProjectionExpression(PARTICIPANT_VERSION_ATTRIBUTE);
+        QueryResultPage<DynamoParticipantVersion> queryResultPage = pageReader.queryPage(mapper,
+                DynamoParticipantVersion.class, query,
+                "DynamoParticipantVersionDao.getLatestParticipantVersionNumber");
+        List<DynamoParticipantVersion> participantVersionList = queryResultPage.getResults();
+
+        if (participantVersionList.isEmpty()) {
+            return Optional.empty();
+        } else {
+            return Optional.of(participantVersionList.get(0).getParticipantVersion());
+        }
+    }
+
     @Override
     public Optional<ParticipantVersion> getParticipantVersion(String appId, String healthCode,
             int participantVersion) {
@@ -89,8 +122,9 @@ public class DynamoParticipantVersionDao implements ParticipantVersionDao {
         return Optional.ofNullable(mapper.load(key));
     }
 
-    // Helper method that wraps around mapper.query(). Because of typing issues, mapper.query() is hard to mock.
+    // Helper method that wraps around the page reader. Because of typing issues, queries are hard to mock.
     List<DynamoParticipantVersion> queryHelper(DynamoDBQueryExpression<DynamoParticipantVersion> query) {
-        return mapper.query(DynamoParticipantVersion.class, query);
+        return pageReader.queryAll(mapper, DynamoParticipantVersion.class, query,
+                "DynamoParticipantVersionDao.getAllParticipantVersionsForHealthCode");
     }
 }
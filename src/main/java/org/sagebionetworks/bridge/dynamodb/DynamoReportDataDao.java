@@ -10,12 +10,16 @@ import static org.sagebionetworks.bridge.models.ResourceList.START_TIME;
 import static org.sagebionetworks.bridge.models.ResourceList.END_TIME;
 
 import java.util.List;
+import java.util.function.Function;
 
 import javax.annotation.Resource;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.BridgeUtils;
@@ -26,6 +30,8 @@ import org.sagebionetworks.bridge.models.reports.ReportData;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.PaginationLoadingStrategy;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
@@ -36,13 +42,39 @@ import com.google.common.collect.Lists;
 
 @Component
 public class DynamoReportDataDao implements ReportDataDao {
+    private static final Logger LOG = LoggerFactory.getLogger(DynamoReportDataDao.class);
 
+    // The most items DynamoDB accepts in a single BatchWriteItem request.
+    static final int MAX_BATCH_SIZE = 25;
+    
+    static final int MAX_BATCH_ATTEMPTS = 4;
+    
+    // Pages of query results are loaded as they are iterated, and discarded when the iterator moves to the next page.
+    static final DynamoDBMapperConfig ITERATION_ONLY_CONFIG = new DynamoDBMapperConfig.Builder()
+            .withPaginationLoadingStrategy(PaginationLoadingStrategy.ITERATION_ONLY).build();
+    
     private DynamoDBMapper mapper;
+    private DynamoPageReader pageReader;
+    
+    private long batchRetryDelayMillis = 200;
 
     @Resource(name = "reportDataMapper")
     final void setReportDataMapper(DynamoDBMapper reportDataMapper) {
         this.mapper = reportDataMapper;
     }
+
+    @Autowired
+    final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
+    
+    /**
+     * Milliseconds to wait before retrying a failed batch, doubled for each subsequent attempt. This is used 
+     * primarily by tests to reduce the amount of wait time during tests.
+     */
+    final void setBatchRetryDelayMillis(long batchRetryDelayMillis) {
+        this.batchRetryDelayMillis = batchRetryDelayMillis;
+    }
     
     @Override
     public DateRangeResourceList<? extends ReportData> getReportData(ReportDataKey key, LocalDate startDate, LocalDate endDate) {
@@ -50,6 +82,30 @@ public class DynamoReportDataDao implements ReportDataDao {
         checkNotNull(startDate);
         checkNotNull(endDate);
         
+        DynamoDBQueryExpression<DynamoReportData> query = makeDateRangeQuery(key, startDate, endDate);
+        List<DynamoReportData> results = pageReader.queryAll(mapper, DynamoReportData.class, query,
+                "DynamoReportDataDao.getReportData");
+
+        return new DateRangeResourceList<DynamoReportData>(results)
+                .withRequestParam(START_DATE, startDate)
+                .withRequestParam(END_DATE, endDate);
+    }
+    
+    @Override
+    public Iterable<? extends ReportData> streamReportData(ReportDataKey key, LocalDate startDate,
+            LocalDate endDate) {
+        checkNotNull(key);
+        checkNotNull(startDate);
+        checkNotNull(endDate);
+        
+        // Not read through the page reader, which holds every page in memory. The mapper's iteration-only list keeps
+        // only the current page.
+        DynamoDBQueryExpression<DynamoReportData> query = makeDateRangeQuery(key, startDate, endDate);
+        return mapper.query(DynamoReportData.class, query, ITERATION_ONLY_CONFIG);
+    }
+    
+    private static DynamoDBQueryExpression<DynamoReportData> makeDateRangeQuery(ReportDataKey key,
+            LocalDate startDate, LocalDate endDate) {
         DynamoReportData hashKey = new DynamoReportData();
         hashKey.setKey(key.getKeyString());
         
@@ -58,14 +114,8 @@ public class DynamoReportDataDao implements ReportDataDao {
                 .withAttributeValueList(new AttributeValue().withS(startDate.toString()),
                         new AttributeValue().withS(endDate.toString()));
 
-        DynamoDBQueryExpression<DynamoReportData> query =
-                new DynamoDBQueryExpression<DynamoReportData>().withHashKeyValues(hashKey)
-                        .withRangeKeyCondition("date", dateCondition);
-        List<DynamoReportData> results = mapper.query(DynamoReportData.class, query);
-
-        return new DateRangeResourceList<DynamoReportData>(results)
-                .withRequestParam(START_DATE, startDate)
-                .withRequestParam(END_DATE, endDate);
+        return new DynamoDBQueryExpression<DynamoReportData>().withHashKeyValues(hashKey)
+                .withRangeKeyCondition("date", dateCondition);
     }
     
     /**
@@ -135,6 +185,21 @@ public class DynamoReportDataDao implements ReportDataDao {
         }
         mapper.save(reportData);
     }
+    
+    @Override
+    public void saveReportDataBatch(List<ReportData> reportDataList) {
+        checkNotNull(reportDataList);
+        
+        for (ReportData reportData : reportDataList) {
+            DateTime dateTime = reportData.getDateTime();
+            if (dateTime != null) {
+                reportData.setDateTime(dateTime.withZone(DateTimeZone.UTC));
+            }
+        }
+        for (List<ReportData> batch : Lists.partition(reportDataList, MAX_BATCH_SIZE)) {
+            writeBatch(batch, mapper::batchSave);
+        }
+    }
 
     @Override
     public void deleteReportData(ReportDataKey key) {
@@ -145,7 +210,8 @@ public class DynamoReportDataDao implements ReportDataDao {
 
         DynamoDBQueryExpression<DynamoReportData> query =
                 new DynamoDBQueryExpression<DynamoReportData>().withHashKeyValues(hashKey);
-        List<DynamoReportData> objectsToDelete = mapper.query(DynamoReportData.class, query);
+        List<DynamoReportData> objectsToDelete = pageReader.queryAll(mapper, DynamoReportData.class, query,
+                "DynamoReportDataDao.deleteReportData");
         
         if (!objectsToDelete.isEmpty()) {
             List<FailedBatch> failures = mapper.batchDelete(objectsToDelete);
@@ -164,4 +230,44 @@ public class DynamoReportDataDao implements ReportDataDao {
             mapper.delete(reportDataRecord);
         }
     }
+    
+    @Override
+    public void deleteReportDataRecords(ReportDataKey key, List<String> dateValues) {
+        checkNotNull(key);
+        checkNotNull(dateValues);
+        
+        // Deleting a key that doesn't exist is not an error, so unlike deleteReportDataRecord(), the records are not
+        // loaded first.
+        List<DynamoReportData> keysToDelete = Lists.newArrayListWithCapacity(dateValues.size());
+        for (String dateValue : dateValues) {
+            DynamoReportData hashKey = new DynamoReportData();
+            hashKey.setKey(key.getKeyString());
+            hashKey.setDate(dateValue);
+            keysToDelete.add(hashKey);
+        }
+        for (List<DynamoReportData> batch : Lists.partition(keysToDelete, MAX_BATCH_SIZE)) {
+            writeBatch(batch, mapper::batchDelete);
+        }
+    }
+    
+    // The mapper retries unprocessed items, but gives up when a request fails outright (usually because the table is
+    // being throttled). Puts and deletes can safely be repeated, so a failed batch is written again, with an 
+    // exponential backoff, before the failure is reported.
+    private <T> void writeBatch(List<T> batch, Function<List<T>, List<FailedBatch>> writer) {
+        List<FailedBatch> failures = writer.apply(batch);
+        long delayMillis = batchRetryDelayMillis;
+        for (int attempt = 1; !failures.isEmpty() && attempt < MAX_BATCH_ATTEMPTS; attempt++) {
+            LOG.warn("Batch write of " + batch.size() + " report records failed, attempt " + attempt + " of " +
+                    MAX_BATCH_ATTEMPTS + ": " + failures.get(0).getException().getMessage());
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            delayMillis *= 2;
+            failures = writer.apply(batch);
+        }
+        BridgeUtils.ifFailuresThrowException(failures);
+    }
 }
@@ -2,6 +2,7 @@ package org.sagebionetworks.bridge.dynamodb;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -9,6 +10,7 @@ import javax.annotation.Resource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.dao.ReportIndexDao;
@@ -37,11 +39,17 @@ public class DynamoReportIndexDao implements ReportIndexDao {
                     .put("identifier", new ExpectedAttributeValue(false)).build());
     
     private DynamoDBMapper mapper;
+    private DynamoPageReader pageReader;
 
     @Resource(name = "reportIndexMapper")
     final void setReportIndexMapper(DynamoDBMapper reportIndexMapper) {
         this.mapper = reportIndexMapper;
     }
+
+    @Autowired
+    final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
     
     @Override
     public ReportIndex getIndex(ReportDataKey key) {
@@ -125,7 +133,9 @@ public class DynamoReportIndexDao implements ReportIndexDao {
         DynamoDBQueryExpression<DynamoReportIndex> query =
                 new DynamoDBQueryExpression<DynamoReportIndex>().withHashKeyValues(hashKey);
 
-        return new ReportTypeResourceList<>(mapper.query(DynamoReportIndex.class, query))
+        List<DynamoReportIndex> indices = pageReader.queryAll(mapper, DynamoReportIndex.class, query,
+                "DynamoReportIndexDao.getIndices");
+        return new ReportTypeResourceList<>(indices)
                 .withRequestParam(ResourceList.REPORT_TYPE, reportType);
     }
 
@@ -10,21 +10,27 @@ import org.sagebionetworks.bridge.models.subpopulations.StudyConsent;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
 
 @Component
 public class DynamoStudyConsentDao implements StudyConsentDao {
 
     private DynamoDBMapper mapper;
+    private DynamoPageReader pageReader;
 
     @Resource(name = "studyConsentDdbMapper")
     final void setDdbMapper(DynamoDBMapper mapper) {
         this.mapper = mapper;
     }
+
+    @Autowired
+    final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
     
     @Override
     public StudyConsent addConsent(SubpopulationGuid subpopGuid, String storagePath, long createdOn) {
@@ -45,7 +51,8 @@ public class DynamoStudyConsentDao implements StudyConsentDao {
                 .withHashKeyValues(hashKey)
                 .withScanIndexForward(false)
                 .withLimit(1);
-        QueryResultPage<DynamoStudyConsent1> resultPage = mapper.queryPage(DynamoStudyConsent1.class, queryExpression);
+        QueryResultPage<DynamoStudyConsent1> resultPage = pageReader.queryPage(mapper, DynamoStudyConsent1.class,
+                queryExpression, "DynamoStudyConsentDao.getMostRecentConsent");
         List<DynamoStudyConsent1> page = resultPage.getResults();
         if (page.isEmpty()) {
             return null;
@@ -69,7 +76,8 @@ public class DynamoStudyConsentDao implements StudyConsentDao {
                 new DynamoDBQueryExpression<DynamoStudyConsent1>()
                 .withHashKeyValues(hashKey)
                 .withScanIndexForward(false);
-        PaginatedQueryList<DynamoStudyConsent1> consents = mapper.query(DynamoStudyConsent1.class, queryExpression);
+        List<DynamoStudyConsent1> consents = pageReader.queryAll(mapper, DynamoStudyConsent1.class, queryExpression,
+                "DynamoStudyConsentDao.getConsents");
         List<StudyConsent> results = new ArrayList<StudyConsent>();
         for (DynamoStudyConsent1 consent : consents) {
             results.add(consent);
@@ -31,6 +31,7 @@ public class DynamoSubpopulationDao implements SubpopulationDao {
     static final String CANNOT_DELETE_DEFAULT_SUBPOP_MSG = "Cannot delete the default subpopulation for an app.";
     private DynamoDBMapper mapper;
     private CriteriaDao criteriaDao;
+    private DynamoPageReader pageReader;
 
     @Resource(name = "subpopulationDdbMapper")
     final void setMapper(DynamoDBMapper mapper) {
@@ -41,6 +42,11 @@ public class DynamoSubpopulationDao implements SubpopulationDao {
     final void setCriteriaDao(CriteriaDao criteriaDao) {
         this.criteriaDao = criteriaDao;
     }
+
+    @Autowired
+    final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
     
     // Exposed for mock tests
     String generateGuid() {
@@ -98,7 +104,8 @@ public class DynamoSubpopulationDao implements SubpopulationDao {
         DynamoDBQueryExpression<DynamoSubpopulation> query = 
                 new DynamoDBQueryExpression<DynamoSubpopulation>().withHashKeyValues(hashKey);
         
-        List<DynamoSubpopulation> subpops = mapper.query(DynamoSubpopulation.class, query);
+        List<DynamoSubpopulation> subpops = pageReader.queryAll(mapper, DynamoSubpopulation.class, query,
+                "DynamoSubpopulationDao.getSubpopulations");
         // Filter out deleted subpopulations, if requested
         List<Subpopulation> subpopulations = subpops.stream()
                 .filter(subpop -> includeDeleted || !subpop.isDeleted())
@@ -319,6 +319,13 @@ public class DynamoUploadDao implements UploadDao {
         mapper.save(upload2);
     }
     
+    @Override
+    public List<String> getUploadIdsForHealthCode(@Nonnull String healthCode) {
+        List<? extends Upload> uploads = healthCodeRequestedOnIndex.queryKeys(
+                DynamoUpload2.class, HEALTH_CODE, healthCode, null);
+        return uploads.stream().map(Upload::getUploadId).collect(Collectors.toList());
+    }
+    
     @Override
     public List<String> deleteUploadsForHealthCode(@Nonnull String healthCode) {
         List<? extends Upload> uploadsToDelete = healthCodeRequestedOnIndex.queryKeys(
@@ -1,6 +1,5 @@
 package org.sagebionetworks.bridge.dynamodb;
 
-import java.util.List;
 import javax.annotation.Resource;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
@@ -9,6 +8,7 @@ import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
 import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.BridgeConstants;
@@ -20,6 +20,7 @@ public class DynamoUploadDedupeDao implements UploadDedupeDao {
     static final int NUM_DAYS_BEFORE = 7;
 
     private DynamoDBMapper mapper;
+    private DynamoPageReader pageReader;
 
     /** UploadDedupe DDB mapper. */
     @Resource(name = "uploadDedupeDdbMapper")
@@ -27,6 +28,12 @@ public class DynamoUploadDedupeDao implements UploadDedupeDao {
         this.mapper = mapper;
     }
 
+    /** Reads the query pages, and records their consumed capacity. */
+    @Autowired
+    public final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
+
     /** {@inheritDoc} */
     @Override
     public String getDuplicate(String healthCode, String uploadMd5, DateTime uploadRequestedOn) {
@@ -43,15 +50,17 @@ public class DynamoUploadDedupeDao implements UploadDedupeDao {
                 .withAttributeValueList(new AttributeValue().withN(String.valueOf(dupeWindowStartTime.getMillis())),
                         new AttributeValue().withN(String.valueOf(uploadRequestedOn.getMillis())));
 
-        // make and execute query
+        // make and execute query. Any match is a duplicate, so only one item is read.
         DynamoDBQueryExpression<DynamoUploadDedupe> query = new DynamoDBQueryExpression<DynamoUploadDedupe>()
-                .withHashKeyValues(hashKey).withRangeKeyCondition("uploadRequestedOn", requestedOnCondition);
-        List<DynamoUploadDedupe> dedupeList = mapper.query(DynamoUploadDedupe.class, query);
+                .withHashKeyValues(hashKey).withRangeKeyCondition("uploadRequestedOn", requestedOnCondition)
+                .withLimit(1);
+        DynamoUploadDedupe dedupe = pageReader.queryFirst(mapper, DynamoUploadDedupe.class, query,
+                "DynamoUploadDedupeDao.getDuplicate");
 
-        if (dedupeList.isEmpty()) {
+        if (dedupe == null) {
             return null;
         } else {
-            return dedupeList.get(0).getOriginalUploadId();
+            return dedupe.getOriginalUploadId();
         }
     }
 
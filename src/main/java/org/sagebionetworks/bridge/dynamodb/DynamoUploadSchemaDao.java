@@ -17,6 +17,7 @@ import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
 import com.google.common.collect.ImmutableList;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.dao.UploadSchemaDao;
@@ -39,6 +40,7 @@ public class DynamoUploadSchemaDao implements UploadSchemaDao {
             .withExpectedEntry("key", new ExpectedAttributeValue(false));
 
     private DynamoDBMapper mapper;
+    private DynamoPageReader pageReader;
 
     /**
      * This is the DynamoDB mapper that reads from and writes to our DynamoDB table. This is normally configured by
@@ -49,6 +51,11 @@ public class DynamoUploadSchemaDao implements UploadSchemaDao {
         this.mapper = mapper;
     }
 
+    @Autowired
+    final void setPageReader(DynamoPageReader pageReader) {
+        this.pageReader = pageReader;
+    }
+
     /** {@inheritDoc} */
     @Override
     public UploadSchema createSchemaRevision(UploadSchema schema) {
@@ -192,10 +199,9 @@ public class DynamoUploadSchemaDao implements UploadSchemaDao {
     }
 
 
-    // mapper.query() returns a PaginatedQueryList, which is really hard to work with, which makes mapper.query()
-    // really hard to mock. So instead, just wrap the whole thing in a helper method that returns a List instead and
-    // use a spy() in tests. Package-scoped to be available for spying in unit tests.
+    // Reads every page of the query through the page reader, so the pages are counted. Wrapped in a helper method so
+    // that tests can use a spy(). Package-scoped to be available for spying in unit tests.
     List<DynamoUploadSchema> queryHelper(DynamoDBQueryExpression<DynamoUploadSchema> query) {
-        return mapper.query(DynamoUploadSchema.class, query);
+        return pageReader.queryAll(mapper, DynamoUploadSchema.class, query, "DynamoUploadSchemaDao.queryHelper");
     }
 }
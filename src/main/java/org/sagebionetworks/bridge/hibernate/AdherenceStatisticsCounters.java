@@ -0,0 +1,164 @@
+package org.sagebionetworks.bridge.hibernate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.schedules2.adherence.weekly.WeeklyAdherenceReport;
+import org.sagebionetworks.bridge.models.schedules2.adherence.weekly.WeeklyAdherenceReportRow;
+
+/**
+ * Accumulates the changes to a study's adherence statistics counters while weekly adherence reports are replaced
+ * or removed, so that each counter is written with a single upsert. There are two sets of counters: a histogram of
+ * reports by adherence percentage and progression, and the number of reports that include each searchable label.
+ * Reports without an adherence percentage or a progression are counted under NO_ADHERENCE_PERCENT and
+ * NO_PROGRESSION, since these columns are part of the primary key.
+ */
+class AdherenceStatisticsCounters {
+
+    static final int NO_ADHERENCE_PERCENT = -1;
+    static final String NO_PROGRESSION = "";
+
+    static final String UPSERT_BUCKET = "INSERT INTO WeeklyAdherenceReportBucketStats (appId, studyId, "
+            +"adherencePercent, progression, total) VALUES (?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE total = "
+            +"total + VALUES(total)";
+
+    static final String UPSERT_LABEL = "INSERT INTO WeeklyAdherenceReportLabelStats (appId, studyId, label, total, "
+            +"rowJson) VALUES (?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE total = total + VALUES(total), rowJson = "
+            +"COALESCE(VALUES(rowJson), rowJson)";
+
+    // Counters are written in key order so concurrent transactions lock the counter rows in the same order.
+    private static final Comparator<Iterable<String>> KEY_ORDER = Ordering.<String>natural().lexicographical();
+
+    private final Map<List<String>, Integer> buckets = new TreeMap<>(KEY_ORDER);
+    private final Map<List<String>, Integer> labels = new TreeMap<>(KEY_ORDER);
+    private final Map<List<String>, String> labelRows = new HashMap<>();
+
+    /**
+     * Count a report that is about to be saved.
+     */
+    void add(WeeklyAdherenceReport report) {
+        String appId = report.getAppId();
+        String studyId = report.getStudyId();
+        Integer percent = report.getWeeklyAdherencePercent();
+        String progression = (report.getProgression() == null) ? null : report.getProgression().name();
+
+        increment(buckets, bucketKey(appId, studyId, percent, progression), 1);
+        if (report.getSearchableLabels() != null) {
+            for (String label : report.getSearchableLabels()) {
+                List<String> key = ImmutableList.of(appId, studyId, label);
+                increment(labels, key, 1);
+                WeeklyAdherenceReportRow row = findRow(report, label);
+                if (row != null) {
+                    labelRows.put(key, toJson(row));
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the counts for the reports that are about to be replaced or deleted. The result set has the columns
+     * appId, studyId, userId, weeklyAdherencePercent, progression and label, with one row per label of each report
+     * (label is null for a report without labels), ordered by report.
+     */
+    void remove(ResultSet rs) throws SQLException {
+        List<String> reportKey = null;
+        while (rs.next()) {
+            String appId = rs.getString(1);
+            String studyId = rs.getString(2);
+            List<String> nextReportKey = ImmutableList.of(appId, studyId, rs.getString(3));
+            if (!nextReportKey.equals(reportKey)) {
+                reportKey = nextReportKey;
+                Integer percent = rs.getInt(4);
+                if (rs.wasNull()) {
+                    percent = null;
+                }
+                increment(buckets, bucketKey(appId, studyId, percent, rs.getString(5)), -1);
+            }
+            String label = rs.getString(6);
+            if (label != null) {
+                increment(labels, ImmutableList.of(appId, studyId, label), -1);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return buckets.isEmpty() && labels.isEmpty();
+    }
+
+    /**
+     * Apply the accumulated changes. Replacing a report with one in the same bucket and with the same labels nets
+     * out to no change, and nothing is written.
+     */
+    void write(Connection connection) throws SQLException {
+        try (PreparedStatement bucketPs = connection.prepareStatement(UPSERT_BUCKET);
+             PreparedStatement labelPs = connection.prepareStatement(UPSERT_LABEL)) {
+
+            for (Map.Entry<List<String>, Integer> entry : buckets.entrySet()) {
+                List<String> key = entry.getKey();
+                bucketPs.setString(1, key.get(0));
+                bucketPs.setString(2, key.get(1));
+                bucketPs.setInt(3, Integer.parseInt(key.get(2)));
+                bucketPs.setString(4, key.get(3));
+                bucketPs.setInt(5, entry.getValue());
+                bucketPs.addBatch();
+            }
+            for (Map.Entry<List<String>, Integer> entry : labels.entrySet()) {
+                List<String> key = entry.getKey();
+                labelPs.setString(1, key.get(0));
+                labelPs.setString(2, key.get(1));
+                labelPs.setString(3, key.get(2));
+                labelPs.setInt(4, entry.getValue());
+                labelPs.setString(5, labelRows.get(key));
+                labelPs.addBatch();
+            }
+            if (!buckets.isEmpty()) {
+                bucketPs.executeBatch();
+            }
+            if (!labels.isEmpty()) {
+                labelPs.executeBatch();
+            }
+        }
+    }
+
+    // Changes are tracked as signed deltas; a counter whose changes cancel out is dropped.
+    private void increment(Map<List<String>, Integer> counters, List<String> key, int delta) {
+        counters.merge(key, delta, (a, b) -> (a + b == 0) ? null : a + b);
+    }
+
+    private List<String> bucketKey(String appId, String studyId, Integer percent, String progression) {
+        String percentValue = Integer.toString((percent == null) ? NO_ADHERENCE_PERCENT : percent);
+        return ImmutableList.of(appId, studyId, percentValue, (progression == null) ? NO_PROGRESSION : progression);
+    }
+
+    private WeeklyAdherenceReportRow findRow(WeeklyAdherenceReport report, String searchableLabel) {
+        if (report.getRows() != null) {
+            for (WeeklyAdherenceReportRow row : report.getRows()) {
+                if (searchableLabel.equals(row.getSearchableLabel())) {
+                    return row;
+                }
+            }
+        }
+        return null;
+    }
+
+    private String toJson(WeeklyAdherenceReportRow row) {
+        try {
+            return BridgeObjectMapper.get().writeValueAsString(row);
+        } catch (JsonProcessingException e) {
+            throw new BridgeServiceException(e);
+        }
+    }
+}
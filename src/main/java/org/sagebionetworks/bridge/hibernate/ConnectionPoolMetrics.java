@@ -0,0 +1,78 @@
+package org.sagebionetworks.bridge.hibernate;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.models.ConnectionPoolStatus;
+
+/**
+ * Collects checkout and usage statistics from the Hibernate connection pool. HikariCP calls the tracker on every
+ * connection checkout, so the bookkeeping here is limited to a handful of atomic counters.
+ */
+@Component
+public class ConnectionPoolMetrics implements MetricsTrackerFactory {
+
+    private static final double NANOS_PER_MILLI = MILLISECONDS.toNanos(1);
+
+    private final AtomicLong checkoutCount = new AtomicLong();
+    private final AtomicLong checkoutNanos = new AtomicLong();
+    private final LongAccumulator maxCheckoutNanos = new LongAccumulator(Long::max, 0L);
+    private final AtomicLong checkoutTimeoutCount = new AtomicLong();
+    private final AtomicLong usageCount = new AtomicLong();
+    private final AtomicLong usageMillis = new AtomicLong();
+    private volatile PoolStats poolStats;
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                checkoutCount.incrementAndGet();
+                checkoutNanos.addAndGet(elapsedAcquiredNanos);
+                maxCheckoutNanos.accumulate(elapsedAcquiredNanos);
+            }
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usageCount.incrementAndGet();
+                usageMillis.addAndGet(elapsedBorrowedMillis);
+            }
+            @Override
+            public void recordConnectionTimeout() {
+                checkoutTimeoutCount.incrementAndGet();
+            }
+        };
+    }
+
+    public ConnectionPoolStatus getStatus() {
+        ConnectionPoolStatus status = new ConnectionPoolStatus();
+        PoolStats stats = poolStats;
+        if (stats != null) {
+            status.setTotalConnections(stats.getTotalConnections());
+            status.setActiveConnections(stats.getActiveConnections());
+            status.setIdleConnections(stats.getIdleConnections());
+            status.setPendingThreads(stats.getPendingThreads());
+            status.setMinConnections(stats.getMinConnections());
+            status.setMaxConnections(stats.getMaxConnections());
+        }
+        long checkouts = checkoutCount.get();
+        status.setCheckoutCount(checkouts);
+        if (checkouts > 0) {
+            status.setAverageCheckoutMillis(checkoutNanos.get() / NANOS_PER_MILLI / checkouts);
+        }
+        status.setMaxCheckoutMillis(maxCheckoutNanos.get() / NANOS_PER_MILLI);
+        status.setCheckoutTimeoutCount(checkoutTimeoutCount.get());
+        long usages = usageCount.get();
+        if (usages > 0) {
+            status.setAverageUsageMillis((double)usageMillis.get() / usages);
+        }
+        return status;
+    }
+}
@@ -6,6 +6,10 @@ import static org.sagebionetworks.bridge.Roles.ADMIN;
 import static org.sagebionetworks.bridge.Roles.DEVELOPER;
 import static org.sagebionetworks.bridge.Roles.RESEARCHER;
 import static org.sagebionetworks.bridge.Roles.WORKER;
+import static org.sagebionetworks.bridge.hibernate.QueryBuilder.ATTRIBUTE_TERM_PREFIX;
+import static org.sagebionetworks.bridge.hibernate.QueryBuilder.EMAIL_TERM_PREFIX;
+import static org.sagebionetworks.bridge.hibernate.QueryBuilder.EXTERNAL_ID_TERM_PREFIX;
+import static org.sagebionetworks.bridge.hibernate.QueryBuilder.PHONE_TERM_PREFIX;
 import static org.sagebionetworks.bridge.models.ResourceList.ADMIN_ONLY;
 import static org.sagebionetworks.bridge.models.ResourceList.ALL_OF_GROUPS;
 import static org.sagebionetworks.bridge.models.ResourceList.ATTRIBUTE_KEY;
@@ -28,6 +32,9 @@ import static org.sagebionetworks.bridge.models.ResourceList.STATUS;
 import static org.sagebionetworks.bridge.models.ResourceList.STRING_SEARCH_POSITION;
 import static org.sagebionetworks.bridge.models.SearchTermPredicate.AND;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -36,12 +43,14 @@ import java.util.stream.Collectors;
 import javax.annotation.Resource;
 
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.jdbc.Work;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
 
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.BridgeUtils.StudyAssociations;
@@ -56,6 +65,7 @@ import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.AccountId;
 import org.sagebionetworks.bridge.models.accounts.AccountSummary;
 import org.sagebionetworks.bridge.models.accounts.ExternalIdentifierInfo;
+import org.sagebionetworks.bridge.models.studies.Enrollment;
 
 /** Hibernate implementation of Account Dao. */
 @Component
@@ -74,6 +84,12 @@ public class HibernateAccountDao implements AccountDao {
     static final String EXTID_FILTER_QUERY = "AND en.externalId LIKE :idFilter";
     static final String EXTID_ORDER_QUERY = "ORDER BY en.externalId";
     
+    static final String SELECT_SEARCH_TERMS = "SELECT term FROM AccountSearchTerms WHERE accountId = ?";
+    static final String DELETE_SEARCH_TERM = "DELETE FROM AccountSearchTerms WHERE accountId = ? AND term = ?";
+    static final String INSERT_SEARCH_TERM = "INSERT INTO AccountSearchTerms (accountId, appId, term) VALUES (?, ?, ?)";
+    static final String SELECT_SEARCH_TERM_BACKFILL = "SELECT accountId FROM AccountSearchTermBackfill";
+    static final String DELETE_SEARCH_TERM_BACKFILL = "DELETE FROM AccountSearchTermBackfill WHERE accountId = :accountId";
+    
     private HibernateHelper hibernateHelper;
 
     /** This makes interfacing with Hibernate easier. */
@@ -100,13 +116,86 @@ public class HibernateAccountDao implements AccountDao {
     /** {@inheritDoc} */
     @Override
     public void createAccount(Account account) {
-        hibernateHelper.create(account);
+        hibernateHelper.executeWithExceptionHandling(account, (session) -> {
+            session.save(account);
+            // The account must be written before its search terms
+            session.flush();
+            session.doWork(updateSearchTerms(account));
+            return account;
+        });
     }
 
     /** {@inheritDoc} */
     @Override
     public void updateAccount(Account account) {
-        hibernateHelper.update(account);
+        hibernateHelper.executeWithExceptionHandling(account, (session) -> {
+            session.update(account);
+            session.flush();
+            session.doWork(updateSearchTerms(account));
+            return account;
+        });
+    }
+    
+    /**
+     * The trigrams of the account fields that support infix searches, each prefixed with a tag for its field. 
+     * Phone numbers are indexed as digits only, matching the way a phone filter is applied.
+     */
+    static Set<String> searchTerms(Account account) {
+        Set<String> terms = new HashSet<>();
+        terms.addAll(SearchTrigrams.prefixed(EMAIL_TERM_PREFIX, SearchTrigrams.of(account.getEmail())));
+        if (account.getPhone() != null && account.getPhone().getNumber() != null) {
+            String digits = account.getPhone().getNumber().replaceAll("\\D*", "");
+            terms.addAll(SearchTrigrams.prefixed(PHONE_TERM_PREFIX, SearchTrigrams.of(digits)));
+        }
+        for (Enrollment enrollment : account.getEnrollments()) {
+            terms.addAll(SearchTrigrams.prefixed(EXTERNAL_ID_TERM_PREFIX, SearchTrigrams.of(enrollment.getExternalId())));
+        }
+        for (String value : account.getAttributes().values()) {
+            terms.addAll(SearchTrigrams.prefixed(ATTRIBUTE_TERM_PREFIX, SearchTrigrams.of(value)));
+        }
+        return terms;
+    }
+    
+    /**
+     * Most account updates do not change the searchable fields, so the existing terms are compared to the new 
+     * terms and only the difference is written.
+     */
+    protected Work updateSearchTerms(Account account) {
+        Set<String> terms = searchTerms(account);
+        return (connection) -> {
+            Set<String> existingTerms = new HashSet<>();
+            try (PreparedStatement selectPs = connection.prepareStatement(SELECT_SEARCH_TERMS)) {
+                selectPs.setString(1, account.getId());
+                try (ResultSet rs = selectPs.executeQuery()) {
+                    while (rs.next()) {
+                        existingTerms.add(rs.getString(1));
+                    }
+                }
+            }
+            Set<String> removedTerms = Sets.difference(existingTerms, terms);
+            Set<String> addedTerms = Sets.difference(terms, existingTerms);
+            if (!removedTerms.isEmpty()) {
+                try (PreparedStatement deletePs = connection.prepareStatement(DELETE_SEARCH_TERM)) {
+                    for (String term : removedTerms) {
+                        deletePs.setString(1, account.getId());
+                        deletePs.setString(2, term);
+                        deletePs.addBatch();
+                    }
+                    deletePs.executeBatch();
+                }
+            }
+            if (!addedTerms.isEmpty()) {
+                try (PreparedStatement insertPs = connection.prepareStatement(INSERT_SEARCH_TERM)) {
+                    for (String term : addedTerms) {
+                        insertPs.setString(1, account.getId());
+                        insertPs.setString(2, account.getAppId());
+                        insertPs.setString(3, term);
+                        insertPs.addBatch();
+                    }
+                    insertPs.executeBatch();
+                }
+            }
+        };
     }
     
     /** {@inheritDoc} */
@@ -173,17 +262,21 @@ public class HibernateAccountDao implements AccountDao {
             }
         }
         if (search != null) {
-            where.like(search.getStringSearchPosition(), "acct.email LIKE :email", "email", search.getEmailFilter());
+            where.accountSearchTermLike(search.getStringSearchPosition(), "acct.email LIKE :email", "email",
+                    search.getEmailFilter(), EMAIL_TERM_PREFIX);
             where.phone(search.getStringSearchPosition(), search.getPhoneFilter());
             where.append("acct.createdOn >= :startTime", "startTime", search.getStartTime());
             where.append("acct.createdOn <= :endTime", "endTime", search.getEndTime());
             where.append(":language IN ELEMENTS(acct.languages)", "language", search.getLanguage());
-            where.like(search.getStringSearchPosition(), "enrollment.externalId LIKE :extId", "extId", search.getExternalIdFilter());
+            where.accountSearchTermLike(search.getStringSearchPosition(), "enrollment.externalId LIKE :extId", "extId",
+                    search.getExternalIdFilter(), EXTERNAL_ID_TERM_PREFIX);
             where.append("acct.status = :status", "status", search.getStatus());
             where.appendBoolean("admin", search.isAdminOnly());
             where.dataGroups(search.getAllOfGroups(), "IN");
             where.dataGroups(search.getNoneOfGroups(), "NOT IN");
-            where.like(search.getStringSearchPosition(), "acct.attributes['"+search.getAttributeKey()+"'] LIKE :attValue", "attValue", search.getAttributeValueFilter());
+            where.accountSearchTermLike(search.getStringSearchPosition(),
+                    "acct.attributes['"+search.getAttributeKey()+"'] LIKE :attValue", "attValue",
+                    search.getAttributeValueFilter(), ATTRIBUTE_TERM_PREFIX);
             
             // Perhaps confusing with the below enrollment code, this is a filter based on enrolled/withdrawn state.
             where.enrollment(search.getEnrollment(), true);
@@ -214,10 +307,21 @@ public class HibernateAccountDao implements AccountDao {
         return builder;
     }
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc} The account's weekly adherence reports would be removed by the cascading delete, but they are 
+     * deleted first, in the same transaction, so that every deletion also removes them from their study's adherence 
+     * statistics.
+     */
     @Override
     public void deleteAccount(String userId) {
-        hibernateHelper.deleteById(HibernateAccount.class, userId);
+        hibernateHelper.executeWithExceptionHandling(null, (session) -> {
+            HibernateAccount account = session.get(HibernateAccount.class, userId);
+            if (account != null) {
+                session.doWork(HibernateAdherenceReportDao.deleteReportsAndStatistics(userId));
+                session.delete(account);
+            }
+            return null;
+        });
     }
 
     /** {@inheritDoc} */
@@ -347,4 +451,27 @@ public class HibernateAccountDao implements AccountDao {
         
         hibernateHelper.nativeQueryUpdate(builder.getQuery(), builder.getParameters());
     }
+    
+    /** {@inheritDoc} */
+    @Override
+    public int backfillSearchTerms(int limit) {
+        List<String> accountIds = hibernateHelper.nativeQueryGet(SELECT_SEARCH_TERM_BACKFILL, null, null, limit,
+                String.class);
+        for (String accountId : accountIds) {
+            hibernateHelper.executeWithExceptionHandling(null, (session) -> {
+                // Removing the account from the queue locks its queue row, so if two servers take the same account, 
+                // the second one waits and then finds nothing to remove.
+                int removed = session.createNativeQuery(DELETE_SEARCH_TERM_BACKFILL)
+                        .setParameter("accountId", accountId).executeUpdate();
+                if (removed > 0) {
+                    HibernateAccount account = session.get(HibernateAccount.class, accountId);
+                    if (account != null) {
+                        session.doWork(updateSearchTerms(account));
+                    }
+                }
+                return null;
+            });
+        }
+        return accountIds.size();
+    }
 }
@@ -0,0 +1,46 @@
+package org.sagebionetworks.bridge.hibernate;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+
+/**
+ * One trigram of an account's email, phone number, external IDs, or attribute values, prefixed with a character 
+ * identifying the field it was taken from (see SearchTrigrams). These rows are written through JDBC when an account 
+ * is saved; the entity is mapped so that account searches can query the table in HQL.
+ */
+@Entity
+@IdClass(HibernateAccountSearchTermId.class)
+@Table(name = "AccountSearchTerms")
+public class HibernateAccountSearchTerm {
+    private String accountId;
+    private String term;
+    private String appId;
+
+    @Id
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(String accountId) {
+        this.accountId = accountId;
+    }
+
+    @Id
+    public String getTerm() {
+        return term;
+    }
+
+    public void setTerm(String term) {
+        this.term = term;
+    }
+
+    public String getAppId() {
+        return appId;
+    }
+
+    public void setAppId(String appId) {
+        this.appId = appId;
+    }
+}
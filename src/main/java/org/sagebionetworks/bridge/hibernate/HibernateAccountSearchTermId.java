@@ -0,0 +1,37 @@
+package org.sagebionetworks.bridge.hibernate;
+
+import java.io.Serializable;
+
+/**
+ * Represents the composite key for HibernateAccountSearchTerm, which is accountId and term. Default constructor and
+ * setters are required by Hibernate.
+ */
+@SuppressWarnings("serial")
+public class HibernateAccountSearchTermId implements Serializable {
+    private String accountId;
+    private String term;
+
+    public HibernateAccountSearchTermId() {
+    }
+
+    public HibernateAccountSearchTermId(String accountId, String term) {
+        this.accountId = accountId;
+        this.term = term;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(String accountId) {
+        this.accountId = accountId;
+    }
+
+    public String getTerm() {
+        return term;
+    }
+
+    public void setTerm(String term) {
+        this.term = term;
+    }
+}
@@ -1,21 +1,30 @@
 package org.sagebionetworks.bridge.hibernate;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.sagebionetworks.bridge.BridgeUtils.COMMA_JOINER;
 import static org.sagebionetworks.bridge.BridgeUtils.OR_JOINER;
+import static org.sagebionetworks.bridge.hibernate.AdherenceStatisticsCounters.NO_ADHERENCE_PERCENT;
 import static org.sagebionetworks.bridge.models.SearchTermPredicate.AND;
 
-import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Resource;
 
-import org.hibernate.Session;
-import org.hibernate.SessionFactory;
-import org.hibernate.query.NativeQuery;
-import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.jdbc.Work;
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.dao.AdherenceReportDao;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.hibernate.QueryBuilder.WhereClauseBuilder;
@@ -23,33 +32,71 @@ import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.AccountTestFilter;
 import org.sagebionetworks.bridge.models.AdherenceReportSearch;
 import org.sagebionetworks.bridge.models.PagedResourceList;
+import org.sagebionetworks.bridge.models.accounts.AccountRef;
 import org.sagebionetworks.bridge.models.schedules2.adherence.AdherenceStatistics;
 import org.sagebionetworks.bridge.models.schedules2.adherence.AdherenceStatisticsEntry;
 import org.sagebionetworks.bridge.models.schedules2.adherence.weekly.WeeklyAdherenceReport;
+import org.sagebionetworks.bridge.models.schedules2.adherence.weekly.WeeklyAdherenceReportId;
 import org.sagebionetworks.bridge.models.schedules2.adherence.weekly.WeeklyAdherenceReportRow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 
 @Component
 public class HibernateAdherenceReportDao implements AdherenceReportDao {
+    private static final Logger LOG = LoggerFactory.getLogger(HibernateAdherenceReportDao.class);
+    
+    private static final EventStreamDayMapConverter BY_DAY_ENTRIES_CONVERTER = new EventStreamDayMapConverter();
+    private static final LocalDateToStringConverter LOCAL_DATE_CONVERTER = new LocalDateToStringConverter();
+    private static final NextActivityConverter NEXT_ACTIVITY_CONVERTER = new NextActivityConverter();
+    private static final WeeklyAdherenceReportRowListConverter ROWS_CONVERTER = new WeeklyAdherenceReportRowListConverter();
     
     private static final TypeReference<List<WeeklyAdherenceReportRow>> ROWS_LIST = new TypeReference<List<WeeklyAdherenceReportRow>>() {};
     
-    // For this to work, the default ONLY_FULL_GROUP_BY sql_mode flag must be removed from MySQL. None of our environments
-    // have this value, but local installations will need to clear sql_mode flags as described in the README.md file.
-    static final String STATISTICS_SQL = "SELECT label, count(*) as total, rows FROM WeeklyAdherenceReportLabels "
-            +"labels LEFT JOIN WeeklyAdherenceReports AS reports ON labels.appId = reports.appId AND labels.studyId = "
-            +"reports.studyId and labels.userId = reports.userId WHERE reports.appId = :appId AND reports.studyId = :studyId "
-            +"GROUP BY label";
+    // The statistics are read from counters that are maintained as reports are saved and deleted (see 
+    // AdherenceStatisticsCounters), so these queries read a handful of rows rather than aggregating the study's reports.
+    static final String BUCKET_STATISTICS_SQL = "SELECT adherencePercent, SUM(total) FROM "
+            +"WeeklyAdherenceReportBucketStats WHERE appId = :appId AND studyId = :studyId GROUP BY adherencePercent";
+    
+    static final String LABEL_STATISTICS_SQL = "SELECT label, total, rowJson FROM WeeklyAdherenceReportLabelStats "
+            +"WHERE appId = :appId AND studyId = :studyId AND total > 0";
+    
+    // Label counters created by the migration do not have a row to describe the label. These are filled in from 
+    // any report with the label, the first time they are read. For this to work, the default ONLY_FULL_GROUP_BY 
+    // sql_mode flag must be removed from MySQL. None of our environments have this value, but local installations 
+    // will need to clear sql_mode flags as described in the README.md file.
+    static final String MISSING_LABEL_ROWS_SQL = "SELECT labels.label, reports.rows FROM WeeklyAdherenceReportLabelStats "
+            +"stats JOIN WeeklyAdherenceReportLabels labels ON stats.appId = labels.appId AND stats.studyId = "
+            +"labels.studyId AND stats.label = labels.label JOIN WeeklyAdherenceReports reports ON labels.appId = "
+            +"reports.appId AND labels.studyId = reports.studyId AND labels.userId = reports.userId WHERE stats.appId = "
+            +":appId AND stats.studyId = :studyId AND stats.rowJson IS NULL GROUP BY labels.label";
+    
+    static final String UPDATE_LABEL_ROW_SQL = "UPDATE WeeklyAdherenceReportLabelStats SET rowJson = :rowJson WHERE "
+            +"appId = :appId AND studyId = :studyId AND label = :label";
+    
+    // Reads (and locks) the reports that are about to be replaced or deleted, so their counts can be removed.
+    static final String SELECT_PRIOR_REPORTS = "SELECT reports.appId, reports.studyId, reports.userId, "
+            +"reports.weeklyAdherencePercent, reports.progression, labels.label FROM WeeklyAdherenceReports reports "
+            +"LEFT JOIN WeeklyAdherenceReportLabels labels ON reports.appId = labels.appId AND reports.studyId = "
+            +"labels.studyId AND reports.userId = labels.userId WHERE ";
+    
+    static final String PRIOR_REPORTS_IN_STUDY = "reports.appId = ? AND reports.studyId = ? AND reports.userId IN ";
+    
+    static final String PRIOR_REPORTS_FOR_USER = "reports.userId = ?";
     
-    static final String ALL_ACTIVE_SQL = "SELECT count(distinct userId) AS count FROM BridgeDB.WeeklyAdherenceReports WHERE "
-            +"appId = :appId AND studyId = :studyId AND weeklyAdherencePercent IS NOT NULL";
+    static final String ORDER_AND_LOCK = " ORDER BY reports.appId, reports.studyId, reports.userId FOR UPDATE";
     
-    static final String UNDER_THRESHOLD_SQL = "SELECT count(distinct userId) AS count FROM BridgeDB.WeeklyAdherenceReports WHERE "
-            +"appId = :appId AND studyId = :studyId AND weeklyAdherencePercent < :threshold";
+    static final String DELETE_USER_LABELS = "DELETE FROM WeeklyAdherenceReportLabels WHERE userId = ?";
+    
+    static final String DELETE_USER_REPORTS = "DELETE FROM WeeklyAdherenceReports WHERE userId = ?";
 
     static final Comparator<String> STRING_COMPARATOR = Comparator.nullsLast((r1, r2) -> r1.compareToIgnoreCase(r2));
     
@@ -58,11 +105,51 @@ public class HibernateAdherenceReportDao implements AdherenceReportDao {
         return (sb != 0) ? sb : STRING_COMPARATOR.compare(r1.getSessionName(), r2.getSessionName());
     };
 
+    static final String UPSERT_REPORT = "INSERT INTO WeeklyAdherenceReports (appId, studyId, userId, testAccount, "
+            +"clientTimeZone, createdOn, weeklyAdherencePercent, nextActivity, byDayEntries, `rows`, identifier, "
+            +"firstName, lastName, email, orgMembership, phone, phoneRegion, synapseUserId, externalId, progression, "
+            +"weekInStudy, startDate) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+            +"ON DUPLICATE KEY UPDATE testAccount = VALUES(testAccount), clientTimeZone = VALUES(clientTimeZone), "
+            +"createdOn = VALUES(createdOn), weeklyAdherencePercent = VALUES(weeklyAdherencePercent), "
+            +"nextActivity = VALUES(nextActivity), byDayEntries = VALUES(byDayEntries), `rows` = VALUES(`rows`), "
+            +"identifier = VALUES(identifier), firstName = VALUES(firstName), lastName = VALUES(lastName), "
+            +"email = VALUES(email), orgMembership = VALUES(orgMembership), phone = VALUES(phone), "
+            +"phoneRegion = VALUES(phoneRegion), synapseUserId = VALUES(synapseUserId), externalId = VALUES(externalId), "
+            +"progression = VALUES(progression), weekInStudy = VALUES(weekInStudy), startDate = VALUES(startDate)";
+    
+    static final String DELETE_LABELS = "DELETE FROM WeeklyAdherenceReportLabels WHERE appId = ? AND studyId = ? "
+            +"AND userId = ?";
+    
+    static final String INSERT_LABEL = "INSERT INTO WeeklyAdherenceReportLabels (appId, studyId, userId, label) "
+            +"VALUES (?, ?, ?, ?)";
+    
+    static final String DELETE_SEARCH_TERMS = "DELETE FROM WeeklyAdherenceReportSearchTerms WHERE appId = ? AND "
+            +"studyId = ? AND userId = ?";
+    
+    static final String INSERT_SEARCH_TERM = "INSERT INTO WeeklyAdherenceReportSearchTerms (appId, studyId, userId, "
+            +"term) VALUES (?, ?, ?, ?)";
+    
+    static final String SELECT_SEARCH_TERM_BACKFILL = "SELECT appId, studyId, userId FROM "
+            +"WeeklyAdherenceReportSearchTermBackfill LIMIT :limit";
+    
+    static final String DELETE_SEARCH_TERM_BACKFILL = "DELETE FROM WeeklyAdherenceReportSearchTermBackfill WHERE "
+            +"appId = :appId AND studyId = :studyId AND userId = :userId";
+    
+    // Narrows an ID search to the reports that have every trigram of the search string, using the search term 
+    // index. The LIKE clauses are still applied to these candidates, which also preserves the prior semantics.
+    static final String ID_SEARCH_TERMS_CLAUSE = "h.userId IN (SELECT t.userId FROM WeeklyAdherenceReport t JOIN "
+            +"t.searchTerms term WHERE t.appId = :appId AND t.studyId = :studyId AND term IN :idTerms GROUP BY "
+            +"t.userId HAVING COUNT(DISTINCT term) = :idTermCount)";
+    
+    static final String BATCH_SIZE_PROPERTY = "adherence.report.batch.size";
+    
     static final String SELECT_COUNT = "SELECT COUNT(*) ";
     static final String SELECT_DISTINCT = "SELECT DISTINCT h ";
     static final String ADHERENCE_MIN_FIELD = "adherenceMin";
     static final String ADHERENCE_MAX_FIELD = "adherenceMax";
     static final String ID_FILTER_FIELD = "id";
+    static final String ID_TERMS_FIELD = "idTerms";
+    static final String ID_TERM_COUNT_FIELD = "idTermCount";
     static final String PROGRESSION_FILTER_FIELD = "progressionFilters"; 
     static final String LABEL_FILTER_FIELD = "labelFilter";
     static final String STUDY_ID_FIELD = "studyId";
@@ -70,7 +157,7 @@ public class HibernateAdherenceReportDao implements AdherenceReportDao {
     
     private HibernateHelper hibernateHelper;
     
-    private SessionFactory sessionFactory;
+    private int batchSize;
 
     @Resource(name = "mysqlHibernateHelper")
     final void setHibernateHelper(HibernateHelper hibernateHelper) {
@@ -78,14 +165,247 @@ public class HibernateAdherenceReportDao implements AdherenceReportDao {
     }
     
     @Autowired
-    final void setSessionFactory(SessionFactory sessionFactory) {
-        this.sessionFactory = sessionFactory;
+    public void setBridgeConfig(BridgeConfig config) {
+        this.batchSize = config.getInt(BATCH_SIZE_PROPERTY);
     }
 
     @Override
     public void saveWeeklyAdherenceReport(WeeklyAdherenceReport report) {
         checkNotNull(report);
-        hibernateHelper.saveOrUpdate(report);
+        
+        report.setSearchTerms(searchTerms(report));
+        hibernateHelper.executeWithExceptionHandling(report, (session) -> {
+            session.doWork(updateStatistics(ImmutableList.of(report)));
+            session.saveOrUpdate(report);
+            return report;
+        });
+    }
+    
+    @Override
+    public void saveWeeklyAdherenceReports(List<WeeklyAdherenceReport> reports) {
+        checkNotNull(reports);
+        
+        if (reports.isEmpty()) {
+            return;
+        }
+        // Hibernate's saveOrUpdate() selects each report and then separately replaces its label collection, 
+        // so for a study's worth of reports we bypass it and upsert through JDBC (see also 
+        // HibernateSchedule2Dao.persistRecordsInBatches).
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        hibernateHelper.executeWithExceptionHandling(null, (session) -> {
+            session.doWork(updateStatistics(reports));
+            session.doWork(persistReportsInBatches(reports));
+            return null;
+        });
+        stopwatch.stop();
+        
+        LOG.info("Persisting " + reports.size() + " weekly adherence reports in " + stopwatch.elapsed(MILLISECONDS)
+                + " ms (batchSize = " + batchSize + ")");
+    }
+    
+    /**
+     * Moves the counts of any existing reports for these users to the counts for the new reports. This must run in 
+     * the same transaction as the save, before the reports are written.
+     */
+    protected Work updateStatistics(List<WeeklyAdherenceReport> reports) {
+        return (connection) -> {
+            AdherenceStatisticsCounters counters = new AdherenceStatisticsCounters();
+            
+            Map<List<String>, List<String>> userIdsByStudy = new LinkedHashMap<>();
+            for (WeeklyAdherenceReport report : reports) {
+                List<String> studyKey = ImmutableList.of(report.getAppId(), report.getStudyId());
+                userIdsByStudy.computeIfAbsent(studyKey, (key) -> new ArrayList<>()).add(report.getUserId());
+                counters.add(report);
+            }
+            for (Map.Entry<List<String>, List<String>> entry : userIdsByStudy.entrySet()) {
+                for (List<String> userIds : Lists.partition(entry.getValue(), batchSize)) {
+                    String sql = SELECT_PRIOR_REPORTS + PRIOR_REPORTS_IN_STUDY + "("
+                            + COMMA_JOINER.join(Collections.nCopies(userIds.size(), "?")) + ")" + ORDER_AND_LOCK;
+                    try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                        ps.setString(1, entry.getKey().get(0));
+                        ps.setString(2, entry.getKey().get(1));
+                        for (int i = 0; i < userIds.size(); i++) {
+                            ps.setString(i + 3, userIds.get(i));
+                        }
+                        try (ResultSet rs = ps.executeQuery()) {
+                            counters.remove(rs);
+                        }
+                    }
+                }
+            }
+            counters.write(connection);
+        };
+    }
+    
+    /**
+     * Reports would be removed by a cascading delete of the account, but the statistics counters must be 
+     * decremented as well, so the reports are deleted explicitly. HibernateAccountDao runs this in the same 
+     * transaction that deletes the account.
+     */
+    static Work deleteReportsAndStatistics(String userId) {
+        return (connection) -> {
+            AdherenceStatisticsCounters counters = new AdherenceStatisticsCounters();
+            try (PreparedStatement ps = connection.prepareStatement(
+                    SELECT_PRIOR_REPORTS + PRIOR_REPORTS_FOR_USER + ORDER_AND_LOCK)) {
+                ps.setString(1, userId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    counters.remove(rs);
+                }
+            }
+            if (counters.isEmpty()) {
+                return;
+            }
+            counters.write(connection);
+            try (PreparedStatement labelsPs = connection.prepareStatement(DELETE_USER_LABELS);
+                 PreparedStatement reportsPs = connection.prepareStatement(DELETE_USER_REPORTS)) {
+                labelsPs.setString(1, userId);
+                labelsPs.executeUpdate();
+                reportsPs.setString(1, userId);
+                reportsPs.executeUpdate();
+            }
+        };
+    }
+    
+    /**
+     * Batching requires rewriteBatchedStatements=true in the connector string and auto commit to be off. 
+     * Labels are replaced wholesale, the same as Hibernate does for the element collection.
+     */
+    protected Work persistReportsInBatches(List<WeeklyAdherenceReport> reports) {
+        return (connection) -> {
+            connection.setAutoCommit(false);
+            try (PreparedStatement reportPs = connection.prepareStatement(UPSERT_REPORT);
+                 PreparedStatement deletePs = connection.prepareStatement(DELETE_LABELS);
+                 PreparedStatement labelPs = connection.prepareStatement(INSERT_LABEL);
+                 PreparedStatement deleteTermsPs = connection.prepareStatement(DELETE_SEARCH_TERMS);
+                 PreparedStatement termPs = connection.prepareStatement(INSERT_SEARCH_TERM)) {
+                
+                for (int i = 0, len = reports.size(); i < len; i++) {
+                    WeeklyAdherenceReport report = reports.get(i);
+                    updateReportStatement(reportPs, report);
+                    
+                    deletePs.setString(1, report.getAppId());
+                    deletePs.setString(2, report.getStudyId());
+                    deletePs.setString(3, report.getUserId());
+                    deletePs.addBatch();
+                    
+                    if (report.getSearchableLabels() != null) {
+                        for (String label : report.getSearchableLabels()) {
+                            labelPs.setString(1, report.getAppId());
+                            labelPs.setString(2, report.getStudyId());
+                            labelPs.setString(3, report.getUserId());
+                            labelPs.setString(4, label);
+                            labelPs.addBatch();
+                        }
+                    }
+                    
+                    deleteTermsPs.setString(1, report.getAppId());
+                    deleteTermsPs.setString(2, report.getStudyId());
+                    deleteTermsPs.setString(3, report.getUserId());
+                    deleteTermsPs.addBatch();
+                    
+                    for (String term : searchTerms(report)) {
+                        termPs.setString(1, report.getAppId());
+                        termPs.setString(2, report.getStudyId());
+                        termPs.setString(3, report.getUserId());
+                        termPs.setString(4, term);
+                        termPs.addBatch();
+                    }
+                    // Search terms have a foreign key to their report, so the reports in a batch are written 
+                    // first. The old labels and terms are deleted before the new ones are inserted, or a new 
+                    // one that matches an old one would collide with it on the primary key.
+                    if (i > 0 && (i % batchSize) == 0) {
+                        reportPs.executeBatch();
+                        deletePs.executeBatch();
+                        labelPs.executeBatch();
+                        deleteTermsPs.executeBatch();
+                        termPs.executeBatch();
+                    }
+                }
+                reportPs.executeBatch();
+                deletePs.executeBatch();
+                labelPs.executeBatch();
+                deleteTermsPs.executeBatch();
+                termPs.executeBatch();
+            }
+        };
+    }
+    
+    @Override
+    public int backfillSearchTerms(int limit) {
+        List<Object[]> results = hibernateHelper.nativeQuery(SELECT_SEARCH_TERM_BACKFILL,
+                ImmutableMap.of("limit", limit));
+        for (Object[] oneResult : results) {
+            WeeklyAdherenceReportId id = new WeeklyAdherenceReportId((String)oneResult[0], (String)oneResult[1],
+                    (String)oneResult[2]);
+            hibernateHelper.executeWithExceptionHandling(null, (session) -> {
+                // Removing the report from the queue locks its queue row, so if two servers take the same report, 
+                // the second one waits and then finds nothing to remove.
+                int removed = session.createNativeQuery(DELETE_SEARCH_TERM_BACKFILL)
+                        .setParameter(APP_ID_FIELD, id.getAppId())
+                        .setParameter(STUDY_ID_FIELD, id.getStudyId())
+                        .setParameter("userId", id.getUserId()).executeUpdate();
+                if (removed > 0) {
+                    WeeklyAdherenceReport report = session.get(WeeklyAdherenceReport.class, id);
+                    if (report != null) {
+                        report.setSearchTerms(searchTerms(report));
+                    }
+                }
+                return null;
+            });
+        }
+        return results.size();
+    }
+    
+    /**
+     * The trigrams of the participant's identifying information, which is the information that is searched by 
+     * the ID filter of a report search.
+     */
+    static Set<String> searchTerms(WeeklyAdherenceReport report) {
+        AccountRef participant = report.getParticipant();
+        if (participant == null) {
+            return new HashSet<>();
+        }
+        String phone = (participant.getPhone() == null) ? null : participant.getPhone().getNumber();
+        return SearchTrigrams.of(participant.getExternalId(), participant.getIdentifier(),
+                participant.getFirstName(), participant.getLastName(), participant.getEmail(), phone);
+    }
+    
+    // For testability, removing this to a separate method
+    protected void updateReportStatement(PreparedStatement ps, WeeklyAdherenceReport report) throws SQLException {
+        AccountRef participant = report.getParticipant();
+        
+        ps.setString(1, report.getAppId());
+        ps.setString(2, report.getStudyId());
+        ps.setString(3, report.getUserId());
+        ps.setBoolean(4, report.isTestAccount());
+        ps.setString(5, report.getClientTimeZone());
+        ps.setLong(6, report.getCreatedOn().getMillis());
+        setInteger(ps, 7, report.getWeeklyAdherencePercent());
+        ps.setString(8, NEXT_ACTIVITY_CONVERTER.convertToDatabaseColumn(report.getNextActivity()));
+        ps.setString(9, BY_DAY_ENTRIES_CONVERTER.convertToDatabaseColumn(report.getByDayEntries()));
+        ps.setString(10, ROWS_CONVERTER.convertToDatabaseColumn(report.getRows()));
+        ps.setString(11, (participant == null) ? null : participant.getIdentifier());
+        ps.setString(12, (participant == null) ? null : participant.getFirstName());
+        ps.setString(13, (participant == null) ? null : participant.getLastName());
+        ps.setString(14, (participant == null) ? null : participant.getEmail());
+        ps.setString(15, (participant == null) ? null : participant.getOrgMembership());
+        boolean hasPhone = (participant != null && participant.getPhone() != null);
+        ps.setString(16, hasPhone ? participant.getPhone().getNumber() : null);
+        ps.setString(17, hasPhone ? participant.getPhone().getRegionCode() : null);
+        ps.setString(18, (participant == null) ? null : participant.getSynapseUserId());
+        ps.setString(19, (participant == null) ? null : participant.getExternalId());
+        ps.setString(20, (report.getProgression() == null) ? null : report.getProgression().name());
+        setInteger(ps, 21, report.getWeekInStudy());
+        ps.setString(22, LOCAL_DATE_CONVERTER.convertToDatabaseColumn(report.getStartDate()));
+        ps.addBatch();
+    }
+    
+    private void setInteger(PreparedStatement ps, int index, Integer value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.NULL);
+        } else {
+            ps.setInt(index, value);
+        }
     }
 
     @Override
@@ -122,6 +442,11 @@ public class HibernateAdherenceReportDao implements AdherenceReportDao {
             where.append("h.testAccount = 0");
         }
         if (search.getIdFilter() != null) {
+            Set<String> idTerms = SearchTrigrams.forSearch(search.getIdFilter());
+            if (!idTerms.isEmpty()) {
+                where.append(ID_SEARCH_TERMS_CLAUSE, ID_TERMS_FIELD, idTerms, ID_TERM_COUNT_FIELD,
+                        Long.valueOf(idTerms.size()));
+            }
             List<String> clauses = new ArrayList<>();
             clauses.add("h.participant.externalId LIKE :id");
             clauses.add("h.participant.identifier LIKE :id");
@@ -147,16 +472,23 @@ public class HibernateAdherenceReportDao implements AdherenceReportDao {
 
     @Override
     public AdherenceStatistics getAdherenceStatistics(String appId, String studyId, Integer adherenceThreshold) {
-        List<AdherenceStatisticsEntry> entries = new ArrayList<>();
-        
         QueryBuilder builder = new QueryBuilder();
-        builder.append(STATISTICS_SQL, "appId", appId, "studyId", studyId);
+        builder.append(LABEL_STATISTICS_SQL, APP_ID_FIELD, appId, STUDY_ID_FIELD, studyId);
         List<Object[]> results = hibernateHelper.nativeQuery(builder.getQuery(), builder.getParameters());
+        
+        Map<String, String> missingRows = null;
+        List<AdherenceStatisticsEntry> entries = new ArrayList<>();
         for (Object[] oneResult : results) {
             String searchableLabel = (String)oneResult[0];
-            BigInteger totalActive = (BigInteger)oneResult[1];
-            String rowsJson = (String)oneResult[2];
-            WeeklyAdherenceReportRow row = findRow(rowsJson, searchableLabel);
+            Number totalActive = (Number)oneResult[1];
+            String rowJson = (String)oneResult[2];
+            if (rowJson == null) {
+                if (missingRows == null) {
+                    missingRows = backfillLabelRows(appId, studyId);
+                }
+                rowJson = missingRows.get(searchableLabel);
+            }
+            WeeklyAdherenceReportRow row = parseRow(rowJson, searchableLabel);
             
             AdherenceStatisticsEntry entry = new AdherenceStatisticsEntry();
             entry.setLabel(row.getLabel());
@@ -170,26 +502,75 @@ public class HibernateAdherenceReportDao implements AdherenceReportDao {
         }
         
         builder = new QueryBuilder();
-        builder.append(ALL_ACTIVE_SQL, "appId", appId, "studyId", studyId);
-        Integer total = getCount(builder);
-
-        builder = new QueryBuilder();
-        builder.append(UNDER_THRESHOLD_SQL, "appId", appId, "studyId", studyId, "threshold", adherenceThreshold);
-        Integer noncompliant = getCount(builder);
-        
-        Integer compliant = (total != null && noncompliant != null) ? total - noncompliant : null;
+        builder.append(BUCKET_STATISTICS_SQL, APP_ID_FIELD, appId, STUDY_ID_FIELD, studyId);
+        results = hibernateHelper.nativeQuery(builder.getQuery(), builder.getParameters());
         
+        int total = 0;
+        int noncompliant = 0;
+        for (Object[] oneResult : results) {
+            int percent = ((Number)oneResult[0]).intValue();
+            int count = ((Number)oneResult[1]).intValue();
+            if (percent != NO_ADHERENCE_PERCENT) {
+                total += count;
+                if (percent < adherenceThreshold) {
+                    noncompliant += count;
+                }
+            }
+        }
         entries.sort(ENTRIES_COMPARATOR);
         
         AdherenceStatistics stats = new AdherenceStatistics();
         stats.setAdherenceThresholdPercentage(adherenceThreshold);
         stats.setNoncompliant(noncompliant);
-        stats.setCompliant(compliant);
+        stats.setCompliant(total - noncompliant);
         stats.setTotalActive(total);
         stats.setEntries(entries);
         return stats;
     }
     
+    /**
+     * Find a row for every label counter that lacks one, and store it with the counter. Returns the row JSON by 
+     * searchable label.
+     */
+    private Map<String, String> backfillLabelRows(String appId, String studyId) {
+        QueryBuilder builder = new QueryBuilder();
+        builder.append(MISSING_LABEL_ROWS_SQL, APP_ID_FIELD, appId, STUDY_ID_FIELD, studyId);
+        List<Object[]> results = hibernateHelper.nativeQuery(builder.getQuery(), builder.getParameters());
+        
+        Map<String, String> rows = new HashMap<>();
+        for (Object[] oneResult : results) {
+            String searchableLabel = (String)oneResult[0];
+            WeeklyAdherenceReportRow row = findRow((String)oneResult[1], searchableLabel);
+            String rowJson = toJson(row);
+            rows.put(searchableLabel, rowJson);
+            
+            builder = new QueryBuilder();
+            builder.append(UPDATE_LABEL_ROW_SQL, "rowJson", rowJson, APP_ID_FIELD, appId, STUDY_ID_FIELD, studyId,
+                    "label", searchableLabel);
+            hibernateHelper.nativeQueryUpdate(builder.getQuery(), builder.getParameters());
+        }
+        return rows;
+    }
+    
+    private WeeklyAdherenceReportRow parseRow(String rowJson, String searchableLabel) {
+        if (rowJson == null) {
+            throw new BridgeServiceException("No weekly report row includes searchableLabel: " + searchableLabel);
+        }
+        try {
+            return BridgeObjectMapper.get().readValue(rowJson, WeeklyAdherenceReportRow.class);
+        } catch (JsonProcessingException e) {
+            throw new BridgeServiceException(e);
+        }
+    }
+    
+    private String toJson(WeeklyAdherenceReportRow row) {
+        try {
+            return BridgeObjectMapper.get().writeValueAsString(row);
+        } catch (JsonProcessingException e) {
+            throw new BridgeServiceException(e);
+        }
+    }
+    
     private WeeklyAdherenceReportRow findRow(String rowsJson, String searchableLabel) {
         try {
             List<WeeklyAdherenceReportRow> rows = BridgeObjectMapper.get().readValue(rowsJson, ROWS_LIST);
@@ -206,19 +587,4 @@ public class HibernateAdherenceReportDao implements AdherenceReportDao {
         // there at all...something is not correct.
         throw new BridgeServiceException("Weekly report rows do not include searchableLabel: " + searchableLabel);
     }
-    
-    private Integer getCount(QueryBuilder builder) {
-        try (Session session = sessionFactory.openSession()) {  
-            @SuppressWarnings("unchecked")
-            NativeQuery<Integer> query = session.createNativeQuery(builder.getQuery());
-            query.addScalar("count", StandardBasicTypes.INTEGER);
-            for (Map.Entry<String, Object> entry : builder.getParameters().entrySet()) {
-                query.setParameter(entry.getKey(), entry.getValue());
-            }
-            if (query.list().isEmpty()) {
-                return null;
-            }
-            return ((List<Integer>)query.list()).get(0);
-        }
-    }
-}    
+}
@@ -1,5 +1,6 @@
 package org.sagebionetworks.bridge.hibernate;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.toList;
 import static org.sagebionetworks.bridge.BridgeConstants.SHARED_APP_ID;
 import static org.sagebionetworks.bridge.BridgeUtils.AND_JOINER;
@@ -10,9 +11,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Resource;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.hibernate.Session;
 import org.hibernate.query.NativeQuery;
 import org.springframework.stereotype.Component;
 
@@ -23,6 +31,12 @@ import org.sagebionetworks.bridge.models.assessments.HibernateAssessment;
 import org.sagebionetworks.bridge.models.assessments.config.AssessmentConfig;
 import org.sagebionetworks.bridge.models.assessments.config.HibernateAssessmentConfig;
 
+/**
+ * The latest revision of each assessment is tracked in the AssessmentLatestRevisions table, which is updated in the
+ * same transaction as every write that adds or removes a revision. Listing assessments joins to this table rather
+ * than aggregating all the revisions in an app. Pages of the listing are also cached for a short time on this 
+ * server; any assessment write in an app invalidates that app's cached pages.
+ */
 @Component
 class HibernateAssessmentDao implements AssessmentDao {
     static final String APP_ID = "appId";
@@ -33,7 +47,7 @@ class HibernateAssessmentDao implements AssessmentDao {
     static final String OWNER_ID = "ownerId";
         
     static final String SELECT_COUNT = "SELECT COUNT(*)";
-    static final String SELECT_ALL = "SELECT *";
+    static final String SELECT_ASSESSMENTS = "SELECT a.*";
     static final String GET_BY_IDENTIFIER = "FROM HibernateAssessment WHERE appId=:appId "+
             "AND identifier=:identifier AND revision=:revision";
     static final String GET_BY_GUID = "FROM HibernateAssessment WHERE appId=:appId AND guid=:guid";
@@ -47,6 +61,22 @@ class HibernateAssessmentDao implements AssessmentDao {
     static final String DELETE_ALL_ASSESSMENTS_SQL = "DELETE FROM Assessments WHERE appId = :appId";
     static final String DELETE_RESOURCES_SQL = "DELETE FROM ExternalResources where appId = :appId AND assessmentId = :assessmentId";
     static final String DELETE_CONFIG_SQL = "DELETE FROM AssessmentConfigs where guid = :guid";
+    // Points the identifier at its highest remaining revision. If no revisions remain, the pointer was already removed
+    // when its assessment was deleted (the foreign key cascades), and this inserts nothing.
+    static final String UPDATE_LATEST_REVISION_SQL = "REPLACE INTO AssessmentLatestRevisions (appId, identifier, guid) "
+            + "SELECT appId, identifier, guid FROM Assessments WHERE appId = :appId AND identifier = :identifier "
+            + "ORDER BY revision DESC LIMIT 1";
+    
+    static final int PAGE_CACHE_MAX_SIZE = 1000;
+    static final int PAGE_CACHE_EXPIRE_SECONDS = 30;
+    
+    private final Cache<String, PagedResourceList<Assessment>> pageCache = CacheBuilder.newBuilder()
+            .maximumSize(PAGE_CACHE_MAX_SIZE)
+            .expireAfterWrite(PAGE_CACHE_EXPIRE_SECONDS, SECONDS)
+            .build();
+    // Cached pages are keyed by their app's generation, which is incremented by every write to the app. A page that 
+    // is read while a write is in progress is cached under the old generation, so it is never returned.
+    private final ConcurrentMap<String, AtomicLong> pageGenerations = new ConcurrentHashMap<>();
 
     private HibernateHelper hibernateHelper;
     
@@ -61,42 +91,42 @@ class HibernateAssessmentDao implements AssessmentDao {
         
         boolean includeTags = !isEmpty(tags);
         
-        // Not sure pulling this out into constants is any easier to understand...
-        QueryBuilder builder = new QueryBuilder();
-        builder.append("FROM (");
-        builder.append("SELECT DISTINCT identifier as id, MAX(revision) AS rev FROM Assessments");
-        builder.append("WHERE appId = :appId");
-        if (ownerId != null) {
-            builder.append(LIMIT_TO_OWNER, OWNER_ID, ownerId);
+        String cacheKey = getPageCacheKey(appId, ownerId, offsetBy, pageSize, tags, includeDeleted);
+        PagedResourceList<Assessment> cachedPage = pageCache.getIfPresent(cacheKey);
+        if (cachedPage != null) {
+            return copyPage(cachedPage);
         }
-        builder.append("GROUP BY identifier) AS latest_assessments");
-        builder.append("INNER JOIN Assessments AS a ON a.identifier = latest_assessments.id AND");
-        builder.append("a.revision = latest_assessments.rev");
+        
+        QueryBuilder builder = new QueryBuilder();
+        builder.append("FROM AssessmentLatestRevisions AS latest");
+        builder.append("INNER JOIN Assessments AS a ON a.guid = latest.guid");
         
         List<String> clauses = new ArrayList<>();
-        clauses.add("WHERE appId = :appId");
+        clauses.add("WHERE latest.appId = :appId");
         if (ownerId != null) {
-            clauses.add("ownerId = :ownerId");
+            clauses.add("a.ownerId = :ownerId");
             builder.getParameters().put(OWNER_ID, ownerId);
         }
         if (includeTags) {
-            clauses.add("guid IN (SELECT DISTINCT assessmentGuid FROM AssessmentTags WHERE tagValue IN :tags)");
+            clauses.add("a.guid IN (SELECT DISTINCT assessmentGuid FROM AssessmentTags WHERE tagValue IN :tags)");
             builder.getParameters().put("tags", tags);
         }
         if (!includeDeleted) {
-            clauses.add("deleted = 0");
+            clauses.add("a.deleted = 0");
         }
         builder.append(AND_JOINER.join(clauses), APP_ID, appId);
-        builder.append("ORDER BY createdOn DESC");
+        builder.append("ORDER BY a.createdOn DESC");
         
         int count = hibernateHelper.nativeQueryCount(
                 SELECT_COUNT + " " + builder.getQuery(), builder.getParameters());
         List<HibernateAssessment> assessments = hibernateHelper.nativeQueryGet(
-                SELECT_ALL + " " + builder.getQuery(), builder.getParameters(), 
+                SELECT_ASSESSMENTS + " " + builder.getQuery(), builder.getParameters(), 
                 offsetBy, pageSize, HibernateAssessment.class);
         
         List<Assessment> dtos = assessments.stream().map(Assessment::create).collect(toList());
-        return new PagedResourceList<Assessment>(dtos, count, true);
+        PagedResourceList<Assessment> page = new PagedResourceList<Assessment>(dtos, count, true);
+        pageCache.put(cacheKey, page);
+        return copyPage(page);
     }
     
     @Override
@@ -160,8 +190,11 @@ class HibernateAssessmentDao implements AssessmentDao {
         
         HibernateAssessment retValue = hibernateHelper.executeWithExceptionHandling(hibernateAssessment, (session) -> {
             session.persist(hibernateConfig);
-            return (HibernateAssessment)session.merge(hibernateAssessment);
+            HibernateAssessment merged = (HibernateAssessment)session.merge(hibernateAssessment);
+            updateLatestRevision(session, appId, hibernateAssessment.getIdentifier());
+            return merged;
         });
+        invalidatePages(appId);
         return Assessment.create(retValue);
     }
 
@@ -174,6 +207,7 @@ class HibernateAssessmentDao implements AssessmentDao {
         HibernateAssessment hibernateAssessment = HibernateAssessment.create(appId, assessment);
         HibernateAssessment retValue = hibernateHelper.executeWithExceptionHandling(hibernateAssessment, 
                 (session) -> (HibernateAssessment)session.merge(hibernateAssessment));
+        invalidatePages(appId);
         return Assessment.create(retValue);
     }
 
@@ -196,8 +230,10 @@ class HibernateAssessmentDao implements AssessmentDao {
             query.executeUpdate();
             
             session.remove(hibernateAssessment);
+            updateLatestRevision(session, appId, assessmentId);
             return null;
         });
+        invalidatePages(appId);
     }
 
     @Override
@@ -211,8 +247,12 @@ class HibernateAssessmentDao implements AssessmentDao {
             // And persist all of the resources
             session.saveOrUpdate(hibernateDestConfig);
             session.saveOrUpdate(hibernateDest);
-            return (HibernateAssessment)session.merge(hibernateOrigin);
+            HibernateAssessment merged = (HibernateAssessment)session.merge(hibernateOrigin);
+            updateLatestRevision(session, SHARED_APP_ID, hibernateDest.getIdentifier());
+            return merged;
         });
+        invalidatePages(originAppId);
+        invalidatePages(SHARED_APP_ID);
         return Assessment.create(retValue);
     }
 
@@ -224,8 +264,10 @@ class HibernateAssessmentDao implements AssessmentDao {
         HibernateAssessment retValue = hibernateHelper.executeWithExceptionHandling(hibernateDest, (session) -> {
             session.saveOrUpdate(hibernateConfig);
             session.merge(hibernateDest);
+            updateLatestRevision(session, destAppId, hibernateDest.getIdentifier());
             return hibernateDest;
         });
+        invalidatePages(destAppId);
         return Assessment.create(retValue);
     }
 
@@ -251,5 +293,37 @@ class HibernateAssessmentDao implements AssessmentDao {
         builder.append(DELETE_ALL_ASSESSMENTS_SQL, APP_ID, appId);
         
         hibernateHelper.nativeQueryUpdate(builder.getQuery(), builder.getParameters());
+        invalidatePages(appId);
+    }
+    
+    // The pending inserts and deletes must be written before the revisions are queried.
+    private void updateLatestRevision(Session session, String appId, String identifier) {
+        session.flush();
+        NativeQuery<?> query = session.createNativeQuery(UPDATE_LATEST_REVISION_SQL);
+        query.setParameter(APP_ID, appId);
+        query.setParameter(IDENTIFIER, identifier);
+        query.executeUpdate();
+    }
+    
+    private String getPageCacheKey(String appId, String ownerId, int offsetBy, int pageSize, Set<String> tags,
+            boolean includeDeleted) {
+        long generation = pageGenerations.computeIfAbsent(appId, (key) -> new AtomicLong()).get();
+        String tagString = isEmpty(tags) ? "" : new TreeSet<>(tags).toString();
+        return appId + ":" + generation + ":" + ownerId + ":" + offsetBy + ":" + pageSize + ":" + tagString + ":"
+                + includeDeleted;
+    }
+    
+    private void invalidatePages(String appId) {
+        pageGenerations.computeIfAbsent(appId, (key) -> new AtomicLong()).incrementAndGet();
+    }
+    
+    // Callers add request parameters to the page they receive, so each caller gets its own copy.
+    private static PagedResourceList<Assessment> copyPage(PagedResourceList<Assessment> page) {
+        return new PagedResourceList<Assessment>(new ArrayList<>(page.getItems()), page.getTotal(), true);
+    }
+    
+    // Package-scoped for unit tests.
+    void clearPageCache() {
+        pageCache.invalidateAll();
     }
 }
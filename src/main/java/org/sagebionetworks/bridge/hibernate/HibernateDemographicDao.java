@@ -149,6 +149,31 @@ public class HibernateDemographicDao implements DemographicDao {
         return existingDemographicUser;
     }
 
+    /**
+     * Fetches the app-level DemographicUser and all study-level DemographicUsers
+     * for a user, with their demographics, in a single query.
+     * 
+     * @param appId  The appId of the app which contains the DemographicUsers to
+     *               fetch.
+     * @param userId The userId of the user who is associated with the
+     *               DemographicUsers to be fetched.
+     * @return the DemographicUsers for the user, or an empty list if there are
+     *         none. The app-level DemographicUser has a null studyId.
+     */
+    @Override
+    public List<DemographicUser> getDemographicUsersForUser(String appId, String userId) {
+        QueryBuilder builder = new QueryBuilder();
+        // Fetch joins load the demographics and their values with the users, rather than with a query per user
+        // and per demographic.
+        builder.append("SELECT DISTINCT du FROM DemographicUser du LEFT JOIN FETCH du.demographics d "
+                + "LEFT JOIN FETCH d.values");
+        WhereClauseBuilder where = builder.startWhere(SearchTermPredicate.AND);
+        where.append("du.appId = :appId", "appId", appId);
+        where.append("du.userId = :userId", "userId", userId);
+        return hibernateHelper.queryGet(builder.getQuery(), builder.getParameters(), null, null,
+                DemographicUser.class);
+    }
+
     /**
      * Fetches all app-level DemographicUsers for an app or all study-level
      * DemographicUsers for a study.
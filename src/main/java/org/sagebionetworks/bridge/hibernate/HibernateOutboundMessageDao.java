@@ -0,0 +1,107 @@
+package org.sagebionetworks.bridge.hibernate;
+
+import static org.sagebionetworks.bridge.BridgeUtils.generateGuid;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Resource;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.dao.OutboundMessageDao;
+import org.sagebionetworks.bridge.models.OutboundMessage;
+import org.sagebionetworks.bridge.models.OutboundMessage.Channel;
+import org.sagebionetworks.bridge.models.OutboundMessage.Status;
+
+/**
+ * Hibernate implementation of OutboundMessageDao. Messages are claimed with a single UPDATE that stamps a new claim
+ * token on the due rows, so two servers polling at the same time never claim the same message; the claimed rows are
+ * then read back by their token. A claimed message is only updated if it still has the token, so a server whose claim
+ * ran out cannot overwrite the message after another server has claimed it.
+ */
+@Component
+public class HibernateOutboundMessageDao implements OutboundMessageDao {
+    static final String CLAIM_SQL = "UPDATE OutboundMessages SET claimToken = :claimToken, " +
+            "claimedUntil = :claimedUntil WHERE channel = :channel AND status = 'PENDING' " +
+            "AND nextAttemptOn <= :now AND (claimedUntil IS NULL OR claimedUntil < :now) " +
+            "ORDER BY nextAttemptOn LIMIT :limit";
+    static final String GET_CLAIMED_QUERY = "FROM OutboundMessage WHERE claimToken = :claimToken " +
+            "ORDER BY nextAttemptOn";
+    // Only the server that holds the claim can update the message, and the update releases the claim.
+    static final String UPDATE_QUERY = "UPDATE OutboundMessage SET status = :status, attempts = :attempts, " +
+            "nextAttemptOn = :nextAttemptOn, lastError = :lastError, claimToken = NULL, claimedUntil = NULL " +
+            "WHERE id = :id AND claimToken = :claimToken";
+    // Deleted by query, so that the payload is not loaded just to be deleted.
+    static final String DELETE_QUERY = "DELETE FROM OutboundMessage WHERE id = :id";
+    static final String DELETE_CREATED_BEFORE_QUERY = "DELETE FROM OutboundMessage WHERE createdOn < :createdOn";
+    static final String DELETE_FOR_RECIPIENTS_QUERY = "DELETE FROM OutboundMessage WHERE appId = :appId " +
+            "AND recipient IN (:recipients)";
+    static final String COUNT_QUERY = "SELECT COUNT(*) FROM OutboundMessage WHERE channel = :channel " +
+            "AND status = :status";
+
+    private HibernateHelper hibernateHelper;
+
+    @Resource(name = "basicHibernateHelper")
+    public final void setHibernateHelper(HibernateHelper hibernateHelper) {
+        this.hibernateHelper = hibernateHelper;
+    }
+
+    @Override
+    public void createMessage(OutboundMessage message) {
+        hibernateHelper.create(message);
+    }
+
+    @Override
+    public List<OutboundMessage> claimMessages(Channel channel, long now, long claimedUntil, int limit) {
+        String claimToken = generateGuid();
+        int claimed = hibernateHelper.nativeQueryUpdate(CLAIM_SQL, ImmutableMap.of("claimToken", claimToken,
+                "claimedUntil", claimedUntil, "channel", channel.name(), "now", now, "limit", limit));
+        if (claimed == 0) {
+            return ImmutableList.of();
+        }
+        return hibernateHelper.queryGet(GET_CLAIMED_QUERY, ImmutableMap.of("claimToken", claimToken), null, null,
+                OutboundMessage.class);
+    }
+
+    @Override
+    public boolean updateMessage(OutboundMessage message, String claimToken) {
+        // The last error can be null, which ImmutableMap does not allow.
+        Map<String, Object> params = new HashMap<>();
+        params.put("status", message.getStatus());
+        params.put("attempts", message.getAttempts());
+        params.put("nextAttemptOn", message.getNextAttemptOn());
+        params.put("lastError", message.getLastError());
+        params.put("id", message.getId());
+        params.put("claimToken", claimToken);
+        return hibernateHelper.queryUpdate(UPDATE_QUERY, params) > 0;
+    }
+
+    @Override
+    public void deleteMessage(String id) {
+        hibernateHelper.queryUpdate(DELETE_QUERY, ImmutableMap.of("id", id));
+    }
+
+    @Override
+    public int deleteMessagesCreatedBefore(long createdOn) {
+        return hibernateHelper.queryUpdate(DELETE_CREATED_BEFORE_QUERY, ImmutableMap.of("createdOn", createdOn));
+    }
+
+    @Override
+    public void deleteMessagesForRecipients(String appId, Set<String> recipients) {
+        if (recipients.isEmpty()) {
+            return;
+        }
+        hibernateHelper.queryUpdate(DELETE_FOR_RECIPIENTS_QUERY, ImmutableMap.of("appId", appId,
+                "recipients", recipients));
+    }
+
+    @Override
+    public int countMessages(Channel channel, Status status) {
+        return hibernateHelper.queryCount(COUNT_QUERY, ImmutableMap.of("channel", channel, "status", status));
+    }
+}
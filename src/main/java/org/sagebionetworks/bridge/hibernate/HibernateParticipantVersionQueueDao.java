@@ -0,0 +1,105 @@
+package org.sagebionetworks.bridge.hibernate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Resource;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableMap;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.dao.ParticipantVersionQueueDao;
+import org.sagebionetworks.bridge.models.ParticipantVersionQueueEntry;
+
+/**
+ * Hibernate implementation of ParticipantVersionQueueDao. An entry is added or replaced with a single upsert, so two
+ * servers enqueueing versions for the same participant at the same time leave one entry with the later version. An
+ * entry is only removed, or has its retry schedule saved, if its revision is the one that was read, so a version that
+ * replaces the entry while it is being written is not lost.
+ */
+@Component
+public class HibernateParticipantVersionQueueDao implements ParticipantVersionQueueDao {
+    // MySQL counts a row that ON DUPLICATE KEY UPDATE changed as two affected rows.
+    static final String ENQUEUE_SQL = "INSERT INTO ParticipantVersionQueue (appId, healthCode, payload, revision, " +
+            "attempts, nextAttemptOn) VALUES (:appId, :healthCode, :payload, 1, 0, :nextAttemptOn) " +
+            "ON DUPLICATE KEY UPDATE payload = VALUES(payload), revision = revision + 1, attempts = 0";
+    static final String GET_DUE_APP_IDS_QUERY = "SELECT DISTINCT appId FROM ParticipantVersionQueueEntry " +
+            "WHERE nextAttemptOn <= :now";
+    static final String GET_DUE_QUERY = "FROM ParticipantVersionQueueEntry WHERE appId = :appId " +
+            "AND nextAttemptOn <= :now ORDER BY nextAttemptOn";
+    static final String UPDATE_QUERY = "UPDATE ParticipantVersionQueueEntry SET attempts = :attempts, " +
+            "nextAttemptOn = :nextAttemptOn, writtenVersion = :writtenVersion WHERE appId = :appId " +
+            "AND healthCode = :healthCode AND revision = :revision";
+    static final String UPDATE_WRITTEN_VERSION_QUERY = "UPDATE ParticipantVersionQueueEntry " +
+            "SET writtenVersion = :writtenVersion WHERE appId = :appId AND healthCode = :healthCode";
+    static final String DELETE_REVISION_QUERY = "DELETE FROM ParticipantVersionQueueEntry WHERE appId = :appId " +
+            "AND healthCode = :healthCode AND revision = :revision";
+    static final String DELETE_QUERY = "DELETE FROM ParticipantVersionQueueEntry WHERE appId = :appId " +
+            "AND healthCode = :healthCode";
+    static final String COUNT_QUERY = "SELECT COUNT(*) FROM ParticipantVersionQueueEntry";
+
+    private HibernateHelper hibernateHelper;
+
+    @Resource(name = "basicHibernateHelper")
+    public final void setHibernateHelper(HibernateHelper hibernateHelper) {
+        this.hibernateHelper = hibernateHelper;
+    }
+
+    @Override
+    public boolean enqueue(String appId, String healthCode, JsonNode payload, long nextAttemptOn) {
+        int updated = hibernateHelper.nativeQueryUpdate(ENQUEUE_SQL, ImmutableMap.of("appId", appId,
+                "healthCode", healthCode, "payload", payload.toString(), "nextAttemptOn", nextAttemptOn));
+        return updated > 1;
+    }
+
+    @Override
+    public List<String> getAppIdsWithDueEntries(long now) {
+        return hibernateHelper.queryGet(GET_DUE_APP_IDS_QUERY, ImmutableMap.of("now", now), null, null,
+                String.class);
+    }
+
+    @Override
+    public List<ParticipantVersionQueueEntry> getDueEntries(String appId, long now, int limit) {
+        return hibernateHelper.queryGet(GET_DUE_QUERY, ImmutableMap.of("appId", appId, "now", now), null, limit,
+                ParticipantVersionQueueEntry.class);
+    }
+
+    @Override
+    public void updateEntry(ParticipantVersionQueueEntry entry) {
+        // The written version can be null, which ImmutableMap does not allow.
+        Map<String, Object> params = new HashMap<>();
+        params.put("attempts", entry.getAttempts());
+        params.put("nextAttemptOn", entry.getNextAttemptOn());
+        params.put("writtenVersion", entry.getWrittenVersion());
+        params.put("appId", entry.getAppId());
+        params.put("healthCode", entry.getHealthCode());
+        params.put("revision", entry.getRevision());
+        if (hibernateHelper.queryUpdate(UPDATE_QUERY, params) > 0) {
+            return;
+        }
+        // The payload was replaced, which cleared the attempts and left the entry due. The version that was written
+        // (or, if it has been exported, the lack of one) still applies to the replacement.
+        params.remove("attempts");
+        params.remove("nextAttemptOn");
+        params.remove("revision");
+        hibernateHelper.queryUpdate(UPDATE_WRITTEN_VERSION_QUERY, params);
+    }
+
+    @Override
+    public boolean deleteEntry(ParticipantVersionQueueEntry entry) {
+        return hibernateHelper.queryUpdate(DELETE_REVISION_QUERY, ImmutableMap.of("appId", entry.getAppId(),
+                "healthCode", entry.getHealthCode(), "revision", entry.getRevision())) > 0;
+    }
+
+    @Override
+    public void deleteEntry(String appId, String healthCode) {
+        hibernateHelper.queryUpdate(DELETE_QUERY, ImmutableMap.of("appId", appId, "healthCode", healthCode));
+    }
+
+    @Override
+    public int countEntries() {
+        return hibernateHelper.queryCount(COUNT_QUERY, null);
+    }
+}
@@ -1,14 +1,11 @@
 package org.sagebionetworks.bridge.hibernate;
 
+import static java.util.stream.Collectors.toList;
+
 import java.util.List;
-import java.util.Map;
 
 import javax.annotation.Resource;
 
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.MultimapBuilder;
-import com.google.common.collect.Multimaps;
-
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.dao.TagDao;
@@ -25,19 +22,9 @@ public class HibernateTagDao implements TagDao {
     }
     
     @Override
-    public Map<String, List<String>> getTags() {
-        ListMultimap<String, String> multimap = MultimapBuilder.hashKeys().arrayListValues().build();
-        
+    public List<String> getTagValues() {
         List<Tag> tags = hibernateHelper.queryGet("from Tag", null, null, null, Tag.class);
-        for (Tag tag : tags) {
-            String[] elements = tag.getValue().split(":", 2);
-            if (elements.length == 1) {
-                multimap.put("default", elements[0]);
-            } else {
-                multimap.put(elements[0], elements[1]);
-            }
-        }
-        return Multimaps.asMap(multimap);
+        return tags.stream().map(Tag::getValue).collect(toList());
     }
     
     @Override
@@ -21,6 +21,8 @@ public class HibernateUploadTableJob implements UploadTableJob {
     private String appId;
     private String studyId;
     private DateTime requestedOn;
+    private DateTime startedOn;
+    private DateTime finishedOn;
     private Status status;
     private String s3Key;
 
@@ -66,6 +68,28 @@ public class HibernateUploadTableJob implements UploadTableJob {
         this.requestedOn = requestedOn;
     }
 
+    @Convert(converter = DateTimeToLongAttributeConverter.class)
+    @Override
+    public DateTime getStartedOn() {
+        return startedOn;
+    }
+
+    @Override
+    public void setStartedOn(DateTime startedOn) {
+        this.startedOn = startedOn;
+    }
+
+    @Convert(converter = DateTimeToLongAttributeConverter.class)
+    @Override
+    public DateTime getFinishedOn() {
+        return finishedOn;
+    }
+
+    @Override
+    public void setFinishedOn(DateTime finishedOn) {
+        this.finishedOn = finishedOn;
+    }
+
     @Enumerated(EnumType.STRING)
     @Override
     public Status getStatus() {
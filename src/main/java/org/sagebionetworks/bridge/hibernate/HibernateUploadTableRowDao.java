@@ -1,28 +1,71 @@
 package org.sagebionetworks.bridge.hibernate;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 import javax.annotation.Resource;
 
+import com.google.common.base.Stopwatch;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.jdbc.Work;
+import org.hibernate.query.Query;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.BridgeConstants;
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.dao.UploadTableRowDao;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.PagedResourceList;
+import org.sagebionetworks.bridge.models.ResourceList;
 import org.sagebionetworks.bridge.upload.UploadTableRow;
 import org.sagebionetworks.bridge.upload.UploadTableRowQuery;
 
 /** Hibernate implementation of UploadTableRowDao. */
 @Component
 public class HibernateUploadTableRowDao implements UploadTableRowDao {
+    private static final Logger LOG = LoggerFactory.getLogger(HibernateUploadTableRowDao.class);
+
+    private static final StringMapConverter STRING_MAP_CONVERTER = new StringMapConverter();
+
+    static final String BATCH_SIZE_PROPERTY = "upload.table.row.batch.size";
+
+    static final String UPSERT_ROW = "INSERT INTO UploadTableRows (appId, studyId, recordId, assessmentGuid, "
+            + "createdOn, testData, healthCode, participantVersion, metadata, data) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE assessmentGuid = VALUES(assessmentGuid), createdOn = VALUES(createdOn), "
+            + "testData = VALUES(testData), healthCode = VALUES(healthCode), "
+            + "participantVersion = VALUES(participantVersion), metadata = VALUES(metadata), data = VALUES(data)";
+
+    // Offset keys are the createdOn (in epoch millis) and record ID of the last row of the previous page.
+    private static final String OFFSET_KEY_SEPARATOR = ":";
+
     private HibernateHelper hibernateHelper;
+    private int batchSize;
 
     @Resource(name = "basicHibernateHelper")
     public final void setHibernateHelper(HibernateHelper hibernateHelper) {
         this.hibernateHelper = hibernateHelper;
     }
 
+    @Autowired
+    public final void setBridgeConfig(BridgeConfig config) {
+        this.batchSize = config.getInt(BATCH_SIZE_PROPERTY);
+    }
+
     @Override
     public void deleteUploadTableRow(String appId, String studyId, String recordId) {
         HibernateUploadTableRowId id = new HibernateUploadTableRowId(appId, studyId, recordId);
@@ -38,6 +81,136 @@ public class HibernateUploadTableRowDao implements UploadTableRowDao {
 
     @Override
     public PagedResourceList<UploadTableRow> queryUploadTableRows(UploadTableRowQuery query) {
+        QueryBuilder builder = makeQueryBuilder(query);
+
+        // Get total.
+        int total = hibernateHelper.queryCount("SELECT COUNT(DISTINCT recordId) " + builder.getQuery(),
+                builder.getParameters());
+
+        // Start and count.
+        Integer start = query.getStart();
+        if (start == null) {
+            start = 0;
+        }
+        Integer pageSize = query.getPageSize();
+        if (pageSize == null) {
+            pageSize = BridgeConstants.API_DEFAULT_PAGE_SIZE;
+        }
+
+        // Query.
+        List<HibernateUploadTableRow> hibernateList = hibernateHelper.queryGet(builder.getQuery(),
+                builder.getParameters(), start, pageSize, HibernateUploadTableRow.class);
+
+        // Because of Java generic typing issues, we need to convert this to a non-Hibernate UploadTableRow.
+        List<UploadTableRow> list = new ArrayList<>(hibernateList);
+        return new PagedResourceList<>(list, total)
+                .withRequestParam("assessmentGuid", query.getAssessmentGuid())
+                .withRequestParam("startTime", query.getStartTime())
+                .withRequestParam("endTime", query.getEndTime())
+                .withRequestParam("includeTestData", query.getIncludeTestData())
+                .withRequestParam("start", start)
+                .withRequestParam("pageSize", pageSize);
+    }
+
+    /**
+     * Unlike an offset, which makes MySQL read and discard every row before the page, the offset key seeks directly
+     * to the page in the (appId, studyId, createdOn) index. (InnoDB secondary indices end with the primary key, so
+     * the index is also ordered by recordId.) Reading every page of a study is linear in the number of rows.
+     */
+    @Override
+    public ForwardCursorPagedResourceList<UploadTableRow> queryUploadTableRowsByCursor(UploadTableRowQuery query) {
+        QueryBuilder builder = makeQueryBuilder(query);
+
+        // Get total, if requested. This is the one part of the query that reads every matching row.
+        Integer total = null;
+        if (query.getIncludeTotal()) {
+            total = hibernateHelper.queryCount("SELECT COUNT(DISTINCT recordId) " + builder.getQuery(),
+                    builder.getParameters());
+        }
+
+        // Start after the offset key.
+        if (query.getOffsetKey() != null) {
+            int separatorIndex = query.getOffsetKey().indexOf(OFFSET_KEY_SEPARATOR);
+            DateTime offsetCreatedOn;
+            try {
+                offsetCreatedOn = new DateTime(Long.parseLong(query.getOffsetKey().substring(0, separatorIndex)));
+            } catch (IndexOutOfBoundsException | NumberFormatException ex) {
+                throw new BadRequestException("Invalid offsetKey: " + query.getOffsetKey());
+            }
+            builder.append("AND (createdOn > :offsetCreatedOn OR (createdOn = :offsetCreatedOn AND " +
+                    "recordId > :offsetRecordId))");
+            builder.getParameters().put("offsetCreatedOn", offsetCreatedOn);
+            builder.getParameters().put("offsetRecordId", query.getOffsetKey().substring(separatorIndex + 1));
+        }
+        builder.append("ORDER BY createdOn, recordId");
+
+        Integer pageSize = query.getPageSize();
+        if (pageSize == null) {
+            pageSize = BridgeConstants.API_DEFAULT_PAGE_SIZE;
+        }
+
+        // Get one more row than the page size, to know if there is a next page.
+        List<HibernateUploadTableRow> hibernateList = hibernateHelper.queryGet(builder.getQuery(),
+                builder.getParameters(), 0, pageSize + 1, HibernateUploadTableRow.class);
+        String nextPageOffsetKey = null;
+        if (hibernateList.size() > pageSize) {
+            hibernateList = hibernateList.subList(0, pageSize);
+            HibernateUploadTableRow lastRow = hibernateList.get(pageSize - 1);
+            nextPageOffsetKey = lastRow.getCreatedOn().getMillis() + OFFSET_KEY_SEPARATOR + lastRow.getRecordId();
+        }
+
+        List<UploadTableRow> list = new ArrayList<>(hibernateList);
+        return new ForwardCursorPagedResourceList<>(list, nextPageOffsetKey, true)
+                .withRequestParam("assessmentGuid", query.getAssessmentGuid())
+                .withRequestParam(ResourceList.START_TIME, query.getStartTime())
+                .withRequestParam(ResourceList.END_TIME, query.getEndTime())
+                .withRequestParam("includeTestData", query.getIncludeTestData())
+                .withRequestParam(ResourceList.OFFSET_KEY, query.getOffsetKey())
+                .withRequestParam(ResourceList.PAGE_SIZE, pageSize)
+                .withRequestParam(ResourceList.TOTAL, total);
+    }
+
+    /**
+     * MySQL Connector/J reads the whole result set into memory unless the fetch size is Integer.MIN_VALUE, in which
+     * case it streams rows from a forward-only cursor. Rows are evicted from the session as they are consumed, so the
+     * session doesn't hold them either. The rows are read in the (appId, studyId, assessmentGuid, createdOn) index.
+     */
+    @Override
+    public void streamUploadTableRows(UploadTableRowQuery query, Consumer<UploadTableRow> consumer) {
+        checkNotNull(consumer);
+
+        QueryBuilder builder = makeQueryBuilder(query);
+        builder.append("ORDER BY assessmentGuid, createdOn, recordId");
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        int rowCount = hibernateHelper.executeWithExceptionHandling(null, (session) -> {
+            Query<HibernateUploadTableRow> hibernateQuery = session.createQuery(builder.getQuery(),
+                    HibernateUploadTableRow.class);
+            for (Map.Entry<String, Object> entry : builder.getParameters().entrySet()) {
+                hibernateQuery.setParameter(entry.getKey(), entry.getValue());
+            }
+            hibernateQuery.setFetchSize(Integer.MIN_VALUE);
+            hibernateQuery.setReadOnly(true);
+
+            int count = 0;
+            try (ScrollableResults results = hibernateQuery.scroll(ScrollMode.FORWARD_ONLY)) {
+                while (results.next()) {
+                    HibernateUploadTableRow row = (HibernateUploadTableRow) results.get(0);
+                    consumer.accept(row);
+                    session.evict(row);
+                    count++;
+                }
+            }
+            return count;
+        });
+        stopwatch.stop();
+
+        LOG.info("Streamed " + rowCount + " upload table rows for app " + query.getAppId() + " study " +
+                query.getStudyId() + " in " + stopwatch.elapsed(MILLISECONDS) + " ms");
+    }
+
+    // Builds the FROM and WHERE clauses shared by all kinds of query.
+    private static QueryBuilder makeQueryBuilder(UploadTableRowQuery query) {
         QueryBuilder builder = new QueryBuilder();
         builder.append("FROM HibernateUploadTableRow");
 
@@ -66,38 +239,66 @@ public class HibernateUploadTableRowDao implements UploadTableRowDao {
         if (!query.getIncludeTestData()) {
             builder.append("AND testData = 0");
         }
+        return builder;
+    }
 
-        // Get total.
-        int total = hibernateHelper.queryCount("SELECT COUNT(DISTINCT recordId) " + builder.getQuery(),
-                builder.getParameters());
+    @Override
+    public void saveUploadTableRow(UploadTableRow row) {
+        hibernateHelper.saveOrUpdate(row);
+    }
 
-        // Start and count.
-        Integer start = query.getStart();
-        if (start == null) {
-            start = 0;
-        }
-        Integer pageSize = query.getPageSize();
-        if (pageSize == null) {
-            pageSize = BridgeConstants.API_DEFAULT_PAGE_SIZE;
+    @Override
+    public void saveUploadTableRows(List<UploadTableRow> rows) {
+        checkNotNull(rows);
+
+        if (rows.isEmpty()) {
+            return;
         }
+        // saveOrUpdate() selects each row before writing it, so rows are upserted through JDBC instead (see also
+        // HibernateAdherenceReportDao.saveWeeklyAdherenceReports).
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        hibernateHelper.executeWithExceptionHandling(null, (session) -> {
+            session.doWork(persistRowsInBatches(rows));
+            return null;
+        });
+        stopwatch.stop();
 
-        // Query.
-        List<HibernateUploadTableRow> hibernateList = hibernateHelper.queryGet(builder.getQuery(),
-                builder.getParameters(), start, pageSize, HibernateUploadTableRow.class);
+        LOG.info("Persisting " + rows.size() + " upload table rows in " + stopwatch.elapsed(MILLISECONDS)
+                + " ms (batchSize = " + batchSize + ")");
+    }
 
-        // Because of Java generic typing issues, we need to convert this to a non-Hibernate UploadTableRow.
-        List<UploadTableRow> list = new ArrayList<>(hibernateList);
-        return new PagedResourceList<>(list, total)
-                .withRequestParam("assessmentGuid", query.getAssessmentGuid())
-                .withRequestParam("startTime", query.getStartTime())
-                .withRequestParam("endTime", query.getEndTime())
-                .withRequestParam("includeTestData", query.getIncludeTestData())
-                .withRequestParam("start", start)
-                .withRequestParam("pageSize", pageSize);
+    /** Batching requires rewriteBatchedStatements=true in the connector string and auto commit to be off. */
+    protected Work persistRowsInBatches(List<UploadTableRow> rows) {
+        return (connection) -> {
+            connection.setAutoCommit(false);
+            try (PreparedStatement ps = connection.prepareStatement(UPSERT_ROW)) {
+                for (int i = 0, len = rows.size(); i < len; i++) {
+                    updateRowStatement(ps, rows.get(i));
+                    if ((i + 1) % batchSize == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+        };
     }
 
-    @Override
-    public void saveUploadTableRow(UploadTableRow row) {
-        hibernateHelper.saveOrUpdate(row);
+    // For testability, removing this to a separate method
+    protected void updateRowStatement(PreparedStatement ps, UploadTableRow row) throws SQLException {
+        ps.setString(1, row.getAppId());
+        ps.setString(2, row.getStudyId());
+        ps.setString(3, row.getRecordId());
+        ps.setString(4, row.getAssessmentGuid());
+        ps.setLong(5, row.getCreatedOn().getMillis());
+        ps.setBoolean(6, row.isTestData());
+        ps.setString(7, row.getHealthCode());
+        if (row.getParticipantVersion() == null) {
+            ps.setNull(8, Types.INTEGER);
+        } else {
+            ps.setInt(8, row.getParticipantVersion());
+        }
+        ps.setString(9, STRING_MAP_CONVERTER.convertToDatabaseColumn(row.getMetadata()));
+        ps.setString(10, STRING_MAP_CONVERTER.convertToDatabaseColumn(row.getData()));
+        ps.addBatch();
     }
 }
@@ -36,6 +36,18 @@ import org.sagebionetworks.bridge.models.studies.EnrollmentFilter;
  */
 class QueryBuilder {
     
+    // Tags identifying the account field a trigram in the account search term index was taken from.
+    static final String EMAIL_TERM_PREFIX = "e";
+    static final String PHONE_TERM_PREFIX = "p";
+    static final String EXTERNAL_ID_TERM_PREFIX = "x";
+    static final String ATTRIBUTE_TERM_PREFIX = "a";
+    
+    // Selects the accounts that have all of the search string's trigrams for one field (see SearchTrigrams). The 
+    // placeholders are the key of the LIKE parameter the subquery is paired with.
+    static final String ACCOUNT_SEARCH_TERMS = "acct.id IN (SELECT t.accountId FROM HibernateAccountSearchTerm AS t "
+            +"WHERE t.appId = :appId AND t.term IN (:%sTerms) GROUP BY t.accountId HAVING COUNT(DISTINCT t.term) = "
+            +":%sTermCount)";
+    
     private final List<String> phrases = new ArrayList<>();
     private final Map<String,Object> params = new HashMap<>();
     private WhereClauseBuilder whereClause;
@@ -134,6 +146,13 @@ class QueryBuilder {
                 whereParams.put(key, value);
             }
         }
+        public void append(String phrase, String key1, Object value1, String key2, Object value2) {
+            if (value1 != null && value2 != null) {
+                predicated.add(phrase);
+                whereParams.put(key1, value1);
+                whereParams.put(key2, value2);
+            }
+        }
         public void like(StringSearchPosition pos, String phrase, String key, String value) {
             if (isNotBlank(value)) {
                 predicated.add(phrase);
@@ -144,6 +163,23 @@ class QueryBuilder {
                 whereParams.put(key, searchString);
             }
         }
+        /**
+         * An account LIKE search with a leading wildcard cannot use a column index. When the search string is long 
+         * enough, the LIKE clause is paired with a subquery against the account search term index, which narrows 
+         * the accounts the LIKE clause must be evaluated against. The two are combined in one clause so this works 
+         * with either search term predicate. The termPrefix identifies the field in the search term index.
+         */
+        public void accountSearchTermLike(StringSearchPosition pos, String phrase, String key, String value,
+                String termPrefix) {
+            Set<String> trigrams = (pos == INFIX || pos == POSTFIX) ? SearchTrigrams.forSearch(value) : null;
+            if (!isNotBlank(value) || trigrams == null || trigrams.isEmpty()) {
+                like(pos, phrase, key, value);
+                return;
+            }
+            like(pos, "(" + format(ACCOUNT_SEARCH_TERMS, key, key) + " AND " + phrase + ")", key, value);
+            whereParams.put(key + "Terms", SearchTrigrams.prefixed(termPrefix, trigrams));
+            whereParams.put(key + "TermCount", Long.valueOf(trigrams.size()));
+        }
         public void labels(Collection<String> labelFilters) {
             List<String> phrases = new ArrayList<>();
             int i=0;
@@ -157,7 +193,8 @@ class QueryBuilder {
         public void phone(StringSearchPosition pos, String phoneFilter) {
             if (isNotBlank(phoneFilter)) {
                 String phoneString = phoneFilter.replaceAll("\\D*", "");
-                like(pos, "acct.phone.number LIKE :number", "number", phoneString);
+                accountSearchTermLike(pos, "acct.phone.number LIKE :number", "number", phoneString,
+                        PHONE_TERM_PREFIX);
             }
         }
         public void dataGroups(Set<String> dataGroups, String operator) {
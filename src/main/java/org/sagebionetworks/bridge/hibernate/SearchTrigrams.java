@@ -0,0 +1,71 @@
+package org.sagebionetworks.bridge.hibernate;
+
+import java.text.Normalizer;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Breaks strings into the three-character sequences that are stored in a search index table, so that an infix
+ * search ("contains") can be answered from an index rather than with a leading-wildcard LIKE clause. A value
+ * contains the search string only if it contains all of the search string's trigrams, so the index narrows the
+ * candidates and the LIKE clause (which can then be evaluated on a few rows) confirms the match.
+ *
+ * Values are lower-cased and stripped of diacritics, which approximates the case- and accent-insensitive
+ * comparisons of our MySQL collation. The index column itself uses a binary collation.
+ */
+public final class SearchTrigrams {
+
+    static final int TRIGRAM_LENGTH = 3;
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}");
+
+    private SearchTrigrams() {
+    }
+
+    /**
+     * The trigrams of all the supplied values. Null values, and values shorter than three characters,
+     * contribute nothing.
+     */
+    public static Set<String> of(String... values) {
+        Set<String> trigrams = new HashSet<>();
+        for (String value : values) {
+            if (value != null) {
+                String normalized = normalize(value);
+                for (int i = 0; i + TRIGRAM_LENGTH <= normalized.length(); i++) {
+                    trigrams.add(normalized.substring(i, i + TRIGRAM_LENGTH));
+                }
+            }
+        }
+        return trigrams;
+    }
+
+    /**
+     * The trigrams a LIKE search string must match, or an empty set if the index cannot be used for this
+     * search, either because it is too short, or because it includes LIKE wildcard characters.
+     */
+    public static Set<String> forSearch(String searchString) {
+        if (searchString == null || searchString.contains("%") || searchString.contains("_")) {
+            return new HashSet<>();
+        }
+        return of(searchString);
+    }
+
+    /**
+     * Prefix each trigram with a tag identifying the field it was taken from, so that a single search index can
+     * hold the trigrams of several fields.
+     */
+    public static Set<String> prefixed(String prefix, Set<String> trigrams) {
+        Set<String> prefixed = new HashSet<>();
+        for (String trigram : trigrams) {
+            prefixed.add(prefix + trigram);
+        }
+        return prefixed;
+    }
+
+    static String normalize(String value) {
+        String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+        return DIACRITICS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+}
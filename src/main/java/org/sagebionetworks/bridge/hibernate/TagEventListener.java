@@ -2,10 +2,13 @@ package org.sagebionetworks.bridge.hibernate;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.hibernate.HibernateException;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
 import org.hibernate.event.spi.DeleteEvent;
 import org.hibernate.event.spi.DeleteEventListener;
+import org.hibernate.event.spi.EventSource;
 import org.hibernate.event.spi.MergeEvent;
 import org.hibernate.event.spi.MergeEventListener;
 import org.hibernate.event.spi.PersistEvent;
@@ -22,7 +25,14 @@ import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.models.Tag;
 
 /**
- * Detect any change to the list of tags and clear the tag cache. 
+ * Keep the cached tags up to date as tags are written. There are two caches: the set of tag values read by 
+ * TagService, and the JSON view of the tag list served by TagController. Only Tag entities change the list, so 
+ * events for other entities are ignored. Each save of an assessment cascades a save of each of its tags, though, 
+ * and most of those tags already exist. So a saved tag is added to the set of tag values, and the view is only 
+ * cleared if the tag was not already in the set. Tags are rarely deleted, so a deleted tag clears both caches.
+ * 
+ * The events are raised before the write is committed, so the caches are only updated once the transaction 
+ * commits. Otherwise a tag whose write was rolled back would stay in the cached set until the set expired.
  */
 @SuppressWarnings("serial")
 @Component
@@ -36,57 +46,115 @@ public class TagEventListener implements DeleteEventListener, SaveOrUpdateEventL
     // NP check with logging in case it occurs.
     transient CacheProvider cacheProvider;
     
+    private final AtomicLong addedCount = new AtomicLong();
+    private final AtomicLong unchangedCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+    
     @Autowired
     public final void setCacheProvider(CacheProvider cacheProvider) {
         this.cacheProvider = cacheProvider;
     }
 
+    /** The number of saved tags that were not already in the cached set of tags. */
+    public long getAddedCount() {
+        return addedCount.get();
+    }
+    
+    /** The number of saved tags that were already in the cached set of tags, so the view was not cleared. */
+    public long getUnchangedCount() {
+        return unchangedCount.get();
+    }
+    
+    /** The number of times the cached view of the tag list was cleared. */
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
     @Override
     public void onDelete(DeleteEvent event) throws HibernateException {
-        clearProvider(event.getObject());
+        clearProvider(event.getSession(), event.getObject());
     }
 
     @SuppressWarnings("rawtypes")
     @Override
     public void onDelete(DeleteEvent event, Set transientEntities) throws HibernateException {
-        clearProvider(event.getObject());
+        clearProvider(event.getSession(), event.getObject());
     }
 
     @Override
     public void onSaveOrUpdate(SaveOrUpdateEvent event) throws HibernateException {
-        clearProvider(event.getObject());
+        addToProvider(event.getSession(), event.getObject());
     }
 
     @Override
     public void onPersist(PersistEvent event) throws HibernateException {
-        clearProvider(event.getObject());
+        addToProvider(event.getSession(), event.getObject());
     }
 
     @SuppressWarnings("rawtypes")
     @Override
     public void onPersist(PersistEvent event, Map createdAlready) throws HibernateException {
-        clearProvider(event.getObject());
+        addToProvider(event.getSession(), event.getObject());
     }
 
     @Override
     public void onMerge(MergeEvent event) throws HibernateException {
-        clearProvider(event.getEntity());
+        addToProvider(event.getSession(), event.getEntity());
     }
 
     @SuppressWarnings("rawtypes")
     @Override
     public void onMerge(MergeEvent event, Map copiedAlready) throws HibernateException {
-        clearProvider(event.getEntity());
+        addToProvider(event.getSession(), event.getEntity());
     }
     
-    private void clearProvider(Object object) {
-        if (object instanceof Tag) {
-            if (cacheProvider != null) {
-                cacheProvider.removeObject(CacheKey.tagList());    
-            } else {
-                LOG.error("TagEventListener has lost reference to cacheProvider, "
-                        +"suggesting the listener was serialized by Hibernate");
+    private void addToProvider(EventSource session, Object object) {
+        if (object instanceof Tag && hasProvider()) {
+            String value = ((Tag)object).getValue();
+            afterCommit(session, () -> {
+                // If the set has expired or been cleared, this creates a set without the loaded marker, which is
+                // reloaded in full on the next read.
+                long added = cacheProvider.addSetMembers(CacheKey.tagValues(), value);
+                if (added > 0) {
+                    addedCount.incrementAndGet();
+                    invalidationCount.incrementAndGet();
+                    cacheProvider.removeObject(CacheKey.tagList());
+                } else {
+                    unchangedCount.incrementAndGet();
+                }
+            });
+        }
+    }
+    
+    private void clearProvider(EventSource session, Object object) {
+        if (object instanceof Tag && hasProvider()) {
+            afterCommit(session, () -> {
+                invalidationCount.incrementAndGet();
+                cacheProvider.removeObject(CacheKey.tagValues());
+                cacheProvider.removeObject(CacheKey.tagList());
+            });
+        }
+    }
+    
+    private void afterCommit(EventSource session, Runnable cacheUpdate) {
+        session.getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, completedSession) -> {
+            if (success) {
+                try {
+                    cacheUpdate.run();
+                } catch (RuntimeException ex) {
+                    // The write has been committed, so all we can do is log. The cached set expires on its own.
+                    LOG.error("Could not update the cached tags after a tag was written", ex);
+                }
             }
+        });
+    }
+    
+    private boolean hasProvider() {
+        if (cacheProvider == null) {
+            LOG.error("TagEventListener has lost reference to cacheProvider, "
+                    +"suggesting the listener was serialized by Hibernate");
+            return false;
         }
+        return true;
     }
 }
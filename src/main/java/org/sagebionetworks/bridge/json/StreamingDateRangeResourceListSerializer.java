@@ -0,0 +1,53 @@
+package org.sagebionetworks.bridge.json;
+
+import static org.sagebionetworks.bridge.models.ResourceList.END_DATE;
+import static org.sagebionetworks.bridge.models.ResourceList.START_DATE;
+import static org.sagebionetworks.bridge.models.ResourceList.TOTAL;
+import static org.sagebionetworks.bridge.models.ResourceList.TYPE;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import org.sagebionetworks.bridge.models.StreamingDateRangeResourceList;
+
+/**
+ * Writes a {@link StreamingDateRangeResourceList} in the same format as a DateRangeResourceList, writing each item 
+ * as it is read, so only the items currently being read are held in memory. Because the total is counted while the
+ * items are written, it follows the items in the JSON. Custom serializers are not given the "type" property by our
+ * object mapper, so it is written here.
+ */
+public class StreamingDateRangeResourceListSerializer extends JsonSerializer<StreamingDateRangeResourceList<?>> {
+    static final String ITEMS = "items";
+    static final String REQUEST_PARAMS_FIELD = "requestParams";
+    static final String DATE_RANGE_RESOURCE_LIST = "DateRangeResourceList";
+
+    /** {@inheritDoc} */
+    @Override
+    public void serialize(StreamingDateRangeResourceList<?> list, JsonGenerator jgen, SerializerProvider provider)
+            throws IOException {
+        jgen.writeStartObject();
+        
+        int total = 0;
+        jgen.writeArrayFieldStart(ITEMS);
+        for (Object item : list.getItems()) {
+            provider.defaultSerializeValue(item, jgen);
+            total++;
+        }
+        jgen.writeEndArray();
+        
+        provider.defaultSerializeField(REQUEST_PARAMS_FIELD, list.getRequestParams(), jgen);
+        if (list.getStartDate() != null) {
+            provider.defaultSerializeField(START_DATE, list.getStartDate(), jgen);
+        }
+        if (list.getEndDate() != null) {
+            provider.defaultSerializeField(END_DATE, list.getEndDate(), jgen);
+        }
+        jgen.writeNumberField(TOTAL, total);
+        jgen.writeStringField(TYPE, DATE_RANGE_RESOURCE_LIST);
+        
+        jgen.writeEndObject();
+    }
+}
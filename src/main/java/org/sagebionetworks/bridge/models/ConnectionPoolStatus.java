@@ -0,0 +1,90 @@
+package org.sagebionetworks.bridge.models;
+
+/**
+ * A point-in-time snapshot of the MySQL connection pool, along with the checkout statistics accumulated since the
+ * server started. Checkout latency is the time a request thread waited to borrow a connection from the pool.
+ */
+public final class ConnectionPoolStatus {
+
+    private int totalConnections;
+    private int activeConnections;
+    private int idleConnections;
+    private int pendingThreads;
+    private int minConnections;
+    private int maxConnections;
+    private long checkoutCount;
+    private double averageCheckoutMillis;
+    private double maxCheckoutMillis;
+    private long checkoutTimeoutCount;
+    private double averageUsageMillis;
+
+    public int getTotalConnections() {
+        return totalConnections;
+    }
+    public void setTotalConnections(int totalConnections) {
+        this.totalConnections = totalConnections;
+    }
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+    public void setActiveConnections(int activeConnections) {
+        this.activeConnections = activeConnections;
+    }
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+    public void setIdleConnections(int idleConnections) {
+        this.idleConnections = idleConnections;
+    }
+    /** The number of threads currently blocked waiting for a connection. */
+    public int getPendingThreads() {
+        return pendingThreads;
+    }
+    public void setPendingThreads(int pendingThreads) {
+        this.pendingThreads = pendingThreads;
+    }
+    public int getMinConnections() {
+        return minConnections;
+    }
+    public void setMinConnections(int minConnections) {
+        this.minConnections = minConnections;
+    }
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+    public long getCheckoutCount() {
+        return checkoutCount;
+    }
+    public void setCheckoutCount(long checkoutCount) {
+        this.checkoutCount = checkoutCount;
+    }
+    public double getAverageCheckoutMillis() {
+        return averageCheckoutMillis;
+    }
+    public void setAverageCheckoutMillis(double averageCheckoutMillis) {
+        this.averageCheckoutMillis = averageCheckoutMillis;
+    }
+    public double getMaxCheckoutMillis() {
+        return maxCheckoutMillis;
+    }
+    public void setMaxCheckoutMillis(double maxCheckoutMillis) {
+        this.maxCheckoutMillis = maxCheckoutMillis;
+    }
+    /** The number of checkouts that failed because no connection became available within the timeout. */
+    public long getCheckoutTimeoutCount() {
+        return checkoutTimeoutCount;
+    }
+    public void setCheckoutTimeoutCount(long checkoutTimeoutCount) {
+        this.checkoutTimeoutCount = checkoutTimeoutCount;
+    }
+    /** The average time a connection was held before it was returned to the pool. */
+    public double getAverageUsageMillis() {
+        return averageUsageMillis;
+    }
+    public void setAverageUsageMillis(double averageUsageMillis) {
+        this.averageUsageMillis = averageUsageMillis;
+    }
+}
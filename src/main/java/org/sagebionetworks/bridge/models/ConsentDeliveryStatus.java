@@ -0,0 +1,100 @@
+package org.sagebionetworks.bridge.models;
+
+/**
+ * A snapshot of the signed consent delivery queue on this server, with the counts accumulated since the server
+ * started. Deliveries are counted per channel, so a consent sent by both email and SMS is two deliveries.
+ */
+public final class ConsentDeliveryStatus {
+
+    private int threadCount;
+    private int maxPending;
+    private int maxAttempts;
+    private int pendingCount;
+    private int activeCount;
+    private long submittedCount;
+    private long synchronousCount;
+    private long deliveredCount;
+    private long retriedCount;
+    private long failedCount;
+    private double averageDeliveryMillis;
+    private long longestDeliveryMillis;
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+    public int getMaxPending() {
+        return maxPending;
+    }
+    public void setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+    }
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+    /** The number of deliveries waiting for a thread. */
+    public int getPendingCount() {
+        return pendingCount;
+    }
+    public void setPendingCount(int pendingCount) {
+        this.pendingCount = pendingCount;
+    }
+    /** The number of deliveries being sent now. */
+    public int getActiveCount() {
+        return activeCount;
+    }
+    public void setActiveCount(int activeCount) {
+        this.activeCount = activeCount;
+    }
+    public long getSubmittedCount() {
+        return submittedCount;
+    }
+    public void setSubmittedCount(long submittedCount) {
+        this.submittedCount = submittedCount;
+    }
+    /** The number of deliveries run by the caller, because the queue was full or disabled. */
+    public long getSynchronousCount() {
+        return synchronousCount;
+    }
+    public void setSynchronousCount(long synchronousCount) {
+        this.synchronousCount = synchronousCount;
+    }
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+    public void setDeliveredCount(long deliveredCount) {
+        this.deliveredCount = deliveredCount;
+    }
+    /** The number of failed attempts at a delivery step that were retried. */
+    public long getRetriedCount() {
+        return retriedCount;
+    }
+    public void setRetriedCount(long retriedCount) {
+        this.retriedCount = retriedCount;
+    }
+    /** The number of deliveries that failed on every attempt. */
+    public long getFailedCount() {
+        return failedCount;
+    }
+    public void setFailedCount(long failedCount) {
+        this.failedCount = failedCount;
+    }
+    /** The time to deliver, including rendering the PDF and any retries. */
+    public double getAverageDeliveryMillis() {
+        return averageDeliveryMillis;
+    }
+    public void setAverageDeliveryMillis(double averageDeliveryMillis) {
+        this.averageDeliveryMillis = averageDeliveryMillis;
+    }
+    public long getLongestDeliveryMillis() {
+        return longestDeliveryMillis;
+    }
+    public void setLongestDeliveryMillis(long longestDeliveryMillis) {
+        this.longestDeliveryMillis = longestDeliveryMillis;
+    }
+}
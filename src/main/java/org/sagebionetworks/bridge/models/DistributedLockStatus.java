@@ -0,0 +1,92 @@
+package org.sagebionetworks.bridge.models;
+
+/**
+ * A snapshot of the distributed locks taken by this server, with the counts accumulated since the server started.
+ * Contended acquisitions had to wait for another holder; their wait time is the cost of serializing the writers.
+ */
+public final class DistributedLockStatus {
+
+    private int expireInSeconds;
+    private long maxWaitMillis;
+    private int heldCount;
+    private long acquiredCount;
+    private long contendedCount;
+    private long timeoutCount;
+    private long totalWaitMillis;
+    private long longestWaitMillis;
+    private long renewedCount;
+    private long lostCount;
+    private long lastFencingToken;
+
+    public int getExpireInSeconds() {
+        return expireInSeconds;
+    }
+    public void setExpireInSeconds(int expireInSeconds) {
+        this.expireInSeconds = expireInSeconds;
+    }
+    /** How long a caller waits for a held lock before giving up. */
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+    /** The number of locks this server holds right now. */
+    public int getHeldCount() {
+        return heldCount;
+    }
+    public void setHeldCount(int heldCount) {
+        this.heldCount = heldCount;
+    }
+    public long getAcquiredCount() {
+        return acquiredCount;
+    }
+    public void setAcquiredCount(long acquiredCount) {
+        this.acquiredCount = acquiredCount;
+    }
+    /** The number of acquired locks that were held by another caller at the first attempt. */
+    public long getContendedCount() {
+        return contendedCount;
+    }
+    public void setContendedCount(long contendedCount) {
+        this.contendedCount = contendedCount;
+    }
+    /** The number of callers that gave up waiting for a lock. */
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+    public void setTimeoutCount(long timeoutCount) {
+        this.timeoutCount = timeoutCount;
+    }
+    public long getTotalWaitMillis() {
+        return totalWaitMillis;
+    }
+    public void setTotalWaitMillis(long totalWaitMillis) {
+        this.totalWaitMillis = totalWaitMillis;
+    }
+    public long getLongestWaitMillis() {
+        return longestWaitMillis;
+    }
+    public void setLongestWaitMillis(long longestWaitMillis) {
+        this.longestWaitMillis = longestWaitMillis;
+    }
+    public long getRenewedCount() {
+        return renewedCount;
+    }
+    public void setRenewedCount(long renewedCount) {
+        this.renewedCount = renewedCount;
+    }
+    /** The number of locks that expired, or were taken by another caller, before they were released. */
+    public long getLostCount() {
+        return lostCount;
+    }
+    public void setLostCount(long lostCount) {
+        this.lostCount = lostCount;
+    }
+    public long getLastFencingToken() {
+        return lastFencingToken;
+    }
+    public void setLastFencingToken(long lastFencingToken) {
+        this.lastFencingToken = lastFencingToken;
+    }
+}
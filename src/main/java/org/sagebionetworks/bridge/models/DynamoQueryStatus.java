@@ -0,0 +1,55 @@
+package org.sagebionetworks.bridge.models;
+
+/**
+ * The DynamoDB queries made by one DAO method on this server since the server started. Read capacity is the total
+ * that DynamoDB reported for the pages read, so a method whose pages per call or capacity grows over time is reading
+ * more than its callers use.
+ */
+public final class DynamoQueryStatus {
+
+    private String operation;
+    private long callCount;
+    private long pageCount;
+    private long itemCount;
+    private double consumedCapacityUnits;
+    private long maxPagesPerCall;
+
+    /** The DAO method that made the queries. */
+    public String getOperation() {
+        return operation;
+    }
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+    public long getCallCount() {
+        return callCount;
+    }
+    public void setCallCount(long callCount) {
+        this.callCount = callCount;
+    }
+    public long getPageCount() {
+        return pageCount;
+    }
+    public void setPageCount(long pageCount) {
+        this.pageCount = pageCount;
+    }
+    public long getItemCount() {
+        return itemCount;
+    }
+    public void setItemCount(long itemCount) {
+        this.itemCount = itemCount;
+    }
+    public double getConsumedCapacityUnits() {
+        return consumedCapacityUnits;
+    }
+    public void setConsumedCapacityUnits(double consumedCapacityUnits) {
+        this.consumedCapacityUnits = consumedCapacityUnits;
+    }
+    /** The largest number of pages read by a single call. */
+    public long getMaxPagesPerCall() {
+        return maxPagesPerCall;
+    }
+    public void setMaxPagesPerCall(long maxPagesPerCall) {
+        this.maxPagesPerCall = maxPagesPerCall;
+    }
+}
@@ -0,0 +1,134 @@
+package org.sagebionetworks.bridge.models;
+
+import java.util.List;
+
+/**
+ * A snapshot of one channel (email or SMS) of the outbound message queue. The pending and dead counts are read from
+ * the outbox, which all servers share; the other counts are for this server, accumulated since it started.
+ */
+public final class OutboundChannelStatus {
+
+    private String channel;
+    private int threadCount;
+    private int maxAttempts;
+    private int sendsPerSecond;
+    private int pendingCount;
+    private int deadCount;
+    private int activeCount;
+    private long submittedCount;
+    private long synchronousCount;
+    private long sentCount;
+    private long retriedCount;
+    private long deadLetteredCount;
+    private double averageSendMillis;
+    private double averageLatencyMillis;
+    private long longestLatencyMillis;
+    private List<String> recentDeadLetters;
+
+    public String getChannel() {
+        return channel;
+    }
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+    public int getThreadCount() {
+        return threadCount;
+    }
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+    /** The channel's rate limit for all servers together, or 0 if it is not limited. */
+    public int getSendsPerSecond() {
+        return sendsPerSecond;
+    }
+    public void setSendsPerSecond(int sendsPerSecond) {
+        this.sendsPerSecond = sendsPerSecond;
+    }
+    /** The number of messages in the outbox waiting to be sent or retried, on all servers. */
+    public int getPendingCount() {
+        return pendingCount;
+    }
+    public void setPendingCount(int pendingCount) {
+        this.pendingCount = pendingCount;
+    }
+    /** The number of dead-lettered messages kept in the outbox, from all servers. */
+    public int getDeadCount() {
+        return deadCount;
+    }
+    public void setDeadCount(int deadCount) {
+        this.deadCount = deadCount;
+    }
+    /** The number of messages this server has claimed and is sending now. */
+    public int getActiveCount() {
+        return activeCount;
+    }
+    public void setActiveCount(int activeCount) {
+        this.activeCount = activeCount;
+    }
+    public long getSubmittedCount() {
+        return submittedCount;
+    }
+    public void setSubmittedCount(long submittedCount) {
+        this.submittedCount = submittedCount;
+    }
+    /** The number of messages sent by the caller, because the channel was disabled or the outbox was unavailable. */
+    public long getSynchronousCount() {
+        return synchronousCount;
+    }
+    public void setSynchronousCount(long synchronousCount) {
+        this.synchronousCount = synchronousCount;
+    }
+    public long getSentCount() {
+        return sentCount;
+    }
+    public void setSentCount(long sentCount) {
+        this.sentCount = sentCount;
+    }
+    /** The number of failed attempts that were retried. */
+    public long getRetriedCount() {
+        return retriedCount;
+    }
+    public void setRetriedCount(long retriedCount) {
+        this.retriedCount = retriedCount;
+    }
+    /** The number of messages that could not be sent. */
+    public long getDeadLetteredCount() {
+        return deadLetteredCount;
+    }
+    public void setDeadLetteredCount(long deadLetteredCount) {
+        this.deadLetteredCount = deadLetteredCount;
+    }
+    /** The time of the AWS call that sent the message. */
+    public double getAverageSendMillis() {
+        return averageSendMillis;
+    }
+    public void setAverageSendMillis(double averageSendMillis) {
+        this.averageSendMillis = averageSendMillis;
+    }
+    /** The time from adding the message to the outbox to sending it, including any waits and retries. */
+    public double getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+    public void setAverageLatencyMillis(double averageLatencyMillis) {
+        this.averageLatencyMillis = averageLatencyMillis;
+    }
+    public long getLongestLatencyMillis() {
+        return longestLatencyMillis;
+    }
+    public void setLongestLatencyMillis(long longestLatencyMillis) {
+        this.longestLatencyMillis = longestLatencyMillis;
+    }
+    /** The most recent dead-lettered messages, oldest first, with their errors. */
+    public List<String> getRecentDeadLetters() {
+        return recentDeadLetters;
+    }
+    public void setRecentDeadLetters(List<String> recentDeadLetters) {
+        this.recentDeadLetters = recentDeadLetters;
+    }
+}
@@ -0,0 +1,150 @@
+package org.sagebionetworks.bridge.models;
+
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.sagebionetworks.bridge.hibernate.JsonNodeAttributeConverter;
+
+/**
+ * An email or SMS message waiting in the outbox to be sent. The payload holds everything needed to build the AWS
+ * request again, and to log the message once it has been sent, so that any server can send it, including after the
+ * server that accepted it has restarted. A message is claimed by one server at a time, until claimedUntil; a claim
+ * that runs out (because the server died) leaves the message to be claimed again.
+ */
+@Entity
+@Table(name = "OutboundMessages")
+public class OutboundMessage {
+
+    public enum Channel {
+        EMAIL,
+        SMS
+    }
+
+    public enum Status {
+        /** Waiting to be sent, or being sent, or waiting to be retried. */
+        PENDING,
+        /** Failed in a way that will not succeed on a retry, or ran out of attempts. Kept for investigation. */
+        DEAD
+    }
+
+    @Id
+    private String id;
+    @Enumerated(EnumType.STRING)
+    private Channel channel;
+    private String appId;
+    private String description;
+    private String recipient;
+    @Convert(converter = JsonNodeAttributeConverter.class)
+    private JsonNode payload;
+    @Enumerated(EnumType.STRING)
+    private Status status;
+    private int attempts;
+    private long createdOn;
+    private long nextAttemptOn;
+    private String claimToken;
+    private Long claimedUntil;
+    private String lastError;
+    private String requestId;
+
+    public String getId() {
+        return id;
+    }
+    public void setId(String id) {
+        this.id = id;
+    }
+    public Channel getChannel() {
+        return channel;
+    }
+    public void setChannel(Channel channel) {
+        this.channel = channel;
+    }
+    public String getAppId() {
+        return appId;
+    }
+    public void setAppId(String appId) {
+        this.appId = appId;
+    }
+    /** Identifies the message in the logs. Does not include the recipient's address. */
+    public String getDescription() {
+        return description;
+    }
+    public void setDescription(String description) {
+        this.description = description;
+    }
+    /**
+     * The email address or phone number the message is sent to, so the messages of a deleted account can be removed
+     * from the outbox.
+     */
+    public String getRecipient() {
+        return recipient;
+    }
+    public void setRecipient(String recipient) {
+        this.recipient = recipient;
+    }
+    /** The channel-specific content of the message, which the channel's sender turns into an AWS request. */
+    public JsonNode getPayload() {
+        return payload;
+    }
+    public void setPayload(JsonNode payload) {
+        this.payload = payload;
+    }
+    public Status getStatus() {
+        return status;
+    }
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+    /** The number of failed attempts to send the message. */
+    public int getAttempts() {
+        return attempts;
+    }
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+    public long getCreatedOn() {
+        return createdOn;
+    }
+    public void setCreatedOn(long createdOn) {
+        this.createdOn = createdOn;
+    }
+    /** The message is not claimed before this time (epoch milliseconds). */
+    public long getNextAttemptOn() {
+        return nextAttemptOn;
+    }
+    public void setNextAttemptOn(long nextAttemptOn) {
+        this.nextAttemptOn = nextAttemptOn;
+    }
+    /** Identifies the claim of the server that is sending the message, if any. */
+    public String getClaimToken() {
+        return claimToken;
+    }
+    public void setClaimToken(String claimToken) {
+        this.claimToken = claimToken;
+    }
+    /** The time (epoch milliseconds) when the current claim runs out, or null if the message is not claimed. */
+    public Long getClaimedUntil() {
+        return claimedUntil;
+    }
+    public void setClaimedUntil(Long claimedUntil) {
+        this.claimedUntil = claimedUntil;
+    }
+    public String getLastError() {
+        return lastError;
+    }
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+    /** The ID of the request that submitted the message, for the logs. */
+    public String getRequestId() {
+        return requestId;
+    }
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+}
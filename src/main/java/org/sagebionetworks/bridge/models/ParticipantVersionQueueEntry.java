@@ -0,0 +1,82 @@
+package org.sagebionetworks.bridge.models;
+
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.sagebionetworks.bridge.hibernate.JsonNodeAttributeConverter;
+
+/**
+ * A participant version waiting to be written and exported. There is one entry per participant; enqueueing a newer
+ * version replaces the entry's payload and increments its revision, so a server that is writing the older version can
+ * tell that the entry has changed since it was read. An entry whose version was written, but whose export request
+ * failed, keeps the written version number so that the export can be retried without writing the version again.
+ */
+@Entity
+@IdClass(ParticipantVersionQueueEntryId.class)
+@Table(name = "ParticipantVersionQueue")
+public class ParticipantVersionQueueEntry {
+
+    @Id
+    private String appId;
+    @Id
+    private String healthCode;
+    @Convert(converter = JsonNodeAttributeConverter.class)
+    private JsonNode payload;
+    private int revision;
+    private int attempts;
+    private long nextAttemptOn;
+    private Integer writtenVersion;
+
+    public String getAppId() {
+        return appId;
+    }
+    public void setAppId(String appId) {
+        this.appId = appId;
+    }
+    public String getHealthCode() {
+        return healthCode;
+    }
+    public void setHealthCode(String healthCode) {
+        this.healthCode = healthCode;
+    }
+    /** The participant version, as JSON. */
+    public JsonNode getPayload() {
+        return payload;
+    }
+    public void setPayload(JsonNode payload) {
+        this.payload = payload;
+    }
+    /** Incremented each time the entry's participant version is replaced. */
+    public int getRevision() {
+        return revision;
+    }
+    public void setRevision(int revision) {
+        this.revision = revision;
+    }
+    /** The number of times writing or exporting this entry has failed. */
+    public int getAttempts() {
+        return attempts;
+    }
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+    /** Epoch milliseconds when the entry is next due to be written or exported. */
+    public long getNextAttemptOn() {
+        return nextAttemptOn;
+    }
+    public void setNextAttemptOn(long nextAttemptOn) {
+        this.nextAttemptOn = nextAttemptOn;
+    }
+    /** The number of a participant version that was written, but whose export request has not been sent yet. */
+    public Integer getWrittenVersion() {
+        return writtenVersion;
+    }
+    public void setWrittenVersion(Integer writtenVersion) {
+        this.writtenVersion = writtenVersion;
+    }
+}
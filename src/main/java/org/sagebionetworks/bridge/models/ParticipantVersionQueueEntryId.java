@@ -0,0 +1,37 @@
+package org.sagebionetworks.bridge.models;
+
+import java.io.Serializable;
+
+/**
+ * Represents the composite key for ParticipantVersionQueueEntry, which is appId and healthCode. Default constructor
+ * and setters are required by Hibernate.
+ */
+@SuppressWarnings("serial")
+public class ParticipantVersionQueueEntryId implements Serializable {
+    private String appId;
+    private String healthCode;
+
+    public ParticipantVersionQueueEntryId() {
+    }
+
+    public ParticipantVersionQueueEntryId(String appId, String healthCode) {
+        this.appId = appId;
+        this.healthCode = healthCode;
+    }
+
+    public String getAppId() {
+        return appId;
+    }
+
+    public void setAppId(String appId) {
+        this.appId = appId;
+    }
+
+    public String getHealthCode() {
+        return healthCode;
+    }
+
+    public void setHealthCode(String healthCode) {
+        this.healthCode = healthCode;
+    }
+}
@@ -0,0 +1,85 @@
+package org.sagebionetworks.bridge.models;
+
+/**
+ * A snapshot of the participant version export queue. The pending count is for all servers; the other counts are
+ * accumulated on this server since it started. The gap between enqueued and created versions is the work saved by
+ * coalescing.
+ */
+public final class ParticipantVersionQueueStatus {
+
+    private long windowMillis;
+    private int pendingCount;
+    private long enqueuedCount;
+    private long coalescedCount;
+    private long createdCount;
+    private long unchangedCount;
+    private long writeFailedCount;
+    private long exportBatchCount;
+    private long exportFailedCount;
+    private long droppedCount;
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+    public void setWindowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+    /** The number of participants with a version waiting to be written or exported, on all servers. */
+    public int getPendingCount() {
+        return pendingCount;
+    }
+    public void setPendingCount(int pendingCount) {
+        this.pendingCount = pendingCount;
+    }
+    public long getEnqueuedCount() {
+        return enqueuedCount;
+    }
+    public void setEnqueuedCount(long enqueuedCount) {
+        this.enqueuedCount = enqueuedCount;
+    }
+    /** The number of enqueued versions that replaced a pending version for the same participant. */
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+    public void setCoalescedCount(long coalescedCount) {
+        this.coalescedCount = coalescedCount;
+    }
+    public long getCreatedCount() {
+        return createdCount;
+    }
+    public void setCreatedCount(long createdCount) {
+        this.createdCount = createdCount;
+    }
+    /** The number of pending versions that were identical to the participant's latest version. */
+    public long getUnchangedCount() {
+        return unchangedCount;
+    }
+    public void setUnchangedCount(long unchangedCount) {
+        this.unchangedCount = unchangedCount;
+    }
+    public long getWriteFailedCount() {
+        return writeFailedCount;
+    }
+    public void setWriteFailedCount(long writeFailedCount) {
+        this.writeFailedCount = writeFailedCount;
+    }
+    public long getExportBatchCount() {
+        return exportBatchCount;
+    }
+    public void setExportBatchCount(long exportBatchCount) {
+        this.exportBatchCount = exportBatchCount;
+    }
+    public long getExportFailedCount() {
+        return exportFailedCount;
+    }
+    public void setExportFailedCount(long exportFailedCount) {
+        this.exportFailedCount = exportFailedCount;
+    }
+    /** The number of versions that were given up on after repeatedly failing to be written or exported. */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+    public void setDroppedCount(long droppedCount) {
+        this.droppedCount = droppedCount;
+    }
+}
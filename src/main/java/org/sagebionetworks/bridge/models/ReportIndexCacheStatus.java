@@ -0,0 +1,54 @@
+package org.sagebionetworks.bridge.models;
+
+/**
+ * A snapshot of this server's cache of report indices, with the hit and miss counts accumulated since the server
+ * started. Each hit is a report write that did not have to load its index from DynamoDB.
+ */
+public final class ReportIndexCacheStatus {
+
+    private long size;
+    private int maxSize;
+    private long hitCount;
+    private long missCount;
+    private double hitRatio;
+    private long evictionCount;
+
+    public long getSize() {
+        return size;
+    }
+    public void setSize(long size) {
+        this.size = size;
+    }
+    public int getMaxSize() {
+        return maxSize;
+    }
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+    public long getHitCount() {
+        return hitCount;
+    }
+    public void setHitCount(long hitCount) {
+        this.hitCount = hitCount;
+    }
+    public long getMissCount() {
+        return missCount;
+    }
+    public void setMissCount(long missCount) {
+        this.missCount = missCount;
+    }
+    /** Hits divided by lookups, or 1.0 if there have been no lookups. */
+    public double getHitRatio() {
+        return hitRatio;
+    }
+    public void setHitRatio(double hitRatio) {
+        this.hitRatio = hitRatio;
+    }
+    /** The number of entries removed because they expired or the cache was full. */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+    public void setEvictionCount(long evictionCount) {
+        this.evictionCount = evictionCount;
+    }
+}
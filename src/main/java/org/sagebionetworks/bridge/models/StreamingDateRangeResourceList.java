@@ -0,0 +1,56 @@
+package org.sagebionetworks.bridge.models;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.sagebionetworks.bridge.models.ResourceList.END_DATE;
+import static org.sagebionetworks.bridge.models.ResourceList.REQUEST_PARAMS;
+import static org.sagebionetworks.bridge.models.ResourceList.START_DATE;
+import static org.sagebionetworks.bridge.models.ResourceList.TYPE;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.joda.time.LocalDate;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.collect.ImmutableMap;
+
+import org.sagebionetworks.bridge.json.StreamingDateRangeResourceListSerializer;
+
+/**
+ * A {@link DateRangeResourceList} whose items are not held in memory, but are written to the response as they are
+ * read from an iterable (typically one that loads them from the database a page at a time). The JSON is the same as
+ * that of a DateRangeResourceList with the same items and request parameters. The items can only be iterated once, 
+ * and the total is only known once they have been written.
+ */
+@JsonSerialize(using = StreamingDateRangeResourceListSerializer.class)
+public final class StreamingDateRangeResourceList<T> {
+
+    private final Iterable<? extends T> items;
+    private final Map<String,Object> requestParams = new HashMap<>();
+
+    public StreamingDateRangeResourceList(Iterable<? extends T> items) {
+        checkNotNull(items);
+        this.items = items;
+        this.requestParams.put(TYPE, REQUEST_PARAMS);
+    }
+
+    public Iterable<? extends T> getItems() {
+        return items;
+    }
+    public Map<String, Object> getRequestParams() {
+        return ImmutableMap.copyOf(requestParams);
+    }
+    public StreamingDateRangeResourceList<T> withRequestParam(String key, LocalDate value) {
+        if (!TYPE.equals(key) && isNotBlank(key) && value != null) {
+            requestParams.put(key, value);
+        }
+        return this;
+    }
+    public LocalDate getStartDate() {
+        return (LocalDate)requestParams.get(START_DATE);
+    }
+    public LocalDate getEndDate() {
+        return (LocalDate)requestParams.get(END_DATE);
+    }
+}
@@ -0,0 +1,71 @@
+package org.sagebionetworks.bridge.models;
+
+/**
+ * A snapshot of the tag cache counters on this server, accumulated since the server started. The cached tags are 
+ * shared by all servers in Redis, so a reload on this server may follow a change made on another.
+ */
+public final class TagCacheStatus {
+
+    private long hitCount;
+    private long reloadCount;
+    private long totalReloadMillis;
+    private long lastReloadMillis;
+    private int lastReloadTagCount;
+    private long addedCount;
+    private long unchangedCount;
+    private long invalidationCount;
+
+    /** The number of reads served from the cached set of tags. */
+    public long getHitCount() {
+        return hitCount;
+    }
+    public void setHitCount(long hitCount) {
+        this.hitCount = hitCount;
+    }
+    /** The number of reads that loaded all the tags from the database. */
+    public long getReloadCount() {
+        return reloadCount;
+    }
+    public void setReloadCount(long reloadCount) {
+        this.reloadCount = reloadCount;
+    }
+    public long getTotalReloadMillis() {
+        return totalReloadMillis;
+    }
+    public void setTotalReloadMillis(long totalReloadMillis) {
+        this.totalReloadMillis = totalReloadMillis;
+    }
+    public long getLastReloadMillis() {
+        return lastReloadMillis;
+    }
+    public void setLastReloadMillis(long lastReloadMillis) {
+        this.lastReloadMillis = lastReloadMillis;
+    }
+    public int getLastReloadTagCount() {
+        return lastReloadTagCount;
+    }
+    public void setLastReloadTagCount(int lastReloadTagCount) {
+        this.lastReloadTagCount = lastReloadTagCount;
+    }
+    /** The number of tags saved on this server that were new to the cached set. */
+    public long getAddedCount() {
+        return addedCount;
+    }
+    public void setAddedCount(long addedCount) {
+        this.addedCount = addedCount;
+    }
+    /** The number of tags saved on this server that were already cached, so nothing was invalidated. */
+    public long getUnchangedCount() {
+        return unchangedCount;
+    }
+    public void setUnchangedCount(long unchangedCount) {
+        this.unchangedCount = unchangedCount;
+    }
+    /** The number of times a tag saved or deleted on this server cleared the cached view of the tag list. */
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+    public void setInvalidationCount(long invalidationCount) {
+        this.invalidationCount = invalidationCount;
+    }
+}
@@ -3,9 +3,15 @@ package org.sagebionetworks.bridge.models;
 import static java.util.stream.Collectors.toSet;
 import static org.sagebionetworks.bridge.BridgeUtils.isEmpty;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.Multimaps;
 
 public final class TagUtils {
 
@@ -22,5 +28,22 @@ public final class TagUtils {
         }
         return tags.stream().map(t -> t.getValue()).collect(toSet());
     }
+    
+    /**
+     * Group tag values by their category, which is the part of the value before the first colon. Values without a
+     * category are grouped under "default". Values keep the order in which they were supplied.
+     */
+    public static Map<String, List<String>> toCategoryMap(Collection<String> tagValues) {
+        ListMultimap<String, String> multimap = MultimapBuilder.hashKeys().arrayListValues().build();
+        for (String tagValue : tagValues) {
+            String[] elements = tagValue.split(":", 2);
+            if (elements.length == 1) {
+                multimap.put("default", elements[0]);
+            } else {
+                multimap.put(elements[0], elements[1]);
+            }
+        }
+        return Multimaps.asMap(multimap);
+    }
 
 }
@@ -21,6 +21,8 @@ public interface ParticipantFile extends BridgeEntity {
     String getDownloadUrl();
     String getUploadUrl();
     DateTime getExpiresOn();
+    Long getSize();
+    String getChecksum();
 
     void setFileId(String fileId);
     void setUserId(String userId);
@@ -30,4 +32,6 @@ public interface ParticipantFile extends BridgeEntity {
     void setDownloadUrl(String url);
     void setUploadUrl(String url);
     void setExpiresOn(DateTime expires);
+    void setSize(Long size);
+    void setChecksum(String checksum);
 }
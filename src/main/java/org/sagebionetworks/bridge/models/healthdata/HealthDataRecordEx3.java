@@ -133,6 +133,13 @@ public interface HealthDataRecordEx3 extends BridgeEntity {
     String getUserAgent();
     void setUserAgent(String userAgent);
 
+    /**
+     * S3 key of the raw upload in the raw health data bucket. This is set when the upload is completed, so that
+     * download URLs can be signed without reading the upload. May be null for older records.
+     */
+    String getRawS3Key();
+    void setRawS3Key(String rawS3Key);
+
     /**
      * Record version. This is used to detect concurrency conflicts. For creating new health data records, this field
      * should be left unspecified. For updating records, this field should match the version of the most recent GET
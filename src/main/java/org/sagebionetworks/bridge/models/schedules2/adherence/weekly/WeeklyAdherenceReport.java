@@ -70,6 +70,11 @@ public class WeeklyAdherenceReport {
     @Column(name = "label")
     @ElementCollection(fetch = FetchType.EAGER)
     private Set<String> searchableLabels;
+    @CollectionTable(name = "WeeklyAdherenceReportSearchTerms", joinColumns = {
+        @JoinColumn(name = "appId"), @JoinColumn(name = "studyId"), @JoinColumn(name = "userId")})
+    @Column(name = "term")
+    @ElementCollection(fetch = FetchType.LAZY)
+    private Set<String> searchTerms;
     @Convert(converter = WeeklyAdherenceReportRowListConverter.class)
     List<WeeklyAdherenceReportRow> rows;
     
@@ -169,6 +174,18 @@ public class WeeklyAdherenceReport {
     public void setSearchableLabels(Set<String> labels) {
         this.searchableLabels = labels;
     }
+    /**
+     * Trigrams of the participant's identifying information (see SearchTrigrams), persisted so 
+     * that the ID filter of a report search can use an index. These are derived when the report 
+     * is saved, and are not loaded with the report.
+     */
+    @JsonIgnore
+    public Set<String> getSearchTerms() {
+        return searchTerms;
+    }
+    public void setSearchTerms(Set<String> searchTerms) {
+        this.searchTerms = searchTerms;
+    }
     public List<WeeklyAdherenceReportRow> getRows() {
         return rows;
     }
@@ -4,6 +4,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import org.sagebionetworks.bridge.json.BridgeTypeName;
 import org.sagebionetworks.bridge.json.DateTimeToLongSerializer;
+import org.sagebionetworks.bridge.util.ParsedTemplate;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
@@ -17,13 +18,17 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 public class StudyConsentView {
 
     private final StudyConsent consent;
-    private final String documentContent;
+    private final ParsedTemplate documentTemplate;
     
     public StudyConsentView(StudyConsent consent, String documentContent) {
+        this(consent, ParsedTemplate.parse(checkNotNull(documentContent)));
+    }
+    
+    public StudyConsentView(StudyConsent consent, ParsedTemplate documentTemplate) {
         checkNotNull(consent);
-        checkNotNull(documentContent);
+        checkNotNull(documentTemplate);
         this.consent = consent;
-        this.documentContent = documentContent;
+        this.documentTemplate = documentTemplate;
     }
 
     public String getSubpopulationGuid() {
@@ -41,7 +46,13 @@ public class StudyConsentView {
     }
     
     public String getDocumentContent() {
-        return documentContent;
+        return documentTemplate.getText();
+    }
+    
+    /** The document content, parsed for resolving its template variables. */
+    @JsonIgnore
+    public ParsedTemplate getDocumentTemplate() {
+        return documentTemplate;
     }
 
 }
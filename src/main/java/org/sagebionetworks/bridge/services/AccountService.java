@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.services;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.stream.Collectors.toSet;
 import static org.sagebionetworks.bridge.AuthEvaluatorField.ORG_ID;
 import static org.sagebionetworks.bridge.AuthEvaluatorField.USER_ID;
@@ -15,12 +16,21 @@ import static org.sagebionetworks.bridge.BridgeUtils.collectStudyIds;
 import static org.sagebionetworks.bridge.dao.AccountDao.MIGRATION_VERSION;
 import static org.sagebionetworks.bridge.models.activities.ActivityEventObjectType.ENROLLMENT;
 
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
+import javax.annotation.Resource;
+
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 
@@ -29,11 +39,14 @@ import org.joda.time.DateTimeZone;
 import org.sagebionetworks.bridge.RequestContext;
 import org.sagebionetworks.bridge.cache.CacheKey;
 import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.util.ObjectUtils;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.dao.AccountDao;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.exceptions.UnauthorizedException;
 import org.sagebionetworks.bridge.models.AccountSummarySearch;
@@ -42,6 +55,7 @@ import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.AccountId;
 import org.sagebionetworks.bridge.models.accounts.AccountSummary;
 import org.sagebionetworks.bridge.models.accounts.ExternalIdentifierInfo;
+import org.sagebionetworks.bridge.models.accounts.Phone;
 import org.sagebionetworks.bridge.models.activities.StudyActivityEvent;
 import org.sagebionetworks.bridge.models.apps.App;
 import org.sagebionetworks.bridge.models.reports.ReportIndex;
@@ -52,6 +66,8 @@ import org.sagebionetworks.bridge.time.DateUtils;
 
 @Component
 public class AccountService {
+    private static final Logger LOG = LoggerFactory.getLogger(AccountService.class);
+
     @Autowired
     private AccountDao accountDao;
     @Autowired
@@ -85,7 +101,11 @@ public class AccountService {
     @Autowired
     private UploadService uploadService;
     @Autowired
+    private OutboundMessageQueue outboundMessageQueue;
+    @Autowired
     private RequestInfoService requestInfoService;
+    @Resource(name = "accountDeletionExecutorService")
+    private ExecutorService accountDeletionExecutorService;
     
     // Provided to override in tests
     protected String generateGUID() {
@@ -281,6 +301,18 @@ public class AccountService {
         return optional;
     }
     
+    /**
+     * Get an account in the context of a app by the user's ID, email address, health code, or phone 
+     * number, without checking that the caller can access it. This is for work the server does for an 
+     * account outside of a call by someone who can see the account, such as logging a message that 
+     * was sent to the account in the background. Returns empty if the account cannot be found.
+     */
+    public Optional<Account> getAccountNoFilter(AccountId accountId) {
+        checkNotNull(accountId);
+        
+        return accountDao.getAccount(accountId);
+    }
+    
     /**
      * Delete an account along with the authentication credentials.
      */
@@ -296,26 +328,15 @@ public class AccountService {
             cacheProvider.removeSessionByUserId(account.getId());
             requestInfoService.removeRequestInfo(account.getId());
 
-            String appId = account.getAppId();
-            String userId = account.getId();
-            String healthCode = account.getHealthCode();
-            healthDataService.deleteRecordsForHealthCode(healthCode);
-            healthDataEx3Service.deleteRecordsForHealthCode(healthCode);
-            notificationsService.deleteAllRegistrations(account.getAppId(), healthCode);
-            participantDataService.deleteAllParticipantData(userId);
-            participantFileService.deleteAllFilesForParticipant(userId);
-            uploadService.deleteUploadsForHealthCode(healthCode);
-            scheduledActivityService.deleteActivitiesForUser(healthCode);
-            activityEventService.deleteActivityEvents(account.getAppId(), healthCode);
+            // Don't export participant versions that are still queued for a deleted account.
+            participantVersionService.discardPendingParticipantVersions(account.getAppId(), account.getHealthCode());
 
-            List<? extends ReportIndex> reportIndexList = reportService.getReportIndices(appId, ReportType.PARTICIPANT)
-                    .getItems();
-            for (ReportIndex reportIndex : reportIndexList) {
-                reportService.deleteParticipantReport(appId, userId, reportIndex.getIdentifier(), healthCode);
-            }
+            String userId = account.getId();
+            deleteParticipantData(account);
 
             // AccountSecret records and Enrollment records are are deleted on a 
-            // cascading delete from Account
+            // cascading delete from Account. The DAO removes the weekly adherence reports 
+            // from their study's adherence statistics before they are deleted
             accountDao.deleteAccount(account.getId());
             
             // Remove known etag cache keys for this user
@@ -324,6 +345,76 @@ public class AccountService {
         }
     }
     
+    /**
+     * Deletes the participant's data from each of the stores that hold it. The stores are independent of one
+     * another, so they are cleaned up concurrently. Every step can be repeated, and the account itself is only 
+     * deleted after all of them succeed, so if a step fails, deleting the account again picks up where this left off.
+     */
+    private void deleteParticipantData(Account account) {
+        String appId = account.getAppId();
+        String userId = account.getId();
+        String healthCode = account.getHealthCode();
+
+        Map<String, Runnable> steps = new LinkedHashMap<>();
+        steps.put("healthDataRecords", () -> healthDataService.deleteRecordsForHealthCode(healthCode));
+        steps.put("healthDataRecordsEx3", () -> healthDataEx3Service.deleteRecordsForHealthCode(healthCode));
+        steps.put("notificationRegistrations", () -> notificationsService.deleteAllRegistrations(appId, healthCode));
+        steps.put("participantData", () -> participantDataService.deleteAllParticipantData(userId));
+        steps.put("participantFiles", () -> participantFileService.deleteAllFilesForParticipant(userId));
+        steps.put("uploads", () -> uploadService.deleteUploadsForHealthCode(healthCode));
+        steps.put("scheduledActivities", () -> scheduledActivityService.deleteActivitiesForUser(healthCode));
+        steps.put("activityEvents", () -> activityEventService.deleteActivityEvents(appId, healthCode));
+        steps.put("outboundMessages", () -> outboundMessageQueue.discardMessages(appId,
+                getRecipients(account.getEmail(), account.getPhone())));
+        steps.put("participantReports", () -> {
+            List<? extends ReportIndex> reportIndexList = reportService.getReportIndices(appId,
+                    ReportType.PARTICIPANT).getItems();
+            for (ReportIndex reportIndex : reportIndexList) {
+                reportService.deleteParticipantReport(appId, userId, reportIndex.getIdentifier(), healthCode);
+            }
+        });
+
+        // Some steps check the caller's permissions, so the request context is carried over to the worker threads.
+        RequestContext context = RequestContext.get();
+        Map<String, CompletableFuture<Long>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, Runnable> step : steps.entrySet()) {
+            futures.put(step.getKey(), CompletableFuture.supplyAsync(
+                    () -> runDeletionStep(context, step.getValue()), accountDeletionExecutorService));
+        }
+
+        // Wait for every step, even after one fails, so the failure doesn't leave steps running in the background.
+        Map<String, Long> stepMillis = new LinkedHashMap<>();
+        RuntimeException failure = null;
+        for (Map.Entry<String, CompletableFuture<Long>> future : futures.entrySet()) {
+            try {
+                stepMillis.put(future.getKey(), future.getValue().join());
+            } catch (CompletionException ex) {
+                Throwable cause = (ex.getCause() != null) ? ex.getCause() : ex;
+                LOG.error("Error deleting " + future.getKey() + " for account " + userId, cause);
+                if (failure == null) {
+                    failure = (cause instanceof RuntimeException) ? (RuntimeException) cause
+                            : new BridgeServiceException(cause);
+                }
+            }
+        }
+        LOG.info("Deleted participant data for account " + userId + ", step times in ms: " + stepMillis);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static long runDeletionStep(RequestContext context, Runnable step) {
+        RequestContext previousContext = RequestContext.get();
+        RequestContext.set(context);
+        try {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            step.run();
+            return stopwatch.elapsed(MILLISECONDS);
+        } finally {
+            RequestContext.set(previousContext);
+        }
+    }
+
     /**
      * Delete all accounts that are preview users in this study. We check and throw an exception 
      * if someone attempts to enroll a preview user in more than one study, so it's safe to 
@@ -346,12 +437,26 @@ public class AccountService {
             page = getPagedAccountSummaries(appId, searchBuilder.build());
             for (AccountSummary summary : page.getItems()) {
                 // It is too slow to use deleteAccount because it cleans up a ton of
-                // DynamoDB resources. So... we leave all the non-relational data behind.
+                // DynamoDB resources. So... we leave all the non-relational data behind. The outbox
+                // is in MySQL, and its messages hold the account's contact information.
+                outboundMessageQueue.discardMessages(appId, getRecipients(summary.getEmail(), summary.getPhone()));
                 accountDao.deleteAccount(summary.getId());
             }
         } while(!page.getItems().isEmpty());
     }
 
+    // The addresses that the account's email and SMS messages are sent to.
+    private static Set<String> getRecipients(String email, Phone phone) {
+        Set<String> recipients = new HashSet<>();
+        if (email != null) {
+            recipients.add(email);
+        }
+        if (phone != null) {
+            recipients.add(phone.getNumber());
+        }
+        return recipients;
+    }
+
     /**
      * Get a page of lightweight account summaries (most importantly, the email addresses of 
      * participants which are required for the rest of the participant APIs). 
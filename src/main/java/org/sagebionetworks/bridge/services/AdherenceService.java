@@ -34,11 +34,14 @@ import static org.sagebionetworks.bridge.validators.AdherenceRecordListValidator
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 import java.util.Optional;
 
 import com.google.common.base.Stopwatch;
@@ -118,6 +121,8 @@ public class AdherenceService {
     
     private RequestInfoService requestInfoService;
     
+    private DistributedLockService lockService;
+    
     @Autowired
     final void setAdherenceRecordDao(AdherenceRecordDao recordDao) {
         this.recordDao = recordDao;
@@ -153,6 +158,11 @@ public class AdherenceService {
         this.requestInfoService = requestInfoService;
     }
     
+    @Autowired
+    final void setDistributedLockService(DistributedLockService lockService) {
+        this.lockService = lockService;
+    }
+    
     protected DateTime getDateTime() {
         return DateTime.now();
     }
@@ -170,10 +180,19 @@ public class AdherenceService {
 
         // The only caller of this method sets all the userId and studyId fields, 
         // so this only needs to be called once.
+        String studyId = recordList.getRecords().get(0).getStudyId();
+        String userId = recordList.getRecords().get(0).getUserId();
         CAN_ACCESS_ADHERENCE_DATA.checkAndThrow(
-                AuthEvaluatorField.STUDY_ID, recordList.getRecords().get(0).getStudyId(), 
-                AuthEvaluatorField.USER_ID, recordList.getRecords().get(0).getUserId());
+                AuthEvaluatorField.STUDY_ID, studyId, 
+                AuthEvaluatorField.USER_ID, userId);
         
+        // Session states are derived from all of the participant's assessment records, so concurrent 
+        // updates for the same participant are serialized, or one would overwrite the other's session state.
+        lockService.runWithLock(AdherenceRecord.class, getLockIdentifier(appId, studyId, userId),
+                () -> updateAdherenceRecordsWithLock(appId, recordList));
+    }
+    
+    private void updateAdherenceRecordsWithLock(String appId, AdherenceRecordList recordList) {
         MetadataContainer container = new MetadataContainer(scheduleService, recordList.getRecords());
         
         // Update assessments
@@ -471,17 +490,12 @@ public class AdherenceService {
         
         Stopwatch watch = Stopwatch.createStarted();
         
-        DateTime createdOn = getDateTime();
-        String zoneId = studyService.getZoneId(appId, studyId, account.getClientTimeZone());
-
-        StudyAdherenceReport report = generateReport(appId, studyId, account.getId(), createdOn, zoneId,
-                (state, schedule) -> StudyAdherenceReportGenerator.INSTANCE.generate(state, schedule));
-        report.setParticipant(new AccountRef(account, studyId));
-        report.setTestAccount(account.getDataGroups().contains(TEST_USER_GROUP));
-        report.setCreatedOn(createdOn);
-        report.setClientTimeZone(zoneId);
-        
-        deriveWeeklyAdherenceFromStudyReportWeek(studyId, account, report);
+        StudyAdherenceReport report = lockService.callWithLock(WeeklyAdherenceReport.class,
+                getLockIdentifier(appId, studyId, account.getId()), () -> {
+            StudyAdherenceReport studyReport = generateStudyAdherenceReport(appId, studyId, account);
+            deriveWeeklyAdherenceFromStudyReportWeek(studyId, account, studyReport);
+            return studyReport;
+        });
         
         watch.stop();
         LOG.info("Study adherence report took " + watch.elapsed(TimeUnit.MILLISECONDS) + "ms");
@@ -492,17 +506,9 @@ public class AdherenceService {
 
         Stopwatch watch = Stopwatch.createStarted();
         
-        DateTime createdOn = getDateTime();
-        String zoneId = studyService.getZoneId(appId, studyId, account.getClientTimeZone());
-
-        StudyAdherenceReport report = generateReport(appId, studyId, account.getId(), createdOn, zoneId,
-                (state, schedule) -> StudyAdherenceReportGenerator.INSTANCE.generate(state, schedule));
-        report.setParticipant(new AccountRef(account, studyId));
-        report.setTestAccount(account.getDataGroups().contains(TEST_USER_GROUP));
-        report.setCreatedOn(createdOn);
-        report.setClientTimeZone(zoneId);
-        
-        WeeklyAdherenceReport weeklyReport = deriveWeeklyAdherenceFromStudyReportWeek(studyId, account, report);
+        WeeklyAdherenceReport weeklyReport = lockService.callWithLock(WeeklyAdherenceReport.class,
+                getLockIdentifier(appId, studyId, account.getId()), () -> deriveWeeklyAdherenceFromStudyReportWeek(
+                        studyId, account, generateStudyAdherenceReport(appId, studyId, account)));
 
         watch.stop();
         LOG.info("Weekly adherence report took " + watch.elapsed(TimeUnit.MILLISECONDS) + "ms");
@@ -514,18 +520,101 @@ public class AdherenceService {
 
         // trigger alert for low weekly adherence
         Study study = studyService.getStudy(appId, studyId, true);
+        alertOnLowAdherence(appId, studyId, study, account, weeklyReport);
+
+        return weeklyReport;
+    }
+    
+    /**
+     * Generate weekly adherence reports for a set of participants in a study, persisting them together in 
+     * batches rather than one at a time. Low adherence alerts are raised as in 
+     * getWeeklyAdherenceReportForWorker. The weekly report locks of all the participants are held while 
+     * their reports are generated and saved.
+     */
+    public List<WeeklyAdherenceReport> getWeeklyAdherenceReportsForWorker(String appId, String studyId,
+            List<Account> accounts) {
+        checkNotNull(appId);
+        checkNotNull(studyId);
+        checkNotNull(accounts);
+        
+        Stopwatch watch = Stopwatch.createStarted();
+        
+        Study study = studyService.getStudy(appId, studyId, true);
+        
+        Set<String> userIds = new TreeSet<>();
+        for (Account account : accounts) {
+            userIds.add(account.getId());
+        }
+        List<WeeklyAdherenceReport> weeklyReports = callWithWeeklyReportLocks(appId, studyId, userIds.iterator(),
+                () -> {
+            List<WeeklyAdherenceReport> reports = new ArrayList<>();
+            for (Account account : accounts) {
+                StudyAdherenceReport report = generateStudyAdherenceReport(appId, studyId, account);
+                reports.add(createWeeklyAdherenceReport(studyId, account, report));
+            }
+            reportDao.saveWeeklyAdherenceReports(reports);
+            return reports;
+        });
+        
+        for (int i=0; i < accounts.size(); i++) {
+            alertOnLowAdherence(appId, studyId, study, accounts.get(i), weeklyReports.get(i));
+        }
+        
+        watch.stop();
+        LOG.info(accounts.size() + " weekly adherence reports took " + watch.elapsed(TimeUnit.MILLISECONDS) + "ms");
+        return weeklyReports;
+    }
+    
+    private void alertOnLowAdherence(String appId, String studyId, Study study, Account account,
+            WeeklyAdherenceReport weeklyReport) {
         if (weeklyReport.getWeeklyAdherencePercent() != null
                 && study.getAdherenceThresholdPercentage() != null
                 && weeklyReport.getWeeklyAdherencePercent() <= study.getAdherenceThresholdPercentage()) {
             alertService.createAlert(
                     Alert.lowAdherence(studyId, appId, account.getId(), study.getAdherenceThresholdPercentage()));
         }
-
-        return weeklyReport;
     }
+    
+    protected StudyAdherenceReport generateStudyAdherenceReport(String appId, String studyId, Account account) {
+        DateTime createdOn = getDateTime();
+        String zoneId = studyService.getZoneId(appId, studyId, account.getClientTimeZone());
 
+        StudyAdherenceReport report = generateReport(appId, studyId, account.getId(), createdOn, zoneId,
+                (state, schedule) -> StudyAdherenceReportGenerator.INSTANCE.generate(state, schedule));
+        report.setParticipant(new AccountRef(account, studyId));
+        report.setTestAccount(account.getDataGroups().contains(TEST_USER_GROUP));
+        report.setCreatedOn(createdOn);
+        report.setClientTimeZone(zoneId);
+        return report;
+    }
+    
+    // The caller holds the participant's weekly report lock from before the study report was generated, so a report 
+    // generated from older adherence records can't overwrite a newer one.
     protected WeeklyAdherenceReport deriveWeeklyAdherenceFromStudyReportWeek(String studyId, Account account,
             StudyAdherenceReport report) {
+        WeeklyAdherenceReport weeklyReport = createWeeklyAdherenceReport(studyId, account, report);
+        reportDao.saveWeeklyAdherenceReport(weeklyReport);
+        return weeklyReport;
+    }
+    
+    // Runs the supplier while holding the weekly report locks of all the users. The locks are taken in order of user 
+    // ID, so two batches with users in common can't each hold a lock the other is waiting for.
+    private <T> T callWithWeeklyReportLocks(String appId, String studyId, Iterator<String> userIds,
+            Supplier<T> supplier) {
+        if (!userIds.hasNext()) {
+            return supplier.get();
+        }
+        String userId = userIds.next();
+        return lockService.callWithLock(WeeklyAdherenceReport.class, getLockIdentifier(appId, studyId, userId),
+                () -> callWithWeeklyReportLocks(appId, studyId, userIds, supplier));
+    }
+    
+    private static String getLockIdentifier(String appId, String studyId, String userId) {
+        return appId + ":" + studyId + ":" + userId;
+    }
+    
+    protected WeeklyAdherenceReport createWeeklyAdherenceReport(String studyId, Account account,
+            StudyAdherenceReport report) {
         
         WeeklyAdherenceReport weeklyReport = new WeeklyAdherenceReport();
         weeklyReport.setAppId(account.getAppId());
@@ -556,7 +645,6 @@ public class AdherenceService {
                 weeklyReport.setNextActivity(report.getNextActivity());    
             }
         }
-        reportDao.saveWeeklyAdherenceReport(weeklyReport);
         return weeklyReport;
     }
 
@@ -0,0 +1,198 @@
+package org.sagebionetworks.bridge.services;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.RequestContext;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.models.ConsentDeliveryStatus;
+
+/**
+ * Delivers signed consent documents (the PDF rendering, and the email, S3 and SMS calls that send it) on a small
+ * pool of background threads, so the request that records the consent does not wait for them. A delivery runs once.
+ * The email or SMS it sends goes to the OutboundMessageQueue, which retries the send itself, so retrying the whole
+ * delivery here would stack a second retry on top and send the message again. Instead, a delivery retries the steps
+ * before the send that can fail on their own (such as uploading the PDF for an SMS link) with callWithRetries(). A
+ * failed delivery is logged, and does not undo the consent, which the participant can have resent.
+ *
+ * The number of waiting deliveries is bounded. When the queue is full, the caller runs the delivery itself, which
+ * slows the producer down rather than dropping the consent. A thread count of zero disables the pool, and every
+ * delivery runs on the caller's thread.
+ */
+@Component
+public class ConsentDeliveryQueue {
+    private static final Logger LOG = LoggerFactory.getLogger(ConsentDeliveryQueue.class);
+
+    static final String CONFIG_KEY_THREAD_COUNT = "consent.delivery.thread.count";
+    static final String CONFIG_KEY_MAX_PENDING = "consent.delivery.max.pending";
+    static final String CONFIG_KEY_MAX_ATTEMPTS = "consent.delivery.max.attempts";
+    static final String CONFIG_KEY_RETRY_DELAY_MILLIS = "consent.delivery.retry.delay.millis";
+    static final long SHUTDOWN_WAIT_SECONDS = 30L;
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong synchronousCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong totalDeliveryMillis = new AtomicLong();
+    private final LongAccumulator longestDeliveryMillis = new LongAccumulator(Long::max, 0L);
+
+    private int threadCount;
+    private int maxPending;
+    private int maxAttempts;
+    private long retryDelayMillis;
+    private ThreadPoolExecutor executor;
+
+    @Autowired
+    final void setConfig(BridgeConfig config) {
+        this.threadCount = config.getPropertyAsInt(CONFIG_KEY_THREAD_COUNT);
+        this.maxPending = config.getPropertyAsInt(CONFIG_KEY_MAX_PENDING);
+        this.maxAttempts = Math.max(1, config.getPropertyAsInt(CONFIG_KEY_MAX_ATTEMPTS));
+        this.retryDelayMillis = config.getPropertyAsInt(CONFIG_KEY_RETRY_DELAY_MILLIS);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (threadCount > 0) {
+            executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, MILLISECONDS,
+                    new ArrayBlockingQueue<>(maxPending), new ThreadFactoryBuilder()
+                            .setNameFormat("consent-delivery-%d").setDaemon(true).build());
+        }
+    }
+
+    /** Stops taking deliveries, and waits for the waiting deliveries to be sent. */
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(SHUTDOWN_WAIT_SECONDS, SECONDS)) {
+                    LOG.error(executor.getQueue().size() + " consent deliveries were not sent before shutdown");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queues a delivery. The description identifies the delivery in the logs. The delivery runs with the caller's
+     * request context.
+     */
+    public void submit(String description, Runnable delivery) {
+        checkNotNull(description);
+        checkNotNull(delivery);
+
+        submittedCount.incrementAndGet();
+        RequestContext context = RequestContext.get();
+        Runnable task = () -> deliver(description, context, delivery);
+        if (executor == null) {
+            synchronousCount.incrementAndGet();
+            task.run();
+            return;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            synchronousCount.incrementAndGet();
+            task.run();
+        }
+    }
+
+    /** Returns a snapshot of the queue's counters. */
+    public ConsentDeliveryStatus getStatus() {
+        ConsentDeliveryStatus status = new ConsentDeliveryStatus();
+        status.setThreadCount(threadCount);
+        status.setMaxPending(maxPending);
+        status.setMaxAttempts(maxAttempts);
+        if (executor != null) {
+            status.setPendingCount(executor.getQueue().size());
+            status.setActiveCount(executor.getActiveCount());
+        }
+        status.setSubmittedCount(submittedCount.get());
+        status.setSynchronousCount(synchronousCount.get());
+        status.setDeliveredCount(deliveredCount.get());
+        status.setRetriedCount(retriedCount.get());
+        status.setFailedCount(failedCount.get());
+        long delivered = deliveredCount.get();
+        if (delivered > 0) {
+            status.setAverageDeliveryMillis((double) totalDeliveryMillis.get() / delivered);
+        }
+        status.setLongestDeliveryMillis(longestDeliveryMillis.get());
+        return status;
+    }
+
+    /**
+     * Runs one step of a delivery, retrying it with a growing delay until it succeeds or runs out of attempts, and
+     * returns its result. If the last attempt fails, its error is thrown, which fails the delivery. Only use this for
+     * a step that is safe to repeat, and not for the email or SMS send, which the OutboundMessageQueue retries.
+     */
+    public <T> T callWithRetries(String description, Supplier<T> step) {
+        checkNotNull(description);
+        checkNotNull(step);
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return step.get();
+            } catch (RuntimeException ex) {
+                if (attempt >= maxAttempts) {
+                    throw ex;
+                }
+                retriedCount.incrementAndGet();
+                LOG.warn("Error in " + description + " on attempt " + attempt + ", retrying", ex);
+                if (!sleep(retryDelayMillis * attempt)) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    // Runs the delivery once. Errors are logged rather than thrown, since there is no request to report them to.
+    // Package-scoped for unit tests.
+    void deliver(String description, RequestContext context, Runnable delivery) {
+        RequestContext previousContext = RequestContext.get();
+        RequestContext.set(context);
+        try {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            delivery.run();
+            long millis = stopwatch.elapsed(MILLISECONDS);
+            deliveredCount.incrementAndGet();
+            totalDeliveryMillis.addAndGet(millis);
+            longestDeliveryMillis.accumulate(millis);
+        } catch (RuntimeException ex) {
+            failedCount.incrementAndGet();
+            LOG.error("Error delivering " + description, ex);
+        } finally {
+            RequestContext.set(previousContext);
+        }
+    }
+
+    // Returns false if the thread was interrupted. Package-scoped so unit tests can skip the delay.
+    boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
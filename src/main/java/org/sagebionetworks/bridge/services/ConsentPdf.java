@@ -19,6 +19,7 @@ import org.sagebionetworks.bridge.models.accounts.SharingScope;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.apps.App;
 import org.sagebionetworks.bridge.models.subpopulations.ConsentSignature;
+import org.sagebionetworks.bridge.util.ParsedTemplate;
 import org.xhtmlrenderer.pdf.ITextRenderer;
 
 import com.fasterxml.jackson.core.util.ByteArrayBuilder;
@@ -27,7 +28,8 @@ import com.lowagie.text.DocumentException;
 
 /**
  * A class to construct a signed consent agreement for delivery to the user. The bytes can be embedded as 
- * an email attachment, or uploaded to S3 for download by the user. 
+ * an email attachment, or uploaded to S3 for download by the user. The PDF is rendered once, on first use, and
+ * shared by every channel the consent is sent to.
  */
 public final class ConsentPdf {
 
@@ -37,12 +39,24 @@ public final class ConsentPdf {
     private final StudyParticipant signer;
     private final ConsentSignature consentSignature;
     private final SharingScope sharingScope;
-    private final String studyConsentAgreement;
-    private final String xmlTemplateWithSignatureBlock;
+    private final ParsedTemplate studyConsentAgreement;
+    private final ParsedTemplate xmlTemplateWithSignatureBlock;
     private String formattedConsentDocument;
+    private byte[] bytes;
 
     public ConsentPdf(App app, StudyParticipant signer, ConsentSignature consentSignature,
             SharingScope sharingScope, String studyConsentAgreement, String xmlTemplateWithSignatureBlock) {
+        this(app, signer, consentSignature, sharingScope, ParsedTemplate.parse(studyConsentAgreement),
+                ParsedTemplate.parse(xmlTemplateWithSignatureBlock));
+    }
+
+    /**
+     * The consent document and page templates are parsed once and reused for every signature, by the
+     * StudyConsentService and ConsentService respectively.
+     */
+    public ConsentPdf(App app, StudyParticipant signer, ConsentSignature consentSignature,
+            SharingScope sharingScope, ParsedTemplate studyConsentAgreement,
+            ParsedTemplate xmlTemplateWithSignatureBlock) {
         this.app = checkNotNull(app);
         this.signer = signer;
         this.consentSignature = checkNotNull(consentSignature);
@@ -54,14 +68,21 @@ public final class ConsentPdf {
     /**
      * Get the final, formatted string we supply to the PDF renderer. For unit tests. 
      */
-    protected String getFormattedConsentDocument() { 
+    protected synchronized String getFormattedConsentDocument() { 
         if (formattedConsentDocument == null) {
             getBytes();
         }
         return formattedConsentDocument;
     }
 
-    public byte[] getBytes() {
+    public synchronized byte[] getBytes() {
+        if (bytes == null) {
+            bytes = render();
+        }
+        return bytes;
+    }
+
+    private byte[] render() {
         final String consentDoc = createSignedDocument();
 
         String imageMimeType = consentSignature.getImageMimeType();
@@ -129,10 +150,10 @@ public final class ConsentPdf {
         map.put("participant.contactInfo", contactInfo);
         map.put("participant.contactLabel", contactLabel);
         map.put("participant.sharing", sharingLabel);
-        String resolvedStudyConsentAgreement = BridgeUtils.resolveTemplate(studyConsentAgreement, map);
+        String resolvedStudyConsentAgreement = studyConsentAgreement.resolve(map);
         
         map.put("consent.body", resolvedStudyConsentAgreement);
-        return BridgeUtils.resolveTemplate(xmlTemplateWithSignatureBlock, map);
+        return xmlTemplateWithSignatureBlock.resolve(map);
     }
 
     // Helper method to check if the given string is a valid Base64 string. Returns false for null or blank strings.
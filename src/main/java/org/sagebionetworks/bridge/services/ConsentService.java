@@ -50,6 +50,7 @@ import org.sagebionetworks.bridge.services.email.EmailType;
 import org.sagebionetworks.bridge.services.email.WithdrawConsentEmailProvider;
 import org.sagebionetworks.bridge.sms.SmsMessageProvider;
 import org.sagebionetworks.bridge.time.DateUtils;
+import org.sagebionetworks.bridge.util.ParsedTemplate;
 import org.sagebionetworks.bridge.validators.ConsentSignatureValidator;
 import org.sagebionetworks.bridge.validators.Validate;
 
@@ -77,16 +78,18 @@ public class ConsentService {
     private NotificationsService notificationsService;
     private StudyConsentService studyConsentService;
     private SubpopulationService subpopService;
-    private String xmlTemplateWithSignatureBlock;
+    private ParsedTemplate xmlTemplateWithSignatureBlock;
     private S3Helper s3Helper;
     private UrlShortenerService urlShortenerService;
     private TemplateService templateService;
     private EnrollmentService enrollmentService;
     private AlertService alertService;
+    private ConsentDeliveryQueue consentDeliveryQueue;
     
     @Value("classpath:conf/app-defaults/consent-page.xhtml")
     final void setConsentTemplate(org.springframework.core.io.Resource resource) throws IOException {
-        this.xmlTemplateWithSignatureBlock = IOUtils.toString(resource.getInputStream(), StandardCharsets.UTF_8);
+        this.xmlTemplateWithSignatureBlock = ParsedTemplate.parse(
+                IOUtils.toString(resource.getInputStream(), StandardCharsets.UTF_8));
     }
     @Autowired
     final void setAccountService(AccountService accountService) {
@@ -132,6 +135,11 @@ public class ConsentService {
     final void setEnrollmentService(EnrollmentService enrollmentService) {
         this.enrollmentService = enrollmentService;
     }
+    @Autowired
+    final void setConsentDeliveryQueue(ConsentDeliveryQueue consentDeliveryQueue) {
+        this.consentDeliveryQueue = consentDeliveryQueue;
+    }
+
     @Autowired
     final void setAlertService(AlertService alertService) {
         this.alertService = alertService;
@@ -218,10 +226,11 @@ public class ConsentService {
         }
         accountService.updateAccount(account);
 
-        // Administrative actions, almost exclusively for testing, will send no consent documents
+        // Administrative actions, almost exclusively for testing, will send no consent documents. The consent is
+        // recorded, so the documents are rendered and sent in the background.
         if (sendSignedConsent) {
             ConsentPdf consentPdf = new ConsentPdf(app, participant, withConsentCreatedOnSignature, sharingScope,
-                    studyConsent.getDocumentContent(), xmlTemplateWithSignatureBlock);
+                    studyConsent.getDocumentTemplate(), xmlTemplateWithSignatureBlock);
             
             boolean verifiedEmail = (participant.getEmail() != null
                     && Boolean.TRUE.equals(participant.getEmailVerified()));
@@ -236,22 +245,30 @@ public class ConsentService {
             }
             addStudyConsentRecipients(app, recipientEmails);
             if (!recipientEmails.isEmpty()) {
-                TemplateRevision revision = templateService.getRevisionForUser(app, EMAIL_SIGNED_CONSENT);
-                
-                BasicEmailProvider.Builder consentEmailBuilder = new BasicEmailProvider.Builder()
-                        .withApp(app)
-                        .withParticipant(participant)
-                        .withTemplateRevision(revision)
-                        .withBinaryAttachment("consent.pdf", MimeType.PDF, consentPdf.getBytes())
-                        .withType(EmailType.SIGN_CONSENT);
-                for (String recipientEmail : recipientEmails) {
-                    consentEmailBuilder.withRecipientEmail(recipientEmail);
-                }
-                sendMailService.sendEmail(consentEmailBuilder.build());
+                consentDeliveryQueue.submit("signed consent email for user " + participant.getId(), () -> {
+                    TemplateRevision revision = templateService.getRevisionForUser(app, EMAIL_SIGNED_CONSENT);
+                    
+                    BasicEmailProvider.Builder consentEmailBuilder = new BasicEmailProvider.Builder()
+                            .withApp(app)
+                            .withParticipant(participant)
+                            .withTemplateRevision(revision)
+                            .withBinaryAttachment("consent.pdf", MimeType.PDF, consentPdf.getBytes())
+                            .withType(EmailType.SIGN_CONSENT);
+                    for (String recipientEmail : recipientEmails) {
+                        consentEmailBuilder.withRecipientEmail(recipientEmail);
+                    }
+                    sendMailService.sendEmail(consentEmailBuilder.build());
+                });
             }
             // Otherwise if there's no verified email but there is a phone and we're not suppressing, send it there
             if (!subpop.isAutoSendConsentSuppressed() && !verifiedEmail && verifiedPhone) {
-                sendConsentViaSMS(app, subpop, participant, consentPdf);    
+                consentDeliveryQueue.submit("signed consent SMS for user " + participant.getId(), () -> {
+                    // Only the upload is retried here. The SMS itself goes to the outbox, which retries the send.
+                    String shortUrl = consentDeliveryQueue.callWithRetries(
+                            "signed consent upload for user " + participant.getId(),
+                            () -> uploadSignedConsent(consentPdf));
+                    sendSignedConsentSms(app, participant, shortUrl);
+                });
             }
         }
     }
@@ -418,7 +435,9 @@ public class ConsentService {
 
     /**
      * Resend the participant's signed consent agreement via the user's email address or their phone number. 
-     * It is an error to call this method if no channel exists to send the consent to the user.
+     * It is an error to call this method if no channel exists to send the consent to the user. The consent is 
+     * rendered (and for an SMS, uploaded) on the caller's thread, so the caller sees those errors, but the email or 
+     * SMS is sent through the outbox, so an error sending it is retried and logged rather than thrown.
      */
     public void resendConsentAgreement(App app, SubpopulationGuid subpopGuid, StudyParticipant participant) {
         checkNotNull(app);
@@ -428,7 +447,7 @@ public class ConsentService {
         ConsentSignature consentSignature = getConsentSignature(app, subpopGuid, participant.getId());
         SharingScope sharingScope = participant.getSharingScope();
         Subpopulation subpop = subpopService.getSubpopulation(app.getIdentifier(), subpopGuid);
-        String studyConsentDocument = studyConsentService.getActiveConsent(subpop).getDocumentContent();
+        ParsedTemplate studyConsentDocument = studyConsentService.getActiveConsent(subpop).getDocumentTemplate();
 
         boolean verifiedEmail = (participant.getEmail() != null
                 && Boolean.TRUE.equals(participant.getEmailVerified()));
@@ -450,15 +469,14 @@ public class ConsentService {
                     .withType(EmailType.RESEND_CONSENT).build();
             sendMailService.sendEmail(provider);
         } else if (verifiedPhone) {
-            sendConsentViaSMS(app, subpop, participant, consentPdf);
+            sendSignedConsentSms(app, participant, uploadSignedConsent(consentPdf));
         } else {
             throw new BadRequestException("Participant does not have a valid email address or phone number");
         }
     }
     
-    private void sendConsentViaSMS(App app, Subpopulation subpop, StudyParticipant participant,
-            ConsentPdf consentPdf) {
-        String shortUrl;
+    // Uploads the signed consent to S3, and returns a short URL to download it, to send in an SMS.
+    private String uploadSignedConsent(ConsentPdf consentPdf) {
         try {
             ObjectMetadata metadata = new ObjectMetadata();
             metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
@@ -467,10 +485,13 @@ public class ConsentService {
             DateTime expiresOn = getDownloadExpiration();
             s3Helper.writeBytesToS3(USERSIGNED_CONSENTS_BUCKET, fileName, consentPdf.getBytes(), metadata);
             URL url = s3Helper.generatePresignedUrl(USERSIGNED_CONSENTS_BUCKET, fileName, expiresOn, HttpMethod.GET);
-            shortUrl = urlShortenerService.shortenUrl(url.toString(), SIGNED_CONSENT_DOWNLOAD_EXPIRE_IN_SECONDS);
+            return urlShortenerService.shortenUrl(url.toString(), SIGNED_CONSENT_DOWNLOAD_EXPIRE_IN_SECONDS);
         } catch(IOException e) {
             throw new BridgeServiceException(e);
         }
+    }
+    
+    private void sendSignedConsentSms(App app, StudyParticipant participant, String shortUrl) {
         TemplateRevision revision = templateService.getRevisionForUser(app, SMS_SIGNED_CONSENT);
 
         SmsMessageProvider provider = new SmsMessageProvider.Builder()
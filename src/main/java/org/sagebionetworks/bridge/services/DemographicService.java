@@ -5,6 +5,7 @@ import static org.sagebionetworks.bridge.BridgeConstants.API_MINIMUM_PAGE_SIZE;
 import static org.sagebionetworks.bridge.BridgeConstants.PAGE_SIZE_ERROR;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
 
 import org.sagebionetworks.bridge.BridgeUtils;
@@ -212,6 +213,20 @@ public class DemographicService {
         return demographicDao.getDemographicUser(appId, studyId, userId);
     }
 
+    /**
+     * Fetches the app-level DemographicUser and all study-level DemographicUsers
+     * for a user in a single query.
+     * 
+     * @param appId  The appId of the app which contains the DemographicUsers to
+     *               fetch.
+     * @param userId The userId of the user to fetch demographics for.
+     * @return The fetched DemographicUsers. The app-level DemographicUser has a
+     *         null studyId.
+     */
+    public List<DemographicUser> getDemographicUsersForUser(String appId, String userId) {
+        return demographicDao.getDemographicUsersForUser(appId, userId);
+    }
+
     /**
      * Fetches all app-level DemographicUsers for an app or all study-level
      * DemographicUsers for a study.
@@ -0,0 +1,226 @@
+package org.sagebionetworks.bridge.services;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.dao.DistributedLockDao;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+import org.sagebionetworks.bridge.models.DistributedLockStatus;
+
+/**
+ * Serializes writers across the cluster. A caller that finds the lock held waits for it (backing off between 
+ * attempts) rather than racing the holder and retrying the whole operation after an optimistic locking failure. 
+ * If the lock is not free within the maximum wait, the caller gets a 409, as it would have from a conflicting write.
+ * 
+ * Locks are leases. A background thread renews the leases of the locks this server holds, so a long operation 
+ * keeps its lock, while the lock of a server that dies expires. A lease that could not be renewed is counted and 
+ * logged with its fencing token; the optimistic version checks on the locked entities still reject a write from 
+ * the holder that lost its lease.
+ */
+@Component
+public class DistributedLockService {
+    private static final Logger LOG = LoggerFactory.getLogger(DistributedLockService.class);
+
+    static final String CONFIG_KEY_EXPIRE_SECONDS = "distributed.lock.expire.seconds";
+    static final String CONFIG_KEY_MAX_WAIT_MILLIS = "distributed.lock.max.wait.millis";
+    static final long INITIAL_BACKOFF_MILLIS = 10L;
+    static final long MAX_BACKOFF_MILLIS = 200L;
+
+    private static final class HeldLock {
+        private final Class<?> clazz;
+        private final String identifier;
+
+        private HeldLock(Class<?> clazz, String identifier) {
+            this.clazz = clazz;
+            this.identifier = identifier;
+        }
+    }
+
+    // Keyed by lock string.
+    private final ConcurrentMap<String, HeldLock> heldLocks = new ConcurrentHashMap<>();
+    private final AtomicLong acquiredCount = new AtomicLong();
+    private final AtomicLong contendedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong longestWaitMillis = new AtomicLong();
+    private final AtomicLong renewedCount = new AtomicLong();
+    private final AtomicLong lostCount = new AtomicLong();
+    private final AtomicLong lastFencingToken = new AtomicLong();
+
+    private DistributedLockDao lockDao;
+    private int expireInSeconds;
+    private long maxWaitMillis;
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    final void setDistributedLockDao(DistributedLockDao lockDao) {
+        this.lockDao = lockDao;
+    }
+
+    @Autowired
+    final void setConfig(BridgeConfig config) {
+        this.expireInSeconds = config.getPropertyAsInt(CONFIG_KEY_EXPIRE_SECONDS);
+        this.maxWaitMillis = config.getPropertyAsInt(CONFIG_KEY_MAX_WAIT_MILLIS);
+    }
+
+    @PostConstruct
+    public void start() {
+        // Renew at a third of the expiration, so a lease survives one failed renewal.
+        long renewalMillis = expireInSeconds * 1000L / 3;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("distributed-lock-renewal-%d").setDaemon(true).build());
+        scheduler.scheduleWithFixedDelay(this::renewHeldLocks, renewalMillis, renewalMillis, MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the supplier while holding the lock on this class of object and identifier, and returns its value. 
+     * Throws a ConcurrentModificationException if the lock cannot be acquired within the maximum wait.
+     */
+    public <T> T callWithLock(Class<?> clazz, String identifier, Supplier<T> supplier) {
+        checkNotNull(clazz);
+        checkNotNull(identifier);
+        checkNotNull(supplier);
+
+        String lock = acquire(clazz, identifier);
+        try {
+            return supplier.get();
+        } finally {
+            release(clazz, identifier, lock);
+        }
+    }
+
+    /** Runs the runnable while holding the lock on this class of object and identifier. */
+    public void runWithLock(Class<?> clazz, String identifier, Runnable runnable) {
+        checkNotNull(runnable);
+        callWithLock(clazz, identifier, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /** Returns a snapshot of the lock counters. */
+    public DistributedLockStatus getStatus() {
+        DistributedLockStatus status = new DistributedLockStatus();
+        status.setExpireInSeconds(expireInSeconds);
+        status.setMaxWaitMillis(maxWaitMillis);
+        status.setHeldCount(heldLocks.size());
+        status.setAcquiredCount(acquiredCount.get());
+        status.setContendedCount(contendedCount.get());
+        status.setTimeoutCount(timeoutCount.get());
+        status.setTotalWaitMillis(totalWaitMillis.get());
+        status.setLongestWaitMillis(longestWaitMillis.get());
+        status.setRenewedCount(renewedCount.get());
+        status.setLostCount(lostCount.get());
+        status.setLastFencingToken(lastFencingToken.get());
+        return status;
+    }
+
+    private String acquire(Class<?> clazz, String identifier) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        long backoffMillis = INITIAL_BACKOFF_MILLIS;
+        boolean contended = false;
+        while (true) {
+            String lock = lockDao.acquireLock(clazz, identifier, expireInSeconds);
+            if (lock != null) {
+                heldLocks.put(lock, new HeldLock(clazz, identifier));
+                recordAcquisition(lock, contended, stopwatch.elapsed(MILLISECONDS));
+                return lock;
+            }
+            contended = true;
+            long remainingMillis = maxWaitMillis - stopwatch.elapsed(MILLISECONDS);
+            if (remainingMillis <= 0) {
+                timeoutCount.incrementAndGet();
+                throw new ConcurrentModificationException(
+                        "This item is being modified by another request. Please try again.");
+            }
+            try {
+                sleep(Math.min(backoffMillis, remainingMillis));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new BridgeServiceException("Interrupted waiting for lock.");
+            }
+            backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private void recordAcquisition(String lock, boolean contended, long waitMillis) {
+        acquiredCount.incrementAndGet();
+        if (contended) {
+            contendedCount.incrementAndGet();
+        }
+        totalWaitMillis.addAndGet(waitMillis);
+        longestWaitMillis.accumulateAndGet(waitMillis, Math::max);
+        lastFencingToken.accumulateAndGet(DistributedLockDao.getFencingToken(lock), Math::max);
+    }
+
+    private void release(Class<?> clazz, String identifier, String lock) {
+        // If the renewal thread already found the lease lost, it has been counted.
+        if (heldLocks.remove(lock) == null) {
+            return;
+        }
+        try {
+            if (!lockDao.releaseLock(clazz, identifier, lock)) {
+                recordLostLock(clazz, identifier, lock);
+            }
+        } catch (RuntimeException ex) {
+            // The lock will expire. Don't hide the result of the work done under the lock.
+            LOG.error("Error releasing lock on " + clazz.getSimpleName() + " " + identifier, ex);
+        }
+    }
+
+    // This runs on the scheduler thread, so it logs errors rather than throwing them, which would stop the schedule.
+    // Package-scoped for unit tests.
+    void renewHeldLocks() {
+        for (Map.Entry<String, HeldLock> entry : heldLocks.entrySet()) {
+            String lock = entry.getKey();
+            HeldLock heldLock = entry.getValue();
+            try {
+                if (lockDao.renewLock(heldLock.clazz, heldLock.identifier, lock, expireInSeconds)) {
+                    renewedCount.incrementAndGet();
+                } else if (heldLocks.remove(lock, heldLock)) {
+                    recordLostLock(heldLock.clazz, heldLock.identifier, lock);
+                }
+            } catch (RuntimeException ex) {
+                LOG.error("Error renewing lock on " + heldLock.clazz.getSimpleName() + " " + heldLock.identifier, ex);
+            }
+        }
+    }
+
+    private void recordLostLock(Class<?> clazz, String identifier, String lock) {
+        lostCount.incrementAndGet();
+        LOG.warn("Lost lock on " + clazz.getSimpleName() + " " + identifier + " with fencing token " +
+                DistributedLockDao.getFencingToken(lock) + " before it was released");
+    }
+
+    // Package-scoped so unit tests can avoid waiting.
+    void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+}
@@ -90,6 +90,7 @@ import org.sagebionetworks.bridge.models.worker.Exporter3Request;
 import org.sagebionetworks.bridge.models.worker.WorkerRequest;
 import org.sagebionetworks.bridge.s3.S3Helper;
 import org.sagebionetworks.bridge.synapse.SynapseHelper;
+import org.sagebionetworks.bridge.upload.UploadUtil;
 import org.sagebionetworks.bridge.validators.ExportToAppNotificationValidator;
 import org.sagebionetworks.bridge.validators.ExporterSubscriptionRequestValidator;
 import org.sagebionetworks.bridge.validators.Validate;
@@ -949,6 +950,9 @@ public class Exporter3Service {
             record.setVersion(oldRecord.get().getVersion());
         }
 
+        // Record where the raw upload is, so that download links don't need to read the upload.
+        record.setRawS3Key(UploadUtil.getRawS3KeyForUpload(appId, upload, record));
+
         // Save record.
         record = healthDataEx3Service.createOrUpdateRecord(record);
 
@@ -2,13 +2,19 @@ package org.sagebionetworks.bridge.services;
 
 import javax.annotation.Resource;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import com.amazonaws.HttpMethod;
 import com.amazonaws.services.s3.AmazonS3;
 import static com.amazonaws.HttpMethod.GET;
 import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
+import com.google.common.collect.Maps;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -34,6 +40,7 @@ import org.sagebionetworks.bridge.validators.Validate;
 public class HealthDataEx3Service {
     static final int MAX_DATE_RANGE_DAYS = 60;
     static final int EXPIRATION_IN_MINUTES = 60;
+    static final int MAX_DOWNLOAD_BATCH_SIZE = 100;
 
     private HealthDataEx3Dao healthDataEx3Dao;
     private UploadService uploadService;
@@ -60,13 +67,20 @@ public class HealthDataEx3Service {
         this.s3Client = s3;
     }
 
-    /** Create or update health data record. Returns the created or updated record. */
+    /**
+     * Create or update health data record. Returns the created or updated record. The raw S3 key is not part of the
+     * record's JSON, so an update that doesn't set it (such as one from the worker) keeps the existing key.
+     */
     public HealthDataRecordEx3 createOrUpdateRecord(HealthDataRecordEx3 record) {
         if (record == null) {
             throw new InvalidEntityException("Health data record must not be null");
         }
         Validate.entityThrowingException(HealthDataRecordEx3Validator.INSTANCE, record);
 
+        if (record.getRawS3Key() == null && record.getId() != null) {
+            healthDataEx3Dao.getRecord(record.getId()).ifPresent(oldRecord -> record.setRawS3Key(
+                    oldRecord.getRawS3Key()));
+        }
         return healthDataEx3Dao.createOrUpdateRecord(record);
     }
 
@@ -93,6 +107,42 @@ public class HealthDataEx3Service {
         return record;
     }
 
+    /**
+     * Retrieves the records for the given IDs that belong to the given app and health code, each with a download
+     * link. The records are read in one batch, and in the order of the IDs. IDs that don't exist, or whose records
+     * belong to another app or participant, are skipped.
+     */
+    public List<HealthDataRecordEx3> getRecordsWithDownloadUrls(String appId, String healthCode, List<String> ids) {
+        if (StringUtils.isBlank(appId)) {
+            throw new BadRequestException("App ID must be specified");
+        }
+        if (StringUtils.isBlank(healthCode)) {
+            throw new BadRequestException("Health code must be specified");
+        }
+        if (ids == null || ids.isEmpty()) {
+            throw new BadRequestException("IDs must be specified");
+        }
+        Set<String> idSet = new LinkedHashSet<>(ids);
+        if (idSet.contains(null)) {
+            throw new BadRequestException("IDs must not be null");
+        }
+        if (idSet.size() > MAX_DOWNLOAD_BATCH_SIZE) {
+            throw new BadRequestException("Cannot request more than " + MAX_DOWNLOAD_BATCH_SIZE + " records at once");
+        }
+
+        Map<String, HealthDataRecordEx3> recordsById = Maps.uniqueIndex(
+                healthDataEx3Dao.getRecords(new ArrayList<>(idSet)), HealthDataRecordEx3::getId);
+        List<HealthDataRecordEx3> recordList = new ArrayList<>(recordsById.size());
+        for (String id : idSet) {
+            HealthDataRecordEx3 record = recordsById.get(id);
+            if (record != null && appId.equals(record.getAppId()) && healthCode.equals(record.getHealthCode())) {
+                record.setDownloadUrl(generatePresignedUrl(record, GET).toExternalForm());
+                recordList.add(record);
+            }
+        }
+        return recordList;
+    }
+
     /**
      * Returns the url path of the given record.
      * @param record the record
@@ -102,8 +152,13 @@ public class HealthDataEx3Service {
         long expiration = DateTime.now().plusMinutes(EXPIRATION_IN_MINUTES).getMillis();
         record.setDownloadExpiration(expiration);
 
-        String S3Key = UploadUtil.getRawS3KeyForUpload(record.getAppId(),
-                this.uploadService.getUpload(record.getId()), record);
+        // Records created before the raw S3 key was stored on the record need the upload to compute the key. Signing
+        // the URL itself is done locally, without calling S3.
+        String S3Key = record.getRawS3Key();
+        if (S3Key == null) {
+            S3Key = UploadUtil.getRawS3KeyForUpload(record.getAppId(), this.uploadService.getUpload(record.getId()),
+                    record);
+        }
 
         GeneratePresignedUrlRequest request = new GeneratePresignedUrlRequest(S3bucketName , S3Key, method);
         request.setExpiration(new Date(record.getDownloadExpiration()));
@@ -2,17 +2,28 @@ package org.sagebionetworks.bridge.services;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import static org.sagebionetworks.bridge.models.CriteriaUtils.filterByCriteria;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import javax.annotation.Resource;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -36,6 +47,7 @@ import com.amazonaws.services.sns.AmazonSNS;
 import com.amazonaws.services.sns.model.NotFoundException;
 import com.amazonaws.services.sns.model.PublishRequest;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 @Component
@@ -43,6 +55,10 @@ public class NotificationTopicService {
 
     private static final Logger LOG = LoggerFactory.getLogger(NotificationTopicService.class);
     
+    private static final int TOPIC_CACHE_MAX_SIZE = 1000;
+    
+    private static final long TOPIC_CACHE_EXPIRE_SECONDS = 60;
+    
     private NotificationRegistrationDao registrationDao;
     
     private NotificationTopicDao topicDao;
@@ -51,6 +67,15 @@ public class NotificationTopicService {
     
     private AmazonSNS snsClient;
     
+    private ExecutorService snsExecutorService;
+    
+    // Each app's topics, keyed by app ID and whether deleted topics are included. Subscription management reads the
+    // topic list on every data group and language update, so it is cached. Only this server's changes invalidate
+    // entries, so they expire quickly to bound how long a change made on another server can go unnoticed.
+    private final Cache<String, List<NotificationTopic>> topicCache = CacheBuilder.newBuilder()
+            .maximumSize(TOPIC_CACHE_MAX_SIZE)
+            .expireAfterWrite(TOPIC_CACHE_EXPIRE_SECONDS, SECONDS).build();
+    
     @Autowired
     final void setNotificationRegistrationDao(NotificationRegistrationDao registrationDao) {
         this.registrationDao = registrationDao;
@@ -71,6 +96,12 @@ public class NotificationTopicService {
         this.snsClient = snsClient;
     }
     
+    /** Threads shared by all SNS fan-out, which bound how many SNS calls the server makes at once. */
+    @Resource(name = "snsExecutorService")
+    final void setSnsExecutorService(ExecutorService snsExecutorService) {
+        this.snsExecutorService = snsExecutorService;
+    }
+    
     public List<NotificationTopic> listTopics(String appId, boolean includeDeleted) {
         checkNotNull(appId);
         
@@ -89,7 +120,9 @@ public class NotificationTopicService {
         
         Validate.entityThrowingException(NotificationTopicValidator.INSTANCE, topic);
         
-        return topicDao.createTopic(topic);
+        NotificationTopic createdTopic = topicDao.createTopic(topic);
+        invalidateCachedTopics(topic.getAppId());
+        return createdTopic;
     }
     
     public NotificationTopic updateTopic(NotificationTopic topic) {
@@ -97,7 +130,9 @@ public class NotificationTopicService {
         
         Validate.entityThrowingException(NotificationTopicValidator.INSTANCE, topic);
         
-        return topicDao.updateTopic(topic);
+        NotificationTopic updatedTopic = topicDao.updateTopic(topic);
+        invalidateCachedTopics(topic.getAppId());
+        return updatedTopic;
     }
     
     public void deleteTopic(String appId, String guid) {
@@ -105,6 +140,7 @@ public class NotificationTopicService {
         checkNotNull(guid);
         
         topicDao.deleteTopic(appId, guid);
+        invalidateCachedTopics(appId);
     }
     
     public void deleteTopicPermanently(String appId, String guid) {
@@ -112,6 +148,7 @@ public class NotificationTopicService {
         checkNotNull(guid);
         
         topicDao.deleteTopicPermanently(appId, guid);
+        invalidateCachedTopics(appId);
     }
     
     /**
@@ -121,6 +158,7 @@ public class NotificationTopicService {
         checkNotNull(appId);
         
         topicDao.deleteAllTopics(appId);
+        invalidateCachedTopics(appId);
     }
     
     public void sendNotification(String appId, String guid, NotificationMessage message) {
@@ -149,7 +187,7 @@ public class NotificationTopicService {
         Set<String> subscribedTopicGuids = subscriptionDao.listSubscriptions(registration)
                 .stream().map(TopicSubscription::getTopicGuid).collect(Collectors.toSet());
         
-        List<NotificationTopic> topics = topicDao.listTopics(appId, false);
+        List<NotificationTopic> topics = getCachedTopics(appId, false);
         List<SubscriptionStatus> statuses = Lists.newArrayListWithCapacity(topics.size());
         for (NotificationTopic topic : topics) {
             boolean isCurrentlySubscribed = subscribedTopicGuids.contains(topic.getGuid());
@@ -172,7 +210,7 @@ public class NotificationTopicService {
 
         // Check app for topics. Only consider topics with criteria. Include logically deleted topics 
         // so that if they are undeleted, the user's subscription state is correct
-        List<NotificationTopic> allTopicList = topicDao.listTopics(appId, true);
+        List<NotificationTopic> allTopicList = getCachedTopics(appId, true);
         List<NotificationTopic> criteriaTopicList = allTopicList.stream()
                 .filter(topic -> topic.getCriteria() != null).collect(Collectors.toList());
         if (criteriaTopicList.isEmpty()) {
@@ -191,9 +229,20 @@ public class NotificationTopicService {
         Set<String> desiredTopicGuidSet = filterByCriteria(context, criteriaTopicList, null).stream()
                 .map(NotificationTopic::getGuid).collect(Collectors.toSet());
 
-        // Subscribe user to topics.
+        // Subscribe user to topics. If the user is subscribed to a topic that isn't in the cached list, the topic was
+        // created on another server, and the list is read again before the subscriptions are compared with it.
         for (NotificationRegistration oneRegistration : registrationList) {
-            setSubscriptionsForRegistration(oneRegistration, criteriaTopicList, desiredTopicGuidSet);
+            List<? extends TopicSubscription> subscriptions = subscriptionDao.listSubscriptions(oneRegistration);
+            List<NotificationTopic> reloadedTopicList = getCachedTopics(appId, true, subscriptions.stream()
+                    .map(TopicSubscription::getTopicGuid).collect(Collectors.toSet()));
+            if (reloadedTopicList != allTopicList) {
+                allTopicList = reloadedTopicList;
+                criteriaTopicList = allTopicList.stream().filter(topic -> topic.getCriteria() != null)
+                        .collect(Collectors.toList());
+                desiredTopicGuidSet = filterByCriteria(context, criteriaTopicList, null).stream()
+                        .map(NotificationTopic::getGuid).collect(Collectors.toSet());
+            }
+            setSubscriptionsForRegistration(oneRegistration, subscriptions, criteriaTopicList, desiredTopicGuidSet);
         }
     }
 
@@ -214,17 +263,24 @@ public class NotificationTopicService {
             return;
         }
 
-        // Unsubscribe from each subscription.
-        for (TopicSubscription oneSubscription : subscriptionList) {
+        // Unsubscribe from all subscriptions at once. Topics are looked up in the app's topic list, and only read
+        // individually if the topic was created after the list was cached.
+        Map<String, NotificationTopic> topicsByGuid = Maps.uniqueIndex(getCachedTopics(appId, true),
+                NotificationTopic::getGuid);
+        fanOut(subscriptionList.stream().map(oneSubscription -> (Supplier<Void>) () -> {
             String topicGuid = oneSubscription.getTopicGuid();
             try {
-                NotificationTopic topic = topicDao.getTopic(appId, topicGuid);
+                NotificationTopic topic = topicsByGuid.get(topicGuid);
+                if (topic == null) {
+                    topic = topicDao.getTopic(appId, topicGuid);
+                }
                 subscriptionDao.unsubscribe(registration, topic);
             } catch (RuntimeException ex) {
                 LOG.error("Error unsubscribing registration " + registrationGuid + " from topic " + topicGuid + ": " +
                         ex.getMessage(), ex);
             }
-        }
+            return null;
+        }).collect(toList()));
     }
 
     /**
@@ -240,8 +296,9 @@ public class NotificationTopicService {
         checkNotNull(registrationGuid);
         checkNotNull(desiredTopicGuidSet);
 
-        // This API can only subscribe/unsubscribe from topics that aren't managed by criteria.
-        List<NotificationTopic> allTopicList = topicDao.listTopics(appId, false);
+        // This API can only subscribe/unsubscribe from topics that aren't managed by criteria. If a requested topic
+        // isn't in the cached list, it may have been created on another server, so the list is read again.
+        List<NotificationTopic> allTopicList = getCachedTopics(appId, false, desiredTopicGuidSet);
         List<NotificationTopic> manualSubscriptionTopicList = allTopicList.stream()
                 .filter(topic -> topic.getCriteria() == null).collect(Collectors.toList());
         if (manualSubscriptionTopicList.isEmpty()) {
@@ -251,37 +308,50 @@ public class NotificationTopicService {
 
         // Set subscriptions.
         NotificationRegistration registration = registrationDao.getRegistration(healthCode, registrationGuid);
-        return setSubscriptionsForRegistration(registration, manualSubscriptionTopicList, desiredTopicGuidSet);
+        return setSubscriptionsForRegistration(registration, subscriptionDao.listSubscriptions(registration),
+                manualSubscriptionTopicList, desiredTopicGuidSet);
     }
 
-    // Helper method that, given a registration and a set of desired topic GUIDs, sets the user's subscriptions to
-    // match that set. All topics in the set will be subscribed, and all topics not in that set will be unsubscribed.
-    // The list of eligible topics is passed in. This allows us to have separate "namespaces" for criteria managed
-    // topics and manually managed topics.
-    @SuppressWarnings("ConstantConditions")
+    // Helper method that, given a registration, its recorded subscriptions and a set of desired topic GUIDs, sets the
+    // user's subscriptions to match that set. All topics in the set will be subscribed, and all topics not in that set
+    // will be unsubscribed. The list of eligible topics is passed in. This allows us to have separate "namespaces" for
+    // criteria managed topics and manually managed topics. If our records already match the desired set, SNS isn't
+    // called at all. Otherwise the records are checked against SNS, and the changed subscriptions are made at once.
     private List<SubscriptionStatus> setSubscriptionsForRegistration(NotificationRegistration registration,
-            List<NotificationTopic> eligibleTopicList, Set<String> desiredTopicGuidSet) {
-        // Get set of currently subscribed. While we're at it, do some sanity checking on subscriptions.
-        Set<String> subscribedTopicGuidSet = cleanupSubscriptions(registration);
+            List<? extends TopicSubscription> subscriptions, List<NotificationTopic> eligibleTopicList,
+            Set<String> desiredTopicGuidSet) {
+        Set<String> recordedTopicGuidSet = subscriptions.stream().map(TopicSubscription::getTopicGuid)
+                .collect(Collectors.toSet());
 
-        // Set the subscription status of each topic accordingly.
-        List<SubscriptionStatus> statuses = new ArrayList<>(eligibleTopicList.size());
+        // If there are changes to make, take the opportunity to do some sanity checking on subscriptions.
+        boolean isUnchanged = eligibleTopicList.stream().allMatch(oneTopic ->
+                desiredTopicGuidSet.contains(oneTopic.getGuid()) == recordedTopicGuidSet.contains(oneTopic.getGuid()));
+        Set<String> subscribedTopicGuidSet = isUnchanged ? recordedTopicGuidSet : cleanupSubscriptions(subscriptions);
+
+        // Set the subscription status of each topic accordingly. Topics whose status changes are set at once.
+        List<Boolean> subscribedList = new ArrayList<>(eligibleTopicList.size());
+        List<Integer> changedIndexList = new ArrayList<>();
+        List<Supplier<Boolean>> changeList = new ArrayList<>();
         for (NotificationTopic oneTopic : eligibleTopicList) {
             boolean wantsSubscription = desiredTopicGuidSet.contains(oneTopic.getGuid());
             boolean isCurrentlySubscribed = subscribedTopicGuidSet.contains(oneTopic.getGuid());
 
-            Boolean isSubscribed = null;
-            if (wantsSubscription && isCurrentlySubscribed) {
-                isSubscribed = Boolean.TRUE;
-            } else if (!wantsSubscription && !isCurrentlySubscribed) {
-                isSubscribed = Boolean.FALSE;
-            } else if (wantsSubscription && !isCurrentlySubscribed) {
-                isSubscribed = doSubscribe(registration, oneTopic);
-            } else /* logically, this is: if (!wantsSubscription && isCurrentlySubscribed) */ {
-                isSubscribed = doUnsubscribe(registration, oneTopic);
+            if (wantsSubscription != isCurrentlySubscribed) {
+                changedIndexList.add(subscribedList.size());
+                changeList.add(wantsSubscription ? () -> doSubscribe(registration, oneTopic)
+                        : () -> doUnsubscribe(registration, oneTopic));
             }
-            SubscriptionStatus status = new SubscriptionStatus(oneTopic.getGuid(), oneTopic.getName(), isSubscribed);
-            statuses.add(status);
+            subscribedList.add(isCurrentlySubscribed);
+        }
+        List<Boolean> changedList = fanOut(changeList);
+        for (int i = 0; i < changedList.size(); i++) {
+            subscribedList.set(changedIndexList.get(i), changedList.get(i));
+        }
+
+        List<SubscriptionStatus> statuses = new ArrayList<>(eligibleTopicList.size());
+        for (int i = 0; i < eligibleTopicList.size(); i++) {
+            NotificationTopic oneTopic = eligibleTopicList.get(i);
+            statuses.add(new SubscriptionStatus(oneTopic.getGuid(), oneTopic.getName(), subscribedList.get(i)));
         }
         return statuses;
     }
@@ -313,23 +383,73 @@ public class NotificationTopicService {
      * delete any DDB records that don't have a corresponding SNS record... these are unsuccessful unsubscribes 
      * and we're trying here again to finish them.
      */
-    private Set<String> cleanupSubscriptions(NotificationRegistration registration) {
-        Set<String> subscribedTopicGuids = Sets.newHashSet();
-        
-        List<? extends TopicSubscription> subscriptions = subscriptionDao.listSubscriptions(registration);
-        for (TopicSubscription subscription : subscriptions) {
+    private Set<String> cleanupSubscriptions(List<? extends TopicSubscription> subscriptions) {
+        List<String> subscribedTopicGuids = fanOut(subscriptions.stream().map(subscription -> (Supplier<String>) () -> {
             try {
                 snsClient.getSubscriptionAttributes(subscription.getSubscriptionARN());
-                subscribedTopicGuids.add(subscription.getTopicGuid());    
+                return subscription.getTopicGuid();
             } catch(NotFoundException e) {
                 LOG.warn("SNS topic " + subscription.getTopicGuid() + " not found, deleting DDB record", e);
                 subscriptionDao.removeOrphanedSubscription(subscription);
+                return null;
             } catch(AmazonServiceException e) {
                 LOG.warn("Error cleaning up subscriptions", e);
                 // However, it is there, so include it in the list of subscriptions.
-                subscribedTopicGuids.add(subscription.getTopicGuid());
+                return subscription.getTopicGuid();
+            }
+        }).collect(toList()));
+        
+        Set<String> subscribedTopicGuidSet = Sets.newHashSet(subscribedTopicGuids);
+        subscribedTopicGuidSet.remove(null);
+        return subscribedTopicGuidSet;
+    }
+    
+    /**
+     * Runs the tasks on the SNS threads and returns their results in the same order. Tasks must not fan out 
+     * themselves, as they would then wait on the threads they are occupying.
+     */
+    private <T> List<T> fanOut(List<Supplier<T>> tasks) {
+        List<CompletableFuture<T>> futures = tasks.stream()
+                .map(task -> CompletableFuture.supplyAsync(task, snsExecutorService)).collect(toList());
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException ex) {
+                throw (ex.getCause() instanceof RuntimeException) ? (RuntimeException) ex.getCause() : ex;
             }
         }
-        return subscribedTopicGuids;
+        return results;
+    }
+    
+    private List<NotificationTopic> getCachedTopics(String appId, boolean includeDeleted) {
+        try {
+            return topicCache.get(getTopicCacheKey(appId, includeDeleted),
+                    () -> ImmutableList.copyOf(topicDao.listTopics(appId, includeDeleted)));
+        } catch (ExecutionException | UncheckedExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw (cause instanceof RuntimeException) ? (RuntimeException) cause : new RuntimeException(cause);
+        }
+    }
+    
+    // Returns the cached topic list, unless one of the given topics is missing from it. The topic may have been created
+    // on another server after the list was cached, so the list is read again.
+    private List<NotificationTopic> getCachedTopics(String appId, boolean includeDeleted, Set<String> topicGuids) {
+        List<NotificationTopic> topics = getCachedTopics(appId, includeDeleted);
+        Set<String> cachedTopicGuids = topics.stream().map(NotificationTopic::getGuid).collect(Collectors.toSet());
+        if (cachedTopicGuids.containsAll(topicGuids)) {
+            return topics;
+        }
+        topicCache.invalidate(getTopicCacheKey(appId, includeDeleted));
+        return getCachedTopics(appId, includeDeleted);
+    }
+    
+    private void invalidateCachedTopics(String appId) {
+        topicCache.invalidate(getTopicCacheKey(appId, true));
+        topicCache.invalidate(getTopicCacheKey(appId, false));
+    }
+    
+    private static String getTopicCacheKey(String appId, boolean includeDeleted) {
+        return appId + ":" + includeDeleted;
     }
 }
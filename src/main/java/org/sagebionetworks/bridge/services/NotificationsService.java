@@ -2,10 +2,14 @@ package org.sagebionetworks.bridge.services;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.lang.Boolean.TRUE;
+import static java.util.stream.Collectors.toList;
 import static org.sagebionetworks.bridge.BridgeUtils.SEMICOLON_SPACE_JOINER;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Resource;
 
@@ -48,6 +52,7 @@ public class NotificationsService {
     private NotificationRegistrationDao notificationRegistrationDao;
     private NotificationTopicService notificationTopicService;
     private AmazonSNS snsClient;
+    private ExecutorService snsExecutorService;
 
     /** Participant service, if we need to get the participant. */
     @Autowired
@@ -79,6 +84,12 @@ public class NotificationsService {
         this.snsClient = snsClient;
     }
 
+    /** Threads shared by all SNS fan-out, which bound how many SNS calls the server makes at once. */
+    @Resource(name = "snsExecutorService")
+    final void setSnsExecutorService(ExecutorService snsExecutorService) {
+        this.snsExecutorService = snsExecutorService;
+    }
+
     /**
      * Return all the registrations for this user. There may be more than one, if a user installs 
      * the application on different devices. It is possible there may be multiple registrations on 
@@ -218,20 +229,21 @@ public class NotificationsService {
             throw new BadRequestException("Participant has not registered to receive push notifications.");
         }
         
+        // Publish to all of the participant's devices at once. Each publish returns the registration GUID if it fails.
+        List<CompletableFuture<String>> futures = registrations.stream()
+                .map(registration -> CompletableFuture.supplyAsync(
+                        () -> publishToRegistration(appId, registration, message), snsExecutorService))
+                .collect(toList());
         Set<String> erroredRegistrations = Sets.newHashSet();
-        for (NotificationRegistration registration : registrations) {
-            String endpointARN = registration.getEndpoint();
-            
-            PublishRequest request = new PublishRequest().withTargetArn(endpointARN)
-                    .withSubject(message.getSubject()).withMessage(message.getMessage());
-
+        for (CompletableFuture<String> future : futures) {
+            String erroredRegistration;
             try {
-                PublishResult result = snsClient.publish(request);
-                LOG.debug("Sent message to participant registration=" + registration.getGuid() + ", appId=" +
-                        appId + ", message ID=" + result.getMessageId());
-            } catch(AmazonServiceException e) {
-                LOG.warn("Error publishing SNS message to participant", e);
-                erroredRegistrations.add(registration.getGuid());
+                erroredRegistration = future.join();
+            } catch (CompletionException ex) {
+                throw (ex.getCause() instanceof RuntimeException) ? (RuntimeException) ex.getCause() : ex;
+            }
+            if (erroredRegistration != null) {
+                erroredRegistrations.add(erroredRegistration);
             }
         }
         // If none of the registrations succeeds, then throw an error.
@@ -242,6 +254,22 @@ public class NotificationsService {
         return erroredRegistrations;
     }
 
+    // Returns null if the message was published, or the registration GUID if SNS rejected it.
+    private String publishToRegistration(String appId, NotificationRegistration registration,
+            NotificationMessage message) {
+        PublishRequest request = new PublishRequest().withTargetArn(registration.getEndpoint())
+                .withSubject(message.getSubject()).withMessage(message.getMessage());
+        try {
+            PublishResult result = snsClient.publish(request);
+            LOG.debug("Sent message to participant registration=" + registration.getGuid() + ", appId=" +
+                    appId + ", message ID=" + result.getMessageId());
+            return null;
+        } catch(AmazonServiceException e) {
+            LOG.warn("Error publishing SNS message to participant", e);
+            return registration.getGuid();
+        }
+    }
+
     private String getPlatformARN(App app, NotificationRegistration registration) {
         String platformARN = app.getPushNotificationARNs().get(registration.getOsName());
         if (StringUtils.isBlank(platformARN)) {
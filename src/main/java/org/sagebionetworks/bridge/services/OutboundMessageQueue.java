@@ -0,0 +1,534 @@
+package org.sagebionetworks.bridge.services;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.sagebionetworks.bridge.BridgeUtils.generateGuid;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.joda.time.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.RequestContext;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.dao.OutboundMessageDao;
+import org.sagebionetworks.bridge.dao.RateLimitDao;
+import org.sagebionetworks.bridge.models.OutboundChannelStatus;
+import org.sagebionetworks.bridge.models.OutboundMessage;
+import org.sagebionetworks.bridge.models.OutboundMessage.Channel;
+import org.sagebionetworks.bridge.models.OutboundMessage.Status;
+
+/**
+ * Sends outbound email (SES) and SMS (SNS) messages in the background, so that API calls such as sign-in and
+ * verification do not wait for AWS. A submitted message is written to the outbox table in MySQL, with everything
+ * needed to build its AWS request, and each server polls the outbox, claims due messages up to the number of free
+ * threads in its pool for the channel, and sends them. A message survives a restart or the loss of the server that
+ * accepted it: its claim runs out, and another server sends it.
+ *
+ * Delivery is at least once. A message is removed from the outbox after it has been sent, so a server that dies (or
+ * cannot reach MySQL) between the send and the removal leaves the message to be sent again.
+ *
+ * Each channel is rate limited to stay under its AWS sending quota. The limit is counted in Redis, so it applies to
+ * the whole cluster rather than to each server. A send that fails with a throttling or server error is retried with a
+ * growing delay, on whichever server claims it next; a send that fails any other way, or runs out of attempts, is
+ * dead-lettered: logged, counted, kept in the channel's list of recent dead letters, and left in the outbox with the
+ * DEAD status and its last error, for investigation.
+ *
+ * Messages hold their content and recipient, so nothing stays in the outbox for long: a message still there after the
+ * retention period (a dead letter, or a message that could never be sent) is purged, and the messages addressed to an
+ * account are removed when the account is deleted.
+ *
+ * A thread count of zero disables a channel's pool. When a channel is disabled, or the message cannot be written to
+ * the outbox, the caller sends the message itself, once. An instance that has not been configured sends every message
+ * on the caller's thread, once, without a rate limit.
+ */
+@Component
+public class OutboundMessageQueue {
+    private static final Logger LOG = LoggerFactory.getLogger(OutboundMessageQueue.class);
+
+    static final String CONFIG_KEY_THREAD_COUNT = "outbox.%s.thread.count";
+    static final String CONFIG_KEY_MAX_ATTEMPTS = "outbox.%s.max.attempts";
+    static final String CONFIG_KEY_RETRY_DELAY_MILLIS = "outbox.%s.retry.delay.millis";
+    static final String CONFIG_KEY_SENDS_PER_SECOND = "outbox.%s.sends.per.second";
+    static final String CONFIG_KEY_POLL_MILLIS = "outbox.poll.millis";
+    static final String CONFIG_KEY_CLAIM_SECONDS = "outbox.claim.seconds";
+    static final String CONFIG_KEY_RETENTION_DAYS = "outbox.retention.days";
+    static final long PURGE_INTERVAL_HOURS = 1L;
+    static final int MAX_RECENT_DEAD_LETTERS = 20;
+    static final int MAX_ERROR_LENGTH = 1000;
+    static final long SHUTDOWN_WAIT_SECONDS = 30L;
+
+    // AWS error codes for throttled requests, which are worth retrying even though they are client (4xx) errors.
+    private static final Set<String> THROTTLING_ERROR_CODES = ImmutableSet.of("Throttling", "ThrottlingException",
+            "Throttled", "ThrottledException");
+
+    // The settings and counters of one channel. The counters are for this server.
+    private static final class ChannelQueue {
+        private final Channel channel;
+        private final int threadCount;
+        private final int maxAttempts;
+        private final long retryDelayMillis;
+        private final int sendsPerSecond;
+        private final AtomicInteger activeCount = new AtomicInteger();
+        private final AtomicLong submittedCount = new AtomicLong();
+        private final AtomicLong synchronousCount = new AtomicLong();
+        private final AtomicLong sentCount = new AtomicLong();
+        private final AtomicLong retriedCount = new AtomicLong();
+        private final AtomicLong deadLetteredCount = new AtomicLong();
+        private final AtomicLong totalSendMillis = new AtomicLong();
+        private final AtomicLong totalLatencyMillis = new AtomicLong();
+        private final LongAccumulator longestLatencyMillis = new LongAccumulator(Long::max, 0L);
+        private final Deque<String> recentDeadLetters = new ArrayDeque<>();
+        private OutboundMessageSender sender;
+        private ThreadPoolExecutor executor;
+
+        private ChannelQueue(Channel channel, int threadCount, int maxAttempts, long retryDelayMillis,
+                int sendsPerSecond) {
+            this.channel = channel;
+            this.threadCount = threadCount;
+            this.maxAttempts = Math.max(1, maxAttempts);
+            this.retryDelayMillis = retryDelayMillis;
+            this.sendsPerSecond = sendsPerSecond;
+        }
+    }
+
+    private final Map<Channel, ChannelQueue> channelQueues = new EnumMap<>(Channel.class);
+    private OutboundMessageDao outboundMessageDao;
+    private RateLimitDao rateLimitDao;
+    private long pollMillis;
+    private long claimMillis;
+    private long retentionMillis;
+    private ScheduledExecutorService poller;
+
+    public OutboundMessageQueue() {
+        for (Channel channel : Channel.values()) {
+            channelQueues.put(channel, new ChannelQueue(channel, 0, 1, 0L, 0));
+        }
+    }
+
+    @Autowired
+    final void setConfig(BridgeConfig config) {
+        for (Channel channel : Channel.values()) {
+            String name = channel.name().toLowerCase();
+            ChannelQueue queue = new ChannelQueue(channel,
+                    config.getPropertyAsInt(String.format(CONFIG_KEY_THREAD_COUNT, name)),
+                    config.getPropertyAsInt(String.format(CONFIG_KEY_MAX_ATTEMPTS, name)),
+                    config.getPropertyAsInt(String.format(CONFIG_KEY_RETRY_DELAY_MILLIS, name)),
+                    config.getPropertyAsInt(String.format(CONFIG_KEY_SENDS_PER_SECOND, name)));
+            queue.sender = channelQueues.get(channel).sender;
+            channelQueues.put(channel, queue);
+        }
+        pollMillis = config.getPropertyAsInt(CONFIG_KEY_POLL_MILLIS);
+        claimMillis = config.getPropertyAsInt(CONFIG_KEY_CLAIM_SECONDS) * 1000L;
+        retentionMillis = config.getPropertyAsInt(CONFIG_KEY_RETENTION_DAYS) * 24L * 60L * 60L * 1000L;
+    }
+
+    /** The outbox, shared by all servers. */
+    @Autowired
+    final void setOutboundMessageDao(OutboundMessageDao outboundMessageDao) {
+        this.outboundMessageDao = outboundMessageDao;
+    }
+
+    /** Cluster-wide rate limit for each channel. */
+    @Autowired
+    final void setRateLimitDao(RateLimitDao rateLimitDao) {
+        this.rateLimitDao = rateLimitDao;
+    }
+
+    /** Sets the sender for the channel. The email and SMS services register themselves. */
+    public void setSender(Channel channel, OutboundMessageSender sender) {
+        checkNotNull(channel);
+        checkNotNull(sender);
+        channelQueues.get(channel).sender = sender;
+    }
+
+    @PostConstruct
+    public void start() {
+        for (ChannelQueue queue : channelQueues.values()) {
+            if (queue.threadCount > 0) {
+                // Messages are claimed only up to the number of free threads, so the work queue stays short.
+                String nameFormat = "outbox-" + queue.channel.name().toLowerCase() + "-%d";
+                queue.executor = new ThreadPoolExecutor(queue.threadCount, queue.threadCount, 0L, MILLISECONDS,
+                        new LinkedBlockingQueue<>(), new ThreadFactoryBuilder().setNameFormat(nameFormat)
+                                .setDaemon(true).build());
+            }
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("outbox-poller-%d").setDaemon(true).build());
+        if (pollMillis > 0) {
+            poller.scheduleWithFixedDelay(this::pollQuietly, pollMillis, pollMillis, MILLISECONDS);
+        }
+        if (retentionMillis > 0) {
+            poller.scheduleWithFixedDelay(this::purgeQuietly, PURGE_INTERVAL_HOURS, PURGE_INTERVAL_HOURS, HOURS);
+        }
+    }
+
+    /**
+     * Stops claiming messages, and waits for the messages being sent to finish. Messages still in the outbox are sent
+     * by the other servers, or by this one after it restarts.
+     */
+    @PreDestroy
+    public void stop() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+        for (ChannelQueue queue : channelQueues.values()) {
+            if (queue.executor != null) {
+                queue.executor.shutdown();
+            }
+        }
+        for (ChannelQueue queue : channelQueues.values()) {
+            if (queue.executor != null) {
+                try {
+                    if (!queue.executor.awaitTermination(SHUTDOWN_WAIT_SECONDS, SECONDS)) {
+                        LOG.warn(queue.activeCount.get() + " " + queue.channel + " messages were still being " +
+                                "sent at shutdown, and will be sent again when their claim runs out");
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a message to the outbox. The queue fills in the message's ID, status, schedule and request ID; the caller
+     * sets the channel, app ID, description and payload, which the channel's sender must be able to send from. The
+     * description identifies the message in the logs, so it should not include the recipient's address.
+     */
+    public void submit(OutboundMessage message) {
+        checkNotNull(message);
+        checkNotNull(message.getChannel());
+        checkNotNull(message.getDescription());
+        checkNotNull(message.getPayload());
+
+        ChannelQueue queue = channelQueues.get(message.getChannel());
+        checkNotNull(queue.sender, "No sender for channel " + message.getChannel());
+        queue.submittedCount.incrementAndGet();
+
+        long now = DateTimeUtils.currentTimeMillis();
+        message.setId(generateGuid());
+        message.setStatus(Status.PENDING);
+        message.setAttempts(0);
+        message.setCreatedOn(now);
+        message.setNextAttemptOn(now);
+        message.setRequestId(RequestContext.get().getId());
+
+        if (queue.executor == null) {
+            sendNow(queue, message);
+            return;
+        }
+        try {
+            outboundMessageDao.createMessage(message);
+        } catch (RuntimeException ex) {
+            LOG.error("Error adding " + message.getDescription() + " to the outbox, sending it now", ex);
+            sendNow(queue, message);
+            return;
+        }
+        wakePoller();
+    }
+
+    /**
+     * Removes the app's messages addressed to any of the given email addresses or phone numbers from the outbox,
+     * whether they are waiting, being sent, or dead-lettered. Called when an account is deleted.
+     */
+    public void discardMessages(String appId, Set<String> recipients) {
+        checkNotNull(appId);
+        checkNotNull(recipients);
+        outboundMessageDao.deleteMessagesForRecipients(appId, recipients);
+    }
+
+    /** Returns a snapshot of each channel's settings, outbox counts (for all servers) and counters (this server). */
+    public List<OutboundChannelStatus> getStatus() {
+        List<OutboundChannelStatus> statusList = new ArrayList<>();
+        for (ChannelQueue queue : channelQueues.values()) {
+            OutboundChannelStatus status = new OutboundChannelStatus();
+            status.setChannel(queue.channel.name());
+            status.setThreadCount(queue.threadCount);
+            status.setMaxAttempts(queue.maxAttempts);
+            status.setSendsPerSecond(queue.sendsPerSecond);
+            if (queue.executor != null) {
+                try {
+                    status.setPendingCount(outboundMessageDao.countMessages(queue.channel, Status.PENDING));
+                    status.setDeadCount(outboundMessageDao.countMessages(queue.channel, Status.DEAD));
+                } catch (RuntimeException ex) {
+                    LOG.error("Error counting " + queue.channel + " messages in the outbox", ex);
+                }
+            }
+            status.setActiveCount(queue.activeCount.get());
+            status.setSubmittedCount(queue.submittedCount.get());
+            status.setSynchronousCount(queue.synchronousCount.get());
+            status.setSentCount(queue.sentCount.get());
+            status.setRetriedCount(queue.retriedCount.get());
+            status.setDeadLetteredCount(queue.deadLetteredCount.get());
+            long sent = queue.sentCount.get();
+            if (sent > 0) {
+                status.setAverageSendMillis((double) queue.totalSendMillis.get() / sent);
+                status.setAverageLatencyMillis((double) queue.totalLatencyMillis.get() / sent);
+            }
+            status.setLongestLatencyMillis(queue.longestLatencyMillis.get());
+            synchronized (queue.recentDeadLetters) {
+                status.setRecentDeadLetters(ImmutableList.copyOf(queue.recentDeadLetters));
+            }
+            statusList.add(status);
+        }
+        return statusList;
+    }
+
+    /**
+     * Claims due messages for each channel, up to the number of free threads, and hands them to the channel's pool.
+     * Runs on the poller thread, on a schedule and whenever a message is submitted or a send finishes. Package-scoped
+     * for unit tests.
+     */
+    synchronized void poll() {
+        for (ChannelQueue queue : channelQueues.values()) {
+            if (queue.executor == null || queue.sender == null || queue.executor.isShutdown()) {
+                continue;
+            }
+            int freeThreads = queue.threadCount - queue.activeCount.get();
+            if (freeThreads <= 0) {
+                continue;
+            }
+            long now = DateTimeUtils.currentTimeMillis();
+            List<OutboundMessage> messages = outboundMessageDao.claimMessages(queue.channel, now, now + claimMillis,
+                    freeThreads);
+            for (OutboundMessage message : messages) {
+                queue.activeCount.incrementAndGet();
+                try {
+                    queue.executor.execute(() -> deliver(queue, message));
+                } catch (RejectedExecutionException ex) {
+                    // Shutting down. The claim runs out, and the message is sent later.
+                    queue.activeCount.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (RuntimeException ex) {
+            LOG.error("Error claiming messages from the outbox", ex);
+        }
+    }
+
+    /**
+     * Removes the messages that were submitted longer ago than the retention period. Runs on the poller thread every
+     * hour. Every server purges, which is harmless, as the purge is a single delete. Package-scoped for unit tests.
+     */
+    void purge() {
+        long createdBefore = DateTimeUtils.currentTimeMillis() - retentionMillis;
+        int purged = outboundMessageDao.deleteMessagesCreatedBefore(createdBefore);
+        if (purged > 0) {
+            LOG.info("Purged " + purged + " messages older than the retention period from the outbox");
+        }
+    }
+
+    private void purgeQuietly() {
+        try {
+            purge();
+        } catch (RuntimeException ex) {
+            LOG.error("Error purging old messages from the outbox", ex);
+        }
+    }
+
+    private void wakePoller() {
+        if (poller != null) {
+            try {
+                poller.execute(this::pollQuietly);
+            } catch (RejectedExecutionException ex) {
+                // Shutting down. The message stays in the outbox.
+            }
+        }
+    }
+
+    // Sends a claimed message from the outbox, on the channel's pool.
+    private void deliver(ChannelQueue queue, OutboundMessage message) {
+        RequestContext previousContext = RequestContext.get();
+        RequestContext.set(new RequestContext.Builder().withRequestId(message.getRequestId()).build());
+        try {
+            try {
+                if (!acquirePermit(queue)) {
+                    // Interrupted while waiting for a permit. The claim runs out, and the message is sent later.
+                    return;
+                }
+            } catch (RuntimeException ex) {
+                // The rate limit could not be checked. Try again later, without counting an attempt.
+                LOG.warn("Error checking the rate limit for " + message.getDescription() + ", rescheduling", ex);
+                reschedule(queue, message, message.getAttempts());
+                return;
+            }
+
+            int attempt = message.getAttempts() + 1;
+            String messageId;
+            try {
+                Stopwatch stopwatch = Stopwatch.createStarted();
+                messageId = queue.sender.send(message);
+                queue.totalSendMillis.addAndGet(stopwatch.elapsed(MILLISECONDS));
+            } catch (RuntimeException ex) {
+                message.setLastError(truncate(ex.toString()));
+                if (isRetryable(ex) && attempt < queue.maxAttempts) {
+                    queue.retriedCount.incrementAndGet();
+                    LOG.warn("Error sending " + message.getDescription() + " on attempt " + attempt +
+                            ", retrying", ex);
+                    reschedule(queue, message, attempt);
+                } else {
+                    deadLetter(queue, message, attempt, ex);
+                    message.setAttempts(attempt);
+                    message.setStatus(Status.DEAD);
+                    release(message);
+                }
+                return;
+            }
+
+            try {
+                outboundMessageDao.deleteMessage(message.getId());
+            } catch (RuntimeException ex) {
+                LOG.error("Error removing sent " + message.getDescription() + " from the outbox, it will be " +
+                        "sent again", ex);
+            }
+            recordSent(queue, DateTimeUtils.currentTimeMillis() - message.getCreatedOn());
+            afterSend(queue, message, messageId);
+        } catch (RuntimeException ex) {
+            // MySQL could not be updated. The claim runs out, and the message is tried again.
+            LOG.error("Error updating " + message.getDescription() + " in the outbox", ex);
+        } finally {
+            RequestContext.set(previousContext);
+            queue.activeCount.decrementAndGet();
+            wakePoller();
+        }
+    }
+
+    // Sends a message on the caller's thread, once.
+    private void sendNow(ChannelQueue queue, OutboundMessage message) {
+        queue.synchronousCount.incrementAndGet();
+        String messageId;
+        try {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            messageId = queue.sender.send(message);
+            long sendMillis = stopwatch.elapsed(MILLISECONDS);
+            queue.totalSendMillis.addAndGet(sendMillis);
+            recordSent(queue, sendMillis);
+        } catch (RuntimeException ex) {
+            deadLetter(queue, message, 1, ex);
+            return;
+        }
+        afterSend(queue, message, messageId);
+    }
+
+    private void recordSent(ChannelQueue queue, long latencyMillis) {
+        queue.sentCount.incrementAndGet();
+        queue.totalLatencyMillis.addAndGet(latencyMillis);
+        queue.longestLatencyMillis.accumulate(latencyMillis);
+    }
+
+    private void afterSend(ChannelQueue queue, OutboundMessage message, String messageId) {
+        try {
+            queue.sender.afterSend(message, messageId);
+        } catch (RuntimeException ex) {
+            LOG.error("Error recording sent " + message.getDescription(), ex);
+        }
+    }
+
+    // Waits for a permit from the channel's cluster-wide rate limit. Returns false if the thread was interrupted.
+    private boolean acquirePermit(ChannelQueue queue) {
+        if (queue.sendsPerSecond <= 0 || rateLimitDao == null) {
+            return true;
+        }
+        String limitName = "outbox-" + queue.channel.name().toLowerCase();
+        while (true) {
+            long waitMillis = rateLimitDao.tryAcquire(limitName, queue.sendsPerSecond);
+            if (waitMillis <= 0) {
+                return true;
+            }
+            if (!sleep(waitMillis)) {
+                return false;
+            }
+        }
+    }
+
+    // Releases the claim, so the message is claimed again after a delay that grows with the attempts.
+    private void reschedule(ChannelQueue queue, OutboundMessage message, int attempts) {
+        message.setAttempts(attempts);
+        message.setNextAttemptOn(DateTimeUtils.currentTimeMillis() + queue.retryDelayMillis * Math.max(1, attempts));
+        release(message);
+    }
+
+    // Saves the message and releases this server's claim on it. If the claim ran out and another server has claimed
+    // the message since, that server owns the message, and nothing is saved.
+    private void release(OutboundMessage message) {
+        String claimToken = message.getClaimToken();
+        message.setClaimToken(null);
+        message.setClaimedUntil(null);
+        if (!outboundMessageDao.updateMessage(message, claimToken)) {
+            LOG.warn("The claim on " + message.getDescription() + " ran out and another server has claimed it, " +
+                    "leaving it to that server");
+        }
+    }
+
+    private void deadLetter(ChannelQueue queue, OutboundMessage message, int attempts, RuntimeException ex) {
+        queue.deadLetteredCount.incrementAndGet();
+        LOG.error("Dead-lettered " + message.getDescription() + " after " + attempts + " attempts", ex);
+        synchronized (queue.recentDeadLetters) {
+            if (queue.recentDeadLetters.size() >= MAX_RECENT_DEAD_LETTERS) {
+                queue.recentDeadLetters.removeFirst();
+            }
+            queue.recentDeadLetters.addLast(message.getDescription() + ": " + ex.getMessage());
+        }
+    }
+
+    private static String truncate(String error) {
+        return (error.length() > MAX_ERROR_LENGTH) ? error.substring(0, MAX_ERROR_LENGTH) : error;
+    }
+
+    // Network errors, AWS server errors and throttling are worth retrying. Anything else (an invalid request, a
+    // rejected message, or a bug) will fail the same way again. Package-scoped for unit tests.
+    static boolean isRetryable(RuntimeException ex) {
+        if (ex instanceof AmazonServiceException) {
+            AmazonServiceException serviceEx = (AmazonServiceException) ex;
+            return serviceEx.getErrorType() == AmazonServiceException.ErrorType.Service
+                    || serviceEx.getStatusCode() == 429
+                    || THROTTLING_ERROR_CODES.contains(serviceEx.getErrorCode());
+        }
+        return ex instanceof AmazonClientException;
+    }
+
+    // Returns false if the thread was interrupted. Package-scoped so unit tests can skip the delay.
+    boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
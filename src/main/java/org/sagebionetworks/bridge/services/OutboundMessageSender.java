@@ -0,0 +1,16 @@
+package org.sagebionetworks.bridge.services;
+
+import org.sagebionetworks.bridge.models.OutboundMessage;
+
+/**
+ * Sends the messages of one outbox channel. The sender builds the AWS request from the message's payload, so any
+ * server can send a message that another server accepted.
+ */
+public interface OutboundMessageSender {
+
+    /** Sends the message, and returns the message ID from AWS. */
+    String send(OutboundMessage message);
+
+    /** Called once after the message has been sent, to log it. Errors are logged by the queue, not retried. */
+    void afterSend(OutboundMessage message, String messageId);
+}
@@ -45,6 +45,8 @@ public class ParticipantFileService {
 
     static final String PARTICIPANT_FILE_BUCKET = "participant-file.bucket";
 
+    static final String FILE_NOT_UPLOADED_ERROR = "Participant file has not been uploaded.";
+
     private ParticipantFileDao participantFileDao;
 
     private AmazonS3 s3Client;
@@ -85,24 +87,52 @@ public class ParticipantFileService {
     }
 
     /**
-     * Retrieves the file size of a file stored on S3 in bytes. If the file has not
-     * yet been uploaded or does not exist, 0 is returned.
+     * Retrieves the metadata of a file stored on S3. If the file has not yet been
+     * uploaded or does not exist, null is returned.
      * 
-     * @param file the file to get the size of
-     * @return the size of the file in bytes (0 if not found)
+     * @param file the file to get the metadata of
+     * @return the S3 object metadata (null if not found)
      */
-    private long getS3FileSize(ParticipantFile file) {
+    private ObjectMetadata getS3ObjectMetadata(ParticipantFile file) {
         try {
-            return s3Client.getObjectMetadata(bucketName, getFilePath(file)).getContentLength();
+            return s3Client.getObjectMetadata(bucketName, getFilePath(file));
         } catch (AmazonS3Exception e) {
             // file may not have been uploaded yet
             if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
-                return 0;
+                return null;
             }
             throw e;
         }
     }
 
+    /**
+     * Returns the size of a file in bytes. The size is recorded on the file when its
+     * upload is completed. Files without a recorded size (created before sizes were
+     * recorded, or whose upload was never marked complete) are looked up on S3 once,
+     * and the size is saved, so later calls don't need to go to S3. If the file has
+     * not yet been uploaded, 0 is returned.
+     * 
+     * @param file the file to get the size of
+     * @return the size of the file in bytes (0 if not uploaded)
+     */
+    private long getFileSize(ParticipantFile file) {
+        if (file.getSize() != null) {
+            return file.getSize();
+        }
+        ObjectMetadata metadata = getS3ObjectMetadata(file);
+        if (metadata == null) {
+            return 0;
+        }
+        setUploadedObjectMetadata(file, metadata);
+        participantFileDao.uploadParticipantFile(file);
+        return file.getSize();
+    }
+
+    private static void setUploadedObjectMetadata(ParticipantFile file, ObjectMetadata metadata) {
+        file.setSize(metadata.getContentLength());
+        file.setChecksum(metadata.getETag());
+    }
+
     /**
      * Get a ForwardCursorPagedResourceList of ParticipantFiles from the given
      * userId, with nextPageOffsetKey set.
@@ -136,7 +166,7 @@ public class ParticipantFileService {
 
         long totalFileSizesBytes = 0;
         for (ParticipantFile file : files.getItems()) {
-            totalFileSizesBytes += getS3FileSize(file);
+            totalFileSizesBytes += getFileSize(file);
         }
         ByteRateLimiter rateLimiter = userByteRateLimiters.computeIfAbsent(userId, (u) -> createByteRateLimiter());
         if (!rateLimiter.tryConsumeBytes(totalFileSizesBytes)) {
@@ -167,7 +197,7 @@ public class ParticipantFileService {
         ParticipantFile file = participantFileDao.getParticipantFile(userId, fileId)
                 .orElseThrow(() -> new EntityNotFoundException(ParticipantFile.class));
 
-        long fileSizeBytes = getS3FileSize(file);
+        long fileSizeBytes = getFileSize(file);
         ByteRateLimiter rateLimiter = userByteRateLimiters.computeIfAbsent(userId, (u) -> createByteRateLimiter());
         if (!rateLimiter.tryConsumeBytes(fileSizeBytes)) {
             throw new LimitExceededException(PARTICIPANT_FILE_RATE_LIMIT_ERROR);
@@ -193,6 +223,9 @@ public class ParticipantFileService {
         file.setUserId(userId);
         file.setAppId(appId);
         file.setCreatedOn(DateTime.now());
+        // These are only set from S3 once the file has been uploaded.
+        file.setSize(null);
+        file.setChecksum(null);
         Validate.entityThrowingException(INSTANCE, file);
 
         participantFileDao.uploadParticipantFile(file);
@@ -205,6 +238,33 @@ public class ParticipantFileService {
         return file;
     }
 
+    /**
+     * Marks the upload of a file as complete, recording the size and checksum of the
+     * uploaded object so they don't need to be retrieved from S3 when the file is
+     * listed or downloaded.
+     *
+     * @param userId the userId of the file
+     * @param fileId the fileId of the file
+     * @return the ParticipantFile with its size and checksum
+     * @throws EntityNotFoundException if the file does not exist
+     * @throws BadRequestException if the file has not been uploaded to S3
+     */
+    public ParticipantFile completeParticipantFile(String userId, String fileId) {
+        checkArgument(isNotBlank(userId));
+        checkArgument(isNotBlank(fileId));
+
+        ParticipantFile file = participantFileDao.getParticipantFile(userId, fileId)
+                .orElseThrow(() -> new EntityNotFoundException(ParticipantFile.class));
+
+        ObjectMetadata metadata = getS3ObjectMetadata(file);
+        if (metadata == null) {
+            throw new BadRequestException(FILE_NOT_UPLOADED_ERROR);
+        }
+        setUploadedObjectMetadata(file, metadata);
+        participantFileDao.uploadParticipantFile(file);
+        return file;
+    }
+
     /**
      * Delete the record and the actual file on the server physically. If the file metadata does not exist,
      * throws EntityNotFoundException.
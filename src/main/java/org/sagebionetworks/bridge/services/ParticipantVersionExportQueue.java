@@ -0,0 +1,263 @@
+package org.sagebionetworks.bridge.services;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.dao.ParticipantVersionQueueDao;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.ParticipantVersionQueueEntry;
+import org.sagebionetworks.bridge.models.ParticipantVersionQueueStatus;
+import org.sagebionetworks.bridge.models.accounts.ParticipantVersion;
+import org.sagebionetworks.bridge.time.DateUtils;
+
+/**
+ * Writes and exports the participant versions that ParticipantVersionService has queued. The queue is a table with
+ * one entry per participant, so a burst of changes to a participant (a roster import, or several data group changes)
+ * writes one participant version with the final state, and a queued version survives a server restart. A background
+ * thread on each server writes the entries that are older than the coalescing window, and sends their export requests
+ * to the worker queue in batches.
+ *
+ * An app's entries are written and exported while holding the app's participant version lock, one batch at a time.
+ * ParticipantVersionService takes the same lock to discard a participant's entry, so once the discard returns, no
+ * server is still writing or exporting a version for that participant.
+ *
+ * Failures are retried on later flushes, up to MAX_ATTEMPTS times. A version whose export request SQS didn't accept
+ * keeps its version number in the entry, and only the export is retried. After the last batch attempt, the request is
+ * sent on its own. Versions that still fail are logged as dropped.
+ */
+@Component
+public class ParticipantVersionExportQueue {
+    private static final Logger LOG = LoggerFactory.getLogger(ParticipantVersionExportQueue.class);
+
+    static final String CONFIG_KEY_WINDOW_MILLIS = "participant.version.queue.window.millis";
+
+    // The number of times a version is written or exported before it is dropped.
+    static final int MAX_ATTEMPTS = 3;
+
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong unchangedCount = new AtomicLong();
+    private final AtomicLong writeFailedCount = new AtomicLong();
+    private final AtomicLong exportBatchCount = new AtomicLong();
+    private final AtomicLong exportFailedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private ParticipantVersionService participantVersionService;
+    private ParticipantVersionQueueDao participantVersionQueueDao;
+    private DistributedLockService lockService;
+    private long windowMillis;
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public final void setParticipantVersionService(ParticipantVersionService participantVersionService) {
+        this.participantVersionService = participantVersionService;
+    }
+
+    @Autowired
+    public final void setParticipantVersionQueueDao(ParticipantVersionQueueDao participantVersionQueueDao) {
+        this.participantVersionQueueDao = participantVersionQueueDao;
+    }
+
+    @Autowired
+    public final void setLockService(DistributedLockService lockService) {
+        this.lockService = lockService;
+    }
+
+    @Autowired
+    public final void setConfig(BridgeConfig config) {
+        this.windowMillis = config.getPropertyAsInt(CONFIG_KEY_WINDOW_MILLIS);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (windowMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("participant-version-queue-%d").setDaemon(true).build());
+            scheduler.scheduleWithFixedDelay(this::flush, windowMillis, windowMillis, MILLISECONDS);
+        }
+    }
+
+    /** Stops the background thread. Entries that are still queued are written by the next flush on any server. */
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(windowMillis, MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Returns a snapshot of the queue's counters. */
+    public ParticipantVersionQueueStatus getStatus() {
+        ParticipantVersionQueueStatus status = new ParticipantVersionQueueStatus();
+        status.setWindowMillis(windowMillis);
+        status.setPendingCount(participantVersionQueueDao.countEntries());
+        status.setEnqueuedCount(participantVersionService.getEnqueuedCount());
+        status.setCoalescedCount(participantVersionService.getCoalescedCount());
+        status.setCreatedCount(createdCount.get());
+        status.setUnchangedCount(unchangedCount.get());
+        status.setWriteFailedCount(writeFailedCount.get());
+        status.setExportBatchCount(exportBatchCount.get());
+        status.setExportFailedCount(exportFailedCount.get());
+        status.setDroppedCount(droppedCount.get());
+        return status;
+    }
+
+    // Writes and exports the entries that are due, an app at a time. This runs on the scheduler thread, so it logs
+    // errors rather than throwing them, which would stop the schedule. Package-scoped for unit tests.
+    void flush() {
+        long now = DateUtils.getCurrentMillisFromEpoch();
+        List<String> appIds;
+        try {
+            appIds = participantVersionQueueDao.getAppIdsWithDueEntries(now);
+        } catch (RuntimeException ex) {
+            LOG.error("Error reading queued participant versions", ex);
+            return;
+        }
+        for (String appId : appIds) {
+            try {
+                // The lock is released between batches, so that discards for the app aren't held up by a long flush.
+                boolean more = true;
+                while (more) {
+                    more = lockService.callWithLock(ParticipantVersion.class, appId, () -> flushBatch(appId, now));
+                }
+            } catch (RuntimeException ex) {
+                LOG.error("Error flushing participant versions for app " + appId, ex);
+            }
+        }
+    }
+
+    // Writes one batch of the app's due entries, then exports the versions that were written, along with the versions
+    // whose exports are being retried. Returns true if the batch was full, and there may be more entries.
+    private boolean flushBatch(String appId, long now) {
+        List<ParticipantVersionQueueEntry> entries = participantVersionQueueDao.getDueEntries(appId, now,
+                ParticipantVersionService.MAX_EXPORT_BATCH_SIZE);
+
+        List<ParticipantVersionQueueEntry> toExport = new ArrayList<>();
+        List<ParticipantVersion> versionList = new ArrayList<>();
+        for (ParticipantVersionQueueEntry entry : entries) {
+            ParticipantVersion participantVersion;
+            try {
+                participantVersion = BridgeObjectMapper.get().treeToValue(entry.getPayload(),
+                        ParticipantVersion.class);
+                participantVersion.setAppId(entry.getAppId());
+                participantVersion.setHealthCode(entry.getHealthCode());
+                if (participantVersionService.writeParticipantVersion(participantVersion)) {
+                    createdCount.incrementAndGet();
+                    entry.setWrittenVersion(participantVersion.getParticipantVersion());
+                } else {
+                    unchangedCount.incrementAndGet();
+                }
+            } catch (JsonProcessingException | RuntimeException ex) {
+                writeFailedCount.incrementAndGet();
+                LOG.error("Error writing participant version for app " + entry.getAppId() + " healthCode " +
+                        entry.getHealthCode(), ex);
+                retry(entry, now, "write");
+                continue;
+            }
+            if (entry.getWrittenVersion() == null) {
+                // Unchanged, and there's no earlier version waiting to be exported.
+                complete(entry);
+                continue;
+            }
+            // Export the version that was written, or, if nothing was written, the earlier version whose export
+            // failed.
+            participantVersion.setParticipantVersion(entry.getWrittenVersion());
+            toExport.add(entry);
+            versionList.add(participantVersion);
+        }
+        if (!versionList.isEmpty()) {
+            export(toExport, versionList, now);
+        }
+        return entries.size() == ParticipantVersionService.MAX_EXPORT_BATCH_SIZE;
+    }
+
+    // Sends the export requests in one batch. A failed request is retried in a later batch. After the last batch
+    // attempt, the request is sent on its own, and the version is dropped if that fails too.
+    private void export(List<ParticipantVersionQueueEntry> entries, List<ParticipantVersion> versionList, long now) {
+        exportBatchCount.incrementAndGet();
+        List<ParticipantVersion> failed;
+        try {
+            failed = participantVersionService.exportParticipantVersions(versionList);
+        } catch (RuntimeException ex) {
+            LOG.error("Error exporting " + versionList.size() + " participant versions", ex);
+            failed = versionList;
+        }
+        exportFailedCount.addAndGet(failed.size());
+        Set<ParticipantVersion> failedSet = Sets.newIdentityHashSet();
+        failedSet.addAll(failed);
+
+        for (int i = 0; i < entries.size(); i++) {
+            ParticipantVersionQueueEntry entry = entries.get(i);
+            ParticipantVersion participantVersion = versionList.get(i);
+            if (!failedSet.contains(participantVersion)) {
+                complete(entry);
+            } else if (entry.getAttempts() + 1 < MAX_ATTEMPTS - 1) {
+                retry(entry, now, "export");
+            } else {
+                try {
+                    participantVersionService.exportParticipantVersion(participantVersion.getAppId(),
+                            participantVersion.getHealthCode(), participantVersion.getParticipantVersion());
+                    complete(entry);
+                } catch (RuntimeException ex) {
+                    LOG.error("Error exporting participant version for app " + participantVersion.getAppId() +
+                            " healthCode " + participantVersion.getHealthCode() + " version " +
+                            participantVersion.getParticipantVersion(), ex);
+                    drop(entry, "export failed " + MAX_ATTEMPTS + " times");
+                }
+            }
+        }
+    }
+
+    // Removes an entry whose version has been written and exported (or was unchanged). If the entry was replaced in
+    // the meantime, the replacement stays queued, with nothing left to export for the version that was handled here.
+    private void complete(ParticipantVersionQueueEntry entry) {
+        entry.setWrittenVersion(null);
+        if (!participantVersionQueueDao.deleteEntry(entry)) {
+            participantVersionQueueDao.updateEntry(entry);
+        }
+    }
+
+    // Schedules a failed entry to be retried after another window, or drops it if it has failed too many times.
+    private void retry(ParticipantVersionQueueEntry entry, long now, String step) {
+        int failedAttempts = entry.getAttempts() + 1;
+        entry.setAttempts(failedAttempts);
+        if (failedAttempts < MAX_ATTEMPTS) {
+            entry.setNextAttemptOn(now + windowMillis);
+            participantVersionQueueDao.updateEntry(entry);
+        } else {
+            drop(entry, step + " failed " + failedAttempts + " times");
+        }
+    }
+
+    // Removes an entry that has failed too many times. If the entry was replaced in the meantime, the replacement
+    // stays queued.
+    private void drop(ParticipantVersionQueueEntry entry, String reason) {
+        droppedCount.incrementAndGet();
+        LOG.error("Dropping participant version for app " + entry.getAppId() + " healthCode " +
+                entry.getHealthCode() + ": " + reason);
+        if (!participantVersionQueueDao.deleteEntry(entry)) {
+            participantVersionQueueDao.updateEntry(entry);
+        }
+    }
+}
@@ -2,17 +2,27 @@ package org.sagebionetworks.bridge.services;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MINUTES;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
 import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +33,7 @@ import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.dao.ParticipantVersionDao;
+import org.sagebionetworks.bridge.dao.ParticipantVersionQueueDao;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
@@ -42,11 +53,31 @@ public class ParticipantVersionService {
 
     static final String WORKER_NAME_EX_3_PARTICIPANT_VERSION = "Ex3ParticipantVersionWorker";
 
+    // SQS accepts at most 10 messages in a batch.
+    static final int MAX_EXPORT_BATCH_SIZE = 10;
+
+    // Most account updates don't change anything in the participant version, so we keep the latest version of
+    // recently updated participants to detect an identical version without reading the whole version from DynamoDB.
+    // The cache is local to this server, and another server may have written a newer version since, so a hit is only a
+    // hint: it is confirmed against the latest version number in DynamoDB before a version is skipped.
+    static final long LATEST_VERSION_CACHE_MAX_SIZE = 10000;
+    static final long LATEST_VERSION_CACHE_EXPIRE_MINUTES = 10;
+
+    private final Cache<String, ParticipantVersion> latestVersionCache = CacheBuilder.newBuilder()
+            .maximumSize(LATEST_VERSION_CACHE_MAX_SIZE).expireAfterWrite(LATEST_VERSION_CACHE_EXPIRE_MINUTES, MINUTES)
+            .build();
+
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
     private AppService appService;
     private DemographicService demographicService;
     private BridgeConfig config;
     private ParticipantVersionDao participantVersionDao;
     private AmazonSQS sqsClient;
+    private ParticipantVersionQueueDao participantVersionQueueDao;
+    private DistributedLockService lockService;
+    private long queueWindowMillis;
 
     @Autowired
     public final void setAppService(AppService appService) {
@@ -61,6 +92,7 @@ public class ParticipantVersionService {
     @Autowired
     public final void setConfig(BridgeConfig config) {
         this.config = config;
+        this.queueWindowMillis = config.getPropertyAsInt(ParticipantVersionExportQueue.CONFIG_KEY_WINDOW_MILLIS);
     }
 
     @Autowired
@@ -73,6 +105,16 @@ public class ParticipantVersionService {
         this.sqsClient = sqsClient;
     }
 
+    @Autowired
+    public final void setParticipantVersionQueueDao(ParticipantVersionQueueDao participantVersionQueueDao) {
+        this.participantVersionQueueDao = participantVersionQueueDao;
+    }
+
+    @Autowired
+    public final void setLockService(DistributedLockService lockService) {
+        this.lockService = lockService;
+    }
+
     /** Creates a participant version from an account. */
     public void createParticipantVersionFromAccount(Account account) {
         String appId = account.getAppId();
@@ -103,8 +145,37 @@ public class ParticipantVersionService {
             return;
         }
 
+        // The queue coalesces a burst of changes to the same participant into a single version.
         ParticipantVersion participantVersion = makeParticipantVersionFromAccount(account);
-        createParticipantVersion(participantVersion);
+        enqueueParticipantVersion(participantVersion);
+    }
+
+    // Queues the participant version to be written and exported by ParticipantVersionExportQueue once the coalescing
+    // window has passed, replacing the version that is queued for the participant, if any. A window of zero writes
+    // and exports the version right away. Package-scoped for unit tests.
+    void enqueueParticipantVersion(ParticipantVersion participantVersion) {
+        enqueuedCount.incrementAndGet();
+        if (queueWindowMillis <= 0) {
+            createParticipantVersion(participantVersion);
+            return;
+        }
+        JsonNode payload = BridgeObjectMapper.get().valueToTree(participantVersion);
+        long nextAttemptOn = DateUtils.getCurrentMillisFromEpoch() + queueWindowMillis;
+        if (participantVersionQueueDao.enqueue(participantVersion.getAppId(), participantVersion.getHealthCode(),
+                payload, nextAttemptOn)) {
+            coalescedCount.incrementAndGet();
+        }
+    }
+
+    // The number of participant versions enqueued on this server. Package-scoped for the export queue's status.
+    long getEnqueuedCount() {
+        return enqueuedCount.get();
+    }
+
+    // The number of enqueued participant versions that replaced a queued version. Package-scoped for the export
+    // queue's status.
+    long getCoalescedCount() {
+        return coalescedCount.get();
     }
 
     // Helper method which converts an Account into a ParticipantVersion.
@@ -124,35 +195,60 @@ public class ParticipantVersionService {
         participantVersion.setStudyMemberships(BridgeUtils.mapStudyMemberships(account));
         participantVersion.setTimeZone(account.getClientTimeZone());
 
+        // App and study demographics are loaded together. Studies the participant is not a member of are ignored.
         Map<String, Demographic> appDemographics = ImmutableMap.of();
-        Optional<DemographicUser> appDemographicUser = demographicService.getDemographicUser(account.getAppId(), null,
-                account.getId());
-        if (appDemographicUser.isPresent()) {
-            appDemographics = appDemographicUser.get().getDemographics();
-        }
-        participantVersion.setAppDemographics(appDemographics);
         Map<String, Map<String, Demographic>> studyDemographics = new HashMap<>();
         for (String studyId : participantVersion.getStudyMemberships().keySet()) {
-            Map<String, Demographic> oneStudyDemographics = ImmutableMap.of();
-            Optional<DemographicUser> studyDemographicUser = demographicService.getDemographicUser(account.getAppId(),
-                    studyId, account.getId());
-            if (studyDemographicUser.isPresent()) {
-                oneStudyDemographics = studyDemographicUser.get().getDemographics();
+            studyDemographics.put(studyId, ImmutableMap.of());
+        }
+        List<DemographicUser> demographicUsers = demographicService.getDemographicUsersForUser(account.getAppId(),
+                account.getId());
+        for (DemographicUser demographicUser : demographicUsers) {
+            String studyId = demographicUser.getStudyId();
+            if (studyId == null) {
+                appDemographics = demographicUser.getDemographics();
+            } else if (studyDemographics.containsKey(studyId)) {
+                studyDemographics.put(studyId, demographicUser.getDemographics());
             }
-            studyDemographics.put(studyId, oneStudyDemographics);
         }
+        participantVersion.setAppDemographics(appDemographics);
         participantVersion.setStudyDemographics(studyDemographics);
 
         return participantVersion;
     }
 
-    // Helper method which creates a participant version. This method automatically increments the version number.
-    // Package-scoped for unit tests.
+    // Helper method which creates and exports a participant version. This method automatically increments the version
+    // number. Package-scoped for unit tests and for the export queue.
     void createParticipantVersion(ParticipantVersion participantVersion) {
+        if (writeParticipantVersion(participantVersion)) {
+            exportParticipantVersion(participantVersion.getAppId(), participantVersion.getHealthCode(),
+                    participantVersion.getParticipantVersion());
+        }
+    }
+
+    // Writes a participant version, automatically incrementing the version number, without exporting it. Returns
+    // false if the participant version is identical to the latest version, in which case nothing is written.
+    // Package-scoped for unit tests and for the export queue.
+    boolean writeParticipantVersion(ParticipantVersion participantVersion) {
         checkNotNull(participantVersion);
         checkNotNull(participantVersion.getAppId());
         checkNotNull(participantVersion.getHealthCode());
 
+        // Shortcut: If the participant version is unchanged from the cached latest version, and the cached version is
+        // still the latest in DynamoDB, return early without reading the whole latest version.
+        String cacheKey = getLatestVersionCacheKey(participantVersion.getAppId(), participantVersion.getHealthCode());
+        ParticipantVersion cached = latestVersionCache.getIfPresent(cacheKey);
+        if (cached != null && isIdenticalParticipantVersion(cached, participantVersion)) {
+            Optional<Integer> latestNumberOpt = participantVersionDao.getLatestParticipantVersionNumber(
+                    participantVersion.getAppId(), participantVersion.getHealthCode());
+            if (latestNumberOpt.isPresent() && latestNumberOpt.get() == cached.getParticipantVersion()) {
+                return false;
+            }
+
+            // Another server has written a newer version, or the versions were deleted. Read the latest version.
+            latestVersionCache.invalidate(cacheKey);
+        }
+
         // Get the old version, so we increment the version number.
         long now = DateUtils.getCurrentMillisFromEpoch();
         Optional<ParticipantVersion> existingOpt = getLatestParticipantVersionForHealthCode(
@@ -161,7 +257,8 @@ public class ParticipantVersionService {
             // Shortcut: If the participant version is unchanged, return early so we don't create a duplicate version.
             ParticipantVersion existing = existingOpt.get();
             if (isIdenticalParticipantVersion(existing, participantVersion)) {
-                return;
+                latestVersionCache.put(cacheKey, existing);
+                return false;
             }
 
             participantVersion.setParticipantVersion(existing.getParticipantVersion() + 1);
@@ -183,10 +280,17 @@ public class ParticipantVersionService {
 
         // Create.
         participantVersionDao.createParticipantVersion(participantVersion);
+        latestVersionCache.put(cacheKey, participantVersion);
+        return true;
+    }
 
-        // Export.
-        exportParticipantVersion(participantVersion.getAppId(), participantVersion.getHealthCode(),
-                participantVersion.getParticipantVersion());
+    private static String getLatestVersionCacheKey(String appId, String healthCode) {
+        return appId + ":" + healthCode;
+    }
+
+    // Clears the latest version cache. Package-scoped for unit tests.
+    void clearLatestVersionCache() {
+        latestVersionCache.invalidateAll();
     }
 
     // Compares non-key attributes for participant versions. Returns true if they are the same, false if they are
@@ -254,8 +358,53 @@ public class ParticipantVersionService {
         return demographicsNoId;
     }
 
-    // This is separate because we might need a separate redrive process in the future.
-    private void exportParticipantVersion(String appId, String healthCode, int versionNum) {
+    // This is separate because we might need a separate redrive process in the future. Package-scoped for unit tests
+    // and for the export queue.
+    void exportParticipantVersion(String appId, String healthCode, int versionNum) {
+        String requestJson = makeExportRequestJson(appId, healthCode, versionNum);
+
+        // Note: SqsInitializer runs after Spring, so we need to grab the queue URL dynamically.
+        String workerQueueUrl = config.getProperty(BridgeConstants.CONFIG_KEY_WORKER_SQS_URL);
+
+        // Sent to SQS.
+        SendMessageResult sqsResult = sqsClient.sendMessage(workerQueueUrl, requestJson);
+        LOG.info("Sent export participant version request for app " + appId + " healthCode " + healthCode +
+                " version " + versionNum + "; received message ID=" + sqsResult.getMessageId());
+    }
+
+    // Sends the export requests for participant versions that have already been written, in batches. Returns the
+    // participant versions whose requests SQS did not accept. Package-scoped for unit tests and for the export queue.
+    List<ParticipantVersion> exportParticipantVersions(List<ParticipantVersion> participantVersions) {
+        // Note: SqsInitializer runs after Spring, so we need to grab the queue URL dynamically.
+        String workerQueueUrl = config.getProperty(BridgeConstants.CONFIG_KEY_WORKER_SQS_URL);
+
+        List<ParticipantVersion> failed = new ArrayList<>();
+        for (List<ParticipantVersion> batch : Lists.partition(participantVersions, MAX_EXPORT_BATCH_SIZE)) {
+            // Entry IDs only need to be unique within a batch, so we use the index into the batch.
+            List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                ParticipantVersion participantVersion = batch.get(i);
+                String requestJson = makeExportRequestJson(participantVersion.getAppId(),
+                        participantVersion.getHealthCode(), participantVersion.getParticipantVersion());
+                entries.add(new SendMessageBatchRequestEntry(String.valueOf(i), requestJson));
+            }
+
+            SendMessageBatchResult sqsResult = sqsClient.sendMessageBatch(workerQueueUrl, entries);
+            for (BatchResultErrorEntry errorEntry : sqsResult.getFailed()) {
+                ParticipantVersion participantVersion = batch.get(Integer.parseInt(errorEntry.getId()));
+                LOG.error("Failed to send export participant version request for app " +
+                        participantVersion.getAppId() + " healthCode " + participantVersion.getHealthCode() +
+                        " version " + participantVersion.getParticipantVersion() + ": " + errorEntry.getCode() +
+                        " " + errorEntry.getMessage());
+                failed.add(participantVersion);
+            }
+            LOG.info("Sent " + (batch.size() - sqsResult.getFailed().size()) +
+                    " export participant version requests in one batch");
+        }
+        return failed;
+    }
+
+    private String makeExportRequestJson(String appId, String healthCode, int versionNum) {
         // Create request.
         Ex3ParticipantVersionRequest participantVersionRequest = new Ex3ParticipantVersionRequest();
         participantVersionRequest.setAppId(appId);
@@ -276,21 +425,30 @@ public class ParticipantVersionService {
             throw new BridgeServiceException("Error creating export participant version request for app " + appId +
                     " healthcode " + healthCode + " version " + versionNum, ex);
         }
+        return requestJson;
+    }
 
-        // Note: SqsInitializer runs after Spring, so we need to grab the queue URL dynamically.
-        String workerQueueUrl = config.getProperty(BridgeConstants.CONFIG_KEY_WORKER_SQS_URL);
-
-        // Sent to SQS.
-        SendMessageResult sqsResult = sqsClient.sendMessage(workerQueueUrl, requestJson);
-        LOG.info("Sent export participant version request for app " + appId + " healthCode " + healthCode +
-                " version " + versionNum + "; received message ID=" + sqsResult.getMessageId());
+    /**
+     * Drops the participant version for the given health code that is queued to be written or exported. This is
+     * called when the account is deleted. The export queue writes and exports an app's versions while holding the
+     * same lock, so this waits for a flush that is in progress, and nothing more is exported once it returns.
+     */
+    public void discardPendingParticipantVersions(String appId, String healthCode) {
+        checkNotNull(appId);
+        checkNotNull(healthCode);
+        lockService.runWithLock(ParticipantVersion.class, appId,
+                () -> participantVersionQueueDao.deleteEntry(appId, healthCode));
     }
 
     /** Delete all participant versions for the given health code. This is called by integration tests. */
     public void deleteParticipantVersionsForHealthCode(String appId, String healthCode) {
         checkNotNull(appId);
         checkNotNull(healthCode);
-        participantVersionDao.deleteParticipantVersionsForHealthCode(appId, healthCode);
+        lockService.runWithLock(ParticipantVersion.class, appId, () -> {
+            participantVersionQueueDao.deleteEntry(appId, healthCode);
+            participantVersionDao.deleteParticipantVersionsForHealthCode(appId, healthCode);
+        });
+        latestVersionCache.invalidate(getLatestVersionCacheKey(appId, healthCode));
     }
 
     /** Get all participant versions for health code. Returns an empty list if none exist. */
@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.services;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.sagebionetworks.bridge.AuthEvaluatorField.STUDY_ID;
 import static org.sagebionetworks.bridge.AuthEvaluatorField.USER_ID;
 import static org.sagebionetworks.bridge.AuthUtils.CAN_READ_PARTICIPANT_REPORTS;
@@ -8,12 +9,20 @@ import static org.sagebionetworks.bridge.AuthUtils.CAN_READ_STUDY_REPORTS;
 import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
 import static org.sagebionetworks.bridge.BridgeConstants.API_MINIMUM_PAGE_SIZE;
 import static org.sagebionetworks.bridge.BridgeUtils.isEmpty;
+import static org.sagebionetworks.bridge.models.ResourceList.END_DATE;
 import static org.sagebionetworks.bridge.models.ResourceList.REPORT_TYPE;
+import static org.sagebionetworks.bridge.models.ResourceList.START_DATE;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -33,7 +42,9 @@ import org.sagebionetworks.bridge.time.DateUtils;
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
 import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.RangeTuple;
+import org.sagebionetworks.bridge.models.ReportIndexCacheStatus;
 import org.sagebionetworks.bridge.models.ReportTypeResourceList;
+import org.sagebionetworks.bridge.models.StreamingDateRangeResourceList;
 import org.sagebionetworks.bridge.models.reports.ReportData;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
 import org.sagebionetworks.bridge.models.reports.ReportIndex;
@@ -66,9 +77,26 @@ public class ReportService {
     
     private static final String INVALID_TIME_RANGE = "startTime later in time than endTime";
     
+    static final int MAX_BATCH_SIZE = 500;
+    
+    private static final String BATCH_TOO_LARGE_MSG = "Cannot include more than " + MAX_BATCH_SIZE + 
+            " report records in one request";
+    
+    private static final int INDEX_CACHE_MAX_SIZE = 10000;
+    
+    private static final long INDEX_CACHE_EXPIRE_SECONDS = 60;
+    
     private ReportDataDao reportDataDao;
     private ReportIndexDao reportIndexDao;
     
+    // Report indices that are known to exist, so that writes to an existing report don't have to load the index 
+    // first. Only this server's index updates and deletes invalidate entries, so they expire quickly to bound how 
+    // long a change made on another server can go unnoticed. Indices that don't exist are never cached.
+    private final Cache<String, ReportIndex> indexCache = CacheBuilder.newBuilder()
+            .maximumSize(INDEX_CACHE_MAX_SIZE)
+            .expireAfterWrite(INDEX_CACHE_EXPIRE_SECONDS, SECONDS)
+            .recordStats().build();
+    
     @Autowired
     final void setReportDataDao(ReportDataDao reportDataDao) {
         this.reportDataDao =reportDataDao;
@@ -113,6 +141,33 @@ public class ReportService {
         return reportDataDao.getReportData(key, startDate, endDate);
     }
     
+    /**
+     * Return study report records based on the provided local date range, as a list that reads the records from
+     * the database a page at a time while it is serialized. The date range, key, and study memberships are all 
+     * validated before this method returns, so errors are reported before any part of the response is written.
+     */
+    public StreamingDateRangeResourceList<ReportData> streamStudyReport(String appId, String identifier,
+            LocalDate startDate, LocalDate endDate) {
+        
+        RangeTuple<LocalDate> finalDates = validateLocalDateRange(startDate, endDate);
+        startDate = finalDates.getStart();
+        endDate = finalDates.getEnd();
+
+        ReportDataKey key = new ReportDataKey.Builder()
+                .withReportType(ReportType.STUDY)
+                .withIdentifier(identifier)
+                .withAppId(appId).build();
+        Validate.entityThrowingException(ReportDataKeyValidator.INSTANCE, key);
+        
+        ReportIndex index = reportIndexDao.getIndex(key);
+        checkStudyReportAccess(index);
+
+        return new StreamingDateRangeResourceList<ReportData>(
+                reportDataDao.streamReportData(key, startDate, endDate))
+                .withRequestParam(START_DATE, startDate)
+                .withRequestParam(END_DATE, endDate);
+    }
+    
     /**
      * Return set of participant report records based on the provided local date range. Study memberships are
      * enforced.
@@ -204,7 +259,7 @@ public class ReportService {
                 .withAppId(appId).build();
         reportData.setReportDataKey(key);
         
-        ReportIndex index = reportIndexDao.getIndex(key);
+        ReportIndex index = getCachedIndex(key);
         checkStudyReportAccess(index);
         
         ReportDataValidator validator = new ReportDataValidator(index);
@@ -233,7 +288,7 @@ public class ReportService {
                 .withAppId(appId).build();
         reportData.setReportDataKey(key);
         
-        ReportIndex index = reportIndexDao.getIndex(key);
+        ReportIndex index = getCachedIndex(key);
         checkParticipantReportAccess(userId, index);
         
         ReportDataValidator validator = new ReportDataValidator(index);
@@ -245,6 +300,48 @@ public class ReportService {
         }
     }
     
+    /**
+     * Save a list of study report records in one operation. The records are validated and the caller's access is 
+     * checked as for saveStudyReport(), but the report index is only resolved once, and the records are written 
+     * in batches. If this is the first record for this report, the first record's studies are used for the index, 
+     * and every other record in the list must agree with them.
+     */
+    public void saveStudyReportBatch(String appId, String identifier, List<ReportData> reportDataList) {
+        checkNotNull(reportDataList);
+        
+        ReportDataKey key = new ReportDataKey.Builder()
+                .withReportType(ReportType.STUDY)
+                .withIdentifier(identifier)
+                .withAppId(appId).build();
+        
+        ReportIndex index = getCachedIndex(key);
+        checkStudyReportAccess(index);
+        
+        saveReportDataBatch(key, index, reportDataList);
+    }
+    
+    /**
+     * Save a list of participant report records in one operation. The records are validated and the caller's 
+     * access is checked as for saveParticipantReport(), but the report index is only resolved once, and the 
+     * records are written in batches. If this is the first record for this report, the first record's studies 
+     * are used for the index, and every other record in the list must agree with them.
+     */
+    public void saveParticipantReportBatch(String appId, String userId, String identifier, String healthCode,
+            List<ReportData> reportDataList) {
+        checkNotNull(reportDataList);
+        
+        ReportDataKey key = new ReportDataKey.Builder()
+                .withHealthCode(healthCode)
+                .withReportType(ReportType.PARTICIPANT)
+                .withIdentifier(identifier)
+                .withAppId(appId).build();
+        
+        ReportIndex index = getCachedIndex(key);
+        checkParticipantReportAccess(userId, index);
+        
+        saveReportDataBatch(key, index, reportDataList);
+    }
+    
     /**
      * Delete all records for a study report. Study memberships will be enforced.
      */
@@ -260,6 +357,7 @@ public class ReportService {
         
         reportDataDao.deleteReportData(key);
         reportIndexDao.removeIndex(key);
+        invalidateCachedIndex(key.getIndexKeyString(), identifier);
     }
     
     /**
@@ -281,12 +379,37 @@ public class ReportService {
         
         reportDataDao.deleteReportDataRecord(key, date);
         
-        // If this is the last key visible in the window, you can delete the index because this is an app record
+        removeStudyReportIndexIfEmpty(appId, identifier, key);
+    }
+    
+    /**
+     * Delete several records of a study report in one operation. Study memberships will be enforced. Dates 
+     * without a record are ignored.
+     */
+    public void deleteStudyReportRecords(String appId, String identifier, List<String> dates) {
+        ReportDataKey key = new ReportDataKey.Builder()
+                .withReportType(ReportType.STUDY)
+                .withIdentifier(identifier)
+                .withAppId(appId).build();
+        Validate.entityThrowingException(ReportDataKeyValidator.INSTANCE, key);
+        List<String> dateList = validateDates(dates);
+        
+        ReportIndex index = reportIndexDao.getIndex(key);
+        checkStudyReportAccess(index);
+        
+        reportDataDao.deleteReportDataRecords(key, dateList);
+        
+        removeStudyReportIndexIfEmpty(appId, identifier, key);
+    }
+    
+    // If no record is visible in the window after a deletion, you can delete the index because this is an app record
+    private void removeStudyReportIndexIfEmpty(String appId, String identifier, ReportDataKey key) {
         LocalDate startDate = LocalDate.now().minusDays(MAX_RANGE_DAYS);
         LocalDate endDate = LocalDate.now();
         DateRangeResourceList<? extends ReportData> results = getStudyReport(appId, identifier, startDate, endDate);
         if (results.getItems().isEmpty()) {
             reportIndexDao.removeIndex(key);
+            invalidateCachedIndex(key.getIndexKeyString(), identifier);
         }
     }
     
@@ -345,6 +468,26 @@ public class ReportService {
         reportDataDao.deleteReportDataRecord(key, date);
     }
     
+    /**
+     * Delete several records of a participant report in one operation. Study memberships are enforced. Dates 
+     * without a record are ignored.
+     */
+    public void deleteParticipantReportRecords(String appId, String userId, String identifier, List<String> dates,
+            String healthCode) {
+        ReportDataKey key = new ReportDataKey.Builder()
+                .withHealthCode(healthCode)
+                .withReportType(ReportType.PARTICIPANT)
+                .withIdentifier(identifier)
+                .withAppId(appId).build();
+        Validate.entityThrowingException(ReportDataKeyValidator.INSTANCE, key);
+        List<String> dateList = validateDates(dates);
+        
+        ReportIndex index = reportIndexDao.getIndex(key);
+        checkParticipantReportAccess(userId, index);
+        
+        reportDataDao.deleteReportDataRecords(key, dateList);
+    }
+    
     /**
      * Delete a participant report index. Study memberships are enforced. Typically we do not automatically 
      * delete these because we cannot determine all individual records have been deleted without a table scan, 
@@ -362,6 +505,7 @@ public class ReportService {
         checkParticipantReportAccess(userId, index);
         
         reportIndexDao.removeIndex(key);
+        invalidateCachedIndex(key.getIndexKeyString(), identifier);
     }
 
     /**
@@ -393,6 +537,29 @@ public class ReportService {
             index.setStudyIds(existingIndex.getStudyIds());
         }
         reportIndexDao.updateIndex(index);
+        invalidateCachedIndex(key.getIndexKeyString(), index.getIdentifier());
+        invalidateCachedIndex(appId + ":" + reportType.name(), index.getIdentifier());
+    }
+    
+    /**
+     * The hit ratio and size of this server's cache of report indices.
+     */
+    public ReportIndexCacheStatus getReportIndexCacheStatus() {
+        CacheStats stats = indexCache.stats();
+        
+        ReportIndexCacheStatus status = new ReportIndexCacheStatus();
+        status.setSize(indexCache.size());
+        status.setMaxSize(INDEX_CACHE_MAX_SIZE);
+        status.setHitCount(stats.hitCount());
+        status.setMissCount(stats.missCount());
+        status.setHitRatio(stats.hitRate());
+        status.setEvictionCount(stats.evictionCount());
+        return status;
+    }
+    
+    // Package-scoped for unit tests.
+    void clearReportIndexCache() {
+        indexCache.invalidateAll();
     }
     
     protected void checkParticipantReportAccess(String userId, ReportIndex index) {
@@ -436,6 +603,82 @@ public class ReportService {
         reportIndexDao.addIndex(key, studies);
     }
     
+    private void saveReportDataBatch(ReportDataKey key, ReportIndex index, List<ReportData> reportDataList) {
+        if (reportDataList.isEmpty()) {
+            return;
+        }
+        if (reportDataList.size() > MAX_BATCH_SIZE) {
+            throw new BadRequestException(BATCH_TOO_LARGE_MSG);
+        }
+        // Records in the batch are validated against the index they will create, the same way later saves would be.
+        ReportData firstReportData = reportDataList.get(0);
+        ReportIndex validationIndex = index;
+        if (index == null && firstReportData != null && firstReportData.getStudyIds() != null) {
+            validationIndex = ReportIndex.create();
+            validationIndex.setStudyIds(firstReportData.getStudyIds());
+        }
+        ReportDataValidator validator = new ReportDataValidator(validationIndex);
+        
+        // DynamoDB rejects a batch that writes the same item twice.
+        Set<String> dates = new HashSet<>();
+        for (ReportData reportData : reportDataList) {
+            if (reportData == null) {
+                throw new BadRequestException("Report records cannot be null");
+            }
+            reportData.setReportDataKey(key);
+            Validate.entityThrowingException(validator, reportData);
+            
+            String date = (reportData.getDateTime() != null) ?
+                    reportData.getDateTime().withZone(DateTimeZone.UTC).toString() : reportData.getDate();
+            if (!dates.add(date)) {
+                throw new BadRequestException("Report records must have different dates, but " + date + 
+                        " is included more than once");
+            }
+        }
+        
+        reportDataDao.saveReportDataBatch(reportDataList);
+        if (index == null) {
+            addToIndex(key, firstReportData.getStudyIds());
+        }
+    }
+    
+    private List<String> validateDates(List<String> dates) {
+        if (dates == null || dates.isEmpty()) {
+            throw new BadRequestException("At least one report record date is required");
+        }
+        if (dates.size() > MAX_BATCH_SIZE) {
+            throw new BadRequestException(BATCH_TOO_LARGE_MSG);
+        }
+        Set<String> dateSet = new LinkedHashSet<>();
+        for (String date : dates) {
+            if (StringUtils.isBlank(date)) {
+                throw new BadRequestException(RECORD_DATE_MISSING_MSG);
+            }
+            dateSet.add(date);
+        }
+        return new ArrayList<>(dateSet);
+    }
+    
+    private ReportIndex getCachedIndex(ReportDataKey key) {
+        String cacheKey = getIndexCacheKey(key.getIndexKeyString(), key.getIdentifier());
+        ReportIndex index = indexCache.getIfPresent(cacheKey);
+        if (index == null) {
+            index = reportIndexDao.getIndex(key);
+            if (index != null) {
+                indexCache.put(cacheKey, index);
+            }
+        }
+        return index;
+    }
+    
+    private void invalidateCachedIndex(String indexKey, String identifier) {
+        indexCache.invalidate(getIndexCacheKey(indexKey, identifier));
+    }
+    
+    private static String getIndexCacheKey(String indexKey, String identifier) {
+        return indexKey + ":" + identifier;
+    }
+    
     private RangeTuple<DateTime> validateDateTimeRange(DateTime startTime, DateTime endTime) {
         // If nothing is provided, we will default to 13 days prior to today
         if (startTime == null && endTime == null) {
@@ -75,6 +75,8 @@ public class Schedule2Service {
     private StudyActivityEventService studyActivityEventService;
     @Autowired
     private Schedule2Dao dao;
+    @Autowired
+    private DistributedLockService lockService;
     
     DateTime getCreatedOn() {
         return DateTime.now();
@@ -181,30 +183,36 @@ public class Schedule2Service {
         checkNotNull(study);
         checkNotNull(schedule);
         
-        Schedule2 existing = null;
         if (study.getScheduleGuid() != null) {
-            // this shouldn't come back null if it's set in the study, that would be strange.
-            existing = dao.getSchedule(schedule.getAppId(), study.getScheduleGuid()).orElse(null);    
-        }
-        if (existing != null) {
-            // This is an interesting bug that probably exists in the updateSchedule call and 
-            // will need to be fixed. It's possible to submit the schedule for another study,
-            // with keys and all, to the update API, and at some point we have to check that
-            // we're talking about the same object.
-            schedule.setGuid(study.getScheduleGuid());
-            schedule = updateSchedule(study, existing, schedule);
-            
-            studyService.updateStudyEtags(study.getAppId(), schedule.getGuid(), schedule.getModifiedOn());
-
-            return schedule;
+            // The update replaces the schedule's sessions and timeline metadata, so concurrent updates are 
+            // serialized, from reading the existing schedule to writing the new one.
+            Schedule2 updated = lockService.callWithLock(Schedule2.class, study.getScheduleGuid(), () -> {
+                // this shouldn't come back null if it's set in the study, that would be strange.
+                Schedule2 existing = dao.getSchedule(schedule.getAppId(), study.getScheduleGuid()).orElse(null);
+                if (existing == null) {
+                    return null;
+                }
+                // This is an interesting bug that probably exists in the updateSchedule call and 
+                // will need to be fixed. It's possible to submit the schedule for another study,
+                // with keys and all, to the update API, and at some point we have to check that
+                // we're talking about the same object.
+                schedule.setGuid(study.getScheduleGuid());
+                Schedule2 retValue = updateSchedule(study, existing, schedule);
+                
+                studyService.updateStudyEtags(study.getAppId(), retValue.getGuid(), retValue.getModifiedOn());
+                return retValue;
+            });
+            if (updated != null) {
+                return updated;
+            }
         }
-        schedule = createSchedule(study, schedule);
-        study.setScheduleGuid(schedule.getGuid());
-        studyService.updateStudy(schedule.getAppId(), study);
+        Schedule2 created = createSchedule(study, schedule);
+        study.setScheduleGuid(created.getGuid());
+        studyService.updateStudy(created.getAppId(), study);
         
-        studyService.updateStudyEtags(study.getAppId(), schedule.getGuid(), schedule.getModifiedOn());
+        studyService.updateStudyEtags(study.getAppId(), created.getGuid(), created.getModifiedOn());
         
-        return schedule;
+        return created;
     }
     
     /**
@@ -251,7 +259,8 @@ public class Schedule2Service {
     
     /**
      * Update a schedule. Will throw an exception once the schedule is published. Ownership
-     * cannot be changed once a schedule is created.
+     * cannot be changed once a schedule is created. The caller holds the schedule's lock 
+     * from the time it read the existing schedule.
      */
     protected Schedule2 updateSchedule(Study study, Schedule2 existing, Schedule2 schedule) {
         checkNotNull(existing);
@@ -284,22 +293,24 @@ public class Schedule2Service {
      */
     public Schedule2 publishSchedule(String appId, String guid) {
         
-        Schedule2 existing = dao.getSchedule(appId, guid)
-                .orElseThrow(() -> new EntityNotFoundException(Schedule2.class));
-        
-        CAN_EDIT_SCHEDULES.checkAndThrow(ORG_ID, existing.getOwnerId());    
-        if (existing.isDeleted()) {
-            throw new EntityNotFoundException(Schedule2.class);
-        }
-        if (existing.isPublished()) {
-            throw new PublishedEntityException(existing);
-        }
-        existing.setPublished(true);
-        existing.setModifiedOn(getModifiedOn());
-        
-        studyService.updateStudyEtags(appId, guid, existing.getModifiedOn());
-        
-        return dao.updateSchedule(existing);
+        return lockService.callWithLock(Schedule2.class, guid, () -> {
+            Schedule2 existing = dao.getSchedule(appId, guid)
+                    .orElseThrow(() -> new EntityNotFoundException(Schedule2.class));
+            
+            CAN_EDIT_SCHEDULES.checkAndThrow(ORG_ID, existing.getOwnerId());    
+            if (existing.isDeleted()) {
+                throw new EntityNotFoundException(Schedule2.class);
+            }
+            if (existing.isPublished()) {
+                throw new PublishedEntityException(existing);
+            }
+            existing.setPublished(true);
+            existing.setModifiedOn(getModifiedOn());
+            
+            studyService.updateStudyEtags(appId, guid, existing.getModifiedOn());
+            
+            return dao.updateSchedule(existing);
+        });
     }
     
     /**
@@ -310,16 +321,18 @@ public class Schedule2Service {
         checkNotNull(appId);
         checkNotNull(guid);
         
-        Schedule2 existing = dao.getSchedule(appId, guid)
-                .orElseThrow(() -> new EntityNotFoundException(Schedule2.class));
-        if (existing.isDeleted()) {
-            throw new EntityNotFoundException(Schedule2.class);
-        }
-        CAN_EDIT_SCHEDULES.checkAndThrow(ORG_ID, existing.getOwnerId());
-        
-        studyService.removeStudyEtags(appId, guid);
-        
-        dao.deleteSchedule(existing);
+        lockService.runWithLock(Schedule2.class, guid, () -> {
+            Schedule2 existing = dao.getSchedule(appId, guid)
+                    .orElseThrow(() -> new EntityNotFoundException(Schedule2.class));
+            if (existing.isDeleted()) {
+                throw new EntityNotFoundException(Schedule2.class);
+            }
+            CAN_EDIT_SCHEDULES.checkAndThrow(ORG_ID, existing.getOwnerId());
+            
+            studyService.removeStudyEtags(appId, guid);
+            
+            dao.deleteSchedule(existing);
+        });
     }
     
     /**
@@ -3,6 +3,7 @@ package org.sagebionetworks.bridge.services;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.Properties;
 
@@ -16,31 +17,37 @@ import javax.mail.internet.MimeMultipart;
 
 import org.sagebionetworks.bridge.RequestContext;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.OutboundMessage;
+import org.sagebionetworks.bridge.models.OutboundMessage.Channel;
 import org.sagebionetworks.bridge.services.email.MimeTypeEmail;
 import org.sagebionetworks.bridge.services.email.MimeTypeEmailProvider;
 
-import com.amazonaws.services.simpleemail.model.MessageRejectedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import com.amazonaws.AmazonClientException;
-import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.simpleemail.AmazonSimpleEmailService;
 import com.amazonaws.services.simpleemail.model.RawMessage;
 import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
-import com.amazonaws.services.simpleemail.model.SendRawEmailResult;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Charsets;
 
 @Component("sendEmailViaAmazonService")
-public class SendMailViaAmazonService implements SendMailService {
+public class SendMailViaAmazonService implements SendMailService, OutboundMessageSender {
 
     private static final Logger logger = LoggerFactory.getLogger(SendMailViaAmazonService.class);
     public static final String UNVERIFIED_EMAIL_ERROR = "Bridge cannot send email until you verify Amazon SES can send using your app's support email address";
+    static final String PAYLOAD_DESTINATION = "destination";
+    static final String PAYLOAD_RAW_MESSAGE = "rawMessage";
+    static final String PAYLOAD_SOURCE = "source";
+    static final String PAYLOAD_TYPE = "type";
 
     private AmazonSimpleEmailService emailClient;
     private EmailVerificationService emailVerificationService;
+    private OutboundMessageQueue outboundMessageQueue;
 
     @Autowired
     final void setEmailClient(AmazonSimpleEmailService emailClient) {
@@ -50,6 +57,11 @@ public class SendMailViaAmazonService implements SendMailService {
     final void setEmailVerificationService(EmailVerificationService emailVerificationService) {
         this.emailVerificationService = emailVerificationService;
     }
+    @Autowired
+    final void setOutboundMessageQueue(OutboundMessageQueue outboundMessageQueue) {
+        this.outboundMessageQueue = outboundMessageQueue;
+        outboundMessageQueue.setSender(Channel.EMAIL, this);
+    }
     
     @Override
     public void sendEmail(MimeTypeEmailProvider provider) {
@@ -58,25 +70,56 @@ public class SendMailViaAmazonService implements SendMailService {
             throw new BridgeServiceException(UNVERIFIED_EMAIL_ERROR);
         }
 
+        // The email is assembled now, and added to the outbox to be sent to SES in the background. SES rejects an
+        // email if the sender email is not verified in SES. In general, it's not useful to app users to receive a
+        // 500 Internal Error when this happens, so a rejected email, like any other failed send, is logged by the
+        // queue and not thrown.
         try {
             String fullSenderEmail = provider.getMimeTypeEmail().getSenderAddress();
             MimeTypeEmail email = provider.getMimeTypeEmail();
+            String appId = provider.getApp().getIdentifier();
             for (String recipient: email.getRecipientAddresses()) {
-                sendEmail(fullSenderEmail, recipient, email, provider.getApp().getIdentifier());
+                SendRawEmailRequest req = createRequest(fullSenderEmail, recipient, email);
+                ObjectNode payload = BridgeObjectMapper.get().createObjectNode();
+                payload.put(PAYLOAD_SOURCE, req.getSource());
+                payload.put(PAYLOAD_DESTINATION, recipient);
+                payload.put(PAYLOAD_RAW_MESSAGE, Base64.getEncoder().encodeToString(
+                        req.getRawMessage().getData().array()));
+                payload.put(PAYLOAD_TYPE, email.getType().name());
+
+                OutboundMessage message = new OutboundMessage();
+                message.setChannel(Channel.EMAIL);
+                message.setAppId(appId);
+                message.setDescription("email with type " + email.getType() + " for app " + appId);
+                message.setRecipient(new InternetAddress(recipient).getAddress());
+                message.setPayload(payload);
+                outboundMessageQueue.submit(message);
             }
-        } catch (MessageRejectedException ex) {
-            // This happens if the sender email is not verified in SES. In general, it's not useful to app users to
-            // receive a 500 Internal Error when this happens. Plus, if this exception gets thrown, the user session
-            // won't be updated properly, and really weird things happen. The best course of option is to log an error
-            // and swallow the exception.
-            logger.error("SES rejected email: " + ex.getMessage(), ex);
-        } catch(MessagingException | AmazonServiceException | IOException e) {
+        } catch(MessagingException | IOException e) {
             throw new BridgeServiceException(e);
         }
     }
 
-    private void sendEmail(String senderEmail, String recipient, MimeTypeEmail email, String appId)
-            throws AmazonClientException, MessagingException, IOException {
+    /** Builds the SES request from the outbox message, and sends it. */
+    @Override
+    public String send(OutboundMessage message) {
+        JsonNode payload = message.getPayload();
+        byte[] rawMessage = Base64.getDecoder().decode(payload.get(PAYLOAD_RAW_MESSAGE).textValue());
+        SendRawEmailRequest req = new SendRawEmailRequest(new RawMessage(ByteBuffer.wrap(rawMessage)));
+        req.setSource(payload.get(PAYLOAD_SOURCE).textValue());
+        req.setDestinations(Collections.singleton(payload.get(PAYLOAD_DESTINATION).textValue()));
+        return emailClient.sendRawEmail(req).getMessageId();
+    }
+
+    @Override
+    public void afterSend(OutboundMessage message, String messageId) {
+        String type = message.getPayload().get(PAYLOAD_TYPE).textValue();
+        logger.info("Sent email to SES with messageID " + messageId + " with type " + type + " for app " +
+                message.getAppId() + " and request " + RequestContext.get().getId());
+    }
+
+    private SendRawEmailRequest createRequest(String senderEmail, String recipient, MimeTypeEmail email)
+            throws MessagingException, IOException {
         
         Session mailSession = Session.getInstance(new Properties(), null);
         MimeMessage mimeMessage = new MimeMessage(mailSession);
@@ -100,10 +143,7 @@ public class SendMailViaAmazonService implements SendMailService {
         SendRawEmailRequest req = new SendRawEmailRequest(sesRawMessage);
         req.setSource(senderEmail);
         req.setDestinations(Collections.singleton(recipient));
-        SendRawEmailResult result = emailClient.sendRawEmail(req);
-
-        logger.info("Sent email to SES with messageID " + result.getMessageId() + " with type " +
-                        email.getType() + " for app " + appId + " and request " + RequestContext.get().getId());
+        return req;
     }
     
 }
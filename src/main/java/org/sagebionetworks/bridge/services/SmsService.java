@@ -4,15 +4,20 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Resource;
 
 import com.amazonaws.services.sns.AmazonSNS;
 import com.amazonaws.services.sns.model.CheckIfPhoneNumberIsOptedOutRequest;
 import com.amazonaws.services.sns.model.CheckIfPhoneNumberIsOptedOutResult;
+import com.amazonaws.services.sns.model.MessageAttributeValue;
 import com.amazonaws.services.sns.model.OptInPhoneNumberRequest;
-import com.amazonaws.services.sns.model.PublishResult;
+import com.amazonaws.services.sns.model.PublishRequest;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableList;
 import org.apache.commons.lang3.StringUtils;
@@ -29,6 +34,10 @@ import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.OutboundMessage;
+import org.sagebionetworks.bridge.models.OutboundMessage.Channel;
+import org.sagebionetworks.bridge.models.accounts.Account;
+import org.sagebionetworks.bridge.models.accounts.AccountId;
 import org.sagebionetworks.bridge.models.accounts.Phone;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.apps.App;
@@ -46,7 +55,7 @@ import org.sagebionetworks.bridge.validators.Validate;
 
 /** Service for handling SMS metadata (opt-outs, message logging) and for handling webhooks for receiving SMS. */
 @Component
-public class SmsService {
+public class SmsService implements OutboundMessageSender {
     private static final Logger LOG = LoggerFactory.getLogger(SmsService.class);
 
     static final String BRIDGE_SERVER_APP_VERSION = "Bridge Server";
@@ -57,17 +66,34 @@ public class SmsService {
     static final String MESSAGE_LOG_SCHEMA_ID = "sms-messages-sent-from-bridge";
     static final String MESSAGE_LOG_SCHEMA_NAME = "SMS Messages Sent From Bridge";
     static final int MESSAGE_LOG_SCHEMA_REV = 1;
+    static final String PAYLOAD_DATA_TYPE = "dataType";
+    static final String PAYLOAD_MESSAGE = "message";
+    static final String PAYLOAD_MESSAGE_ATTRIBUTES = "messageAttributes";
+    static final String PAYLOAD_PHONE_NUMBER = "phoneNumber";
+    static final String PAYLOAD_SMS_TYPE = "smsType";
+    static final String PAYLOAD_STRING_VALUE = "stringValue";
+    static final String PAYLOAD_USER_ID = "userId";
 
     // mPower 2.0 study burst notifications can be fairly long. The longest one has 230 chars of fixed content, an app
     // url that's 53 characters long, and some freeform text that can be potentially 255 characters long, for a total
     // of 538 characters. Round to a nice round 600 characters (about 4.5 SMS messages, if broken up).
     public static final int SMS_CHARACTER_LIMIT = 600;
 
+    private AccountService accountService;
     private HealthDataService healthDataService;
     private SmsMessageDao messageDao;
     private ParticipantService participantService;
     private UploadSchemaService schemaService;
     private AmazonSNS snsClient;
+    private AppService appService;
+    private OutboundMessageQueue outboundMessageQueue;
+    private SystemResourceRegistry systemResourceRegistry;
+
+    /** Account service, used to load the recipient's account when logging a sent message. */
+    @Autowired
+    public final void setAccountService(AccountService accountService) {
+        this.accountService = accountService;
+    }
 
     /** Health data service, used to submit SMS message logs as health data. */
     @Autowired
@@ -81,6 +107,12 @@ public class SmsService {
         this.messageDao = messageDao;
     }
 
+    /** App service, used to load the app when logging a sent message. */
+    @Autowired
+    public final void setAppService(AppService appService) {
+        this.appService = appService;
+    }
+
     /** Participant service. */
     @Autowired
     public final void setParticipantService(ParticipantService participantService) {
@@ -99,15 +131,29 @@ public class SmsService {
         this.snsClient = snsClient;
     }
 
+    /** Registry of system-owned resources, which records that the message log schema exists in each app. */
+    @Autowired
+    public final void setSystemResourceRegistry(SystemResourceRegistry systemResourceRegistry) {
+        this.systemResourceRegistry = systemResourceRegistry;
+    }
+
+    /** Outbound message queue, which sends the SMS through SNS in the background. This service is its SMS sender. */
+    @Autowired
+    public final void setOutboundMessageQueue(OutboundMessageQueue outboundMessageQueue) {
+        this.outboundMessageQueue = outboundMessageQueue;
+        outboundMessageQueue.setSender(Channel.SMS, this);
+    }
+
     /**
      * Sends an SMS message using the given message provider. User ID is used to fetch the account, so we can get
      * health code and time zone and other relevant attributes to log and record as health data. If the recipient
-     * doesn't have an account (for example, for Intent-to-Participate), this can be left null.
+     * doesn't have an account (for example, for Intent-to-Participate), this can be left null. The message is added
+     * to the outbox, and sent and logged in the background, so errors from SNS and from logging are not thrown to the
+     * caller.
      */
     public void sendSmsMessage(String userId, SmsMessageProvider provider) {
         checkNotNull(provider);
         App app = provider.getApp();
-        Phone recipientPhone = provider.getPhone();
         String message = provider.getFormattedMessage();
 
         // Check max SMS length.
@@ -115,28 +161,80 @@ public class SmsService {
             throw new BridgeServiceException("SMS message cannot be longer than 600 UTF-8/ASCII characters.");
         }
 
-        // Send SMS.
-        String messageId;
-        PublishResult result = snsClient.publish(provider.getSmsRequest());
-        messageId = result.getMessageId();
+        // The outbox holds the parts of the SNS request, and what we need to log the message once it has been sent.
+        PublishRequest request = provider.getSmsRequest();
+        ObjectNode payload = BridgeObjectMapper.get().createObjectNode();
+        payload.put(PAYLOAD_PHONE_NUMBER, request.getPhoneNumber());
+        payload.put(PAYLOAD_MESSAGE, request.getMessage());
+        ObjectNode attributesNode = payload.putObject(PAYLOAD_MESSAGE_ATTRIBUTES);
+        for (Map.Entry<String, MessageAttributeValue> entry : request.getMessageAttributes().entrySet()) {
+            ObjectNode attributeNode = attributesNode.putObject(entry.getKey());
+            attributeNode.put(PAYLOAD_DATA_TYPE, entry.getValue().getDataType());
+            attributeNode.put(PAYLOAD_STRING_VALUE, entry.getValue().getStringValue());
+        }
+        payload.put(PAYLOAD_SMS_TYPE, provider.getSmsTypeEnum().name());
+        payload.put(PAYLOAD_USER_ID, userId);
+
+        OutboundMessage outboundMessage = new OutboundMessage();
+        outboundMessage.setChannel(Channel.SMS);
+        outboundMessage.setAppId(app.getIdentifier());
+        outboundMessage.setDescription("SMS message " + provider.getSmsType() + " for app " + app.getIdentifier());
+        outboundMessage.setRecipient(request.getPhoneNumber());
+        outboundMessage.setPayload(payload);
+        outboundMessageQueue.submit(outboundMessage);
+    }
 
-        LOG.info("Sent SMS message, app=" + app.getIdentifier() + ", message ID=" + messageId + ", request ID=" +
+    /** Builds the SNS request from the outbox message, and sends it. */
+    @Override
+    public String send(OutboundMessage outboundMessage) {
+        JsonNode payload = outboundMessage.getPayload();
+        Map<String, MessageAttributeValue> attributes = new HashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> attributeIterator = payload.get(PAYLOAD_MESSAGE_ATTRIBUTES).fields();
+        while (attributeIterator.hasNext()) {
+            Map.Entry<String, JsonNode> entry = attributeIterator.next();
+            attributes.put(entry.getKey(), new MessageAttributeValue()
+                    .withDataType(entry.getValue().get(PAYLOAD_DATA_TYPE).textValue())
+                    .withStringValue(entry.getValue().get(PAYLOAD_STRING_VALUE).textValue()));
+        }
+        PublishRequest request = new PublishRequest()
+                .withPhoneNumber(payload.get(PAYLOAD_PHONE_NUMBER).textValue())
+                .withMessage(payload.get(PAYLOAD_MESSAGE).textValue())
+                .withMessageAttributes(attributes);
+        return snsClient.publish(request).getMessageId();
+    }
+
+    /** Logs the sent message, and records it as health data if the recipient has an account. */
+    @Override
+    public void afterSend(OutboundMessage outboundMessage, String messageId) {
+        JsonNode payload = outboundMessage.getPayload();
+        String appId = outboundMessage.getAppId();
+        String phoneNumber = payload.get(PAYLOAD_PHONE_NUMBER).textValue();
+        String message = payload.get(PAYLOAD_MESSAGE).textValue();
+        SmsType smsType = SmsType.valueOf(payload.get(PAYLOAD_SMS_TYPE).textValue());
+        JsonNode userIdNode = payload.get(PAYLOAD_USER_ID);
+        String userId = (userIdNode == null || userIdNode.isNull()) ? null : userIdNode.textValue();
+        LOG.info("Sent SMS message, app=" + appId + ", message ID=" + messageId + ", request ID=" +
                 RequestContext.get().getId());
 
         // Log SMS message.
         DateTime sentOn = DateTime.now();
         SmsMessage smsMessage = SmsMessage.create();
-        smsMessage.setPhoneNumber(recipientPhone.getNumber());
+        smsMessage.setPhoneNumber(phoneNumber);
         smsMessage.setSentOn(sentOn.getMillis());
         smsMessage.setMessageBody(message);
         smsMessage.setMessageId(messageId);
-        smsMessage.setSmsType(provider.getSmsTypeEnum());
-        smsMessage.setAppId(app.getIdentifier());
+        smsMessage.setSmsType(smsType);
+        smsMessage.setAppId(appId);
 
-        // Fetch participant, if it exists.
+        // Fetch participant, if it exists. The message is usually logged in the background, where there is no caller,
+        // so the account is loaded without checking the caller's access to it.
         StudyParticipant participant = null;
         if (userId != null) {
-            participant = participantService.getParticipant(app, userId, false);
+            Account account = accountService.getAccountNoFilter(AccountId.forId(appId, userId)).orElse(null);
+            if (account != null) {
+                App app = appService.getApp(appId);
+                participant = participantService.getParticipant(app, account, false);
+            }
         }
 
         // Finish logging SMS message.
@@ -148,7 +246,8 @@ public class SmsService {
 
         // If we have a participant, make a health data.
         if (participant != null) {
-            initMessageLogSchema(app.getIdentifier());
+            String schemaResourceKey = UploadSchemaService.getSchemaResourceKey(MESSAGE_LOG_SCHEMA_ID);
+            systemResourceRegistry.ensureExists(appId, schemaResourceKey, () -> initMessageLogSchema(appId));
 
             // Set sentOn w/ user's time zone, if it exists.
             DateTime sentOnWithTimeZone;
@@ -161,7 +260,7 @@ public class SmsService {
             // Create health data.
             ObjectNode healthDataNode = BridgeObjectMapper.get().createObjectNode();
             healthDataNode.put(FIELD_NAME_SENT_ON, sentOnWithTimeZone.toString());
-            healthDataNode.put(FIELD_NAME_SMS_TYPE, provider.getSmsType());
+            healthDataNode.put(FIELD_NAME_SMS_TYPE, smsType.getValue());
             healthDataNode.put(FIELD_NAME_MESSAGE_BODY, message);
 
             // Health Data Service requires app version and phone info. However, this health data is submitted by
@@ -171,14 +270,15 @@ public class SmsService {
                     .withCreatedOn(sentOnWithTimeZone).withSchemaId(MESSAGE_LOG_SCHEMA_ID)
                     .withSchemaRevision(MESSAGE_LOG_SCHEMA_REV).withData(healthDataNode).build();
             try {
-                healthDataService.submitHealthData(app.getIdentifier(), participant, healthData);
+                healthDataService.submitHealthData(appId, participant, healthData);
             } catch (IOException | UploadValidationException ex) {
                 throw new BridgeServiceException(ex);
             }
         }
     }
 
-    // Helper method to init the SMS log schema for the app.
+    // Helper method to init the SMS log schema for the app. This is called through the SystemResourceRegistry, at most
+    // once an hour per app per server, so a schema deleted through another server is recreated within the hour.
     private void initMessageLogSchema(String appId) {
         // See if schema already exists.
         UploadSchema existingSchema = null;
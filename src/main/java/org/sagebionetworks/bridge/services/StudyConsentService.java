@@ -22,6 +22,8 @@ import com.amazonaws.services.s3.model.CannedAccessControlList;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.google.common.base.Stopwatch;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 
 import org.apache.commons.io.IOUtils;
@@ -43,6 +45,7 @@ import org.sagebionetworks.bridge.models.subpopulations.StudyConsentView;
 import org.sagebionetworks.bridge.models.subpopulations.Subpopulation;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 import org.sagebionetworks.bridge.s3.S3Helper;
+import org.sagebionetworks.bridge.util.ParsedTemplate;
 import org.sagebionetworks.bridge.validators.StudyConsentValidator;
 import org.sagebionetworks.bridge.validators.Validate;
 import org.slf4j.Logger;
@@ -92,6 +95,13 @@ public class StudyConsentService {
     // Documented to be threat-safe
     private static final CharSequenceTranslator XML_ESCAPER = StringEscapeUtils.ESCAPE_XML11;
     
+    // The content of a consent version never changes once it is written to S3, so documents are cached by version
+    // (subpopulation and createdOn) without an expiry, and already parsed for their template variables.
+    static final long DOCUMENT_CACHE_MAX_SIZE = 1000;
+    
+    private final Cache<String, ParsedTemplate> documentCache = CacheBuilder.newBuilder()
+            .maximumSize(DOCUMENT_CACHE_MAX_SIZE).build();
+    
     private Validator validator;
     private StudyConsentDao studyConsentDao;
     private SubpopulationService subpopService;
@@ -99,11 +109,12 @@ public class StudyConsentService {
     private S3Helper s3Helper;
     private String consentsBucket = BridgeConfigFactory.getConfig().getConsentsBucket();
     private String publicationsBucket = BridgeConfigFactory.getConfig().getHostnameWithPostfix("docs");
-    private String fullPageTemplate;
+    private ParsedTemplate fullPageTemplate;
     
     @Value("classpath:conf/app-defaults/consent-page.xhtml")
     final void setConsentTemplate(org.springframework.core.io.Resource resource) throws IOException {
-        this.fullPageTemplate = IOUtils.toString(resource.getInputStream(), StandardCharsets.UTF_8);
+        this.fullPageTemplate = ParsedTemplate.parse(
+                IOUtils.toString(resource.getInputStream(), StandardCharsets.UTF_8));
     }
     @Autowired
     final void setValidator(StudyConsentValidator validator) {
@@ -166,7 +177,9 @@ public class StudyConsentService {
                     " ms");
 
             StudyConsent consent = studyConsentDao.addConsent(subpopGuid, storagePath, createdOn);
-            return new StudyConsentView(consent, sanitizedContent);
+            ParsedTemplate document = ParsedTemplate.parse(sanitizedContent);
+            documentCache.put(getDocumentCacheKey(consent), document);
+            return new StudyConsentView(consent, document);
         } catch(Throwable t) {
             throw new BridgeServiceException(t);
         }
@@ -181,6 +194,7 @@ public class StudyConsentService {
         for (StudyConsent consent : consentList) {
             studyConsentDao.deleteConsentPermanently(consent);
             s3Client.deleteObject(consentsBucket, consent.getStoragePath());
+            documentCache.invalidate(getDocumentCacheKey(consent));
         }
 
         // We need to delete from the publications bucket.
@@ -215,8 +229,8 @@ public class StudyConsentService {
         if (consent == null) {
             throw new EntityNotFoundException(StudyConsent.class);
         }
-        String documentContent = loadDocumentContent(consent);
-        return new StudyConsentView(consent, documentContent);
+        ParsedTemplate document = loadDocument(consent);
+        return new StudyConsentView(consent, document);
     }
 
     /**
@@ -250,8 +264,8 @@ public class StudyConsentService {
         if (consent == null) {
             throw new EntityNotFoundException(StudyConsent.class);
         }
-        String documentContent = loadDocumentContent(consent);
-        return new StudyConsentView(consent, documentContent);
+        ParsedTemplate document = loadDocument(consent);
+        return new StudyConsentView(consent, document);
     }
 
     /**
@@ -276,9 +290,9 @@ public class StudyConsentService {
             throw new EntityNotFoundException(StudyConsent.class);
         }
         // Only if we can publish the document, do we mark it as published in the database.
-        String documentContent = loadDocumentContent(consent);
+        ParsedTemplate document = loadDocument(consent);
         try {
-            publishFormatsToS3(app, subpop.getGuid(), documentContent);
+            publishFormatsToS3(app, subpop.getGuid(), document);
             
             subpop.setPublishedConsentCreatedOn(timestamp);
             subpopService.updateSubpopulation(app, subpop);
@@ -286,7 +300,27 @@ public class StudyConsentService {
         } catch(IOException | DocumentException | XRRuntimeException e) {
             throw new BridgeServiceException(e.getMessage());
         }
-        return new StudyConsentView(consent, documentContent);
+        return new StudyConsentView(consent, document);
+    }
+    
+    private ParsedTemplate loadDocument(StudyConsent consent) {
+        String cacheKey = getDocumentCacheKey(consent);
+        ParsedTemplate document = documentCache.getIfPresent(cacheKey);
+        if (document == null) {
+            // Add a signature block if this document does not contain one.
+            document = ParsedTemplate.parse(appendSignatureBlockIfNeeded(loadDocumentContent(consent)));
+            documentCache.put(cacheKey, document);
+        }
+        return document;
+    }
+    
+    private static String getDocumentCacheKey(StudyConsent consent) {
+        return consent.getSubpopulationGuid() + ":" + consent.getCreatedOn();
+    }
+    
+    // Package-scoped for unit tests.
+    void clearDocumentCache() {
+        documentCache.invalidateAll();
     }
     
     private String loadDocumentContent(StudyConsent consent) {
@@ -296,8 +330,7 @@ public class StudyConsentService {
             logger.info("Finished reading consent from bucket " + consentsBucket + " storagePath " +
                     consent.getStoragePath() + " (" + content.length() + " chars) in " +
                     stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
-            // Add a signature block if this document does not contain one.
-            return appendSignatureBlockIfNeeded(content);
+            return content;
         } catch(IOException ioe) {
             logger.error("Failure loading storagePath: " + consent.getStoragePath());
             throw new BridgeServiceException(ioe);
@@ -314,13 +347,13 @@ public class StudyConsentService {
         return content;
     }
     
-    private void publishFormatsToS3(App app, SubpopulationGuid subpopGuid, String bodyTemplate) throws DocumentException, IOException {
+    private void publishFormatsToS3(App app, SubpopulationGuid subpopGuid, ParsedTemplate bodyTemplate) throws DocumentException, IOException {
         Map<String,String> map = BridgeUtils.appTemplateVariables(app, (value) -> XML_ESCAPER.translate(value));
         map.putAll(SIGNATURE_BLOCK_VARS);
-        String resolvedHTML = BridgeUtils.resolveTemplate(bodyTemplate, map);
+        String resolvedHTML = bodyTemplate.resolve(map);
 
         map.put("consent.body", resolvedHTML);
-        resolvedHTML = BridgeUtils.resolveTemplate(fullPageTemplate, map);
+        resolvedHTML = fullPageTemplate.resolve(map);
 
         String key = subpopGuid.getGuid() + CONSENT_HTML_SUFFIX;
         byte[] bytes = resolvedHTML.getBytes(Charset.forName(("UTF-8")));
@@ -0,0 +1,79 @@
+package org.sagebionetworks.bridge.services;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.time.DateUtils;
+
+/**
+ * Records which system-owned resources exist in each app, such as the upload schemas that Bridge writes its own
+ * health data to. A service that needs such a resource calls ensureExists() with an initializer that reads the
+ * resource and creates it if it is missing. The initializer runs once per app per server, and later calls do no I/O.
+ * Callers for the same resource wait for the first initializer to finish. If the initializer throws, nothing is
+ * recorded, and the next call runs it again.
+ *
+ * The record is kept in memory on each server. UploadSchemaService invalidates the record when it deletes a schema,
+ * but only on the server that handled the delete. Other servers can't tell that the resource is gone, so each record
+ * expires after an hour, and the next call runs the initializer again to read (and if needed, recreate) the resource.
+ */
+@Component
+public class SystemResourceRegistry {
+
+    static final long EXPIRE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    // Maps each resource that is known to exist to the time (epoch milliseconds) when the record expires.
+    private final ConcurrentMap<String, Long> existingResources = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Object> initLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the initializer, unless it has already completed on this server for this app and resource within the last
+     * hour. The resource key identifies the resource within the app, for example
+     * "uploadSchema:sms-messages-sent-from-bridge".
+     */
+    public void ensureExists(String appId, String resourceKey, Runnable initializer) {
+        checkNotNull(initializer);
+        String key = getKey(appId, resourceKey);
+        if (isRecorded(key)) {
+            return;
+        }
+        synchronized (initLocks.computeIfAbsent(key, k -> new Object())) {
+            if (!isRecorded(key)) {
+                initializer.run();
+                existingResources.put(key, DateUtils.getCurrentMillisFromEpoch() + EXPIRE_MILLIS);
+            }
+        }
+    }
+
+    /** Forgets that the resource exists, so the next call to ensureExists() runs its initializer. */
+    public void invalidate(String appId, String resourceKey) {
+        existingResources.remove(getKey(appId, resourceKey));
+    }
+
+    /** Forgets every resource in the app, for example when all of the app's schemas are deleted. */
+    public void invalidateApp(String appId) {
+        checkNotNull(appId);
+        String prefix = appId + ":";
+        existingResources.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    // Package-scoped for unit tests.
+    boolean isKnownToExist(String appId, String resourceKey) {
+        return isRecorded(getKey(appId, resourceKey));
+    }
+
+    private boolean isRecorded(String key) {
+        Long expiresOn = existingResources.get(key);
+        return expiresOn != null && expiresOn > DateUtils.getCurrentMillisFromEpoch();
+    }
+
+    private static String getKey(String appId, String resourceKey) {
+        checkNotNull(appId);
+        checkNotNull(resourceKey);
+        return appId + ":" + resourceKey;
+    }
+}
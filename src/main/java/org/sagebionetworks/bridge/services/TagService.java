@@ -1,28 +1,101 @@
 package org.sagebionetworks.bridge.services;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.common.base.Stopwatch;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.dao.TagDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.hibernate.TagEventListener;
+import org.sagebionetworks.bridge.models.TagCacheStatus;
+import org.sagebionetworks.bridge.models.TagUtils;
 
+/**
+ * Tags are read from a set of tag values cached in Redis, which TagEventListener keeps up to date as tags are 
+ * written. The set includes a marker value once it has been loaded in full from the database, because the listener
+ * adds saved tags to the set whether or not it exists. A set without the marker is reloaded. The set also expires, 
+ * which bounds how long a tag that was deleted while the set was being reloaded can remain in it.
+ */
 @Component
 public class TagService {
     
+    // Tag values can't be blank, so this can't collide with a tag.
+    static final String LOADED_MARKER = "";
+    static final int TAG_CACHE_EXPIRE_SECONDS = 60*60;
+    
     TagDao tagDao;
     
+    private CacheProvider cacheProvider;
+    private TagEventListener tagEventListener;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong reloadCount = new AtomicLong();
+    private final AtomicLong totalReloadMillis = new AtomicLong();
+    private volatile long lastReloadMillis;
+    private volatile int lastReloadTagCount;
+    
     @Autowired
     final void setTagDao(TagDao tagDao) {
         this.tagDao = tagDao;
     }
+    
+    @Autowired
+    final void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
+    
+    @Autowired
+    final void setTagEventListener(TagEventListener tagEventListener) {
+        this.tagEventListener = tagEventListener;
+    }
 
     public Map<String, List<String>> getTags() {
-        return tagDao.getTags();
+        Set<String> cachedValues = cacheProvider.getSetMembers(CacheKey.tagValues());
+        if (cachedValues.contains(LOADED_MARKER)) {
+            hitCount.incrementAndGet();
+            Set<String> tagValues = new TreeSet<>(cachedValues);
+            tagValues.remove(LOADED_MARKER);
+            return TagUtils.toCategoryMap(tagValues);
+        }
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        List<String> tagValues = tagDao.getTagValues();
+        long elapsedMillis = stopwatch.elapsed(MILLISECONDS);
+        
+        reloadCount.incrementAndGet();
+        totalReloadMillis.addAndGet(elapsedMillis);
+        lastReloadMillis = elapsedMillis;
+        lastReloadTagCount = tagValues.size();
+        
+        String[] members = tagValues.toArray(new String[tagValues.size() + 1]);
+        members[tagValues.size()] = LOADED_MARKER;
+        cacheProvider.addSetMembers(CacheKey.tagValues(), members);
+        cacheProvider.setExpiration(CacheKey.tagValues(), TAG_CACHE_EXPIRE_SECONDS);
+        
+        return TagUtils.toCategoryMap(new TreeSet<>(tagValues));
+    }
+    
+    /** Returns a snapshot of the tag cache counters on this server. */
+    public TagCacheStatus getTagCacheStatus() {
+        TagCacheStatus status = new TagCacheStatus();
+        status.setHitCount(hitCount.get());
+        status.setReloadCount(reloadCount.get());
+        status.setTotalReloadMillis(totalReloadMillis.get());
+        status.setLastReloadMillis(lastReloadMillis);
+        status.setLastReloadTagCount(lastReloadTagCount);
+        status.setAddedCount(tagEventListener.getAddedCount());
+        status.setUnchangedCount(tagEventListener.getUnchangedCount());
+        status.setInvalidationCount(tagEventListener.getInvalidationCount());
+        return status;
     }
     
     public void addTag(String tagValue) {
@@ -43,6 +43,7 @@ import org.sagebionetworks.bridge.validators.Validate;
 public class UploadSchemaService {
     private SharedModuleMetadataService sharedModuleMetadataService;
     private UploadSchemaDao uploadSchemaDao;
+    private SystemResourceRegistry systemResourceRegistry;
 
     /** DAO for upload schemas. This is configured by Spring. */
     @Autowired
@@ -55,6 +56,20 @@ public class UploadSchemaService {
         this.sharedModuleMetadataService = sharedModuleMetadataService;
     }
 
+    /** Registry of system-owned schemas, which is told when a schema is deleted. */
+    @Autowired
+    public final void setSystemResourceRegistry(SystemResourceRegistry systemResourceRegistry) {
+        this.systemResourceRegistry = systemResourceRegistry;
+    }
+
+    /**
+     * The key of an upload schema in the SystemResourceRegistry, for services that create their own schemas. Deleting
+     * any revision of the schema invalidates the key.
+     */
+    public static String getSchemaResourceKey(String schemaId) {
+        return "uploadSchema:" + schemaId;
+    }
+
     /**
      * Creates a schema revision using the new V4 semantics. The schema ID and revision will be taken from the
      * UploadSchema object. If the revision isn't specified, we'll get the latest schema rev for the schema ID and use
@@ -220,6 +235,7 @@ public class UploadSchemaService {
 
         List<UploadSchema> schemaList = getSchemaRevisionsForDelete(appId, schemaId);
         uploadSchemaDao.deleteUploadSchemas(schemaList);
+        systemResourceRegistry.invalidate(appId, getSchemaResourceKey(schemaId));
     }
 
     public void deleteUploadSchemaByIdPermanently(String appId, String schemaId) {
@@ -227,6 +243,7 @@ public class UploadSchemaService {
 
         List<UploadSchema> schemaList = getSchemaRevisionsForDelete(appId, schemaId);
         uploadSchemaDao.deleteUploadSchemasPermanently(schemaList);
+        systemResourceRegistry.invalidate(appId, getSchemaResourceKey(schemaId));
     }
 
     protected List<UploadSchema> getSchemaRevisionsForDelete(String appId, String schemaId) {
@@ -260,7 +277,8 @@ public class UploadSchemaService {
         if (schema == null || schema.isDeleted()) {
             throw new EntityNotFoundException(UploadSchema.class);
         }
-        uploadSchemaDao.deleteUploadSchemas(ImmutableList.of(schema));    
+        uploadSchemaDao.deleteUploadSchemas(ImmutableList.of(schema));
+        systemResourceRegistry.invalidate(appId, getSchemaResourceKey(schemaId));
     }
     
     public void deleteUploadSchemaByIdAndRevisionPermanently(String appId, String schemaId, int rev) {
@@ -270,7 +288,8 @@ public class UploadSchemaService {
         if (schema == null) {
             throw new EntityNotFoundException(UploadSchema.class);
         }
-        uploadSchemaDao.deleteUploadSchemasPermanently(ImmutableList.of(schema));    
+        uploadSchemaDao.deleteUploadSchemasPermanently(ImmutableList.of(schema));
+        systemResourceRegistry.invalidate(appId, getSchemaResourceKey(schemaId));
     }
 
     /** Returns all revisions of all schemas. */
@@ -282,6 +301,7 @@ public class UploadSchemaService {
     public void deleteAllUploadSchemasAllRevisionsPermanently(String appId) {
         List<UploadSchema> schemaList = uploadSchemaDao.getAllUploadSchemasAllRevisions(appId, true);
         uploadSchemaDao.deleteUploadSchemasPermanently(schemaList);
+        systemResourceRegistry.invalidateApp(appId);
     }
 
     /** Service handler for fetching the most recent revision of all upload schemas in a app. */
@@ -30,6 +30,7 @@ import javax.annotation.Resource;
 import com.amazonaws.HttpMethod;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.sqs.AmazonSQS;
@@ -41,6 +42,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 
@@ -106,6 +108,8 @@ public class UploadService {
     static final String METADATA_KEY_INSTANCE_GUID = "instanceGuid";
     static final String METADATA_KEY_STARTED_ON = "startedOn";
     static final String WORKER_NAME_UPLOAD_REDRIVE = "UploadRedriveWorker";
+    // S3 deletes at most 1000 objects in one request.
+    static final int MAX_S3_DELETE_BATCH_SIZE = 1000;
 
     private AccountService accountService;
     private AdherenceService adherenceService;
@@ -651,15 +655,18 @@ public class UploadService {
     public void deleteUploadsForHealthCode(String healthCode) {
         checkArgument(isNotBlank(healthCode));
 
-        // Delete from DynamoDB.
-        List<String> uploadIdList = uploadDao.deleteUploadsForHealthCode(healthCode);
-
-        // Delete files from S3.
-        // If the file does not exist on S3, the s3Client will actually return success
-        // instead of an error message.
-        for (String uploadId : uploadIdList) {
-            s3Client.deleteObject(uploadBucket, uploadId);
+        // Delete files from S3 first, so that if this fails, the upload records are still there to find the files
+        // when the deletion is retried. If the file does not exist on S3, the s3Client will actually return success
+        // instead of an error message, so files deleted by an earlier attempt are not a problem.
+        List<String> uploadIdList = uploadDao.getUploadIdsForHealthCode(healthCode);
+        for (List<String> batch : Lists.partition(uploadIdList, MAX_S3_DELETE_BATCH_SIZE)) {
+            DeleteObjectsRequest request = new DeleteObjectsRequest(uploadBucket)
+                    .withKeys(batch.toArray(new String[batch.size()])).withQuiet(true);
+            s3Client.deleteObjects(request);
         }
+
+        // Delete from DynamoDB.
+        uploadDao.deleteUploadsForHealthCode(healthCode);
     }
 
     /**
@@ -0,0 +1,365 @@
+package org.sagebionetworks.bridge.services;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.dao.UploadTableJobDao;
+import org.sagebionetworks.bridge.dao.UploadTableRowDao;
+import org.sagebionetworks.bridge.upload.UploadTableJob;
+import org.sagebionetworks.bridge.upload.UploadTableRow;
+import org.sagebionetworks.bridge.upload.UploadTableRowQuery;
+import org.sagebionetworks.bridge.util.S3MultipartOutputStream;
+
+/**
+ * Generates the zip file of upload table CSVs for a study in the server, as an alternative to sending the request to
+ * the worker, which reads the rows back a page at a time through the API. Rows are streamed from MySQL twice: once to
+ * find the columns of each assessment's CSV, and once to write the CSVs. The zip file is written to S3 with a
+ * multipart upload as it is generated. Only the column names and one upload part are held in memory, regardless of
+ * the number of rows in the study. Metadata columns are named "metadata.<key>" and data columns "data.<key>".
+ *
+ * Jobs run on a small pool of background threads. A thread count of zero disables the generator, and requests go to
+ * the worker.
+ */
+@Component
+public class UploadTableCsvGenerator {
+    private static final Logger LOG = LoggerFactory.getLogger(UploadTableCsvGenerator.class);
+
+    // Package-scoped for unit tests.
+    static final String CONFIG_KEY_THREAD_COUNT = "upload.table.csv.thread.count";
+    static final String CONFIG_KEY_MAX_PENDING = "upload.table.csv.max.pending";
+    static final String CONFIG_KEY_PART_SIZE_BYTES = "upload.table.csv.part.size.bytes";
+    static final String S3_KEY_FORMAT = "upload-tables/%s/%s/%s.zip";
+    static final long SHUTDOWN_WAIT_SECONDS = 30L;
+    static final int MAX_ATTEMPTS = 3;
+
+    // Every CSV starts with the row's own fields, followed by the row's metadata and then its data. Metadata and data
+    // columns are prefixed, so that a key that appears in both gets two columns that can be told apart.
+    static final List<String> COMMON_COLUMNS = ImmutableList.of("recordId", "assessmentGuid", "createdOn",
+            "testData", "healthCode", "participantVersion");
+    static final String METADATA_COLUMN_PREFIX = "metadata.";
+    static final String DATA_COLUMN_PREFIX = "data.";
+
+    // The metadata and data keys of an assessment's rows, which are the columns of the assessment's CSV.
+    private static final class CsvColumns {
+        private final Set<String> metadataKeys = new TreeSet<>();
+        private final Set<String> dataKeys = new TreeSet<>();
+
+        private void addRow(UploadTableRow row) {
+            metadataKeys.addAll(row.getMetadata().keySet());
+            dataKeys.addAll(row.getData().keySet());
+        }
+    }
+
+    private int threadCount;
+    private int maxPending;
+    private int partSize = S3MultipartOutputStream.MIN_PART_SIZE;
+    private String rawHealthDataBucket;
+    private AmazonS3 s3Client;
+    private UploadTableJobDao uploadTableJobDao;
+    private UploadTableRowDao uploadTableRowDao;
+    private ThreadPoolExecutor executor;
+    // The jobs that are queued or being generated on this server.
+    private final Set<String> heldJobGuids = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    final void setConfig(BridgeConfig config) {
+        this.threadCount = config.getPropertyAsInt(CONFIG_KEY_THREAD_COUNT);
+        this.maxPending = config.getPropertyAsInt(CONFIG_KEY_MAX_PENDING);
+        this.partSize = config.getPropertyAsInt(CONFIG_KEY_PART_SIZE_BYTES);
+        this.rawHealthDataBucket = config.getProperty(UploadTableService.CONFIG_KEY_RAW_HEALTH_DATA_BUCKET);
+    }
+
+    @Autowired
+    final void setS3Client(AmazonS3 s3Client) {
+        this.s3Client = s3Client;
+    }
+
+    @Autowired
+    final void setUploadTableJobDao(UploadTableJobDao uploadTableJobDao) {
+        this.uploadTableJobDao = uploadTableJobDao;
+    }
+
+    @Autowired
+    final void setUploadTableRowDao(UploadTableRowDao uploadTableRowDao) {
+        this.uploadTableRowDao = uploadTableRowDao;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (threadCount > 0) {
+            executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, MILLISECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, maxPending)), new ThreadFactoryBuilder()
+                            .setNameFormat("upload-table-csv-%d").setDaemon(true).build());
+        }
+    }
+
+    /** Stops taking jobs. Jobs that don't finish before shutdown are left in progress. */
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(SHUTDOWN_WAIT_SECONDS, SECONDS)) {
+                    LOG.error(executor.getActiveCount() + " upload table CSV jobs did not finish before shutdown");
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queues the job to be generated in the background. Returns false if the generator is disabled or already has as
+     * many jobs waiting as it allows, in which case the caller should send the job to the worker instead.
+     */
+    public boolean submit(UploadTableJob job) {
+        if (executor == null) {
+            return false;
+        }
+        heldJobGuids.add(job.getJobGuid());
+        try {
+            executor.execute(() -> generate(job));
+            return true;
+        } catch (RejectedExecutionException ex) {
+            heldJobGuids.remove(job.getJobGuid());
+            return false;
+        }
+    }
+
+    /**
+     * True if the job is queued or being generated on this server, however long it has taken, so that it is not
+     * mistaken for a lost job.
+     */
+    public boolean isHolding(String jobGuid) {
+        return heldJobGuids.contains(jobGuid);
+    }
+
+    /**
+     * Generates the zip file for the job, and updates the job as it goes: startedOn when it starts, and the status,
+     * S3 key and finishedOn when it succeeds or fails. Errors are logged and recorded in the job, not thrown.
+     */
+    // Package-scoped for unit tests.
+    void generate(UploadTableJob job) {
+        try {
+            generateJob(job);
+        } finally {
+            heldJobGuids.remove(job.getJobGuid());
+        }
+    }
+
+    private void generateJob(UploadTableJob job) {
+        String appId = job.getAppId();
+        String studyId = job.getStudyId();
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        job.setStartedOn(DateTime.now());
+        uploadTableJobDao.saveUploadTableJob(job);
+
+        try {
+            // Both passes read the rows created before the job started, so rows added while the job runs don't show
+            // up in the second pass only.
+            UploadTableRowQuery query = new UploadTableRowQuery();
+            query.setAppId(appId);
+            query.setStudyId(studyId);
+            query.setIncludeTestData(true);
+            query.setEndTime(job.getStartedOn());
+
+            // A row can still be rewritten between the passes with keys the first pass didn't see. The CSVs would
+            // be missing those columns, so the zip file is generated again.
+            String s3Key = String.format(S3_KEY_FORMAT, appId, studyId, job.getJobGuid());
+            int assessmentCount;
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    assessmentCount = writeZip(query, s3Key);
+                    break;
+                } catch (ColumnsChangedException ex) {
+                    if (attempt >= MAX_ATTEMPTS) {
+                        throw ex;
+                    }
+                    LOG.info("Regenerating upload table CSVs for app " + appId + " study " + studyId + " job " +
+                            job.getJobGuid() + ": " + ex.getMessage());
+                }
+            }
+
+            job.setS3Key(s3Key);
+            job.setStatus(UploadTableJob.Status.SUCCEEDED);
+            LOG.info("Generated upload table CSVs for app " + appId + " study " + studyId + " job " +
+                    job.getJobGuid() + " with " + assessmentCount + " assessments in " +
+                    stopwatch.elapsed(MILLISECONDS) + " ms");
+        } catch (IOException | RuntimeException ex) {
+            job.setStatus(UploadTableJob.Status.FAILED);
+            LOG.error("Error generating upload table CSVs for app " + appId + " study " + studyId + " job " +
+                    job.getJobGuid(), ex);
+        }
+
+        job.setFinishedOn(DateTime.now());
+        uploadTableJobDao.saveUploadTableJob(job);
+    }
+
+    // Streams the rows twice and writes the zip file to S3. Returns the number of assessments.
+    private int writeZip(UploadTableRowQuery query, String s3Key) throws IOException {
+        // First pass: the columns of each assessment's CSV.
+        Map<String, CsvColumns> columnsByAssessment = new HashMap<>();
+        uploadTableRowDao.streamUploadTableRows(query, row -> columnsByAssessment.computeIfAbsent(
+                row.getAssessmentGuid(), key -> new CsvColumns()).addRow(row));
+
+        // Second pass: write the CSVs. If anything fails, abort the upload so S3 doesn't keep the parts.
+        S3MultipartOutputStream s3Stream = new S3MultipartOutputStream(s3Client, rawHealthDataBucket, s3Key,
+                partSize);
+        try {
+            CsvZipWriter zipWriter = new CsvZipWriter(new ZipOutputStream(s3Stream), columnsByAssessment);
+            uploadTableRowDao.streamUploadTableRows(query, zipWriter::writeRow);
+            zipWriter.finish();
+            s3Stream.close();
+        } catch (IOException | RuntimeException ex) {
+            s3Stream.abort();
+            throw ex;
+        }
+        return columnsByAssessment.size();
+    }
+
+    // Thrown by the second pass when a row has a key that is not a column of its CSV.
+    private static final class ColumnsChangedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private ColumnsChangedException(String assessmentGuid) {
+            super("a row of assessment " + assessmentGuid + " changed between passes");
+        }
+    }
+
+    // Writes rows in (assessmentGuid, ...) order as CSVs in a zip file, one CSV per assessment.
+    private static final class CsvZipWriter {
+        private final ZipOutputStream zipStream;
+        private final Writer writer;
+        private final Map<String, CsvColumns> columnsByAssessment;
+        private String currentAssessmentGuid;
+        private CsvColumns currentColumns;
+
+        private CsvZipWriter(ZipOutputStream zipStream, Map<String, CsvColumns> columnsByAssessment) {
+            this.zipStream = zipStream;
+            this.writer = new BufferedWriter(new OutputStreamWriter(zipStream, UTF_8));
+            this.columnsByAssessment = columnsByAssessment;
+        }
+
+        private void writeRow(UploadTableRow row) {
+            try {
+                if (!row.getAssessmentGuid().equals(currentAssessmentGuid)) {
+                    startCsv(row);
+                }
+                if (!currentColumns.metadataKeys.containsAll(row.getMetadata().keySet()) ||
+                        !currentColumns.dataKeys.containsAll(row.getData().keySet())) {
+                    throw new ColumnsChangedException(currentAssessmentGuid);
+                }
+
+                List<String> valueList = new ArrayList<>();
+                valueList.add(row.getRecordId());
+                valueList.add(row.getAssessmentGuid());
+                valueList.add(row.getCreatedOn().toString());
+                valueList.add(String.valueOf(row.isTestData()));
+                valueList.add(row.getHealthCode());
+                valueList.add(row.getParticipantVersion() != null ? row.getParticipantVersion().toString() : null);
+                for (String key : currentColumns.metadataKeys) {
+                    valueList.add(row.getMetadata().get(key));
+                }
+                for (String key : currentColumns.dataKeys) {
+                    valueList.add(row.getData().get(key));
+                }
+                writeLine(valueList);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        private void startCsv(UploadTableRow row) throws IOException {
+            closeCsv();
+            currentAssessmentGuid = row.getAssessmentGuid();
+
+            // A row rewritten after the first pass may be the first row of its assessment. Its keys are its columns,
+            // and if a later row of the assessment has other keys, the zip file is generated again.
+            currentColumns = columnsByAssessment.get(currentAssessmentGuid);
+            if (currentColumns == null) {
+                currentColumns = new CsvColumns();
+                currentColumns.addRow(row);
+            }
+
+            zipStream.putNextEntry(new ZipEntry(currentAssessmentGuid + ".csv"));
+            List<String> headerList = new ArrayList<>(COMMON_COLUMNS);
+            for (String key : currentColumns.metadataKeys) {
+                headerList.add(METADATA_COLUMN_PREFIX + key);
+            }
+            for (String key : currentColumns.dataKeys) {
+                headerList.add(DATA_COLUMN_PREFIX + key);
+            }
+            writeLine(headerList);
+        }
+
+        private void closeCsv() throws IOException {
+            if (currentAssessmentGuid != null) {
+                writer.flush();
+                zipStream.closeEntry();
+            }
+        }
+
+        // Finishes the zip file without closing the underlying stream.
+        private void finish() throws IOException {
+            closeCsv();
+            zipStream.finish();
+        }
+
+        private void writeLine(List<String> valueList) throws IOException {
+            for (int i = 0; i < valueList.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(escapeCsv(valueList.get(i)));
+            }
+            writer.write("\r\n");
+        }
+    }
+
+    /** Escapes a CSV value as per RFC 4180. Null values are empty. */
+    // Package-scoped for unit tests.
+    static String escapeCsv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\r') < 0 &&
+                value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -28,6 +28,7 @@ import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.upload.UploadView;
 import org.sagebionetworks.bridge.models.worker.WorkerRequest;
@@ -49,14 +50,17 @@ public class UploadTableService {
     // Package-scoped for unit tests.
     static final String CONFIG_KEY_RAW_HEALTH_DATA_BUCKET = "health.data.bucket.raw";
     static final int DEDUPE_WINDOW_MINUTES = 5;
+    static final int STALE_JOB_HOURS = 24;
     static final int EXPIRATION_IN_DAYS = 7;
     static final String WORKER_NAME_UPLOAD_CSV = "UploadCsvWorker";
+    static final int MAX_ROW_BATCH_SIZE = 500;
 
     private BridgeConfig config;
     private String rawHealthDataBucket;
     private AmazonS3 s3Client;
     private AmazonSQS sqsClient;
     private StudyService studyService;
+    private UploadTableCsvGenerator uploadTableCsvGenerator;
     private UploadService uploadService;
     private UploadTableJobDao uploadTableJobDao;
     private UploadTableRowDao uploadTableRowDao;
@@ -82,6 +86,11 @@ public class UploadTableService {
         this.studyService = studyService;
     }
 
+    @Autowired
+    public final void setUploadTableCsvGenerator(UploadTableCsvGenerator uploadTableCsvGenerator) {
+        this.uploadTableCsvGenerator = uploadTableCsvGenerator;
+    }
+
     @Autowired
     public final void setUploadService(UploadService uploadService) {
         this.uploadService = uploadService;
@@ -112,6 +121,9 @@ public class UploadTableService {
             throw new EntityNotFoundException(UploadTableJob.class);
         }
 
+        // A job that was lost shows as failed, so the caller knows to request another.
+        failIfStale(tableJob);
+
         // Create a job result from the job.
         UploadTableJobResult result = UploadTableJobResult.fromJob(tableJob);
 
@@ -151,7 +163,9 @@ public class UploadTableService {
     /**
      * Request a zip file with CSVs of all uploads in this app and study. This includes test uploads. This will dedupe
      * requests within a 5-minute window. If no new uploads have been submitted to the app since the last CSV request,
-     * this will return the same job GUID as the last request.
+     * this will return the same job GUID as the last request. A failed job is never returned, and a job that has been
+     * waiting or running for more than a day, and is not held by this server, is marked as failed, since it was lost
+     * (for example, because the server that was generating it restarted).
      */
     public UploadTableJobGuidHolder requestUploadTableForStudy(String appId, String studyId) {
         // Verify caller has access to app and study.
@@ -160,8 +174,11 @@ public class UploadTableService {
         // Get the most recent request for this study.
         List<UploadTableJob> jobList = uploadTableJobDao.listUploadTableJobsForStudy(appId, studyId, 0,
                 1).getItems();
-        if (!jobList.isEmpty()) {
-            UploadTableJob mostRecentJob = jobList.get(0);
+        UploadTableJob mostRecentJob = jobList.isEmpty() ? null : jobList.get(0);
+        if (mostRecentJob != null) {
+            failIfStale(mostRecentJob);
+        }
+        if (mostRecentJob != null && mostRecentJob.getStatus() != UploadTableJob.Status.FAILED) {
             DateTime mostRecentJobRequestedOn = mostRecentJob.getRequestedOn();
 
             // If it's within the last 5 minutes, just return that job GUID.
@@ -192,7 +209,13 @@ public class UploadTableService {
         job.setStatus(UploadTableJob.Status.IN_PROGRESS);
         uploadTableJobDao.saveUploadTableJob(job);
 
-        // Send the request to the worker.
+        // Generate the CSVs in the server, if it's enabled and not too busy.
+        if (uploadTableCsvGenerator.submit(job)) {
+            LOG.info("Queued CSV request for app " + appId + " study " + studyId + " job " + jobGuid);
+            return new UploadTableJobGuidHolder(jobGuid);
+        }
+
+        // Otherwise, send the request to the worker.
         UploadCsvRequest uploadCsvRequest = new UploadCsvRequest();
         uploadCsvRequest.setJobGuid(jobGuid);
         uploadCsvRequest.setAppId(appId);
@@ -224,6 +247,27 @@ public class UploadTableService {
         return new UploadTableJobGuidHolder(jobGuid);
     }
 
+    // Marks a job that has been in progress for too long as failed. Jobs are not persisted outside of the job table
+    // while they're generated, so a job whose server restarted, or whose worker request was lost, would otherwise stay
+    // in progress forever. A job is measured from when it started, or from when it was requested if it is still
+    // waiting, and the limit is well beyond the time a large study takes, so long queues and long runs aren't failed.
+    // A job that this server's generator holds is never stale. If a job does finish after all, its final status
+    // replaces this one.
+    private void failIfStale(UploadTableJob job) {
+        if (job.getStatus() != UploadTableJob.Status.IN_PROGRESS || uploadTableCsvGenerator.isHolding(
+                job.getJobGuid())) {
+            return;
+        }
+        DateTime since = job.getStartedOn() != null ? job.getStartedOn() : job.getRequestedOn();
+        if (since != null && since.isBefore(DateTime.now().minusHours(STALE_JOB_HOURS))) {
+            LOG.warn("Upload table job " + job.getJobGuid() + " for app " + job.getAppId() + " study " +
+                    job.getStudyId() + " has been in progress since " + since + ", marking it failed");
+            job.setStatus(UploadTableJob.Status.FAILED);
+            job.setFinishedOn(DateTime.now());
+            uploadTableJobDao.saveUploadTableJob(job);
+        }
+    }
+
     /** Worker API to get the upload table job. Does not include the downloadable S3 URL. */
     public UploadTableJob getUploadTableJobForWorker(String appId, String studyId, String jobGuid) {
         // The worker can access any app or study, so we don't need to check permissions. (Worker permissions are
@@ -292,6 +336,26 @@ public class UploadTableService {
         return uploadTableRowDao.queryUploadTableRows(query);
     }
 
+    /**
+     * Query for upload table rows, one page at a time, in the order they were created. Each page has the offset key
+     * for the next page. Unlike queryUploadTableRows(), reading a page doesn't get slower as the caller gets further
+     * into the table, and the total is only counted if the query asks for it.
+     */
+    public ForwardCursorPagedResourceList<UploadTableRow> queryUploadTableRowsByCursor(String appId, String studyId,
+            UploadTableRowQuery query) {
+        // Verify study exists, by passing in throwsException = true.
+        studyService.getStudy(appId, studyId, true);
+
+        // appId and studyId are required and come from the URL path.
+        query.setAppId(appId);
+        query.setStudyId(studyId);
+
+        // Validate the query.
+        Validate.entityThrowingException(UploadTableRowQueryValidator.INSTANCE, query);
+
+        return uploadTableRowDao.queryUploadTableRowsByCursor(query);
+    }
+
     /** Create a new upload table row, or overwrite it if the row already exists. */
     public void saveUploadTableRow(String appId, String studyId, UploadTableRow row) {
         // Verify study exists, by passing in throwsException = true.
@@ -312,6 +376,43 @@ public class UploadTableService {
         uploadTableRowDao.saveUploadTableRow(row);
     }
 
+    /**
+     * Create or overwrite a list of upload table rows in one write. Every row is validated before any row is
+     * written.
+     */
+    public void saveUploadTableRows(String appId, String studyId, List<UploadTableRow> rows) {
+        if (rows == null || rows.isEmpty()) {
+            throw new BadRequestException("Must include at least one upload table row");
+        }
+        if (rows.size() > MAX_ROW_BATCH_SIZE) {
+            throw new BadRequestException("Cannot include more than " + MAX_ROW_BATCH_SIZE +
+                    " upload table rows in one request");
+        }
+
+        // Verify study exists, by passing in throwsException = true.
+        studyService.getStudy(appId, studyId, true);
+
+        DateTime now = DateTime.now();
+        for (UploadTableRow row : rows) {
+            if (row == null) {
+                throw new BadRequestException("Upload table rows cannot be null");
+            }
+            // appId and studyId are required and come from the URL path.
+            row.setAppId(appId);
+            row.setStudyId(studyId);
+
+            // CreatedOn defaults to the current time.
+            if (row.getCreatedOn() == null) {
+                row.setCreatedOn(now);
+            }
+
+            // Validate the row.
+            Validate.entityThrowingException(UploadTableRowValidator.INSTANCE, row);
+        }
+
+        uploadTableRowDao.saveUploadTableRows(rows);
+    }
+
     // Package-scoped so unit tests can mock this.
     String generateGuid() {
         return BridgeUtils.generateGuid();
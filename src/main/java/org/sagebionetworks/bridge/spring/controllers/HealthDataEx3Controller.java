@@ -3,6 +3,9 @@ package org.sagebionetworks.bridge.spring.controllers;
 import static org.sagebionetworks.bridge.Roles.SUPERADMIN;
 import static org.sagebionetworks.bridge.Roles.WORKER;
 
+import java.util.List;
+
+import com.fasterxml.jackson.core.type.TypeReference;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.CrossOrigin;
@@ -32,6 +35,8 @@ import org.sagebionetworks.bridge.models.accounts.UserSession;
 @CrossOrigin
 @RestController
 public class HealthDataEx3Controller extends BaseController {
+    static final TypeReference<List<String>> RECORD_ID_LIST_TYPE_REF = new TypeReference<List<String>>() {};
+
     private HealthDataEx3Service healthDataEx3Service;
     private StudyService studyService;
 
@@ -198,6 +203,20 @@ public class HealthDataEx3Controller extends BaseController {
         return record;
     }
 
+    /**
+     * Retrieves the records for the given list of record IDs for self, each with a download link. Records that don't
+     * exist or that belong to someone else are skipped.
+     */
+    @PostMapping(path="/v3/participants/self/exporter3/healthdata/downloads")
+    public ResourceList<HealthDataRecordEx3> getRecordsWithDownloadUrlsForSelf() {
+        UserSession session = getAuthenticatedAndConsentedSession();
+
+        List<String> recordIds = parseJson(RECORD_ID_LIST_TYPE_REF);
+        List<HealthDataRecordEx3> recordList = healthDataEx3Service.getRecordsWithDownloadUrls(session.getAppId(),
+                session.getHealthCode(), recordIds);
+        return new ResourceList<>(recordList);
+    }
+
     /** Retrieves all records for the given user and time range for self. */
     @GetMapping(path="/v3/participants/self/exporter3/healthdata")
     public ForwardCursorPagedResourceList<HealthDataRecordEx3> getRecordsForUserForSelf(
@@ -0,0 +1,140 @@
+package org.sagebionetworks.bridge.spring.controllers;
+
+import static org.sagebionetworks.bridge.Roles.SUPERADMIN;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import org.sagebionetworks.bridge.dynamodb.DynamoPageReader;
+import org.sagebionetworks.bridge.hibernate.ConnectionPoolMetrics;
+import org.sagebionetworks.bridge.models.ConnectionPoolStatus;
+import org.sagebionetworks.bridge.models.ConsentDeliveryStatus;
+import org.sagebionetworks.bridge.models.DistributedLockStatus;
+import org.sagebionetworks.bridge.models.DynamoQueryStatus;
+import org.sagebionetworks.bridge.models.OutboundChannelStatus;
+import org.sagebionetworks.bridge.models.ParticipantVersionQueueStatus;
+import org.sagebionetworks.bridge.models.ReportIndexCacheStatus;
+import org.sagebionetworks.bridge.models.TagCacheStatus;
+import org.sagebionetworks.bridge.services.ConsentDeliveryQueue;
+import org.sagebionetworks.bridge.services.DistributedLockService;
+import org.sagebionetworks.bridge.services.OutboundMessageQueue;
+import org.sagebionetworks.bridge.services.ParticipantVersionExportQueue;
+import org.sagebionetworks.bridge.services.ReportService;
+import org.sagebionetworks.bridge.services.TagService;
+
+/**
+ * Server-wide operational metrics. These describe this server instance only, not the cluster.
+ */
+@CrossOrigin
+@RestController
+public class MetricsController extends BaseController {
+
+    private ConnectionPoolMetrics connectionPoolMetrics;
+    private ConsentDeliveryQueue consentDeliveryQueue;
+    private DistributedLockService distributedLockService;
+    private DynamoPageReader dynamoPageReader;
+    private OutboundMessageQueue outboundMessageQueue;
+    private ParticipantVersionExportQueue participantVersionExportQueue;
+    private ReportService reportService;
+    private TagService tagService;
+
+    @Autowired
+    final void setConnectionPoolMetrics(ConnectionPoolMetrics connectionPoolMetrics) {
+        this.connectionPoolMetrics = connectionPoolMetrics;
+    }
+
+    @Autowired
+    final void setConsentDeliveryQueue(ConsentDeliveryQueue consentDeliveryQueue) {
+        this.consentDeliveryQueue = consentDeliveryQueue;
+    }
+
+    @Autowired
+    final void setDistributedLockService(DistributedLockService distributedLockService) {
+        this.distributedLockService = distributedLockService;
+    }
+
+    @Autowired
+    final void setDynamoPageReader(DynamoPageReader dynamoPageReader) {
+        this.dynamoPageReader = dynamoPageReader;
+    }
+
+    @Autowired
+    final void setOutboundMessageQueue(OutboundMessageQueue outboundMessageQueue) {
+        this.outboundMessageQueue = outboundMessageQueue;
+    }
+
+    @Autowired
+    final void setParticipantVersionExportQueue(ParticipantVersionExportQueue participantVersionExportQueue) {
+        this.participantVersionExportQueue = participantVersionExportQueue;
+    }
+
+    @Autowired
+    final void setReportService(ReportService reportService) {
+        this.reportService = reportService;
+    }
+
+    @Autowired
+    final void setTagService(TagService tagService) {
+        this.tagService = tagService;
+    }
+
+    @GetMapping("/v3/metrics/connectionpool")
+    public ConnectionPoolStatus getConnectionPoolStatus() {
+        getAuthenticatedSession(SUPERADMIN);
+
+        return connectionPoolMetrics.getStatus();
+    }
+
+    @GetMapping("/v3/metrics/consentdelivery")
+    public ConsentDeliveryStatus getConsentDeliveryStatus() {
+        getAuthenticatedSession(SUPERADMIN);
+
+        return consentDeliveryQueue.getStatus();
+    }
+
+    @GetMapping("/v3/metrics/distributedlocks")
+    public DistributedLockStatus getDistributedLockStatus() {
+        getAuthenticatedSession(SUPERADMIN);
+
+        return distributedLockService.getStatus();
+    }
+
+    @GetMapping("/v3/metrics/dynamoqueries")
+    public List<DynamoQueryStatus> getDynamoQueryStatus() {
+        getAuthenticatedSession(SUPERADMIN);
+
+        return dynamoPageReader.getStatus();
+    }
+
+    @GetMapping("/v3/metrics/outbox")
+    public List<OutboundChannelStatus> getOutboundMessageStatus() {
+        getAuthenticatedSession(SUPERADMIN);
+
+        return outboundMessageQueue.getStatus();
+    }
+
+    @GetMapping("/v3/metrics/participantversionqueue")
+    public ParticipantVersionQueueStatus getParticipantVersionQueueStatus() {
+        getAuthenticatedSession(SUPERADMIN);
+
+        return participantVersionExportQueue.getStatus();
+    }
+
+    @GetMapping("/v3/metrics/reportindexcache")
+    public ReportIndexCacheStatus getReportIndexCacheStatus() {
+        getAuthenticatedSession(SUPERADMIN);
+
+        return reportService.getReportIndexCacheStatus();
+    }
+
+    @GetMapping("/v3/metrics/tagcache")
+    public TagCacheStatus getTagCacheStatus() {
+        getAuthenticatedSession(SUPERADMIN);
+
+        return tagService.getTagCacheStatus();
+    }
+}
@@ -65,6 +65,14 @@ public class ParticipantFileController extends BaseController {
         return fileService.createParticipantFile(appId, userId, file);
     }
 
+    @PostMapping("v3/participants/self/files/{fileId}/complete")
+    public ParticipantFile completeParticipantFile(@PathVariable String fileId) {
+        UserSession session = getAuthenticatedAndConsentedSession();
+        String userId = session.getParticipant().getId();
+
+        return fileService.completeParticipantFile(userId, fileId);
+    }
+
     @DeleteMapping("/v3/participants/self/files/{fileId}")
     public StatusMessage deleteParticipantFile(@PathVariable String fileId) {
         UserSession session = getAuthenticatedAndConsentedSession();
@@ -9,6 +9,9 @@ import static org.sagebionetworks.bridge.Roles.DEVELOPER;
 import static org.sagebionetworks.bridge.Roles.RESEARCHER;
 import static org.sagebionetworks.bridge.Roles.WORKER;
 
+import java.util.List;
+
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import org.joda.time.DateTime;
@@ -54,6 +57,8 @@ import org.sagebionetworks.bridge.services.ReportService;
 @RestController
 public class ParticipantReportController extends BaseController {
     
+    static final TypeReference<List<String>> DATE_LIST_TYPE_REF = new TypeReference<List<String>>() {};
+    
     private ReportService reportService;
     
     @Autowired
@@ -253,6 +258,52 @@ public class ParticipantReportController extends BaseController {
         return new StatusMessage("Report data saved.");
     }
     
+    /**
+     * Save a list of participant report records in one call. This is intended for backfilling a report, which 
+     * would otherwise require a call for each record. As with saving a single record, only developers and 
+     * researchers can call this.
+     */
+    @PostMapping("/v3/participants/{userIdToken}/reports/{identifier}/batch")
+    @ResponseStatus(HttpStatus.CREATED)
+    public StatusMessage saveParticipantReportBatch(@PathVariable String userIdToken,
+            @PathVariable String identifier) {
+        UserSession session = getAuthenticatedSession(DEVELOPER, RESEARCHER);
+
+        AccountId accountId = BridgeUtils.parseAccountId(session.getAppId(), userIdToken);
+        Account account = accountService.getAccount(accountId)
+                .orElseThrow(() -> new EntityNotFoundException(Account.class));
+
+        List<ReportData> reportDataList = parseJson(ReportData.REPORT_DATA_LIST);
+        for (ReportData reportData : reportDataList) {
+            if (reportData != null) {
+                reportData.setKey(null); // set in service, but just so no future use depends on it
+            }
+        }
+        reportService.saveParticipantReportBatch(session.getAppId(), account.getId(), identifier,
+                account.getHealthCode(), reportDataList);
+        
+        return new StatusMessage("Report data saved.");
+    }
+    
+    /**
+     * Delete the participant report records for a list of dates in one call.
+     */
+    @PostMapping("/v3/participants/{userIdToken}/reports/{identifier}/batch/delete")
+    public StatusMessage deleteParticipantReportRecords(@PathVariable String userIdToken,
+            @PathVariable String identifier) {
+        UserSession session = getAuthenticatedSession(DEVELOPER, RESEARCHER, WORKER);
+        
+        AccountId accountId = BridgeUtils.parseAccountId(session.getAppId(), userIdToken);
+        Account account = accountService.getAccount(accountId)
+                .orElseThrow(() -> new EntityNotFoundException(Account.class));
+
+        List<String> dates = parseJson(DATE_LIST_TYPE_REF);
+        reportService.deleteParticipantReportRecords(session.getAppId(), null, identifier, dates,
+                account.getHealthCode());
+        
+        return new StatusMessage("Report records deleted.");
+    }
+    
     /**
      * Developers and workers can delete participant report data (though worker accounts are unlikely 
      * to know the user ID for records). This deletes all reports for all users. This is not 
@@ -10,6 +10,9 @@ import static org.sagebionetworks.bridge.Roles.WORKER;
 import static org.sagebionetworks.bridge.models.reports.ReportType.PARTICIPANT;
 import static org.sagebionetworks.bridge.models.reports.ReportType.STUDY;
 
+import java.util.List;
+
+import com.fasterxml.jackson.core.type.TypeReference;
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,10 +28,10 @@ import org.springframework.web.bind.annotation.RestController;
 
 import org.sagebionetworks.bridge.RequestContext;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
-import org.sagebionetworks.bridge.models.DateRangeResourceList;
 import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.ReportTypeResourceList;
 import org.sagebionetworks.bridge.models.StatusMessage;
+import org.sagebionetworks.bridge.models.StreamingDateRangeResourceList;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
 import org.sagebionetworks.bridge.models.reports.ReportData;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
@@ -53,6 +56,8 @@ public class StudyReportController extends BaseController {
     static final StatusMessage DELETED_DATA_MSG = new StatusMessage("Report record deleted.");
     static final StatusMessage DELETED_MSG = new StatusMessage("Report deleted.");
     static final StatusMessage SAVED_MSG = new StatusMessage("Report data saved.");
+    static final StatusMessage DELETED_RECORDS_MSG = new StatusMessage("Report records deleted.");
+    static final TypeReference<List<String>> DATE_LIST_TYPE_REF = new TypeReference<List<String>>() {};
     
     @Autowired
     ReportService reportService;
@@ -79,21 +84,21 @@ public class StudyReportController extends BaseController {
      * be intended for end users, and these do not expose user-specific information.
      */
     @GetMapping("/v3/reports/{identifier}")
-    public DateRangeResourceList<? extends ReportData> getStudyReport(@PathVariable String identifier,
+    public StreamingDateRangeResourceList<ReportData> getStudyReport(@PathVariable String identifier,
             @RequestParam(required = false) String startDate, @RequestParam(required = false) String endDate) {
         UserSession session = getAuthenticatedSession();
         
         LocalDate startDateObj = getLocalDateOrDefault(startDate, null);
         LocalDate endDateObj = getLocalDateOrDefault(endDate, null);
         
-        return reportService.getStudyReport(session.getAppId(), identifier, startDateObj, endDateObj);
+        return reportService.streamStudyReport(session.getAppId(), identifier, startDateObj, endDateObj);
     }
     
     /**
      * Get a study report *if* it is marked public, as this call does not require the user to be authenticated.
      */
     @GetMapping(path = { "/v1/apps/{appId}/reports/{identifier}", "/v3/studies/{appId}/reports/{identifier}" })
-    public DateRangeResourceList<? extends ReportData> getPublicStudyReport(@PathVariable String appId,
+    public StreamingDateRangeResourceList<ReportData> getPublicStudyReport(@PathVariable String appId,
             @PathVariable String identifier, @RequestParam(required = false) String startDate,
             @RequestParam(required = false) String endDate) {
 
@@ -105,7 +110,7 @@ public class StudyReportController extends BaseController {
         LocalDate startDateObj = getLocalDateOrDefault(startDate, null);
         LocalDate endDateObj = getLocalDateOrDefault(endDate, null);
         
-        return reportService.getStudyReport(appId, identifier, startDateObj, endDateObj);
+        return reportService.streamStudyReport(appId, identifier, startDateObj, endDateObj);
     }
     
     /**
@@ -158,6 +163,39 @@ public class StudyReportController extends BaseController {
         return SAVED_MSG;
     }
     
+    /**
+     * Save a list of study report records in one call. This is intended for backfilling a report, which 
+     * would otherwise require a call for each record.
+     */
+    @PostMapping("/v3/reports/{identifier}/batch")
+    @ResponseStatus(HttpStatus.CREATED)
+    public StatusMessage saveStudyReportBatch(@PathVariable String identifier) {
+        UserSession session = getAuthenticatedSession(DEVELOPER, WORKER);
+        
+        List<ReportData> reportDataList = parseJson(ReportData.REPORT_DATA_LIST);
+        for (ReportData reportData : reportDataList) {
+            if (reportData != null) {
+                reportData.setKey(null); // set in service, but just so no future use depends on it
+            }
+        }
+        reportService.saveStudyReportBatch(session.getAppId(), identifier, reportDataList);
+        
+        return SAVED_MSG;
+    }
+    
+    /**
+     * Delete the study report records for a list of dates in one call.
+     */
+    @PostMapping("/v3/reports/{identifier}/batch/delete")
+    public StatusMessage deleteStudyReportRecords(@PathVariable String identifier) {
+        UserSession session = getAuthenticatedSession(DEVELOPER, WORKER);
+        
+        List<String> dates = parseJson(DATE_LIST_TYPE_REF);
+        reportService.deleteStudyReportRecords(session.getAppId(), identifier, dates);
+        
+        return DELETED_RECORDS_MSG;
+    }
+    
     /**
      * Developers and workers can delete study report data. This is not performant for large data sets and 
      * should only be done during testing.
@@ -8,6 +8,8 @@ import static org.sagebionetworks.bridge.Roles.STUDY_DESIGNER;
 import static org.sagebionetworks.bridge.Roles.SUPERADMIN;
 import static org.sagebionetworks.bridge.Roles.WORKER;
 
+import java.util.List;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -18,6 +20,7 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.StatusMessage;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
@@ -33,6 +36,7 @@ import org.sagebionetworks.bridge.upload.UploadTableRowQuery;
 @RestController
 public class UploadTableController extends BaseController {
     private static final StatusMessage CREATED_MSG = new StatusMessage("Upload table row created.");
+    private static final StatusMessage CREATED_ROWS_MSG = new StatusMessage("Upload table rows created.");
     private static final StatusMessage DELETED_MSG = new StatusMessage("Upload table row deleted.");
     private static final StatusMessage UPDATED_JOB_MSG = new StatusMessage("Upload table job updated.");
 
@@ -113,6 +117,18 @@ public class UploadTableController extends BaseController {
         return uploadTableService.queryUploadTableRows(appId, studyId, query);
     }
 
+    /**
+     * Query for upload table rows by cursor. This is used by the worker to read every row of a study, for which
+     * paging by offset is slow. Each page includes the offset key of the next page.
+     */
+    @PostMapping("/v1/apps/{appId}/studies/{studyId}/uploadtable/query/cursor")
+    public ForwardCursorPagedResourceList<UploadTableRow> queryUploadTableRowsByCursorForWorker(
+            @PathVariable String appId, @PathVariable String studyId) {
+        getAuthenticatedSession(WORKER);
+        UploadTableRowQuery query = parseJson(UploadTableRowQuery.class);
+        return uploadTableService.queryUploadTableRowsByCursor(appId, studyId, query);
+    }
+
     /**
      * Create a new upload table row, or overwrite it if the row already exists. This is called by the
      * Exporter3Worker to write rows for each upload.
@@ -124,4 +140,16 @@ public class UploadTableController extends BaseController {
         uploadTableService.saveUploadTableRow(appId, studyId, row);
         return CREATED_MSG;
     }
+
+    /**
+     * Create or overwrite a list of upload table rows in one call. This lets the worker write the rows for a batch of
+     * uploads in one request.
+     */
+    @PostMapping("/v1/apps/{appId}/studies/{studyId}/uploadtable/batch")
+    public StatusMessage saveUploadTableRowsForWorker(@PathVariable String appId, @PathVariable String studyId) {
+        getAuthenticatedSession(WORKER);
+        List<UploadTableRow> rows = parseJson(UploadTableRow.UPLOAD_TABLE_ROW_LIST);
+        uploadTableService.saveUploadTableRows(appId, studyId, rows);
+        return CREATED_ROWS_MSG;
+    }
 }
@@ -44,6 +44,14 @@ public interface UploadTableJob extends BridgeEntity {
     DateTime getRequestedOn();
     void setRequestedOn(DateTime requestedOn);
 
+    /** Timestamp for when the CSV generation started. May be null if the job hasn't started yet. */
+    DateTime getStartedOn();
+    void setStartedOn(DateTime startedOn);
+
+    /** Timestamp for when the CSV generation succeeded or failed. May be null if the job is in progress. */
+    DateTime getFinishedOn();
+    void setFinishedOn(DateTime finishedOn);
+
     /** Status of the CSV generation job. */
     Status getStatus();
     void setStatus(Status status);
@@ -1,7 +1,9 @@
 package org.sagebionetworks.bridge.upload;
 
+import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import org.joda.time.DateTime;
 
@@ -13,6 +15,8 @@ import org.sagebionetworks.bridge.models.BridgeEntity;
 @BridgeTypeName("UploadTableRow")
 @JsonDeserialize(as = HibernateUploadTableRow.class)
 public interface UploadTableRow extends BridgeEntity {
+    TypeReference<List<UploadTableRow>> UPLOAD_TABLE_ROW_LIST = new TypeReference<List<UploadTableRow>>() {};
+
     /** Factory method for creating a new UploadTableRow. */
     static UploadTableRow create() {
         return new HibernateUploadTableRow();
@@ -13,6 +13,8 @@ public class UploadTableRowQuery implements BridgeEntity {
     private DateTime endTime;
     private boolean includeTestData;
     private Integer start;
+    private String offsetKey;
+    private boolean includeTotal;
     private Integer pageSize;
 
     /**
@@ -84,6 +86,30 @@ public class UploadTableRowQuery implements BridgeEntity {
         this.start = start;
     }
 
+    /**
+     * For queries by cursor, the nextPageOffsetKey of the previous page. If not specified, the query starts at the
+     * first row. Offset keys are opaque to the caller.
+     */
+    public String getOffsetKey() {
+        return offsetKey;
+    }
+
+    public void setOffsetKey(String offsetKey) {
+        this.offsetKey = offsetKey;
+    }
+
+    /**
+     * For queries by cursor, whether to count the rows that match the query, which is a separate query over all of
+     * them. If not specified, defaults to false. Queries by offset always include the total.
+     */
+    public boolean getIncludeTotal() {
+        return includeTotal;
+    }
+
+    public void setIncludeTotal(boolean includeTotal) {
+        this.includeTotal = includeTotal;
+    }
+
     /**
      * Requested page size of the result set. Cannot be less than 5 or more than 100. If not specified, defaults to 50.
      * If there are fewer rows than requested, this will return all rows.
@@ -0,0 +1,82 @@
+package org.sagebionetworks.bridge.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A template in the <code>${variableName}</code> format of BridgeUtils.resolveTemplate(), split once into the literal
+ * text and the variable names between them. Resolving the template is then a single pass over the parts, rather than
+ * one String.replace() over the whole text for every variable. As with resolveTemplate(), variables that are not in
+ * the map (or whose value is null) are left in the output as is. Unlike resolveTemplate(), values are not themselves
+ * searched for variables.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public final class ParsedTemplate {
+    private static final String VAR_START = "${";
+    private static final String VAR_END = "}";
+
+    private final String text;
+    // Literal text, alternating with the variable names, starting and ending with a (possibly empty) literal.
+    private final ImmutableList<String> parts;
+
+    private ParsedTemplate(String text, ImmutableList<String> parts) {
+        this.text = text;
+        this.parts = parts;
+    }
+
+    public static ParsedTemplate parse(String text) {
+        checkNotNull(text);
+
+        ImmutableList.Builder<String> parts = ImmutableList.builder();
+        int literalStart = 0;
+        int varStart = text.indexOf(VAR_START);
+        while (varStart >= 0) {
+            int varEnd = text.indexOf(VAR_END, varStart + VAR_START.length());
+            if (varEnd < 0) {
+                break;
+            }
+            // In "${a ${b}", the variable is "b".
+            varStart = text.lastIndexOf(VAR_START, varEnd);
+            parts.add(text.substring(literalStart, varStart));
+            parts.add(text.substring(varStart + VAR_START.length(), varEnd));
+            literalStart = varEnd + VAR_END.length();
+            varStart = text.indexOf(VAR_START, literalStart);
+        }
+        parts.add(text.substring(literalStart));
+        return new ParsedTemplate(text, parts.build());
+    }
+
+    /** The unresolved template. */
+    public String getText() {
+        return text;
+    }
+
+    public String resolve(Map<String, String> values) {
+        checkNotNull(values);
+
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < parts.size(); i++) {
+            String part = parts.get(i);
+            if (i % 2 == 0) {
+                builder.append(part);
+            } else {
+                String value = values.get(part);
+                if (value != null) {
+                    builder.append(value);
+                } else {
+                    builder.append(VAR_START).append(part).append(VAR_END);
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
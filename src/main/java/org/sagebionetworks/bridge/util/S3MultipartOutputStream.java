@@ -0,0 +1,137 @@
+package org.sagebionetworks.bridge.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * An output stream that writes an S3 object with a multipart upload, so that an object of any size can be written
+ * while holding only one part in memory. Parts are uploaded as they fill. close() uploads the last part and completes
+ * the upload. If the object is smaller than one part, close() writes it with a single put instead. If writing fails,
+ * the caller should call abort() instead of close(), so that S3 doesn't keep the parts that were already uploaded.
+ *
+ * Objects are encrypted with AES-256 server-side encryption. Instances are not thread-safe.
+ */
+public class S3MultipartOutputStream extends OutputStream {
+    /** S3 requires every part except the last to be at least 5 MB. */
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final AmazonS3 s3Client;
+    private final String bucket;
+    private final String key;
+    private final byte[] buffer;
+    private final List<PartETag> partETagList = new ArrayList<>();
+    private int bufferLength;
+    private String uploadId;
+    private boolean closed;
+
+    public S3MultipartOutputStream(AmazonS3 s3Client, String bucket, String key, int partSize) {
+        checkNotNull(s3Client);
+        checkNotNull(bucket);
+        checkNotNull(key);
+        checkArgument(partSize >= MIN_PART_SIZE, "partSize must be at least " + MIN_PART_SIZE);
+
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.key = key;
+        this.buffer = new byte[partSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        buffer[bufferLength++] = (byte) b;
+        if (bufferLength == buffer.length) {
+            uploadPart();
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            int copyLength = Math.min(length, buffer.length - bufferLength);
+            System.arraycopy(bytes, offset, buffer, bufferLength, copyLength);
+            bufferLength += copyLength;
+            offset += copyLength;
+            length -= copyLength;
+            if (bufferLength == buffer.length) {
+                uploadPart();
+            }
+        }
+    }
+
+    /** Uploads whatever hasn't been uploaded yet, and completes the upload. Does nothing if already closed. */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (uploadId == null) {
+            // The whole object fits in one part.
+            ObjectMetadata metadata = makeMetadata();
+            metadata.setContentLength(bufferLength);
+            s3Client.putObject(new PutObjectRequest(bucket, key, new ByteArrayInputStream(buffer, 0,
+                    bufferLength), metadata));
+            return;
+        }
+
+        if (bufferLength > 0) {
+            uploadPart();
+        }
+        s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, partETagList));
+    }
+
+    /** Abandons the upload, and deletes any parts that were uploaded. Does nothing if already closed. */
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (uploadId != null) {
+            s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+        }
+    }
+
+    private void uploadPart() {
+        if (uploadId == null) {
+            uploadId = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key,
+                    makeMetadata())).getUploadId();
+        }
+
+        UploadPartRequest request = new UploadPartRequest().withBucketName(bucket).withKey(key)
+                .withUploadId(uploadId).withPartNumber(partETagList.size() + 1)
+                .withInputStream(new ByteArrayInputStream(buffer, 0, bufferLength)).withPartSize(bufferLength);
+        partETagList.add(s3Client.uploadPart(request).getPartETag());
+        bufferLength = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+    }
+
+    private static ObjectMetadata makeMetadata() {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        return metadata;
+    }
+}
@@ -1137,3 +1137,195 @@ CREATE TABLE IF NOT EXISTS `UploadTableJobs` (
     CONSTRAINT `UploadTableJobs-Study-Constraint` FOREIGN KEY (`studyId`, `appId`) REFERENCES `Substudies` (`id`, `studyId`) ON DELETE CASCADE ON UPDATE CASCADE,
     INDEX (`appId`, `studyId`, `requestedOn`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+
+-- changeset bridge:84
+
+CREATE TABLE IF NOT EXISTS `WeeklyAdherenceReportBucketStats` (
+    `appId` varchar(60) NOT NULL,
+    `studyId` varchar(60) NOT NULL,
+    `adherencePercent` int(3) NOT NULL,
+    `progression` varchar(255) NOT NULL,
+    `total` int(10) NOT NULL DEFAULT 0,
+    PRIMARY KEY (`appId`, `studyId`, `adherencePercent`, `progression`),
+    CONSTRAINT `WeeklyAdherenceReportBucketStats-Study-Constraint` FOREIGN KEY (`studyId`, `appId`) REFERENCES `Substudies` (`id`, `studyId`) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+
+CREATE TABLE IF NOT EXISTS `WeeklyAdherenceReportLabelStats` (
+    `appId` varchar(60) NOT NULL,
+    `studyId` varchar(60) NOT NULL,
+    `label` varchar(2048) NOT NULL,
+    `total` int(10) NOT NULL DEFAULT 0,
+    `rowJson` text,
+    PRIMARY KEY (`appId`, `studyId`, `label`(255)),
+    CONSTRAINT `WeeklyAdherenceReportLabelStats-Study-Constraint` FOREIGN KEY (`studyId`, `appId`) REFERENCES `Substudies` (`id`, `studyId`) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+
+INSERT INTO `WeeklyAdherenceReportBucketStats` (`appId`, `studyId`, `adherencePercent`, `progression`, `total`)
+SELECT `appId`, `studyId`, COALESCE(`weeklyAdherencePercent`, -1), COALESCE(`progression`, ''), COUNT(*)
+FROM `WeeklyAdherenceReports`
+GROUP BY `appId`, `studyId`, COALESCE(`weeklyAdherencePercent`, -1), COALESCE(`progression`, '');
+
+INSERT INTO `WeeklyAdherenceReportLabelStats` (`appId`, `studyId`, `label`, `total`)
+SELECT `labels`.`appId`, `labels`.`studyId`, `labels`.`label`, COUNT(*)
+FROM `WeeklyAdherenceReportLabels` `labels`
+JOIN `WeeklyAdherenceReports` `reports` ON `labels`.`appId` = `reports`.`appId` AND `labels`.`studyId` = `reports`.`studyId` AND `labels`.`userId` = `reports`.`userId`
+GROUP BY `labels`.`appId`, `labels`.`studyId`, `labels`.`label`;
+
+-- changeset bridge:85
+
+CREATE TABLE IF NOT EXISTS `WeeklyAdherenceReportSearchTerms` (
+    `appId` varchar(60) NOT NULL,
+    `studyId` varchar(60) NOT NULL,
+    `userId` varchar(255) NOT NULL,
+    `term` varchar(3) COLLATE utf8_bin NOT NULL,
+    PRIMARY KEY (`appId`, `studyId`, `userId`, `term`),
+    INDEX `WeeklyAdherenceReportSearchTerms-Term-Index` (`appId`, `studyId`, `term`),
+    CONSTRAINT `WeeklyAdherenceReportSearchTerms-Report-Constraint` FOREIGN KEY (`appId`, `studyId`, `userId`) REFERENCES `WeeklyAdherenceReports` (`appId`, `studyId`, `userId`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+
+INSERT IGNORE INTO `WeeklyAdherenceReportSearchTerms` (`appId`, `studyId`, `userId`, `term`)
+SELECT `fields`.`appId`, `fields`.`studyId`, `fields`.`userId`, LOWER(SUBSTRING(`fields`.`value`, `positions`.`n`, 3))
+FROM (
+    SELECT `appId`, `studyId`, `userId`, `externalId` AS `value` FROM `WeeklyAdherenceReports`
+    UNION ALL SELECT `appId`, `studyId`, `userId`, `identifier` FROM `WeeklyAdherenceReports`
+    UNION ALL SELECT `appId`, `studyId`, `userId`, `firstName` FROM `WeeklyAdherenceReports`
+    UNION ALL SELECT `appId`, `studyId`, `userId`, `lastName` FROM `WeeklyAdherenceReports`
+    UNION ALL SELECT `appId`, `studyId`, `userId`, `email` FROM `WeeklyAdherenceReports`
+    UNION ALL SELECT `appId`, `studyId`, `userId`, `phone` FROM `WeeklyAdherenceReports`
+) `fields`
+JOIN (
+    SELECT `ones`.`d` + `tens`.`d` * 10 + `hundreds`.`d` * 100 + 1 AS `n`
+    FROM (SELECT 0 AS `d` UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4 UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9) `ones`
+    CROSS JOIN (SELECT 0 AS `d` UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4 UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9) `tens`
+    CROSS JOIN (SELECT 0 AS `d` UNION ALL SELECT 1 UNION ALL SELECT 2) `hundreds`
+) `positions` ON `positions`.`n` <= CHAR_LENGTH(`fields`.`value`) - 2;
+
+-- changeset bridge:86
+
+CREATE TABLE IF NOT EXISTS `AccountSearchTerms` (
+    `accountId` varchar(255) NOT NULL,
+    `appId` varchar(255) NOT NULL,
+    `term` varchar(4) COLLATE utf8_bin NOT NULL,
+    PRIMARY KEY (`accountId`, `term`),
+    INDEX `AccountSearchTerms-Term-Index` (`appId`, `term`, `accountId`),
+    CONSTRAINT `AccountSearchTerms-Account-Constraint` FOREIGN KEY (`accountId`) REFERENCES `Accounts` (`id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+
+INSERT IGNORE INTO `AccountSearchTerms` (`accountId`, `appId`, `term`)
+SELECT `fields`.`accountId`, `fields`.`appId`, CONCAT(`fields`.`prefix`, LOWER(SUBSTRING(`fields`.`value`, `positions`.`n`, 3)))
+FROM (
+    SELECT `id` AS `accountId`, `studyId` AS `appId`, 'e' AS `prefix`, `email` AS `value` FROM `Accounts`
+    UNION ALL SELECT `id`, `studyId`, 'p', REPLACE(`phone`, '+', '') FROM `Accounts`
+    UNION ALL SELECT `accountId`, `studyId`, 'x', `externalId` FROM `AccountsSubstudies`
+    UNION ALL SELECT `attrs`.`accountId`, `accts`.`studyId`, 'a', `attrs`.`attributeValue` FROM `AccountAttributes` `attrs` JOIN `Accounts` `accts` ON `attrs`.`accountId` = `accts`.`id`
+) `fields`
+JOIN (
+    SELECT `ones`.`d` + `tens`.`d` * 10 + `hundreds`.`d` * 100 + 1 AS `n`
+    FROM (SELECT 0 AS `d` UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4 UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9) `ones`
+    CROSS JOIN (SELECT 0 AS `d` UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4 UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9) `tens`
+    CROSS JOIN (SELECT 0 AS `d` UNION ALL SELECT 1 UNION ALL SELECT 2) `hundreds`
+) `positions` ON `positions`.`n` <= CHAR_LENGTH(`fields`.`value`) - 2;
+
+-- changeset bridge:87
+
+CREATE TABLE IF NOT EXISTS `AssessmentLatestRevisions` (
+    `appId` varchar(255) NOT NULL,
+    `identifier` varchar(255) NOT NULL,
+    `guid` varchar(255) NOT NULL,
+    PRIMARY KEY (`appId`, `identifier`),
+    CONSTRAINT `AssessmentLatestRevisions-Assessment-Constraint` FOREIGN KEY (`guid`) REFERENCES `Assessments` (`guid`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+
+INSERT IGNORE INTO `AssessmentLatestRevisions` (`appId`, `identifier`, `guid`)
+SELECT `a`.`appId`, `a`.`identifier`, `a`.`guid`
+FROM `Assessments` `a`
+JOIN (
+    SELECT `appId`, `identifier`, MAX(`revision`) AS `revision` FROM `Assessments` GROUP BY `appId`, `identifier`
+) `latest` ON `a`.`appId` = `latest`.`appId` AND `a`.`identifier` = `latest`.`identifier` AND `a`.`revision` = `latest`.`revision`;
+
+-- changeset bridge:88
+
+ALTER TABLE `UploadTableJobs`
+ADD COLUMN `startedOn` bigint(20) DEFAULT NULL,
+ADD COLUMN `finishedOn` bigint(20) DEFAULT NULL;
+
+-- changeset bridge:89
+
+CREATE TABLE IF NOT EXISTS `OutboundMessages` (
+    `id` varchar(60) NOT NULL,
+    `channel` enum('EMAIL','SMS') NOT NULL,
+    `appId` varchar(255) DEFAULT NULL,
+    `description` varchar(255) DEFAULT NULL,
+    `payload` mediumtext NOT NULL,
+    `status` enum('PENDING','DEAD') NOT NULL,
+    `attempts` int(10) unsigned NOT NULL DEFAULT 0,
+    `createdOn` bigint(20) unsigned NOT NULL,
+    `nextAttemptOn` bigint(20) unsigned NOT NULL,
+    `claimToken` varchar(60) DEFAULT NULL,
+    `claimedUntil` bigint(20) unsigned DEFAULT NULL,
+    `lastError` text DEFAULT NULL,
+    `requestId` varchar(255) DEFAULT NULL,
+    PRIMARY KEY (`id`),
+    INDEX `OutboundMessages-Due-Index` (`channel`, `status`, `nextAttemptOn`),
+    INDEX `OutboundMessages-ClaimToken-Index` (`claimToken`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+
+-- changeset bridge:90
+
+-- The backfills in bridge:85 and bridge:86 lower-cased values in SQL, but the server also strips diacritics (and
+-- strips everything but digits from account phone numbers). MySQL can't strip diacritics, so the rows whose terms can
+-- differ are queued here, and the server rebuilds their terms in the background (see SearchTermBackfiller).
+CREATE TABLE IF NOT EXISTS `AccountSearchTermBackfill` (
+    `accountId` varchar(255) NOT NULL,
+    PRIMARY KEY (`accountId`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+
+INSERT IGNORE INTO `AccountSearchTermBackfill` (`accountId`)
+SELECT `fields`.`accountId`
+FROM (
+    SELECT `id` AS `accountId`, `email` AS `value` FROM `Accounts`
+    UNION ALL SELECT `accountId`, `externalId` FROM `AccountsSubstudies`
+    UNION ALL SELECT `accountId`, `attributeValue` FROM `AccountAttributes`
+) `fields`
+WHERE CHAR_LENGTH(`fields`.`value`) <> LENGTH(`fields`.`value`);
+
+INSERT IGNORE INTO `AccountSearchTermBackfill` (`accountId`)
+SELECT `id` FROM `Accounts` WHERE REPLACE(`phone`, '+', '') REGEXP '[^0-9]';
+
+CREATE TABLE IF NOT EXISTS `WeeklyAdherenceReportSearchTermBackfill` (
+    `appId` varchar(60) NOT NULL,
+    `studyId` varchar(60) NOT NULL,
+    `userId` varchar(255) NOT NULL,
+    PRIMARY KEY (`appId`, `studyId`, `userId`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+
+INSERT IGNORE INTO `WeeklyAdherenceReportSearchTermBackfill` (`appId`, `studyId`, `userId`)
+SELECT `appId`, `studyId`, `userId` FROM `WeeklyAdherenceReports`
+WHERE CHAR_LENGTH(CONCAT_WS('', `externalId`, `identifier`, `firstName`, `lastName`, `email`, `phone`))
+    <> LENGTH(CONCAT_WS('', `externalId`, `identifier`, `firstName`, `lastName`, `email`, `phone`));
+
+-- changeset bridge:91
+
+-- Outbox messages hold the recipient's address, so a deleted account's messages can be removed, and are purged by
+-- creation date once they are past the retention period (see OutboundMessageQueue).
+ALTER TABLE `OutboundMessages`
+ADD COLUMN `recipient` varchar(255) DEFAULT NULL,
+ADD INDEX `OutboundMessages-Recipient-Index` (`appId`, `recipient`),
+ADD INDEX `OutboundMessages-CreatedOn-Index` (`createdOn`);
+
+-- changeset bridge:92
+
+-- Participant versions waiting to be written and exported, one row per participant (see
+-- ParticipantVersionExportQueue). Kept in a table so that queued versions survive a server restart.
+CREATE TABLE IF NOT EXISTS `ParticipantVersionQueue` (
+    `appId` varchar(60) NOT NULL,
+    `healthCode` varchar(255) NOT NULL,
+    `payload` mediumtext NOT NULL,
+    `revision` int(10) unsigned NOT NULL,
+    `attempts` int(10) unsigned NOT NULL DEFAULT 0,
+    `nextAttemptOn` bigint(20) unsigned NOT NULL,
+    `writtenVersion` int(10) unsigned DEFAULT NULL,
+    PRIMARY KEY (`appId`, `healthCode`),
+    INDEX `ParticipantVersionQueue-Due-Index` (`appId`, `nextAttemptOn`),
+    INDEX `ParticipantVersionQueue-NextAttemptOn-Index` (`nextAttemptOn`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
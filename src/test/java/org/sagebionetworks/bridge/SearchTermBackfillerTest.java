@@ -0,0 +1,60 @@
+package org.sagebionetworks.bridge;
+
+import static org.sagebionetworks.bridge.SearchTermBackfiller.BATCH_SIZE;
+
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.dao.AccountDao;
+import org.sagebionetworks.bridge.dao.AdherenceReportDao;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+
+public class SearchTermBackfillerTest extends Mockito {
+
+    @Mock
+    AccountDao mockAccountDao;
+
+    @Mock
+    AdherenceReportDao mockAdherenceReportDao;
+
+    @InjectMocks
+    SearchTermBackfiller backfiller;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void backfillDrainsBothQueues() {
+        when(mockAccountDao.backfillSearchTerms(BATCH_SIZE)).thenReturn(BATCH_SIZE, 3, 0);
+        when(mockAdherenceReportDao.backfillSearchTerms(BATCH_SIZE)).thenReturn(5, 0);
+
+        backfiller.backfill();
+
+        verify(mockAccountDao, times(3)).backfillSearchTerms(BATCH_SIZE);
+        verify(mockAdherenceReportDao, times(2)).backfillSearchTerms(BATCH_SIZE);
+    }
+
+    @Test
+    public void backfillEmptyQueues() {
+        backfiller.backfill();
+
+        verify(mockAccountDao).backfillSearchTerms(BATCH_SIZE);
+        verify(mockAdherenceReportDao).backfillSearchTerms(BATCH_SIZE);
+    }
+
+    @Test
+    public void backfillFailureIsLogged() {
+        when(mockAccountDao.backfillSearchTerms(BATCH_SIZE)).thenThrow(new BridgeServiceException("failed"));
+
+        // Does not throw. The rest of the queue is left for the next startup.
+        backfiller.backfill();
+
+        verify(mockAdherenceReportDao, never()).backfillSearchTerms(anyInt());
+    }
+}
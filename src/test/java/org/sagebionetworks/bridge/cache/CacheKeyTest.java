@@ -54,6 +54,11 @@ public class CacheKeyTest {
         assertEquals(CacheKey.tagList().toString(), "TagList");
     }
     
+    @Test
+    public void tagValues() {
+        assertEquals(CacheKey.tagValues().toString(), "TagValues");
+    }
+    
     @Test
     public void reauthTokenLookupKey() {
         assertEquals(CacheKey.reauthTokenLookupKey("ABC", TEST_APP_ID).toString(), "ABC:" + TEST_APP_ID + ":ReauthToken");
@@ -111,6 +116,17 @@ public class CacheKeyTest {
         assertEquals(CacheKey.lock("value", String.class).toString(), "value:java.lang.String:lock");
     }
     
+    @Test
+    public void lockFencingToken() {
+        assertEquals(CacheKey.lockFencingToken().toString(), "LockFencingToken");
+    }
+    
+    @Test
+    public void rateLimit() {
+        assertEquals(CacheKey.rateLimit("outbox-email", 1500000000L).toString(),
+                "outbox-email:1500000000:RateLimit");
+    }
+    
     @Test
     public void passwordResetForEmail() {
         assertEquals(CacheKey.passwordResetForEmail("sptoken", TEST_APP_ID).toString(), "sptoken:" + TEST_APP_ID);
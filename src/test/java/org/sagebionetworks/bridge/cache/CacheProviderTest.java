@@ -53,6 +53,7 @@ import redis.clients.jedis.JedisPool;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -423,6 +424,29 @@ public class CacheProviderTest {
         assertSession(json);
     }
     
+    @Test
+    public void getSetMembers() {
+        doReturn(Sets.newHashSet("a", "b")).when(jedisOps).smembers(CACHE_KEY.toString());
+        
+        assertEquals(cacheProvider.getSetMembers(CACHE_KEY), ImmutableSet.of("a", "b"));
+    }
+    
+    @Test
+    public void getSetMembersNoSet() {
+        doReturn(null).when(jedisOps).smembers(CACHE_KEY.toString());
+        
+        assertTrue(cacheProvider.getSetMembers(CACHE_KEY).isEmpty());
+    }
+    
+    @Test
+    public void addSetMembers() {
+        when(jedisOps.sadd(CACHE_KEY.toString(), "a", "b")).thenReturn(1L);
+        
+        assertEquals(cacheProvider.addSetMembers(CACHE_KEY, "a", "b"), 1L);
+        
+        verify(jedisOps).sadd(CACHE_KEY.toString(), "a", "b");
+    }
+    
     @Test
     public void nullSetDoesNotDelete() {
         doReturn(null).when(jedisOps).smembers(CACHE_KEY.toString());
@@ -0,0 +1,193 @@
+package org.sagebionetworks.bridge.cache;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.dao.DistributedLockDao;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.models.schedules2.Schedule2;
+import org.sagebionetworks.bridge.redis.JedisOps;
+import org.sagebionetworks.bridge.redis.JedisTransaction;
+
+public class RedisDistributedLockDaoTest extends Mockito {
+    private static final String IDENTIFIER = "oneGuid";
+    private static final String REDIS_KEY = CacheKey.lock(IDENTIFIER, Schedule2.class).toString();
+    private static final String FENCING_KEY = CacheKey.lockFencingToken().toString();
+    private static final String LOCK = "7:lockGuid";
+
+    @Mock
+    JedisOps mockJedisOps;
+    
+    @Mock
+    JedisTransaction mockTransaction;
+    
+    RedisDistributedLockDao dao;
+    
+    @BeforeMethod
+    public void beforeMethod() {
+        MockitoAnnotations.initMocks(this);
+        
+        dao = new RedisDistributedLockDao();
+        dao.setJedisOps(mockJedisOps);
+        
+        when(mockJedisOps.getTransaction(REDIS_KEY)).thenReturn(mockTransaction);
+        when(mockTransaction.setex(anyString(), anyInt(), anyString())).thenReturn(mockTransaction);
+        when(mockTransaction.del(anyString())).thenReturn(mockTransaction);
+    }
+    
+    @Test
+    public void acquireLock() {
+        when(mockJedisOps.incr(FENCING_KEY)).thenReturn(7L);
+        when(mockJedisOps.setnx(eq(REDIS_KEY), any())).thenReturn(1L);
+        when(mockJedisOps.expire(REDIS_KEY, 30)).thenReturn(1L);
+        
+        String lock = dao.acquireLock(Schedule2.class, IDENTIFIER, 30);
+        
+        assertTrue(lock.startsWith("7:"));
+        assertEquals(DistributedLockDao.getFencingToken(lock), 7L);
+        verify(mockJedisOps).setnx(REDIS_KEY, lock);
+        verify(mockJedisOps).expire(REDIS_KEY, 30);
+    }
+    
+    @Test
+    public void acquireLockDefaultExpiration() {
+        when(mockJedisOps.incr(FENCING_KEY)).thenReturn(1L);
+        when(mockJedisOps.setnx(eq(REDIS_KEY), any())).thenReturn(1L);
+        when(mockJedisOps.expire(REDIS_KEY, RedisDistributedLockDao.DEFAULT_EXPIRE_IN_SECONDS)).thenReturn(1L);
+        
+        dao.acquireLock(Schedule2.class, IDENTIFIER);
+        
+        verify(mockJedisOps).expire(REDIS_KEY, RedisDistributedLockDao.DEFAULT_EXPIRE_IN_SECONDS);
+    }
+    
+    @Test
+    public void acquireLockHeldByAnotherCaller() {
+        when(mockJedisOps.incr(FENCING_KEY)).thenReturn(8L);
+        when(mockJedisOps.setnx(eq(REDIS_KEY), any())).thenReturn(0L);
+        when(mockJedisOps.ttl(REDIS_KEY)).thenReturn(20L);
+        
+        assertNull(dao.acquireLock(Schedule2.class, IDENTIFIER, 30));
+        
+        verify(mockJedisOps, never()).expire(anyString(), anyInt());
+    }
+    
+    @Test
+    public void acquireLockRepairsLockWithoutExpiration() {
+        when(mockJedisOps.incr(FENCING_KEY)).thenReturn(8L);
+        when(mockJedisOps.setnx(eq(REDIS_KEY), any())).thenReturn(0L);
+        when(mockJedisOps.ttl(REDIS_KEY)).thenReturn(-1L);
+        
+        assertNull(dao.acquireLock(Schedule2.class, IDENTIFIER, 30));
+        
+        verify(mockJedisOps).expire(REDIS_KEY, 30);
+    }
+    
+    @Test
+    public void acquireLockExpirationFails() {
+        when(mockJedisOps.incr(FENCING_KEY)).thenReturn(7L);
+        when(mockJedisOps.setnx(eq(REDIS_KEY), any())).thenReturn(1L);
+        when(mockJedisOps.expire(REDIS_KEY, 30)).thenReturn(0L);
+        
+        try {
+            dao.acquireLock(Schedule2.class, IDENTIFIER, 30);
+            fail("Should have thrown exception");
+        } catch(BridgeServiceException e) {
+            verify(mockJedisOps).del(REDIS_KEY);
+        }
+    }
+    
+    @Test
+    public void fencingTokensIncrease() {
+        when(mockJedisOps.incr(FENCING_KEY)).thenReturn(7L, 8L);
+        when(mockJedisOps.setnx(eq(REDIS_KEY), any())).thenReturn(1L);
+        when(mockJedisOps.expire(REDIS_KEY, 30)).thenReturn(1L);
+        
+        String lock1 = dao.acquireLock(Schedule2.class, IDENTIFIER, 30);
+        String lock2 = dao.acquireLock(Schedule2.class, IDENTIFIER, 30);
+        
+        assertTrue(DistributedLockDao.getFencingToken(lock2) > DistributedLockDao.getFencingToken(lock1));
+    }
+    
+    @Test
+    public void renewLock() {
+        when(mockJedisOps.get(REDIS_KEY)).thenReturn(LOCK);
+        when(mockTransaction.exec()).thenReturn(ImmutableList.of("OK"));
+        
+        assertTrue(dao.renewLock(Schedule2.class, IDENTIFIER, LOCK, 30));
+        
+        verify(mockTransaction).setex(REDIS_KEY, 30, LOCK);
+        verify(mockTransaction).close();
+    }
+    
+    @Test
+    public void renewLockHeldByAnotherCaller() {
+        when(mockJedisOps.get(REDIS_KEY)).thenReturn("8:otherGuid");
+        
+        assertFalse(dao.renewLock(Schedule2.class, IDENTIFIER, LOCK, 30));
+        
+        verify(mockTransaction, never()).setex(anyString(), anyInt(), anyString());
+        verify(mockTransaction).close();
+    }
+    
+    @Test
+    public void renewLockChangedDuringTransaction() {
+        when(mockJedisOps.get(REDIS_KEY)).thenReturn(LOCK);
+        // A watched key that changes causes the transaction to be discarded.
+        when(mockTransaction.exec()).thenReturn(null);
+        
+        assertFalse(dao.renewLock(Schedule2.class, IDENTIFIER, LOCK, 30));
+    }
+    
+    @Test
+    public void releaseLock() {
+        when(mockJedisOps.get(REDIS_KEY)).thenReturn(LOCK);
+        when(mockTransaction.exec()).thenReturn(ImmutableList.of(1L));
+        
+        assertTrue(dao.releaseLock(Schedule2.class, IDENTIFIER, LOCK));
+        
+        verify(mockTransaction).del(REDIS_KEY);
+        verify(mockTransaction).close();
+    }
+    
+    @Test
+    public void releaseExpiredLock() {
+        when(mockJedisOps.get(REDIS_KEY)).thenReturn(null);
+        
+        assertFalse(dao.releaseLock(Schedule2.class, IDENTIFIER, LOCK));
+        
+        verify(mockTransaction, never()).del(anyString());
+    }
+    
+    @Test
+    public void releaseLockHeldByAnotherCaller() {
+        when(mockJedisOps.get(REDIS_KEY)).thenReturn("8:otherGuid");
+        
+        assertFalse(dao.releaseLock(Schedule2.class, IDENTIFIER, LOCK));
+        
+        verify(mockTransaction, never()).del(anyString());
+        verify(mockJedisOps, never()).del(anyString());
+    }
+    
+    @Test
+    public void releaseLockChangedDuringTransaction() {
+        ArgumentCaptor<String> keyCaptor = ArgumentCaptor.forClass(String.class);
+        when(mockJedisOps.get(REDIS_KEY)).thenReturn(LOCK);
+        when(mockTransaction.exec()).thenReturn(null);
+        
+        assertFalse(dao.releaseLock(Schedule2.class, IDENTIFIER, LOCK));
+        
+        verify(mockJedisOps).getTransaction(keyCaptor.capture());
+        assertEquals(keyCaptor.getValue(), REDIS_KEY);
+    }
+}
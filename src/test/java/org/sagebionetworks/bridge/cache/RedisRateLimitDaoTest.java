@@ -0,0 +1,74 @@
+package org.sagebionetworks.bridge.cache;
+
+import static org.sagebionetworks.bridge.cache.RedisRateLimitDao.EXPIRE_IN_SECONDS;
+import static org.testng.Assert.assertEquals;
+
+import org.joda.time.DateTimeUtils;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.redis.JedisOps;
+
+public class RedisRateLimitDaoTest extends Mockito {
+    private static final String NAME = "outbox-email";
+    private static final long NOW_MILLIS = 1500000000250L;
+    private static final String REDIS_KEY = CacheKey.rateLimit(NAME, 1500000000L).toString();
+
+    @Mock
+    JedisOps mockJedisOps;
+
+    RedisRateLimitDao dao;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        MockitoAnnotations.initMocks(this);
+        DateTimeUtils.setCurrentMillisFixed(NOW_MILLIS);
+
+        dao = new RedisRateLimitDao();
+        dao.setJedisOps(mockJedisOps);
+    }
+
+    @AfterMethod
+    public void afterMethod() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void firstPermitSetsExpiration() {
+        when(mockJedisOps.incr(REDIS_KEY)).thenReturn(1L);
+
+        assertEquals(dao.tryAcquire(NAME, 2), 0L);
+        verify(mockJedisOps).expire(REDIS_KEY, EXPIRE_IN_SECONDS);
+    }
+
+    @Test
+    public void laterPermitWithinLimit() {
+        when(mockJedisOps.incr(REDIS_KEY)).thenReturn(2L);
+
+        assertEquals(dao.tryAcquire(NAME, 2), 0L);
+        verify(mockJedisOps, never()).expire(anyString(), anyInt());
+    }
+
+    @Test
+    public void overLimitWaitsForNextSecond() {
+        when(mockJedisOps.incr(REDIS_KEY)).thenReturn(3L);
+
+        assertEquals(dao.tryAcquire(NAME, 2), 750L);
+    }
+
+    @Test
+    public void noCountWaitsForNextSecond() {
+        when(mockJedisOps.incr(REDIS_KEY)).thenReturn(null);
+
+        assertEquals(dao.tryAcquire(NAME, 2), 750L);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void zeroPermitsRejected() {
+        dao.tryAcquire(NAME, 0);
+    }
+}
@@ -21,7 +21,7 @@ import java.util.Map;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.google.common.collect.ImmutableList;
 
 import org.joda.time.DateTime;
@@ -62,9 +62,6 @@ public class DynamoActivityEventDaoTest extends Mockito {
     @Mock
     DynamoDBMapper mockMapper;
     
-    @Mock
-    PaginatedQueryList<DynamoActivityEvent> queryResults;
-    
     @Captor
     ArgumentCaptor<DynamoActivityEvent> eventCaptor;
     
@@ -77,6 +74,7 @@ public class DynamoActivityEventDaoTest extends Mockito {
     @BeforeMethod
     public void before() {
         MockitoAnnotations.initMocks(this);
+        dao.setPageReader(new DynamoPageReader());
     }
     
     @Test
@@ -308,8 +306,7 @@ public class DynamoActivityEventDaoTest extends Mockito {
     public void getActivityEventMap() {
         List<DynamoActivityEvent> savedEvents = ImmutableList.of(ENROLLMENT_EVENT, SURVEY_FINISHED_EVENT,
                 QUESTION_ANSWERED_EVENT, ACTIVITY_FINISHED_EVENT);
-        when(queryResults.iterator()).thenReturn(savedEvents.iterator());
-        when(mockMapper.query(eq(DynamoActivityEvent.class), any())).thenReturn(queryResults);
+        when(mockMapper.queryPage(eq(DynamoActivityEvent.class), any())).thenReturn(makePage(savedEvents));
         
         Map<String, DateTime> results = dao.getActivityEventMap(HEALTH_CODE);
         
@@ -319,7 +316,7 @@ public class DynamoActivityEventDaoTest extends Mockito {
         assertEquals(results.get("question:DDD-EEE-FFF:answered=anAnswer"), TIMESTAMP);
         assertEquals(results.get("activity:AAA-BBB-CCC:finished"), TIMESTAMP);
         
-        verify(mockMapper).query(any(), queryCaptor.capture());
+        verify(mockMapper).queryPage(any(), queryCaptor.capture());
         
         DynamoDBQueryExpression<DynamoActivityEvent> query = queryCaptor.getValue();
         assertEquals(query.getHashKeyValues().getHealthCode(), HEALTH_CODE);
@@ -328,13 +325,12 @@ public class DynamoActivityEventDaoTest extends Mockito {
     @Test
     public void getActivityEventMapNoEvents() {
         List<DynamoActivityEvent> savedEvents = ImmutableList.of();
-        when(queryResults.iterator()).thenReturn(savedEvents.iterator());
-        when(mockMapper.query(eq(DynamoActivityEvent.class), any())).thenReturn(queryResults);
+        when(mockMapper.queryPage(eq(DynamoActivityEvent.class), any())).thenReturn(makePage(savedEvents));
         
         Map<String, DateTime> results = dao.getActivityEventMap(HEALTH_CODE);
         assertTrue(results.isEmpty());
         
-        verify(mockMapper).query(any(), queryCaptor.capture());
+        verify(mockMapper).queryPage(any(), queryCaptor.capture());
         
         DynamoDBQueryExpression<DynamoActivityEvent> query = queryCaptor.getValue();
         assertEquals(query.getHashKeyValues().getHealthCode(), HEALTH_CODE);
@@ -344,8 +340,7 @@ public class DynamoActivityEventDaoTest extends Mockito {
     public void deleteActivityEventsGlobal() {
         List<DynamoActivityEvent> savedEvents = ImmutableList.of(ENROLLMENT_EVENT, SURVEY_FINISHED_EVENT,
                 QUESTION_ANSWERED_EVENT, ACTIVITY_FINISHED_EVENT);
-        when(queryResults.toArray()).thenReturn(savedEvents.toArray());
-        when(mockMapper.query(eq(DynamoActivityEvent.class), any())).thenReturn(queryResults);
+        when(mockMapper.queryPage(eq(DynamoActivityEvent.class), any())).thenReturn(makePage(savedEvents));
         
         dao.deleteActivityEvents(HEALTH_CODE);
         
@@ -366,4 +361,10 @@ public class DynamoActivityEventDaoTest extends Mockito {
 
         verify(mockMapper, never()).save(any());
     }
-}    
+
+    private static QueryResultPage<DynamoActivityEvent> makePage(List<DynamoActivityEvent> results) {
+        QueryResultPage<DynamoActivityEvent> page = new QueryResultPage<>();
+        page.setResults(results);
+        return page;
+    }
+}
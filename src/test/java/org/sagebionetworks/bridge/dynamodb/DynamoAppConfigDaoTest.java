@@ -13,7 +13,7 @@ import java.util.List;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.amazonaws.services.dynamodbv2.model.Condition;
 import com.google.common.collect.ImmutableList;
 
@@ -49,9 +49,6 @@ public class DynamoAppConfigDaoTest extends Mockito {
     @Mock
     CriteriaDao mockCriteriaDao;
     
-    @Mock
-    PaginatedQueryList<DynamoAppConfig> mockResults;
-    
     @Captor
     ArgumentCaptor<DynamoDBQueryExpression<DynamoAppConfig>> queryCaptor;
     
@@ -67,19 +64,18 @@ public class DynamoAppConfigDaoTest extends Mockito {
     @BeforeMethod
     public void beforeMethod() {
         MockitoAnnotations.initMocks(this);
+        dao.setPageReader(new DynamoPageReader());
     }
     
     @Test
     public void getAppConfigsIncludeDeleted() {
         List<DynamoAppConfig> configs = ImmutableList.of(new DynamoAppConfig(), new DynamoAppConfig());
-        when(mockResults.size()).thenReturn(configs.size());
-        when(mockResults.iterator()).thenReturn(configs.iterator());
-        when(mockMapper.query(eq(DynamoAppConfig.class), any())).thenReturn(mockResults);
+        when(mockMapper.queryPage(eq(DynamoAppConfig.class), any())).thenReturn(makePage(configs));
         
         List<AppConfig> results = dao.getAppConfigs(TEST_APP_ID, true);
         assertEquals(results.size(), 2);
         
-        verify(mockMapper).query(eq(DynamoAppConfig.class), queryCaptor.capture());
+        verify(mockMapper).queryPage(eq(DynamoAppConfig.class), queryCaptor.capture());
         
         DynamoDBQueryExpression<DynamoAppConfig> query = queryCaptor.getValue();
         assertEquals(query.getHashKeyValues().getAppId(), TEST_APP_ID);
@@ -90,14 +86,12 @@ public class DynamoAppConfigDaoTest extends Mockito {
     @Test
     public void getAppConfigsExcludeDeleted() {
         List<DynamoAppConfig> configs = ImmutableList.of(new DynamoAppConfig(), new DynamoAppConfig());
-        when(mockResults.size()).thenReturn(configs.size());
-        when(mockResults.iterator()).thenReturn(configs.iterator());
-        when(mockMapper.query(eq(DynamoAppConfig.class), any())).thenReturn(mockResults);
+        when(mockMapper.queryPage(eq(DynamoAppConfig.class), any())).thenReturn(makePage(configs));
         
         List<AppConfig> results = dao.getAppConfigs(TEST_APP_ID, false);
         assertEquals(results.size(), 2);
         
-        verify(mockMapper).query(eq(DynamoAppConfig.class), queryCaptor.capture());
+        verify(mockMapper).queryPage(eq(DynamoAppConfig.class), queryCaptor.capture());
         
         DynamoDBQueryExpression<DynamoAppConfig> query = queryCaptor.getValue();
         assertEquals(query.getHashKeyValues().getAppId(), TEST_APP_ID);
@@ -303,4 +297,10 @@ public class DynamoAppConfigDaoTest extends Mockito {
     public void deleteAppConfigPermanentlyNotFound() {
         dao.deleteAppConfigPermanently(TEST_APP_ID, GUID);
     }
+
+    private static QueryResultPage<DynamoAppConfig> makePage(List<DynamoAppConfig> results) {
+        QueryResultPage<DynamoAppConfig> page = new QueryResultPage<>();
+        page.setResults(results);
+        return page;
+    }
 }
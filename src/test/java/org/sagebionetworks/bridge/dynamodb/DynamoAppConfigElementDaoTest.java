@@ -4,6 +4,7 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.TestConstants.TEST_APP_ID;
@@ -29,7 +30,8 @@ import org.sagebionetworks.bridge.models.appconfig.AppConfigElement;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.Condition;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.google.common.collect.ImmutableList;
@@ -44,9 +46,6 @@ public class DynamoAppConfigElementDaoTest {
     @Mock
     private DynamoDBMapper mockMapper;
     
-    @Mock
-    private PaginatedQueryList<DynamoAppConfigElement> mockResults;
-    
     @Captor
     private ArgumentCaptor<DynamoDBQueryExpression<DynamoAppConfigElement>> queryCaptor;
     
@@ -60,6 +59,7 @@ public class DynamoAppConfigElementDaoTest {
         MockitoAnnotations.initMocks(this);
         dao = new DynamoAppConfigElementDao();
         dao.setMapper(mockMapper);
+        dao.setPageReader(new DynamoPageReader());
     }
     
     @SuppressWarnings("unchecked")
@@ -72,7 +72,7 @@ public class DynamoAppConfigElementDaoTest {
         ace2.setId(ID_2);
         ace2.setRevision(3L);
         
-        when(mockMapper.query(eq(DynamoAppConfigElement.class), any())).thenReturn(mockResults);
+        when(mockMapper.queryPage(eq(DynamoAppConfigElement.class), any())).thenReturn(makePage(null, ace1, ace2));
         when(mockMapper.batchLoad(any(List.class))).thenReturn(appConfigElementMapId1And2());
         
         List<AppConfigElement> returned = dao.getMostRecentElements(TEST_APP_ID, true);
@@ -80,7 +80,7 @@ public class DynamoAppConfigElementDaoTest {
         assertIdAndRevision(returned.get(0), ID_1, 3L);
         assertIdAndRevision(returned.get(1), ID_2, 3L);
         
-        verify(mockMapper).query(eq(DynamoAppConfigElement.class), queryCaptor.capture());
+        verify(mockMapper).queryPage(eq(DynamoAppConfigElement.class), queryCaptor.capture());
         DynamoDBQueryExpression<DynamoAppConfigElement> query = queryCaptor.getValue();
         
         assertEquals(query.getIndexName(), DynamoAppConfigElementDao.STUDY_ID_INDEX_NAME);
@@ -100,7 +100,7 @@ public class DynamoAppConfigElementDaoTest {
         ace2.setId(ID_2);
         ace2.setRevision(3L);
         
-        when(mockMapper.query(eq(DynamoAppConfigElement.class), any())).thenReturn(mockResults);
+        when(mockMapper.queryPage(eq(DynamoAppConfigElement.class), any())).thenReturn(makePage(null, ace1, ace2));
         when(mockMapper.batchLoad(any(List.class))).thenReturn(appConfigElementMapId1And2());
         
         List<AppConfigElement> returned = dao.getMostRecentElements(TEST_APP_ID, false);
@@ -111,6 +111,8 @@ public class DynamoAppConfigElementDaoTest {
     
     @Test
     public void getMostRecentElementsNoResults() {
+        when(mockMapper.queryPage(eq(DynamoAppConfigElement.class), any())).thenReturn(makePage(null));
+
         List<AppConfigElement> returned = dao.getMostRecentElements(TEST_APP_ID, false);
         assertTrue(returned.isEmpty());
     }
@@ -119,13 +121,12 @@ public class DynamoAppConfigElementDaoTest {
     @Test
     public void getMostRecentElement() {
         DynamoAppConfigElement element = new DynamoAppConfigElement();
-        when(mockMapper.query(eq(DynamoAppConfigElement.class), any())).thenReturn(mockResults);
-        when(mockResults.get(0)).thenReturn(element);
+        when(mockMapper.queryPage(eq(DynamoAppConfigElement.class), any())).thenReturn(makePage(null, element));
         
         AppConfigElement returned = dao.getMostRecentElement(TEST_APP_ID, "id");
         assertEquals(returned, element);
         
-        verify(mockMapper).query(eq(DynamoAppConfigElement.class), queryCaptor.capture());
+        verify(mockMapper).queryPage(eq(DynamoAppConfigElement.class), queryCaptor.capture());
         DynamoDBQueryExpression<DynamoAppConfigElement> query = queryCaptor.getValue();
         
         assertEquals(query.getHashKeyValues().getKey(), TEST_APP_ID + ":id");
@@ -139,22 +140,36 @@ public class DynamoAppConfigElementDaoTest {
 
     @Test
     public void getMostRecentElementNotFound() {
-        when(mockMapper.query(eq(DynamoAppConfigElement.class), any())).thenReturn(mockResults);
-        when(mockResults.get(0)).thenReturn(null);
+        when(mockMapper.queryPage(eq(DynamoAppConfigElement.class), any())).thenReturn(makePage(null));
         
         AppConfigElement returned = dao.getMostRecentElement(TEST_APP_ID, "id");
         assertNull(returned);
     }
+
+    @Test
+    public void getMostRecentElementSkipsFilteredPage() {
+        // The most recent revision is deleted, so the filter empties the first page of one item.
+        Map<String, AttributeValue> lastEvaluatedKey = ImmutableMap.of("revision", new AttributeValue().withN("3"));
+        DynamoAppConfigElement element = new DynamoAppConfigElement();
+        when(mockMapper.queryPage(eq(DynamoAppConfigElement.class), any())).thenReturn(
+                makePage(lastEvaluatedKey), makePage(null, element));
+        
+        AppConfigElement returned = dao.getMostRecentElement(TEST_APP_ID, "id");
+        assertEquals(returned, element);
+        
+        verify(mockMapper, times(2)).queryPage(eq(DynamoAppConfigElement.class), queryCaptor.capture());
+        assertEquals(queryCaptor.getValue().getExclusiveStartKey(), lastEvaluatedKey);
+    }
     
     @Test
     public void getElementRevisionsIncludesDeleted() {
-        when(mockMapper.query(eq(DynamoAppConfigElement.class), any())).thenReturn(mockResults);
-        when(mockResults.stream()).thenReturn(appConfigElementListId1().stream());
+        when(mockMapper.queryPage(eq(DynamoAppConfigElement.class), any())).thenReturn(
+                makePage(null, appConfigElementListId1().toArray(new DynamoAppConfigElement[0])));
         
         List<AppConfigElement> returned = dao.getElementRevisions(TEST_APP_ID, ID_1, true);
         assertEquals(returned, appConfigElementListId1());
         
-        verify(mockMapper).query(eq(DynamoAppConfigElement.class), queryCaptor.capture());
+        verify(mockMapper).queryPage(eq(DynamoAppConfigElement.class), queryCaptor.capture());
         DynamoDBQueryExpression<DynamoAppConfigElement> query = queryCaptor.getValue();
         
         assertEquals(query.getHashKeyValues().getKey(), TEST_APP_ID + ":id1");
@@ -164,13 +179,13 @@ public class DynamoAppConfigElementDaoTest {
     
     @Test
     public void getElementRevisionsExcludesDeleted() {
-        when(mockMapper.query(eq(DynamoAppConfigElement.class), any())).thenReturn(mockResults);
-        when(mockResults.stream()).thenReturn(appConfigElementListId1().stream());
+        when(mockMapper.queryPage(eq(DynamoAppConfigElement.class), any())).thenReturn(
+                makePage(null, appConfigElementListId1().toArray(new DynamoAppConfigElement[0])));
         
         List<AppConfigElement> returned = dao.getElementRevisions(TEST_APP_ID, ID_1, false);
         assertEquals(returned, appConfigElementListId1());
         
-        verify(mockMapper).query(eq(DynamoAppConfigElement.class), queryCaptor.capture());
+        verify(mockMapper).queryPage(eq(DynamoAppConfigElement.class), queryCaptor.capture());
         DynamoDBQueryExpression<DynamoAppConfigElement> query = queryCaptor.getValue();
         
         assertEquals(query.getHashKeyValues().getKey(), TEST_APP_ID + ":id1");
@@ -249,6 +264,14 @@ public class DynamoAppConfigElementDaoTest {
         dao.deleteElementRevisionPermanently(TEST_APP_ID, "id", 1L);        
     }
     
+    private static QueryResultPage<DynamoAppConfigElement> makePage(Map<String, AttributeValue> lastEvaluatedKey,
+            DynamoAppConfigElement... elements) {
+        QueryResultPage<DynamoAppConfigElement> page = new QueryResultPage<>();
+        page.setResults(ImmutableList.copyOf(elements));
+        page.setLastEvaluatedKey(lastEvaluatedKey);
+        return page;
+    }
+
     private List<DynamoAppConfigElement> appConfigElementListId1() {
         DynamoAppConfigElement el1V1 = new DynamoAppConfigElement();
         el1V1.setAppId(TEST_APP_ID);
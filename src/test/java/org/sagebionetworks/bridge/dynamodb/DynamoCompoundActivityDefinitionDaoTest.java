@@ -9,7 +9,7 @@ import java.util.List;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -47,9 +47,6 @@ public class DynamoCompoundActivityDefinitionDaoTest extends Mockito {
     @Mock
     DynamoDBMapper mockMapper;
     
-    @Mock
-    PaginatedQueryList<DynamoCompoundActivityDefinition> mockQueryList;
-    
     @Mock
     List<DynamoDBMapper.FailedBatch> mockFailedBatchList; 
     
@@ -65,6 +62,7 @@ public class DynamoCompoundActivityDefinitionDaoTest extends Mockito {
     @BeforeMethod
     public void beforeMethod() {
         MockitoAnnotations.initMocks(this);
+        dao.setPageReader(new DynamoPageReader());
     }
     
     @Test
@@ -106,18 +104,20 @@ public class DynamoCompoundActivityDefinitionDaoTest extends Mockito {
 
     @Test
     public void deleteAllCompoundActivityDefinitionsInApp() {
-        when(mockMapper.query(eq(DynamoCompoundActivityDefinition.class),
-                queryCaptor.capture())).thenReturn(mockQueryList);
+        List<DynamoCompoundActivityDefinition> defList = ImmutableList.of(COMPOUND_ACTIVITY_DEF);
+        when(mockMapper.queryPage(eq(DynamoCompoundActivityDefinition.class),
+                queryCaptor.capture())).thenReturn(makePage(defList));
         
         dao.deleteAllCompoundActivityDefinitionsInApp(TEST_APP_ID);
         
-        verify(mockMapper).batchDelete(mockQueryList);
+        verify(mockMapper).batchDelete(defList);
     }
 
     @Test(expectedExceptions = BridgeServiceException.class)
     public void deleteAllCompoundActivityDefinitionsInAppWithErrors() {
-        when(mockMapper.query(eq(DynamoCompoundActivityDefinition.class),
-                queryCaptor.capture())).thenReturn(mockQueryList);
+        List<DynamoCompoundActivityDefinition> defList = ImmutableList.of(COMPOUND_ACTIVITY_DEF);
+        when(mockMapper.queryPage(eq(DynamoCompoundActivityDefinition.class),
+                queryCaptor.capture())).thenReturn(makePage(defList));
         
         DynamoDBMapper.FailedBatch failure1 = new DynamoDBMapper.FailedBatch();
         failure1.setException(new IllegalArgumentException("First errror message"));
@@ -128,11 +128,11 @@ public class DynamoCompoundActivityDefinitionDaoTest extends Mockito {
         failure2.setUnprocessedItems(ImmutableMap.of());
         
         when(mockFailedBatchList.iterator()).thenReturn(ImmutableList.of(failure1, failure2).iterator());
-        when(mockMapper.batchDelete(mockQueryList)).thenReturn(mockFailedBatchList);
+        when(mockMapper.batchDelete(defList)).thenReturn(mockFailedBatchList);
         
         dao.deleteAllCompoundActivityDefinitionsInApp(TEST_APP_ID);
         
-        verify(mockMapper).batchDelete(mockQueryList);
+        verify(mockMapper).batchDelete(defList);
     }
     
     @Test
@@ -140,13 +140,12 @@ public class DynamoCompoundActivityDefinitionDaoTest extends Mockito {
         List<DynamoCompoundActivityDefinition> defList = ImmutableList.of(
                 new DynamoCompoundActivityDefinition(),
                 new DynamoCompoundActivityDefinition());
-        when(mockQueryList.toArray()).thenReturn(defList.toArray());
-        when(mockMapper.query(eq(DynamoCompoundActivityDefinition.class), any())).thenReturn(mockQueryList);
+        when(mockMapper.queryPage(eq(DynamoCompoundActivityDefinition.class), any())).thenReturn(makePage(defList));
         
         List<CompoundActivityDefinition> results = dao.getAllCompoundActivityDefinitionsInApp(TEST_APP_ID);
         assertEquals(results.size(), 2);
         
-        verify(mockMapper).query(any(), queryCaptor.capture());
+        verify(mockMapper).queryPage(any(), queryCaptor.capture());
         assertEquals(queryCaptor.getValue().getHashKeyValues().getAppId(), TEST_APP_ID);
     }
 
@@ -190,4 +189,11 @@ public class DynamoCompoundActivityDefinitionDaoTest extends Mockito {
         
         dao.updateCompoundActivityDefinition(COMPOUND_ACTIVITY_DEF);
     }
+
+    private static QueryResultPage<DynamoCompoundActivityDefinition> makePage(
+            List<DynamoCompoundActivityDefinition> results) {
+        QueryResultPage<DynamoCompoundActivityDefinition> page = new QueryResultPage<>();
+        page.setResults(results);
+        return page;
+    }
 }
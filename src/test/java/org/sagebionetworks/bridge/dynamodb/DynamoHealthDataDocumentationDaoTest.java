@@ -45,6 +45,7 @@ public class DynamoHealthDataDocumentationDaoTest {
     @BeforeMethod
     public void before() {
         MockitoAnnotations.initMocks(this);
+        dao.setPageReader(new DynamoPageReader());
     }
 
     @Test
@@ -2,6 +2,7 @@ package org.sagebionetworks.bridge.dynamodb;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
@@ -12,15 +13,20 @@ import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
@@ -52,6 +58,7 @@ public class DynamoHealthDataEx3DaoTest {
     @BeforeMethod
     public void before() {
         MockitoAnnotations.initMocks(this);
+        dao.setPageReader(new DynamoPageReader());
     }
 
     @Test
@@ -129,11 +136,41 @@ public class DynamoHealthDataEx3DaoTest {
         assertFalse(result.isPresent());
     }
 
+    @Test
+    public void getRecords() {
+        DynamoHealthDataRecordEx3 record1 = new DynamoHealthDataRecordEx3();
+        record1.setId("record-1");
+        DynamoHealthDataRecordEx3 record2 = new DynamoHealthDataRecordEx3();
+        record2.setId("record-2");
+        Map<String, List<Object>> resultMap = ImmutableMap.of("HealthDataRecordEx3",
+                ImmutableList.of(record1, record2));
+        when(mockMapper.batchLoad(anyList())).thenReturn(resultMap);
+
+        List<HealthDataRecordEx3> resultList = dao.getRecords(ImmutableList.of("record-1", "record-2",
+                "missing-record"));
+        assertEquals(resultList, ImmutableList.of(record1, record2));
+
+        // Verify keys.
+        ArgumentCaptor<List<Object>> keyCaptor = ArgumentCaptor.forClass(List.class);
+        verify(mockMapper).batchLoad(keyCaptor.capture());
+        List<Object> keyList = keyCaptor.getValue();
+        assertEquals(keyList.size(), 3);
+        assertEquals(((DynamoHealthDataRecordEx3) keyList.get(0)).getId(), "record-1");
+        assertEquals(((DynamoHealthDataRecordEx3) keyList.get(2)).getId(), "missing-record");
+    }
+
+    @Test
+    public void getRecords_NoIds() {
+        List<HealthDataRecordEx3> resultList = dao.getRecords(ImmutableList.of());
+        assertTrue(resultList.isEmpty());
+        verify(mockMapper, never()).batchLoad(anyList());
+    }
+
     @Test
     public void getRecordsForHealthCode() {
         // Mock dependencies.
         DynamoHealthDataRecordEx3 record = new DynamoHealthDataRecordEx3();
-        doReturn(ImmutableList.of(record)).when(dao).queryHelper(any());
+        doReturn(makePage(null, record)).when(dao).queryPageHelper(any(), any());
 
         // Execute.
         ForwardCursorPagedResourceList<HealthDataRecordEx3> resultList = dao.getRecordsForHealthCode(
@@ -146,7 +183,7 @@ public class DynamoHealthDataEx3DaoTest {
         // Validate.
         ArgumentCaptor<DynamoDBQueryExpression<DynamoHealthDataRecordEx3>> queryCaptor = ArgumentCaptor.forClass(
                 DynamoDBQueryExpression.class);
-        verify(dao).queryHelper(queryCaptor.capture());
+        verify(dao).queryPageHelper(queryCaptor.capture(), eq("DynamoHealthDataEx3Dao.getRecordsForHealthCode"));
 
         DynamoDBQueryExpression<DynamoHealthDataRecordEx3> query = queryCaptor.getValue();
         assertFalse(query.isConsistentRead());
@@ -166,7 +203,7 @@ public class DynamoHealthDataEx3DaoTest {
     public void getRecordsForHealthCode_offsetKeyBeforeCreatedOnStart() {
         // Mock dependencies.
         DynamoHealthDataRecordEx3 record = new DynamoHealthDataRecordEx3();
-        doReturn(ImmutableList.of(record)).when(dao).queryHelper(any());
+        doReturn(makePage(null, record)).when(dao).queryPageHelper(any(), any());
 
         // Execute.
         dao.getRecordsForHealthCode(TestConstants.HEALTH_CODE, CREATED_ON_START, CREATED_ON_END,
@@ -175,7 +212,7 @@ public class DynamoHealthDataEx3DaoTest {
         // Validate.
         ArgumentCaptor<DynamoDBQueryExpression<DynamoHealthDataRecordEx3>> queryCaptor = ArgumentCaptor.forClass(
                 DynamoDBQueryExpression.class);
-        verify(dao).queryHelper(queryCaptor.capture());
+        verify(dao).queryPageHelper(queryCaptor.capture(), eq("DynamoHealthDataEx3Dao.getRecordsForHealthCode"));
 
         DynamoDBQueryExpression<DynamoHealthDataRecordEx3> query = queryCaptor.getValue();
         Condition rangeKeyCondition = query.getRangeKeyConditions().get("createdOn");
@@ -186,7 +223,7 @@ public class DynamoHealthDataEx3DaoTest {
     public void getRecordsForHealthCode_offsetKeyAfterCreatedOnStart() {
         // Mock dependencies.
         DynamoHealthDataRecordEx3 record = new DynamoHealthDataRecordEx3();
-        doReturn(ImmutableList.of(record)).when(dao).queryHelper(any());
+        doReturn(makePage(null, record)).when(dao).queryPageHelper(any(), any());
 
         // Execute.
         dao.getRecordsForHealthCode(TestConstants.HEALTH_CODE, CREATED_ON_START, CREATED_ON_END,
@@ -195,7 +232,7 @@ public class DynamoHealthDataEx3DaoTest {
         // Validate.
         ArgumentCaptor<DynamoDBQueryExpression<DynamoHealthDataRecordEx3>> queryCaptor = ArgumentCaptor.forClass(
                 DynamoDBQueryExpression.class);
-        verify(dao).queryHelper(queryCaptor.capture());
+        verify(dao).queryPageHelper(queryCaptor.capture(), eq("DynamoHealthDataEx3Dao.getRecordsForHealthCode"));
 
         DynamoDBQueryExpression<DynamoHealthDataRecordEx3> query = queryCaptor.getValue();
         Condition rangeKeyCondition = query.getRangeKeyConditions().get("createdOn");
@@ -212,11 +249,10 @@ public class DynamoHealthDataEx3DaoTest {
     @Test
     public void getRecordsForHealthCode_withNextOffsetKey() {
         // Mock dependencies.
-        DynamoHealthDataRecordEx3 record0 = new DynamoHealthDataRecordEx3();
-        DynamoHealthDataRecordEx3 record1 = new DynamoHealthDataRecordEx3();
-        DynamoHealthDataRecordEx3 record2 = new DynamoHealthDataRecordEx3();
-        record2.setCreatedOn(CREATED_ON_START + 10000);
-        doReturn(ImmutableList.of(record0, record1, record2)).when(dao).queryHelper(any());
+        DynamoHealthDataRecordEx3 record0 = makeRecord("record0", CREATED_ON_START);
+        DynamoHealthDataRecordEx3 record1 = makeRecord("record1", CREATED_ON_START + 10000);
+        DynamoHealthDataRecordEx3 record2 = makeRecord("record2", CREATED_ON_START + 10000);
+        doReturn(makePage(null, record0, record1, record2)).when(dao).queryPageHelper(any(), any());
 
         // Execute.
         ForwardCursorPagedResourceList<HealthDataRecordEx3> resultList = dao.getRecordsForHealthCode(
@@ -224,14 +260,101 @@ public class DynamoHealthDataEx3DaoTest {
         assertEquals(resultList.getItems().size(), 2);
         assertSame(resultList.getItems().get(0), record0);
         assertSame(resultList.getItems().get(1), record1);
-        assertEquals(resultList.getNextPageOffsetKey(), String.valueOf(CREATED_ON_START + 10000));
+
+        // The offset key identifies the last record returned, which shares its createdOn with the next record.
+        assertEquals(resultList.getNextPageOffsetKey(), (CREATED_ON_START + 10000) + ":record1");
+        verify(dao).queryPageHelper(any(), any());
+    }
+
+    @Test
+    public void getRecordsForHealthCode_nextOffsetKeyFromLastEvaluatedKey() {
+        // DynamoDB can return a short page with a LastEvaluatedKey when the page reaches 1MB.
+        DynamoHealthDataRecordEx3 record0 = makeRecord("record0", CREATED_ON_START);
+        Map<String, AttributeValue> lastEvaluatedKey = ImmutableMap.of(
+                "id", new AttributeValue().withS("record0"),
+                "healthCode", new AttributeValue().withS(TestConstants.HEALTH_CODE),
+                "createdOn", new AttributeValue().withN(String.valueOf(CREATED_ON_START)));
+        doReturn(makePage(lastEvaluatedKey, record0)).when(dao).queryPageHelper(any(), any());
+
+        ForwardCursorPagedResourceList<HealthDataRecordEx3> resultList = dao.getRecordsForHealthCode(
+                TestConstants.HEALTH_CODE, CREATED_ON_START, CREATED_ON_END, 2, null);
+        assertEquals(resultList.getItems().size(), 1);
+        assertEquals(resultList.getNextPageOffsetKey(), CREATED_ON_START + ":record0");
+    }
+
+    @Test
+    public void getRecordsForHealthCode_withOffsetKey() {
+        doReturn(makePage(null)).when(dao).queryPageHelper(any(), any());
+
+        dao.getRecordsForHealthCode(TestConstants.HEALTH_CODE, CREATED_ON_START, CREATED_ON_END, 2,
+                (CREATED_ON_START + 10000) + ":record1");
+
+        ArgumentCaptor<DynamoDBQueryExpression<DynamoHealthDataRecordEx3>> queryCaptor = ArgumentCaptor.forClass(
+                DynamoDBQueryExpression.class);
+        verify(dao).queryPageHelper(queryCaptor.capture(), eq("DynamoHealthDataEx3Dao.getRecordsForHealthCode"));
+
+        DynamoDBQueryExpression<DynamoHealthDataRecordEx3> query = queryCaptor.getValue();
+        Map<String, AttributeValue> startKey = query.getExclusiveStartKey();
+        assertEquals(startKey.size(), 3);
+        assertEquals(startKey.get("id").getS(), "record1");
+        assertEquals(startKey.get("healthCode").getS(), TestConstants.HEALTH_CODE);
+        assertEquals(startKey.get("createdOn").getN(), String.valueOf(CREATED_ON_START + 10000));
+
+        // The range is not narrowed; the start key positions the page.
+        Condition rangeKeyCondition = query.getRangeKeyConditions().get("createdOn");
+        assertEquals(rangeKeyCondition.getAttributeValueList().get(0).getN(), String.valueOf(CREATED_ON_START));
+    }
+
+    @Test
+    public void getRecordsForHealthCode_offsetKeyBeforeRange() {
+        doReturn(makePage(null)).when(dao).queryPageHelper(any(), any());
+
+        dao.getRecordsForHealthCode(TestConstants.HEALTH_CODE, CREATED_ON_START, CREATED_ON_END, 2,
+                (CREATED_ON_START - 10000) + ":record1");
+
+        ArgumentCaptor<DynamoDBQueryExpression<DynamoHealthDataRecordEx3>> queryCaptor = ArgumentCaptor.forClass(
+                DynamoDBQueryExpression.class);
+        verify(dao).queryPageHelper(queryCaptor.capture(), eq("DynamoHealthDataEx3Dao.getRecordsForHealthCode"));
+        assertNull(queryCaptor.getValue().getExclusiveStartKey());
+    }
+
+    @Test
+    public void getRecordsForHealthCode_offsetKeyAfterRange() {
+        ForwardCursorPagedResourceList<HealthDataRecordEx3> resultList = dao.getRecordsForHealthCode(
+                TestConstants.HEALTH_CODE, CREATED_ON_START, CREATED_ON_END, 2,
+                (CREATED_ON_END + 10000) + ":record1");
+        assertTrue(resultList.getItems().isEmpty());
+        assertNull(resultList.getNextPageOffsetKey());
+
+        verify(dao, never()).queryPageHelper(any(), any());
+    }
+
+    @Test(expectedExceptions = BadRequestException.class, expectedExceptionsMessageRegExp =
+            "Invalid offsetKey bad:record1")
+    public void getRecordsForHealthCode_offsetKeyWithIdInvalid() {
+        dao.getRecordsForHealthCode(TestConstants.HEALTH_CODE, CREATED_ON_START, CREATED_ON_END,
+                BridgeConstants.API_DEFAULT_PAGE_SIZE, "bad:record1");
+    }
+
+    @Test
+    public void getRecordsForAppAndStudy_withOffsetKey() {
+        doReturn(makePage(null)).when(dao).queryPageHelper(any(), any());
+
+        dao.getRecordsForAppAndStudy(TestConstants.TEST_APP_ID, STUDY_ID, CREATED_ON_START, CREATED_ON_END, 2,
+                CREATED_ON_START + ":record1");
+
+        ArgumentCaptor<DynamoDBQueryExpression<DynamoHealthDataRecordEx3>> queryCaptor = ArgumentCaptor.forClass(
+                DynamoDBQueryExpression.class);
+        verify(dao).queryPageHelper(queryCaptor.capture(), eq("DynamoHealthDataEx3Dao.getRecordsForAppAndStudy"));
+        assertEquals(queryCaptor.getValue().getExclusiveStartKey().get("appStudyKey").getS(),
+                TestConstants.TEST_APP_ID + ":" + STUDY_ID);
     }
 
     @Test
     public void getRecordsForApp() {
         // Mock dependencies.
         DynamoHealthDataRecordEx3 record = new DynamoHealthDataRecordEx3();
-        doReturn(ImmutableList.of(record)).when(dao).queryHelper(any());
+        doReturn(makePage(null, record)).when(dao).queryPageHelper(any(), any());
 
         // Execute.
         ForwardCursorPagedResourceList<HealthDataRecordEx3> resultList = dao.getRecordsForApp(
@@ -244,7 +367,7 @@ public class DynamoHealthDataEx3DaoTest {
         // Validate.
         ArgumentCaptor<DynamoDBQueryExpression<DynamoHealthDataRecordEx3>> queryCaptor = ArgumentCaptor.forClass(
                 DynamoDBQueryExpression.class);
-        verify(dao).queryHelper(queryCaptor.capture());
+        verify(dao).queryPageHelper(queryCaptor.capture(), eq("DynamoHealthDataEx3Dao.getRecordsForApp"));
 
         DynamoDBQueryExpression<DynamoHealthDataRecordEx3> query = queryCaptor.getValue();
         assertFalse(query.isConsistentRead());
@@ -264,7 +387,7 @@ public class DynamoHealthDataEx3DaoTest {
     public void getRecordsForAppAndStudy() {
         // Mock dependencies.
         DynamoHealthDataRecordEx3 record = new DynamoHealthDataRecordEx3();
-        doReturn(ImmutableList.of(record)).when(dao).queryHelper(any());
+        doReturn(makePage(null, record)).when(dao).queryPageHelper(any(), any());
 
         // Execute.
         ForwardCursorPagedResourceList<HealthDataRecordEx3> resultList = dao.getRecordsForAppAndStudy(
@@ -277,7 +400,7 @@ public class DynamoHealthDataEx3DaoTest {
         // Validate.
         ArgumentCaptor<DynamoDBQueryExpression<DynamoHealthDataRecordEx3>> queryCaptor = ArgumentCaptor.forClass(
                 DynamoDBQueryExpression.class);
-        verify(dao).queryHelper(queryCaptor.capture());
+        verify(dao).queryPageHelper(queryCaptor.capture(), eq("DynamoHealthDataEx3Dao.getRecordsForAppAndStudy"));
 
         DynamoDBQueryExpression<DynamoHealthDataRecordEx3> query = queryCaptor.getValue();
         assertFalse(query.isConsistentRead());
@@ -293,4 +416,19 @@ public class DynamoHealthDataEx3DaoTest {
         assertEquals(rangeKeyCondition.getAttributeValueList().get(0).getN(), String.valueOf(CREATED_ON_START));
         assertEquals(rangeKeyCondition.getAttributeValueList().get(1).getN(), String.valueOf(CREATED_ON_END));
     }
+
+    private static DynamoHealthDataRecordEx3 makeRecord(String id, long createdOn) {
+        DynamoHealthDataRecordEx3 record = new DynamoHealthDataRecordEx3();
+        record.setId(id);
+        record.setCreatedOn(createdOn);
+        return record;
+    }
+
+    private static QueryResultPage<DynamoHealthDataRecordEx3> makePage(Map<String, AttributeValue> lastEvaluatedKey,
+            DynamoHealthDataRecordEx3... records) {
+        QueryResultPage<DynamoHealthDataRecordEx3> page = new QueryResultPage<>();
+        page.setResults(ImmutableList.copyOf(records));
+        page.setLastEvaluatedKey(lastEvaluatedKey);
+        return page;
+    }
 }
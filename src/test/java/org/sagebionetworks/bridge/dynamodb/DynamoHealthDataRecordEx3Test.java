@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.dynamodb;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
@@ -22,6 +23,7 @@ import org.sagebionetworks.bridge.models.upload.Upload;
 public class DynamoHealthDataRecordEx3Test {
     private static final Map<String, String> METADATA_MAP = ImmutableMap.of("foo", "bar");
     private static final int PARTICIPANT_VERSION = 42;
+    private static final String RAW_S3_KEY = "test-app/2015-01-27/test-record-file.zip";
     private static final String RECORD_ID = "test-record";
     private static final String STUDY_ID = "test-study";
     private static final long VERSION = 3L;
@@ -181,6 +183,7 @@ public class DynamoHealthDataRecordEx3Test {
         record.setMetadata(METADATA_MAP);
         record.setSharingScope(SharingScope.SPONSORS_AND_PARTNERS);
         record.setUserAgent(TestConstants.UA);
+        record.setRawS3Key(RAW_S3_KEY);
         record.setVersion(VERSION);
 
         // Convert to JsonNode.
@@ -197,6 +200,7 @@ public class DynamoHealthDataRecordEx3Test {
         assertEquals(jsonNode.get("exportedOn").textValue(), TestConstants.EXPORTED_ON.toString());
         assertEquals(jsonNode.get("sharingScope").textValue(), "sponsors_and_partners");
         assertEquals(jsonNode.get("userAgent").textValue(), TestConstants.UA);
+        assertFalse(jsonNode.has("rawS3Key"));
         assertEquals(jsonNode.get("version").longValue(), VERSION);
         assertEquals(jsonNode.get("type").textValue(), "HealthDataRecordEx3");
 
@@ -225,6 +229,7 @@ public class DynamoHealthDataRecordEx3Test {
         assertEquals(record.getSharingScope(), SharingScope.SPONSORS_AND_PARTNERS);
         assertEquals(record.getMetadata(), METADATA_MAP);
         assertEquals(record.getUserAgent(), TestConstants.UA);
+        assertNull(record.getRawS3Key());
         assertEquals(record.getVersion().longValue(), VERSION);
 
         Map<String, ExportedRecordInfo> exportedStudyRecordMap = record.getExportedStudyRecords();
@@ -35,7 +35,7 @@ import org.sagebionetworks.bridge.models.notifications.NotificationRegistration;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.amazonaws.services.sns.AmazonSNS;
 import com.amazonaws.services.sns.model.CreatePlatformEndpointRequest;
 import com.amazonaws.services.sns.model.CreatePlatformEndpointResult;
@@ -73,9 +73,6 @@ public class DynamoNotificationRegistrationDaoTest {
     @Mock
     GetEndpointAttributesResult mockGetEndpointAttributesResult;
     
-    @Mock
-    PaginatedQueryList<NotificationRegistration> paginatedQueryList;
-    
     DynamoNotificationRegistrationDao dao;
     
     @Captor
@@ -99,6 +96,7 @@ public class DynamoNotificationRegistrationDaoTest {
         
         dao = new DynamoNotificationRegistrationDao();
         dao.setNotificationRegistrationMapper(mockMapper);
+        dao.setPageReader(new DynamoPageReader());
         dao.setSnsClient(mockSnsClient);
     }
     
@@ -407,10 +405,10 @@ public class DynamoNotificationRegistrationDaoTest {
     }
 
     private void mockQuery(NotificationRegistration... registrations) {
-        List<NotificationRegistration> registrationList = ImmutableList.copyOf(registrations);
-        doReturn(paginatedQueryList).when(mockMapper).query(eq(DynamoNotificationRegistration.class),
+        QueryResultPage<NotificationRegistration> page = new QueryResultPage<>();
+        page.setResults(ImmutableList.copyOf(registrations));
+        doReturn(page).when(mockMapper).queryPage(eq(DynamoNotificationRegistration.class),
                 queryCaptor.capture());
-        doReturn(registrationList.stream()).when(paginatedQueryList).stream();
     }
 
     private static NotificationRegistration getSmsNotificationRegistration() {
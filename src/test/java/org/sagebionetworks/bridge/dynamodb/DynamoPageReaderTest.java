@@ -0,0 +1,160 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.models.DynamoQueryStatus;
+
+public class DynamoPageReaderTest extends Mockito {
+    private static final String OPERATION = "DynamoTestDao.getItems";
+    private static final Map<String, AttributeValue> KEY_1 = ImmutableMap.of("id", new AttributeValue("a"));
+    private static final Map<String, AttributeValue> KEY_2 = ImmutableMap.of("id", new AttributeValue("b"));
+
+    @Mock
+    DynamoDBMapper mockMapper;
+
+    @Captor
+    ArgumentCaptor<DynamoDBQueryExpression<DynamoParticipantFile>> queryCaptor;
+
+    DynamoPageReader reader;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        MockitoAnnotations.initMocks(this);
+        reader = new DynamoPageReader();
+    }
+
+    @Test
+    public void queryPage() {
+        QueryResultPage<DynamoParticipantFile> page = makePage(KEY_1, 2.5, new DynamoParticipantFile());
+        when(mockMapper.queryPage(eq(DynamoParticipantFile.class), any())).thenReturn(page);
+
+        DynamoDBQueryExpression<DynamoParticipantFile> query = new DynamoDBQueryExpression<>();
+        QueryResultPage<DynamoParticipantFile> result = reader.queryPage(mockMapper, DynamoParticipantFile.class,
+                query, OPERATION);
+        assertSame(result, page);
+
+        DynamoQueryStatus status = getOnlyStatus();
+        assertEquals(status.getOperation(), OPERATION);
+        assertEquals(status.getCallCount(), 1);
+        assertEquals(status.getPageCount(), 1);
+        assertEquals(status.getItemCount(), 1);
+        assertEquals(status.getConsumedCapacityUnits(), 2.5);
+        assertEquals(status.getMaxPagesPerCall(), 1);
+    }
+
+    @Test
+    public void queryAllReadsEveryPage() {
+        DynamoParticipantFile file1 = new DynamoParticipantFile();
+        DynamoParticipantFile file2 = new DynamoParticipantFile();
+        DynamoParticipantFile file3 = new DynamoParticipantFile();
+        when(mockMapper.queryPage(eq(DynamoParticipantFile.class), any())).thenAnswer(invocation -> {
+            DynamoDBQueryExpression<?> query = invocation.getArgument(1);
+            if (query.getExclusiveStartKey() == null) {
+                return makePage(KEY_1, 1.0, file1, file2);
+            } else if (query.getExclusiveStartKey().equals(KEY_1)) {
+                return makePage(KEY_2, 1.0);
+            }
+            return makePage(null, 0.5, file3);
+        });
+
+        List<DynamoParticipantFile> results = reader.queryAll(mockMapper, DynamoParticipantFile.class,
+                new DynamoDBQueryExpression<>(), OPERATION);
+        assertEquals(results, ImmutableList.of(file1, file2, file3));
+
+        verify(mockMapper, times(3)).queryPage(eq(DynamoParticipantFile.class), any());
+
+        DynamoQueryStatus status = getOnlyStatus();
+        assertEquals(status.getCallCount(), 1);
+        assertEquals(status.getPageCount(), 3);
+        assertEquals(status.getItemCount(), 3);
+        assertEquals(status.getConsumedCapacityUnits(), 2.5);
+        assertEquals(status.getMaxPagesPerCall(), 3);
+    }
+
+    @Test
+    public void queryFirstStopsAtFirstResult() {
+        DynamoParticipantFile file = new DynamoParticipantFile();
+        when(mockMapper.queryPage(eq(DynamoParticipantFile.class), any())).thenReturn(makePage(KEY_1, 0.5),
+                makePage(KEY_2, 0.5, file));
+
+        DynamoParticipantFile result = reader.queryFirst(mockMapper, DynamoParticipantFile.class,
+                new DynamoDBQueryExpression<>(), OPERATION);
+        assertSame(result, file);
+
+        // The page after the match is not read.
+        verify(mockMapper, times(2)).queryPage(eq(DynamoParticipantFile.class), queryCaptor.capture());
+        assertEquals(queryCaptor.getValue().getExclusiveStartKey(), KEY_1);
+        assertEquals(getOnlyStatus().getMaxPagesPerCall(), 2);
+    }
+
+    @Test
+    public void queryFirstNoResults() {
+        when(mockMapper.queryPage(eq(DynamoParticipantFile.class), any())).thenReturn(makePage(null, 0.5));
+
+        assertNull(reader.queryFirst(mockMapper, DynamoParticipantFile.class, new DynamoDBQueryExpression<>(),
+                OPERATION));
+        assertEquals(getOnlyStatus().getPageCount(), 1);
+    }
+
+    @Test
+    public void missingConsumedCapacityIsIgnored() {
+        QueryResultPage<DynamoParticipantFile> page = new QueryResultPage<>();
+        page.setResults(ImmutableList.of());
+        when(mockMapper.queryPage(eq(DynamoParticipantFile.class), any())).thenReturn(page);
+
+        reader.queryPage(mockMapper, DynamoParticipantFile.class, new DynamoDBQueryExpression<>(), OPERATION);
+        assertEquals(getOnlyStatus().getConsumedCapacityUnits(), 0.0);
+    }
+
+    @Test
+    public void statusIsKeptPerOperation() {
+        when(mockMapper.queryPage(eq(DynamoParticipantFile.class), any())).thenReturn(makePage(null, 1.0));
+
+        reader.queryPage(mockMapper, DynamoParticipantFile.class, new DynamoDBQueryExpression<>(), "B.op");
+        reader.queryPage(mockMapper, DynamoParticipantFile.class, new DynamoDBQueryExpression<>(), "A.op");
+        reader.queryPage(mockMapper, DynamoParticipantFile.class, new DynamoDBQueryExpression<>(), "B.op");
+
+        List<DynamoQueryStatus> statusList = reader.getStatus();
+        assertEquals(statusList.size(), 2);
+        assertEquals(statusList.get(0).getOperation(), "A.op");
+        assertEquals(statusList.get(0).getCallCount(), 1);
+        assertEquals(statusList.get(1).getOperation(), "B.op");
+        assertEquals(statusList.get(1).getCallCount(), 2);
+        assertEquals(statusList.get(1).getConsumedCapacityUnits(), 2.0);
+    }
+
+    private DynamoQueryStatus getOnlyStatus() {
+        List<DynamoQueryStatus> statusList = reader.getStatus();
+        assertEquals(statusList.size(), 1);
+        return statusList.get(0);
+    }
+
+    private static QueryResultPage<DynamoParticipantFile> makePage(Map<String, AttributeValue> lastEvaluatedKey,
+            double capacityUnits, DynamoParticipantFile... files) {
+        QueryResultPage<DynamoParticipantFile> page = new QueryResultPage<>();
+        page.setResults(ImmutableList.copyOf(files));
+        page.setLastEvaluatedKey(lastEvaluatedKey);
+        page.setConsumedCapacity(new ConsumedCapacity().withCapacityUnits(capacityUnits));
+        return page;
+    }
+}
@@ -2,7 +2,7 @@ package org.sagebionetworks.bridge.dynamodb;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
@@ -42,9 +42,6 @@ public class DynamoParticipantDataDaoTest extends Mockito {
     @Mock
     DynamoDBMapper mockMapper;
 
-    @Mock
-    PaginatedQueryList<DynamoParticipantData> mockQueryList;
-
     @Captor
     ArgumentCaptor<DynamoDBQueryExpression<DynamoParticipantData>> queryCaptor;
 
@@ -61,6 +58,7 @@ public class DynamoParticipantDataDaoTest extends Mockito {
     @BeforeMethod
     public void beforeMethod() {
         MockitoAnnotations.initMocks(this);
+        dao.setPageReader(new DynamoPageReader());
 
         participantData0 = createParticipantData("a", "b");
 
@@ -157,21 +155,20 @@ public class DynamoParticipantDataDaoTest extends Mockito {
 
     @Test
     public void testDeleteAllParticipantData() {
-        when(mockMapper.query(eq(DynamoParticipantData.class), any())).thenReturn(mockQueryList);
+        when(mockMapper.queryPage(eq(DynamoParticipantData.class), any())).thenReturn(makePage(participantDataList));
 
         dao.deleteAllParticipantData(participantData0.getUserId());
 
-        verify(mockMapper).query(eq(DynamoParticipantData.class), queryCaptor.capture());
+        verify(mockMapper).queryPage(eq(DynamoParticipantData.class), queryCaptor.capture());
         DynamoDBQueryExpression<DynamoParticipantData> query = queryCaptor.getValue();
         assertEquals(query.getHashKeyValues().getUserId(), participantData0.getUserId());
 
-        verify(mockMapper).batchDelete(mockQueryList);
+        verify(mockMapper).batchDelete(participantDataList);
     }
 
     @Test
     public void deleteAllParticipantDataNoData() {
-        when(mockMapper.query(eq(DynamoParticipantData.class), any())).thenReturn(mockQueryList);
-        when(mockQueryList.isEmpty()).thenReturn(true);
+        when(mockMapper.queryPage(eq(DynamoParticipantData.class), any())).thenReturn(makePage(ImmutableList.of()));
 
         dao.deleteAllParticipantData(participantData0.getUserId());
 
@@ -209,4 +206,10 @@ public class DynamoParticipantDataDaoTest extends Mockito {
         participantData.setData(node);
         return participantData;
     }
-}
\ No newline at end of file
+
+    private static QueryResultPage<DynamoParticipantData> makePage(List<DynamoParticipantData> results) {
+        QueryResultPage<DynamoParticipantData> page = new QueryResultPage<>();
+        page.setResults(results);
+        return page;
+    }
+}
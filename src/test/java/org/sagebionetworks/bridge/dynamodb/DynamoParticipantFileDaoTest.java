@@ -2,8 +2,10 @@ package org.sagebionetworks.bridge.dynamodb;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
@@ -20,7 +22,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Stream;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
@@ -68,9 +69,6 @@ public class DynamoParticipantFileDaoTest {
     @Mock
     DynamoDBMapper mapper;
 
-    @Mock
-    PaginatedQueryList<DynamoParticipantFile> resultPage;
-
     @Captor
     ArgumentCaptor<ParticipantFile> fileCaptor;
 
@@ -83,12 +81,12 @@ public class DynamoParticipantFileDaoTest {
     @BeforeMethod
     public void beforeMethod() {
         MockitoAnnotations.initMocks(this);
+        dao.setPageReader(new DynamoPageReader());
     }
 
     @Test
     public void getParticipantFiles() {
-        when(resultPage.stream()).thenReturn(Stream.of(RESULT));
-        when(mapper.query(eq(DynamoParticipantFile.class), any())).thenReturn(resultPage);
+        when(mapper.queryPage(eq(DynamoParticipantFile.class), any())).thenReturn(makePage(null, RESULT));
 
         ForwardCursorPagedResourceList<ParticipantFile> result = dao.getParticipantFiles(KEY.getUserId(), null, 5);
         assertNotNull(result);
@@ -96,8 +94,9 @@ public class DynamoParticipantFileDaoTest {
         assertEquals(resultList.size(), 1);
         ParticipantFile resultFile = resultList.get(0);
         assertEquals(resultFile, RESULT);
+        assertNull(result.getNextPageOffsetKey());
 
-        verify(mapper).query(any(), expressionCaptor.capture());
+        verify(mapper).queryPage(any(), expressionCaptor.capture());
         DynamoDBQueryExpression<ParticipantFile> expression = expressionCaptor.getValue();
         assertEquals(expression.getLimit().intValue(), 5);
         assertNull(expression.getExclusiveStartKey());
@@ -108,8 +107,9 @@ public class DynamoParticipantFileDaoTest {
 
     @Test
     public void getParticipantFilesPageSize() {
-        when(resultPage.stream()).thenReturn(RESULT_LIST.stream());
-        when(mapper.query(eq(DynamoParticipantFile.class), any())).thenReturn(resultPage);
+        when(mapper.queryPage(eq(DynamoParticipantFile.class), any())).thenReturn(makePage(
+                ImmutableMap.of("fileId", new AttributeValue("file4")),
+                RESULT_LIST.subList(0, 5).toArray(new DynamoParticipantFile[0])));
 
         ForwardCursorPagedResourceList<ParticipantFile> result =
                 dao.getParticipantFiles(KEY.getUserId(), null, 5);
@@ -121,7 +121,7 @@ public class DynamoParticipantFileDaoTest {
         assertNull(params.get(ResourceList.OFFSET_KEY));
         assertEquals(params.get(ResourceList.PAGE_SIZE), 5);
 
-        verify(mapper).query(any(), expressionCaptor.capture());
+        verify(mapper).queryPage(any(), expressionCaptor.capture());
         DynamoDBQueryExpression<ParticipantFile> expression = expressionCaptor.getValue();
         assertTrue(expression.isConsistentRead());
         assertEquals(expression.getLimit().intValue(), 5);
@@ -143,7 +143,7 @@ public class DynamoParticipantFileDaoTest {
 
     @Test
     public void getParticipantFilesOffsetKey() {
-        when(mapper.query(eq(DynamoParticipantFile.class), any())).thenAnswer(
+        when(mapper.queryPage(eq(DynamoParticipantFile.class), any())).thenAnswer(
                 i -> setUpQueryResult(i.getArgument(1)));
 
         ForwardCursorPagedResourceList<ParticipantFile> result =
@@ -166,7 +166,7 @@ public class DynamoParticipantFileDaoTest {
             assertEquals(file.getAppId(), "api");
         }
 
-        verify(mapper).query(any(), expressionCaptor.capture());
+        verify(mapper).queryPage(any(), expressionCaptor.capture());
         DynamoDBQueryExpression<ParticipantFile> expression = expressionCaptor.getValue();
         assertTrue(expression.isConsistentRead());
         assertEquals(expression.getLimit().intValue(), 5);
@@ -177,7 +177,7 @@ public class DynamoParticipantFileDaoTest {
         assertEquals(expression.getExpressionAttributeValues().get(":val1").getS(), KEY.getUserId());
     }
 
-    private PaginatedQueryList<DynamoParticipantFile> setUpQueryResult(DynamoDBQueryExpression<ParticipantFile> exp) {
+    private QueryResultPage<DynamoParticipantFile> setUpQueryResult(DynamoDBQueryExpression<ParticipantFile> exp) {
         String exclusiveStartKey = exp.getExpressionAttributeValues().get(":val2").getS();
         int indexOfStart = -1;
         for (int i = 0; i < RESULT_LIST.size(); i++) {
@@ -187,15 +187,47 @@ public class DynamoParticipantFileDaoTest {
         }
         List<DynamoParticipantFile> prunedList = RESULT_LIST.subList(
                 indexOfStart+1, indexOfStart+exp.getLimit()+1);
-        when(resultPage.stream()).thenReturn(prunedList.stream());
-        return resultPage;
+        DynamoParticipantFile last = prunedList.get(prunedList.size() - 1);
+        return makePage(ImmutableMap.of("fileId", new AttributeValue(last.getFileId())),
+                prunedList.toArray(new DynamoParticipantFile[0]));
+    }
+
+    @Test
+    public void getParticipantFilesLastPage() {
+        // A full page with no LastEvaluatedKey is the last page.
+        when(mapper.queryPage(eq(DynamoParticipantFile.class), any())).thenReturn(makePage(null,
+                RESULT_LIST.subList(5, 10).toArray(new DynamoParticipantFile[0])));
+
+        ForwardCursorPagedResourceList<ParticipantFile> result = dao.getParticipantFiles(KEY.getUserId(), "file4",
+                5);
+        assertEquals(result.getItems().size(), 5);
+        assertNull(result.getNextPageOffsetKey());
+    }
+
+    @Test
+    public void getParticipantFilesShortPageWithMore() {
+        // DynamoDB can stop short of the limit, at 1MB. The next page starts after the last file returned.
+        when(mapper.queryPage(eq(DynamoParticipantFile.class), any())).thenReturn(makePage(
+                ImmutableMap.of("fileId", new AttributeValue("file1")),
+                RESULT_LIST.subList(0, 2).toArray(new DynamoParticipantFile[0])));
+
+        ForwardCursorPagedResourceList<ParticipantFile> result = dao.getParticipantFiles(KEY.getUserId(), null, 5);
+        assertEquals(result.getItems().size(), 2);
+        assertEquals(result.getNextPageOffsetKey(), "file1");
+    }
+
+    private static QueryResultPage<DynamoParticipantFile> makePage(Map<String, AttributeValue> lastEvaluatedKey,
+            DynamoParticipantFile... files) {
+        QueryResultPage<DynamoParticipantFile> page = new QueryResultPage<>();
+        page.setResults(ImmutableList.copyOf(files));
+        page.setLastEvaluatedKey(lastEvaluatedKey);
+        return page;
     }
 
     @Test
     public void getAllFilesForParticipant() {
         // Set up mock.
-        when(resultPage.stream()).thenReturn(Stream.of(RESULT));
-        when(mapper.query(eq(DynamoParticipantFile.class), any())).thenReturn(resultPage);
+        when(mapper.queryPage(eq(DynamoParticipantFile.class), any())).thenReturn(makePage(null, RESULT));
 
         // Execute and verify.
         List<ParticipantFile> resultList = dao.getAllFilesForParticipant(KEY.getUserId());
@@ -207,7 +239,7 @@ public class DynamoParticipantFileDaoTest {
         // Verify query.
         ArgumentCaptor<DynamoDBQueryExpression<DynamoParticipantFile>> queryCaptor = ArgumentCaptor.forClass(
                 DynamoDBQueryExpression.class);
-        verify(mapper).query(eq(DynamoParticipantFile.class), queryCaptor.capture());
+        verify(mapper).queryPage(eq(DynamoParticipantFile.class), queryCaptor.capture());
         DynamoDBQueryExpression<DynamoParticipantFile> expression = queryCaptor.getValue();
         DynamoParticipantFile hashKey = expression.getHashKeyValues();
         assertEquals(hashKey.getUserId(), KEY.getUserId());
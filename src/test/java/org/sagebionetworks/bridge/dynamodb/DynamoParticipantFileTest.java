@@ -20,6 +20,8 @@ public class DynamoParticipantFileTest {
         pFile.setDownloadUrl("dummy.download");
         pFile.setUploadUrl("dummy.upload");
         pFile.setExpiresOn(TestConstants.TIMESTAMP);
+        pFile.setSize(100L);
+        pFile.setChecksum("etag");
 
         String json = MAPPER.writeValueAsString(pFile);
         JsonNode node = MAPPER.readTree(json);
@@ -33,7 +35,9 @@ public class DynamoParticipantFileTest {
         assertEquals(node.get("downloadUrl").textValue(), "dummy.download");
         assertEquals(node.get("uploadUrl").textValue(), "dummy.upload");
         assertEquals(node.get("expiresOn").textValue(), TestConstants.TIMESTAMP.toString());
-        assertEquals(node.size(), 9);
+        assertEquals(node.get("size").longValue(), 100L);
+        assertEquals(node.get("checksum").textValue(), "etag");
+        assertEquals(node.size(), 11);
 
         ParticipantFile deser = MAPPER.readValue(json, ParticipantFile.class);
         assertEquals(deser.getUserId(), "userId");
@@ -44,6 +48,8 @@ public class DynamoParticipantFileTest {
         assertEquals(deser.getDownloadUrl(), "dummy.download");
         assertEquals(deser.getUploadUrl(), "dummy.upload");
         assertEquals(deser.getExpiresOn(), TestConstants.TIMESTAMP);
+        assertEquals(deser.getSize(), Long.valueOf(100L));
+        assertEquals(deser.getChecksum(), "etag");
     }
 
     @Test
@@ -45,6 +45,7 @@ public class DynamoParticipantVersionDaoTest {
     @BeforeMethod
     public void before() {
         MockitoAnnotations.initMocks(this);
+        dao.setPageReader(new DynamoPageReader());
     }
 
     @Test
@@ -142,6 +143,47 @@ public class DynamoParticipantVersionDaoTest {
         assertFalse(resultOpt.isPresent());
     }
 
+    @Test
+    public void getLatestParticipantVersionNumber() {
+        // Mock dependencies.
+        DynamoParticipantVersion participantVersion = new DynamoParticipantVersion();
+        participantVersion.setParticipantVersion(PARTICIPANT_VERSION);
+        QueryResultPage<DynamoParticipantVersion> queryResultPage = new QueryResultPage<>();
+        queryResultPage.setResults(ImmutableList.of(participantVersion));
+        when(mockMapper.queryPage(eq(DynamoParticipantVersion.class), any())).thenReturn(queryResultPage);
+
+        // Execute and validate.
+        Optional<Integer> resultOpt = dao.getLatestParticipantVersionNumber(TestConstants.TEST_APP_ID,
+                TestConstants.HEALTH_CODE);
+        assertEquals(resultOpt.get().intValue(), PARTICIPANT_VERSION);
+
+        ArgumentCaptor<DynamoDBQueryExpression<DynamoParticipantVersion>> queryCaptor = ArgumentCaptor.forClass(
+                DynamoDBQueryExpression.class);
+        verify(mockMapper).queryPage(eq(DynamoParticipantVersion.class), queryCaptor.capture());
+
+        DynamoDBQueryExpression<DynamoParticipantVersion> query = queryCaptor.getValue();
+        assertFalse(query.isScanIndexForward());
+        assertEquals(query.getLimit().intValue(), 1);
+        assertEquals(query.getProjectionExpression(), DynamoParticipantVersionDao.PARTICIPANT_VERSION_ATTRIBUTE);
+
+        ParticipantVersion queryHashKey = query.getHashKeyValues();
+        assertEquals(queryHashKey.getAppId(), TestConstants.TEST_APP_ID);
+        assertEquals(queryHashKey.getHealthCode(), TestConstants.HEALTH_CODE);
+    }
+
+    @Test
+    public void getLatestParticipantVersionNumber_NoVersions() {
+        // Mock dependencies.
+        QueryResultPage<DynamoParticipantVersion> queryResultPage = new QueryResultPage<>();
+        queryResultPage.setResults(ImmutableList.of());
+        when(mockMapper.queryPage(eq(DynamoParticipantVersion.class), any())).thenReturn(queryResultPage);
+
+        // Execute and validate.
+        Optional<Integer> resultOpt = dao.getLatestParticipantVersionNumber(TestConstants.TEST_APP_ID,
+                TestConstants.HEALTH_CODE);
+        assertFalse(resultOpt.isPresent());
+    }
+
     @Test
     public void getParticipantVersion() {
         // Mock dependencies.
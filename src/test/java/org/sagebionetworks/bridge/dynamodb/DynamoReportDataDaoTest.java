@@ -8,19 +8,25 @@ import static org.sagebionetworks.bridge.models.reports.ReportType.STUDY;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.PaginationLoadingStrategy;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
 import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -34,6 +40,7 @@ import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
 import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.ResourceList;
@@ -87,6 +94,7 @@ public class DynamoReportDataDaoTest extends Mockito {
     @BeforeMethod
     public void beforeMethod() {
         MockitoAnnotations.initMocks(this);
+        dao.setPageReader(new DynamoPageReader());
         
         report0 = createReport(DateTime.parse("2016-03-28T17:16:28.711-07:00"), "g", "h");
         report1 = createReport(DateTime.parse("2016-03-29T17:16:28.711-07:00"), "a", "b");
@@ -97,15 +105,15 @@ public class DynamoReportDataDaoTest extends Mockito {
     
     @Test
     public void getReportData() {
-        when(mockMapper.query(eq(DynamoReportData.class), any())).thenReturn(mockQueryList);
+        when(mockMapper.queryPage(eq(DynamoReportData.class), any())).thenReturn(makePage(reports));
         
         DateRangeResourceList<? extends ReportData> result = dao.getReportData(STUDY_REPORT_KEY, START_DATE, END_DATE);
         
         assertEquals(result.getRequestParams().get("startDate"), START_DATE);
         assertEquals(result.getRequestParams().get("endDate"), END_DATE);
-        assertEquals(result.getItems(), mockQueryList);
+        assertEquals(result.getItems(), reports);
         
-        verify(mockMapper).query(eq(DynamoReportData.class), queryCaptor.capture());
+        verify(mockMapper).queryPage(eq(DynamoReportData.class), queryCaptor.capture());
         DynamoDBQueryExpression<DynamoReportData> query = queryCaptor.getValue();
         assertEquals(query.getHashKeyValues().getKey(), STUDY_REPORT_KEY.getKeyString());
         Condition dateCondition = query.getRangeKeyConditions().get("date");
@@ -113,6 +121,26 @@ public class DynamoReportDataDaoTest extends Mockito {
         assertEquals(dateCondition.getAttributeValueList().get(0).getS(), START_DATE.toString());
         assertEquals(dateCondition.getAttributeValueList().get(1).getS(), END_DATE.toString());
     }
+    
+    @Test
+    public void streamReportData() {
+        when(mockMapper.query(eq(DynamoReportData.class), any(), any())).thenReturn(mockQueryList);
+        
+        Iterable<? extends ReportData> result = dao.streamReportData(STUDY_REPORT_KEY, START_DATE, END_DATE);
+        assertSame(result, mockQueryList);
+        
+        verify(mockMapper).query(eq(DynamoReportData.class), queryCaptor.capture(),
+                eq(DynamoReportDataDao.ITERATION_ONLY_CONFIG));
+        DynamoDBQueryExpression<DynamoReportData> query = queryCaptor.getValue();
+        assertEquals(query.getHashKeyValues().getKey(), STUDY_REPORT_KEY.getKeyString());
+        Condition dateCondition = query.getRangeKeyConditions().get("date");
+        assertEquals(dateCondition.getComparisonOperator(), BETWEEN.name());
+        assertEquals(dateCondition.getAttributeValueList().get(0).getS(), START_DATE.toString());
+        assertEquals(dateCondition.getAttributeValueList().get(1).getS(), END_DATE.toString());
+        
+        assertEquals(DynamoReportDataDao.ITERATION_ONLY_CONFIG.getPaginationLoadingStrategy(),
+                PaginationLoadingStrategy.ITERATION_ONLY);
+    }
 
     @Test
     public void getReportDataV4() {
@@ -193,25 +221,91 @@ public class DynamoReportDataDaoTest extends Mockito {
         assertEquals(reportData.getDateTime().getZone(), DateTimeZone.UTC);
     }
     
+    @Test
+    public void saveReportDataBatch() {
+        List<ReportData> list = new ArrayList<>();
+        for (int i = 0; i < DynamoReportDataDao.MAX_BATCH_SIZE + 5; i++) {
+            list.add(createReport(START_TIME.plusDays(i), "a", "b"));
+        }
+        
+        dao.saveReportDataBatch(list);
+        
+        verify(mockMapper, times(2)).batchSave(dataListCaptor.capture());
+        List<List<DynamoReportData>> batches = dataListCaptor.getAllValues();
+        assertEquals(batches.get(0).size(), DynamoReportDataDao.MAX_BATCH_SIZE);
+        assertEquals(batches.get(1).size(), 5);
+        assertSame(batches.get(0).get(0), list.get(0));
+        for (ReportData reportData : list) {
+            assertEquals(reportData.getDateTime().getZone(), DateTimeZone.UTC);
+        }
+        verify(mockMapper, never()).save(any());
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void saveReportDataBatchRetriesFailedBatch() {
+        dao.setBatchRetryDelayMillis(0);
+        when(mockMapper.batchSave(any(Iterable.class))).thenReturn(ImmutableList.of(makeFailedBatch()),
+                ImmutableList.of());
+        
+        dao.saveReportDataBatch(ImmutableList.of(report0, report1));
+        
+        verify(mockMapper, times(2)).batchSave(dataListCaptor.capture());
+        assertEquals(dataListCaptor.getAllValues().get(1), ImmutableList.of(report0, report1));
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void saveReportDataBatchFailsAfterRetries() {
+        dao.setBatchRetryDelayMillis(0);
+        when(mockMapper.batchSave(any(Iterable.class))).thenReturn(ImmutableList.of(makeFailedBatch()));
+        
+        try {
+            dao.saveReportDataBatch(ImmutableList.of(report0, report1));
+            fail("Should have thrown exception");
+        } catch (BridgeServiceException e) {
+            assertTrue(e.getMessage().contains("throttled"));
+        }
+        verify(mockMapper, times(DynamoReportDataDao.MAX_BATCH_ATTEMPTS)).batchSave(any(Iterable.class));
+    }
+    
+    @Test
+    public void deleteReportDataRecords() {
+        List<String> dates = new ArrayList<>();
+        for (int i = 0; i < DynamoReportDataDao.MAX_BATCH_SIZE + 1; i++) {
+            dates.add(START_DATE.plusDays(i).toString());
+        }
+        
+        dao.deleteReportDataRecords(PARTICIPANT_REPORT_KEY, dates);
+        
+        verify(mockMapper, times(2)).batchDelete(dataListCaptor.capture());
+        List<List<DynamoReportData>> batches = dataListCaptor.getAllValues();
+        assertEquals(batches.get(0).size(), DynamoReportDataDao.MAX_BATCH_SIZE);
+        assertEquals(batches.get(1).size(), 1);
+        DynamoReportData key = batches.get(0).get(0);
+        assertEquals(key.getKey(), PARTICIPANT_REPORT_KEY.getKeyString());
+        assertEquals(key.getDate(), START_DATE.toString());
+        verify(mockMapper, never()).load(any());
+    }
+    
     @Test
     public void deleteReportData() {
-        when(mockMapper.query(eq(DynamoReportData.class), any())).thenReturn(mockQueryList);
+        when(mockMapper.queryPage(eq(DynamoReportData.class), any())).thenReturn(makePage(reports));
         
         dao.deleteReportData(report0.getReportDataKey());
         
-        verify(mockMapper).query(eq(DynamoReportData.class), queryCaptor.capture());
+        verify(mockMapper).queryPage(eq(DynamoReportData.class), queryCaptor.capture());
         DynamoDBQueryExpression<DynamoReportData> query = queryCaptor.getValue();
         assertEquals(query.getHashKeyValues().getKey(), report0.getReportDataKey().getKeyString());
         
         verify(mockMapper).batchDelete(dataListCaptor.capture());
         
-        assertEquals(dataListCaptor.getValue(), mockQueryList);
+        assertEquals(dataListCaptor.getValue(), reports);
     }
     
     @Test
     public void deleteReportDataNoReports() {
-        when(mockMapper.query(eq(DynamoReportData.class), any())).thenReturn(mockQueryList);
-        when(mockQueryList.isEmpty()).thenReturn(true);
+        when(mockMapper.queryPage(eq(DynamoReportData.class), any())).thenReturn(makePage(ImmutableList.of()));
         
         dao.deleteReportData(report0.getReportDataKey());
         
@@ -251,4 +345,17 @@ public class DynamoReportDataDaoTest extends Mockito {
         report.setDateTime(date);
         return report;
     }    
+
+    private static FailedBatch makeFailedBatch() {
+        FailedBatch failure = new FailedBatch();
+        failure.setException(new ProvisionedThroughputExceededException("throttled"));
+        failure.setUnprocessedItems(ImmutableMap.of());
+        return failure;
+    }
+
+    private static QueryResultPage<DynamoReportData> makePage(List<DynamoReportData> results) {
+        QueryResultPage<DynamoReportData> page = new QueryResultPage<>();
+        page.setResults(results);
+        return page;
+    }
 }
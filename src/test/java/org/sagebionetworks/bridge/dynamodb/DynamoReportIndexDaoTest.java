@@ -31,7 +31,7 @@ import org.sagebionetworks.bridge.models.reports.ReportType;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
 import com.google.common.collect.ImmutableList;
@@ -43,9 +43,6 @@ public class DynamoReportIndexDaoTest {
     @Mock
     private DynamoDBMapper mapper;
     
-    @Mock
-    private PaginatedQueryList<DynamoReportIndex> results;
-    
     @Captor
     private ArgumentCaptor<DynamoReportIndex> loadIndexCaptor;
     
@@ -67,6 +64,7 @@ public class DynamoReportIndexDaoTest {
         MockitoAnnotations.initMocks(this);
         dao = new DynamoReportIndexDao();
         dao.setReportIndexMapper(mapper);
+        dao.setPageReader(new DynamoPageReader());
     }
     
     @Test
@@ -178,9 +176,10 @@ public class DynamoReportIndexDaoTest {
     @Test
     public void getIndices() {
         List<DynamoReportIndex> indexList = ImmutableList.of(new DynamoReportIndex());
-        when(results.size()).thenReturn(indexList.size());
+        QueryResultPage<DynamoReportIndex> page = new QueryResultPage<>();
+        page.setResults(indexList);
         
-        when(mapper.query(eq(DynamoReportIndex.class), any())).thenReturn(results);
+        when(mapper.queryPage(eq(DynamoReportIndex.class), any())).thenReturn(page);
         
         ReportTypeResourceList<? extends ReportIndex> indices = dao.getIndices(
                 TEST_APP_ID, ReportType.PARTICIPANT);
@@ -188,7 +187,7 @@ public class DynamoReportIndexDaoTest {
         assertEquals(indices.getItems().size(), 1);
         assertEquals(indices.getRequestParams().get("reportType"), ReportType.PARTICIPANT);
         
-        verify(mapper).query(eq(DynamoReportIndex.class), queryCaptor.capture());
+        verify(mapper).queryPage(eq(DynamoReportIndex.class), queryCaptor.capture());
         
         DynamoDBQueryExpression<DynamoReportIndex> query = queryCaptor.getValue();
         DynamoReportIndex hashKey = query.getHashKeyValues();
@@ -9,9 +9,10 @@ import java.util.List;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
 import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 import org.joda.time.DateTime;
 import org.mockito.ArgumentCaptor;
@@ -41,9 +42,6 @@ public class DynamoStudyConsentDaoTest extends Mockito {
     @Mock
     QueryResultPage<DynamoStudyConsent1> mockQueryPage;
     
-    @Mock
-    PaginatedQueryList<DynamoStudyConsent1> mockQueryList;
-    
     @Captor
     ArgumentCaptor<StudyConsent> consentCaptor;
     
@@ -53,6 +51,7 @@ public class DynamoStudyConsentDaoTest extends Mockito {
     @BeforeMethod
     public void beforeMethod() {
         MockitoAnnotations.initMocks(this);
+        dao.setPageReader(new DynamoPageReader());
     }
     
     @Test
@@ -120,15 +119,19 @@ public class DynamoStudyConsentDaoTest extends Mockito {
 
     @Test
     public void getConsents() {
-        List<DynamoStudyConsent1> consentList = ImmutableList.of(new DynamoStudyConsent1(), new DynamoStudyConsent1());
+        // The consents span two pages.
+        QueryResultPage<DynamoStudyConsent1> page1 = new QueryResultPage<>();
+        page1.setResults(ImmutableList.of(new DynamoStudyConsent1()));
+        page1.setLastEvaluatedKey(ImmutableMap.of("createdOn", new AttributeValue().withN("1")));
+        QueryResultPage<DynamoStudyConsent1> page2 = new QueryResultPage<>();
+        page2.setResults(ImmutableList.of(new DynamoStudyConsent1()));
         
-        when(mockMapper.query(eq(DynamoStudyConsent1.class), any())).thenReturn(mockQueryList);
-        when(mockQueryList.iterator()).thenReturn(consentList.iterator());
+        when(mockMapper.queryPage(eq(DynamoStudyConsent1.class), any())).thenReturn(page1, page2);
         
         List<StudyConsent> consents = dao.getConsents(SUBPOP_GUID);
         assertEquals(consents.size(), 2);
         
-        verify(mockMapper).query(eq(DynamoStudyConsent1.class), queryCaptor.capture());
+        verify(mockMapper, times(2)).queryPage(eq(DynamoStudyConsent1.class), queryCaptor.capture());
         DynamoDBQueryExpression<DynamoStudyConsent1> query = queryCaptor.getValue();
         
         assertEquals(query.getHashKeyValues().getSubpopulationGuid(), SUBPOP_GUID.getGuid());
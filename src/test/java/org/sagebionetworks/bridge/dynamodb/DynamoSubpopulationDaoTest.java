@@ -15,7 +15,7 @@ import java.util.List;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
@@ -53,9 +53,6 @@ public class DynamoSubpopulationDaoTest extends Mockito {
     @Mock
     CriteriaDao mockCriteriaDao;
     
-    @Mock
-    PaginatedQueryList<DynamoSubpopulation> mockQueryList;
-    
     @Captor
     ArgumentCaptor<Subpopulation> subpopCaptor;
     
@@ -77,20 +74,25 @@ public class DynamoSubpopulationDaoTest extends Mockito {
         when(dao.generateGuid()).thenReturn(GUID);
         
         dao.setMapper(mockMapper);
+        dao.setPageReader(new DynamoPageReader());
         dao.setCriteriaDao(mockCriteriaDao);
         
         List<DynamoSubpopulation> list = ImmutableList.of((DynamoSubpopulation)createSubpopulation());
 
-        when(mockQueryList.stream()).thenReturn(list.stream());
-
         persistedSubpop = (DynamoSubpopulation)createSubpopulation();
         doReturn(persistedSubpop).when(mockMapper).load(any());
-        doReturn(mockQueryList).when(mockMapper).query(eq(DynamoSubpopulation.class), any());
+        doReturn(makePage(list)).when(mockMapper).queryPage(eq(DynamoSubpopulation.class), any());
         
         when(mockCriteriaDao.getCriteria(any())).thenReturn(CRITERIA);
         when(mockCriteriaDao.createOrUpdateCriteria(any())).thenAnswer(invocation -> invocation.getArgument(0));
     }
     
+    private static QueryResultPage<DynamoSubpopulation> makePage(List<DynamoSubpopulation> subpops) {
+        QueryResultPage<DynamoSubpopulation> page = new QueryResultPage<>();
+        page.setResults(subpops);
+        return page;
+    }
+
     private Subpopulation createSubpopulation() {
         Criteria criteria = TestUtils.copyCriteria(CRITERIA);
         criteria.setKey("subpopulation:"+SUBPOP_GUID);
@@ -353,14 +355,12 @@ public class DynamoSubpopulationDaoTest extends Mockito {
         subpop2.setDeleted(true);
         List<DynamoSubpopulation> subpopList = ImmutableList.of(subpop1, subpop2);
         
-        when(mockMapper.query(eq(DynamoSubpopulation.class), any())).thenReturn(mockQueryList);
-        when(mockQueryList.isEmpty()).thenReturn(subpopList.isEmpty());
-        when(mockQueryList.stream()).thenReturn(subpopList.stream());
+        doReturn(makePage(subpopList)).when(mockMapper).queryPage(eq(DynamoSubpopulation.class), any());
         
         List<Subpopulation> result = dao.getSubpopulations(TEST_APP_ID, true);
         assertEquals(result.size(), 2);
         
-        verify(mockMapper).query(eq(DynamoSubpopulation.class), queryCaptor.capture());
+        verify(mockMapper).queryPage(eq(DynamoSubpopulation.class), queryCaptor.capture());
         assertEquals(queryCaptor.getValue().getHashKeyValues().getAppId(), TEST_APP_ID);        
     }
 
@@ -373,9 +373,7 @@ public class DynamoSubpopulationDaoTest extends Mockito {
         subpop2.setDeleted(true);
         List<DynamoSubpopulation> subpopList = ImmutableList.of(subpop1, subpop2);
         
-        when(mockMapper.query(eq(DynamoSubpopulation.class), any())).thenReturn(mockQueryList);
-        when(mockQueryList.isEmpty()).thenReturn(subpopList.isEmpty());
-        when(mockQueryList.stream()).thenReturn(subpopList.stream());
+        doReturn(makePage(subpopList)).when(mockMapper).queryPage(eq(DynamoSubpopulation.class), any());
         
         List<Subpopulation> result = dao.getSubpopulations(TEST_APP_ID, false);
         assertEquals(result.size(), 1);
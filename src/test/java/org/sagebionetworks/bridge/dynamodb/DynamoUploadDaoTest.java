@@ -496,6 +496,24 @@ public class DynamoUploadDaoTest {
         dao.getAppUploads(TEST_APP_ID, startTime, endTime, 101, null);
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void getUploadIdsForHealthCode() {
+        DynamoUpload2 upload1 = new DynamoUpload2();
+        upload1.setUploadId(UPLOAD_ID);
+
+        DynamoUpload2 upload2 = new DynamoUpload2();
+        upload2.setUploadId(UPLOAD_ID_2);
+
+        List<DynamoUpload2> uploads = ImmutableList.of(upload1, upload2);
+        when(mockIndexHelper.queryKeys(DynamoUpload2.class, INDEX_NAME_HEALTH_CODE, TestConstants.HEALTH_CODE, null)).thenReturn(uploads);
+
+        List<String> uploadIdList = dao.getUploadIdsForHealthCode(TestConstants.HEALTH_CODE);
+        assertEquals(uploadIdList, ImmutableList.of(UPLOAD_ID, UPLOAD_ID_2));
+
+        verify(mockMapper, never()).batchDelete(any(List.class));
+    }
+
     @Test
     public void deleteUploadsForHealthCode() {
         // Make uploads to delete.
@@ -8,8 +8,9 @@ import static org.testng.Assert.assertNull;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.google.common.collect.ImmutableList;
 
 import org.joda.time.DateTime;
 import org.mockito.ArgumentCaptor;
@@ -34,7 +35,7 @@ public class DynamoUploadDedupeDaoTest extends Mockito {
     DynamoDBMapper mockMapper;
     
     @Mock
-    PaginatedQueryList<DynamoUploadDedupe> mockQueryList;
+    QueryResultPage<DynamoUploadDedupe> mockQueryPage;
 
     @Captor
     ArgumentCaptor<DynamoDBQueryExpression<DynamoUploadDedupe>> queryCaptor;
@@ -45,6 +46,7 @@ public class DynamoUploadDedupeDaoTest extends Mockito {
     @BeforeMethod
     public void setup() {
         MockitoAnnotations.initMocks(this);
+        dao.setPageReader(new DynamoPageReader());
     }
 
     @Test
@@ -66,17 +68,17 @@ public class DynamoUploadDedupeDaoTest extends Mockito {
         dedupe.setOriginalUploadId(UPLOAD_ID);
         dedupe.setUploadRequestedOn(UPLOAD_REQUESTED_ON.getMillis());
         
-        when(mockMapper.query(eq(DynamoUploadDedupe.class), any())).thenReturn(mockQueryList);
-        when(mockQueryList.isEmpty()).thenReturn(false);
-        when(mockQueryList.get(0)).thenReturn(dedupe);
+        when(mockMapper.queryPage(eq(DynamoUploadDedupe.class), any())).thenReturn(mockQueryPage);
+        when(mockQueryPage.getResults()).thenReturn(ImmutableList.of(dedupe));
         
         String originalUploadId = dao.getDuplicate(HEALTHCODE, UPLOAD_MD5,
                 UPLOAD_REQUESTED_ON);
         assertEquals(originalUploadId, UPLOAD_ID);
         
-        verify(mockMapper).query(eq(DynamoUploadDedupe.class), queryCaptor.capture());
+        verify(mockMapper).queryPage(eq(DynamoUploadDedupe.class), queryCaptor.capture());
         DynamoDBQueryExpression<DynamoUploadDedupe> query = queryCaptor.getValue();
         assertEquals(query.getHashKeyValues().getHealthCode(), HEALTHCODE);
+        assertEquals(query.getLimit().intValue(), 1);
         assertEquals(query.getHashKeyValues().getUploadMd5(), UPLOAD_MD5);
         
         long startOfRange = UPLOAD_REQUESTED_ON.minusDays(NUM_DAYS_BEFORE).getMillis();
@@ -90,8 +92,8 @@ public class DynamoUploadDedupeDaoTest extends Mockito {
 
     @Test
     public void getDuplicateNotFound() {
-        when(mockMapper.query(eq(DynamoUploadDedupe.class), any())).thenReturn(mockQueryList);
-        when(mockQueryList.isEmpty()).thenReturn(true);
+        when(mockMapper.queryPage(eq(DynamoUploadDedupe.class), any())).thenReturn(mockQueryPage);
+        when(mockQueryPage.getResults()).thenReturn(ImmutableList.of());
         
         String originalUploadId = dao.getDuplicate(HEALTHCODE, UPLOAD_MD5, UPLOAD_REQUESTED_ON);
         assertNull(originalUploadId);
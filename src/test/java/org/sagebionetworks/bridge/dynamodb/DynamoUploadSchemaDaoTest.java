@@ -20,7 +20,6 @@ import java.util.Map;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
-import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
 import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
@@ -46,6 +45,7 @@ public class DynamoUploadSchemaDaoTest {
         mapper = mock(DynamoDBMapper.class);
         dao = spy(new DynamoUploadSchemaDao());
         dao.setDdbMapper(mapper);
+        dao.setPageReader(new DynamoPageReader());
     }
 
     @Test
@@ -145,10 +145,12 @@ public class DynamoUploadSchemaDaoTest {
         map.put("A", ImmutableList.of(undeletedSchema));
         map.put("B", ImmutableList.of(deletedSchema));
         
-        PaginatedQueryList<DynamoUploadSchema> pql = mock(PaginatedQueryList.class);
-        when(mapper.query(eq(DynamoUploadSchema.class), any())).thenReturn(pql);
+        List<DynamoUploadSchema> indexList = ImmutableList.of(new DynamoUploadSchema());
+        QueryResultPage<DynamoUploadSchema> indexPage = new QueryResultPage<>();
+        indexPage.setResults(indexList);
+        when(mapper.queryPage(eq(DynamoUploadSchema.class), any())).thenReturn(indexPage);
         
-        when(mapper.batchLoad(pql)).thenReturn(map);
+        when(mapper.batchLoad(indexList)).thenReturn(map);
         
         List<UploadSchema> results1 = dao.indexHelper("indexName", new DynamoUploadSchema(), false);
         assertEquals(results1.size(), 1);
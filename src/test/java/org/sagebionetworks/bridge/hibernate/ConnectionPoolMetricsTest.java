@@ -0,0 +1,66 @@
+package org.sagebionetworks.bridge.hibernate;
+
+import static org.testng.Assert.assertEquals;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.models.ConnectionPoolStatus;
+
+public class ConnectionPoolMetricsTest extends Mockito {
+
+    @Mock
+    PoolStats mockPoolStats;
+
+    ConnectionPoolMetrics metrics;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        MockitoAnnotations.initMocks(this);
+        metrics = new ConnectionPoolMetrics();
+    }
+
+    @Test
+    public void getStatusBeforePoolCreated() {
+        ConnectionPoolStatus status = metrics.getStatus();
+        assertEquals(status.getTotalConnections(), 0);
+        assertEquals(status.getCheckoutCount(), 0L);
+        assertEquals(status.getAverageCheckoutMillis(), 0.0);
+        assertEquals(status.getAverageUsageMillis(), 0.0);
+    }
+
+    @Test
+    public void getStatus() {
+        when(mockPoolStats.getTotalConnections()).thenReturn(10);
+        when(mockPoolStats.getActiveConnections()).thenReturn(7);
+        when(mockPoolStats.getIdleConnections()).thenReturn(3);
+        when(mockPoolStats.getPendingThreads()).thenReturn(2);
+        when(mockPoolStats.getMinConnections()).thenReturn(5);
+        when(mockPoolStats.getMaxConnections()).thenReturn(20);
+
+        IMetricsTracker tracker = metrics.create("hibernate", mockPoolStats);
+        tracker.recordConnectionAcquiredNanos(1000000L);
+        tracker.recordConnectionAcquiredNanos(3000000L);
+        tracker.recordConnectionUsageMillis(10L);
+        tracker.recordConnectionUsageMillis(30L);
+        tracker.recordConnectionTimeout();
+
+        ConnectionPoolStatus status = metrics.getStatus();
+        assertEquals(status.getTotalConnections(), 10);
+        assertEquals(status.getActiveConnections(), 7);
+        assertEquals(status.getIdleConnections(), 3);
+        assertEquals(status.getPendingThreads(), 2);
+        assertEquals(status.getMinConnections(), 5);
+        assertEquals(status.getMaxConnections(), 20);
+        assertEquals(status.getCheckoutCount(), 2L);
+        assertEquals(status.getAverageCheckoutMillis(), 2.0);
+        assertEquals(status.getMaxCheckoutMillis(), 3.0);
+        assertEquals(status.getCheckoutTimeoutCount(), 1L);
+        assertEquals(status.getAverageUsageMillis(), 20.0);
+    }
+}
@@ -16,7 +16,13 @@ import static org.sagebionetworks.bridge.TestConstants.TEST_NOTE;
 import static org.sagebionetworks.bridge.dao.AccountDao.MIGRATION_VERSION;
 import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.APP_IDS_FOR_USER_QUERY;
 import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.DELETE_ALL_ACCOUNTS_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.DELETE_SEARCH_TERM;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.DELETE_SEARCH_TERM_BACKFILL;
 import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.FULL_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.INSERT_SEARCH_TERM;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.SELECT_SEARCH_TERMS;
+import static org.sagebionetworks.bridge.hibernate.HibernateAccountDao.SELECT_SEARCH_TERM_BACKFILL;
+import static org.sagebionetworks.bridge.hibernate.QueryBuilder.ACCOUNT_SEARCH_TERMS;
 import static org.sagebionetworks.bridge.models.SearchTermPredicate.AND;
 import static org.sagebionetworks.bridge.models.StringSearchPosition.INFIX;
 import static org.sagebionetworks.bridge.models.accounts.AccountStatus.ENABLED;
@@ -30,22 +36,30 @@ import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.hibernate.query.NativeQuery;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -121,6 +135,12 @@ public class HibernateAccountDaoTest extends Mockito {
 
     @Mock
     private HibernateHelper mockHibernateHelper;
+    
+    @Mock
+    private Session mockSession;
+    
+    @Mock
+    private Work mockWork;
 
     private App app;
     
@@ -140,6 +160,10 @@ public class HibernateAccountDaoTest extends Mockito {
             }
             return account;
         });
+        when(mockHibernateHelper.executeWithExceptionHandling(any(), any())).thenAnswer(invocation -> {
+            Function<Session, Account> func = invocation.getArgument(1);
+            return func.apply(mockSession);
+        });
 
         dao = spy(new HibernateAccountDao());
         dao.setHibernateHelper(mockHibernateHelper);
@@ -171,19 +195,139 @@ public class HibernateAccountDaoTest extends Mockito {
     public void createAccountSuccess() {
         Account account = makeValidGenericAccount();
 
+        doReturn(mockWork).when(dao).updateSearchTerms(account);
+
         // execute - We generate a new account ID.
         dao.createAccount(account);
         
-        verify(mockHibernateHelper).create(account);
+        InOrder inOrder = inOrder(mockSession);
+        inOrder.verify(mockSession).save(account);
+        inOrder.verify(mockSession).flush();
+        inOrder.verify(mockSession).doWork(mockWork);
     }
 
     @Test
     public void updateSuccess() {
         Account account = Account.create();
+        doReturn(mockWork).when(dao).updateSearchTerms(account);
         
         dao.updateAccount(account);
         
-        verify(mockHibernateHelper).update(account);
+        InOrder inOrder = inOrder(mockSession);
+        inOrder.verify(mockSession).update(account);
+        inOrder.verify(mockSession).flush();
+        inOrder.verify(mockSession).doWork(mockWork);
+    }
+    
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void backfillSearchTerms() {
+        when(mockHibernateHelper.nativeQueryGet(SELECT_SEARCH_TERM_BACKFILL, null, null, 10, String.class))
+                .thenReturn(ImmutableList.of(ACCOUNT_ID, "deleted-account", "other-server-account"));
+        NativeQuery mockQuery = mock(NativeQuery.class);
+        when(mockSession.createNativeQuery(DELETE_SEARCH_TERM_BACKFILL)).thenReturn(mockQuery);
+        when(mockQuery.setParameter(eq("accountId"), any())).thenReturn(mockQuery);
+        // The third account was removed from the queue by another server.
+        when(mockQuery.executeUpdate()).thenReturn(1, 1, 0);
+        
+        HibernateAccount account = new HibernateAccount();
+        account.setId(ACCOUNT_ID);
+        when(mockSession.get(HibernateAccount.class, ACCOUNT_ID)).thenReturn(account);
+        doReturn(mockWork).when(dao).updateSearchTerms(account);
+        
+        int count = dao.backfillSearchTerms(10);
+        assertEquals(count, 3);
+        
+        verify(mockQuery).setParameter("accountId", ACCOUNT_ID);
+        verify(mockQuery).setParameter("accountId", "deleted-account");
+        verify(mockQuery).setParameter("accountId", "other-server-account");
+        verify(mockSession).get(HibernateAccount.class, "deleted-account");
+        verify(mockSession, never()).get(HibernateAccount.class, "other-server-account");
+        verify(mockSession, times(1)).doWork(any());
+        verify(mockSession).doWork(mockWork);
+    }
+    
+    @Test
+    public void backfillSearchTerms_EmptyQueue() {
+        when(mockHibernateHelper.nativeQueryGet(SELECT_SEARCH_TERM_BACKFILL, null, null, 10, String.class))
+                .thenReturn(ImmutableList.of());
+        
+        assertEquals(dao.backfillSearchTerms(10), 0);
+        verify(mockSession, never()).createNativeQuery(anyString());
+    }
+    
+    @Test
+    public void searchTerms() {
+        Account account = Account.create();
+        account.setEmail("Abc@x");
+        account.setPhone(new Phone("+12065881469", "US"));
+        Enrollment enrollment = Enrollment.create(TEST_APP_ID, TEST_STUDY_ID, ACCOUNT_ID, "ext1");
+        account.getEnrollments().add(enrollment);
+        account.getAttributes().put("foo", "bar");
+        
+        Set<String> terms = HibernateAccountDao.searchTerms(account);
+        assertEquals(terms, ImmutableSet.of("eabc", "ebc@", "ec@x", "p120", "p206", "p065", "p658", "p588", 
+                "p881", "p814", "p146", "p469", "xext", "xxt1", "abar"));
+    }
+    
+    @Test
+    public void searchTermsWithNoSearchableFields() {
+        assertTrue(HibernateAccountDao.searchTerms(Account.create()).isEmpty());
+    }
+    
+    @Test
+    public void updateSearchTermsWritesDifference() throws Exception {
+        Account account = Account.create();
+        account.setId(ACCOUNT_ID);
+        account.setAppId(TEST_APP_ID);
+        account.setEmail("abcd");
+        
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockSelectStatement = mock(PreparedStatement.class);
+        PreparedStatement mockDeleteStatement = mock(PreparedStatement.class);
+        PreparedStatement mockInsertStatement = mock(PreparedStatement.class);
+        ResultSet mockResultSet = mock(ResultSet.class);
+        when(mockConnection.prepareStatement(SELECT_SEARCH_TERMS)).thenReturn(mockSelectStatement);
+        when(mockConnection.prepareStatement(DELETE_SEARCH_TERM)).thenReturn(mockDeleteStatement);
+        when(mockConnection.prepareStatement(INSERT_SEARCH_TERM)).thenReturn(mockInsertStatement);
+        when(mockSelectStatement.executeQuery()).thenReturn(mockResultSet);
+        when(mockResultSet.next()).thenReturn(true, true, false);
+        when(mockResultSet.getString(1)).thenReturn("eabc", "exyz");
+        
+        dao.updateSearchTerms(account).execute(mockConnection);
+        
+        verify(mockSelectStatement).setString(1, ACCOUNT_ID);
+        
+        verify(mockDeleteStatement).setString(1, ACCOUNT_ID);
+        verify(mockDeleteStatement).setString(2, "exyz");
+        verify(mockDeleteStatement).addBatch();
+        verify(mockDeleteStatement).executeBatch();
+        
+        verify(mockInsertStatement).setString(1, ACCOUNT_ID);
+        verify(mockInsertStatement).setString(2, TEST_APP_ID);
+        verify(mockInsertStatement).setString(3, "ebcd");
+        verify(mockInsertStatement).addBatch();
+        verify(mockInsertStatement).executeBatch();
+    }
+    
+    @Test
+    public void updateSearchTermsUnchanged() throws Exception {
+        Account account = Account.create();
+        account.setId(ACCOUNT_ID);
+        account.setEmail("abc");
+        
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockSelectStatement = mock(PreparedStatement.class);
+        ResultSet mockResultSet = mock(ResultSet.class);
+        when(mockConnection.prepareStatement(SELECT_SEARCH_TERMS)).thenReturn(mockSelectStatement);
+        when(mockSelectStatement.executeQuery()).thenReturn(mockResultSet);
+        when(mockResultSet.next()).thenReturn(true, false);
+        when(mockResultSet.getString(1)).thenReturn("eabc");
+        
+        dao.updateSearchTerms(account).execute(mockConnection);
+        
+        verify(mockConnection, never()).prepareStatement(DELETE_SEARCH_TERM);
+        verify(mockConnection, never()).prepareStatement(INSERT_SEARCH_TERM);
     }
 
     @Test
@@ -217,7 +361,7 @@ public class HibernateAccountDaoTest extends Mockito {
         // Capture the update
         ArgumentCaptor<HibernateAccount> updatedHibernateAccountCaptor = ArgumentCaptor
                 .forClass(HibernateAccount.class);
-        verify(mockHibernateHelper).update(updatedHibernateAccountCaptor.capture());
+        verify(mockSession).update(updatedHibernateAccountCaptor.capture());
 
         HibernateAccount updatedHibernateAccount = updatedHibernateAccountCaptor.getValue();
 
@@ -451,12 +595,23 @@ public class HibernateAccountDaoTest extends Mockito {
     @Test
     public void deleteWithId() throws Exception {
         HibernateAccount hibernateAccount = makeValidHibernateAccount(false);
-        when(mockHibernateHelper.getById(HibernateAccount.class, ACCOUNT_ID)).thenReturn(hibernateAccount);
+        when(mockSession.get(HibernateAccount.class, ACCOUNT_ID)).thenReturn(hibernateAccount);
 
         // Directly deletes with the ID it has
         dao.deleteAccount(ACCOUNT_ID);
 
-        verify(mockHibernateHelper).deleteById(HibernateAccount.class, ACCOUNT_ID);
+        // The weekly adherence reports are removed from the statistics in the same transaction, first.
+        InOrder inOrder = inOrder(mockSession);
+        inOrder.verify(mockSession).doWork(any());
+        inOrder.verify(mockSession).delete(hibernateAccount);
+    }
+
+    @Test
+    public void deleteWithIdNotFound() throws Exception {
+        dao.deleteAccount(ACCOUNT_ID);
+
+        verify(mockSession, never()).doWork(any());
+        verify(mockSession, never()).delete(any());
     }
 
     @Test
@@ -613,8 +768,9 @@ public class HibernateAccountDaoTest extends Mockito {
         String expBaseQuery = "FROM HibernateAccount AS acct LEFT JOIN acct.enrollments "
                 +"AS enrollment WITH acct.id = enrollment.accountId LEFT JOIN org.sagebionetworks.bridge."
                 +"models.RequestInfo AS ri WITH acct.id = ri.userId WHERE acct.appId = :appId AND "
-                +"admin = 1 AND acct.orgMembership = :orgId AND acct.email LIKE :email AND "
-                +"acct.phone.number LIKE :number AND acct.createdOn >= :startTime AND acct.createdOn <= "
+                +"admin = 1 AND acct.orgMembership = :orgId AND " + termClause("email", "acct.email LIKE :email")
+                +" AND " + termClause("number", "acct.phone.number LIKE :number")
+                +" AND acct.createdOn >= :startTime AND acct.createdOn <= "
                 +":endTime AND :language IN ELEMENTS(acct.languages) AND (:IN1 IN elements(acct.dataGroups) "
                 +"AND :IN2 IN elements(acct.dataGroups)) AND (:NOTIN1 NOT IN elements(acct.dataGroups) AND "
                 +":NOTIN2 NOT IN elements(acct.dataGroups)) AND ri.signedInOn IS NOT NULL";
@@ -732,14 +888,15 @@ public class HibernateAccountDaoTest extends Mockito {
     public void getPagedWithOptionalEmptySetParams() throws Exception {
         String expQuery = "SELECT acct.id FROM HibernateAccount AS acct LEFT JOIN acct.enrollments "
                 + "AS enrollment WITH acct.id = enrollment.accountId WHERE acct.appId = :appId AND "
-                + "acct.email LIKE :email AND acct.phone.number LIKE :number AND acct.createdOn >= "
+                + termClause("email", "acct.email LIKE :email") + " AND "
+                + termClause("number", "acct.phone.number LIKE :number") + " AND acct.createdOn >= "
                 + ":startTime AND acct.createdOn <= :endTime AND :language IN ELEMENTS(acct.languages) "
                 + "GROUP BY acct.id";
 
         String expCountQuery = "SELECT COUNT(DISTINCT acct.id) FROM HibernateAccount AS acct LEFT JOIN "
                 + "acct.enrollments AS enrollment WITH acct.id = enrollment.accountId WHERE "
-                + "acct.appId = :appId AND acct.email LIKE :email AND acct.phone.number LIKE "
-                + ":number AND acct.createdOn >= :startTime AND acct.createdOn <= :endTime AND :language "
+                + "acct.appId = :appId AND " + termClause("email", "acct.email LIKE :email") + " AND "
+                + termClause("number", "acct.phone.number LIKE :number") + " AND acct.createdOn >= :startTime AND acct.createdOn <= :endTime AND :language "
                 + "IN ELEMENTS(acct.languages)";
 
         // Setup start and end dates.
@@ -1052,10 +1209,13 @@ public class HibernateAccountDaoTest extends Mockito {
         QueryBuilder builder = dao.makeQuery(FULL_QUERY, TEST_APP_ID, null, search, false);
 
         String finalQuery = "SELECT acct FROM HibernateAccount AS acct LEFT JOIN acct.enrollments "
-                + "AS enrollment WITH acct.id = enrollment.accountId WHERE acct.appId = :appId AND enrollment.externalId LIKE :extId GROUP BY acct.id";
+                + "AS enrollment WITH acct.id = enrollment.accountId WHERE acct.appId = :appId AND "
+                + termClause("extId", "enrollment.externalId LIKE :extId") + " GROUP BY acct.id";
 
         assertEquals(builder.getQuery(), finalQuery);
         assertEquals(builder.getParameters().get("extId"), "%filter%");
+        assertEquals(builder.getParameters().get("extIdTerms"), ImmutableSet.of("xfil", "xilt", "xlte", "xter"));
+        assertEquals(builder.getParameters().get("extIdTermCount"), 4L);
     }
     
     @Test
@@ -1110,10 +1270,12 @@ public class HibernateAccountDaoTest extends Mockito {
 
         String finalQuery = "SELECT acct FROM HibernateAccount AS acct LEFT JOIN acct.enrollments "
                 + "AS enrollment WITH acct.id = enrollment.accountId WHERE acct.appId = :appId AND " 
-                + "acct.attributes['foo'] LIKE :attValue GROUP BY acct.id";
+                + termClause("attValue", "acct.attributes['foo'] LIKE :attValue") + " GROUP BY acct.id";
 
         assertEquals(builder.getQuery(), finalQuery);
         assertEquals(builder.getParameters().get("attValue"), "%bar%");
+        assertEquals(builder.getParameters().get("attValueTerms"), ImmutableSet.of("abar"));
+        assertEquals(builder.getParameters().get("attValueTermCount"), 1L);
     }
     
     @Test
@@ -1386,4 +1548,8 @@ public class HibernateAccountDaoTest extends Mockito {
         }
         return hibernateAccount;
     }
-}
\ No newline at end of file
+
+    private static String termClause(String key, String phrase) {
+        return "(" + String.format(ACCOUNT_SEARCH_TERMS, key, key) + " AND " + phrase + ")";
+    }
+}
@@ -3,29 +3,62 @@ package org.sagebionetworks.bridge.hibernate;
 import static org.sagebionetworks.bridge.BridgeConstants.API_DEFAULT_PAGE_SIZE;
 import static org.sagebionetworks.bridge.TestConstants.TEST_APP_ID;
 import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY_ID;
+import static org.sagebionetworks.bridge.TestConstants.TEST_USER_ID;
+import static org.sagebionetworks.bridge.hibernate.AdherenceStatisticsCounters.NO_ADHERENCE_PERCENT;
+import static org.sagebionetworks.bridge.hibernate.AdherenceStatisticsCounters.NO_PROGRESSION;
+import static org.sagebionetworks.bridge.hibernate.AdherenceStatisticsCounters.UPSERT_BUCKET;
+import static org.sagebionetworks.bridge.hibernate.AdherenceStatisticsCounters.UPSERT_LABEL;
 import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.ADHERENCE_MAX_FIELD;
 import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.ADHERENCE_MIN_FIELD;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.BATCH_SIZE_PROPERTY;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.BUCKET_STATISTICS_SQL;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.DELETE_LABELS;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.DELETE_SEARCH_TERMS;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.DELETE_SEARCH_TERM_BACKFILL;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.DELETE_USER_LABELS;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.DELETE_USER_REPORTS;
 import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.ID_FILTER_FIELD;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.ID_SEARCH_TERMS_CLAUSE;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.ID_TERMS_FIELD;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.ID_TERM_COUNT_FIELD;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.INSERT_LABEL;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.INSERT_SEARCH_TERM;
 import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.LABEL_FILTER_FIELD;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.LABEL_STATISTICS_SQL;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.MISSING_LABEL_ROWS_SQL;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.ORDER_AND_LOCK;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.PRIOR_REPORTS_FOR_USER;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.PRIOR_REPORTS_IN_STUDY;
 import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.PROGRESSION_FILTER_FIELD;
 import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.SELECT_COUNT;
 import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.SELECT_DISTINCT;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.SELECT_PRIOR_REPORTS;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.SELECT_SEARCH_TERM_BACKFILL;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.UPDATE_LABEL_ROW_SQL;
+import static org.sagebionetworks.bridge.hibernate.HibernateAdherenceReportDao.UPSERT_REPORT;
 import static org.sagebionetworks.bridge.models.AccountTestFilter.BOTH;
 import static org.sagebionetworks.bridge.models.AccountTestFilter.PRODUCTION;
 import static org.sagebionetworks.bridge.models.AccountTestFilter.TEST;
 import static org.sagebionetworks.bridge.models.schedules2.adherence.ParticipantStudyProgress.DONE;
 import static org.sagebionetworks.bridge.models.schedules2.adherence.ParticipantStudyProgress.IN_PROGRESS;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
-import java.math.BigInteger;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 import org.hibernate.Session;
-import org.hibernate.SessionFactory;
+import org.hibernate.jdbc.Work;
 import org.hibernate.query.NativeQuery;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
@@ -36,16 +69,23 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 import org.mockito.MockitoAnnotations;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
 import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.models.AdherenceReportSearch;
 import org.sagebionetworks.bridge.models.PagedResourceList;
+import org.sagebionetworks.bridge.models.accounts.AccountRef;
+import org.sagebionetworks.bridge.models.accounts.Phone;
 import org.sagebionetworks.bridge.models.schedules2.adherence.AdherenceStatistics;
 import org.sagebionetworks.bridge.models.schedules2.adherence.AdherenceStatisticsEntry;
 import org.sagebionetworks.bridge.models.schedules2.adherence.ParticipantStudyProgress;
 import org.sagebionetworks.bridge.models.schedules2.adherence.weekly.WeeklyAdherenceReport;
+import org.sagebionetworks.bridge.models.schedules2.adherence.weekly.WeeklyAdherenceReportId;
 
 public class HibernateAdherenceReportDaoTest extends Mockito {
 
@@ -55,7 +95,7 @@ public class HibernateAdherenceReportDaoTest extends Mockito {
     private static String FULL_SQL = "FROM WeeklyAdherenceReport h LEFT JOIN h.searchableLabels label WHERE "
             +"h.appId = :appId AND h.studyId = :studyId AND h.weeklyAdherencePercent >= :adherenceMin AND "
             +"h.weeklyAdherencePercent <= :adherenceMax AND h.progression IN :progressionFilters AND (label "
-            +"LIKE :labelFilter0) AND (h.participant.externalId LIKE :id OR h.participant.identifier LIKE :id "
+            +"LIKE :labelFilter0) AND "+ID_SEARCH_TERMS_CLAUSE+" AND (h.participant.externalId LIKE :id OR h.participant.identifier LIKE :id "
             +"OR h.participant.firstName LIKE :id OR h.participant.lastName LIKE :id OR h.participant.email "
             +"LIKE :id OR h.participant.phone.number LIKE :id)"+ORDER_BY;
     
@@ -79,23 +119,29 @@ public class HibernateAdherenceReportDaoTest extends Mockito {
             +"h.studyId = :studyId AND h.weeklyAdherencePercent <= :adherenceMax"+ORDER_BY;
     
     private static String ID_FILTER = "FROM WeeklyAdherenceReport h WHERE h.appId = :appId AND h.studyId = :studyId "
-            +"AND (h.participant.externalId LIKE :id OR h.participant.identifier LIKE :id OR h.participant.firstName "
+            +"AND "+ID_SEARCH_TERMS_CLAUSE+" AND (h.participant.externalId LIKE :id OR h.participant.identifier LIKE :id OR h.participant.firstName "
             +"LIKE :id OR h.participant.lastName LIKE :id OR h.participant.email LIKE :id OR h.participant.phone.number LIKE :id)"+ORDER_BY;
     
+    private static String SHORT_ID_FILTER = "FROM WeeklyAdherenceReport h WHERE h.appId = :appId AND h.studyId = "
+            +":studyId AND (h.participant.externalId LIKE :id OR h.participant.identifier LIKE :id OR "
+            +"h.participant.firstName LIKE :id OR h.participant.lastName LIKE :id OR h.participant.email LIKE :id OR "
+            +"h.participant.phone.number LIKE :id)"+ORDER_BY;
+    
     private static String PROGRESSION_FILTER = "FROM WeeklyAdherenceReport h WHERE h.appId = :appId AND h.studyId "
             +"= :studyId AND h.progression IN :progressionFilters"+ORDER_BY;
     
-    @Mock
-    HibernateHelper mockHelper;
+    private static final String ROW_JSON = TestUtils.createJson("{'label':'Session #2 / Week 10',"
+            +"'searchableLabel':':label1:','sessionGuid':'lgjaORpbvHSMvmGWPaHxJy9v','startEventId':'custom:event1',"
+            +"'sessionName':'Session #2','weekInStudy':10,'type':'WeeklyAdherenceReportRow'}");
     
     @Mock
-    NativeQuery<Integer> mockQuery;
+    HibernateHelper mockHelper;
     
     @Mock
-    SessionFactory mockSessionFactory;
+    Session mockSession;
     
     @Mock
-    Session mockSession;
+    BridgeConfig mockConfig;
     
     @Captor
     ArgumentCaptor<String> stringCaptor;
@@ -109,15 +155,337 @@ public class HibernateAdherenceReportDaoTest extends Mockito {
     @BeforeMethod
     public void beforeMethod() {
         MockitoAnnotations.initMocks(this);
+        
+        when(mockConfig.getInt(BATCH_SIZE_PROPERTY)).thenReturn(10);
+        dao.setBridgeConfig(mockConfig);
     }
     
     @Test
     public void saveWeeklyAdherenceReport() {
-        WeeklyAdherenceReport report = new WeeklyAdherenceReport();
+        when(mockHelper.executeWithExceptionHandling(any(), any())).thenAnswer(args -> {
+            Function<Session, Object> func = args.getArgument(1);
+            return func.apply(mockSession);
+        });
+        
+        WeeklyAdherenceReport report = createReport(0);
         dao.saveWeeklyAdherenceReport(report);
-        verify(mockHelper).saveOrUpdate(report);
+        
+        assertEquals(report.getSearchTerms(), HibernateAdherenceReportDao.searchTerms(report));
+        assertTrue(report.getSearchTerms().contains("fir"));
+        verify(mockHelper).executeWithExceptionHandling(eq(report), any());
+        verify(mockSession).doWork(any());
+        verify(mockSession).saveOrUpdate(report);
+    }
+    
+    @Test
+    public void saveWeeklyAdherenceReports() {
+        when(mockHelper.executeWithExceptionHandling(any(), any())).thenAnswer(args -> {
+            Function<Session, Object> func = args.getArgument(1);
+            return func.apply(mockSession);
+        });
+        
+        dao.saveWeeklyAdherenceReports(ImmutableList.of(createReport(0)));
+        
+        // statistics are updated, then the reports are written
+        verify(mockSession, times(2)).doWork(any());
+    }
+    
+    @Test
+    public void saveWeeklyAdherenceReportsEmptyList() {
+        dao.saveWeeklyAdherenceReports(ImmutableList.of());
+        
+        verifyZeroInteractions(mockHelper);
+    }
+    
+    @Test
+    public void persistReportsInBatches() throws Exception {
+        List<WeeklyAdherenceReport> reports = new ArrayList<>();
+        for (int i=0; i < 25; i++) {
+            reports.add(createReport(i));
+        }
+        Work work = dao.persistReportsInBatches(reports);
+        
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockReportStatement = mock(PreparedStatement.class);
+        PreparedStatement mockDeleteStatement = mock(PreparedStatement.class);
+        PreparedStatement mockLabelStatement = mock(PreparedStatement.class);
+        PreparedStatement mockDeleteTermsStatement = mock(PreparedStatement.class);
+        PreparedStatement mockTermStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(UPSERT_REPORT)).thenReturn(mockReportStatement);
+        when(mockConnection.prepareStatement(DELETE_LABELS)).thenReturn(mockDeleteStatement);
+        when(mockConnection.prepareStatement(INSERT_LABEL)).thenReturn(mockLabelStatement);
+        when(mockConnection.prepareStatement(DELETE_SEARCH_TERMS)).thenReturn(mockDeleteTermsStatement);
+        when(mockConnection.prepareStatement(INSERT_SEARCH_TERM)).thenReturn(mockTermStatement);
+        
+        work.execute(mockConnection);
+        
+        // 25 records at a batch size of 10 generates 3 executeBatch statements per statement type.
+        verify(mockConnection).setAutoCommit(false);
+        verify(mockReportStatement, times(25)).addBatch();
+        verify(mockReportStatement, times(3)).executeBatch();
+        verify(mockDeleteStatement, times(25)).addBatch();
+        verify(mockDeleteStatement, times(3)).executeBatch();
+        verify(mockLabelStatement, times(50)).addBatch();
+        verify(mockLabelStatement, times(3)).executeBatch();
+        verify(mockLabelStatement).setString(4, "label1");
+        verify(mockLabelStatement).setString(4, "label2");
+        verify(mockDeleteStatement).setString(3, "userId0");
+        
+        int termCount = HibernateAdherenceReportDao.searchTerms(reports.get(0)).size();
+        verify(mockDeleteTermsStatement, times(25)).addBatch();
+        verify(mockDeleteTermsStatement, times(3)).executeBatch();
+        verify(mockTermStatement, times(25 * termCount)).addBatch();
+        verify(mockTermStatement, times(3)).executeBatch();
+        verify(mockTermStatement, times(25)).setString(4, "fir");
+        verify(mockDeleteTermsStatement).setString(3, "userId0");
+    }
+    
+    @Test
+    public void searchTerms() {
+        WeeklyAdherenceReport report = createReport(0);
+        report.setParticipant(new AccountRef("Ann", "Smith", "ab@cd", new Phone("+1206", "US"), "synapseUserId",
+                "orgId", "id1", "ext"));
+        
+        // firstName and email are too short; synapseUserId and orgMembership are not searched
+        assertEquals(HibernateAdherenceReportDao.searchTerms(report), ImmutableSet.of("ann", "smi", "mit", "ith",
+                "ab@", "b@c", "@cd", "+12", "120", "206", "id1", "ext"));
+    }
+    
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void backfillSearchTerms() {
+        when(mockHelper.executeWithExceptionHandling(any(), any())).thenAnswer(args -> {
+            Function<Session, Object> func = args.getArgument(1);
+            return func.apply(mockSession);
+        });
+        List<Object[]> results = ImmutableList.of(new Object[] { TEST_APP_ID, TEST_STUDY_ID, "userId0" },
+                new Object[] { TEST_APP_ID, TEST_STUDY_ID, "userId1" });
+        when(mockHelper.nativeQuery(SELECT_SEARCH_TERM_BACKFILL, ImmutableMap.of("limit", 10))).thenReturn(results);
+        NativeQuery mockQuery = mock(NativeQuery.class);
+        when(mockSession.createNativeQuery(DELETE_SEARCH_TERM_BACKFILL)).thenReturn(mockQuery);
+        when(mockQuery.setParameter(anyString(), any())).thenReturn(mockQuery);
+        // The second report was removed from the queue by another server.
+        when(mockQuery.executeUpdate()).thenReturn(1, 0);
+        
+        WeeklyAdherenceReport report = createReport(0);
+        report.setSearchTerms(ImmutableSet.of("stale"));
+        when(mockSession.get(WeeklyAdherenceReport.class, new WeeklyAdherenceReportId(TEST_APP_ID,
+                TEST_STUDY_ID, "userId0"))).thenReturn(report);
+        
+        assertEquals(dao.backfillSearchTerms(10), 2);
+        
+        assertEquals(report.getSearchTerms(), HibernateAdherenceReportDao.searchTerms(report));
+        assertTrue(report.getSearchTerms().contains("fir"));
+        verify(mockQuery).setParameter("userId", "userId0");
+        verify(mockQuery).setParameter("userId", "userId1");
+        verify(mockSession, times(1)).get(eq(WeeklyAdherenceReport.class), any());
+    }
+    
+    @Test
+    public void backfillSearchTerms_EmptyQueue() {
+        when(mockHelper.nativeQuery(SELECT_SEARCH_TERM_BACKFILL, ImmutableMap.of("limit", 10)))
+                .thenReturn(ImmutableList.of());
+        
+        assertEquals(dao.backfillSearchTerms(10), 0);
+        verify(mockHelper, never()).executeWithExceptionHandling(any(), any());
+    }
+    
+    @Test
+    public void searchTermsNoParticipant() {
+        assertTrue(HibernateAdherenceReportDao.searchTerms(new WeeklyAdherenceReport()).isEmpty());
+    }
+    
+    @Test
+    public void updateStatistics() throws Exception {
+        List<WeeklyAdherenceReport> reports = new ArrayList<>();
+        for (int i=0; i < 15; i++) {
+            reports.add(createReport(i));
+        }
+        Work work = dao.updateStatistics(reports);
+        
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockSelectStatement = mock(PreparedStatement.class);
+        PreparedStatement mockBucketStatement = mock(PreparedStatement.class);
+        PreparedStatement mockLabelStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(startsWith(SELECT_PRIOR_REPORTS))).thenReturn(mockSelectStatement);
+        when(mockConnection.prepareStatement(UPSERT_BUCKET)).thenReturn(mockBucketStatement);
+        when(mockConnection.prepareStatement(UPSERT_LABEL)).thenReturn(mockLabelStatement);
+        
+        // One of the users had a prior report in the same bucket, with one of the same labels
+        ResultSet mockResultSet = mock(ResultSet.class);
+        when(mockSelectStatement.executeQuery()).thenReturn(mockResultSet, mock(ResultSet.class));
+        when(mockResultSet.next()).thenReturn(true, true, false);
+        when(mockResultSet.getString(1)).thenReturn(TEST_APP_ID);
+        when(mockResultSet.getString(2)).thenReturn(TEST_STUDY_ID);
+        when(mockResultSet.getString(3)).thenReturn("userId0");
+        when(mockResultSet.getInt(4)).thenReturn(75);
+        when(mockResultSet.getString(5)).thenReturn("IN_PROGRESS");
+        when(mockResultSet.getString(6)).thenReturn("label1", "label3");
+        
+        work.execute(mockConnection);
+        
+        // 15 users at a batch size of 10 selects the prior reports in two queries
+        verify(mockConnection).prepareStatement(SELECT_PRIOR_REPORTS + PRIOR_REPORTS_IN_STUDY
+                + "(?,?,?,?,?,?,?,?,?,?)" + ORDER_AND_LOCK);
+        verify(mockConnection).prepareStatement(SELECT_PRIOR_REPORTS + PRIOR_REPORTS_IN_STUDY
+                + "(?,?,?,?,?)" + ORDER_AND_LOCK);
+        verify(mockSelectStatement).setString(3, "userId0");
+        verify(mockSelectStatement).setString(3, "userId10");
+        
+        // Net changes: 14 more reports at 75%, 14 more with label1, 15 more with label2, 1 fewer with label3 
+        verify(mockBucketStatement).setInt(3, 75);
+        verify(mockBucketStatement).setString(4, "IN_PROGRESS");
+        verify(mockBucketStatement).setInt(5, 14);
+        verify(mockBucketStatement).addBatch();
+        verify(mockBucketStatement).executeBatch();
+        
+        verify(mockLabelStatement).setString(3, "label1");
+        verify(mockLabelStatement).setInt(4, 14);
+        verify(mockLabelStatement).setString(3, "label2");
+        verify(mockLabelStatement).setInt(4, 15);
+        verify(mockLabelStatement).setString(3, "label3");
+        verify(mockLabelStatement).setInt(4, -1);
+        verify(mockLabelStatement, times(3)).addBatch();
+        verify(mockLabelStatement).executeBatch();
+    }
+    
+    @Test
+    public void updateStatisticsReplacesIdenticalReport() throws Exception {
+        WeeklyAdherenceReport report = createReport(0);
+        report.setSearchableLabels(ImmutableSet.of("label1"));
+        Work work = dao.updateStatistics(ImmutableList.of(report));
+        
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockSelectStatement = mock(PreparedStatement.class);
+        PreparedStatement mockBucketStatement = mock(PreparedStatement.class);
+        PreparedStatement mockLabelStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(startsWith(SELECT_PRIOR_REPORTS))).thenReturn(mockSelectStatement);
+        when(mockConnection.prepareStatement(UPSERT_BUCKET)).thenReturn(mockBucketStatement);
+        when(mockConnection.prepareStatement(UPSERT_LABEL)).thenReturn(mockLabelStatement);
+        
+        ResultSet mockResultSet = mock(ResultSet.class);
+        when(mockSelectStatement.executeQuery()).thenReturn(mockResultSet);
+        when(mockResultSet.next()).thenReturn(true, false);
+        when(mockResultSet.getString(1)).thenReturn(TEST_APP_ID);
+        when(mockResultSet.getString(2)).thenReturn(TEST_STUDY_ID);
+        when(mockResultSet.getString(3)).thenReturn("userId0");
+        when(mockResultSet.getInt(4)).thenReturn(75);
+        when(mockResultSet.getString(5)).thenReturn("IN_PROGRESS");
+        when(mockResultSet.getString(6)).thenReturn("label1");
+        
+        work.execute(mockConnection);
+        
+        verify(mockBucketStatement, never()).addBatch();
+        verify(mockBucketStatement, never()).executeBatch();
+        verify(mockLabelStatement, never()).addBatch();
+        verify(mockLabelStatement, never()).executeBatch();
+    }
+    
+    @Test
+    public void deleteReportsAndStatistics() throws Exception {
+        Work work = HibernateAdherenceReportDao.deleteReportsAndStatistics(TEST_USER_ID);
+        
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockSelectStatement = mock(PreparedStatement.class);
+        PreparedStatement mockBucketStatement = mock(PreparedStatement.class);
+        PreparedStatement mockLabelStatement = mock(PreparedStatement.class);
+        PreparedStatement mockDeleteLabelsStatement = mock(PreparedStatement.class);
+        PreparedStatement mockDeleteReportsStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(SELECT_PRIOR_REPORTS + PRIOR_REPORTS_FOR_USER + ORDER_AND_LOCK))
+            .thenReturn(mockSelectStatement);
+        when(mockConnection.prepareStatement(UPSERT_BUCKET)).thenReturn(mockBucketStatement);
+        when(mockConnection.prepareStatement(UPSERT_LABEL)).thenReturn(mockLabelStatement);
+        when(mockConnection.prepareStatement(DELETE_USER_LABELS)).thenReturn(mockDeleteLabelsStatement);
+        when(mockConnection.prepareStatement(DELETE_USER_REPORTS)).thenReturn(mockDeleteReportsStatement);
+        
+        // A report in one study without an adherence percentage or labels
+        ResultSet mockResultSet = mock(ResultSet.class);
+        when(mockSelectStatement.executeQuery()).thenReturn(mockResultSet);
+        when(mockResultSet.next()).thenReturn(true, false);
+        when(mockResultSet.getString(1)).thenReturn(TEST_APP_ID);
+        when(mockResultSet.getString(2)).thenReturn(TEST_STUDY_ID);
+        when(mockResultSet.getString(3)).thenReturn(TEST_USER_ID);
+        when(mockResultSet.wasNull()).thenReturn(true);
+        
+        work.execute(mockConnection);
+        
+        verify(mockSelectStatement).setString(1, TEST_USER_ID);
+        verify(mockBucketStatement).setInt(3, NO_ADHERENCE_PERCENT);
+        verify(mockBucketStatement).setString(4, NO_PROGRESSION);
+        verify(mockBucketStatement).setInt(5, -1);
+        verify(mockBucketStatement).executeBatch();
+        verify(mockLabelStatement, never()).executeBatch();
+        verify(mockDeleteLabelsStatement).setString(1, TEST_USER_ID);
+        verify(mockDeleteLabelsStatement).executeUpdate();
+        verify(mockDeleteReportsStatement).setString(1, TEST_USER_ID);
+        verify(mockDeleteReportsStatement).executeUpdate();
+    }
+    
+    @Test
+    public void deleteReportsAndStatisticsNoReports() throws Exception {
+        Work work = HibernateAdherenceReportDao.deleteReportsAndStatistics(TEST_USER_ID);
+        
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockSelectStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(any())).thenReturn(mockSelectStatement);
+        when(mockSelectStatement.executeQuery()).thenReturn(mock(ResultSet.class));
+        
+        work.execute(mockConnection);
+        
+        verify(mockConnection).prepareStatement(SELECT_PRIOR_REPORTS + PRIOR_REPORTS_FOR_USER + ORDER_AND_LOCK);
+        verifyNoMoreInteractions(mockConnection);
+    }
+    
+    @Test
+    public void updateReportStatement() throws Exception {
+        PreparedStatement mockStatement = mock(PreparedStatement.class);
+        
+        WeeklyAdherenceReport report = createReport(0);
+        dao.updateReportStatement(mockStatement, report);
+        
+        verify(mockStatement).setString(1, TEST_APP_ID);
+        verify(mockStatement).setString(2, TEST_STUDY_ID);
+        verify(mockStatement).setString(3, "userId0");
+        verify(mockStatement).setBoolean(4, true);
+        verify(mockStatement).setString(5, "America/Los_Angeles");
+        verify(mockStatement).setLong(6, DateTime.parse("2022-03-01T10:00:00.000Z").getMillis());
+        verify(mockStatement).setInt(7, 75);
+        verify(mockStatement).setString(8, null);
+        verify(mockStatement).setString(9, "{}");
+        verify(mockStatement).setString(10, null);
+        verify(mockStatement).setString(11, "userId0");
+        verify(mockStatement).setString(12, "firstName");
+        verify(mockStatement).setString(13, "lastName");
+        verify(mockStatement).setString(14, "email@email.com");
+        verify(mockStatement).setString(15, "orgId");
+        verify(mockStatement).setString(16, "+12064951234");
+        verify(mockStatement).setString(17, "US");
+        verify(mockStatement).setString(18, "synapseUserId");
+        verify(mockStatement).setString(19, "externalId");
+        verify(mockStatement).setString(20, "IN_PROGRESS");
+        verify(mockStatement).setNull(21, Types.NULL);
+        verify(mockStatement).setString(22, "2022-02-28");
+        verify(mockStatement).addBatch();
+        verifyNoMoreInteractions(mockStatement);
     }
     
+    private WeeklyAdherenceReport createReport(int i) {
+        WeeklyAdherenceReport report = new WeeklyAdherenceReport();
+        report.setAppId(TEST_APP_ID);
+        report.setStudyId(TEST_STUDY_ID);
+        report.setUserId("userId" + i);
+        report.setParticipant(new AccountRef("firstName", "lastName", "email@email.com",
+                new Phone("+12064951234", "US"), "synapseUserId", "orgId", "userId" + i, "externalId"));
+        report.setTestAccount(true);
+        report.setClientTimeZone("America/Los_Angeles");
+        report.setCreatedOn(DateTime.parse("2022-03-01T10:00:00.000Z"));
+        report.setWeeklyAdherencePercent(75);
+        report.setProgression(IN_PROGRESS);
+        report.setStartDate(LocalDate.parse("2022-02-28"));
+        report.setSearchableLabels(ImmutableSet.of("label1", "label2"));
+        return report;
+    }
+
     @Test
     public void getWeeklyAdherenceReports() {
         List<WeeklyAdherenceReport> reports = ImmutableList.of();
@@ -150,6 +518,8 @@ public class HibernateAdherenceReportDaoTest extends Mockito {
         assertEquals(paramsCaptor.getValue().get(ADHERENCE_MIN_FIELD), 0);
         assertEquals(paramsCaptor.getValue().get(ADHERENCE_MAX_FIELD), 100);
         assertEquals(paramsCaptor.getValue().get(PROGRESSION_FILTER_FIELD), ImmutableSet.of(IN_PROGRESS));
+        assertEquals(paramsCaptor.getValue().get(ID_TERMS_FIELD), ImmutableSet.of("ani", "nid"));
+        assertEquals(paramsCaptor.getValue().get(ID_TERM_COUNT_FIELD), 2L);
     }
     
     @Test
@@ -290,6 +660,26 @@ public class HibernateAdherenceReportDaoTest extends Mockito {
         assertEquals(stringCaptor.getAllValues().get(0), SELECT_COUNT + ID_FILTER);
         assertEquals(stringCaptor.getAllValues().get(1), SELECT_DISTINCT + ID_FILTER);
         assertEquals(paramsCaptor.getValue().get(ID_FILTER_FIELD), "%anId%");
+        assertEquals(paramsCaptor.getValue().get(ID_TERMS_FIELD), ImmutableSet.of("ani", "nid"));
+        assertEquals(paramsCaptor.getValue().get(ID_TERM_COUNT_FIELD), 2L);
+    }
+    
+    @Test
+    public void getWeeklyAdherenceReports_shortIdFilter() {
+        AdherenceReportSearch search = new AdherenceReportSearch();
+        search.setIdFilter("an");
+
+        dao.getWeeklyAdherenceReports(TEST_APP_ID, TEST_STUDY_ID, search);
+        
+        verify(mockHelper).queryCount(stringCaptor.capture(), paramsCaptor.capture());
+        verify(mockHelper).queryGet(stringCaptor.capture(), paramsCaptor.capture(), eq(0), eq(API_DEFAULT_PAGE_SIZE),
+                eq(WeeklyAdherenceReport.class));
+        
+        // Too short to use the search term index
+        assertEquals(stringCaptor.getAllValues().get(0), SELECT_COUNT + SHORT_ID_FILTER);
+        assertEquals(stringCaptor.getAllValues().get(1), SELECT_DISTINCT + SHORT_ID_FILTER);
+        assertEquals(paramsCaptor.getValue().get(ID_FILTER_FIELD), "%an%");
+        assertFalse(paramsCaptor.getValue().containsKey(ID_TERMS_FIELD));
     }
 
     @Test
@@ -311,33 +701,34 @@ public class HibernateAdherenceReportDaoTest extends Mockito {
     
     @Test
     public void getWeeklyAdherenceStatistics_noData() throws Exception {
-        when(mockSessionFactory.openSession()).thenReturn(mockSession);
-        when(mockSession.createNativeQuery(any())).thenReturn(mockQuery);
+        when(mockHelper.nativeQuery(any(), any())).thenReturn(ImmutableList.of());
         
         AdherenceStatistics stats = dao.getAdherenceStatistics(TEST_APP_ID, TEST_STUDY_ID, 22);
         assertEquals(stats.getAdherenceThresholdPercentage(), Integer.valueOf(22));
+        assertEquals(stats.getTotalActive(), Integer.valueOf(0));
+        assertEquals(stats.getCompliant(), Integer.valueOf(0));
+        assertEquals(stats.getNoncompliant(), Integer.valueOf(0));
         assertTrue(stats.getEntries().isEmpty());
     }
 
     @Test
     public void getWeeklyAdherenceStatistics() throws Exception {
-        when(mockSessionFactory.openSession()).thenReturn(mockSession);
-        when(mockSession.createNativeQuery(any())).thenReturn(mockQuery);
-        
-        String json = TestUtils.createJson("[{'label':'Session #2 / Week 10',"
-                +"'searchableLabel':':label1:','sessionGuid':'lgjaORpbvHSMvmGWPaHxJy9v',"
-                +"'startEventId':'custom:event1','sessionName':'Session #2',"
-                +"'weekInStudy':10,'type':'WeeklyAdherenceReportRow'},{'label':'Session #4 / Week 1',"
-                +"'searchableLabel':':label2:','sessionGuid':'aaaa','startEventId':'custom:event2',"
-                +"'sessionName':'Session #4','weekInStudy':1,'type':'WeeklyAdherenceReportRow'}]");
+        Object[] labelRow = new Object[] {":label1:", Integer.valueOf(10), ROW_JSON};
+        List<Object[]> labelResults = ImmutableList.of(labelRow);
+        when(mockHelper.nativeQuery(eq(LABEL_STATISTICS_SQL), any())).thenReturn(labelResults);
         
-        Object[] row = new Object[] {":label1:", BigInteger.valueOf(10), json};
-        List<Object[]> results = ImmutableList.of(row);
-        when(mockHelper.nativeQuery(stringCaptor.capture(), paramsCaptor.capture()))
-            .thenReturn(results);
+        List<Object[]> bucketResults = ImmutableList.of(
+                new Object[] {Integer.valueOf(NO_ADHERENCE_PERCENT), new BigDecimal(4)},
+                new Object[] {Integer.valueOf(10), new BigDecimal(3)},
+                new Object[] {Integer.valueOf(22), new BigDecimal(5)},
+                new Object[] {Integer.valueOf(100), new BigDecimal(2)});
+        when(mockHelper.nativeQuery(eq(BUCKET_STATISTICS_SQL), paramsCaptor.capture())).thenReturn(bucketResults);
         
         AdherenceStatistics stats = dao.getAdherenceStatistics(TEST_APP_ID, TEST_STUDY_ID, 22);
         assertEquals(stats.getAdherenceThresholdPercentage(), Integer.valueOf(22));
+        assertEquals(stats.getTotalActive(), Integer.valueOf(10));
+        assertEquals(stats.getNoncompliant(), Integer.valueOf(3));
+        assertEquals(stats.getCompliant(), Integer.valueOf(7));
         assertEquals(stats.getEntries().size(), 1);
         AdherenceStatisticsEntry entry = stats.getEntries().get(0);
         assertEquals(entry.getLabel(), "Session #2 / Week 10");
@@ -345,5 +736,40 @@ public class HibernateAdherenceReportDaoTest extends Mockito {
         assertEquals(entry.getSessionName(), "Session #2");
         assertEquals(entry.getWeekInStudy(), Integer.valueOf(10));
         assertEquals(entry.getTotalActive(), Integer.valueOf(10));
+        
+        assertEquals(paramsCaptor.getValue().get("appId"), TEST_APP_ID);
+        assertEquals(paramsCaptor.getValue().get("studyId"), TEST_STUDY_ID);
+        verify(mockHelper, never()).nativeQueryUpdate(any(), any());
+    }
+    
+    @Test
+    public void getWeeklyAdherenceStatistics_backfillsLabelRows() throws Exception {
+        String json = TestUtils.createJson("[{'label':'Session #2 / Week 10',"
+                +"'searchableLabel':':label1:','sessionGuid':'lgjaORpbvHSMvmGWPaHxJy9v',"
+                +"'startEventId':'custom:event1','sessionName':'Session #2',"
+                +"'weekInStudy':10,'type':'WeeklyAdherenceReportRow'},{'label':'Session #4 / Week 1',"
+                +"'searchableLabel':':label2:','sessionGuid':'aaaa','startEventId':'custom:event2',"
+                +"'sessionName':'Session #4','weekInStudy':1,'type':'WeeklyAdherenceReportRow'}]");
+        
+        List<Object[]> labelResults = ImmutableList.of(new Object[] {":label1:", Integer.valueOf(10), null},
+                new Object[] {":label2:", Integer.valueOf(3), null});
+        when(mockHelper.nativeQuery(eq(LABEL_STATISTICS_SQL), any())).thenReturn(labelResults);
+        List<Object[]> missingResults = ImmutableList.of(new Object[] {":label1:", json},
+                new Object[] {":label2:", json});
+        when(mockHelper.nativeQuery(eq(MISSING_LABEL_ROWS_SQL), any())).thenReturn(missingResults);
+        when(mockHelper.nativeQuery(eq(BUCKET_STATISTICS_SQL), any())).thenReturn(ImmutableList.of());
+        
+        AdherenceStatistics stats = dao.getAdherenceStatistics(TEST_APP_ID, TEST_STUDY_ID, 22);
+        assertEquals(stats.getEntries().size(), 2);
+        assertEquals(stats.getEntries().get(0).getSessionName(), "Session #2");
+        assertEquals(stats.getEntries().get(0).getTotalActive(), Integer.valueOf(10));
+        assertEquals(stats.getEntries().get(1).getSessionName(), "Session #4");
+        assertEquals(stats.getEntries().get(1).getTotalActive(), Integer.valueOf(3));
+        
+        // The missing rows are looked up once and stored with the counters
+        verify(mockHelper).nativeQuery(eq(MISSING_LABEL_ROWS_SQL), any());
+        verify(mockHelper, times(2)).nativeQueryUpdate(eq(UPDATE_LABEL_ROW_SQL), paramsCaptor.capture());
+        assertEquals(paramsCaptor.getAllValues().get(0).get("label"), ":label1:");
+        assertEquals(paramsCaptor.getAllValues().get(1).get("label"), ":label2:");
     }
 }
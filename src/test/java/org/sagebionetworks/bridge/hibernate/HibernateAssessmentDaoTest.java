@@ -1,5 +1,6 @@
 package org.sagebionetworks.bridge.hibernate;
 
+import static org.sagebionetworks.bridge.BridgeConstants.SHARED_APP_ID;
 import static org.sagebionetworks.bridge.TestConstants.GUID;
 import static org.sagebionetworks.bridge.TestConstants.IDENTIFIER;
 import static org.sagebionetworks.bridge.TestConstants.TEST_APP_ID;
@@ -7,9 +8,11 @@ import static org.sagebionetworks.bridge.TestConstants.TEST_ORG_ID;
 import static org.sagebionetworks.bridge.hibernate.HibernateAssessmentDao.DELETE_ALL_ASSESSMENTS_SQL;
 import static org.sagebionetworks.bridge.hibernate.HibernateAssessmentDao.DELETE_CONFIG_SQL;
 import static org.sagebionetworks.bridge.hibernate.HibernateAssessmentDao.DELETE_RESOURCES_SQL;
+import static org.sagebionetworks.bridge.hibernate.HibernateAssessmentDao.UPDATE_LATEST_REVISION_SQL;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
@@ -45,30 +48,22 @@ import org.sagebionetworks.bridge.models.assessments.config.HibernateAssessmentC
 
 public class HibernateAssessmentDaoTest extends Mockito {
     
-    private static final String QUERY_SQL_EXC_DELETED = "FROM ( SELECT DISTINCT "
-            +"identifier as id, MAX(revision) AS rev FROM Assessments WHERE appId = :appId "
-            +"GROUP BY identifier) AS latest_assessments INNER JOIN Assessments AS a ON "
-            +"a.identifier = latest_assessments.id AND a.revision = latest_assessments.rev "
-            +"WHERE appId = :appId AND deleted = 0 ORDER BY createdOn DESC";
+    private static final String QUERY_SQL_EXC_DELETED = "FROM AssessmentLatestRevisions AS latest "
+            +"INNER JOIN Assessments AS a ON a.guid = latest.guid "
+            +"WHERE latest.appId = :appId AND a.deleted = 0 ORDER BY a.createdOn DESC";
 
-    private static final String QUERY_SQL_WITH_OWNERID_EXC_DELETED = "FROM ( SELECT DISTINCT "
-            +"identifier as id, MAX(revision) AS rev FROM Assessments WHERE appId = :appId "
-            +"AND ownerId = :ownerId GROUP BY identifier) AS latest_assessments INNER JOIN Assessments AS a ON "
-            +"a.identifier = latest_assessments.id AND a.revision = latest_assessments.rev "
-            +"WHERE appId = :appId AND ownerId = :ownerId AND deleted = 0 ORDER BY createdOn DESC";
-    
-    private static final String QUERY_SQL_INC_DELETED = "FROM ( SELECT DISTINCT "
-            +"identifier as id, MAX(revision) AS rev FROM Assessments WHERE appId = :appId "
-            +"GROUP BY identifier) AS latest_assessments INNER JOIN Assessments AS a ON "+
-            "a.identifier = latest_assessments.id AND a.revision = latest_assessments.rev "
-            +"WHERE appId = :appId ORDER BY createdOn DESC";
-    
-    private static final String QUERY_SQL_WITH_TAGS = "FROM ( SELECT DISTINCT "
-            +"identifier as id, MAX(revision) AS rev FROM Assessments WHERE appId = :appId "
-            +"GROUP BY identifier) AS latest_assessments INNER JOIN Assessments AS a ON "
-            +"a.identifier = latest_assessments.id AND a.revision = latest_assessments.rev "
-            +"WHERE appId = :appId AND guid IN (SELECT DISTINCT assessmentGuid FROM "
-            +"AssessmentTags WHERE tagValue IN :tags) AND deleted = 0 ORDER BY createdOn DESC";
+    private static final String QUERY_SQL_WITH_OWNERID_EXC_DELETED = "FROM AssessmentLatestRevisions AS latest "
+            +"INNER JOIN Assessments AS a ON a.guid = latest.guid "
+            +"WHERE latest.appId = :appId AND a.ownerId = :ownerId AND a.deleted = 0 ORDER BY a.createdOn DESC";
+    
+    private static final String QUERY_SQL_INC_DELETED = "FROM AssessmentLatestRevisions AS latest "
+            +"INNER JOIN Assessments AS a ON a.guid = latest.guid "
+            +"WHERE latest.appId = :appId ORDER BY a.createdOn DESC";
+    
+    private static final String QUERY_SQL_WITH_TAGS = "FROM AssessmentLatestRevisions AS latest "
+            +"INNER JOIN Assessments AS a ON a.guid = latest.guid "
+            +"WHERE latest.appId = :appId AND a.guid IN (SELECT DISTINCT assessmentGuid FROM "
+            +"AssessmentTags WHERE tagValue IN :tags) AND a.deleted = 0 ORDER BY a.createdOn DESC";
     
     private static final String QUERY_GET_REVISIONS_EXC_DELETED = "FROM HibernateAssessment WHERE "
             +"appId = :appId AND identifier = :identifier AND deleted = 0 ORDER BY "
@@ -116,6 +111,9 @@ public class HibernateAssessmentDaoTest extends Mockito {
     @Mock
     NativeQuery<?> mockDelConfigQuery;
     
+    @Mock
+    NativeQuery<?> mockLatestRevisionQuery;
+    
     @InjectMocks
     @Spy
     HibernateAssessmentDao dao;
@@ -128,6 +126,8 @@ public class HibernateAssessmentDaoTest extends Mockito {
             Function<Session,HibernateAssessment> func = answer.getArgument(1);
             return func.apply(mockSession);
         });
+        when(mockSession.createNativeQuery(UPDATE_LATEST_REVISION_SQL)).thenReturn(mockLatestRevisionQuery);
+        dao.clearPageCache();
     }
 
     @Test
@@ -140,7 +140,7 @@ public class HibernateAssessmentDaoTest extends Mockito {
         
         PagedResourceList<Assessment> page = dao.getAssessments(TEST_APP_ID, null, 0, 20, null, false);
         assertEquals(queryCaptor.getAllValues().get(0), "SELECT COUNT(*) " + QUERY_SQL_EXC_DELETED);
-        assertEquals(queryCaptor.getAllValues().get(1), "SELECT * " + QUERY_SQL_EXC_DELETED);
+        assertEquals(queryCaptor.getAllValues().get(1), "SELECT a.* " + QUERY_SQL_EXC_DELETED);
         
         Map<String,Object> params = paramsCaptor.getValue();
         assertEquals(params.get("appId"), TEST_APP_ID);
@@ -158,7 +158,7 @@ public class HibernateAssessmentDaoTest extends Mockito {
         
         PagedResourceList<Assessment> page = dao.getAssessments(TEST_APP_ID, TEST_ORG_ID, 0, 20, null, false);
         assertEquals(queryCaptor.getAllValues().get(0), "SELECT COUNT(*) " + QUERY_SQL_WITH_OWNERID_EXC_DELETED);
-        assertEquals(queryCaptor.getAllValues().get(1), "SELECT * " + QUERY_SQL_WITH_OWNERID_EXC_DELETED);
+        assertEquals(queryCaptor.getAllValues().get(1), "SELECT a.* " + QUERY_SQL_WITH_OWNERID_EXC_DELETED);
         
         Map<String,Object> params = paramsCaptor.getValue();
         assertEquals(params.get("appId"), TEST_APP_ID);
@@ -175,7 +175,7 @@ public class HibernateAssessmentDaoTest extends Mockito {
         
         dao.getAssessments(TEST_APP_ID, null, 0, 20, null, true);
         assertEquals(queryCaptor.getAllValues().get(0), "SELECT COUNT(*) " + QUERY_SQL_INC_DELETED);
-        assertEquals(queryCaptor.getAllValues().get(1), "SELECT * " + QUERY_SQL_INC_DELETED);
+        assertEquals(queryCaptor.getAllValues().get(1), "SELECT a.* " + QUERY_SQL_INC_DELETED);
     }
     
     @Test
@@ -186,7 +186,62 @@ public class HibernateAssessmentDaoTest extends Mockito {
         
         dao.getAssessments(TEST_APP_ID, null, 0, 20, ImmutableSet.of("tagA", "tagB"), false);
         assertEquals(queryCaptor.getAllValues().get(0), "SELECT COUNT(*) " + QUERY_SQL_WITH_TAGS);
-        assertEquals(queryCaptor.getAllValues().get(1), "SELECT * " + QUERY_SQL_WITH_TAGS);
+        assertEquals(queryCaptor.getAllValues().get(1), "SELECT a.* " + QUERY_SQL_WITH_TAGS);
+    }
+    
+    @Test
+    public void getAssessmentsIsCached() {
+        when(mockHelper.nativeQueryCount(any(), any())).thenReturn(1);
+        when(mockHelper.nativeQueryGet(any(), any(), eq(0), eq(20), eq(HibernateAssessment.class)))
+                .thenReturn(ImmutableList.of(HIBERNATE_ASSESSMENT));
+        
+        PagedResourceList<Assessment> page1 = dao.getAssessments(TEST_APP_ID, null, 0, 20,
+                ImmutableSet.of("tagA", "tagB"), false);
+        PagedResourceList<Assessment> page2 = dao.getAssessments(TEST_APP_ID, null, 0, 20,
+                ImmutableSet.of("tagB", "tagA"), false);
+        
+        verify(mockHelper, times(1)).nativeQueryCount(any(), any());
+        verify(mockHelper, times(1)).nativeQueryGet(any(), any(), anyInt(), anyInt(), any());
+        assertEquals(page2.getItems().size(), 1);
+        assertEquals(page2.getTotal(), Integer.valueOf(1));
+        // Each caller gets its own copy, as callers add request parameters to the list
+        assertNotSame(page1, page2);
+        
+        // A different page is not served from the cache
+        dao.getAssessments(TEST_APP_ID, null, 0, 20, ImmutableSet.of("tagA", "tagB"), true);
+        verify(mockHelper, times(2)).nativeQueryCount(any(), any());
+    }
+    
+    @Test
+    public void getAssessmentsCacheInvalidatedByWrite() {
+        when(mockHelper.nativeQueryCount(any(), any())).thenReturn(0);
+        when(mockHelper.nativeQueryGet(any(), any(), eq(0), eq(20), eq(HibernateAssessment.class)))
+                .thenReturn(ImmutableList.of());
+        when(mockSession.merge(any())).thenReturn(HIBERNATE_ASSESSMENT);
+        
+        dao.getAssessments(TEST_APP_ID, null, 0, 20, null, false);
+        dao.getAssessments("otherApp", null, 0, 20, null, false);
+        dao.updateAssessment(TEST_APP_ID, new Assessment());
+        dao.getAssessments(TEST_APP_ID, null, 0, 20, null, false);
+        dao.getAssessments("otherApp", null, 0, 20, null, false);
+        
+        // Only the app that was written to is queried again
+        verify(mockHelper, times(3)).nativeQueryCount(any(), any());
+    }
+    
+    @Test
+    public void getAssessmentsCacheInvalidatedByPublish() {
+        when(mockHelper.nativeQueryCount(any(), any())).thenReturn(0);
+        when(mockHelper.nativeQueryGet(any(), any(), eq(0), eq(20), eq(HibernateAssessment.class)))
+                .thenReturn(ImmutableList.of());
+        when(mockSession.merge(any())).thenReturn(new HibernateAssessment());
+        
+        dao.getAssessments(SHARED_APP_ID, null, 0, 20, null, false);
+        dao.publishAssessment(TEST_APP_ID, new Assessment(), AssessmentTest.createAssessment(), 
+                new AssessmentConfig());
+        dao.getAssessments(SHARED_APP_ID, null, 0, 20, null, false);
+        
+        verify(mockHelper, times(2)).nativeQueryCount(any(), any());
     }
     
     @Test
@@ -345,6 +400,8 @@ public class HibernateAssessmentDaoTest extends Mockito {
         
         verify(mockSession).merge(assessmentCaptor.capture());
         assertEquals(assessmentCaptor.getValue().getGuid(), GUID);
+        
+        verifyLatestRevisionUpdated(TEST_APP_ID);
     }
 
     @Test
@@ -402,6 +459,7 @@ public class HibernateAssessmentDaoTest extends Mockito {
         verify(mockDelConfigQuery).setParameter("guid", GUID);
         verify(mockDelConfigQuery).executeUpdate();
         verify(mockSession).remove(any());
+        verifyLatestRevisionUpdated(TEST_APP_ID);
     }
 
     @Test
@@ -438,6 +496,7 @@ public class HibernateAssessmentDaoTest extends Mockito {
         verify(mockHelper).executeWithExceptionHandling(any(HibernateAssessment.class), any());
         verify(mockSession).saveOrUpdate(any(HibernateAssessmentConfig.class));
         verify(mockSession).saveOrUpdate(any(HibernateAssessment.class));
+        verifyLatestRevisionUpdated(SHARED_APP_ID);
     }
     
     @Test
@@ -451,6 +510,7 @@ public class HibernateAssessmentDaoTest extends Mockito {
         verify(mockHelper).executeWithExceptionHandling(any(HibernateAssessment.class), any());
         verify(mockSession).saveOrUpdate(any(HibernateAssessmentConfig.class));
         verify(mockSession).merge(any(HibernateAssessment.class));
+        verifyLatestRevisionUpdated(TEST_APP_ID);
     }
 
     @Test
@@ -489,4 +549,11 @@ public class HibernateAssessmentDaoTest extends Mockito {
         verify(mockHelper).nativeQueryUpdate(eq(DELETE_ALL_ASSESSMENTS_SQL), paramsCaptor.capture());
         assertEquals(paramsCaptor.getValue().get("appId"), TEST_APP_ID);
     }
+    
+    private void verifyLatestRevisionUpdated(String appId) {
+        verify(mockSession).flush();
+        verify(mockLatestRevisionQuery).setParameter("appId", appId);
+        verify(mockLatestRevisionQuery).setParameter("identifier", IDENTIFIER);
+        verify(mockLatestRevisionQuery).executeUpdate();
+    }
 }
@@ -218,6 +218,25 @@ public class HibernateDemographicDaoTest {
         assertSame(returnedDemographicUser.get(), demographicUser);
     }
 
+    /**
+     * Tests whether all of a user's DemographicUsers are fetched with a single query.
+     */
+    @Test
+    public void getDemographicUsersForUser() {
+        List<DemographicUser> demographicUsers = ImmutableList.of(new DemographicUser(), new DemographicUser());
+        when(hibernateHelper.queryGet(any(), any(), any(), any(), eq(DemographicUser.class)))
+                .thenReturn(demographicUsers);
+
+        List<DemographicUser> returnedDemographicUsers = hibernateDemographicDao.getDemographicUsersForUser(
+                TEST_APP_ID, TEST_USER_ID);
+
+        verify(hibernateHelper).queryGet(
+                "SELECT DISTINCT du FROM DemographicUser du LEFT JOIN FETCH du.demographics d LEFT JOIN FETCH "
+                        + "d.values WHERE du.appId = :appId AND du.userId = :userId",
+                ImmutableMap.of("userId", TEST_USER_ID, "appId", TEST_APP_ID), null, null, DemographicUser.class);
+        assertSame(returnedDemographicUsers, demographicUsers);
+    }
+
     /**
      * Tests whether a DemographicUser is fetched correctly with null studyId.
      */
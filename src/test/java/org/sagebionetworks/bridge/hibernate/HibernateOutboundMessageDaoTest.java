@@ -0,0 +1,169 @@
+package org.sagebionetworks.bridge.hibernate;
+
+import static org.sagebionetworks.bridge.hibernate.HibernateOutboundMessageDao.CLAIM_SQL;
+import static org.sagebionetworks.bridge.hibernate.HibernateOutboundMessageDao.COUNT_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateOutboundMessageDao.DELETE_CREATED_BEFORE_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateOutboundMessageDao.DELETE_FOR_RECIPIENTS_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateOutboundMessageDao.DELETE_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateOutboundMessageDao.GET_CLAIMED_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateOutboundMessageDao.UPDATE_QUERY;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.models.OutboundMessage;
+import org.sagebionetworks.bridge.models.OutboundMessage.Channel;
+import org.sagebionetworks.bridge.models.OutboundMessage.Status;
+
+public class HibernateOutboundMessageDaoTest extends Mockito {
+    private static final long NOW = 1500000000000L;
+    private static final long CLAIMED_UNTIL = NOW + 300000L;
+
+    @Mock
+    HibernateHelper mockHelper;
+
+    @Captor
+    ArgumentCaptor<Map<String, Object>> paramsCaptor;
+
+    @InjectMocks
+    HibernateOutboundMessageDao dao;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void createMessage() {
+        OutboundMessage message = new OutboundMessage();
+        dao.createMessage(message);
+        verify(mockHelper).create(message);
+    }
+
+    @Test
+    public void claimMessages() {
+        List<OutboundMessage> messages = ImmutableList.of(new OutboundMessage());
+        when(mockHelper.nativeQueryUpdate(eq(CLAIM_SQL), any())).thenReturn(1);
+        when(mockHelper.queryGet(eq(GET_CLAIMED_QUERY), any(), isNull(), isNull(), eq(OutboundMessage.class)))
+                .thenReturn(messages);
+
+        List<OutboundMessage> retValue = dao.claimMessages(Channel.SMS, NOW, CLAIMED_UNTIL, 4);
+        assertEquals(retValue, messages);
+
+        verify(mockHelper).nativeQueryUpdate(eq(CLAIM_SQL), paramsCaptor.capture());
+        Map<String, Object> claimParams = paramsCaptor.getValue();
+        assertEquals(claimParams.get("channel"), "SMS");
+        assertEquals(claimParams.get("now"), NOW);
+        assertEquals(claimParams.get("claimedUntil"), CLAIMED_UNTIL);
+        assertEquals(claimParams.get("limit"), 4);
+        String claimToken = (String) claimParams.get("claimToken");
+        assertNotNull(claimToken);
+
+        // The claimed messages are read back by the new claim token.
+        verify(mockHelper).queryGet(eq(GET_CLAIMED_QUERY), paramsCaptor.capture(), isNull(), isNull(),
+                eq(OutboundMessage.class));
+        assertEquals(paramsCaptor.getValue(), ImmutableMap.of("claimToken", claimToken));
+    }
+
+    @Test
+    public void claimMessagesNoneDue() {
+        when(mockHelper.nativeQueryUpdate(eq(CLAIM_SQL), any())).thenReturn(0);
+
+        List<OutboundMessage> retValue = dao.claimMessages(Channel.EMAIL, NOW, CLAIMED_UNTIL, 4);
+        assertTrue(retValue.isEmpty());
+        verify(mockHelper, never()).queryGet(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    public void claimTokenIsNewForEachClaim() {
+        dao.claimMessages(Channel.EMAIL, NOW, CLAIMED_UNTIL, 4);
+        dao.claimMessages(Channel.EMAIL, NOW, CLAIMED_UNTIL, 4);
+
+        verify(mockHelper, times(2)).nativeQueryUpdate(eq(CLAIM_SQL), paramsCaptor.capture());
+        List<Map<String, Object>> allParams = paramsCaptor.getAllValues();
+        assertNotEquals(allParams.get(0).get("claimToken"), allParams.get(1).get("claimToken"));
+    }
+
+    @Test
+    public void updateMessage() {
+        when(mockHelper.queryUpdate(eq(UPDATE_QUERY), any())).thenReturn(1);
+        OutboundMessage message = new OutboundMessage();
+        message.setId("id");
+        message.setStatus(Status.PENDING);
+        message.setAttempts(2);
+        message.setNextAttemptOn(NOW);
+
+        assertTrue(dao.updateMessage(message, "claim-token"));
+
+        // The message is only updated if it is still claimed with the token.
+        verify(mockHelper).queryUpdate(eq(UPDATE_QUERY), paramsCaptor.capture());
+        Map<String, Object> params = paramsCaptor.getValue();
+        assertEquals(params.get("id"), "id");
+        assertEquals(params.get("claimToken"), "claim-token");
+        assertEquals(params.get("status"), Status.PENDING);
+        assertEquals(params.get("attempts"), 2);
+        assertEquals(params.get("nextAttemptOn"), NOW);
+        assertTrue(params.containsKey("lastError"));
+        assertNull(params.get("lastError"));
+    }
+
+    @Test
+    public void updateMessageClaimLost() {
+        when(mockHelper.queryUpdate(eq(UPDATE_QUERY), any())).thenReturn(0);
+
+        assertFalse(dao.updateMessage(new OutboundMessage(), "claim-token"));
+    }
+
+    @Test
+    public void deleteMessage() {
+        dao.deleteMessage("id");
+        verify(mockHelper).queryUpdate(DELETE_QUERY, ImmutableMap.of("id", "id"));
+    }
+
+    @Test
+    public void deleteMessagesCreatedBefore() {
+        when(mockHelper.queryUpdate(any(), any())).thenReturn(3);
+
+        assertEquals(dao.deleteMessagesCreatedBefore(NOW), 3);
+        verify(mockHelper).queryUpdate(DELETE_CREATED_BEFORE_QUERY, ImmutableMap.of("createdOn", NOW));
+    }
+
+    @Test
+    public void deleteMessagesForRecipients() {
+        dao.deleteMessagesForRecipients("app", ImmutableSet.of("email@example.com", "+12065551212"));
+        verify(mockHelper).queryUpdate(DELETE_FOR_RECIPIENTS_QUERY, ImmutableMap.of("appId", "app",
+                "recipients", ImmutableSet.of("email@example.com", "+12065551212")));
+    }
+
+    @Test
+    public void deleteMessagesForRecipients_noRecipients() {
+        dao.deleteMessagesForRecipients("app", ImmutableSet.of());
+        verify(mockHelper, never()).queryUpdate(any(), any());
+    }
+
+    @Test
+    public void countMessages() {
+        when(mockHelper.queryCount(COUNT_QUERY, ImmutableMap.of("channel", Channel.EMAIL, "status",
+                Status.DEAD))).thenReturn(3);
+
+        assertEquals(dao.countMessages(Channel.EMAIL, Status.DEAD), 3);
+    }
+}
@@ -0,0 +1,174 @@
+package org.sagebionetworks.bridge.hibernate;
+
+import static org.sagebionetworks.bridge.hibernate.HibernateParticipantVersionQueueDao.COUNT_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateParticipantVersionQueueDao.DELETE_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateParticipantVersionQueueDao.DELETE_REVISION_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateParticipantVersionQueueDao.ENQUEUE_SQL;
+import static org.sagebionetworks.bridge.hibernate.HibernateParticipantVersionQueueDao.GET_DUE_APP_IDS_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateParticipantVersionQueueDao.GET_DUE_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateParticipantVersionQueueDao.UPDATE_QUERY;
+import static org.sagebionetworks.bridge.hibernate.HibernateParticipantVersionQueueDao.UPDATE_WRITTEN_VERSION_QUERY;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.models.ParticipantVersionQueueEntry;
+
+public class HibernateParticipantVersionQueueDaoTest extends Mockito {
+    private static final String APP_ID = "app";
+    private static final String HEALTH_CODE = "health-code";
+    private static final long NOW = 1500000000000L;
+
+    @Mock
+    HibernateHelper mockHelper;
+
+    @Captor
+    ArgumentCaptor<Map<String, Object>> paramsCaptor;
+
+    @InjectMocks
+    HibernateParticipantVersionQueueDao dao;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void enqueue() {
+        // MySQL returns 1 for an inserted row.
+        when(mockHelper.nativeQueryUpdate(eq(ENQUEUE_SQL), any())).thenReturn(1);
+        ObjectNode payload = JsonNodeFactory.instance.objectNode();
+        payload.put("participantVersion", 0);
+
+        assertFalse(dao.enqueue(APP_ID, HEALTH_CODE, payload, NOW));
+
+        verify(mockHelper).nativeQueryUpdate(ENQUEUE_SQL, ImmutableMap.of("appId", APP_ID,
+                "healthCode", HEALTH_CODE, "payload", "{\"participantVersion\":0}", "nextAttemptOn", NOW));
+    }
+
+    @Test
+    public void enqueueReplacesEntry() {
+        // MySQL returns 2 for a row that was updated instead of inserted.
+        when(mockHelper.nativeQueryUpdate(eq(ENQUEUE_SQL), any())).thenReturn(2);
+
+        assertTrue(dao.enqueue(APP_ID, HEALTH_CODE, JsonNodeFactory.instance.objectNode(), NOW));
+    }
+
+    @Test
+    public void getAppIdsWithDueEntries() {
+        List<String> appIds = ImmutableList.of(APP_ID);
+        when(mockHelper.queryGet(GET_DUE_APP_IDS_QUERY, ImmutableMap.of("now", NOW), null, null, String.class))
+                .thenReturn(appIds);
+
+        assertEquals(dao.getAppIdsWithDueEntries(NOW), appIds);
+    }
+
+    @Test
+    public void getDueEntries() {
+        List<ParticipantVersionQueueEntry> entries = ImmutableList.of(new ParticipantVersionQueueEntry());
+        when(mockHelper.queryGet(GET_DUE_QUERY, ImmutableMap.of("appId", APP_ID, "now", NOW), null, 10,
+                ParticipantVersionQueueEntry.class)).thenReturn(entries);
+
+        assertEquals(dao.getDueEntries(APP_ID, NOW, 10), entries);
+    }
+
+    @Test
+    public void updateEntry() {
+        when(mockHelper.queryUpdate(eq(UPDATE_QUERY), any())).thenReturn(1);
+
+        dao.updateEntry(makeEntry());
+
+        // The entry is updated if it still has the revision that was read.
+        verify(mockHelper).queryUpdate(eq(UPDATE_QUERY), paramsCaptor.capture());
+        Map<String, Object> params = paramsCaptor.getValue();
+        assertEquals(params.get("appId"), APP_ID);
+        assertEquals(params.get("healthCode"), HEALTH_CODE);
+        assertEquals(params.get("revision"), 3);
+        assertEquals(params.get("attempts"), 1);
+        assertEquals(params.get("nextAttemptOn"), NOW);
+        assertEquals(params.get("writtenVersion"), 7);
+        verify(mockHelper, never()).queryUpdate(eq(UPDATE_WRITTEN_VERSION_QUERY), any());
+    }
+
+    @Test
+    public void updateEntryNoWrittenVersion() {
+        when(mockHelper.queryUpdate(eq(UPDATE_QUERY), any())).thenReturn(1);
+        ParticipantVersionQueueEntry entry = makeEntry();
+        entry.setWrittenVersion(null);
+
+        dao.updateEntry(entry);
+
+        verify(mockHelper).queryUpdate(eq(UPDATE_QUERY), paramsCaptor.capture());
+        assertTrue(paramsCaptor.getValue().containsKey("writtenVersion"));
+        assertNull(paramsCaptor.getValue().get("writtenVersion"));
+    }
+
+    @Test
+    public void updateEntryReplaced() {
+        when(mockHelper.queryUpdate(eq(UPDATE_QUERY), any())).thenReturn(0);
+
+        dao.updateEntry(makeEntry());
+
+        // Only the written version is saved to the replacement.
+        verify(mockHelper).queryUpdate(eq(UPDATE_WRITTEN_VERSION_QUERY), paramsCaptor.capture());
+        assertEquals(paramsCaptor.getValue(), ImmutableMap.of("appId", APP_ID, "healthCode", HEALTH_CODE,
+                "writtenVersion", 7));
+    }
+
+    @Test
+    public void deleteEntry() {
+        when(mockHelper.queryUpdate(any(), any())).thenReturn(1);
+
+        assertTrue(dao.deleteEntry(makeEntry()));
+        verify(mockHelper).queryUpdate(DELETE_REVISION_QUERY, ImmutableMap.of("appId", APP_ID,
+                "healthCode", HEALTH_CODE, "revision", 3));
+    }
+
+    @Test
+    public void deleteEntryReplaced() {
+        when(mockHelper.queryUpdate(any(), any())).thenReturn(0);
+
+        assertFalse(dao.deleteEntry(makeEntry()));
+    }
+
+    @Test
+    public void deleteEntryForParticipant() {
+        dao.deleteEntry(APP_ID, HEALTH_CODE);
+        verify(mockHelper).queryUpdate(DELETE_QUERY, ImmutableMap.of("appId", APP_ID, "healthCode", HEALTH_CODE));
+    }
+
+    @Test
+    public void countEntries() {
+        when(mockHelper.queryCount(COUNT_QUERY, null)).thenReturn(3);
+
+        assertEquals(dao.countEntries(), 3);
+    }
+
+    private static ParticipantVersionQueueEntry makeEntry() {
+        ParticipantVersionQueueEntry entry = new ParticipantVersionQueueEntry();
+        entry.setAppId(APP_ID);
+        entry.setHealthCode(HEALTH_CODE);
+        entry.setRevision(3);
+        entry.setAttempts(1);
+        entry.setNextAttemptOn(NOW);
+        entry.setWrittenVersion(7);
+        return entry;
+    }
+}
@@ -3,7 +3,6 @@ package org.sagebionetworks.bridge.hibernate;
 import static org.testng.Assert.assertEquals;
 
 import java.util.List;
-import java.util.Map;
 import java.util.function.Function;
 
 import com.google.common.collect.ImmutableList;
@@ -48,17 +47,12 @@ public class HibernateTagDaoTest extends Mockito {
     }
     
     @Test
-    public void getTags() {
-        List<Tag> list = ImmutableList.of(new Tag("a:1"), new Tag("a:2"), new Tag("a:3"), new Tag("a:4"),
-                new Tag("a:5"), new Tag("b:6"), new Tag("b:7"), new Tag("b:8"), new Tag("b:9"), new Tag("b:0"),
-                new Tag("a:10"), new Tag("defaultTag"));
+    public void getTagValues() {
+        List<Tag> list = ImmutableList.of(new Tag("a:1"), new Tag("b:6"), new Tag("defaultTag"));
         when(mockHelper.queryGet("from Tag", null, null, null, Tag.class)).thenReturn(list);
         
-        Map<String, List<String>> retValue = dao.getTags();
-        assertEquals(3, retValue.keySet().size());
-        assertEquals(ImmutableList.of("defaultTag"), retValue.get("default"));
-        assertEquals(ImmutableList.of("1", "2", "3", "4", "5", "10"), retValue.get("a"));
-        assertEquals(ImmutableList.of("6", "7", "8", "9", "0"), retValue.get("b"));
+        List<String> retValue = dao.getTagValues();
+        assertEquals(ImmutableList.of("a:1", "b:6", "defaultTag"), retValue);
     }
     
     @Test
@@ -3,6 +3,7 @@ package org.sagebionetworks.bridge.hibernate;
 import static org.testng.Assert.assertEquals;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import org.joda.time.DateTime;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.TestConstants;
@@ -12,6 +13,8 @@ import org.sagebionetworks.bridge.upload.UploadTableJob;
 public class HibernateUploadTableJobTest {
     private static final String JOB_GUID = "test-job-guid";
     private static final String S3_KEY = "dummy-s3-key";
+    private static final DateTime STARTED_ON = TestConstants.TIMESTAMP.plusMinutes(1);
+    private static final DateTime FINISHED_ON = TestConstants.TIMESTAMP.plusMinutes(2);
 
     @Test
     public void serialize() {
@@ -21,16 +24,20 @@ public class HibernateUploadTableJobTest {
         job.setAppId(TestConstants.TEST_APP_ID);
         job.setStudyId(TestConstants.TEST_STUDY_ID);
         job.setRequestedOn(TestConstants.TIMESTAMP);
+        job.setStartedOn(STARTED_ON);
+        job.setFinishedOn(FINISHED_ON);
         job.setStatus(UploadTableJob.Status.SUCCEEDED);
         job.setS3Key(S3_KEY);
 
         // Convert to JSON.
         JsonNode jsonNode = BridgeObjectMapper.get().convertValue(job, JsonNode.class);
-        assertEquals(jsonNode.size(), 7);
+        assertEquals(jsonNode.size(), 9);
         assertEquals(jsonNode.get("jobGuid").textValue(), JOB_GUID);
         assertEquals(jsonNode.get("appId").textValue(), TestConstants.TEST_APP_ID);
         assertEquals(jsonNode.get("studyId").textValue(), TestConstants.TEST_STUDY_ID);
         assertEquals(jsonNode.get("requestedOn").textValue(), TestConstants.TIMESTAMP.toString());
+        assertEquals(jsonNode.get("startedOn").textValue(), STARTED_ON.toString());
+        assertEquals(jsonNode.get("finishedOn").textValue(), FINISHED_ON.toString());
         assertEquals(jsonNode.get("status").textValue(), "succeeded");
         assertEquals(jsonNode.get("s3Key").textValue(), S3_KEY);
         assertEquals(jsonNode.get("type").textValue(), "UploadTableJob");
@@ -41,6 +48,8 @@ public class HibernateUploadTableJobTest {
         assertEquals(job.getAppId(), TestConstants.TEST_APP_ID);
         assertEquals(job.getStudyId(), TestConstants.TEST_STUDY_ID);
         assertEquals(job.getRequestedOn(), TestConstants.TIMESTAMP);
+        assertEquals(job.getStartedOn(), STARTED_ON);
+        assertEquals(job.getFinishedOn(), FINISHED_ON);
         assertEquals(job.getStatus(), UploadTableJob.Status.SUCCEEDED);
         assertEquals(job.getS3Key(), S3_KEY);
     }
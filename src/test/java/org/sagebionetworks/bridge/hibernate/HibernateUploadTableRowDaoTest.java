@@ -1,20 +1,38 @@
 package org.sagebionetworks.bridge.hibernate;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
+import static org.sagebionetworks.bridge.hibernate.HibernateUploadTableRowDao.BATCH_SIZE_PROPERTY;
+import static org.sagebionetworks.bridge.hibernate.HibernateUploadTableRowDao.UPSERT_ROW;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.hibernate.query.Query;
 import org.joda.time.DateTime;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
@@ -25,6 +43,9 @@ import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.upload.UploadTableRow;
 import org.sagebionetworks.bridge.upload.UploadTableRowQuery;
@@ -37,12 +58,21 @@ public class HibernateUploadTableRowDaoTest {
     @Mock
     private HibernateHelper mockHibernateHelper;
 
+    @Mock
+    private Session mockSession;
+
+    @Mock
+    private BridgeConfig mockConfig;
+
     @InjectMocks
     private HibernateUploadTableRowDao dao;
 
     @BeforeMethod
     public void before() {
         MockitoAnnotations.initMocks(this);
+
+        when(mockConfig.getInt(BATCH_SIZE_PROPERTY)).thenReturn(10);
+        dao.setBridgeConfig(mockConfig);
     }
 
     @Test
@@ -186,4 +216,220 @@ public class HibernateUploadTableRowDaoTest {
         // Verify call to hibernate.
         verify(mockHibernateHelper).saveOrUpdate(row);
     }
+
+    @Test
+    public void queryUploadTableRowsByCursor_FirstPage() {
+        // Set up mock. There is one more row than the page size.
+        List<HibernateUploadTableRow> rowList = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            rowList.add(makeRow("record-" + i, START_TIME.plusMinutes(i)));
+        }
+        when(mockHibernateHelper.queryGet(any(), any(), any(), any(), any())).thenReturn(rowList);
+
+        // Execute.
+        UploadTableRowQuery query = new UploadTableRowQuery();
+        query.setAppId(TestConstants.TEST_APP_ID);
+        query.setStudyId(TestConstants.TEST_STUDY_ID);
+        query.setPageSize(5);
+
+        ForwardCursorPagedResourceList<UploadTableRow> resourceList = dao.queryUploadTableRowsByCursor(query);
+        assertEquals(resourceList.getItems().size(), 5);
+        assertSame(resourceList.getItems().get(4), rowList.get(4));
+        assertEquals(resourceList.getNextPageOffsetKey(), START_TIME.plusMinutes(4).getMillis() + ":record-4");
+        assertEquals(resourceList.getRequestParams().get("pageSize"), 5);
+        assertNull(resourceList.getRequestParams().get("total"));
+
+        // Verify call to hibernate. The total isn't counted.
+        String expectedQuery = "FROM HibernateUploadTableRow WHERE appId = :appId AND studyId = :studyId "
+                + "AND testData = 0 ORDER BY createdOn, recordId";
+        Map<String, Object> paramMap = ImmutableMap.<String, Object>builder()
+                .put("appId", TestConstants.TEST_APP_ID)
+                .put("studyId", TestConstants.TEST_STUDY_ID).build();
+        verify(mockHibernateHelper).queryGet(expectedQuery, paramMap, 0, 6, HibernateUploadTableRow.class);
+        verify(mockHibernateHelper, never()).queryCount(any(), any());
+    }
+
+    @Test
+    public void queryUploadTableRowsByCursor_LastPage() {
+        // Set up mock.
+        HibernateUploadTableRow row = makeRow("record-5", START_TIME.plusMinutes(5));
+        when(mockHibernateHelper.queryGet(any(), any(), any(), any(), any())).thenReturn(ImmutableList.of(row));
+
+        // Execute.
+        String offsetKey = START_TIME.plusMinutes(4).getMillis() + ":record-4";
+        UploadTableRowQuery query = new UploadTableRowQuery();
+        query.setAppId(TestConstants.TEST_APP_ID);
+        query.setStudyId(TestConstants.TEST_STUDY_ID);
+        query.setAssessmentGuid(TestConstants.ASSESSMENT_1_GUID);
+        query.setIncludeTestData(true);
+        query.setOffsetKey(offsetKey);
+
+        ForwardCursorPagedResourceList<UploadTableRow> resourceList = dao.queryUploadTableRowsByCursor(query);
+        assertEquals(resourceList.getItems().size(), 1);
+        assertSame(resourceList.getItems().get(0), row);
+        assertNull(resourceList.getNextPageOffsetKey());
+        assertFalse(resourceList.hasNext());
+        assertEquals(resourceList.getRequestParams().get("offsetKey"), offsetKey);
+
+        // Verify call to hibernate.
+        String expectedQuery = "FROM HibernateUploadTableRow WHERE appId = :appId AND studyId = :studyId "
+                + "AND assessmentGuid = :assessmentGuid AND (createdOn > :offsetCreatedOn OR "
+                + "(createdOn = :offsetCreatedOn AND recordId > :offsetRecordId)) ORDER BY createdOn, recordId";
+        Map<String, Object> paramMap = ImmutableMap.<String, Object>builder()
+                .put("appId", TestConstants.TEST_APP_ID)
+                .put("studyId", TestConstants.TEST_STUDY_ID)
+                .put("assessmentGuid", TestConstants.ASSESSMENT_1_GUID)
+                .put("offsetCreatedOn", new DateTime(START_TIME.plusMinutes(4).getMillis()))
+                .put("offsetRecordId", "record-4").build();
+        verify(mockHibernateHelper).queryGet(expectedQuery, paramMap, 0, BridgeConstants.API_DEFAULT_PAGE_SIZE + 1,
+                HibernateUploadTableRow.class);
+    }
+
+    @Test
+    public void queryUploadTableRowsByCursor_IncludeTotal() {
+        when(mockHibernateHelper.queryCount(any(), any())).thenReturn(1);
+        when(mockHibernateHelper.queryGet(any(), any(), any(), any(), any())).thenReturn(ImmutableList.of(
+                makeRow(RECORD_ID, START_TIME)));
+
+        UploadTableRowQuery query = new UploadTableRowQuery();
+        query.setAppId(TestConstants.TEST_APP_ID);
+        query.setStudyId(TestConstants.TEST_STUDY_ID);
+        query.setIncludeTotal(true);
+
+        ForwardCursorPagedResourceList<UploadTableRow> resourceList = dao.queryUploadTableRowsByCursor(query);
+        assertEquals(resourceList.getRequestParams().get("total"), 1);
+
+        verify(mockHibernateHelper).queryCount(eq("SELECT COUNT(DISTINCT recordId) FROM HibernateUploadTableRow "
+                + "WHERE appId = :appId AND studyId = :studyId AND testData = 0"), any());
+    }
+
+    @Test(expectedExceptions = BadRequestException.class)
+    public void queryUploadTableRowsByCursor_InvalidOffsetKey() {
+        UploadTableRowQuery query = new UploadTableRowQuery();
+        query.setAppId(TestConstants.TEST_APP_ID);
+        query.setStudyId(TestConstants.TEST_STUDY_ID);
+        query.setOffsetKey("not-an-offset-key");
+
+        dao.queryUploadTableRowsByCursor(query);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void streamUploadTableRows() {
+        when(mockHibernateHelper.executeWithExceptionHandling(any(), any())).thenAnswer(args -> {
+            Function<Session, Object> func = args.getArgument(1);
+            return func.apply(mockSession);
+        });
+
+        HibernateUploadTableRow row1 = makeRow("record-1", START_TIME);
+        HibernateUploadTableRow row2 = makeRow("record-2", END_TIME);
+        ScrollableResults mockResults = mock(ScrollableResults.class);
+        when(mockResults.next()).thenReturn(true, true, false);
+        when(mockResults.get(0)).thenReturn(row1, row2);
+
+        Query<HibernateUploadTableRow> mockQuery = mock(Query.class);
+        when(mockQuery.scroll(ScrollMode.FORWARD_ONLY)).thenReturn(mockResults);
+        when(mockSession.createQuery(any(String.class), eq(HibernateUploadTableRow.class))).thenReturn(mockQuery);
+
+        UploadTableRowQuery query = new UploadTableRowQuery();
+        query.setAppId(TestConstants.TEST_APP_ID);
+        query.setStudyId(TestConstants.TEST_STUDY_ID);
+        query.setIncludeTestData(true);
+
+        // Execute.
+        List<UploadTableRow> consumedRows = new ArrayList<>();
+        dao.streamUploadTableRows(query, consumedRows::add);
+        assertEquals(consumedRows, ImmutableList.of(row1, row2));
+
+        // Verify query.
+        verify(mockSession).createQuery("FROM HibernateUploadTableRow WHERE appId = :appId AND studyId = :studyId " +
+                "ORDER BY assessmentGuid, createdOn, recordId", HibernateUploadTableRow.class);
+        verify(mockQuery).setParameter("appId", TestConstants.TEST_APP_ID);
+        verify(mockQuery).setParameter("studyId", TestConstants.TEST_STUDY_ID);
+        verify(mockQuery).setFetchSize(Integer.MIN_VALUE);
+        verify(mockQuery).setReadOnly(true);
+
+        // Rows don't stay in the session, and the cursor is closed.
+        verify(mockSession).evict(row1);
+        verify(mockSession).evict(row2);
+        verify(mockResults).close();
+    }
+
+    @Test
+    public void saveUploadTableRows() {
+        when(mockHibernateHelper.executeWithExceptionHandling(any(), any())).thenAnswer(args -> {
+            Function<Session, Object> func = args.getArgument(1);
+            return func.apply(mockSession);
+        });
+
+        dao.saveUploadTableRows(ImmutableList.of(makeRow(RECORD_ID, START_TIME)));
+
+        verify(mockSession).doWork(any());
+        verify(mockHibernateHelper, never()).saveOrUpdate(any());
+    }
+
+    @Test
+    public void saveUploadTableRows_EmptyList() {
+        dao.saveUploadTableRows(ImmutableList.of());
+
+        verifyZeroInteractions(mockHibernateHelper);
+    }
+
+    @Test
+    public void persistRowsInBatches() throws Exception {
+        List<UploadTableRow> rowList = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            rowList.add(makeRow("record-" + i, START_TIME.plusMinutes(i)));
+        }
+        Work work = dao.persistRowsInBatches(rowList);
+
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(UPSERT_ROW)).thenReturn(mockStatement);
+
+        work.execute(mockConnection);
+
+        // 25 rows at a batch size of 10 executes 3 batches.
+        verify(mockConnection).setAutoCommit(false);
+        verify(mockStatement, times(25)).addBatch();
+        verify(mockStatement, times(3)).executeBatch();
+        verify(mockStatement).close();
+    }
+
+    @Test
+    public void updateRowStatement() throws Exception {
+        HibernateUploadTableRow row = makeRow(RECORD_ID, START_TIME);
+        row.setParticipantVersion(null);
+        PreparedStatement mockStatement = mock(PreparedStatement.class);
+
+        dao.updateRowStatement(mockStatement, row);
+
+        verify(mockStatement).setString(1, TestConstants.TEST_APP_ID);
+        verify(mockStatement).setString(2, TestConstants.TEST_STUDY_ID);
+        verify(mockStatement).setString(3, RECORD_ID);
+        verify(mockStatement).setString(4, TestConstants.ASSESSMENT_1_GUID);
+        verify(mockStatement).setLong(5, START_TIME.getMillis());
+        verify(mockStatement).setBoolean(6, true);
+        verify(mockStatement).setString(7, TestConstants.HEALTH_CODE);
+        verify(mockStatement).setNull(8, Types.INTEGER);
+        verify(mockStatement, never()).setInt(anyInt(), anyInt());
+        verify(mockStatement).setString(9, "{\"meta-key\":\"meta-value\"}");
+        verify(mockStatement).setString(10, "{\"data-key\":\"data-value\"}");
+        verify(mockStatement).addBatch();
+    }
+
+    private static HibernateUploadTableRow makeRow(String recordId, DateTime createdOn) {
+        HibernateUploadTableRow row = new HibernateUploadTableRow();
+        row.setAppId(TestConstants.TEST_APP_ID);
+        row.setStudyId(TestConstants.TEST_STUDY_ID);
+        row.setRecordId(recordId);
+        row.setAssessmentGuid(TestConstants.ASSESSMENT_1_GUID);
+        row.setCreatedOn(createdOn);
+        row.setTestData(true);
+        row.setHealthCode(TestConstants.HEALTH_CODE);
+        row.setParticipantVersion(1);
+        row.setMetadata(ImmutableMap.of("meta-key", "meta-value"));
+        row.setData(ImmutableMap.of("data-key", "data-value"));
+        return row;
+    }
 }
@@ -274,6 +274,19 @@ public class QueryBuilderTest {
         assertEquals(builder.getQuery(), "");
     }
 
+    @Test
+    public void whereClause_appendTwoValues() {
+        QueryBuilder builder = new QueryBuilder();
+        WhereClauseBuilder where = builder.startWhere(AND);
+        where.append("one = :one AND two = :two", "one", "valueForOne", "two", "valueForTwo");
+        where.append("three = :three AND four = :four", "three", "valueForThree", "four", null);
+        
+        assertEquals(builder.getQuery(), "WHERE one = :one AND two = :two");
+        assertEquals(builder.getParameters().get("one"), "valueForOne");
+        assertEquals(builder.getParameters().get("two"), "valueForTwo");
+        assertEquals(builder.getParameters().size(), 2);
+    }
+
     @Test
     public void whereClause_likeWithPrefix() {
         QueryBuilder builder = new QueryBuilder();
@@ -335,8 +348,63 @@ public class QueryBuilderTest {
         QueryBuilder builder = new QueryBuilder();
         WhereClauseBuilder where = builder.startWhere(AND);
         where.phone(INFIX, "(971) 248-6796");
-        assertEquals(builder.getQuery(), "WHERE acct.phone.number LIKE :number");
+        assertEquals(builder.getQuery(), "WHERE (acct.id IN (SELECT t.accountId FROM HibernateAccountSearchTerm "
+                +"AS t WHERE t.appId = :appId AND t.term IN (:numberTerms) GROUP BY t.accountId HAVING "
+                +"COUNT(DISTINCT t.term) = :numberTermCount) AND acct.phone.number LIKE :number)");
         assertEquals(builder.getParameters().get("number"), "%9712486796%");
+        assertEquals(builder.getParameters().get("numberTerms"), ImmutableSet.of("p971", "p712", "p124",
+                "p248", "p486", "p867", "p679", "p796"));
+        assertEquals(builder.getParameters().get("numberTermCount"), 8L);
+    }
+    
+    @Test
+    public void whereClause_accountSearchTermLikeWithPostfix() {
+        QueryBuilder builder = new QueryBuilder();
+        WhereClauseBuilder where = builder.startWhere(AND);
+        where.accountSearchTermLike(POSTFIX, "acct.email LIKE :email", "email", "Test", "e");
+        assertEquals(builder.getQuery(), "WHERE (acct.id IN (SELECT t.accountId FROM HibernateAccountSearchTerm "
+                +"AS t WHERE t.appId = :appId AND t.term IN (:emailTerms) GROUP BY t.accountId HAVING "
+                +"COUNT(DISTINCT t.term) = :emailTermCount) AND acct.email LIKE :email)");
+        assertEquals(builder.getParameters().get("email"), "%Test");
+        assertEquals(builder.getParameters().get("emailTerms"), ImmutableSet.of("etes", "eest"));
+        assertEquals(builder.getParameters().get("emailTermCount"), 2L);
+    }
+    
+    @Test
+    public void whereClause_accountSearchTermLikeWithPrefix() {
+        QueryBuilder builder = new QueryBuilder();
+        WhereClauseBuilder where = builder.startWhere(AND);
+        where.accountSearchTermLike(PREFIX, "acct.email LIKE :email", "email", "test", "e");
+        assertEquals(builder.getQuery(), "WHERE acct.email LIKE :email");
+        assertEquals(builder.getParameters().get("email"), "test%");
+        assertEquals(builder.getParameters().size(), 1);
+    }
+    
+    @Test
+    public void whereClause_accountSearchTermLikeWithShortValue() {
+        QueryBuilder builder = new QueryBuilder();
+        WhereClauseBuilder where = builder.startWhere(AND);
+        where.accountSearchTermLike(INFIX, "acct.email LIKE :email", "email", "te", "e");
+        assertEquals(builder.getQuery(), "WHERE acct.email LIKE :email");
+        assertEquals(builder.getParameters().get("email"), "%te%");
+        assertEquals(builder.getParameters().size(), 1);
+    }
+    
+    @Test
+    public void whereClause_accountSearchTermLikeWithWildcard() {
+        QueryBuilder builder = new QueryBuilder();
+        WhereClauseBuilder where = builder.startWhere(AND);
+        where.accountSearchTermLike(INFIX, "acct.email LIKE :email", "email", "te_t", "e");
+        assertEquals(builder.getQuery(), "WHERE acct.email LIKE :email");
+        assertEquals(builder.getParameters().size(), 1);
+    }
+    
+    @Test
+    public void whereClause_accountSearchTermLikeWithNullValue() {
+        QueryBuilder builder = new QueryBuilder();
+        WhereClauseBuilder where = builder.startWhere(AND);
+        where.accountSearchTermLike(INFIX, "acct.email LIKE :email", "email", null, "e");
+        assertEquals(builder.getQuery(), "");
     }
     
     @Test
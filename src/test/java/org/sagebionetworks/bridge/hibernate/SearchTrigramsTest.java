@@ -0,0 +1,50 @@
+package org.sagebionetworks.bridge.hibernate;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class SearchTrigramsTest {
+
+    @Test
+    public void of() {
+        assertEquals(SearchTrigrams.of("Smith", null, "ab", "+1206"),
+                ImmutableSet.of("smi", "mit", "ith", "+12", "120", "206"));
+    }
+    
+    @Test
+    public void ofNormalizesCaseAndDiacritics() {
+        assertEquals(SearchTrigrams.of("JOSÉ"), ImmutableSet.of("jos", "ose"));
+        assertEquals(SearchTrigrams.of("José"), SearchTrigrams.of("jose"));
+    }
+    
+    @Test
+    public void ofDoesNotCombineValues() {
+        // "ab" + "cd" should not produce "abc" or "bcd"
+        assertTrue(SearchTrigrams.of("ab", "cd").isEmpty());
+    }
+    
+    @Test
+    public void forSearch() {
+        assertEquals(SearchTrigrams.forSearch("anId"), ImmutableSet.of("ani", "nid"));
+    }
+    
+    @Test
+    public void forSearchTooShort() {
+        assertTrue(SearchTrigrams.forSearch("an").isEmpty());
+    }
+    
+    @Test
+    public void forSearchNull() {
+        assertTrue(SearchTrigrams.forSearch(null).isEmpty());
+    }
+    
+    @Test
+    public void forSearchWithWildcards() {
+        assertTrue(SearchTrigrams.forSearch("smi_h").isEmpty());
+        assertTrue(SearchTrigrams.forSearch("smi%h").isEmpty());
+    }
+}
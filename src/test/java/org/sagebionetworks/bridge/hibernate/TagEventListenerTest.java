@@ -1,11 +1,18 @@
 package org.sagebionetworks.bridge.hibernate;
 
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import org.hibernate.HibernateException;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.spi.ActionQueue;
 import org.hibernate.event.spi.DeleteEvent;
+import org.hibernate.event.spi.EventSource;
 import org.hibernate.event.spi.MergeEvent;
 import org.hibernate.event.spi.PersistEvent;
 import org.hibernate.event.spi.SaveOrUpdateEvent;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -22,113 +29,241 @@ public class TagEventListenerTest extends Mockito {
     @Mock
     CacheProvider cacheProvider;
     
-    @InjectMocks
+    @Mock
+    EventSource mockSession;
+    
+    @Mock
+    ActionQueue mockActionQueue;
+    
     TagEventListener listener;
     
+    List<AfterTransactionCompletionProcess> processes;
+    
     @BeforeMethod
     public void beforeMethod() {
         MockitoAnnotations.initMocks(this);
+        
+        // A new listener for each test, so its counters start at zero.
+        listener = new TagEventListener();
+        listener.setCacheProvider(cacheProvider);
+        when(cacheProvider.addSetMembers(CacheKey.tagValues(), "value")).thenReturn(1L);
+        
+        processes = new ArrayList<>();
+        when(mockSession.getActionQueue()).thenReturn(mockActionQueue);
+        doAnswer(invocation -> processes.add(invocation.getArgument(0))).when(mockActionQueue)
+                .registerProcess(any(AfterTransactionCompletionProcess.class));
+    }
+    
+    // Completes the transaction, which runs the processes registered since the last completion.
+    private void commit(boolean success) {
+        for (AfterTransactionCompletionProcess process : processes) {
+            process.doAfterTransactionCompletion(success, null);
+        }
+        processes.clear();
     }
     
     @Test
     public void onDelete() throws HibernateException {
-        DeleteEvent event = new DeleteEvent(new Tag("value"), null);
+        DeleteEvent event = new DeleteEvent(new Tag("value"), mockSession);
         listener.onDelete(event);
+        commit(true);
+        verify(cacheProvider).removeObject(CacheKey.tagValues());
         verify(cacheProvider).removeObject(CacheKey.tagList());
+        assertEquals(listener.getInvalidationCount(), 1);
     }
 
     @Test
     public void onDeleteNotTag() throws HibernateException {
-        DeleteEvent event = new DeleteEvent(new HibernateAssessment(), null);
+        DeleteEvent event = new DeleteEvent(new HibernateAssessment(), mockSession);
         listener.onDelete(event);
+        commit(true);
         verify(cacheProvider, never()).removeObject(CacheKey.tagList());
     }
     
     @Test
     public void onDeleteWithTransientEntities() throws HibernateException {
-        DeleteEvent event = new DeleteEvent(new Tag("value"), null);
+        DeleteEvent event = new DeleteEvent(new Tag("value"), mockSession);
         listener.onDelete(event, null);
+        commit(true);
+        verify(cacheProvider).removeObject(CacheKey.tagValues());
         verify(cacheProvider).removeObject(CacheKey.tagList());
+        assertEquals(listener.getInvalidationCount(), 1);
     }
 
     @Test
     public void onDeleteWithTransientEntitiesNotTag() throws HibernateException {
-        DeleteEvent event = new DeleteEvent(new HibernateAssessment(), null);
+        DeleteEvent event = new DeleteEvent(new HibernateAssessment(), mockSession);
         listener.onDelete(event, null);
+        commit(true);
         verify(cacheProvider, never()).removeObject(CacheKey.tagList());
     }
     
     @Test
     public void onSaveOrUpdate() throws HibernateException {
-        SaveOrUpdateEvent event = new SaveOrUpdateEvent(new Tag("value"), null);
+        SaveOrUpdateEvent event = new SaveOrUpdateEvent(new Tag("value"), mockSession);
         listener.onSaveOrUpdate(event);
+        commit(true);
+        verify(cacheProvider).addSetMembers(CacheKey.tagValues(), "value");
         verify(cacheProvider).removeObject(CacheKey.tagList());
+        assertEquals(listener.getAddedCount(), 1);
+        assertEquals(listener.getInvalidationCount(), 1);
     }
 
     @Test
     public void onSaveOrUpdateNotTag() throws HibernateException {
-        SaveOrUpdateEvent event = new SaveOrUpdateEvent(new HibernateAssessment(), null);
+        SaveOrUpdateEvent event = new SaveOrUpdateEvent(new HibernateAssessment(), mockSession);
         listener.onSaveOrUpdate(event);
-        verify(cacheProvider, never()).removeObject(CacheKey.tagList());
+        commit(true);
+        verifyZeroInteractions(cacheProvider);
+        assertEquals(listener.getAddedCount(), 0);
     }
     
     @Test
     public void onPersist() throws HibernateException {
-        PersistEvent event = new PersistEvent(new Tag("value"), null);
+        PersistEvent event = new PersistEvent(new Tag("value"), mockSession);
         listener.onPersist(event);
+        commit(true);
+        verify(cacheProvider).addSetMembers(CacheKey.tagValues(), "value");
         verify(cacheProvider).removeObject(CacheKey.tagList());
+        assertEquals(listener.getAddedCount(), 1);
+        assertEquals(listener.getInvalidationCount(), 1);
     }
     
     @Test
     public void onPersistNotTag() throws HibernateException {
-        PersistEvent event = new PersistEvent(new HibernateAssessment(), null);
+        PersistEvent event = new PersistEvent(new HibernateAssessment(), mockSession);
         listener.onPersist(event);
-        verify(cacheProvider, never()).removeObject(CacheKey.tagList());
+        commit(true);
+        verifyZeroInteractions(cacheProvider);
+        assertEquals(listener.getAddedCount(), 0);
     }
     
     @Test
     public void onPersistWithCreatedMap() throws HibernateException {
-        PersistEvent event = new PersistEvent(new Tag("value"), null);
+        PersistEvent event = new PersistEvent(new Tag("value"), mockSession);
         listener.onPersist(event, null);
+        commit(true);
+        verify(cacheProvider).addSetMembers(CacheKey.tagValues(), "value");
         verify(cacheProvider).removeObject(CacheKey.tagList());
+        assertEquals(listener.getAddedCount(), 1);
+        assertEquals(listener.getInvalidationCount(), 1);
     }
 
     @Test
     public void onPersistWithCreatedMapNotTag() throws HibernateException {
-        PersistEvent event = new PersistEvent(new HibernateAssessment(), null);
+        PersistEvent event = new PersistEvent(new HibernateAssessment(), mockSession);
         listener.onPersist(event, null);
-        verify(cacheProvider, never()).removeObject(CacheKey.tagList());
+        commit(true);
+        verifyZeroInteractions(cacheProvider);
+        assertEquals(listener.getAddedCount(), 0);
     }
     
     @Test
     public void onMerge() throws HibernateException {
-        MergeEvent event = new MergeEvent(new Tag("value"), null);
+        MergeEvent event = new MergeEvent(new Tag("value"), mockSession);
         event.setEntity(new Tag("value"));
         listener.onMerge(event);
+        commit(true);
+        verify(cacheProvider).addSetMembers(CacheKey.tagValues(), "value");
         verify(cacheProvider).removeObject(CacheKey.tagList());
+        assertEquals(listener.getAddedCount(), 1);
+        assertEquals(listener.getInvalidationCount(), 1);
     }
 
     @Test
     public void onMergeNotTag() throws HibernateException {
-        MergeEvent event = new MergeEvent(new HibernateAssessment(), null);
+        MergeEvent event = new MergeEvent(new HibernateAssessment(), mockSession);
         event.setEntity(new HibernateAssessment());
         listener.onMerge(event);
-        verify(cacheProvider, never()).removeObject(CacheKey.tagList());
+        commit(true);
+        verifyZeroInteractions(cacheProvider);
+        assertEquals(listener.getAddedCount(), 0);
     }
     
     @Test
     public void onMergeWithCopiedAlready() throws HibernateException {
-        MergeEvent event = new MergeEvent(new Tag("value"), null);
+        MergeEvent event = new MergeEvent(new Tag("value"), mockSession);
         event.setEntity(new Tag("value"));
         listener.onMerge(event, null);
+        commit(true);
+        verify(cacheProvider).addSetMembers(CacheKey.tagValues(), "value");
         verify(cacheProvider).removeObject(CacheKey.tagList());
+        assertEquals(listener.getAddedCount(), 1);
+        assertEquals(listener.getInvalidationCount(), 1);
     }
     
     @Test
     public void onMergeWithCopiedAlreadyNotTag() throws HibernateException {
-        MergeEvent event = new MergeEvent(new HibernateAssessment(), null);
+        MergeEvent event = new MergeEvent(new HibernateAssessment(), mockSession);
         event.setEntity(new HibernateAssessment());
         listener.onMerge(event, null);
-        verify(cacheProvider, never()).removeObject(CacheKey.tagList());
+        commit(true);
+        verifyZeroInteractions(cacheProvider);
+        assertEquals(listener.getAddedCount(), 0);
+    }
+    
+    @Test
+    public void savedTagAlreadyCached() throws HibernateException {
+        when(cacheProvider.addSetMembers(CacheKey.tagValues(), "value")).thenReturn(0L);
+        
+        MergeEvent event = new MergeEvent(new Tag("value"), mockSession);
+        event.setEntity(new Tag("value"));
+        listener.onMerge(event, null);
+        commit(true);
+        listener.onSaveOrUpdate(new SaveOrUpdateEvent(new Tag("value"), mockSession));
+        commit(true);
+        
+        verify(cacheProvider, times(2)).addSetMembers(CacheKey.tagValues(), "value");
+        verify(cacheProvider, never()).removeObject(any());
+        assertEquals(listener.getAddedCount(), 0);
+        assertEquals(listener.getUnchangedCount(), 2);
+        assertEquals(listener.getInvalidationCount(), 0);
+    }
+    
+    @Test
+    public void noCacheProvider() throws HibernateException {
+        listener.setCacheProvider(null);
+        
+        listener.onSaveOrUpdate(new SaveOrUpdateEvent(new Tag("value"), mockSession));
+        commit(true);
+        listener.onDelete(new DeleteEvent(new Tag("value"), mockSession));
+        commit(true);
+        
+        assertEquals(listener.getAddedCount(), 0);
+        assertEquals(listener.getInvalidationCount(), 0);
+    }
+    
+    @Test
+    public void cacheUpdatedOnlyAfterCommit() throws HibernateException {
+        listener.onSaveOrUpdate(new SaveOrUpdateEvent(new Tag("value"), mockSession));
+        listener.onDelete(new DeleteEvent(new Tag("value"), mockSession));
+        verifyZeroInteractions(cacheProvider);
+        
+        commit(true);
+        verify(cacheProvider).addSetMembers(CacheKey.tagValues(), "value");
+        verify(cacheProvider).removeObject(CacheKey.tagValues());
+        verify(cacheProvider, times(2)).removeObject(CacheKey.tagList());
+    }
+    
+    @Test
+    public void rolledBackWriteNotCached() throws HibernateException {
+        listener.onSaveOrUpdate(new SaveOrUpdateEvent(new Tag("value"), mockSession));
+        listener.onDelete(new DeleteEvent(new Tag("value"), mockSession));
+        commit(false);
+        
+        verifyZeroInteractions(cacheProvider);
+        assertEquals(listener.getAddedCount(), 0);
+        assertEquals(listener.getInvalidationCount(), 0);
+    }
+    
+    @Test
+    public void cacheFailureAfterCommitIsLogged() throws HibernateException {
+        when(cacheProvider.addSetMembers(CacheKey.tagValues(), "value")).thenThrow(new RuntimeException());
+        
+        listener.onSaveOrUpdate(new SaveOrUpdateEvent(new Tag("value"), mockSession));
+        // Does not throw, because the write has already been committed.
+        commit(true);
+        
+        assertEquals(listener.getAddedCount(), 0);
     }
 }
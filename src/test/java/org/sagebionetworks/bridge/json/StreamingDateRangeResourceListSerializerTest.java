@@ -0,0 +1,63 @@
+package org.sagebionetworks.bridge.json;
+
+import static org.sagebionetworks.bridge.models.ResourceList.END_DATE;
+import static org.sagebionetworks.bridge.models.ResourceList.START_DATE;
+import static org.testng.Assert.assertEquals;
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import org.joda.time.LocalDate;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.models.DateRangeResourceList;
+import org.sagebionetworks.bridge.models.StreamingDateRangeResourceList;
+import org.sagebionetworks.bridge.models.reports.ReportData;
+
+public class StreamingDateRangeResourceListSerializerTest {
+    private static final LocalDate START = LocalDate.parse("2015-01-02");
+    private static final LocalDate END = LocalDate.parse("2015-02-02");
+
+    @Test
+    public void sameJsonAsDateRangeResourceList() throws Exception {
+        List<ReportData> list = ImmutableList.of(createReport("2015-01-10", "First"),
+                createReport("2015-01-12", "Last"));
+        
+        assertSameJson(list);
+        
+        JsonNode node = BridgeObjectMapper.get().valueToTree(new StreamingDateRangeResourceList<ReportData>(list)
+                .withRequestParam(START_DATE, START).withRequestParam(END_DATE, END));
+        assertEquals(node.get("items").size(), 2);
+        assertEquals(node.get("items").get(0).get("type").textValue(), "ReportData");
+        assertEquals(node.get("requestParams").get("startDate").textValue(), "2015-01-02");
+        assertEquals(node.get("requestParams").get("type").textValue(), "RequestParams");
+        assertEquals(node.get("total").intValue(), 2);
+        assertEquals(node.get("type").textValue(), "DateRangeResourceList");
+    }
+    
+    @Test
+    public void sameJsonAsDateRangeResourceListWhenEmpty() throws Exception {
+        assertSameJson(ImmutableList.of());
+    }
+    
+    private void assertSameJson(List<ReportData> list) throws Exception {
+        String expected = BridgeObjectMapper.get().writeValueAsString(new DateRangeResourceList<ReportData>(list)
+                .withRequestParam(START_DATE, START).withRequestParam(END_DATE, END));
+        String actual = BridgeObjectMapper.get().writeValueAsString(new StreamingDateRangeResourceList<ReportData>(list)
+                .withRequestParam(START_DATE, START).withRequestParam(END_DATE, END));
+        
+        // Property order can differ, but the content is the same.
+        assertEquals(BridgeObjectMapper.get().readTree(actual), BridgeObjectMapper.get().readTree(expected));
+    }
+    
+    private ReportData createReport(String date, String value) {
+        ObjectNode data = BridgeObjectMapper.get().createObjectNode();
+        data.put("field1", value);
+        ReportData report = ReportData.create();
+        report.setLocalDate(LocalDate.parse(date));
+        report.setData(data);
+        return report;
+    }
+}
@@ -2,11 +2,15 @@ package org.sagebionetworks.bridge.models;
 
 import static org.sagebionetworks.bridge.BridgeUtils.getElement;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
 import org.testng.annotations.Test;
@@ -56,5 +60,23 @@ public class TagUtilsTest {
         Set<Tag> tags = ImmutableSet.of(new Tag("A"), new Tag("B"), new Tag("C"));
         Set<String> retValue = TagUtils.toStringSet(tags);
         assertEquals(retValue, ImmutableSet.of("A", "B", "C"));
-    }    
+    }
+    
+    @Test
+    public void toCategoryMap() {
+        List<String> values = ImmutableList.of("a:1", "a:2", "a:3", "a:4", "a:5", "b:6", "b:7", "b:8", "b:9", "b:0",
+                "a:10", "defaultTag", "c:with:colon");
+        
+        Map<String, List<String>> retValue = TagUtils.toCategoryMap(values);
+        assertEquals(retValue.keySet().size(), 4);
+        assertEquals(retValue.get("default"), ImmutableList.of("defaultTag"));
+        assertEquals(retValue.get("a"), ImmutableList.of("1", "2", "3", "4", "5", "10"));
+        assertEquals(retValue.get("b"), ImmutableList.of("6", "7", "8", "9", "0"));
+        assertEquals(retValue.get("c"), ImmutableList.of("with:colon"));
+    }
+    
+    @Test
+    public void toCategoryMapEmpty() {
+        assertTrue(TagUtils.toCategoryMap(ImmutableList.of()).isEmpty());
+    }
 }
@@ -37,6 +37,8 @@ import static org.testng.Assert.fail;
 
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 import com.google.common.collect.ImmutableList;
@@ -159,6 +161,12 @@ public class AccountServiceTest extends Mockito {
 
     @Mock
     AlertService mockAlertService;
+    
+    @Mock
+    ExecutorService mockAccountDeletionExecutorService;
+
+    @Mock
+    OutboundMessageQueue mockOutboundMessageQueue;
 
     @InjectMocks
     @Spy
@@ -191,6 +199,12 @@ public class AccountServiceTest extends Mockito {
         MockitoAnnotations.initMocks(this);
         RequestContext.set(new RequestContext.Builder()
                 .withCallerRoles(ImmutableSet.of(RESEARCHER)).build());
+
+        // Run account deletion steps on the calling thread.
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(mockAccountDeletionExecutorService).execute(any());
     }
     
     @AfterMethod
@@ -486,6 +500,19 @@ public class AccountServiceTest extends Mockito {
         verify(mockAccountDao).getAccount(ACCOUNT_ID);
     }
 
+    @Test
+    public void getAccountNoFilter() throws Exception {
+        Account account = mockGetAccountById(ACCOUNT_ID, false);
+        
+        // The caller is another participant, who cannot see the account.
+        RequestContext.set(new RequestContext.Builder().withCallerAppId(TEST_APP_ID)
+                .withCallerUserId("other-user").build());
+        assertFalse(service.getAccount(ACCOUNT_ID).isPresent());
+        
+        Optional<Account> returnVal = service.getAccountNoFilter(ACCOUNT_ID);
+        assertEquals(returnVal.get(), account);
+    }
+
     @Test
     public void getPagedAccountSummaries() {
         when(mockAccountDao.getPagedAccountSummaries(TEST_APP_ID, EMPTY_SEARCH)).thenReturn(mockAccountSummaries);
@@ -879,8 +906,8 @@ public class AccountServiceTest extends Mockito {
     @SuppressWarnings("unchecked")
     @Test
     public void deleteAllPreviewAccounts() {
-        AccountSummary summary1 = new AccountSummary.Builder().withId("user1").build();
-        AccountSummary summary2 = new AccountSummary.Builder().withId("user2").build();
+        AccountSummary summary1 = new AccountSummary.Builder().withId("user1").withEmail(EMAIL).build();
+        AccountSummary summary2 = new AccountSummary.Builder().withId("user2").withPhone(PHONE).build();
         AccountSummary summary3 = new AccountSummary.Builder().withId("user3").build();
         AccountSummary summary4 = new AccountSummary.Builder().withId("user4").build();
         AccountSummary summary5 = new AccountSummary.Builder().withId("user5").build();
@@ -910,6 +937,10 @@ public class AccountServiceTest extends Mockito {
         verify(mockAccountDao).deleteAccount("user4");
         verify(mockAccountDao).deleteAccount("user5");
         verify(mockAccountDao).deleteAccount("user6");
+
+        verify(mockOutboundMessageQueue).discardMessages(TEST_APP_ID, ImmutableSet.of(EMAIL));
+        verify(mockOutboundMessageQueue).discardMessages(TEST_APP_ID, ImmutableSet.of(PHONE.getNumber()));
+        verify(mockOutboundMessageQueue, times(4)).discardMessages(TEST_APP_ID, ImmutableSet.of());
     }
     
     @Test
@@ -991,6 +1022,8 @@ public class AccountServiceTest extends Mockito {
         account.setAppId(TEST_APP_ID);
         account.setId(TEST_USER_ID);
         account.setHealthCode(HEALTH_CODE);
+        account.setEmail(EMAIL);
+        account.setPhone(PHONE);
         AccountId accountId = AccountId.forId(TEST_APP_ID,  TEST_USER_ID);
 
         Enrollment en1 = Enrollment.create(TEST_APP_ID, "studyA", TEST_USER_ID, "subAextId");
@@ -1015,6 +1048,7 @@ public class AccountServiceTest extends Mockito {
         // Verify a lot of stuff is deleted or removed
         verify(mockCacheProvider).removeSessionByUserId(TEST_USER_ID);
         verify(mockRequestInfoService).removeRequestInfo(TEST_USER_ID);
+        verify(mockParticipantVersionService).discardPendingParticipantVersions(TEST_APP_ID, HEALTH_CODE);
         verify(mockHealthDataService).deleteRecordsForHealthCode(HEALTH_CODE);
         verify(mockHealthDataEx3Service).deleteRecordsForHealthCode(HEALTH_CODE);
         verify(mockNotificationsService).deleteAllRegistrations(TEST_APP_ID, HEALTH_CODE);
@@ -1023,6 +1057,7 @@ public class AccountServiceTest extends Mockito {
         verify(mockUploadService).deleteUploadsForHealthCode(HEALTH_CODE);
         verify(mockScheduledActivityService).deleteActivitiesForUser(HEALTH_CODE);
         verify(mockActivityEventService, atLeastOnce()).deleteActivityEvents(TEST_APP_ID, HEALTH_CODE);
+        verify(mockOutboundMessageQueue).discardMessages(TEST_APP_ID, ImmutableSet.of(EMAIL, PHONE.getNumber()));
         verify(mockAccountDao).deleteAccount(TEST_USER_ID);
         verify(mockCacheProvider).removeObject(CacheKey.etag(DateTimeZone.class, TEST_USER_ID));
         verify(mockCacheProvider).removeObject(CacheKey.etag(StudyActivityEvent.class, TEST_USER_ID));
@@ -1032,6 +1067,71 @@ public class AccountServiceTest extends Mockito {
         verify(mockReportService).deleteParticipantReport(TEST_APP_ID, TEST_USER_ID, REPORT_ID_2, HEALTH_CODE);
     }
     
+    @Test
+    public void deleteAccount_stepFails() {
+        Account account = Account.create();
+        account.setAppId(TEST_APP_ID);
+        account.setId(TEST_USER_ID);
+        account.setHealthCode(HEALTH_CODE);
+        AccountId accountId = AccountId.forId(TEST_APP_ID,  TEST_USER_ID);
+        when(mockAccountDao.getAccount(accountId)).thenReturn(Optional.of(account));
+        doReturn(new ReportTypeResourceList<>(ImmutableList.of())).when(mockReportService)
+                .getReportIndices(TEST_APP_ID, ReportType.PARTICIPANT);
+
+        IllegalStateException ex = new IllegalStateException("test");
+        doThrow(ex).when(mockUploadService).deleteUploadsForHealthCode(HEALTH_CODE);
+
+        try {
+            service.deleteAccount(accountId);
+            fail("Should have thrown exception");
+        } catch (IllegalStateException e) {
+            assertSame(e, ex);
+        }
+
+        // The other steps still run, but the account is kept so the deletion can be retried.
+        verify(mockHealthDataService).deleteRecordsForHealthCode(HEALTH_CODE);
+        verify(mockScheduledActivityService).deleteActivitiesForUser(HEALTH_CODE);
+        verify(mockActivityEventService).deleteActivityEvents(TEST_APP_ID, HEALTH_CODE);
+        verify(mockReportService).getReportIndices(TEST_APP_ID, ReportType.PARTICIPANT);
+        verify(mockAccountDao, never()).deleteAccount(any());
+    }
+
+    @Test
+    public void deleteAccount_stepsRunWithCallerContext() {
+        Account account = Account.create();
+        account.setAppId(TEST_APP_ID);
+        account.setId(TEST_USER_ID);
+        account.setHealthCode(HEALTH_CODE);
+        AccountId accountId = AccountId.forId(TEST_APP_ID,  TEST_USER_ID);
+        when(mockAccountDao.getAccount(accountId)).thenReturn(Optional.of(account));
+        doReturn(new ReportTypeResourceList<>(ImmutableList.of())).when(mockReportService)
+                .getReportIndices(TEST_APP_ID, ReportType.PARTICIPANT);
+
+        RequestContext context = RequestContext.get();
+        RequestContext[] stepContext = new RequestContext[1];
+        doAnswer(invocation -> {
+            stepContext[0] = RequestContext.get();
+            return null;
+        }).when(mockParticipantFileService).deleteAllFilesForParticipant(TEST_USER_ID);
+
+        // Run the steps on another thread, as the deletion executor does.
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            doAnswer(invocation -> {
+                executor.execute(invocation.getArgument(0));
+                return null;
+            }).when(mockAccountDeletionExecutorService).execute(any());
+
+            service.deleteAccount(accountId);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertSame(stepContext[0], context);
+        assertSame(RequestContext.get(), context);
+        verify(mockAccountDao).deleteAccount(TEST_USER_ID);
+    }
+
     @Test
     public void deleteAccount_notFound() {
         service.deleteAccount(AccountId.forId(TEST_APP_ID, TEST_USER_ID));
@@ -49,6 +49,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -65,6 +66,7 @@ import org.joda.time.Period;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -160,6 +162,9 @@ public class AdherenceServiceTest extends Mockito {
     @Mock
     AlertService alertService;
     
+    @Mock
+    DistributedLockService mockLockService;
+    
     @Captor
     ArgumentCaptor<AdherenceRecordsSearch> searchCaptor;
     
@@ -184,6 +189,12 @@ public class AdherenceServiceTest extends Mockito {
         MockitoAnnotations.initMocks(this);
         
         when(service.getDateTime()).thenReturn(MOCK_NOW);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(2)).run();
+            return null;
+        }).when(mockLockService).runWithLock(any(), any(), any());
+        when(mockLockService.callWithLock(any(), any(), any()))
+                .thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(2)).get());
     }
     
     @AfterMethod
@@ -211,6 +222,9 @@ public class AdherenceServiceTest extends Mockito {
         
         // Nothing is finished, nothing is published.
         verify(mockStudyActivityEventService, never()).publishEvent(any(), eq(false), eq(true));
+        
+        verify(mockLockService).runWithLock(eq(AdherenceRecord.class),
+                eq(TEST_APP_ID + ":" + TEST_STUDY_ID + ":" + TEST_USER_ID), any());
     }
 
     @Test(expectedExceptions = BadRequestException.class)
@@ -1138,7 +1152,12 @@ public class AdherenceServiceTest extends Mockito {
         assertEquals(retValue.getParticipant().getPhone(), TestConstants.PHONE);
         assertEquals(retValue.getParticipant().getExternalId(), TEST_EXTERNAL_ID);
         
-        verify(mockReportDao).saveWeeklyAdherenceReport(retValue);
+        // The adherence records are read and the report is saved under the participant's lock.
+        InOrder inOrder = inOrder(mockLockService, mockRecordDao, mockReportDao);
+        inOrder.verify(mockLockService).callWithLock(eq(WeeklyAdherenceReport.class),
+                eq(TEST_APP_ID + ":" + TEST_STUDY_ID + ":" + TEST_USER_ID), any());
+        inOrder.verify(mockRecordDao, atLeastOnce()).getAdherenceRecords(any());
+        inOrder.verify(mockReportDao).saveWeeklyAdherenceReport(retValue);
         // The contents of the weekly report are tested separately by testing the generator
     }
     
@@ -1438,6 +1457,47 @@ public class AdherenceServiceTest extends Mockito {
         verifyZeroInteractions(alertService);
     }
 
+    @Test
+    public void getWeeklyAdherenceReportsForWorker() {
+        Account account1 = Account.create();
+        account1.setId(TEST_USER_ID);
+        Account account2 = Account.create();
+        account2.setId("otherUserId");
+
+        Study study = Study.create();
+        study.setAdherenceThresholdPercentage(60);
+        when(mockStudyService.getStudy(TEST_APP_ID, TEST_STUDY_ID, true)).thenReturn(study);
+
+        StudyAdherenceReport report = new StudyAdherenceReport();
+        doReturn(report).when(service).generateStudyAdherenceReport(eq(TEST_APP_ID), eq(TEST_STUDY_ID), any());
+        WeeklyAdherenceReport weeklyReport1 = new WeeklyAdherenceReport();
+        weeklyReport1.setWeeklyAdherencePercent(50);
+        WeeklyAdherenceReport weeklyReport2 = new WeeklyAdherenceReport();
+        weeklyReport2.setWeeklyAdherencePercent(90);
+        doReturn(weeklyReport1).when(service).createWeeklyAdherenceReport(TEST_STUDY_ID, account1, report);
+        doReturn(weeklyReport2).when(service).createWeeklyAdherenceReport(TEST_STUDY_ID, account2, report);
+
+        List<WeeklyAdherenceReport> retValue = service.getWeeklyAdherenceReportsForWorker(TEST_APP_ID,
+                TEST_STUDY_ID, ImmutableList.of(account1, account2));
+        assertEquals(retValue, ImmutableList.of(weeklyReport1, weeklyReport2));
+
+        verify(mockReportDao).saveWeeklyAdherenceReports(ImmutableList.of(weeklyReport1, weeklyReport2));
+        verify(mockReportDao, never()).saveWeeklyAdherenceReport(any());
+        
+        // Both participants' locks are held for the batch, taken in order of user ID.
+        InOrder inOrder = inOrder(mockLockService, service, mockReportDao);
+        inOrder.verify(mockLockService).callWithLock(eq(WeeklyAdherenceReport.class),
+                eq(TEST_APP_ID + ":" + TEST_STUDY_ID + ":otherUserId"), any());
+        inOrder.verify(mockLockService).callWithLock(eq(WeeklyAdherenceReport.class),
+                eq(TEST_APP_ID + ":" + TEST_STUDY_ID + ":" + TEST_USER_ID), any());
+        inOrder.verify(service).generateStudyAdherenceReport(TEST_APP_ID, TEST_STUDY_ID, account1);
+        inOrder.verify(mockReportDao).saveWeeklyAdherenceReports(any());
+        
+        // Only the first participant is below the threshold
+        verify(alertService).createAlert(alertCaptor.capture());
+        assertEquals(alertCaptor.getValue().getUserId(), TEST_USER_ID);
+    }
+
     @Test
     public void getWeeklyAdherenceReports() {
         AdherenceReportSearch search = new AdherenceReportSearch();
@@ -0,0 +1,221 @@
+package org.sagebionetworks.bridge.services;
+
+import static org.sagebionetworks.bridge.RequestContext.NULL_INSTANCE;
+import static org.sagebionetworks.bridge.services.ConsentDeliveryQueue.CONFIG_KEY_MAX_ATTEMPTS;
+import static org.sagebionetworks.bridge.services.ConsentDeliveryQueue.CONFIG_KEY_MAX_PENDING;
+import static org.sagebionetworks.bridge.services.ConsentDeliveryQueue.CONFIG_KEY_RETRY_DELAY_MILLIS;
+import static org.sagebionetworks.bridge.services.ConsentDeliveryQueue.CONFIG_KEY_THREAD_COUNT;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.RequestContext;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.models.ConsentDeliveryStatus;
+
+public class ConsentDeliveryQueueTest extends Mockito {
+    private static final String DESCRIPTION = "signed consent SMS for user userId";
+    private static final String STEP_DESCRIPTION = "signed consent upload for user userId";
+
+    @Mock
+    BridgeConfig mockConfig;
+
+    ConsentDeliveryQueue queue;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        MockitoAnnotations.initMocks(this);
+
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_THREAD_COUNT)).thenReturn(0);
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_MAX_PENDING)).thenReturn(10);
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_MAX_ATTEMPTS)).thenReturn(3);
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_RETRY_DELAY_MILLIS)).thenReturn(1000);
+
+        queue = spy(new ConsentDeliveryQueue());
+        queue.setConfig(mockConfig);
+        doReturn(true).when(queue).sleep(anyLong());
+    }
+
+    @AfterMethod
+    public void afterMethod() {
+        queue.stop();
+        RequestContext.set(NULL_INSTANCE);
+    }
+
+    @Test
+    public void deliversOnPoolThread() throws Exception {
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_THREAD_COUNT)).thenReturn(1);
+        queue.setConfig(mockConfig);
+        queue.start();
+
+        RequestContext context = new RequestContext.Builder().withCallerUserId("callerId").build();
+        RequestContext.set(context);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<String> threadName = new AtomicReference<>();
+        AtomicReference<RequestContext> deliveryContext = new AtomicReference<>();
+        queue.submit(DESCRIPTION, () -> {
+            threadName.set(Thread.currentThread().getName());
+            deliveryContext.set(RequestContext.get());
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        queue.stop();
+
+        assertTrue(threadName.get().startsWith("consent-delivery-"));
+        assertSame(deliveryContext.get(), context);
+
+        ConsentDeliveryStatus status = queue.getStatus();
+        assertEquals(status.getSubmittedCount(), 1);
+        assertEquals(status.getSynchronousCount(), 0);
+        assertEquals(status.getDeliveredCount(), 1);
+    }
+
+    @Test
+    public void zeroThreadsDeliversOnCaller() {
+        queue.start();
+
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        queue.submit(DESCRIPTION, () -> thread.set(Thread.currentThread()));
+
+        assertSame(thread.get(), Thread.currentThread());
+        ConsentDeliveryStatus status = queue.getStatus();
+        assertEquals(status.getSynchronousCount(), 1);
+        assertEquals(status.getDeliveredCount(), 1);
+    }
+
+    @Test
+    public void failedDeliveryIsNotRetried() {
+        queue.start();
+
+        AtomicInteger attempts = new AtomicInteger();
+        // The error is logged, not thrown to the caller. The send is retried by the outbox, not here.
+        queue.submit(DESCRIPTION, () -> {
+            attempts.incrementAndGet();
+            throw new RuntimeException("SES is unavailable");
+        });
+
+        assertEquals(attempts.get(), 1);
+        verify(queue, never()).sleep(anyLong());
+        ConsentDeliveryStatus status = queue.getStatus();
+        assertEquals(status.getRetriedCount(), 0);
+        assertEquals(status.getDeliveredCount(), 0);
+        assertEquals(status.getFailedCount(), 1);
+    }
+
+    @Test
+    public void retriesStepWithoutRepeatingDelivery() {
+        queue.start();
+
+        AtomicInteger sends = new AtomicInteger();
+        AtomicInteger uploads = new AtomicInteger();
+        queue.submit(DESCRIPTION, () -> {
+            String url = queue.callWithRetries(STEP_DESCRIPTION, () -> {
+                if (uploads.incrementAndGet() < 3) {
+                    throw new RuntimeException("S3 is unavailable");
+                }
+                return "url";
+            });
+            assertEquals(url, "url");
+            sends.incrementAndGet();
+        });
+
+        assertEquals(uploads.get(), 3);
+        assertEquals(sends.get(), 1);
+        verify(queue).sleep(1000L);
+        verify(queue).sleep(2000L);
+
+        ConsentDeliveryStatus status = queue.getStatus();
+        assertEquals(status.getRetriedCount(), 2);
+        assertEquals(status.getDeliveredCount(), 1);
+        assertEquals(status.getFailedCount(), 0);
+    }
+
+    @Test
+    public void stepFailsAfterMaxAttempts() {
+        queue.start();
+
+        AtomicInteger sends = new AtomicInteger();
+        AtomicInteger uploads = new AtomicInteger();
+        queue.submit(DESCRIPTION, () -> {
+            queue.callWithRetries(STEP_DESCRIPTION, () -> {
+                uploads.incrementAndGet();
+                throw new RuntimeException("S3 is unavailable");
+            });
+            sends.incrementAndGet();
+        });
+
+        assertEquals(uploads.get(), 3);
+        assertEquals(sends.get(), 0);
+        ConsentDeliveryStatus status = queue.getStatus();
+        assertEquals(status.getRetriedCount(), 2);
+        assertEquals(status.getDeliveredCount(), 0);
+        assertEquals(status.getFailedCount(), 1);
+    }
+
+    @Test
+    public void interruptedStepRetryFails() {
+        queue.start();
+        doReturn(false).when(queue).sleep(anyLong());
+
+        AtomicInteger uploads = new AtomicInteger();
+        try {
+            queue.callWithRetries(STEP_DESCRIPTION, () -> {
+                uploads.incrementAndGet();
+                throw new RuntimeException("S3 is unavailable");
+            });
+            fail("expected exception");
+        } catch (RuntimeException ex) {
+            assertEquals(ex.getMessage(), "S3 is unavailable");
+        }
+        assertEquals(uploads.get(), 1);
+    }
+
+    @Test
+    public void fullQueueDeliversOnCaller() throws Exception {
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_THREAD_COUNT)).thenReturn(1);
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_MAX_PENDING)).thenReturn(1);
+        queue.setConfig(mockConfig);
+        queue.start();
+
+        // Occupy the thread, then fill the queue.
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        queue.submit(DESCRIPTION, () -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        queue.submit(DESCRIPTION, () -> {});
+
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        queue.submit(DESCRIPTION, () -> thread.set(Thread.currentThread()));
+        assertSame(thread.get(), Thread.currentThread());
+
+        ConsentDeliveryStatus status = queue.getStatus();
+        assertEquals(status.getPendingCount(), 1);
+        assertEquals(status.getActiveCount(), 1);
+        assertEquals(status.getSynchronousCount(), 1);
+
+        release.countDown();
+        queue.stop();
+        assertEquals(queue.getStatus().getDeliveredCount(), 3);
+    }
+}
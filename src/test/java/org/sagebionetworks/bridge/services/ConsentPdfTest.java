@@ -5,6 +5,7 @@ import static org.sagebionetworks.bridge.TestConstants.EMAIL;
 import static org.sagebionetworks.bridge.TestConstants.PHONE;
 import static org.sagebionetworks.bridge.models.accounts.SharingScope.NO_SHARING;
 import static org.sagebionetworks.bridge.services.StudyConsentService.SIGNATURE_BLOCK;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 import java.io.FileInputStream;
@@ -63,6 +64,18 @@ public class ConsentPdfTest {
         
         assertTrue(consentPdf.getBytes().length > 0);
     }
+
+    @Test
+    public void rendersOnce() throws Exception {
+        ConsentSignature sig = makeSignatureWithoutImage();
+        
+        ConsentPdf consentPdf = new ConsentPdf(app, EMAIL_PARTICIPANT, sig, NO_SHARING, DOCUMENT_FRAGMENT,
+                consentBodyTemplate);
+        
+        // Every channel gets the bytes from the first render.
+        byte[] bytes = consentPdf.getBytes();
+        assertSame(consentPdf.getBytes(), bytes);
+    }
     
     @Test
     public void docWithNullUserTimeZone() throws Exception {
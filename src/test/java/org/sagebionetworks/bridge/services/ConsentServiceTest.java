@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 
 import com.amazonaws.HttpMethod;
 import com.amazonaws.services.s3.model.ObjectMetadata;
@@ -70,6 +71,7 @@ import org.sagebionetworks.bridge.services.email.MimeTypeEmail;
 import org.sagebionetworks.bridge.services.email.MimeTypeEmailProvider;
 import org.sagebionetworks.bridge.services.email.WithdrawConsentEmailProvider;
 import org.sagebionetworks.bridge.sms.SmsMessageProvider;
+import org.sagebionetworks.bridge.util.ParsedTemplate;
 
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.ClassPathResource;
@@ -140,6 +142,8 @@ public class ConsentServiceTest extends Mockito {
     private TemplateService templateService;
     @Mock
     private AlertService alertService;
+    @Mock
+    private ConsentDeliveryQueue mockConsentDeliveryQueue;
     @Captor
     private ArgumentCaptor<BasicEmailProvider> emailCaptor;
     @Captor
@@ -181,10 +185,18 @@ public class ConsentServiceTest extends Mockito {
                 .thenReturn(SHORT_URL);
 
         when(studyConsentView.getCreatedOn()).thenReturn(CONSENT_CREATED_ON);
-        when(studyConsentView.getDocumentContent())
-                .thenReturn("<p>This is content of the final HTML document we assemble.</p>");
+        when(studyConsentView.getDocumentTemplate()).thenReturn(
+                ParsedTemplate.parse("<p>This is content of the final HTML document we assemble.</p>"));
         when(studyConsentService.getActiveConsent(subpopulation)).thenReturn(studyConsentView);
         when(subpopService.getSubpopulation(app.getIdentifier(), SUBPOP_GUID)).thenReturn(subpopulation);
+
+        // Deliver signed consents on the test thread.
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(1)).run();
+            return null;
+        }).when(mockConsentDeliveryQueue).submit(any(), any());
+        when(mockConsentDeliveryQueue.callWithRetries(any(), any()))
+                .thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(1)).get());
     }
 
     @AfterMethod
@@ -719,6 +731,28 @@ public class ConsentServiceTest extends Mockito {
         consentService.withdrawConsent(app, SUBPOP_GUID, PARTICIPANT, CONTEXT, WITHDRAWAL, WITHDREW_ON);
     }
 
+    @Test
+    public void consentToResearchDeliversSignedConsentInBackground() {
+        // The queue holds the delivery. The consent is recorded without waiting for it.
+        doNothing().when(mockConsentDeliveryQueue).submit(any(), any());
+
+        consentService.consentToResearch(app, SUBPOP_GUID, PARTICIPANT, CONSENT_SIGNATURE, SharingScope.NO_SHARING,
+                true);
+
+        verify(accountService).updateAccount(any());
+        verify(mockConsentDeliveryQueue).submit(eq("signed consent email for user " + ID), any());
+        verify(sendMailService, never()).sendEmail(any());
+        verify(templateService, never()).getRevisionForUser(any(), any());
+    }
+
+    @Test
+    public void consentToResearchWithoutSendingSubmitsNothing() {
+        consentService.consentToResearch(app, SUBPOP_GUID, PARTICIPANT, CONSENT_SIGNATURE, SharingScope.NO_SHARING,
+                false);
+
+        verify(mockConsentDeliveryQueue, never()).submit(any(), any());
+    }
+
     @Test
     public void consentToResearchNoConsentAdministratorEmail() {
         app.setConsentNotificationEmail(null);
@@ -983,6 +1017,8 @@ public class ConsentServiceTest extends Mockito {
         consentService.consentToResearch(app, SUBPOP_GUID, PHONE_PARTICIPANT, CONSENT_SIGNATURE,
                 SharingScope.NO_SHARING, true);
 
+        // The upload is retried as a step of the delivery. The SMS is retried by the outbox.
+        verify(mockConsentDeliveryQueue).callWithRetries(eq("signed consent upload for user " + ID), any());
         verify(smsService).sendSmsMessage(eq(ID), smsProviderCaptor.capture());
 
         ArgumentCaptor<ObjectMetadata> metadataCaptor = ArgumentCaptor.forClass(ObjectMetadata.class);
@@ -575,6 +575,21 @@ public class DemographicServiceTest {
         assertTrue(!returnedDemographicUser.isPresent());
     }
 
+    /**
+     * Tests fetching all of a user's DemographicUsers.
+     */
+    @Test
+    public void getDemographicUsersForUser() {
+        List<DemographicUser> demographicUsers = ImmutableList.of(new DemographicUser());
+        when(demographicDao.getDemographicUsersForUser(TEST_APP_ID, TEST_USER_ID)).thenReturn(demographicUsers);
+
+        List<DemographicUser> returnedDemographicUsers = demographicService.getDemographicUsersForUser(TEST_APP_ID,
+                TEST_USER_ID);
+
+        verify(demographicDao).getDemographicUsersForUser(TEST_APP_ID, TEST_USER_ID);
+        assertSame(returnedDemographicUsers, demographicUsers);
+    }
+
     /**
      * Tests fetching DemographicUsers.
      */
@@ -0,0 +1,201 @@
+package org.sagebionetworks.bridge.services;
+
+import static org.sagebionetworks.bridge.services.DistributedLockService.CONFIG_KEY_EXPIRE_SECONDS;
+import static org.sagebionetworks.bridge.services.DistributedLockService.CONFIG_KEY_MAX_WAIT_MILLIS;
+import static org.sagebionetworks.bridge.services.DistributedLockService.INITIAL_BACKOFF_MILLIS;
+import static org.sagebionetworks.bridge.services.DistributedLockService.MAX_BACKOFF_MILLIS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.dao.DistributedLockDao;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+import org.sagebionetworks.bridge.models.DistributedLockStatus;
+import org.sagebionetworks.bridge.models.schedules2.Schedule2;
+
+public class DistributedLockServiceTest extends Mockito {
+    private static final String IDENTIFIER = "oneGuid";
+    private static final int EXPIRE_SECONDS = 30;
+    private static final int MAX_WAIT_MILLIS = 1000;
+
+    @Mock
+    BridgeConfig mockConfig;
+
+    InMemoryDistributedLockDao lockDao;
+
+    DistributedLockService service;
+
+    List<Long> sleeps;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        MockitoAnnotations.initMocks(this);
+
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_EXPIRE_SECONDS)).thenReturn(EXPIRE_SECONDS);
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_MAX_WAIT_MILLIS)).thenReturn(MAX_WAIT_MILLIS);
+
+        lockDao = new InMemoryDistributedLockDao();
+        sleeps = new ArrayList<>();
+
+        service = spy(new DistributedLockService());
+        service.setConfig(mockConfig);
+        service.setDistributedLockDao(lockDao);
+    }
+
+    @Test
+    public void callWithLock() {
+        String retValue = service.callWithLock(Schedule2.class, IDENTIFIER, () -> {
+            assertNotNull(lockDao.getLock(Schedule2.class, IDENTIFIER));
+            assertEquals(service.getStatus().getHeldCount(), 1);
+            return "value";
+        });
+        assertEquals(retValue, "value");
+        assertNull(lockDao.getLock(Schedule2.class, IDENTIFIER));
+
+        DistributedLockStatus status = service.getStatus();
+        assertEquals(status.getExpireInSeconds(), EXPIRE_SECONDS);
+        assertEquals(status.getMaxWaitMillis(), MAX_WAIT_MILLIS);
+        assertEquals(status.getHeldCount(), 0);
+        assertEquals(status.getAcquiredCount(), 1);
+        assertEquals(status.getContendedCount(), 0);
+        assertEquals(status.getLastFencingToken(), 1);
+    }
+
+    @Test
+    public void runWithLock() {
+        List<String> runs = new ArrayList<>();
+        service.runWithLock(Schedule2.class, IDENTIFIER, () -> runs.add("run"));
+
+        assertEquals(runs.size(), 1);
+        assertNull(lockDao.getLock(Schedule2.class, IDENTIFIER));
+    }
+
+    @Test
+    public void lockIsReleasedWhenWorkFails() {
+        try {
+            service.runWithLock(Schedule2.class, IDENTIFIER, () -> {
+                throw new IllegalStateException();
+            });
+            fail("Should have thrown exception");
+        } catch (IllegalStateException e) {
+        }
+        assertNull(lockDao.getLock(Schedule2.class, IDENTIFIER));
+        assertEquals(service.getStatus().getHeldCount(), 0);
+    }
+
+    @Test
+    public void waitsForHeldLock() throws Exception {
+        String otherLock = lockDao.acquireLock(Schedule2.class, IDENTIFIER, EXPIRE_SECONDS);
+        // The other holder releases its lock while this caller is waiting.
+        doAnswer(invocation -> {
+            sleeps.add(invocation.getArgument(0));
+            if (sleeps.size() == 3) {
+                lockDao.releaseLock(Schedule2.class, IDENTIFIER, otherLock);
+            }
+            return null;
+        }).when(service).sleep(anyLong());
+
+        service.runWithLock(Schedule2.class, IDENTIFIER, () -> {});
+
+        // The backoff doubles between attempts.
+        assertEquals(sleeps.size(), 3);
+        assertEquals(sleeps.get(0).longValue(), INITIAL_BACKOFF_MILLIS);
+        assertEquals(sleeps.get(1).longValue(), INITIAL_BACKOFF_MILLIS * 2);
+        assertEquals(sleeps.get(2).longValue(), INITIAL_BACKOFF_MILLIS * 4);
+
+        DistributedLockStatus status = service.getStatus();
+        assertEquals(status.getAcquiredCount(), 1);
+        assertEquals(status.getContendedCount(), 1);
+        assertEquals(status.getTimeoutCount(), 0);
+        assertTrue(status.getLastFencingToken() > DistributedLockDao.getFencingToken(otherLock));
+    }
+
+    @Test
+    public void timesOutWaitingForHeldLock() throws Exception {
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_MAX_WAIT_MILLIS)).thenReturn(50);
+        service.setConfig(mockConfig);
+        lockDao.acquireLock(Schedule2.class, IDENTIFIER, EXPIRE_SECONDS);
+        doAnswer(invocation -> {
+            Long millis = invocation.getArgument(0);
+            sleeps.add(millis);
+            Thread.sleep(millis);
+            return null;
+        }).when(service).sleep(anyLong());
+
+        try {
+            service.runWithLock(Schedule2.class, IDENTIFIER, () -> fail("Should not run"));
+            fail("Should have thrown exception");
+        } catch (ConcurrentModificationException e) {
+        }
+        for (long millis : sleeps) {
+            assertTrue(millis <= MAX_BACKOFF_MILLIS);
+        }
+        DistributedLockStatus status = service.getStatus();
+        assertEquals(status.getAcquiredCount(), 0);
+        assertEquals(status.getTimeoutCount(), 1);
+    }
+
+    @Test
+    public void renewsHeldLocks() {
+        service.runWithLock(Schedule2.class, IDENTIFIER, () -> {
+            service.renewHeldLocks();
+            service.renewHeldLocks();
+        });
+        DistributedLockStatus status = service.getStatus();
+        assertEquals(status.getRenewedCount(), 2);
+        assertEquals(status.getLostCount(), 0);
+    }
+
+    @Test
+    public void lostLockIsCountedOnce() {
+        service.runWithLock(Schedule2.class, IDENTIFIER, () -> {
+            lockDao.expireLock(Schedule2.class, IDENTIFIER);
+            // Another caller takes the lock after the lease ran out.
+            lockDao.acquireLock(Schedule2.class, IDENTIFIER, EXPIRE_SECONDS);
+            service.renewHeldLocks();
+            assertEquals(service.getStatus().getHeldCount(), 0);
+        });
+        DistributedLockStatus status = service.getStatus();
+        assertEquals(status.getRenewedCount(), 0);
+        assertEquals(status.getLostCount(), 1);
+        // The other caller's lock is not released.
+        assertNotNull(lockDao.getLock(Schedule2.class, IDENTIFIER));
+    }
+
+    @Test
+    public void lockExpiredBeforeRelease() {
+        service.runWithLock(Schedule2.class, IDENTIFIER, () -> lockDao.expireLock(Schedule2.class, IDENTIFIER));
+
+        assertEquals(service.getStatus().getLostCount(), 1);
+    }
+
+    @Test
+    public void releaseErrorDoesNotFailWork() {
+        DistributedLockDao mockLockDao = mock(DistributedLockDao.class);
+        when(mockLockDao.acquireLock(Schedule2.class, IDENTIFIER, EXPIRE_SECONDS)).thenReturn("1:lockGuid");
+        when(mockLockDao.releaseLock(Schedule2.class, IDENTIFIER, "1:lockGuid")).thenThrow(new RuntimeException());
+        service.setDistributedLockDao(mockLockDao);
+
+        String retValue = service.callWithLock(Schedule2.class, IDENTIFIER, () -> "value");
+        assertEquals(retValue, "value");
+        assertEquals(service.getStatus().getHeldCount(), 0);
+    }
+
+    @Test
+    public void startAndStop() {
+        service.start();
+        service.stop();
+    }
+}
@@ -111,6 +111,7 @@ import org.sagebionetworks.bridge.models.worker.Exporter3Request;
 import org.sagebionetworks.bridge.models.worker.WorkerRequest;
 import org.sagebionetworks.bridge.s3.S3Helper;
 import org.sagebionetworks.bridge.synapse.SynapseHelper;
+import org.sagebionetworks.bridge.upload.UploadUtil;
 
 public class Exporter3ServiceTest {
     private static final String APP_NAME = "Test App";
@@ -1197,6 +1198,7 @@ public class Exporter3ServiceTest {
         Upload upload = Upload.create();
         upload.setHealthCode(TestConstants.HEALTH_CODE);
         upload.setUploadId(RECORD_ID);
+        upload.setFilename("test-file.zip");
 
         // Mock AccountService.
         Account account = Account.create();
@@ -1238,6 +1240,8 @@ public class Exporter3ServiceTest {
         assertEquals(recordToCreate.getId(), RECORD_ID);
         assertEquals(recordToCreate.getParticipantVersion().intValue(), PARTICIPANT_VERSION);
         assertEquals(recordToCreate.getSharingScope(), SharingScope.SPONSORS_AND_PARTNERS);
+        assertEquals(recordToCreate.getRawS3Key(), UploadUtil.getRawS3KeyForUpload(TestConstants.TEST_APP_ID,
+                upload, recordToCreate));
 
         // Verify call to SQS.
         ArgumentCaptor<String> requestJsonTextCaptor = ArgumentCaptor.forClass(String.class);
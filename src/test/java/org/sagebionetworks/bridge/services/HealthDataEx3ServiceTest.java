@@ -2,12 +2,17 @@ package org.sagebionetworks.bridge.services;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import com.amazonaws.HttpMethod;
@@ -99,6 +104,32 @@ public class HealthDataEx3ServiceTest {
         verify(mockDao).createOrUpdateRecord(same(record));
     }
 
+    @Test
+    public void createOrUpdateRecord_KeepsRawS3Key() {
+        // The worker's update doesn't have the raw S3 key.
+        HealthDataRecordEx3 oldRecord = makeValidRecord();
+        oldRecord.setRawS3Key("raw-s3-key");
+        when(mockDao.getRecord(RECORD_ID)).thenReturn(Optional.of(oldRecord));
+
+        HealthDataRecordEx3 record = makeValidRecord();
+        when(mockDao.createOrUpdateRecord(record)).thenReturn(record);
+
+        service.createOrUpdateRecord(record);
+        assertEquals(record.getRawS3Key(), "raw-s3-key");
+        verify(mockDao).createOrUpdateRecord(same(record));
+    }
+
+    @Test
+    public void createOrUpdateRecord_SetsRawS3Key() {
+        HealthDataRecordEx3 record = makeValidRecord();
+        record.setRawS3Key("new-raw-s3-key");
+        when(mockDao.createOrUpdateRecord(record)).thenReturn(record);
+
+        service.createOrUpdateRecord(record);
+        assertEquals(record.getRawS3Key(), "new-raw-s3-key");
+        verify(mockDao, never()).getRecord(any());
+    }
+
     @Test(expectedExceptions = InvalidEntityException.class, expectedExceptionsMessageRegExp =
             "Health data record must not be null")
     public void createOrUpdateRecord_NullRecord() {
@@ -165,6 +196,76 @@ public class HealthDataEx3ServiceTest {
         assertEquals(request.getExpiration(), DateTime.now().plusMinutes(EXPIRATION_IN_MINUTES).toDate());
     }
 
+    @Test
+    public void getRecord_downloadTrue_RawS3KeyOnRecord() {
+        HealthDataRecordEx3 record = makeValidRecord();
+        record.setRawS3Key(S3KEY);
+        when(mockDao.getRecord(RECORD_ID)).thenReturn(Optional.of(record));
+
+        HealthDataRecordEx3 result = service.getRecord(RECORD_ID, true).get();
+        assertEquals(result.getDownloadUrl(), "https://" + RECORD_BUCKET + "/" + S3KEY);
+
+        // The upload isn't needed.
+        verify(mockUploadService, never()).getUpload(any());
+    }
+
+    @Test
+    public void getRecordsWithDownloadUrls() {
+        // Record 1 has its raw S3 key. Record 2 is an older record without one. Record 3 belongs to someone else.
+        HealthDataRecordEx3 record1 = makeValidRecord();
+        record1.setId("record-1");
+        record1.setRawS3Key("s3-key-1");
+        HealthDataRecordEx3 record2 = makeValidRecord();
+        record2.setRawS3Key(null);
+        HealthDataRecordEx3 record3 = makeValidRecord();
+        record3.setId("record-3");
+        record3.setHealthCode("other-health-code");
+        record3.setRawS3Key("s3-key-3");
+        when(mockDao.getRecords(any())).thenReturn(ImmutableList.of(record3, record2, record1));
+
+        when(mockUploadService.getUpload(RECORD_ID)).thenReturn(makeValidUpload());
+
+        // Execute. Duplicate and missing IDs are skipped.
+        List<HealthDataRecordEx3> resultList = service.getRecordsWithDownloadUrls(TestConstants.TEST_APP_ID,
+                TestConstants.HEALTH_CODE, ImmutableList.of("record-1", RECORD_ID, "record-3", "record-1",
+                        "missing-record"));
+        assertEquals(resultList.size(), 2);
+        assertSame(resultList.get(0), record1);
+        assertEquals(record1.getDownloadUrl(), "https://" + RECORD_BUCKET + "/s3-key-1");
+        assertEquals(record1.getDownloadExpiration(), DateTime.now().plusMinutes(EXPIRATION_IN_MINUTES).getMillis());
+        assertSame(resultList.get(1), record2);
+        assertEquals(record2.getDownloadUrl(), "https://" + RECORD_BUCKET + "/" + S3KEY);
+        assertNull(record3.getDownloadUrl());
+
+        // The records are read in one batch, and only the older record reads its upload.
+        verify(mockDao).getRecords(ImmutableList.of("record-1", RECORD_ID, "record-3", "missing-record"));
+        verify(mockUploadService, times(1)).getUpload(any());
+        verify(mockS3Client, times(2)).generatePresignedUrl(any());
+    }
+
+    @Test(expectedExceptions = BadRequestException.class, expectedExceptionsMessageRegExp =
+            "Health code must be specified")
+    public void getRecordsWithDownloadUrls_NullHealthCode() {
+        service.getRecordsWithDownloadUrls(TestConstants.TEST_APP_ID, null, ImmutableList.of(RECORD_ID));
+    }
+
+    @Test(expectedExceptions = BadRequestException.class, expectedExceptionsMessageRegExp =
+            "IDs must be specified")
+    public void getRecordsWithDownloadUrls_NoIds() {
+        service.getRecordsWithDownloadUrls(TestConstants.TEST_APP_ID, TestConstants.HEALTH_CODE,
+                ImmutableList.of());
+    }
+
+    @Test(expectedExceptions = BadRequestException.class, expectedExceptionsMessageRegExp =
+            "Cannot request more than 100 records at once")
+    public void getRecordsWithDownloadUrls_TooManyIds() {
+        List<String> idList = new ArrayList<>();
+        for (int i = 0; i <= HealthDataEx3Service.MAX_DOWNLOAD_BATCH_SIZE; i++) {
+            idList.add("record-" + i);
+        }
+        service.getRecordsWithDownloadUrls(TestConstants.TEST_APP_ID, TestConstants.HEALTH_CODE, idList);
+    }
+
     @Test
     public void getRecord_emptyRecord() {
         when(mockDao.getRecord(RECORD_ID)).thenReturn(Optional.empty());
@@ -0,0 +1,51 @@
+package org.sagebionetworks.bridge.services;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.sagebionetworks.bridge.dao.DistributedLockDao;
+
+/**
+ * A stand-in for the Redis lock store, for tests that need locks to be contended. Locks don't expire on their own;
+ * a test can expire one to simulate a lease that ran out.
+ */
+public class InMemoryDistributedLockDao implements DistributedLockDao {
+    private final Map<String, String> locks = new HashMap<>();
+    private long fencingToken;
+
+    @Override
+    public String acquireLock(Class<?> clazz, String identifier) {
+        return acquireLock(clazz, identifier, 60);
+    }
+
+    @Override
+    public synchronized String acquireLock(Class<?> clazz, String identifier, int expireInSeconds) {
+        String lock = (++fencingToken) + ":" + UUID.randomUUID().toString();
+        return locks.putIfAbsent(getKey(clazz, identifier), lock) == null ? lock : null;
+    }
+
+    @Override
+    public synchronized boolean renewLock(Class<?> clazz, String identifier, String lock, int expireInSeconds) {
+        return lock.equals(locks.get(getKey(clazz, identifier)));
+    }
+
+    @Override
+    public synchronized boolean releaseLock(Class<?> clazz, String identifier, String lock) {
+        return locks.remove(getKey(clazz, identifier), lock);
+    }
+
+    /** Removes the lock as if its lease had expired. */
+    public synchronized void expireLock(Class<?> clazz, String identifier) {
+        locks.remove(getKey(clazz, identifier));
+    }
+
+    /** The lock string of the current holder, or null if the lock is free. */
+    public synchronized String getLock(Class<?> clazz, String identifier) {
+        return locks.get(getKey(clazz, identifier));
+    }
+
+    private static String getKey(Class<?> clazz, String identifier) {
+        return identifier + ":" + clazz.getCanonicalName();
+    }
+}
@@ -0,0 +1,109 @@
+package org.sagebionetworks.bridge.services;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.sagebionetworks.bridge.dao.ParticipantVersionQueueDao;
+import org.sagebionetworks.bridge.models.ParticipantVersionQueueEntry;
+
+/**
+ * A stand-in for the participant version queue table, for tests that follow entries through several flushes. Entries
+ * are copied in and out, as they would be read from and written to the database.
+ */
+public class InMemoryParticipantVersionQueueDao implements ParticipantVersionQueueDao {
+    private final Map<String, ParticipantVersionQueueEntry> entries = new LinkedHashMap<>();
+
+    @Override
+    public synchronized boolean enqueue(String appId, String healthCode, JsonNode payload, long nextAttemptOn) {
+        ParticipantVersionQueueEntry existing = entries.get(getKey(appId, healthCode));
+        if (existing != null) {
+            existing.setPayload(payload);
+            existing.setRevision(existing.getRevision() + 1);
+            existing.setAttempts(0);
+            return true;
+        }
+        ParticipantVersionQueueEntry entry = new ParticipantVersionQueueEntry();
+        entry.setAppId(appId);
+        entry.setHealthCode(healthCode);
+        entry.setPayload(payload);
+        entry.setRevision(1);
+        entry.setNextAttemptOn(nextAttemptOn);
+        entries.put(getKey(appId, healthCode), entry);
+        return false;
+    }
+
+    @Override
+    public synchronized List<String> getAppIdsWithDueEntries(long now) {
+        return entries.values().stream().filter(entry -> entry.getNextAttemptOn() <= now)
+                .map(ParticipantVersionQueueEntry::getAppId).distinct().collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized List<ParticipantVersionQueueEntry> getDueEntries(String appId, long now, int limit) {
+        return entries.values().stream()
+                .filter(entry -> entry.getAppId().equals(appId) && entry.getNextAttemptOn() <= now)
+                .sorted(Comparator.comparingLong(ParticipantVersionQueueEntry::getNextAttemptOn)).limit(limit)
+                .map(InMemoryParticipantVersionQueueDao::copy).collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized void updateEntry(ParticipantVersionQueueEntry entry) {
+        ParticipantVersionQueueEntry existing = entries.get(getKey(entry.getAppId(), entry.getHealthCode()));
+        if (existing == null) {
+            return;
+        }
+        if (existing.getRevision() == entry.getRevision()) {
+            existing.setAttempts(entry.getAttempts());
+            existing.setNextAttemptOn(entry.getNextAttemptOn());
+        }
+        existing.setWrittenVersion(entry.getWrittenVersion());
+    }
+
+    @Override
+    public synchronized boolean deleteEntry(ParticipantVersionQueueEntry entry) {
+        String key = getKey(entry.getAppId(), entry.getHealthCode());
+        ParticipantVersionQueueEntry existing = entries.get(key);
+        if (existing == null || existing.getRevision() != entry.getRevision()) {
+            return false;
+        }
+        entries.remove(key);
+        return true;
+    }
+
+    @Override
+    public synchronized void deleteEntry(String appId, String healthCode) {
+        entries.remove(getKey(appId, healthCode));
+    }
+
+    @Override
+    public synchronized int countEntries() {
+        return entries.size();
+    }
+
+    /** A copy of the participant's entry, or null if there is none. */
+    public synchronized ParticipantVersionQueueEntry getEntry(String appId, String healthCode) {
+        ParticipantVersionQueueEntry entry = entries.get(getKey(appId, healthCode));
+        return entry == null ? null : copy(entry);
+    }
+
+    private static ParticipantVersionQueueEntry copy(ParticipantVersionQueueEntry entry) {
+        ParticipantVersionQueueEntry copy = new ParticipantVersionQueueEntry();
+        copy.setAppId(entry.getAppId());
+        copy.setHealthCode(entry.getHealthCode());
+        copy.setPayload(entry.getPayload());
+        copy.setRevision(entry.getRevision());
+        copy.setAttempts(entry.getAttempts());
+        copy.setNextAttemptOn(entry.getNextAttemptOn());
+        copy.setWrittenVersion(entry.getWrittenVersion());
+        return copy;
+    }
+
+    private static String getKey(String appId, String healthCode) {
+        return appId + ":" + healthCode;
+    }
+}
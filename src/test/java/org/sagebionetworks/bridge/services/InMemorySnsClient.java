@@ -0,0 +1,114 @@
+package org.sagebionetworks.bridge.services;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.sns.AbstractAmazonSNS;
+import com.amazonaws.services.sns.model.EndpointDisabledException;
+import com.amazonaws.services.sns.model.GetSubscriptionAttributesRequest;
+import com.amazonaws.services.sns.model.GetSubscriptionAttributesResult;
+import com.amazonaws.services.sns.model.NotFoundException;
+import com.amazonaws.services.sns.model.PublishRequest;
+import com.amazonaws.services.sns.model.PublishResult;
+
+/**
+ * A stand-in for SNS that records the messages published to it and the threads that published them, for tests of
+ * SNS fan-out. Endpoints can be disabled, so that publishing to them fails, and only subscriptions that have been
+ * added exist. Each call takes a few milliseconds, so that concurrent calls overlap.
+ */
+public class InMemorySnsClient extends AbstractAmazonSNS {
+    private static final long CALL_MILLIS = 5;
+
+    private final List<String> publishedTargets = new ArrayList<>();
+    private final Set<String> publishingThreads = new HashSet<>();
+    private final Set<String> disabledEndpoints = new HashSet<>();
+    private final Set<String> subscriptions = new HashSet<>();
+    private final AtomicInteger messageIds = new AtomicInteger();
+    private final AtomicInteger concurrentCalls = new AtomicInteger();
+    private int maxConcurrentCalls;
+    private int getSubscriptionAttributesCount;
+
+    @Override
+    public PublishResult publish(PublishRequest request) {
+        startCall();
+        try {
+            String target = (request.getTargetArn() != null) ? request.getTargetArn() : request.getTopicArn();
+            synchronized (this) {
+                if (disabledEndpoints.contains(target)) {
+                    throw new EndpointDisabledException("Endpoint is disabled");
+                }
+                publishedTargets.add(target);
+                publishingThreads.add(Thread.currentThread().getName());
+            }
+            return new PublishResult().withMessageId(String.valueOf(messageIds.incrementAndGet()));
+        } finally {
+            concurrentCalls.decrementAndGet();
+        }
+    }
+
+    @Override
+    public GetSubscriptionAttributesResult getSubscriptionAttributes(GetSubscriptionAttributesRequest request) {
+        startCall();
+        try {
+            synchronized (this) {
+                getSubscriptionAttributesCount++;
+                if (!subscriptions.contains(request.getSubscriptionArn())) {
+                    throw new NotFoundException("Subscription does not exist");
+                }
+            }
+            return new GetSubscriptionAttributesResult();
+        } finally {
+            concurrentCalls.decrementAndGet();
+        }
+    }
+
+    @Override
+    public GetSubscriptionAttributesResult getSubscriptionAttributes(String subscriptionArn) {
+        return getSubscriptionAttributes(new GetSubscriptionAttributesRequest(subscriptionArn));
+    }
+
+    /** Publishing to this endpoint will fail. */
+    public synchronized void disableEndpoint(String endpointArn) {
+        disabledEndpoints.add(endpointArn);
+    }
+
+    /** Adds a subscription that SNS knows about. Other subscriptions are not found. */
+    public synchronized void addSubscription(String subscriptionArn) {
+        subscriptions.add(subscriptionArn);
+    }
+
+    /** The target or topic ARNs of all the messages published so far, in the order they were published. */
+    public synchronized List<String> getPublishedTargets() {
+        return new ArrayList<>(publishedTargets);
+    }
+
+    /** The names of the threads that have published messages. */
+    public synchronized Set<String> getPublishingThreads() {
+        return new HashSet<>(publishingThreads);
+    }
+
+    /** The number of calls to getSubscriptionAttributes. */
+    public synchronized int getSubscriptionAttributesCount() {
+        return getSubscriptionAttributesCount;
+    }
+
+    /** The most calls that were in progress at the same time. */
+    public synchronized int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    private void startCall() {
+        int calls = concurrentCalls.incrementAndGet();
+        synchronized (this) {
+            maxConcurrentCalls = Math.max(maxConcurrentCalls, calls);
+        }
+        try {
+            Thread.sleep(CALL_MILLIS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.sagebionetworks.bridge.services;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+
+/**
+ * A stand-in for SQS that records the messages sent to it, for tests that need to examine what was sent and how it
+ * was batched. Batch entries can be made to fail, as SQS can reject individual entries of a batch.
+ */
+public class InMemorySqsClient extends AbstractAmazonSQS {
+    private final List<String> messages = new ArrayList<>();
+    private final Set<String> failingSubstrings = new HashSet<>();
+    private final AtomicInteger messageIds = new AtomicInteger();
+    private int sendCount;
+    private int batchCount;
+
+    @Override
+    public synchronized SendMessageResult sendMessage(SendMessageRequest request) {
+        sendCount++;
+        messages.add(request.getMessageBody());
+        return new SendMessageResult().withMessageId(String.valueOf(messageIds.incrementAndGet()));
+    }
+
+    @Override
+    public SendMessageResult sendMessage(String queueUrl, String messageBody) {
+        return sendMessage(new SendMessageRequest(queueUrl, messageBody));
+    }
+
+    @Override
+    public synchronized SendMessageBatchResult sendMessageBatch(SendMessageBatchRequest request) {
+        if (request.getEntries().size() > 10) {
+            throw new IllegalArgumentException("SQS batches are limited to 10 entries");
+        }
+        batchCount++;
+        SendMessageBatchResult result = new SendMessageBatchResult();
+        for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+            if (failingSubstrings.stream().anyMatch(entry.getMessageBody()::contains)) {
+                result.getFailed().add(new BatchResultErrorEntry().withId(entry.getId()).withCode("InternalError")
+                        .withSenderFault(false).withMessage("Injected failure"));
+            } else {
+                messages.add(entry.getMessageBody());
+                result.getSuccessful().add(new SendMessageBatchResultEntry().withId(entry.getId())
+                        .withMessageId(String.valueOf(messageIds.incrementAndGet())));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public SendMessageBatchResult sendMessageBatch(String queueUrl, List<SendMessageBatchRequestEntry> entries) {
+        return sendMessageBatch(new SendMessageBatchRequest(queueUrl, entries));
+    }
+
+    /** Batch entries whose body contains this string will be rejected. */
+    public synchronized void failMessagesContaining(String substring) {
+        failingSubstrings.add(substring);
+    }
+
+    /** Batch entries are no longer rejected. */
+    public synchronized void clearFailures() {
+        failingSubstrings.clear();
+    }
+
+    /** The bodies of all the messages accepted so far, in the order they were sent. */
+    public synchronized List<String> getMessages() {
+        return new ArrayList<>(messages);
+    }
+
+    /** The number of calls to sendMessage. */
+    public synchronized int getSendCount() {
+        return sendCount;
+    }
+
+    /** The number of calls to sendMessageBatch. */
+    public synchronized int getBatchCount() {
+        return batchCount;
+    }
+}
@@ -13,12 +13,16 @@ import static org.testng.Assert.fail;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
@@ -151,6 +155,7 @@ public class NotificationTopicServiceTest {
         service.setSnsClient(mockSnsClient);
         service.setNotificationRegistrationDao(mockRegistrationDao);
         service.setTopicSubscriptionDao(mockSubscriptionDao);
+        service.setSnsExecutorService(MoreExecutors.newDirectExecutorService());
     }
     
     @Test
@@ -365,6 +370,112 @@ public class NotificationTopicServiceTest {
         verify(mockSubscriptionDao, never()).subscribe(any(), eq(MANUAL_TOPIC_2));
     }
 
+    @Test
+    public void manageCriteriaBasedSubscriptions_Unchanged() {
+        when(mockTopicDao.listTopics(TEST_APP_ID, true)).thenReturn(ImmutableList.of(CRITERIA_TOPIC_1, CRITERIA_TOPIC_2,
+                MANUAL_TOPIC_1));
+        when(mockRegistrationDao.listRegistrations(HEALTH_CODE)).thenReturn(ImmutableList.of(PUSH_REGISTRATION));
+
+        // Already subscribed to criteria topic 1, which is the only topic that matches.
+        when(mockSubscriptionDao.listSubscriptions(PUSH_REGISTRATION)).thenReturn((List)ImmutableList.of(
+                getSub(CRITERIA_TOPIC_1.getGuid()), getSub(MANUAL_TOPIC_1.getGuid())));
+        CriteriaContext context = new CriteriaContext.Builder().withContext(EMPTY_CONTEXT).withUserDataGroups(
+                ImmutableSet.of(CRITERIA_GROUP_1)).build();
+
+        service.manageCriteriaBasedSubscriptions(TEST_APP_ID, context, HEALTH_CODE);
+
+        // Nothing changes, so SNS isn't called to check or change subscriptions.
+        verifyZeroInteractions(mockSnsClient);
+        verify(mockSubscriptionDao, never()).subscribe(any(), any());
+        verify(mockSubscriptionDao, never()).unsubscribe(any(), any());
+    }
+
+    @Test
+    public void manageCriteriaBasedSubscriptions_CachesTopics() {
+        when(mockTopicDao.listTopics(TEST_APP_ID, true)).thenReturn(ImmutableList.of(CRITERIA_TOPIC_1));
+        when(mockRegistrationDao.listRegistrations(HEALTH_CODE)).thenReturn(ImmutableList.of());
+
+        service.manageCriteriaBasedSubscriptions(TEST_APP_ID, EMPTY_CONTEXT, HEALTH_CODE);
+        service.manageCriteriaBasedSubscriptions(TEST_APP_ID, EMPTY_CONTEXT, HEALTH_CODE);
+        verify(mockTopicDao).listTopics(TEST_APP_ID, true);
+
+        // Changing a topic re-reads the list.
+        NotificationTopic topic = getNotificationTopic();
+        service.deleteTopic(TEST_APP_ID, topic.getGuid());
+        service.manageCriteriaBasedSubscriptions(TEST_APP_ID, EMPTY_CONTEXT, HEALTH_CODE);
+        verify(mockTopicDao, times(2)).listTopics(TEST_APP_ID, true);
+    }
+
+    @Test
+    public void manageCriteriaBasedSubscriptions_ReloadsTopicsForUnknownSubscription() {
+        // Criteria topic 2 was created on another server after the list was cached, and the user was subscribed to it.
+        when(mockTopicDao.listTopics(TEST_APP_ID, true)).thenReturn(ImmutableList.of(CRITERIA_TOPIC_1),
+                ImmutableList.of(CRITERIA_TOPIC_1, CRITERIA_TOPIC_2));
+        when(mockRegistrationDao.listRegistrations(HEALTH_CODE)).thenReturn(ImmutableList.of(PUSH_REGISTRATION));
+        when(mockSubscriptionDao.listSubscriptions(PUSH_REGISTRATION)).thenReturn((List)ImmutableList.of(
+                getSub(CRITERIA_TOPIC_2.getGuid())));
+
+        CriteriaContext context = new CriteriaContext.Builder().withContext(EMPTY_CONTEXT).withUserDataGroups(
+                ImmutableSet.of(CRITERIA_GROUP_1)).build();
+        service.manageCriteriaBasedSubscriptions(TEST_APP_ID, context, HEALTH_CODE);
+
+        // The list is read again, so the subscription to topic 2 is compared with its criteria.
+        verify(mockTopicDao, times(2)).listTopics(TEST_APP_ID, true);
+        verify(mockSubscriptionDao).subscribe(PUSH_REGISTRATION, CRITERIA_TOPIC_1);
+        verify(mockSubscriptionDao).unsubscribe(PUSH_REGISTRATION, CRITERIA_TOPIC_2);
+    }
+
+    @Test
+    public void manageCriteriaBasedSubscriptions_RemovesOrphanedSubscriptions() {
+        when(mockTopicDao.listTopics(TEST_APP_ID, true)).thenReturn(ImmutableList.of(CRITERIA_TOPIC_1, CRITERIA_TOPIC_2));
+        when(mockRegistrationDao.listRegistrations(HEALTH_CODE)).thenReturn(ImmutableList.of(PUSH_REGISTRATION));
+
+        // We have records of both subscriptions, but SNS only has the subscription to criteria topic 2.
+        TopicSubscription sub1 = getSub(CRITERIA_TOPIC_1.getGuid());
+        sub1.setSubscriptionARN("arn:subscription-1");
+        TopicSubscription sub2 = getSub(CRITERIA_TOPIC_2.getGuid());
+        sub2.setSubscriptionARN("arn:subscription-2");
+        when(mockSubscriptionDao.listSubscriptions(PUSH_REGISTRATION)).thenReturn((List)ImmutableList.of(sub1, sub2));
+
+        InMemorySnsClient snsClient = new InMemorySnsClient();
+        snsClient.addSubscription("arn:subscription-2");
+        service.setSnsClient(snsClient);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        service.setSnsExecutorService(executorService);
+
+        // Data group 1 should only be subscribed to criteria topic 1.
+        CriteriaContext context = new CriteriaContext.Builder().withContext(EMPTY_CONTEXT).withUserDataGroups(
+                ImmutableSet.of(CRITERIA_GROUP_1)).build();
+        try {
+            service.manageCriteriaBasedSubscriptions(TEST_APP_ID, context, HEALTH_CODE);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertEquals(snsClient.getSubscriptionAttributesCount(), 2);
+        verify(mockSubscriptionDao).removeOrphanedSubscription(sub1);
+        verify(mockSubscriptionDao).subscribe(PUSH_REGISTRATION, CRITERIA_TOPIC_1);
+        verify(mockSubscriptionDao).unsubscribe(PUSH_REGISTRATION, CRITERIA_TOPIC_2);
+    }
+
+    @Test
+    public void unsubscribeAll_UsesTopicList() {
+        when(mockRegistrationDao.getRegistration(HEALTH_CODE, SMS_REGISTRATION.getGuid())).thenReturn(
+                SMS_REGISTRATION);
+        when(mockSubscriptionDao.listSubscriptions(SMS_REGISTRATION)).thenReturn((List) ImmutableList.of(
+                getSub(MANUAL_TOPIC_1.getGuid()), getSub(MANUAL_TOPIC_2.getGuid())));
+
+        // Topic 2 was created after the list was cached.
+        when(mockTopicDao.listTopics(TEST_APP_ID, true)).thenReturn(ImmutableList.of(MANUAL_TOPIC_1));
+        when(mockTopicDao.getTopic(TEST_APP_ID, MANUAL_TOPIC_2.getGuid())).thenReturn(MANUAL_TOPIC_2);
+
+        service.unsubscribeAll(TEST_APP_ID, HEALTH_CODE, SMS_REGISTRATION.getGuid());
+
+        verify(mockTopicDao, never()).getTopic(TEST_APP_ID, MANUAL_TOPIC_1.getGuid());
+        verify(mockSubscriptionDao).unsubscribe(SMS_REGISTRATION, MANUAL_TOPIC_1);
+        verify(mockSubscriptionDao).unsubscribe(SMS_REGISTRATION, MANUAL_TOPIC_2);
+    }
+
     @Test
     public void unsubscribeAll_NoSubscriptions() {
         // Mock dependencies.
@@ -417,6 +528,30 @@ public class NotificationTopicServiceTest {
         verifyZeroInteractions(mockSubscriptionDao);
     }
 
+    @Test
+    public void subscribe_ReloadsTopicsForUnknownTopic() {
+        // Manual topic 2 was created on another server after the list was cached.
+        when(mockTopicDao.listTopics(TEST_APP_ID, false)).thenReturn(ImmutableList.of(MANUAL_TOPIC_1),
+                ImmutableList.of(MANUAL_TOPIC_1, MANUAL_TOPIC_2));
+        when(mockRegistrationDao.getRegistration(HEALTH_CODE, PUSH_REGISTRATION.getGuid())).thenReturn(
+                PUSH_REGISTRATION);
+        when(mockSubscriptionDao.listSubscriptions(PUSH_REGISTRATION)).thenReturn(ImmutableList.of());
+
+        List<SubscriptionStatus> statusList = service.subscribe(TEST_APP_ID, HEALTH_CODE, PUSH_REGISTRATION.getGuid(),
+                ImmutableSet.of(MANUAL_TOPIC_2.getGuid()));
+
+        // The list is read again, and the user is subscribed to the new topic.
+        verify(mockTopicDao, times(2)).listTopics(TEST_APP_ID, false);
+        verify(mockSubscriptionDao).subscribe(PUSH_REGISTRATION, MANUAL_TOPIC_2);
+        assertEquals(statusList.size(), 2);
+        assertTrue(statusList.get(1).isSubscribed());
+
+        // A known topic doesn't read the list again.
+        service.subscribe(TEST_APP_ID, HEALTH_CODE, PUSH_REGISTRATION.getGuid(),
+                ImmutableSet.of(MANUAL_TOPIC_1.getGuid()));
+        verify(mockTopicDao, times(2)).listTopics(TEST_APP_ID, false);
+    }
+
     @Test
     public void subscribe() {
         // 4 cases:
@@ -6,6 +6,7 @@ import static org.sagebionetworks.bridge.TestConstants.TEST_USER_ID;
 import static org.sagebionetworks.bridge.TestUtils.getNotificationMessage;
 import static org.sagebionetworks.bridge.TestUtils.getNotificationRegistration;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doReturn;
@@ -15,8 +16,13 @@ import static org.mockito.Mockito.verify;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
@@ -89,6 +95,7 @@ public class NotificationsServiceTest {
         service.setAppService(mockAppService);
         service.setNotificationRegistrationDao(mockRegistrationDao);
         service.setSnsClient(mockSnsClient);
+        service.setSnsExecutorService(MoreExecutors.newDirectExecutorService());
 
         Map<String,String> map = Maps.newHashMap();
         map.put(OS_NAME, PLATFORM_ARN);
@@ -320,6 +327,39 @@ public class NotificationsServiceTest {
         service.sendNotificationToUser(TEST_APP_ID, HEALTH_CODE, message);
     }
 
+    @Test
+    public void sendNotificationFansOutToDevices() {
+        List<NotificationRegistration> list = Lists.newArrayList();
+        for (int i = 0; i < 6; i++) {
+            NotificationRegistration registration = getNotificationRegistration();
+            registration.setGuid("registrationGuid" + i);
+            registration.setEndpoint("endpointARN" + i);
+            list.add(registration);
+        }
+        doReturn(list).when(mockRegistrationDao).listRegistrations(HEALTH_CODE);
+
+        InMemorySnsClient snsClient = new InMemorySnsClient();
+        snsClient.disableEndpoint("endpointARN2");
+        service.setSnsClient(snsClient);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2,
+                new ThreadFactoryBuilder().setNameFormat("sns-%d").build());
+        service.setSnsExecutorService(executorService);
+        try {
+            Set<String> erroredNotifications = service.sendNotificationToUser(TEST_APP_ID, HEALTH_CODE,
+                    getNotificationMessage());
+            assertEquals(erroredNotifications, ImmutableSet.of("registrationGuid2"));
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertEquals(ImmutableSet.copyOf(snsClient.getPublishedTargets()), ImmutableSet.of("endpointARN0",
+                "endpointARN1", "endpointARN3", "endpointARN4", "endpointARN5"));
+        assertTrue(snsClient.getPublishingThreads().stream().allMatch(name -> name.startsWith("sns-")));
+        // The pool bounds how many devices are sent to at once.
+        assertTrue(snsClient.getMaxConcurrentCalls() <= 2);
+    }
+
     private static NotificationRegistration getSmsNotificationRegistration() {
         NotificationRegistration registration = NotificationRegistration.create();
         registration.setHealthCode(HEALTH_CODE);
@@ -0,0 +1,535 @@
+package org.sagebionetworks.bridge.services;
+
+import static org.sagebionetworks.bridge.RequestContext.NULL_INSTANCE;
+import static org.sagebionetworks.bridge.services.OutboundMessageQueue.CONFIG_KEY_CLAIM_SECONDS;
+import static org.sagebionetworks.bridge.services.OutboundMessageQueue.CONFIG_KEY_MAX_ATTEMPTS;
+import static org.sagebionetworks.bridge.services.OutboundMessageQueue.CONFIG_KEY_POLL_MILLIS;
+import static org.sagebionetworks.bridge.services.OutboundMessageQueue.CONFIG_KEY_RETENTION_DAYS;
+import static org.sagebionetworks.bridge.services.OutboundMessageQueue.CONFIG_KEY_RETRY_DELAY_MILLIS;
+import static org.sagebionetworks.bridge.services.OutboundMessageQueue.CONFIG_KEY_SENDS_PER_SECOND;
+import static org.sagebionetworks.bridge.services.OutboundMessageQueue.CONFIG_KEY_THREAD_COUNT;
+import static org.sagebionetworks.bridge.services.OutboundMessageQueue.MAX_RECENT_DEAD_LETTERS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.joda.time.DateTimeUtils;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.RequestContext;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.dao.OutboundMessageDao;
+import org.sagebionetworks.bridge.dao.RateLimitDao;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.OutboundChannelStatus;
+import org.sagebionetworks.bridge.models.OutboundMessage;
+import org.sagebionetworks.bridge.models.OutboundMessage.Channel;
+import org.sagebionetworks.bridge.models.OutboundMessage.Status;
+
+public class OutboundMessageQueueTest extends Mockito {
+    private static final String CLAIM_TOKEN = "claim-token";
+    private static final String DESCRIPTION = "email with type VERIFY_EMAIL for app api";
+    private static final String MESSAGE_ID = "message-id";
+    private static final String OUTBOX_ID = "outbox-id";
+    private static final String REQUEST_ID = "request-id";
+    private static final long NOW = 1500000000000L;
+    private static final long CLAIM_MILLIS = 300000L;
+    private static final long RETENTION_MILLIS = 7L * 24L * 60L * 60L * 1000L;
+    private static final long TIMEOUT_MILLIS = 5000L;
+
+    @Mock
+    BridgeConfig mockConfig;
+
+    @Mock
+    OutboundMessageDao mockDao;
+
+    @Mock
+    RateLimitDao mockRateLimitDao;
+
+    @Mock
+    OutboundMessageSender mockEmailSender;
+
+    @Mock
+    OutboundMessageSender mockSmsSender;
+
+    OutboundMessageQueue queue;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        MockitoAnnotations.initMocks(this);
+        DateTimeUtils.setCurrentMillisFixed(NOW);
+
+        mockChannelConfig(Channel.EMAIL, 1, 0);
+        mockChannelConfig(Channel.SMS, 1, 0);
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_CLAIM_SECONDS)).thenReturn(300);
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_RETENTION_DAYS)).thenReturn(7);
+
+        queue = spy(new OutboundMessageQueue());
+        queue.setSender(Channel.EMAIL, mockEmailSender);
+        queue.setSender(Channel.SMS, mockSmsSender);
+        queue.setConfig(mockConfig);
+        queue.setOutboundMessageDao(mockDao);
+        queue.setRateLimitDao(mockRateLimitDao);
+        doReturn(true).when(queue).sleep(anyLong());
+
+        when(mockDao.claimMessages(any(), anyLong(), anyLong(), anyInt())).thenReturn(ImmutableList.of());
+        when(mockDao.updateMessage(any(), any())).thenReturn(true);
+        when(mockEmailSender.send(any())).thenReturn(MESSAGE_ID);
+        when(mockSmsSender.send(any())).thenReturn(MESSAGE_ID);
+    }
+
+    @AfterMethod
+    public void afterMethod() {
+        queue.stop();
+        RequestContext.set(NULL_INSTANCE);
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void submitAddsToOutbox() {
+        queue.start();
+        RequestContext.set(new RequestContext.Builder().withRequestId(REQUEST_ID).build());
+
+        OutboundMessage message = makeMessage(Channel.EMAIL);
+        queue.submit(message);
+
+        verify(mockDao).createMessage(message);
+        assertNotNull(message.getId());
+        assertEquals(message.getStatus(), Status.PENDING);
+        assertEquals(message.getAttempts(), 0);
+        assertEquals(message.getCreatedOn(), NOW);
+        assertEquals(message.getNextAttemptOn(), NOW);
+        assertEquals(message.getRequestId(), REQUEST_ID);
+
+        // The message is sent from the outbox, not by the caller.
+        verify(mockEmailSender, never()).send(any());
+        OutboundChannelStatus status = getStatus(Channel.EMAIL);
+        assertEquals(status.getSubmittedCount(), 1);
+        assertEquals(status.getSynchronousCount(), 0);
+    }
+
+    @Test
+    public void outboxErrorSendsOnCaller() {
+        queue.start();
+        doThrow(new RuntimeException("MySQL is unavailable")).when(mockDao).createMessage(any());
+
+        OutboundMessage message = makeMessage(Channel.SMS);
+        queue.submit(message);
+
+        verify(mockSmsSender).send(message);
+        verify(mockSmsSender).afterSend(message, MESSAGE_ID);
+        OutboundChannelStatus status = getStatus(Channel.SMS);
+        assertEquals(status.getSynchronousCount(), 1);
+        assertEquals(status.getSentCount(), 1);
+    }
+
+    @Test
+    public void disabledChannelSendsOnCaller() {
+        mockChannelConfig(Channel.SMS, 0, 0);
+        queue.setConfig(mockConfig);
+        queue.start();
+
+        OutboundMessage message = makeMessage(Channel.SMS);
+        queue.submit(message);
+
+        verify(mockDao, never()).createMessage(any());
+        verify(mockSmsSender).send(message);
+        verify(mockSmsSender).afterSend(message, MESSAGE_ID);
+        assertEquals(getStatus(Channel.SMS).getSynchronousCount(), 1);
+    }
+
+    @Test
+    public void unconfiguredQueueSendsOnCallerOnce() {
+        OutboundMessageQueue unconfiguredQueue = new OutboundMessageQueue();
+        unconfiguredQueue.setSender(Channel.SMS, mockSmsSender);
+        when(mockSmsSender.send(any())).thenThrow(makeServiceException(500,
+                AmazonServiceException.ErrorType.Service, "InternalError"));
+
+        unconfiguredQueue.submit(makeMessage(Channel.SMS));
+
+        verify(mockSmsSender, times(1)).send(any());
+        verify(mockSmsSender, never()).afterSend(any(), any());
+        OutboundChannelStatus status = unconfiguredQueue.getStatus().get(1);
+        assertEquals(status.getChannel(), "SMS");
+        assertEquals(status.getSynchronousCount(), 1);
+        assertEquals(status.getDeadLetteredCount(), 1);
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void submitWithoutSenderThrows() {
+        new OutboundMessageQueue().submit(makeMessage(Channel.EMAIL));
+    }
+
+    @Test
+    public void sendsClaimedMessage() {
+        mockChannelConfig(Channel.EMAIL, 2, 0);
+        queue.setConfig(mockConfig);
+        queue.start();
+
+        OutboundMessage message = makeClaimedMessage(Channel.EMAIL, 0);
+        when(mockDao.claimMessages(Channel.EMAIL, NOW, NOW + CLAIM_MILLIS, 2)).thenReturn(
+                ImmutableList.of(message), ImmutableList.of());
+        AtomicReference<String> threadName = new AtomicReference<>();
+        AtomicReference<String> requestId = new AtomicReference<>();
+        when(mockEmailSender.send(message)).thenAnswer(invocation -> {
+            threadName.set(Thread.currentThread().getName());
+            requestId.set(RequestContext.get().getId());
+            return MESSAGE_ID;
+        });
+
+        queue.poll();
+
+        // The message is removed from the outbox before it is logged.
+        verify(mockEmailSender, timeout(TIMEOUT_MILLIS)).afterSend(message, MESSAGE_ID);
+        InOrder inOrder = inOrder(mockEmailSender, mockDao);
+        inOrder.verify(mockEmailSender).send(message);
+        inOrder.verify(mockDao).deleteMessage(OUTBOX_ID);
+        inOrder.verify(mockEmailSender).afterSend(message, MESSAGE_ID);
+        verify(mockDao, never()).updateMessage(any(), any());
+
+        assertTrue(threadName.get().startsWith("outbox-email-"));
+        assertEquals(requestId.get(), REQUEST_ID);
+        OutboundChannelStatus status = getStatus(Channel.EMAIL);
+        assertEquals(status.getSentCount(), 1);
+        assertEquals(status.getLongestLatencyMillis(), 0L);
+    }
+
+    @Test
+    public void disabledChannelIsNotPolled() {
+        mockChannelConfig(Channel.SMS, 0, 0);
+        queue.setConfig(mockConfig);
+        queue.start();
+
+        queue.poll();
+
+        verify(mockDao).claimMessages(Channel.EMAIL, NOW, NOW + CLAIM_MILLIS, 1);
+        verify(mockDao, never()).claimMessages(eq(Channel.SMS), anyLong(), anyLong(), anyInt());
+    }
+
+    @Test
+    public void retryableErrorReschedules() {
+        queue.start();
+        OutboundMessage message = makeClaimedMessage(Channel.EMAIL, 1);
+        when(mockDao.claimMessages(Channel.EMAIL, NOW, NOW + CLAIM_MILLIS, 1)).thenReturn(
+                ImmutableList.of(message), ImmutableList.of());
+        when(mockEmailSender.send(message)).thenThrow(makeServiceException(400,
+                AmazonServiceException.ErrorType.Client, "Throttling"));
+
+        queue.poll();
+
+        // The claim is released, and the message is retried after a delay that grows with the attempts.
+        verify(mockDao, timeout(TIMEOUT_MILLIS)).updateMessage(message, CLAIM_TOKEN);
+        assertEquals(message.getStatus(), Status.PENDING);
+        assertEquals(message.getAttempts(), 2);
+        assertEquals(message.getNextAttemptOn(), NOW + 2000L);
+        assertNull(message.getClaimToken());
+        assertNull(message.getClaimedUntil());
+        assertTrue(message.getLastError().contains("Throttling"));
+        verify(mockDao, never()).deleteMessage(any());
+        verify(mockEmailSender, never()).afterSend(any(), any());
+        verify(queue, never()).sleep(anyLong());
+        assertEquals(getStatus(Channel.EMAIL).getRetriedCount(), 1);
+    }
+
+    @Test
+    public void deadLettersAfterMaxAttempts() {
+        queue.start();
+        OutboundMessage message = makeClaimedMessage(Channel.SMS, 2);
+        when(mockDao.claimMessages(Channel.SMS, NOW, NOW + CLAIM_MILLIS, 1)).thenReturn(
+                ImmutableList.of(message), ImmutableList.of());
+        when(mockSmsSender.send(message)).thenThrow(makeServiceException(500,
+                AmazonServiceException.ErrorType.Service, "InternalError"));
+
+        queue.poll();
+
+        // The message is kept in the outbox for investigation.
+        verify(mockDao, timeout(TIMEOUT_MILLIS)).updateMessage(message, CLAIM_TOKEN);
+        assertEquals(message.getStatus(), Status.DEAD);
+        assertEquals(message.getAttempts(), 3);
+        assertNull(message.getClaimToken());
+        verify(mockDao, never()).deleteMessage(any());
+
+        OutboundChannelStatus status = getStatus(Channel.SMS);
+        assertEquals(status.getRetriedCount(), 0);
+        assertEquals(status.getDeadLetteredCount(), 1);
+        assertEquals(status.getRecentDeadLetters().size(), 1);
+        assertTrue(status.getRecentDeadLetters().get(0).startsWith(DESCRIPTION + ": "));
+    }
+
+    @Test
+    public void nonRetryableErrorIsDeadLetteredImmediately() {
+        queue.start();
+        OutboundMessage message = makeClaimedMessage(Channel.EMAIL, 0);
+        when(mockDao.claimMessages(Channel.EMAIL, NOW, NOW + CLAIM_MILLIS, 1)).thenReturn(
+                ImmutableList.of(message), ImmutableList.of());
+        when(mockEmailSender.send(message)).thenThrow(makeServiceException(400,
+                AmazonServiceException.ErrorType.Client, "MessageRejected"));
+
+        queue.poll();
+
+        verify(mockDao, timeout(TIMEOUT_MILLIS)).updateMessage(message, CLAIM_TOKEN);
+        assertEquals(message.getStatus(), Status.DEAD);
+        assertEquals(message.getAttempts(), 1);
+        assertEquals(getStatus(Channel.EMAIL).getDeadLetteredCount(), 1);
+    }
+
+    @Test
+    public void lostClaimIsNotOverwritten() {
+        queue.start();
+        OutboundMessage message = makeClaimedMessage(Channel.EMAIL, 1);
+        when(mockDao.claimMessages(Channel.EMAIL, NOW, NOW + CLAIM_MILLIS, 1)).thenReturn(
+                ImmutableList.of(message), ImmutableList.of());
+        when(mockEmailSender.send(message)).thenThrow(makeServiceException(503,
+                AmazonServiceException.ErrorType.Service, "ServiceUnavailable"));
+        // The claim ran out while the message was being sent, and another server has claimed it since.
+        when(mockDao.updateMessage(message, CLAIM_TOKEN)).thenReturn(false);
+
+        queue.poll();
+
+        // The update is conditional on this server's claim token, so the other server's claim is left alone.
+        verify(mockDao, timeout(TIMEOUT_MILLIS)).updateMessage(message, CLAIM_TOKEN);
+        verify(mockDao, never()).deleteMessage(any());
+        verify(mockEmailSender, never()).afterSend(any(), any());
+    }
+
+    @Test
+    public void afterSendErrorIsLogged() {
+        queue.start();
+        OutboundMessage message = makeClaimedMessage(Channel.SMS, 0);
+        when(mockDao.claimMessages(Channel.SMS, NOW, NOW + CLAIM_MILLIS, 1)).thenReturn(
+                ImmutableList.of(message), ImmutableList.of());
+        doThrow(new RuntimeException("DynamoDB is unavailable")).when(mockSmsSender).afterSend(any(), any());
+
+        queue.poll();
+
+        // The message was sent, so it is not sent again.
+        verify(mockDao, timeout(TIMEOUT_MILLIS)).deleteMessage(OUTBOX_ID);
+        verify(mockSmsSender, timeout(TIMEOUT_MILLIS)).afterSend(message, MESSAGE_ID);
+        verify(mockSmsSender, times(1)).send(message);
+        verify(mockDao, never()).updateMessage(any(), any());
+        assertEquals(getStatus(Channel.SMS).getDeadLetteredCount(), 0);
+    }
+
+    @Test
+    public void removeErrorStillLogsMessage() {
+        queue.start();
+        OutboundMessage message = makeClaimedMessage(Channel.EMAIL, 0);
+        when(mockDao.claimMessages(Channel.EMAIL, NOW, NOW + CLAIM_MILLIS, 1)).thenReturn(
+                ImmutableList.of(message), ImmutableList.of());
+        doThrow(new RuntimeException("MySQL is unavailable")).when(mockDao).deleteMessage(any());
+
+        queue.poll();
+
+        verify(mockEmailSender, timeout(TIMEOUT_MILLIS)).afterSend(message, MESSAGE_ID);
+        verify(mockDao, never()).updateMessage(any(), any());
+    }
+
+    @Test
+    public void waitsForClusterWidePermit() {
+        mockChannelConfig(Channel.EMAIL, 1, 14);
+        queue.setConfig(mockConfig);
+        queue.start();
+        OutboundMessage message = makeClaimedMessage(Channel.EMAIL, 0);
+        when(mockDao.claimMessages(Channel.EMAIL, NOW, NOW + CLAIM_MILLIS, 1)).thenReturn(
+                ImmutableList.of(message), ImmutableList.of());
+        when(mockRateLimitDao.tryAcquire("outbox-email", 14)).thenReturn(300L, 0L);
+
+        queue.poll();
+
+        verify(mockEmailSender, timeout(TIMEOUT_MILLIS)).afterSend(message, MESSAGE_ID);
+        verify(queue).sleep(300L);
+        verify(mockRateLimitDao, times(2)).tryAcquire("outbox-email", 14);
+    }
+
+    @Test
+    public void unlimitedChannelDoesNotCheckRateLimit() {
+        queue.start();
+        OutboundMessage message = makeClaimedMessage(Channel.EMAIL, 0);
+        when(mockDao.claimMessages(Channel.EMAIL, NOW, NOW + CLAIM_MILLIS, 1)).thenReturn(
+                ImmutableList.of(message), ImmutableList.of());
+
+        queue.poll();
+
+        verify(mockEmailSender, timeout(TIMEOUT_MILLIS)).afterSend(message, MESSAGE_ID);
+        verifyZeroInteractions(mockRateLimitDao);
+    }
+
+    @Test
+    public void rateLimitErrorReschedulesWithoutAttempt() {
+        mockChannelConfig(Channel.SMS, 1, 20);
+        queue.setConfig(mockConfig);
+        queue.start();
+        OutboundMessage message = makeClaimedMessage(Channel.SMS, 1);
+        when(mockDao.claimMessages(Channel.SMS, NOW, NOW + CLAIM_MILLIS, 1)).thenReturn(
+                ImmutableList.of(message), ImmutableList.of());
+        when(mockRateLimitDao.tryAcquire("outbox-sms", 20)).thenThrow(new RuntimeException("Redis is unavailable"));
+
+        queue.poll();
+
+        verify(mockDao, timeout(TIMEOUT_MILLIS)).updateMessage(message, CLAIM_TOKEN);
+        verify(mockSmsSender, never()).send(any());
+        assertEquals(message.getStatus(), Status.PENDING);
+        assertEquals(message.getAttempts(), 1);
+        assertEquals(message.getNextAttemptOn(), NOW + 1000L);
+        assertNull(message.getClaimToken());
+    }
+
+    @Test
+    public void interruptedWaitLeavesMessageClaimed() {
+        mockChannelConfig(Channel.EMAIL, 1, 14);
+        queue.setConfig(mockConfig);
+        queue.start();
+        doReturn(false).when(queue).sleep(anyLong());
+        OutboundMessage message = makeClaimedMessage(Channel.EMAIL, 0);
+        when(mockDao.claimMessages(Channel.EMAIL, NOW, NOW + CLAIM_MILLIS, 1)).thenReturn(
+                ImmutableList.of(message), ImmutableList.of());
+        when(mockRateLimitDao.tryAcquire("outbox-email", 14)).thenReturn(300L);
+
+        queue.poll();
+
+        verify(queue, timeout(TIMEOUT_MILLIS)).sleep(300L);
+        queue.stop();
+        verify(mockEmailSender, never()).send(any());
+        verify(mockDao, never()).updateMessage(any(), any());
+        verify(mockDao, never()).deleteMessage(any());
+    }
+
+    @Test
+    public void recentDeadLettersAreBounded() {
+        OutboundMessageQueue unconfiguredQueue = new OutboundMessageQueue();
+        unconfiguredQueue.setSender(Channel.EMAIL, mockEmailSender);
+        when(mockEmailSender.send(any())).thenThrow(new IllegalStateException("error"));
+
+        for (int i = 0; i < MAX_RECENT_DEAD_LETTERS + 5; i++) {
+            OutboundMessage message = makeMessage(Channel.EMAIL);
+            message.setDescription("message " + i);
+            unconfiguredQueue.submit(message);
+        }
+
+        OutboundChannelStatus status = unconfiguredQueue.getStatus().get(0);
+        assertEquals(status.getDeadLetteredCount(), MAX_RECENT_DEAD_LETTERS + 5);
+        List<String> deadLetters = status.getRecentDeadLetters();
+        assertEquals(deadLetters.size(), MAX_RECENT_DEAD_LETTERS);
+        assertEquals(deadLetters.get(0), "message 5: error");
+    }
+
+    @Test
+    public void statusCountsOutbox() {
+        mockChannelConfig(Channel.SMS, 0, 0);
+        queue.setConfig(mockConfig);
+        queue.start();
+        when(mockDao.countMessages(Channel.EMAIL, Status.PENDING)).thenReturn(5);
+        when(mockDao.countMessages(Channel.EMAIL, Status.DEAD)).thenReturn(2);
+
+        OutboundChannelStatus status = getStatus(Channel.EMAIL);
+        assertEquals(status.getThreadCount(), 1);
+        assertEquals(status.getMaxAttempts(), 3);
+        assertEquals(status.getPendingCount(), 5);
+        assertEquals(status.getDeadCount(), 2);
+
+        // The outbox is not used by a disabled channel.
+        assertEquals(getStatus(Channel.SMS).getPendingCount(), 0);
+        verify(mockDao, never()).countMessages(eq(Channel.SMS), any());
+    }
+
+    @Test
+    public void statusWithoutOutbox() {
+        queue.start();
+        when(mockDao.countMessages(any(), any())).thenThrow(new RuntimeException("MySQL is unavailable"));
+
+        OutboundChannelStatus status = getStatus(Channel.EMAIL);
+        assertEquals(status.getPendingCount(), 0);
+        assertEquals(status.getChannel(), "EMAIL");
+    }
+
+    @Test
+    public void purgeRemovesMessagesPastRetention() {
+        when(mockDao.deleteMessagesCreatedBefore(anyLong())).thenReturn(2);
+
+        queue.purge();
+
+        verify(mockDao).deleteMessagesCreatedBefore(NOW - RETENTION_MILLIS);
+    }
+
+    @Test
+    public void discardMessages() {
+        queue.discardMessages("api", ImmutableSet.of("email@example.com", "+12065551212"));
+
+        verify(mockDao).deleteMessagesForRecipients("api", ImmutableSet.of("email@example.com", "+12065551212"));
+    }
+
+    @Test
+    public void isRetryable() {
+        assertTrue(OutboundMessageQueue.isRetryable(new AmazonClientException("Connection reset")));
+        assertTrue(OutboundMessageQueue.isRetryable(makeServiceException(503,
+                AmazonServiceException.ErrorType.Service, "ServiceUnavailable")));
+        assertTrue(OutboundMessageQueue.isRetryable(makeServiceException(400,
+                AmazonServiceException.ErrorType.Client, "Throttled")));
+        assertTrue(OutboundMessageQueue.isRetryable(makeServiceException(429,
+                AmazonServiceException.ErrorType.Client, "TooManyRequests")));
+        assertFalse(OutboundMessageQueue.isRetryable(makeServiceException(400,
+                AmazonServiceException.ErrorType.Client, "InvalidParameter")));
+        assertFalse(OutboundMessageQueue.isRetryable(new IllegalArgumentException()));
+    }
+
+    private void mockChannelConfig(Channel channel, int threadCount, int sendsPerSecond) {
+        String name = channel.name().toLowerCase();
+        when(mockConfig.getPropertyAsInt(String.format(CONFIG_KEY_THREAD_COUNT, name))).thenReturn(threadCount);
+        when(mockConfig.getPropertyAsInt(String.format(CONFIG_KEY_MAX_ATTEMPTS, name))).thenReturn(3);
+        when(mockConfig.getPropertyAsInt(String.format(CONFIG_KEY_RETRY_DELAY_MILLIS, name))).thenReturn(1000);
+        when(mockConfig.getPropertyAsInt(String.format(CONFIG_KEY_SENDS_PER_SECOND, name))).thenReturn(
+                sendsPerSecond);
+        // Tests poll the outbox themselves.
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_POLL_MILLIS)).thenReturn(0);
+    }
+
+    private OutboundChannelStatus getStatus(Channel channel) {
+        return queue.getStatus().get(channel.ordinal());
+    }
+
+    private static OutboundMessage makeMessage(Channel channel) {
+        OutboundMessage message = new OutboundMessage();
+        message.setChannel(channel);
+        message.setAppId("api");
+        message.setDescription(DESCRIPTION);
+        message.setPayload(BridgeObjectMapper.get().createObjectNode());
+        return message;
+    }
+
+    private static OutboundMessage makeClaimedMessage(Channel channel, int attempts) {
+        OutboundMessage message = makeMessage(channel);
+        message.setId(OUTBOX_ID);
+        message.setStatus(Status.PENDING);
+        message.setAttempts(attempts);
+        message.setCreatedOn(NOW);
+        message.setNextAttemptOn(NOW);
+        message.setClaimToken(CLAIM_TOKEN);
+        message.setClaimedUntil(NOW + CLAIM_MILLIS);
+        message.setRequestId(REQUEST_ID);
+        return message;
+    }
+
+    private static AmazonServiceException makeServiceException(int statusCode,
+            AmazonServiceException.ErrorType errorType, String errorCode) {
+        AmazonServiceException ex = new AmazonServiceException("error");
+        ex.setStatusCode(statusCode);
+        ex.setErrorType(errorType);
+        ex.setErrorCode(errorCode);
+        return ex;
+    }
+}
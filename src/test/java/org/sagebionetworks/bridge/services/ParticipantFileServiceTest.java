@@ -139,6 +139,62 @@ public class ParticipantFileServiceTest {
         service.getParticipantFiles("userid", null, 100);
     }
 
+    @Test
+    public void getParticipantFilesUsesRecordedSizes() {
+        List<ParticipantFile> files = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            ParticipantFile file = ParticipantFile.create();
+            file.setSize(10L);
+            files.add(file);
+        }
+        when(mockFileDao.getParticipantFiles("userid", null, 100))
+                .thenReturn(new ForwardCursorPagedResourceList<>(files, null, true));
+
+        ForwardCursorPagedResourceList<ParticipantFile> result = service.getParticipantFiles("userid", null, 100);
+        assertEquals(result.getItems().size(), 11);
+
+        verify(mockS3Client, never()).getObjectMetadata(any(), any());
+        verify(mockFileDao, never()).uploadParticipantFile(any());
+    }
+
+    @Test
+    public void getParticipantFilesBackfillsSizes() {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(100);
+        metadata.setHeader(Headers.ETAG, "etag");
+        when(mockS3Client.getObjectMetadata(any(), any())).thenReturn(metadata);
+
+        ParticipantFile file = ParticipantFile.create();
+        file.setUserId("userid");
+        file.setFileId("fileid");
+        when(mockFileDao.getParticipantFiles("userid", null, 100))
+                .thenReturn(new ForwardCursorPagedResourceList<>(ImmutableList.of(file), null, true));
+
+        service.getParticipantFiles("userid", null, 100);
+
+        assertEquals(file.getSize(), Long.valueOf(100L));
+        assertEquals(file.getChecksum(), "etag");
+        verify(mockFileDao).uploadParticipantFile(file);
+    }
+
+    @Test
+    public void getParticipantFilesNotUploadedNotBackfilled() {
+        AmazonS3Exception notFoundException = new AmazonS3Exception("404 not found");
+        notFoundException.setStatusCode(404);
+        when(mockS3Client.getObjectMetadata(any(), any())).thenThrow(notFoundException);
+
+        ParticipantFile file = ParticipantFile.create();
+        file.setUserId("userid");
+        file.setFileId("fileid");
+        when(mockFileDao.getParticipantFiles("userid", null, 100))
+                .thenReturn(new ForwardCursorPagedResourceList<>(ImmutableList.of(file), null, true));
+
+        service.getParticipantFiles("userid", null, 100);
+
+        assertNull(file.getSize());
+        verify(mockFileDao, never()).uploadParticipantFile(any());
+    }
+
     @Test
     public void getParticipantFile() {
         String downloadUrl = "https://" + UPLOAD_BUCKET + "/test_user/file_id";
@@ -184,7 +240,9 @@ public class ParticipantFileServiceTest {
                         "RateLimiter should not have rejected download %d of 100 KB with initial of 1 MB", i + 1));
             }
         }
-        verify(mockS3Client, times(10)).getObjectMetadata(UPLOAD_BUCKET, "userid/fileid");
+        // The size is saved the first time it's retrieved from S3.
+        verify(mockS3Client, times(1)).getObjectMetadata(UPLOAD_BUCKET, "userid/fileid");
+        verify(mockFileDao, times(1)).uploadParticipantFile(file);
         service.getParticipantFile("userid", "fileid");
     }
 
@@ -259,6 +317,62 @@ public class ParticipantFileServiceTest {
         verify(mockFileDao).uploadParticipantFile(eq(file));
     }
 
+    @Test
+    public void createParticipantFileClearsSize() {
+        ParticipantFile file = ParticipantFile.create();
+        file.setFileId("file_id");
+        file.setMimeType("dummy-type");
+        file.setSize(100L);
+        file.setChecksum("etag");
+
+        ParticipantFile result = service.createParticipantFile("api", "test_user", file);
+        assertNull(result.getSize());
+        assertNull(result.getChecksum());
+    }
+
+    @Test
+    public void completeParticipantFile() {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(200);
+        metadata.setHeader(Headers.ETAG, "etag");
+        when(mockS3Client.getObjectMetadata(UPLOAD_BUCKET, "userid/fileid")).thenReturn(metadata);
+
+        ParticipantFile file = ParticipantFile.create();
+        file.setUserId("userid");
+        file.setFileId("fileid");
+        when(mockFileDao.getParticipantFile("userid", "fileid")).thenReturn(Optional.of(file));
+
+        ParticipantFile result = service.completeParticipantFile("userid", "fileid");
+        assertEquals(result.getSize(), Long.valueOf(200L));
+        assertEquals(result.getChecksum(), "etag");
+        verify(mockFileDao).uploadParticipantFile(file);
+
+        // Downloading the file no longer needs S3 to find its size.
+        service.getParticipantFile("userid", "fileid");
+        verify(mockS3Client, times(1)).getObjectMetadata(any(), any());
+    }
+
+    @Test(expectedExceptions = BadRequestException.class)
+    public void completeParticipantFileNotUploaded() {
+        AmazonS3Exception notFoundException = new AmazonS3Exception("404 not found");
+        notFoundException.setStatusCode(404);
+        when(mockS3Client.getObjectMetadata(any(), any())).thenThrow(notFoundException);
+
+        ParticipantFile file = ParticipantFile.create();
+        file.setUserId("userid");
+        file.setFileId("fileid");
+        when(mockFileDao.getParticipantFile("userid", "fileid")).thenReturn(Optional.of(file));
+
+        service.completeParticipantFile("userid", "fileid");
+    }
+
+    @Test(expectedExceptions = EntityNotFoundException.class)
+    public void completeParticipantFileNoSuchFile() {
+        when(mockFileDao.getParticipantFile(any(), any())).thenReturn(Optional.empty());
+
+        service.completeParticipantFile("userid", "fileid");
+    }
+
     @Test(expectedExceptions = InvalidEntityException.class)
     public void createParticipantFileInvalidFile() {
         ParticipantFile file = ParticipantFile.create();
@@ -0,0 +1,453 @@
+package org.sagebionetworks.bridge.services;
+
+import static org.sagebionetworks.bridge.TestConstants.TEST_APP_ID;
+import static org.sagebionetworks.bridge.services.DistributedLockService.CONFIG_KEY_EXPIRE_SECONDS;
+import static org.sagebionetworks.bridge.services.DistributedLockService.CONFIG_KEY_MAX_WAIT_MILLIS;
+import static org.sagebionetworks.bridge.services.ParticipantVersionExportQueue.CONFIG_KEY_WINDOW_MILLIS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Optional;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.BridgeConstants;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.dao.ParticipantVersionDao;
+import org.sagebionetworks.bridge.models.ParticipantVersionQueueEntry;
+import org.sagebionetworks.bridge.models.ParticipantVersionQueueStatus;
+import org.sagebionetworks.bridge.models.accounts.ParticipantVersion;
+import org.sagebionetworks.bridge.models.accounts.SharingScope;
+
+public class ParticipantVersionExportQueueTest extends Mockito {
+    private static final long NOW = DateTime.parse("2022-03-01T10:00:00.000Z").getMillis();
+    private static final int WINDOW_MILLIS = 1000;
+    private static final String WORKER_QUEUE_URL = "http://example.com/dummy-sqs-url";
+
+    @Mock
+    BridgeConfig mockConfig;
+
+    @Mock
+    ParticipantVersionDao mockParticipantVersionDao;
+
+    InMemorySqsClient sqsClient;
+
+    InMemoryParticipantVersionQueueDao queueDao;
+
+    InMemoryDistributedLockDao lockDao;
+
+    DistributedLockService lockService;
+
+    ParticipantVersionService participantVersionService;
+
+    ParticipantVersionExportQueue queue;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        MockitoAnnotations.initMocks(this);
+        DateTimeUtils.setCurrentMillisFixed(NOW);
+
+        when(mockConfig.getProperty(BridgeConstants.CONFIG_KEY_WORKER_SQS_URL)).thenReturn(WORKER_QUEUE_URL);
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_WINDOW_MILLIS)).thenReturn(WINDOW_MILLIS);
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_EXPIRE_SECONDS)).thenReturn(30);
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_MAX_WAIT_MILLIS)).thenReturn(20);
+
+        sqsClient = new InMemorySqsClient();
+        queueDao = new InMemoryParticipantVersionQueueDao();
+
+        lockDao = new InMemoryDistributedLockDao();
+        lockService = new DistributedLockService();
+        lockService.setDistributedLockDao(lockDao);
+        lockService.setConfig(mockConfig);
+
+        participantVersionService = new ParticipantVersionService();
+        participantVersionService.setConfig(mockConfig);
+        participantVersionService.setParticipantVersionDao(mockParticipantVersionDao);
+        participantVersionService.setSqsClient(sqsClient);
+        participantVersionService.setParticipantVersionQueueDao(queueDao);
+        participantVersionService.setLockService(lockService);
+
+        queue = makeQueue();
+    }
+
+    @AfterMethod
+    public void afterMethod() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void coalescesVersionsForParticipant() {
+        enqueue("healthCode1", SharingScope.SPONSORS_AND_PARTNERS);
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        assertEquals(queueDao.countEntries(), 1);
+
+        // Nothing is written until the window has passed.
+        queue.flush();
+        verify(mockParticipantVersionDao, never()).createParticipantVersion(any());
+
+        DateTimeUtils.setCurrentMillisFixed(NOW + WINDOW_MILLIS);
+        queue.flush();
+
+        ArgumentCaptor<ParticipantVersion> captor = ArgumentCaptor.forClass(ParticipantVersion.class);
+        verify(mockParticipantVersionDao).createParticipantVersion(captor.capture());
+        assertEquals(captor.getValue().getAppId(), TEST_APP_ID);
+        assertEquals(captor.getValue().getHealthCode(), "healthCode1");
+        assertEquals(captor.getValue().getSharingScope(), SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        assertEquals(captor.getValue().getParticipantVersion(), 1);
+
+        assertEquals(sqsClient.getBatchCount(), 1);
+        assertEquals(sqsClient.getSendCount(), 0);
+        assertEquals(sqsClient.getMessages().size(), 1);
+        assertTrue(sqsClient.getMessages().get(0).contains("healthCode1"));
+
+        ParticipantVersionQueueStatus status = queue.getStatus();
+        assertEquals(status.getWindowMillis(), WINDOW_MILLIS);
+        assertEquals(status.getEnqueuedCount(), 2);
+        assertEquals(status.getCoalescedCount(), 1);
+        assertEquals(status.getCreatedCount(), 1);
+        assertEquals(status.getPendingCount(), 0);
+        assertEquals(status.getExportBatchCount(), 1);
+    }
+
+    @Test
+    public void windowStartsWithFirstVersion() {
+        enqueue("healthCode1", SharingScope.SPONSORS_AND_PARTNERS);
+        DateTimeUtils.setCurrentMillisFixed(NOW + WINDOW_MILLIS - 1);
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        DateTimeUtils.setCurrentMillisFixed(NOW + WINDOW_MILLIS);
+
+        queue.flush();
+
+        verify(mockParticipantVersionDao).createParticipantVersion(any());
+    }
+
+    @Test
+    public void exportsInBatches() {
+        for (int i = 0; i < 12; i++) {
+            enqueue("healthCode" + i, SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        }
+        DateTimeUtils.setCurrentMillisFixed(NOW + WINDOW_MILLIS);
+        queue.flush();
+
+        verify(mockParticipantVersionDao, times(12)).createParticipantVersion(any());
+        assertEquals(sqsClient.getBatchCount(), 2);
+        assertEquals(sqsClient.getMessages().size(), 12);
+        assertEquals(queue.getStatus().getExportBatchCount(), 2);
+        assertEquals(queueDao.countEntries(), 0);
+    }
+
+    @Test
+    public void pendingVersionsSurviveRestart() {
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        queue.stop();
+
+        // Another server, or this one after a restart, writes the queued version.
+        DateTimeUtils.setCurrentMillisFixed(NOW + WINDOW_MILLIS);
+        makeQueue().flush();
+
+        verify(mockParticipantVersionDao).createParticipantVersion(any());
+        assertEquals(sqsClient.getMessages().size(), 1);
+        assertEquals(queueDao.countEntries(), 0);
+    }
+
+    @Test
+    public void retriesFailedExports() {
+        sqsClient.failMessagesContaining("healthCode2");
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        enqueue("healthCode2", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        DateTimeUtils.setCurrentMillisFixed(NOW + WINDOW_MILLIS);
+
+        queue.flush();
+        assertEquals(sqsClient.getMessages().size(), 1);
+        assertEquals(queue.getStatus().getExportFailedCount(), 1);
+        ParticipantVersionQueueEntry entry = queueDao.getEntry(TEST_APP_ID, "healthCode2");
+        assertEquals(entry.getWrittenVersion(), Integer.valueOf(1));
+        assertEquals(entry.getAttempts(), 1);
+        assertEquals(entry.getNextAttemptOn(), NOW + 2 * WINDOW_MILLIS);
+
+        // The failed export is retried after another window, without writing the version again.
+        when(mockParticipantVersionDao.getLatestParticipantVersionNumber(TEST_APP_ID, "healthCode2"))
+                .thenReturn(Optional.of(1));
+        sqsClient.clearFailures();
+        DateTimeUtils.setCurrentMillisFixed(NOW + 2 * WINDOW_MILLIS);
+        queue.flush();
+
+        verify(mockParticipantVersionDao, times(2)).createParticipantVersion(any());
+        assertEquals(sqsClient.getMessages().size(), 2);
+        assertTrue(sqsClient.getMessages().get(1).contains("healthCode2"));
+        ParticipantVersionQueueStatus status = queue.getStatus();
+        assertEquals(status.getPendingCount(), 0);
+        assertEquals(status.getDroppedCount(), 0);
+    }
+
+    @Test
+    public void failedExportFallsBackToSingleSend() {
+        sqsClient.failMessagesContaining("healthCode1");
+        when(mockParticipantVersionDao.getLatestParticipantVersionNumber(TEST_APP_ID, "healthCode1"))
+                .thenReturn(Optional.of(1));
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+
+        // The batch is tried MAX_ATTEMPTS - 1 times, then the request is sent on its own.
+        for (int i = 1; i < ParticipantVersionExportQueue.MAX_ATTEMPTS; i++) {
+            DateTimeUtils.setCurrentMillisFixed(NOW + i * WINDOW_MILLIS);
+            queue.flush();
+        }
+
+        verify(mockParticipantVersionDao).createParticipantVersion(any());
+        assertEquals(sqsClient.getSendCount(), 1);
+        assertEquals(sqsClient.getMessages().size(), 1);
+        ParticipantVersionQueueStatus status = queue.getStatus();
+        assertEquals(status.getExportFailedCount(), ParticipantVersionExportQueue.MAX_ATTEMPTS - 1);
+        assertEquals(status.getPendingCount(), 0);
+        assertEquals(status.getDroppedCount(), 0);
+    }
+
+    @Test
+    public void dropsExportAfterMaxAttempts() {
+        ParticipantVersionService mockService = mock(ParticipantVersionService.class);
+        when(mockService.writeParticipantVersion(any())).thenReturn(true);
+        when(mockService.exportParticipantVersions(any())).thenThrow(new RuntimeException());
+        doThrow(new RuntimeException()).when(mockService).exportParticipantVersion(any(), any(), anyInt());
+        queue.setParticipantVersionService(mockService);
+
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        for (int i = 1; i <= ParticipantVersionExportQueue.MAX_ATTEMPTS; i++) {
+            DateTimeUtils.setCurrentMillisFixed(NOW + i * WINDOW_MILLIS);
+            queue.flush();
+        }
+
+        verify(mockService, times(ParticipantVersionExportQueue.MAX_ATTEMPTS - 1)).exportParticipantVersions(any());
+        verify(mockService).exportParticipantVersion(TEST_APP_ID, "healthCode1", 0);
+        ParticipantVersionQueueStatus status = queue.getStatus();
+        assertEquals(status.getPendingCount(), 0);
+        assertEquals(status.getDroppedCount(), 1);
+    }
+
+    @Test
+    public void unchangedVersionIsNotExported() {
+        ParticipantVersion existing = makeVersion("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        existing.setParticipantVersion(3);
+        when(mockParticipantVersionDao.getLatestParticipantVersionForHealthCode(TEST_APP_ID, "healthCode1"))
+                .thenReturn(Optional.of(existing));
+
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        DateTimeUtils.setCurrentMillisFixed(NOW + WINDOW_MILLIS);
+        queue.flush();
+
+        verify(mockParticipantVersionDao, never()).createParticipantVersion(any());
+        assertEquals(sqsClient.getBatchCount(), 0);
+        assertEquals(queue.getStatus().getUnchangedCount(), 1);
+        assertEquals(queueDao.countEntries(), 0);
+    }
+
+    @Test
+    public void writeFailureDoesNotStopFlush() {
+        doThrow(new RuntimeException()).doNothing().when(mockParticipantVersionDao).createParticipantVersion(any());
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        enqueue("healthCode2", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        DateTimeUtils.setCurrentMillisFixed(NOW + WINDOW_MILLIS);
+
+        queue.flush();
+
+        verify(mockParticipantVersionDao, times(2)).createParticipantVersion(any());
+        assertEquals(sqsClient.getMessages().size(), 1);
+        ParticipantVersionQueueStatus status = queue.getStatus();
+        assertEquals(status.getWriteFailedCount(), 1);
+        assertEquals(status.getCreatedCount(), 1);
+        assertEquals(status.getPendingCount(), 1);
+        assertEquals(status.getDroppedCount(), 0);
+    }
+
+    @Test
+    public void retriesFailedWrites() {
+        doThrow(new RuntimeException()).doNothing().when(mockParticipantVersionDao).createParticipantVersion(any());
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        DateTimeUtils.setCurrentMillisFixed(NOW + WINDOW_MILLIS);
+
+        queue.flush();
+        ParticipantVersionQueueEntry entry = queueDao.getEntry(TEST_APP_ID, "healthCode1");
+        assertEquals(entry.getAttempts(), 1);
+        assertNull(entry.getWrittenVersion());
+
+        // The entry isn't retried until another window has passed.
+        queue.flush();
+        verify(mockParticipantVersionDao).createParticipantVersion(any());
+
+        DateTimeUtils.setCurrentMillisFixed(NOW + 2 * WINDOW_MILLIS);
+        queue.flush();
+
+        verify(mockParticipantVersionDao, times(2)).createParticipantVersion(any());
+        assertEquals(sqsClient.getMessages().size(), 1);
+        ParticipantVersionQueueStatus status = queue.getStatus();
+        assertEquals(status.getWriteFailedCount(), 1);
+        assertEquals(status.getCreatedCount(), 1);
+        assertEquals(status.getPendingCount(), 0);
+        assertEquals(status.getDroppedCount(), 0);
+    }
+
+    @Test
+    public void dropsWriteAfterMaxAttempts() {
+        doThrow(new RuntimeException()).when(mockParticipantVersionDao).createParticipantVersion(any());
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+
+        for (int i = 1; i <= ParticipantVersionExportQueue.MAX_ATTEMPTS + 1; i++) {
+            DateTimeUtils.setCurrentMillisFixed(NOW + i * WINDOW_MILLIS);
+            queue.flush();
+        }
+
+        verify(mockParticipantVersionDao, times(ParticipantVersionExportQueue.MAX_ATTEMPTS))
+                .createParticipantVersion(any());
+        ParticipantVersionQueueStatus status = queue.getStatus();
+        assertEquals(status.getPendingCount(), 0);
+        assertEquals(status.getDroppedCount(), 1);
+    }
+
+    @Test
+    public void failedWriteDoesNotReplaceNewerVersion() {
+        // The first write fails. A newer version is enqueued while it is being written.
+        doAnswer(invocation -> {
+            enqueue("healthCode1", SharingScope.SPONSORS_AND_PARTNERS);
+            throw new RuntimeException();
+        }).doNothing().when(mockParticipantVersionDao).createParticipantVersion(any());
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        DateTimeUtils.setCurrentMillisFixed(NOW + WINDOW_MILLIS);
+        queue.flush();
+
+        // The newer version has a clean slate, and is still due.
+        ParticipantVersionQueueEntry entry = queueDao.getEntry(TEST_APP_ID, "healthCode1");
+        assertEquals(entry.getAttempts(), 0);
+        assertEquals(entry.getNextAttemptOn(), NOW + WINDOW_MILLIS);
+
+        queue.flush();
+
+        ArgumentCaptor<ParticipantVersion> captor = ArgumentCaptor.forClass(ParticipantVersion.class);
+        verify(mockParticipantVersionDao, times(2)).createParticipantVersion(captor.capture());
+        assertEquals(captor.getAllValues().get(1).getSharingScope(), SharingScope.SPONSORS_AND_PARTNERS);
+        assertEquals(queueDao.countEntries(), 0);
+    }
+
+    @Test
+    public void versionEnqueuedDuringWriteStaysQueued() {
+        // A newer version is enqueued while the older one is being written.
+        doAnswer(invocation -> {
+            enqueue("healthCode1", SharingScope.SPONSORS_AND_PARTNERS);
+            return null;
+        }).doNothing().when(mockParticipantVersionDao).createParticipantVersion(any());
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        DateTimeUtils.setCurrentMillisFixed(NOW + WINDOW_MILLIS);
+        queue.flush();
+
+        // The older version was exported, and the newer one is left for the next flush.
+        assertEquals(sqsClient.getMessages().size(), 1);
+        ParticipantVersionQueueEntry entry = queueDao.getEntry(TEST_APP_ID, "healthCode1");
+        assertNotNull(entry);
+        assertNull(entry.getWrittenVersion());
+    }
+
+    @Test
+    public void zeroWindowWritesSynchronously() {
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_WINDOW_MILLIS)).thenReturn(0);
+        participantVersionService.setConfig(mockConfig);
+
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+
+        verify(mockParticipantVersionDao).createParticipantVersion(any());
+        assertEquals(sqsClient.getSendCount(), 1);
+        assertEquals(queueDao.countEntries(), 0);
+    }
+
+    @Test
+    public void discard() {
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        participantVersionService.discardPendingParticipantVersions(TEST_APP_ID, "healthCode1");
+
+        DateTimeUtils.setCurrentMillisFixed(NOW + WINDOW_MILLIS);
+        queue.flush();
+
+        verify(mockParticipantVersionDao, never()).createParticipantVersion(any());
+        assertEquals(queueDao.countEntries(), 0);
+    }
+
+    @Test
+    public void discardDropsExportRetries() {
+        sqsClient.failMessagesContaining("healthCode1");
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        enqueue("healthCode2", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        DateTimeUtils.setCurrentMillisFixed(NOW + WINDOW_MILLIS);
+        queue.flush();
+        assertEquals(queueDao.countEntries(), 1);
+
+        participantVersionService.discardPendingParticipantVersions(TEST_APP_ID, "healthCode1");
+        assertEquals(queueDao.countEntries(), 0);
+
+        sqsClient.clearFailures();
+        DateTimeUtils.setCurrentMillisFixed(NOW + 2 * WINDOW_MILLIS);
+        queue.flush();
+        assertEquals(sqsClient.getMessages().size(), 1);
+        assertTrue(sqsClient.getMessages().get(0).contains("healthCode2"));
+    }
+
+    @Test
+    public void flushWaitsForAppLock() {
+        // Another server is discarding a version for the app.
+        String lock = lockDao.acquireLock(ParticipantVersion.class, TEST_APP_ID);
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        DateTimeUtils.setCurrentMillisFixed(NOW + WINDOW_MILLIS);
+
+        queue.flush();
+        verify(mockParticipantVersionDao, never()).createParticipantVersion(any());
+        assertEquals(queueDao.countEntries(), 1);
+
+        lockDao.releaseLock(ParticipantVersion.class, TEST_APP_ID, lock);
+        queue.flush();
+        verify(mockParticipantVersionDao).createParticipantVersion(any());
+        assertEquals(queueDao.countEntries(), 0);
+    }
+
+    @Test
+    public void flushHoldsAppLockWhileWriting() {
+        // A discard for the app can't run while the version is written and exported.
+        doAnswer(invocation -> {
+            assertNotNull(lockDao.getLock(ParticipantVersion.class, TEST_APP_ID));
+            return null;
+        }).when(mockParticipantVersionDao).createParticipantVersion(any());
+        enqueue("healthCode1", SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        DateTimeUtils.setCurrentMillisFixed(NOW + WINDOW_MILLIS);
+
+        queue.flush();
+
+        assertNull(lockDao.getLock(ParticipantVersion.class, TEST_APP_ID));
+        assertEquals(sqsClient.getMessages().size(), 1);
+    }
+
+    private ParticipantVersionExportQueue makeQueue() {
+        ParticipantVersionExportQueue newQueue = new ParticipantVersionExportQueue();
+        newQueue.setConfig(mockConfig);
+        newQueue.setParticipantVersionService(participantVersionService);
+        newQueue.setParticipantVersionQueueDao(queueDao);
+        newQueue.setLockService(lockService);
+        return newQueue;
+    }
+
+    private void enqueue(String healthCode, SharingScope sharingScope) {
+        participantVersionService.enqueueParticipantVersion(makeVersion(healthCode, sharingScope));
+    }
+
+    private static ParticipantVersion makeVersion(String healthCode, SharingScope sharingScope) {
+        ParticipantVersion participantVersion = ParticipantVersion.create();
+        participantVersion.setAppId(TEST_APP_ID);
+        participantVersion.setHealthCode(healthCode);
+        participantVersion.setSharingScope(sharingScope);
+        return participantVersion;
+    }
+}
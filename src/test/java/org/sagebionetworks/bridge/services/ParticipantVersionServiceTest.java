@@ -1,10 +1,13 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -13,6 +16,7 @@ import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +35,7 @@ import org.sagebionetworks.bridge.TestConstants;
 import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.dao.ParticipantVersionDao;
+import org.sagebionetworks.bridge.dao.ParticipantVersionQueueDao;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.accounts.Account;
@@ -49,7 +54,11 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
 import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -89,6 +98,12 @@ public class ParticipantVersionServiceTest {
     @Mock
     private AmazonSQS mockSqsClient;
 
+    @Mock
+    private ParticipantVersionQueueDao mockQueueDao;
+
+    @Mock
+    private DistributedLockService mockLockService;
+
     @InjectMocks
     private ParticipantVersionService participantVersionService;
 
@@ -107,6 +122,13 @@ public class ParticipantVersionServiceTest {
         BridgeConfig mockConfig = mock(BridgeConfig.class);
         when(mockConfig.getProperty(BridgeConstants.CONFIG_KEY_WORKER_SQS_URL)).thenReturn(WORKER_QUEUE_URL);
         participantVersionService.setConfig(mockConfig);
+        participantVersionService.clearLatestVersionCache();
+
+        // The lock runs its task immediately.
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(2).run();
+            return null;
+        }).when(mockLockService).runWithLock(any(), any(), any());
 
         // Mock app service.
         app = TestUtils.getValidApp(ParticipantVersionServiceTest.class);
@@ -128,12 +150,16 @@ public class ParticipantVersionServiceTest {
         when(mockSqsClient.sendMessage(anyString(), anyString())).thenReturn(new SendMessageResult());
         DemographicUser appDemographicUser = new DemographicUser();
         appDemographicUser.setDemographics(APP_DEMOGRAPHICS);
-        when(demographicService.getDemographicUser(TestConstants.TEST_APP_ID, null, ACCOUNT_ID)).thenReturn(Optional.of(appDemographicUser));
         DemographicUser study1DemographicUser = new DemographicUser();
+        study1DemographicUser.setStudyId(STUDY_ID_1);
         study1DemographicUser.setDemographics(STUDY_DEMOGRAPHICS.get(STUDY_ID_1));
-        when(demographicService.getDemographicUser(TestConstants.TEST_APP_ID, STUDY_ID_1, ACCOUNT_ID)).thenReturn(Optional.of(study1DemographicUser));
-        // account is in this study but does not have demographics in it
-        when(demographicService.getDemographicUser(TestConstants.TEST_APP_ID, STUDY_ID_2, ACCOUNT_ID)).thenReturn(Optional.empty());
+        // account has demographics in a study it is no longer a member of; these are not included
+        DemographicUser otherStudyDemographicUser = new DemographicUser();
+        otherStudyDemographicUser.setStudyId("other-study");
+        otherStudyDemographicUser.setDemographics(APP_DEMOGRAPHICS);
+        // account is in study 2 but does not have demographics in it
+        when(demographicService.getDemographicUsersForUser(TestConstants.TEST_APP_ID, ACCOUNT_ID)).thenReturn(
+                ImmutableList.of(appDemographicUser, study1DemographicUser, otherStudyDemographicUser));
 
         // Make Account. Populate it with attributes we care about for Participant Versions.
         Account account = Account.create();
@@ -155,10 +181,10 @@ public class ParticipantVersionServiceTest {
 
         ArgumentCaptor<ParticipantVersion> participantVersionCaptor = ArgumentCaptor.forClass(
                 ParticipantVersion.class);
+        verify(mockQueueDao, never()).enqueue(any(), any(), any(), anyLong());
         verify(mockParticipantVersionDao).createParticipantVersion(participantVersionCaptor.capture());
-        verify(demographicService).getDemographicUser(TestConstants.TEST_APP_ID, null, ACCOUNT_ID);
-        verify(demographicService).getDemographicUser(TestConstants.TEST_APP_ID, STUDY_ID_1, ACCOUNT_ID);
-        verify(demographicService).getDemographicUser(TestConstants.TEST_APP_ID, STUDY_ID_2, ACCOUNT_ID);
+        verify(demographicService).getDemographicUsersForUser(TestConstants.TEST_APP_ID, ACCOUNT_ID);
+        verify(demographicService, never()).getDemographicUser(any(), any(), any());
 
         ParticipantVersion participantVersion = participantVersionCaptor.getValue();
         assertEquals(participantVersion.getAppId(), TestConstants.TEST_APP_ID);
@@ -240,8 +266,8 @@ public class ParticipantVersionServiceTest {
     @Test
     public void createParticipantVersionFromAccount_noAppDemographics() {
         when(mockSqsClient.sendMessage(anyString(), anyString())).thenReturn(new SendMessageResult());
-        when(demographicService.getDemographicUser(TestConstants.TEST_APP_ID, null, ACCOUNT_ID))
-                .thenReturn(Optional.empty());
+        when(demographicService.getDemographicUsersForUser(TestConstants.TEST_APP_ID, ACCOUNT_ID))
+                .thenReturn(ImmutableList.of());
 
         Account account = Account.create();
         account.setId(ACCOUNT_ID);
@@ -261,12 +287,41 @@ public class ParticipantVersionServiceTest {
         ArgumentCaptor<ParticipantVersion> participantVersionCaptor = ArgumentCaptor.forClass(
                 ParticipantVersion.class);
         verify(mockParticipantVersionDao).createParticipantVersion(participantVersionCaptor.capture());
-        verify(demographicService).getDemographicUser(TestConstants.TEST_APP_ID, null, ACCOUNT_ID);
+        verify(demographicService).getDemographicUsersForUser(TestConstants.TEST_APP_ID, ACCOUNT_ID);
 
         ParticipantVersion participantVersion = participantVersionCaptor.getValue();
         assertEquals(participantVersion.getAppDemographics(), null);
     }
 
+    @Test
+    public void createParticipantVersionFromAccount_Queued() {
+        BridgeConfig mockConfig = mock(BridgeConfig.class);
+        when(mockConfig.getPropertyAsInt(ParticipantVersionExportQueue.CONFIG_KEY_WINDOW_MILLIS)).thenReturn(500);
+        participantVersionService.setConfig(mockConfig);
+        when(mockQueueDao.enqueue(any(), any(), any(), anyLong())).thenReturn(false, true);
+
+        Account account = Account.create();
+        account.setId(ACCOUNT_ID);
+        account.setAppId(TestConstants.TEST_APP_ID);
+        account.setHealthCode(TestConstants.HEALTH_CODE);
+        account.setCreatedOn(CREATED_ON);
+        account.setSharingScope(SharingScope.ALL_QUALIFIED_RESEARCHERS);
+
+        // Execute twice. The second version replaces the first in the queue.
+        participantVersionService.createParticipantVersionFromAccount(account);
+        participantVersionService.createParticipantVersionFromAccount(account);
+
+        // The version is queued instead of written.
+        ArgumentCaptor<JsonNode> payloadCaptor = ArgumentCaptor.forClass(JsonNode.class);
+        verify(mockQueueDao, times(2)).enqueue(eq(TestConstants.TEST_APP_ID), eq(TestConstants.HEALTH_CODE),
+                payloadCaptor.capture(), eq(MOCK_NOW_MILLIS + 500));
+        verify(mockParticipantVersionDao, never()).createParticipantVersion(any());
+        assertEquals(payloadCaptor.getValue().get("createdOn").longValue(), CREATED_ON.getMillis());
+
+        assertEquals(participantVersionService.getEnqueuedCount(), 2);
+        assertEquals(participantVersionService.getCoalescedCount(), 1);
+    }
+
     // branch coverage: initial version with no createdOn
     @Test
     public void createParticipantVersion_NoCreatedOn() throws Exception {
@@ -362,6 +417,133 @@ public class ParticipantVersionServiceTest {
         verify(mockParticipantVersionDao, never()).createParticipantVersion(any());
     }
 
+    @Test
+    public void createParticipantVersion_IdenticalToCachedVersion() {
+        when(mockParticipantVersionDao.getLatestParticipantVersionForHealthCode(TestConstants.TEST_APP_ID,
+                TestConstants.HEALTH_CODE)).thenReturn(Optional.empty());
+        when(mockSqsClient.sendMessage(anyString(), anyString())).thenReturn(new SendMessageResult());
+
+        ParticipantVersion toCreate = ParticipantVersion.create();
+        toCreate.setAppId(TestConstants.TEST_APP_ID);
+        toCreate.setHealthCode(TestConstants.HEALTH_CODE);
+        toCreate.setSharingScope(SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        participantVersionService.createParticipantVersion(toCreate);
+
+        // The same version again is detected from the cached version. Only the latest version number is read, to
+        // confirm that the cached version is still the latest.
+        when(mockParticipantVersionDao.getLatestParticipantVersionNumber(TestConstants.TEST_APP_ID,
+                TestConstants.HEALTH_CODE)).thenReturn(Optional.of(1));
+
+        ParticipantVersion identical = ParticipantVersion.create();
+        identical.setAppId(TestConstants.TEST_APP_ID);
+        identical.setHealthCode(TestConstants.HEALTH_CODE);
+        identical.setSharingScope(SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        participantVersionService.createParticipantVersion(identical);
+
+        verify(mockParticipantVersionDao).getLatestParticipantVersionNumber(TestConstants.TEST_APP_ID,
+                TestConstants.HEALTH_CODE);
+        verify(mockParticipantVersionDao).getLatestParticipantVersionForHealthCode(TestConstants.TEST_APP_ID,
+                TestConstants.HEALTH_CODE);
+        verify(mockParticipantVersionDao).createParticipantVersion(any());
+    }
+
+    @Test
+    public void createParticipantVersion_CachedVersionIsStale() {
+        when(mockParticipantVersionDao.getLatestParticipantVersionForHealthCode(TestConstants.TEST_APP_ID,
+                TestConstants.HEALTH_CODE)).thenReturn(Optional.empty());
+        when(mockSqsClient.sendMessage(anyString(), anyString())).thenReturn(new SendMessageResult());
+
+        ParticipantVersion toCreate = ParticipantVersion.create();
+        toCreate.setAppId(TestConstants.TEST_APP_ID);
+        toCreate.setHealthCode(TestConstants.HEALTH_CODE);
+        toCreate.setSharingScope(SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        participantVersionService.createParticipantVersion(toCreate);
+
+        // Another server has since written version 2, which is different.
+        ParticipantVersion otherServerVersion = ParticipantVersion.create();
+        otherServerVersion.setAppId(TestConstants.TEST_APP_ID);
+        otherServerVersion.setHealthCode(TestConstants.HEALTH_CODE);
+        otherServerVersion.setParticipantVersion(2);
+        otherServerVersion.setSharingScope(SharingScope.SPONSORS_AND_PARTNERS);
+        when(mockParticipantVersionDao.getLatestParticipantVersionNumber(TestConstants.TEST_APP_ID,
+                TestConstants.HEALTH_CODE)).thenReturn(Optional.of(2));
+        when(mockParticipantVersionDao.getLatestParticipantVersionForHealthCode(TestConstants.TEST_APP_ID,
+                TestConstants.HEALTH_CODE)).thenReturn(Optional.of(otherServerVersion));
+
+        // The version is identical to the cached version, but not to the latest version, so it's written.
+        ParticipantVersion identicalToCached = ParticipantVersion.create();
+        identicalToCached.setAppId(TestConstants.TEST_APP_ID);
+        identicalToCached.setHealthCode(TestConstants.HEALTH_CODE);
+        identicalToCached.setSharingScope(SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        participantVersionService.createParticipantVersion(identicalToCached);
+
+        verify(mockParticipantVersionDao, times(2)).getLatestParticipantVersionForHealthCode(
+                TestConstants.TEST_APP_ID, TestConstants.HEALTH_CODE);
+        ArgumentCaptor<ParticipantVersion> createdCaptor = ArgumentCaptor.forClass(ParticipantVersion.class);
+        verify(mockParticipantVersionDao, times(2)).createParticipantVersion(createdCaptor.capture());
+        assertEquals(createdCaptor.getAllValues().get(1).getParticipantVersion(), 3);
+    }
+
+    @Test
+    public void createParticipantVersion_ChangedFromCachedVersion() {
+        ParticipantVersion existing = ParticipantVersion.create();
+        existing.setAppId(TestConstants.TEST_APP_ID);
+        existing.setHealthCode(TestConstants.HEALTH_CODE);
+        existing.setParticipantVersion(1);
+        when(mockParticipantVersionDao.getLatestParticipantVersionForHealthCode(TestConstants.TEST_APP_ID,
+                TestConstants.HEALTH_CODE)).thenReturn(Optional.of(existing));
+        when(mockSqsClient.sendMessage(anyString(), anyString())).thenReturn(new SendMessageResult());
+
+        // Identical to the existing version, which is now cached.
+        ParticipantVersion identical = ParticipantVersion.create();
+        identical.setAppId(TestConstants.TEST_APP_ID);
+        identical.setHealthCode(TestConstants.HEALTH_CODE);
+        participantVersionService.createParticipantVersion(identical);
+
+        // A changed version is still read and written through the DAO.
+        ParticipantVersion changed = ParticipantVersion.create();
+        changed.setAppId(TestConstants.TEST_APP_ID);
+        changed.setHealthCode(TestConstants.HEALTH_CODE);
+        changed.setSharingScope(SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        participantVersionService.createParticipantVersion(changed);
+
+        verify(mockParticipantVersionDao, times(2)).getLatestParticipantVersionForHealthCode(
+                TestConstants.TEST_APP_ID, TestConstants.HEALTH_CODE);
+        ArgumentCaptor<ParticipantVersion> createdCaptor = ArgumentCaptor.forClass(ParticipantVersion.class);
+        verify(mockParticipantVersionDao).createParticipantVersion(createdCaptor.capture());
+        assertEquals(createdCaptor.getValue().getParticipantVersion(), 2);
+    }
+
+    @Test
+    public void deleteParticipantVersionsForHealthCodeClearsCachedVersion() {
+        when(mockParticipantVersionDao.getLatestParticipantVersionForHealthCode(TestConstants.TEST_APP_ID,
+                TestConstants.HEALTH_CODE)).thenReturn(Optional.empty());
+        when(mockSqsClient.sendMessage(anyString(), anyString())).thenReturn(new SendMessageResult());
+
+        ParticipantVersion toCreate = ParticipantVersion.create();
+        toCreate.setAppId(TestConstants.TEST_APP_ID);
+        toCreate.setHealthCode(TestConstants.HEALTH_CODE);
+        participantVersionService.createParticipantVersion(toCreate);
+
+        participantVersionService.deleteParticipantVersionsForHealthCode(TestConstants.TEST_APP_ID,
+                TestConstants.HEALTH_CODE);
+
+        // After the delete, the same version is created again.
+        ParticipantVersion recreate = ParticipantVersion.create();
+        recreate.setAppId(TestConstants.TEST_APP_ID);
+        recreate.setHealthCode(TestConstants.HEALTH_CODE);
+        participantVersionService.createParticipantVersion(recreate);
+
+        verify(mockParticipantVersionDao, times(2)).createParticipantVersion(any());
+    }
+
+    @Test
+    public void discardPendingParticipantVersions() {
+        participantVersionService.discardPendingParticipantVersions(TestConstants.TEST_APP_ID,
+                TestConstants.HEALTH_CODE);
+        verify(mockQueueDao).deleteEntry(TestConstants.TEST_APP_ID, TestConstants.HEALTH_CODE);
+    }
+
     @Test
     public void isIdenticalParticipantVersion_Identical() {
         // Make participant versions. Make them different in keys and timestamps. Should still be considered identical.
@@ -514,10 +696,56 @@ public class ParticipantVersionServiceTest {
         return participantVersion;
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void exportParticipantVersions() throws Exception {
+        SendMessageBatchResult batchResult = new SendMessageBatchResult();
+        batchResult.getFailed().add(new BatchResultErrorEntry().withId("1"));
+        when(mockSqsClient.sendMessageBatch(eq(WORKER_QUEUE_URL), any())).thenReturn(batchResult,
+                new SendMessageBatchResult());
+
+        List<ParticipantVersion> participantVersions = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            ParticipantVersion participantVersion = makeParticipantVersion();
+            participantVersion.setHealthCode("healthCode" + i);
+            participantVersions.add(participantVersion);
+        }
+
+        List<ParticipantVersion> failed = participantVersionService.exportParticipantVersions(participantVersions);
+        assertEquals(failed, ImmutableList.of(participantVersions.get(1)));
+
+        ArgumentCaptor<List<SendMessageBatchRequestEntry>> entriesCaptor = ArgumentCaptor.forClass(List.class);
+        verify(mockSqsClient, times(2)).sendMessageBatch(eq(WORKER_QUEUE_URL), entriesCaptor.capture());
+        List<List<SendMessageBatchRequestEntry>> batches = entriesCaptor.getAllValues();
+        assertEquals(batches.get(0).size(), 10);
+        assertEquals(batches.get(1).size(), 2);
+
+        SendMessageBatchRequestEntry entry = batches.get(1).get(1);
+        assertEquals(entry.getId(), "1");
+        WorkerRequest workerRequest = BridgeObjectMapper.get().readValue(entry.getMessageBody(),
+                WorkerRequest.class);
+        Ex3ParticipantVersionRequest participantVersionRequest = BridgeObjectMapper.get().convertValue(
+                workerRequest.getBody(), Ex3ParticipantVersionRequest.class);
+        assertEquals(participantVersionRequest.getHealthCode(), "healthCode11");
+        assertEquals(participantVersionRequest.getParticipantVersion(), PARTICIPANT_VERSION);
+    }
+
+    @Test
+    public void writeParticipantVersionDoesNotExport() {
+        when(mockParticipantVersionDao.getLatestParticipantVersionForHealthCode(TestConstants.TEST_APP_ID,
+                TestConstants.HEALTH_CODE)).thenReturn(Optional.empty());
+
+        assertTrue(participantVersionService.writeParticipantVersion(makeParticipantVersion()));
+
+        verify(mockParticipantVersionDao).createParticipantVersion(any());
+        verifyZeroInteractions(mockSqsClient);
+    }
+
     @Test
     public void deleteParticipantVersionsForHealthCode() {
         participantVersionService.deleteParticipantVersionsForHealthCode(TestConstants.TEST_APP_ID,
                 TestConstants.HEALTH_CODE);
+        verify(mockQueueDao).deleteEntry(TestConstants.TEST_APP_ID, TestConstants.HEALTH_CODE);
         verify(mockParticipantVersionDao).deleteParticipantVersionsForHealthCode(TestConstants.TEST_APP_ID,
                 TestConstants.HEALTH_CODE);
     }
@@ -2,7 +2,9 @@ package org.sagebionetworks.bridge.services;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 import static org.sagebionetworks.bridge.RequestContext.NULL_INSTANCE;
 import static org.sagebionetworks.bridge.Roles.ADMIN;
 import static org.sagebionetworks.bridge.Roles.STUDY_COORDINATOR;
@@ -37,7 +39,9 @@ import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
+import org.sagebionetworks.bridge.models.ReportIndexCacheStatus;
 import org.sagebionetworks.bridge.models.ReportTypeResourceList;
+import org.sagebionetworks.bridge.models.StreamingDateRangeResourceList;
 import org.sagebionetworks.bridge.models.ResourceList;
 import org.sagebionetworks.bridge.models.reports.ReportData;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
@@ -46,6 +50,7 @@ import org.sagebionetworks.bridge.models.reports.ReportType;
 
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 
@@ -113,6 +118,7 @@ public class ReportServiceTest extends Mockito {
     @BeforeMethod
     public void before() throws Exception {
         MockitoAnnotations.initMocks(this);
+        service.clearReportIndexCache();
         
         List<ReportData> list = Lists.newArrayList();
         list.add(createReport(LocalDate.parse("2015-02-10"), "First", "Name"));
@@ -251,6 +257,52 @@ public class ReportServiceTest extends Mockito {
         }
     }
     
+    @Test
+    public void streamStudyReport() {
+        doReturn(results.getItems()).when(mockReportDataDao).streamReportData(STUDY_REPORT_DATA_KEY, START_DATE,
+                END_DATE);
+        
+        StreamingDateRangeResourceList<ReportData> retrieved = service.streamStudyReport(
+                TEST_APP_ID, IDENTIFIER, START_DATE, END_DATE);
+        
+        verify(mockReportDataDao).streamReportData(STUDY_REPORT_DATA_KEY, START_DATE, END_DATE);
+        verify(mockReportDataDao, never()).getReportData(any(), any(), any());
+        assertSame(retrieved.getItems(), results.getItems());
+        assertEquals(retrieved.getStartDate(), START_DATE);
+        assertEquals(retrieved.getEndDate(), END_DATE);
+    }
+    
+    @Test
+    public void streamStudyReportNoDates() {
+        DateTimeUtils.setCurrentMillisFixed(DateTime.parse("2015-05-05T12:00:00.000Z").getMillis());
+        try {
+            LocalDate yesterday = LocalDate.parse("2015-05-04");
+            LocalDate today = LocalDate.parse("2015-05-05");
+            
+            StreamingDateRangeResourceList<ReportData> retrieved = service.streamStudyReport(
+                    TEST_APP_ID, IDENTIFIER, null, null);
+            
+            verify(mockReportDataDao).streamReportData(STUDY_REPORT_DATA_KEY, yesterday, today);
+            assertEquals(retrieved.getStartDate(), yesterday);
+            assertEquals(retrieved.getEndDate(), today);
+        } finally {
+            DateTimeUtils.setCurrentMillisSystem();
+        }
+    }
+    
+    @Test
+    public void streamStudyReportValidatesBeforeStreaming() {
+        try {
+            service.streamStudyReport(TEST_APP_ID, IDENTIFIER, END_DATE, START_DATE);
+            fail("Should have thrown exception");
+        } catch (BadRequestException e) {
+            // expected
+        }
+        invalid(() -> service.streamStudyReport(TEST_APP_ID, "bad identifier", START_DATE, END_DATE),
+                "identifier", "can only contain letters, numbers, underscore and dash");
+        verify(mockReportDataDao, never()).streamReportData(any(), any(), any());
+    }
+    
     @Test
     public void getParticipantReport() {
         doReturn(results).when(mockReportDataDao).getReportData(PARTICIPANT_REPORT_DATA_KEY, START_DATE, END_DATE);
@@ -343,6 +395,287 @@ public class ReportServiceTest extends Mockito {
         verify(mockReportIndexDao, never()).addIndex(any(), any());
     }
     
+    @Test
+    public void saveStudyReportCachesIndex() {
+        when(mockReportIndexDao.getIndex(STUDY_REPORT_DATA_KEY)).thenReturn(ReportIndex.create());
+        
+        service.saveStudyReport(TEST_APP_ID, IDENTIFIER, createReport(DATE, "First", "Name"));
+        service.saveStudyReport(TEST_APP_ID, IDENTIFIER, createReport(DATE, "Last", "Name"));
+        
+        verify(mockReportIndexDao).getIndex(STUDY_REPORT_DATA_KEY);
+        verify(mockReportDataDao, times(2)).saveReportData(any());
+        verify(mockReportIndexDao, never()).addIndex(any(), any());
+        
+        ReportIndexCacheStatus status = service.getReportIndexCacheStatus();
+        assertEquals(status.getSize(), 1L);
+        assertEquals(status.getHitCount(), 1L);
+        assertEquals(status.getMissCount(), 1L);
+        assertEquals(status.getHitRatio(), 0.5);
+    }
+    
+    @Test
+    public void saveParticipantReportCachesIndexAcrossParticipants() {
+        when(mockReportIndexDao.getIndex(any())).thenReturn(ReportIndex.create());
+        
+        service.saveParticipantReport(TEST_APP_ID, TEST_USER_ID, IDENTIFIER, HEALTH_CODE,
+                createReport(DATE, "First", "Name"));
+        service.saveParticipantReport(TEST_APP_ID, "otherUserId", IDENTIFIER, "otherHealthCode",
+                createReport(DATE, "First", "Name"));
+        
+        verify(mockReportIndexDao).getIndex(PARTICIPANT_REPORT_DATA_KEY);
+        verify(mockReportDataDao, times(2)).saveReportData(any());
+    }
+    
+    @Test
+    public void saveReportDoesNotCacheMissingIndex() {
+        service.saveStudyReport(TEST_APP_ID, IDENTIFIER, createReport(DATE, "First", "Name"));
+        service.saveStudyReport(TEST_APP_ID, IDENTIFIER, createReport(DATE, "Last", "Name"));
+        
+        verify(mockReportIndexDao, times(2)).getIndex(STUDY_REPORT_DATA_KEY);
+        verify(mockReportIndexDao, times(2)).addIndex(STUDY_REPORT_DATA_KEY, null);
+        assertEquals(service.getReportIndexCacheStatus().getSize(), 0L);
+    }
+    
+    @Test
+    public void updateReportIndexInvalidatesCache() {
+        when(mockReportIndexDao.getIndex(STUDY_REPORT_DATA_KEY)).thenReturn(ReportIndex.create());
+        service.saveStudyReport(TEST_APP_ID, IDENTIFIER, createReport(DATE, "First", "Name"));
+        
+        ReportIndex updatedIndex = ReportIndex.create();
+        updatedIndex.setIdentifier(IDENTIFIER);
+        service.updateReportIndex(TEST_APP_ID, ReportType.STUDY, updatedIndex);
+        
+        service.saveStudyReport(TEST_APP_ID, IDENTIFIER, createReport(DATE, "Last", "Name"));
+        
+        // Once for each save, and once for the update.
+        verify(mockReportIndexDao, times(3)).getIndex(STUDY_REPORT_DATA_KEY);
+    }
+    
+    @Test
+    public void deleteStudyReportInvalidatesCache() {
+        when(mockReportIndexDao.getIndex(STUDY_REPORT_DATA_KEY)).thenReturn(ReportIndex.create());
+        service.saveStudyReport(TEST_APP_ID, IDENTIFIER, createReport(DATE, "First", "Name"));
+        
+        service.deleteStudyReport(TEST_APP_ID, IDENTIFIER);
+        
+        when(mockReportIndexDao.getIndex(STUDY_REPORT_DATA_KEY)).thenReturn(null);
+        service.saveStudyReport(TEST_APP_ID, IDENTIFIER, createReport(DATE, "Last", "Name"));
+        
+        // The index was removed, so it is recreated.
+        verify(mockReportIndexDao).addIndex(STUDY_REPORT_DATA_KEY, null);
+    }
+    
+    @Test
+    public void deleteParticipantReportIndexInvalidatesCache() {
+        when(mockReportIndexDao.getIndex(any())).thenReturn(ReportIndex.create());
+        service.saveParticipantReport(TEST_APP_ID, TEST_USER_ID, IDENTIFIER, HEALTH_CODE,
+                createReport(DATE, "First", "Name"));
+        
+        service.deleteParticipantReportIndex(TEST_APP_ID, TEST_USER_ID, IDENTIFIER);
+        
+        when(mockReportIndexDao.getIndex(any())).thenReturn(null);
+        service.saveParticipantReport(TEST_APP_ID, TEST_USER_ID, IDENTIFIER, HEALTH_CODE,
+                createReport(DATE, "Last", "Name"));
+        
+        verify(mockReportIndexDao).addIndex(PARTICIPANT_REPORT_DATA_KEY, null);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void saveStudyReportBatch() {
+        ReportData report1 = createReport(LocalDate.parse("2015-02-10"), "First", "Name");
+        ReportData report2 = createReport(LocalDate.parse("2015-02-11"), "Last", "Name");
+        
+        service.saveStudyReportBatch(TEST_APP_ID, IDENTIFIER, ImmutableList.of(report1, report2));
+        
+        ArgumentCaptor<List<ReportData>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mockReportDataDao).saveReportDataBatch(captor.capture());
+        assertEquals(captor.getValue(), ImmutableList.of(report1, report2));
+        assertEquals(report1.getKey(), STUDY_REPORT_DATA_KEY.getKeyString());
+        assertEquals(report2.getKey(), STUDY_REPORT_DATA_KEY.getKeyString());
+        
+        // The index is resolved and created once for the whole batch.
+        verify(mockReportIndexDao).getIndex(STUDY_REPORT_DATA_KEY);
+        verify(mockReportIndexDao).addIndex(STUDY_REPORT_DATA_KEY, null);
+        verify(mockReportDataDao, never()).saveReportData(any());
+    }
+    
+    @Test
+    public void saveParticipantReportBatch() {
+        when(mockReportIndexDao.getIndex(PARTICIPANT_REPORT_DATA_KEY)).thenReturn(ReportIndex.create());
+        ReportData report1 = createReport(LocalDate.parse("2015-02-10"), "First", "Name");
+        ReportData report2 = createReport(LocalDate.parse("2015-02-11"), "Last", "Name");
+        
+        service.saveParticipantReportBatch(TEST_APP_ID, TEST_USER_ID, IDENTIFIER, HEALTH_CODE,
+                ImmutableList.of(report1, report2));
+        
+        verify(mockReportDataDao).saveReportDataBatch(ImmutableList.of(report1, report2));
+        assertEquals(report1.getKey(), PARTICIPANT_REPORT_DATA_KEY.getKeyString());
+        verify(mockReportIndexDao, never()).addIndex(any(), any());
+    }
+    
+    @Test
+    public void saveReportBatchNewIndexUsesFirstRecordStudies() {
+        ReportData report1 = createReport(LocalDate.parse("2015-02-10"), "First", "Name");
+        report1.setStudyIds(ImmutableSet.of("studyA"));
+        ReportData report2 = createReport(LocalDate.parse("2015-02-11"), "Last", "Name");
+        
+        service.saveStudyReportBatch(TEST_APP_ID, IDENTIFIER, ImmutableList.of(report1, report2));
+        
+        verify(mockReportIndexDao).addIndex(STUDY_REPORT_DATA_KEY, ImmutableSet.of("studyA"));
+    }
+    
+    @Test
+    public void saveReportBatchRejectsConflictingStudies() {
+        ReportData report1 = createReport(LocalDate.parse("2015-02-10"), "First", "Name");
+        report1.setStudyIds(ImmutableSet.of("studyA"));
+        ReportData report2 = createReport(LocalDate.parse("2015-02-11"), "Last", "Name");
+        report2.setStudyIds(ImmutableSet.of("studyB"));
+        
+        try {
+            service.saveStudyReportBatch(TEST_APP_ID, IDENTIFIER, ImmutableList.of(report1, report2));
+            fail("Should have thrown exception");
+        } catch (InvalidEntityException e) {
+            assertTrue(e.getMessage().contains("studyIds"));
+        }
+        verify(mockReportDataDao, never()).saveReportDataBatch(any());
+        verify(mockReportIndexDao, never()).addIndex(any(), any());
+    }
+    
+    @Test
+    public void saveReportBatchValidatesEveryRecord() {
+        ReportData report1 = createReport(LocalDate.parse("2015-02-10"), "First", "Name");
+        ReportData report2 = createReport(LocalDate.parse("2015-02-11"), "Last", "Name");
+        report2.setData(null);
+        
+        try {
+            service.saveStudyReportBatch(TEST_APP_ID, IDENTIFIER, ImmutableList.of(report1, report2));
+            fail("Should have thrown exception");
+        } catch (InvalidEntityException e) {
+            // expected
+        }
+        verify(mockReportDataDao, never()).saveReportDataBatch(any());
+    }
+    
+    @Test
+    public void saveReportBatchRejectsDuplicateDates() {
+        ReportData report1 = createReport(LocalDate.parse("2015-02-10"), "First", "Name");
+        ReportData report2 = createReport(LocalDate.parse("2015-02-10"), "Last", "Name");
+        
+        try {
+            service.saveStudyReportBatch(TEST_APP_ID, IDENTIFIER, ImmutableList.of(report1, report2));
+            fail("Should have thrown exception");
+        } catch (BadRequestException e) {
+            assertTrue(e.getMessage().contains("2015-02-10"));
+        }
+        verify(mockReportDataDao, never()).saveReportDataBatch(any());
+    }
+    
+    @Test
+    public void saveReportBatchRejectsSameInstantInDifferentZones() {
+        ReportData report1 = ReportData.create();
+        report1.setDateTime(DateTime.parse("2015-02-10T10:00:00.000-08:00"));
+        report1.setData(JsonNodeFactory.instance.objectNode());
+        ReportData report2 = ReportData.create();
+        report2.setDateTime(DateTime.parse("2015-02-10T18:00:00.000Z"));
+        report2.setData(JsonNodeFactory.instance.objectNode());
+        
+        try {
+            service.saveStudyReportBatch(TEST_APP_ID, IDENTIFIER, ImmutableList.of(report1, report2));
+            fail("Should have thrown exception");
+        } catch (BadRequestException e) {
+            // expected
+        }
+    }
+    
+    @Test(expectedExceptions = BadRequestException.class)
+    public void saveReportBatchTooLarge() {
+        List<ReportData> list = Lists.newArrayList();
+        LocalDate date = LocalDate.parse("2015-01-01");
+        for (int i = 0; i <= ReportService.MAX_BATCH_SIZE; i++) {
+            list.add(createReport(date.plusDays(i), "First", "Name"));
+        }
+        service.saveStudyReportBatch(TEST_APP_ID, IDENTIFIER, list);
+    }
+    
+    @Test
+    public void saveReportBatchEmpty() {
+        service.saveStudyReportBatch(TEST_APP_ID, IDENTIFIER, ImmutableList.of());
+        
+        verify(mockReportDataDao, never()).saveReportDataBatch(any());
+        verify(mockReportIndexDao, never()).addIndex(any(), any());
+    }
+    
+    @Test(expectedExceptions = EntityNotFoundException.class)
+    public void saveParticipantReportBatchChecksAccess() {
+        ReportIndex index = ReportIndex.create();
+        index.setStudyIds(ImmutableSet.of("studyA"));
+        when(mockReportIndexDao.getIndex(PARTICIPANT_REPORT_DATA_KEY)).thenReturn(index);
+        RequestContext.set(new RequestContext.Builder()
+                .withCallerUserId("some-other-user-id")
+                .withCallerEnrolledStudies(ImmutableSet.of("studyC")).build());
+        
+        service.saveParticipantReportBatch(TEST_APP_ID, TEST_USER_ID, IDENTIFIER, HEALTH_CODE,
+                ImmutableList.of(createReport(DATE, "First", "Name")));
+    }
+    
+    @Test
+    public void deleteStudyReportRecords() {
+        LocalDate startDate = LocalDate.parse("2015-05-05").minusDays(45);
+        LocalDate endDate = LocalDate.parse("2015-05-05");
+        doReturn(results).when(mockReportDataDao).getReportData(STUDY_REPORT_DATA_KEY, startDate, endDate);
+        DateTimeUtils.setCurrentMillisFixed(DateTime.parse("2015-05-05").getMillis());
+        try {
+            service.deleteStudyReportRecords(TEST_APP_ID, IDENTIFIER,
+                    ImmutableList.of("2015-02-10", "2015-02-11", "2015-02-10"));
+        } finally {
+            DateTimeUtils.setCurrentMillisSystem();
+        }
+        
+        // Duplicates are removed.
+        verify(mockReportDataDao).deleteReportDataRecords(STUDY_REPORT_DATA_KEY,
+                ImmutableList.of("2015-02-10", "2015-02-11"));
+        verify(mockReportIndexDao, never()).removeIndex(any());
+    }
+    
+    @Test
+    public void deleteStudyReportRecordsRemovesEmptyIndex() {
+        LocalDate startDate = LocalDate.parse("2015-05-05").minusDays(45);
+        LocalDate endDate = LocalDate.parse("2015-05-05");
+        doReturn(new DateRangeResourceList<>(ImmutableList.of())).when(mockReportDataDao)
+                .getReportData(STUDY_REPORT_DATA_KEY, startDate, endDate);
+        DateTimeUtils.setCurrentMillisFixed(DateTime.parse("2015-05-05").getMillis());
+        try {
+            service.deleteStudyReportRecords(TEST_APP_ID, IDENTIFIER, ImmutableList.of("2015-02-10"));
+        } finally {
+            DateTimeUtils.setCurrentMillisSystem();
+        }
+        
+        verify(mockReportIndexDao).removeIndex(STUDY_REPORT_DATA_KEY);
+    }
+    
+    @Test
+    public void deleteParticipantReportRecords() {
+        service.deleteParticipantReportRecords(TEST_APP_ID, TEST_USER_ID, IDENTIFIER,
+                ImmutableList.of("2015-02-10", "2015-02-11"), HEALTH_CODE);
+        
+        verify(mockReportIndexDao).getIndex(PARTICIPANT_REPORT_DATA_KEY);
+        verify(mockReportDataDao).deleteReportDataRecords(PARTICIPANT_REPORT_DATA_KEY,
+                ImmutableList.of("2015-02-10", "2015-02-11"));
+        verify(mockReportIndexDao, never()).removeIndex(any());
+    }
+    
+    @Test(expectedExceptions = BadRequestException.class)
+    public void deleteReportRecordsRequiresDates() {
+        service.deleteParticipantReportRecords(TEST_APP_ID, TEST_USER_ID, IDENTIFIER, ImmutableList.of(),
+                HEALTH_CODE);
+    }
+    
+    @Test(expectedExceptions = BadRequestException.class)
+    public void deleteReportRecordsRejectsBlankDate() {
+        service.deleteStudyReportRecords(TEST_APP_ID, IDENTIFIER, Lists.newArrayList("2015-02-10", " "));
+    }
+    
     @Test
     public void deleteStudyReport() {
         service.deleteStudyReport(TEST_APP_ID, IDENTIFIER);
@@ -28,6 +28,7 @@ import static org.testng.Assert.fail;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -38,6 +39,7 @@ import org.joda.time.Period;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -90,6 +92,9 @@ public class Schedule2ServiceTest extends Mockito {
     
     @Mock
     StudyActivityEventService mockStudyActivityEventService;
+    
+    @Mock
+    DistributedLockService mockLockService;
 
     @InjectMocks
     @Spy
@@ -105,6 +110,12 @@ public class Schedule2ServiceTest extends Mockito {
         doReturn(CREATED_ON).when(service).getCreatedOn();
         doReturn(MODIFIED_ON).when(service).getModifiedOn();
         doReturn(GUID).when(service).generateGuid();
+        when(mockLockService.callWithLock(any(), any(), any()))
+                .thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(2)).get());
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(2)).run();
+            return null;
+        }).when(mockLockService).runWithLock(any(), any(), any());
     }
     
     @AfterMethod
@@ -690,6 +701,7 @@ public class Schedule2ServiceTest extends Mockito {
         
         service.publishSchedule(TEST_APP_ID, GUID);
         
+        verify(mockLockService).callWithLock(eq(Schedule2.class), eq(GUID), any());
         verify(mockDao).updateSchedule(scheduleCaptor.capture());
         assertTrue(scheduleCaptor.getValue().isPublished());
         assertEquals(scheduleCaptor.getValue().getModifiedOn(), MODIFIED_ON);
@@ -737,6 +749,7 @@ public class Schedule2ServiceTest extends Mockito {
         
         service.deleteSchedule(TEST_APP_ID, GUID);
         
+        verify(mockLockService).runWithLock(eq(Schedule2.class), eq(GUID), any());
         verify(mockDao).deleteSchedule(existing);
         
         verify(mockStudyService).removeStudyEtags(TEST_APP_ID, GUID);
@@ -1144,6 +1157,10 @@ public class Schedule2ServiceTest extends Mockito {
         assertEquals(schedule, retValue);
         assertEquals(schedule.getGuid(), SCHEDULE_GUID);
         
+        // The existing schedule is read and updated under the schedule's lock.
+        InOrder inOrder = inOrder(mockLockService, mockDao);
+        inOrder.verify(mockLockService).callWithLock(eq(Schedule2.class), eq(SCHEDULE_GUID), any());
+        inOrder.verify(mockDao).getSchedule(TEST_APP_ID, SCHEDULE_GUID);
         verify(mockDao).updateSchedule(schedule);
         verify(mockStudyService).updateStudyEtags(TEST_APP_ID, SCHEDULE_GUID, MODIFIED_ON);
     }
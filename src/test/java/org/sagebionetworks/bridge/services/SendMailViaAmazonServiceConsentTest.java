@@ -84,6 +84,8 @@ public class SendMailViaAmazonServiceConsentTest {
 
         service = new SendMailViaAmazonService();
         service.setEmailClient(emailClient);
+        // An unconfigured queue sends each email on the caller's thread.
+        service.setOutboundMessageQueue(new OutboundMessageQueue());
         
         emailVerificationService = mock(EmailVerificationService.class);
         service.setEmailVerificationService(emailVerificationService);
@@ -1,24 +1,33 @@
 package org.sagebionetworks.bridge.services;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.models.apps.MimeType.HTML;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.models.OutboundMessage;
+import org.sagebionetworks.bridge.models.OutboundMessage.Channel;
 import org.sagebionetworks.bridge.models.apps.App;
 import org.sagebionetworks.bridge.models.apps.MimeType;
 import org.sagebionetworks.bridge.models.templates.TemplateRevision;
 import org.sagebionetworks.bridge.services.email.BasicEmailProvider;
 
 import com.amazonaws.services.simpleemail.AmazonSimpleEmailService;
+import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
 import com.amazonaws.services.simpleemail.model.SendRawEmailResult;
+import com.google.common.collect.ImmutableList;
 
 public class SendMailViaAmazonServiceTest {
 
@@ -38,6 +47,9 @@ public class SendMailViaAmazonServiceTest {
     @Mock
     private SendRawEmailResult result;
     
+    @Mock
+    private OutboundMessageQueue outboundMessageQueue;
+    
     @BeforeMethod
     public void before() {
         MockitoAnnotations.initMocks(this);
@@ -49,6 +61,8 @@ public class SendMailViaAmazonServiceTest {
         service = new SendMailViaAmazonService();
         service.setEmailClient(emailClient);
         service.setEmailVerificationService(emailVerificationService);
+        // An unconfigured queue sends each email on the caller's thread.
+        service.setOutboundMessageQueue(new OutboundMessageQueue());
     }
     
     @Test
@@ -90,4 +104,47 @@ public class SendMailViaAmazonServiceTest {
                 .build();
         service.sendEmail(provider);
     }
+    
+    @Test
+    public void verifiedEmailIsQueued() {
+        when(emailVerificationService.isVerified(SUPPORT_EMAIL)).thenReturn(true);
+        service.setOutboundMessageQueue(outboundMessageQueue);
+        
+        TemplateRevision revision = TemplateRevision.create();
+        revision.setSubject("subject");
+        revision.setDocumentContent("body");
+        revision.setMimeType(MimeType.HTML);
+        
+        BasicEmailProvider provider = new BasicEmailProvider.Builder()
+                .withApp(app)
+                .withRecipientEmail(RECIPIENT_EMAIL)
+                .withTemplateRevision(revision)
+                .build();
+        service.sendEmail(provider);
+        
+        verify(outboundMessageQueue).setSender(Channel.EMAIL, service);
+        ArgumentCaptor<OutboundMessage> messageCaptor = ArgumentCaptor.forClass(OutboundMessage.class);
+        verify(outboundMessageQueue).submit(messageCaptor.capture());
+        verify(emailClient, never()).sendRawEmail(any());
+        
+        OutboundMessage message = messageCaptor.getValue();
+        assertEquals(message.getChannel(), Channel.EMAIL);
+        assertEquals(message.getDescription(), "email with type UNKNOWN for app null");
+        assertEquals(message.getRecipient(), RECIPIENT_EMAIL);
+        assertEquals(message.getPayload().get(SendMailViaAmazonService.PAYLOAD_DESTINATION).textValue(),
+                RECIPIENT_EMAIL);
+        
+        // Any server can send the message from its payload.
+        when(result.getMessageId()).thenReturn("messageId");
+        when(emailClient.sendRawEmail(any())).thenReturn(result);
+        assertEquals(service.send(message), "messageId");
+        
+        ArgumentCaptor<SendRawEmailRequest> requestCaptor = ArgumentCaptor.forClass(SendRawEmailRequest.class);
+        verify(emailClient).sendRawEmail(requestCaptor.capture());
+        SendRawEmailRequest request = requestCaptor.getValue();
+        assertEquals(request.getDestinations(), ImmutableList.of(RECIPIENT_EMAIL));
+        assertTrue(request.getSource().contains(SUPPORT_EMAIL));
+        String rawMessage = new String(request.getRawMessage().getData().array(), UTF_8);
+        assertTrue(rawMessage.contains("Subject: subject"));
+    }
 }
@@ -2,19 +2,23 @@ package org.sagebionetworks.bridge.services;
 
 import static org.apache.commons.lang3.RandomStringUtils.randomAlphabetic;
 import static org.mockito.Mockito.any;
-import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.same;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.TestConstants.TEST_APP_ID;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 import java.util.List;
+import java.util.Optional;
 
 import com.amazonaws.services.sns.AmazonSNS;
 import com.amazonaws.services.sns.model.CheckIfPhoneNumberIsOptedOutRequest;
@@ -28,17 +32,27 @@ import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
 import org.joda.time.DateTimeZone;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
 import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.BridgeConstants;
+import org.sagebionetworks.bridge.RequestContext;
 import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.dao.AccountDao;
 import org.sagebionetworks.bridge.dao.SmsMessageDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.models.OutboundMessage;
+import org.sagebionetworks.bridge.models.OutboundMessage.Channel;
+import org.sagebionetworks.bridge.models.accounts.Account;
+import org.sagebionetworks.bridge.models.accounts.AccountId;
 import org.sagebionetworks.bridge.models.accounts.Phone;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.apps.App;
@@ -73,11 +87,20 @@ public class SmsServiceTest {
     private static final StudyParticipant PARTICIPANT_WITHOUT_TIME_ZONE = new StudyParticipant.Builder()
             .withId(USER_ID).withHealthCode(HEALTH_CODE).build();
 
+    // The account is loaded through a real AccountService, so the tests cover its access checks.
+    @Mock
+    private AccountDao mockAccountDao;
+    @InjectMocks
+    private AccountService accountService;
+
+    private Account account;
+    private AppService mockAppService;
     private HealthDataService mockHealthDataService;
     private SmsMessageDao mockMessageDao;
     private ParticipantService mockParticipantService;
     private UploadSchemaService mockSchemaService;
     private AmazonSNS mockSnsClient;
+    private SystemResourceRegistry registry;
     private App app;
     private SmsService svc;
 
@@ -88,6 +111,16 @@ public class SmsServiceTest {
 
     @BeforeMethod
     public void before() {
+        MockitoAnnotations.initMocks(this);
+
+        // The tests send to HEALTH_CODE as the user ID. The account is an ordinary participant, which other
+        // participants cannot see.
+        account = Account.create();
+        account.setId(HEALTH_CODE);
+        account.setAppId(TEST_APP_ID);
+        account.setHealthCode(HEALTH_CODE);
+        when(mockAccountDao.getAccount(AccountId.forId(TEST_APP_ID, HEALTH_CODE))).thenReturn(Optional.of(account));
+
         // Mock schema service to return dummy schema for message log. The schema is empty for the purposes of the
         // test, since we only care that it exists, not what's in it.
         mockSchemaService = mock(UploadSchemaService.class);
@@ -103,18 +136,36 @@ public class SmsServiceTest {
         app.setIdentifier(TEST_APP_ID);
         app.setShortName(APP_SHORT_NAME);
 
+        // Mock app service, which loads the app when a sent message is logged.
+        mockAppService = mock(AppService.class);
+        when(mockAppService.getApp(TEST_APP_ID)).thenReturn(app);
+
         // Mock other DAOs and services.
         mockHealthDataService = mock(HealthDataService.class);
         mockMessageDao = mock(SmsMessageDao.class);
         mockParticipantService = mock(ParticipantService.class);
 
+        // A new registry for each test, so each test checks the message log schema.
+        registry = new SystemResourceRegistry();
+
         // Set up service.
         svc = new SmsService();
+        svc.setAccountService(accountService);
+        svc.setAppService(mockAppService);
         svc.setHealthDataService(mockHealthDataService);
         svc.setMessageDao(mockMessageDao);
         svc.setParticipantService(mockParticipantService);
         svc.setSchemaService(mockSchemaService);
         svc.setSnsClient(mockSnsClient);
+        svc.setSystemResourceRegistry(registry);
+
+        // An unconfigured queue sends each message on the caller's thread.
+        svc.setOutboundMessageQueue(new OutboundMessageQueue());
+    }
+
+    @AfterMethod
+    public void after() {
+        RequestContext.set(RequestContext.NULL_INSTANCE);
     }
 
     @AfterClass
@@ -125,7 +176,7 @@ public class SmsServiceTest {
     @Test
     public void sendTransactionalSMSMessageOK() throws Exception {
         // Mock participant service.
-        when(mockParticipantService.getParticipant(any(), anyString(), eq(false))).thenReturn(
+        when(mockParticipantService.getParticipant(any(), same(account), eq(false))).thenReturn(
                 PARTICIPANT_WITH_TIME_ZONE);
 
         // Set up test and execute.
@@ -156,7 +207,7 @@ public class SmsServiceTest {
     @Test
     public void sendPromotionalSMSMessageOK() throws Exception {
         // Mock participant service.
-        when(mockParticipantService.getParticipant(any(), anyString(), eq(false))).thenReturn(
+        when(mockParticipantService.getParticipant(any(), same(account), eq(false))).thenReturn(
                 PARTICIPANT_WITH_TIME_ZONE);
 
         // Set up test and execute.
@@ -200,11 +251,10 @@ public class SmsServiceTest {
         verify(mockHealthDataService, never()).submitHealthData(any(), any(), any());
     }
 
-    // branch coverage
     @Test
-    public void sendSmsMessage_NoParticipant() throws Exception {
-        // Mock participant service.
-        when(mockParticipantService.getParticipant(any(), anyString(), eq(false))).thenReturn(null);
+    public void sendSmsMessage_AccountDeleted() throws Exception {
+        // The account was deleted before the message was logged.
+        when(mockAccountDao.getAccount(any())).thenReturn(Optional.empty());
 
         // Set up test and execute.
         SmsMessageProvider provider = new SmsMessageProvider.Builder()
@@ -212,19 +262,58 @@ public class SmsServiceTest {
                 .withTemplateRevision(REVISION)
                 .withPromotionType()
                 .withPhone(TestConstants.PHONE).build();
-        svc.sendSmsMessage(null, provider);
+        svc.sendSmsMessage(HEALTH_CODE, provider);
 
         // Everything else is verified. Just verified that the sent message contains no health code.
         verifyLoggedSmsMessage(null, MESSAGE_BODY, SmsType.PROMOTIONAL);
 
         // We submit no health data.
+        verify(mockParticipantService, never()).getParticipant(any(), any(Account.class), anyBoolean());
         verify(mockHealthDataService, never()).submitHealthData(any(), any(), any());
     }
 
+    @Test
+    public void afterSendWithoutCaller() throws Exception {
+        // The outbox logs the message on its own thread, where the request context only has the request ID.
+        RequestContext.set(new RequestContext.Builder().withRequestId("request-id").build());
+        verifyAfterSendLogsMessage();
+    }
+
+    @Test
+    public void afterSendWithCallerWhoCannotSeeAccount() throws Exception {
+        // The message is logged on the caller's thread if the outbox is disabled. The caller need not be able to see
+        // the recipient's account.
+        RequestContext.set(new RequestContext.Builder().withCallerAppId(TEST_APP_ID)
+                .withCallerUserId("other-participant").build());
+        assertFalse(accountService.getAccount(AccountId.forId(TEST_APP_ID, HEALTH_CODE)).isPresent());
+        verifyAfterSendLogsMessage();
+    }
+
+    private void verifyAfterSendLogsMessage() throws Exception {
+        when(mockParticipantService.getParticipant(same(app), same(account), eq(false))).thenReturn(
+                PARTICIPANT_WITH_TIME_ZONE);
+        OutboundMessageQueue mockQueue = mock(OutboundMessageQueue.class);
+        svc.setOutboundMessageQueue(mockQueue);
+
+        SmsMessageProvider provider = new SmsMessageProvider.Builder()
+                .withApp(app)
+                .withTemplateRevision(REVISION)
+                .withTransactionType()
+                .withPhone(TestConstants.PHONE).build();
+        svc.sendSmsMessage(HEALTH_CODE, provider);
+
+        ArgumentCaptor<OutboundMessage> messageCaptor = ArgumentCaptor.forClass(OutboundMessage.class);
+        verify(mockQueue).submit(messageCaptor.capture());
+        svc.afterSend(messageCaptor.getValue(), MESSAGE_ID);
+
+        verifyLoggedSmsMessage(HEALTH_CODE, MESSAGE_BODY, SmsType.TRANSACTIONAL);
+        verifyHealthData(PARTICIPANT_WITH_TIME_ZONE, TIME_ZONE, SmsType.TRANSACTIONAL, MESSAGE_BODY);
+    }
+
     @Test
     public void sendSmsMessage_ParticipantHasNoTimeZone() throws Exception {
         // Mock participant service.
-        when(mockParticipantService.getParticipant(any(), anyString(), eq(false))).thenReturn(
+        when(mockParticipantService.getParticipant(any(), same(account), eq(false))).thenReturn(
                 PARTICIPANT_WITHOUT_TIME_ZONE);
 
         // Set up test and execute.
@@ -242,7 +331,7 @@ public class SmsServiceTest {
     @Test
     public void sendSmsMessage_SchemaDoesNotExist() {
         // Mock participant service.
-        when(mockParticipantService.getParticipant(any(), anyString(), eq(false))).thenReturn(
+        when(mockParticipantService.getParticipant(any(), same(account), eq(false))).thenReturn(
                 PARTICIPANT_WITH_TIME_ZONE);
 
         // Schema Service has no schema (throws).
@@ -282,6 +371,47 @@ public class SmsServiceTest {
         assertTrue(fieldDefList.get(2).isUnboundedText());
     }
 
+    @Test
+    public void sendSmsMessage_SchemaIsCheckedOncePerApp() throws Exception {
+        when(mockParticipantService.getParticipant(any(), same(account), eq(false))).thenReturn(
+                PARTICIPANT_WITH_TIME_ZONE);
+        when(mockSchemaService.getUploadSchemaByIdAndRev(TEST_APP_ID, SmsService.MESSAGE_LOG_SCHEMA_ID,
+                SmsService.MESSAGE_LOG_SCHEMA_REV)).thenThrow(EntityNotFoundException.class);
+
+        SmsMessageProvider provider = new SmsMessageProvider.Builder()
+                .withApp(app)
+                .withTemplateRevision(REVISION)
+                .withPromotionType()
+                .withPhone(TestConstants.PHONE).build();
+        svc.sendSmsMessage(HEALTH_CODE, provider);
+        svc.sendSmsMessage(HEALTH_CODE, provider);
+
+        // The schema is read and created for the first message only. Both messages are recorded as health data.
+        verify(mockSchemaService).getUploadSchemaByIdAndRev(TEST_APP_ID, SmsService.MESSAGE_LOG_SCHEMA_ID,
+                SmsService.MESSAGE_LOG_SCHEMA_REV);
+        verify(mockSchemaService).createSchemaRevisionV4(eq(TEST_APP_ID), any());
+        verify(mockHealthDataService, times(2)).submitHealthData(eq(TEST_APP_ID), same(PARTICIPANT_WITH_TIME_ZONE),
+                any());
+    }
+
+    @Test
+    public void sendSmsMessage_SchemaIsCheckedAgainAfterInvalidation() throws Exception {
+        when(mockParticipantService.getParticipant(any(), same(account), eq(false))).thenReturn(
+                PARTICIPANT_WITH_TIME_ZONE);
+
+        SmsMessageProvider provider = new SmsMessageProvider.Builder()
+                .withApp(app)
+                .withTemplateRevision(REVISION)
+                .withPromotionType()
+                .withPhone(TestConstants.PHONE).build();
+        svc.sendSmsMessage(HEALTH_CODE, provider);
+        registry.invalidate(TEST_APP_ID, UploadSchemaService.getSchemaResourceKey(SmsService.MESSAGE_LOG_SCHEMA_ID));
+        svc.sendSmsMessage(HEALTH_CODE, provider);
+
+        verify(mockSchemaService, times(2)).getUploadSchemaByIdAndRev(TEST_APP_ID, SmsService.MESSAGE_LOG_SCHEMA_ID,
+                SmsService.MESSAGE_LOG_SCHEMA_REV);
+    }
+
     @Test(expectedExceptions = BridgeServiceException.class)
     public void sendSMSMessageTooLongInvalid() {
         TemplateRevision revision = TemplateRevision.create();
@@ -296,6 +426,64 @@ public class SmsServiceTest {
         svc.sendSmsMessage(HEALTH_CODE, provider);
     }
 
+    @Test
+    public void sendSmsMessageIsQueued() throws Exception {
+        OutboundMessageQueue mockQueue = mock(OutboundMessageQueue.class);
+        svc.setOutboundMessageQueue(mockQueue);
+
+        SmsMessageProvider provider = new SmsMessageProvider.Builder()
+                .withApp(app)
+                .withTemplateRevision(REVISION)
+                .withTransactionType()
+                .withPhone(TestConstants.PHONE).build();
+        svc.sendSmsMessage(HEALTH_CODE, provider);
+
+        verify(mockQueue).setSender(Channel.SMS, svc);
+        ArgumentCaptor<OutboundMessage> messageCaptor = ArgumentCaptor.forClass(OutboundMessage.class);
+        verify(mockQueue).submit(messageCaptor.capture());
+        verify(mockSnsClient, never()).publish(any());
+
+        OutboundMessage message = messageCaptor.getValue();
+        assertEquals(message.getChannel(), Channel.SMS);
+        assertEquals(message.getAppId(), TEST_APP_ID);
+        assertEquals(message.getDescription(), "SMS message Transactional for app " + TEST_APP_ID);
+        assertEquals(message.getRecipient(), TestConstants.PHONE.getNumber());
+        assertEquals(message.getPayload().get(SmsService.PAYLOAD_USER_ID).textValue(), HEALTH_CODE);
+        assertEquals(message.getPayload().get(SmsService.PAYLOAD_SMS_TYPE).textValue(), "TRANSACTIONAL");
+
+        // Any server can send and log the message from the outbox.
+        when(mockParticipantService.getParticipant(same(app), same(account), eq(false))).thenReturn(
+                PARTICIPANT_WITH_TIME_ZONE);
+        String messageId = svc.send(message);
+        svc.afterSend(message, messageId);
+
+        ArgumentCaptor<PublishRequest> requestCaptor = ArgumentCaptor.forClass(PublishRequest.class);
+        verify(mockSnsClient).publish(requestCaptor.capture());
+        PublishRequest request = requestCaptor.getValue();
+        assertEquals(request.getPhoneNumber(), TestConstants.PHONE.getNumber());
+        assertEquals(request.getMessage(), MESSAGE_BODY);
+        assertEquals(request.getMessageAttributes().get(BridgeConstants.AWS_SMS_TYPE).getStringValue(),
+                "Transactional");
+        assertEquals(request.getMessageAttributes().get(BridgeConstants.AWS_SMS_SENDER_ID).getDataType(), "String");
+        verifyLoggedSmsMessage(HEALTH_CODE, MESSAGE_BODY, SmsType.TRANSACTIONAL);
+        verifyHealthData(PARTICIPANT_WITH_TIME_ZONE, TIME_ZONE, SmsType.TRANSACTIONAL, MESSAGE_BODY);
+    }
+
+    @Test
+    public void sendSmsMessageLoggingErrorIsNotThrown() {
+        doThrow(new RuntimeException("DynamoDB is unavailable")).when(mockMessageDao).logMessage(any());
+
+        SmsMessageProvider provider = new SmsMessageProvider.Builder()
+                .withApp(app)
+                .withTemplateRevision(REVISION)
+                .withTransactionType()
+                .withPhone(TestConstants.PHONE).build();
+        svc.sendSmsMessage(null, provider);
+
+        // The message was sent, so it is not sent again.
+        verify(mockSnsClient).publish(any());
+    }
+
     private void verifyLoggedSmsMessage(String expectedHealthCode, String expectedMessage, SmsType expectedSmsType) {
         ArgumentCaptor<SmsMessage> loggedMessageCaptor = ArgumentCaptor.forClass(SmsMessage.class);
         verify(mockMessageDao).logMessage(loggedMessageCaptor.capture());
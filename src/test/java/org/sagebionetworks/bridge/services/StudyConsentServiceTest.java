@@ -87,6 +87,7 @@ public class StudyConsentServiceTest extends Mockito {
         StudyConsentValidator validator = new StudyConsentValidator();
         validator.setConsentBodyTemplate(new ByteArrayResource("<p>This is the template</p>".getBytes()));
         service.setValidator(validator);
+        service.clearDocumentCache();
     }
     
     @AfterMethod
@@ -205,6 +206,56 @@ public class StudyConsentServiceTest extends Mockito {
         assertEquals(result.getStudyConsent(), consent);
     }
 
+    @Test
+    public void getConsentReadsDocumentOnce() throws Exception {
+        StudyConsent consent = StudyConsent.create();
+        consent.setStoragePath(STORAGE_PATH);
+        consent.setCreatedOn(CREATED_ON);
+        consent.setSubpopulationGuid(SUBPOP_GUID.getGuid());
+        when(mockDao.getConsent(SUBPOP_GUID, CREATED_ON)).thenReturn(consent);
+        when(mockS3Helper.readS3FileAsString(CONSENT_BUCKET, STORAGE_PATH)).thenReturn(DOCUMENT);
+
+        StudyConsentView result1 = service.getConsent(SUBPOP_GUID, CREATED_ON);
+        StudyConsentView result2 = service.getConsent(SUBPOP_GUID, CREATED_ON);
+        assertSame(result2.getDocumentTemplate(), result1.getDocumentTemplate());
+        assertEquals(result2.getDocumentContent(), DOCUMENT + SIGNATURE_BLOCK);
+
+        verify(mockS3Helper).readS3FileAsString(CONSENT_BUCKET, STORAGE_PATH);
+    }
+
+    @Test
+    public void addConsentCachesDocument() throws Exception {
+        StudyConsent consent = StudyConsent.create();
+        consent.setStoragePath(STORAGE_PATH);
+        consent.setCreatedOn(CREATED_ON);
+        consent.setSubpopulationGuid(SUBPOP_GUID.getGuid());
+        when(mockDao.addConsent(SUBPOP_GUID, STORAGE_PATH, CREATED_ON)).thenReturn(consent);
+        when(mockDao.getConsent(SUBPOP_GUID, CREATED_ON)).thenReturn(consent);
+
+        service.addConsent(SUBPOP_GUID, FORM);
+        StudyConsentView result = service.getConsent(SUBPOP_GUID, CREATED_ON);
+        assertEquals(result.getDocumentContent(), DOCUMENT + SIGNATURE_BLOCK);
+
+        verify(mockS3Helper, never()).readS3FileAsString(any(), any());
+    }
+
+    @Test
+    public void deleteAllConsentsPermanentlyClearsCachedDocument() throws Exception {
+        StudyConsent consent = StudyConsent.create();
+        consent.setStoragePath(STORAGE_PATH);
+        consent.setCreatedOn(CREATED_ON);
+        consent.setSubpopulationGuid(SUBPOP_GUID.getGuid());
+        when(mockDao.getConsent(SUBPOP_GUID, CREATED_ON)).thenReturn(consent);
+        when(mockDao.getConsents(SUBPOP_GUID)).thenReturn(ImmutableList.of(consent));
+        when(mockS3Helper.readS3FileAsString(CONSENT_BUCKET, STORAGE_PATH)).thenReturn(DOCUMENT);
+
+        service.getConsent(SUBPOP_GUID, CREATED_ON);
+        service.deleteAllConsentsPermanently(SUBPOP_GUID);
+        service.getConsent(SUBPOP_GUID, CREATED_ON);
+
+        verify(mockS3Helper, times(2)).readS3FileAsString(CONSENT_BUCKET, STORAGE_PATH);
+    }
+
     @Test(expectedExceptions = EntityNotFoundException.class)
     public void getConsentNotFound() {
         service.getConsent(SUBPOP_GUID, CREATED_ON);
@@ -0,0 +1,114 @@
+package org.sagebionetworks.bridge.services;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SystemResourceRegistryTest {
+    private static final String APP_ID_1 = "app1";
+    private static final String APP_ID_2 = "app2";
+    private static final String RESOURCE_KEY = "uploadSchema:schema1";
+    private static final String OTHER_RESOURCE_KEY = "uploadSchema:schema2";
+    private static final long MOCK_NOW_MILLIS = DateTime.parse("2018-05-23T14:18:36.026Z").getMillis();
+
+    private SystemResourceRegistry registry;
+    private AtomicInteger initCount;
+
+    @BeforeMethod
+    public void before() {
+        DateTimeUtils.setCurrentMillisFixed(MOCK_NOW_MILLIS);
+        registry = new SystemResourceRegistry();
+        initCount = new AtomicInteger();
+    }
+
+    @AfterMethod
+    public void after() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void initializesOnce() {
+        registry.ensureExists(APP_ID_1, RESOURCE_KEY, initCount::incrementAndGet);
+        registry.ensureExists(APP_ID_1, RESOURCE_KEY, initCount::incrementAndGet);
+
+        assertEquals(initCount.get(), 1);
+        assertTrue(registry.isKnownToExist(APP_ID_1, RESOURCE_KEY));
+    }
+
+    @Test
+    public void initializesPerAppAndResource() {
+        registry.ensureExists(APP_ID_1, RESOURCE_KEY, initCount::incrementAndGet);
+        registry.ensureExists(APP_ID_2, RESOURCE_KEY, initCount::incrementAndGet);
+        registry.ensureExists(APP_ID_1, OTHER_RESOURCE_KEY, initCount::incrementAndGet);
+
+        assertEquals(initCount.get(), 3);
+    }
+
+    @Test
+    public void recordExpires() {
+        registry.ensureExists(APP_ID_1, RESOURCE_KEY, initCount::incrementAndGet);
+
+        // Just before the record expires, the initializer isn't run.
+        DateTimeUtils.setCurrentMillisFixed(MOCK_NOW_MILLIS + SystemResourceRegistry.EXPIRE_MILLIS - 1);
+        registry.ensureExists(APP_ID_1, RESOURCE_KEY, initCount::incrementAndGet);
+        assertEquals(initCount.get(), 1);
+
+        // Once it expires, the initializer is run again, in case another server deleted the resource.
+        DateTimeUtils.setCurrentMillisFixed(MOCK_NOW_MILLIS + SystemResourceRegistry.EXPIRE_MILLIS);
+        assertFalse(registry.isKnownToExist(APP_ID_1, RESOURCE_KEY));
+        registry.ensureExists(APP_ID_1, RESOURCE_KEY, initCount::incrementAndGet);
+        assertEquals(initCount.get(), 2);
+        assertTrue(registry.isKnownToExist(APP_ID_1, RESOURCE_KEY));
+    }
+
+    @Test
+    public void failedInitializerIsRunAgain() {
+        try {
+            registry.ensureExists(APP_ID_1, RESOURCE_KEY, () -> {
+                throw new IllegalStateException();
+            });
+            fail("expected exception");
+        } catch (IllegalStateException ex) {
+            // expected exception
+        }
+        assertFalse(registry.isKnownToExist(APP_ID_1, RESOURCE_KEY));
+
+        registry.ensureExists(APP_ID_1, RESOURCE_KEY, initCount::incrementAndGet);
+        assertEquals(initCount.get(), 1);
+    }
+
+    @Test
+    public void invalidate() {
+        registry.ensureExists(APP_ID_1, RESOURCE_KEY, initCount::incrementAndGet);
+        registry.ensureExists(APP_ID_1, OTHER_RESOURCE_KEY, initCount::incrementAndGet);
+
+        registry.invalidate(APP_ID_1, RESOURCE_KEY);
+        assertFalse(registry.isKnownToExist(APP_ID_1, RESOURCE_KEY));
+        assertTrue(registry.isKnownToExist(APP_ID_1, OTHER_RESOURCE_KEY));
+
+        registry.ensureExists(APP_ID_1, RESOURCE_KEY, initCount::incrementAndGet);
+        assertEquals(initCount.get(), 3);
+    }
+
+    @Test
+    public void invalidateApp() {
+        registry.ensureExists(APP_ID_1, RESOURCE_KEY, initCount::incrementAndGet);
+        registry.ensureExists(APP_ID_1, OTHER_RESOURCE_KEY, initCount::incrementAndGet);
+        registry.ensureExists(APP_ID_2, RESOURCE_KEY, initCount::incrementAndGet);
+
+        registry.invalidateApp(APP_ID_1);
+
+        assertFalse(registry.isKnownToExist(APP_ID_1, RESOURCE_KEY));
+        assertFalse(registry.isKnownToExist(APP_ID_1, OTHER_RESOURCE_KEY));
+        assertTrue(registry.isKnownToExist(APP_ID_2, RESOURCE_KEY));
+    }
+}
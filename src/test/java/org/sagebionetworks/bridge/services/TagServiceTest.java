@@ -1,43 +1,109 @@
 package org.sagebionetworks.bridge.services;
 
-import static org.testng.Assert.assertSame;
+import static org.sagebionetworks.bridge.services.TagService.LOADED_MARKER;
+import static org.sagebionetworks.bridge.services.TagService.TAG_CACHE_EXPIRE_SECONDS;
+import static org.testng.Assert.assertEquals;
 
 import java.util.List;
 import java.util.Map;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.dao.TagDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.hibernate.TagEventListener;
+import org.sagebionetworks.bridge.models.TagCacheStatus;
 
 public class TagServiceTest extends Mockito {
     @Mock
     TagDao mockDao;
     
-    @InjectMocks
+    @Mock
+    CacheProvider mockCacheProvider;
+    
+    @Mock
+    TagEventListener mockTagEventListener;
+    
     TagService service;
     
     @BeforeMethod
     public void beforeMethod() {
         MockitoAnnotations.initMocks(this);
+        
+        // A new service for each test, so its counters start at zero.
+        service = new TagService();
+        service.setTagDao(mockDao);
+        service.setCacheProvider(mockCacheProvider);
+        service.setTagEventListener(mockTagEventListener);
     }
 
     @Test
-    public void getTags() {
-        Map<String, List<String>> results = ImmutableMap.of();
-        when(mockDao.getTags()).thenReturn(results);
+    public void getTagsFromCache() {
+        when(mockCacheProvider.getSetMembers(CacheKey.tagValues()))
+                .thenReturn(ImmutableSet.of("b:2", LOADED_MARKER, "a:1", "b:1", "defaultTag"));
+        
+        Map<String, List<String>> retValue = service.getTags();
+        assertEquals(retValue, ImmutableMap.of("a", ImmutableList.of("1"), "b", ImmutableList.of("1", "2"),
+                "default", ImmutableList.of("defaultTag")));
+        
+        verify(mockDao, never()).getTagValues();
+        verify(mockCacheProvider, never()).addSetMembers(any(), any());
+        
+        TagCacheStatus status = service.getTagCacheStatus();
+        assertEquals(status.getHitCount(), 1);
+        assertEquals(status.getReloadCount(), 0);
+    }
+    
+    @Test
+    public void getTagsReloadsWhenNotCached() {
+        when(mockCacheProvider.getSetMembers(CacheKey.tagValues())).thenReturn(ImmutableSet.of());
+        when(mockDao.getTagValues()).thenReturn(ImmutableList.of("b:2", "a:1"));
         
         Map<String, List<String>> retValue = service.getTags();
-        assertSame(results, retValue);
+        assertEquals(retValue, ImmutableMap.of("a", ImmutableList.of("1"), "b", ImmutableList.of("2")));
+        
+        verify(mockCacheProvider).addSetMembers(CacheKey.tagValues(), "b:2", "a:1", LOADED_MARKER);
+        verify(mockCacheProvider).setExpiration(CacheKey.tagValues(), TAG_CACHE_EXPIRE_SECONDS);
+        
+        TagCacheStatus status = service.getTagCacheStatus();
+        assertEquals(status.getHitCount(), 0);
+        assertEquals(status.getReloadCount(), 1);
+        assertEquals(status.getLastReloadTagCount(), 2);
+    }
+    
+    @Test
+    public void getTagsReloadsWhenSetIsIncomplete() {
+        // Tags added by the event listener to a set that had expired, without the loaded marker
+        when(mockCacheProvider.getSetMembers(CacheKey.tagValues())).thenReturn(ImmutableSet.of("a:1"));
+        when(mockDao.getTagValues()).thenReturn(ImmutableList.of("a:1", "a:2"));
+        
+        Map<String, List<String>> retValue = service.getTags();
+        assertEquals(retValue, ImmutableMap.of("a", ImmutableList.of("1", "2")));
+        
+        verify(mockDao).getTagValues();
+        verify(mockCacheProvider).addSetMembers(CacheKey.tagValues(), "a:1", "a:2", LOADED_MARKER);
+    }
+    
+    @Test
+    public void getTagCacheStatus() {
+        when(mockTagEventListener.getAddedCount()).thenReturn(3L);
+        when(mockTagEventListener.getUnchangedCount()).thenReturn(10L);
+        when(mockTagEventListener.getInvalidationCount()).thenReturn(4L);
         
-        verify(mockDao).getTags();
+        TagCacheStatus status = service.getTagCacheStatus();
+        assertEquals(status.getAddedCount(), 3);
+        assertEquals(status.getUnchangedCount(), 10);
+        assertEquals(status.getInvalidationCount(), 4);
     }
     
     @Test
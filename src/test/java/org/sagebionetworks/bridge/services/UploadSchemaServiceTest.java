@@ -54,6 +54,7 @@ public class UploadSchemaServiceTest {
     private UploadSchemaDao dao;
     private UploadSchemaService svc;
     private SharedModuleMetadataService mockSharedModuleMetadataService;
+    private SystemResourceRegistry mockSystemResourceRegistry;
 
     @Captor
     ArgumentCaptor<String> queryCaptor;
@@ -71,6 +72,8 @@ public class UploadSchemaServiceTest {
         svc = new UploadSchemaService();
         svc.setUploadSchemaDao(dao);
         svc.setSharedModuleMetadataService(mockSharedModuleMetadataService);
+        mockSystemResourceRegistry = mock(SystemResourceRegistry.class);
+        svc.setSystemResourceRegistry(mockSystemResourceRegistry);
     }
 
     @Test(expectedExceptions = BadRequestException.class)
@@ -295,6 +298,7 @@ public class UploadSchemaServiceTest {
         // execute and verify delete call
         svc.deleteUploadSchemaById(TEST_APP_ID, SCHEMA_ID);
         verify(dao).deleteUploadSchemas(schemaListToDelete);
+        verify(mockSystemResourceRegistry).invalidate(TEST_APP_ID, UploadSchemaService.getSchemaResourceKey(SCHEMA_ID));
 
         // verify query args
         verify(mockSharedModuleMetadataService).queryAllMetadata(eq(false), eq(false), queryCaptor.capture(),
@@ -316,6 +320,7 @@ public class UploadSchemaServiceTest {
         // execute and verify delete call
         svc.deleteUploadSchemaByIdPermanently(TEST_APP_ID, SCHEMA_ID);
         verify(dao).deleteUploadSchemasPermanently(schemaListToDelete);
+        verify(mockSystemResourceRegistry).invalidate(TEST_APP_ID, UploadSchemaService.getSchemaResourceKey(SCHEMA_ID));
 
         // verify query args
         verify(mockSharedModuleMetadataService).queryAllMetadata(eq(false), eq(false), queryCaptor.capture(),
@@ -407,6 +412,7 @@ public class UploadSchemaServiceTest {
 
         svc.deleteUploadSchemaByIdAndRevisionPermanently(TEST_APP_ID, SCHEMA_ID, SCHEMA_REV);
         verify(dao).deleteUploadSchemasPermanently(ImmutableList.of(schema));
+        verify(mockSystemResourceRegistry).invalidate(TEST_APP_ID, UploadSchemaService.getSchemaResourceKey(SCHEMA_ID));
     }    
     
     @Test(expectedExceptions = BadRequestException.class)
@@ -494,6 +500,7 @@ public class UploadSchemaServiceTest {
         // Verify dependencies.
         verify(dao).getAllUploadSchemasAllRevisions(TEST_APP_ID, true);
         verify(dao).deleteUploadSchemasPermanently(same(schemeList));
+        verify(mockSystemResourceRegistry).invalidateApp(TEST_APP_ID);
     }
 
     @Test
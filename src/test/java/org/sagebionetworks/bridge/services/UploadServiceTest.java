@@ -7,6 +7,7 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -42,6 +43,7 @@ import static org.testng.Assert.fail;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
@@ -52,6 +54,7 @@ import java.util.Optional;
 import com.amazonaws.HttpMethod;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.sqs.AmazonSQS;
@@ -66,6 +69,7 @@ import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -214,6 +218,9 @@ public class UploadServiceTest {
 
     @Captor
     ArgumentCaptor<UploadRedriveList> uploadRedriveListArgumentCaptor;
+
+    @Captor
+    ArgumentCaptor<DeleteObjectsRequest> deleteObjectsRequestCaptor;
     
     @InjectMocks
     @Spy
@@ -510,16 +517,65 @@ public class UploadServiceTest {
     @Test
     public void deleteUploadsByHealthCodeWorks() {
         // Mock DAO.
-        when(mockUploadDao.deleteUploadsForHealthCode(HEALTH_CODE)).thenReturn(ImmutableList.of(UPLOAD_ID_1,
+        when(mockUploadDao.getUploadIdsForHealthCode(HEALTH_CODE)).thenReturn(ImmutableList.of(UPLOAD_ID_1,
                 UPLOAD_ID_2));
 
         // Execute.
         svc.deleteUploadsForHealthCode(HEALTH_CODE);
 
-        // Verify dependencies.
+        // Verify dependencies. Files are deleted before the records that point to them.
+        InOrder inOrder = inOrder(mockS3Client, mockUploadDao);
+        inOrder.verify(mockS3Client).deleteObjects(deleteObjectsRequestCaptor.capture());
+        inOrder.verify(mockUploadDao).deleteUploadsForHealthCode(HEALTH_CODE);
+
+        DeleteObjectsRequest request = deleteObjectsRequestCaptor.getValue();
+        assertEquals(request.getBucketName(), UPLOAD_BUCKET_NAME);
+        assertTrue(request.getQuiet());
+        assertEquals(request.getKeys().size(), 2);
+        assertEquals(request.getKeys().get(0).getKey(), UPLOAD_ID_1);
+        assertEquals(request.getKeys().get(1).getKey(), UPLOAD_ID_2);
+    }
+
+    @Test
+    public void deleteUploadsByHealthCodeDeletesFilesInBatches() {
+        List<String> uploadIds = new ArrayList<>();
+        for (int i = 0; i < UploadService.MAX_S3_DELETE_BATCH_SIZE + 1; i++) {
+            uploadIds.add("upload-" + i);
+        }
+        when(mockUploadDao.getUploadIdsForHealthCode(HEALTH_CODE)).thenReturn(uploadIds);
+
+        svc.deleteUploadsForHealthCode(HEALTH_CODE);
+
+        verify(mockS3Client, times(2)).deleteObjects(deleteObjectsRequestCaptor.capture());
+        List<DeleteObjectsRequest> requests = deleteObjectsRequestCaptor.getAllValues();
+        assertEquals(requests.get(0).getKeys().size(), UploadService.MAX_S3_DELETE_BATCH_SIZE);
+        assertEquals(requests.get(1).getKeys().size(), 1);
+        assertEquals(requests.get(1).getKeys().get(0).getKey(), "upload-1000");
         verify(mockUploadDao).deleteUploadsForHealthCode(HEALTH_CODE);
-        verify(mockS3Client).deleteObject(UPLOAD_BUCKET_NAME, UPLOAD_ID_1);
-        verify(mockS3Client).deleteObject(UPLOAD_BUCKET_NAME, UPLOAD_ID_2);
+    }
+
+    @Test
+    public void deleteUploadsByHealthCodeNoUploads() {
+        when(mockUploadDao.getUploadIdsForHealthCode(HEALTH_CODE)).thenReturn(ImmutableList.of());
+
+        svc.deleteUploadsForHealthCode(HEALTH_CODE);
+
+        verify(mockS3Client, never()).deleteObjects(any());
+        verify(mockUploadDao).deleteUploadsForHealthCode(HEALTH_CODE);
+    }
+
+    @Test
+    public void deleteUploadsByHealthCodeKeepsRecordsWhenFileDeletionFails() {
+        when(mockUploadDao.getUploadIdsForHealthCode(HEALTH_CODE)).thenReturn(ImmutableList.of(UPLOAD_ID_1));
+        when(mockS3Client.deleteObjects(any())).thenThrow(new AmazonS3Exception("test"));
+
+        try {
+            svc.deleteUploadsForHealthCode(HEALTH_CODE);
+            fail("Should have thrown exception");
+        } catch (AmazonS3Exception e) {
+            // expected
+        }
+        verify(mockUploadDao, never()).deleteUploadsForHealthCode(any());
     }
     
     @Test
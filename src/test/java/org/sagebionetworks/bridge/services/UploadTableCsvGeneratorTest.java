@@ -0,0 +1,399 @@
+package org.sagebionetworks.bridge.services;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.sagebionetworks.bridge.services.UploadTableCsvGenerator.CONFIG_KEY_MAX_PENDING;
+import static org.sagebionetworks.bridge.services.UploadTableCsvGenerator.CONFIG_KEY_PART_SIZE_BYTES;
+import static org.sagebionetworks.bridge.services.UploadTableCsvGenerator.CONFIG_KEY_THREAD_COUNT;
+import static org.sagebionetworks.bridge.services.UploadTableCsvGenerator.MAX_ATTEMPTS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.dao.UploadTableJobDao;
+import org.sagebionetworks.bridge.dao.UploadTableRowDao;
+import org.sagebionetworks.bridge.upload.UploadTableJob;
+import org.sagebionetworks.bridge.upload.UploadTableRow;
+import org.sagebionetworks.bridge.upload.UploadTableRowQuery;
+import org.sagebionetworks.bridge.util.S3MultipartOutputStream;
+
+public class UploadTableCsvGeneratorTest {
+    private static final String ASSESSMENT_GUID_A = "assessment-a";
+    private static final String ASSESSMENT_GUID_B = "assessment-b";
+    private static final String JOB_GUID = "test-job-guid";
+    private static final DateTime MOCK_NOW = DateTime.parse("2018-05-23T14:18:36.026Z");
+    private static final String RAW_DATA_BUCKET = "raw-data-bucket";
+    private static final String EXPECTED_S3_KEY = "upload-tables/" + TestConstants.TEST_APP_ID + "/" +
+            TestConstants.TEST_STUDY_ID + "/" + JOB_GUID + ".zip";
+
+    @Mock
+    private BridgeConfig mockConfig;
+
+    @Mock
+    private AmazonS3 mockS3Client;
+
+    @Mock
+    private UploadTableJobDao mockUploadTableJobDao;
+
+    @Mock
+    private UploadTableRowDao mockUploadTableRowDao;
+
+    private UploadTableCsvGenerator generator;
+
+    // Status and timestamps of the job each time it was saved, since the generator saves the same job twice.
+    private List<UploadTableJob.Status> savedStatusList;
+    private List<DateTime> savedStartedOnList;
+    private List<DateTime> savedFinishedOnList;
+
+    @BeforeMethod
+    public void before() {
+        MockitoAnnotations.initMocks(this);
+        DateTimeUtils.setCurrentMillisFixed(MOCK_NOW.getMillis());
+
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_THREAD_COUNT)).thenReturn(0);
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_MAX_PENDING)).thenReturn(1);
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_PART_SIZE_BYTES)).thenReturn(
+                S3MultipartOutputStream.MIN_PART_SIZE);
+        when(mockConfig.getProperty(UploadTableService.CONFIG_KEY_RAW_HEALTH_DATA_BUCKET))
+                .thenReturn(RAW_DATA_BUCKET);
+
+        savedStatusList = new ArrayList<>();
+        savedStartedOnList = new ArrayList<>();
+        savedFinishedOnList = new ArrayList<>();
+        doAnswer(invocation -> {
+            UploadTableJob job = invocation.getArgument(0);
+            savedStatusList.add(job.getStatus());
+            savedStartedOnList.add(job.getStartedOn());
+            savedFinishedOnList.add(job.getFinishedOn());
+            return null;
+        }).when(mockUploadTableJobDao).saveUploadTableJob(any());
+
+        generator = new UploadTableCsvGenerator();
+        generator.setConfig(mockConfig);
+        generator.setS3Client(mockS3Client);
+        generator.setUploadTableJobDao(mockUploadTableJobDao);
+        generator.setUploadTableRowDao(mockUploadTableRowDao);
+    }
+
+    @AfterMethod
+    public void after() {
+        generator.stop();
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void generate() throws Exception {
+        // Rows are in assessment order. The rows of an assessment can have different keys.
+        UploadTableRow row1 = makeRow("record-1", ASSESSMENT_GUID_A, ImmutableMap.of("meta", "m1"),
+                ImmutableMap.of("foo", "foo-value", "bar", "has,comma"));
+        UploadTableRow row2 = makeRow("record-2", ASSESSMENT_GUID_A, ImmutableMap.of(),
+                ImmutableMap.of("baz", "has \"quotes\""));
+        UploadTableRow row3 = makeRow("record-3", ASSESSMENT_GUID_B, ImmutableMap.of(),
+                ImmutableMap.of("answer", "line1\nline2"));
+        row3.setParticipantVersion(null);
+        mockRows(row1, row2, row3);
+
+        // S3 reads the stream during the call, so read it in the mock.
+        Map<String, String> csvByEntryName = new LinkedHashMap<>();
+        when(mockS3Client.putObject(any(PutObjectRequest.class))).thenAnswer(invocation -> {
+            PutObjectRequest request = invocation.getArgument(0);
+            try (ZipInputStream zipStream = new ZipInputStream(request.getInputStream())) {
+                ZipEntry entry;
+                while ((entry = zipStream.getNextEntry()) != null) {
+                    csvByEntryName.put(entry.getName(), new String(ByteStreams.toByteArray(zipStream), UTF_8));
+                }
+            }
+            return null;
+        });
+
+        // Execute.
+        UploadTableJob job = makeJob();
+        generator.generate(job);
+
+        // Verify the rows were streamed twice, for the study, including test data, created before the job started.
+        ArgumentCaptor<UploadTableRowQuery> queryCaptor = ArgumentCaptor.forClass(UploadTableRowQuery.class);
+        verify(mockUploadTableRowDao, times(2)).streamUploadTableRows(queryCaptor.capture(), any());
+        UploadTableRowQuery query = queryCaptor.getValue();
+        assertEquals(query.getAppId(), TestConstants.TEST_APP_ID);
+        assertEquals(query.getStudyId(), TestConstants.TEST_STUDY_ID);
+        assertTrue(query.getIncludeTestData());
+        assertEquals(query.getEndTime().getMillis(), MOCK_NOW.getMillis());
+
+        // Verify the zip file.
+        ArgumentCaptor<PutObjectRequest> putCaptor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(mockS3Client).putObject(putCaptor.capture());
+        assertEquals(putCaptor.getValue().getBucketName(), RAW_DATA_BUCKET);
+        assertEquals(putCaptor.getValue().getKey(), EXPECTED_S3_KEY);
+
+        assertEquals(csvByEntryName.size(), 2);
+        String createdOn = TestConstants.TIMESTAMP.toString();
+        assertEquals(csvByEntryName.get(ASSESSMENT_GUID_A + ".csv"),
+                "recordId,assessmentGuid,createdOn,testData,healthCode,participantVersion,metadata.meta,data.bar," +
+                        "data.baz,data.foo\r\n" +
+                "record-1,assessment-a," + createdOn + ",false," + TestConstants.HEALTH_CODE +
+                        ",1,m1,\"has,comma\",,foo-value\r\n" +
+                "record-2,assessment-a," + createdOn + ",false," + TestConstants.HEALTH_CODE +
+                        ",1,,,\"has \"\"quotes\"\"\",\r\n");
+        assertEquals(csvByEntryName.get(ASSESSMENT_GUID_B + ".csv"),
+                "recordId,assessmentGuid,createdOn,testData,healthCode,participantVersion,data.answer\r\n" +
+                "record-3,assessment-b," + createdOn + ",false," + TestConstants.HEALTH_CODE +
+                        ",,\"line1\nline2\"\r\n");
+
+        // Verify the job was started, then succeeded.
+        assertEquals(savedStatusList, ImmutableList.of(UploadTableJob.Status.IN_PROGRESS,
+                UploadTableJob.Status.SUCCEEDED));
+        assertEquals(savedStartedOnList.get(0).getMillis(), MOCK_NOW.getMillis());
+        assertNull(savedFinishedOnList.get(0));
+        assertEquals(savedFinishedOnList.get(1).getMillis(), MOCK_NOW.getMillis());
+        assertEquals(job.getS3Key(), EXPECTED_S3_KEY);
+    }
+
+    @Test
+    public void generate_SameKeyInMetadataAndData() throws Exception {
+        UploadTableRow row = makeRow("record-1", ASSESSMENT_GUID_A, ImmutableMap.of("foo", "metadata-value"),
+                ImmutableMap.of("foo", "data-value"));
+        mockRows(row);
+
+        Map<String, String> csvByEntryName = new LinkedHashMap<>();
+        when(mockS3Client.putObject(any(PutObjectRequest.class))).thenAnswer(invocation -> {
+            PutObjectRequest request = invocation.getArgument(0);
+            try (ZipInputStream zipStream = new ZipInputStream(request.getInputStream())) {
+                ZipEntry entry;
+                while ((entry = zipStream.getNextEntry()) != null) {
+                    csvByEntryName.put(entry.getName(), new String(ByteStreams.toByteArray(zipStream), UTF_8));
+                }
+            }
+            return null;
+        });
+
+        generator.generate(makeJob());
+
+        // The key gets a column for each, and they can be told apart.
+        String createdOn = TestConstants.TIMESTAMP.toString();
+        assertEquals(csvByEntryName.get(ASSESSMENT_GUID_A + ".csv"),
+                "recordId,assessmentGuid,createdOn,testData,healthCode,participantVersion,metadata.foo," +
+                        "data.foo\r\n" +
+                "record-1,assessment-a," + createdOn + ",false," + TestConstants.HEALTH_CODE +
+                        ",1,metadata-value,data-value\r\n");
+    }
+
+    @Test
+    public void generate_RowAddedBetweenPasses() throws Exception {
+        // The first pass sees no rows. The second pass sees a row.
+        UploadTableRow row = makeRow("record-1", ASSESSMENT_GUID_A, ImmutableMap.of(),
+                ImmutableMap.of("foo", "foo-value"));
+        doAnswer(invocation -> null).doAnswer(invocation -> {
+            Consumer<UploadTableRow> consumer = invocation.getArgument(1);
+            consumer.accept(row);
+            return null;
+        }).when(mockUploadTableRowDao).streamUploadTableRows(any(), any());
+
+        UploadTableJob job = makeJob();
+        generator.generate(job);
+
+        // The row's own keys are its columns.
+        assertEquals(job.getStatus(), UploadTableJob.Status.SUCCEEDED);
+        verify(mockS3Client).putObject(any(PutObjectRequest.class));
+    }
+
+    @Test
+    public void generate_RowChangedBetweenPasses() throws Exception {
+        // The row gets a new key after the first pass, so the first attempt's CSV would be missing a column.
+        UploadTableRow oldRow = makeRow("record-1", ASSESSMENT_GUID_A, ImmutableMap.of(),
+                ImmutableMap.of("foo", "foo-value"));
+        UploadTableRow newRow = makeRow("record-1", ASSESSMENT_GUID_A, ImmutableMap.of(),
+                ImmutableMap.of("foo", "foo-value", "bar", "bar-value"));
+        doAnswer(invocation -> {
+            Consumer<UploadTableRow> consumer = invocation.getArgument(1);
+            consumer.accept(oldRow);
+            return null;
+        }).doAnswer(invocation -> {
+            Consumer<UploadTableRow> consumer = invocation.getArgument(1);
+            consumer.accept(newRow);
+            return null;
+        }).when(mockUploadTableRowDao).streamUploadTableRows(any(), any());
+
+        UploadTableJob job = makeJob();
+        generator.generate(job);
+
+        // The zip file is generated again, with both columns.
+        assertEquals(job.getStatus(), UploadTableJob.Status.SUCCEEDED);
+        verify(mockUploadTableRowDao, times(4)).streamUploadTableRows(any(), any());
+        verify(mockS3Client).putObject(any(PutObjectRequest.class));
+    }
+
+    @Test
+    public void generate_RowKeepsChanging() {
+        // Every pass sees the row with a new key.
+        List<UploadTableRow> rows = new ArrayList<>();
+        doAnswer(invocation -> {
+            Consumer<UploadTableRow> consumer = invocation.getArgument(1);
+            rows.add(makeRow("record-1", ASSESSMENT_GUID_A, ImmutableMap.of(),
+                    ImmutableMap.of("key" + rows.size(), "value")));
+            consumer.accept(rows.get(rows.size() - 1));
+            return null;
+        }).when(mockUploadTableRowDao).streamUploadTableRows(any(), any());
+
+        UploadTableJob job = makeJob();
+        generator.generate(job);
+
+        // The job fails after the last attempt.
+        assertEquals(job.getStatus(), UploadTableJob.Status.FAILED);
+        verify(mockUploadTableRowDao, times(MAX_ATTEMPTS * 2)).streamUploadTableRows(any(), any());
+        verify(mockS3Client, never()).putObject(any(PutObjectRequest.class));
+        assertNull(job.getS3Key());
+    }
+
+    @Test
+    public void generate_Error() {
+        UploadTableRow row = makeRow("record-1", ASSESSMENT_GUID_A, ImmutableMap.of(), ImmutableMap.of());
+        mockRows(row);
+        doThrow(RuntimeException.class).when(mockS3Client).putObject(any(PutObjectRequest.class));
+
+        // Execute. The error is recorded in the job, not thrown.
+        UploadTableJob job = makeJob();
+        generator.generate(job);
+
+        assertEquals(savedStatusList, ImmutableList.of(UploadTableJob.Status.IN_PROGRESS,
+                UploadTableJob.Status.FAILED));
+        assertEquals(savedFinishedOnList.get(1).getMillis(), MOCK_NOW.getMillis());
+        assertNull(job.getS3Key());
+    }
+
+    @Test
+    public void generate_ErrorReadingRows() {
+        doThrow(RuntimeException.class).when(mockUploadTableRowDao).streamUploadTableRows(any(), any());
+
+        UploadTableJob job = makeJob();
+        generator.generate(job);
+
+        assertEquals(job.getStatus(), UploadTableJob.Status.FAILED);
+        verify(mockS3Client, never()).putObject(any(PutObjectRequest.class));
+    }
+
+    @Test
+    public void submit_Disabled() {
+        generator.start();
+        assertFalse(generator.submit(makeJob()));
+        verify(mockUploadTableJobDao, never()).saveUploadTableJob(any());
+    }
+
+    @Test
+    public void submit() throws Exception {
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_THREAD_COUNT)).thenReturn(1);
+        generator.setConfig(mockConfig);
+        generator.start();
+        mockRows();
+
+        CountDownLatch latch = new CountDownLatch(2);
+        doAnswer(invocation -> {
+            latch.countDown();
+            return null;
+        }).when(mockUploadTableJobDao).saveUploadTableJob(any());
+
+        UploadTableJob job = makeJob();
+        assertTrue(generator.submit(job));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertNotNull(job.getFinishedOn());
+    }
+
+    @Test
+    public void isHolding() throws Exception {
+        UploadTableJob job = makeJob();
+
+        // The job is held from when it is submitted until it is generated.
+        when(mockConfig.getPropertyAsInt(CONFIG_KEY_THREAD_COUNT)).thenReturn(1);
+        generator.setConfig(mockConfig);
+        generator.start();
+        CountDownLatch latch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            latch.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(mockUploadTableRowDao).streamUploadTableRows(any(), any());
+        assertTrue(generator.submit(job));
+        assertTrue(generator.isHolding(JOB_GUID));
+
+        latch.countDown();
+        generator.stop();
+        assertFalse(generator.isHolding(JOB_GUID));
+    }
+
+    @Test
+    public void escapeCsv() {
+        assertEquals(UploadTableCsvGenerator.escapeCsv(null), "");
+        assertEquals(UploadTableCsvGenerator.escapeCsv(""), "");
+        assertEquals(UploadTableCsvGenerator.escapeCsv("plain value"), "plain value");
+        assertEquals(UploadTableCsvGenerator.escapeCsv("a,b"), "\"a,b\"");
+        assertEquals(UploadTableCsvGenerator.escapeCsv("say \"hi\""), "\"say \"\"hi\"\"\"");
+        assertEquals(UploadTableCsvGenerator.escapeCsv("a\r\nb"), "\"a\r\nb\"");
+    }
+
+    private void mockRows(UploadTableRow... rows) {
+        doAnswer(invocation -> {
+            Consumer<UploadTableRow> consumer = invocation.getArgument(1);
+            for (UploadTableRow row : rows) {
+                consumer.accept(row);
+            }
+            return null;
+        }).when(mockUploadTableRowDao).streamUploadTableRows(any(), any());
+    }
+
+    private static UploadTableJob makeJob() {
+        UploadTableJob job = UploadTableJob.create();
+        job.setJobGuid(JOB_GUID);
+        job.setAppId(TestConstants.TEST_APP_ID);
+        job.setStudyId(TestConstants.TEST_STUDY_ID);
+        job.setRequestedOn(MOCK_NOW);
+        job.setStatus(UploadTableJob.Status.IN_PROGRESS);
+        return job;
+    }
+
+    private static UploadTableRow makeRow(String recordId, String assessmentGuid, Map<String, String> metadata,
+            Map<String, String> data) {
+        UploadTableRow row = UploadTableRow.create();
+        row.setAppId(TestConstants.TEST_APP_ID);
+        row.setStudyId(TestConstants.TEST_STUDY_ID);
+        row.setRecordId(recordId);
+        row.setAssessmentGuid(assessmentGuid);
+        row.setCreatedOn(TestConstants.TIMESTAMP);
+        row.setHealthCode(TestConstants.HEALTH_CODE);
+        row.setParticipantVersion(1);
+        row.setMetadata(metadata);
+        row.setData(data);
+        return row;
+    }
+}
@@ -6,6 +6,8 @@ import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -20,6 +22,7 @@ import static org.testng.Assert.fail;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -90,6 +93,9 @@ public class UploadTableServiceTest {
     @Mock
     private UploadService mockUploadService;
 
+    @Mock
+    private UploadTableCsvGenerator mockUploadTableCsvGenerator;
+
     @Mock
     private UploadTableJobDao mockUploadTableJobDao;
 
@@ -261,6 +267,82 @@ public class UploadTableServiceTest {
         assertSame(result.get(0), job);
     }
 
+    @Test
+    public void getUploadTableJobResult_StaleJobIsFailed() {
+        // Set up mocks.
+        setRequestContextWithRole(DEVELOPER);
+
+        UploadTableJob job = makeValidJob();
+        job.setStatus(UploadTableJob.Status.IN_PROGRESS);
+        job.setRequestedOn(MOCK_NOW.minusHours(UploadTableService.STALE_JOB_HOURS).minusMinutes(1));
+        when(mockUploadTableJobDao.getUploadTableJob(JOB_GUID)).thenReturn(Optional.of(job));
+
+        // Execute and verify.
+        UploadTableJobResult jobResult = service.getUploadTableJobResult(TestConstants.TEST_APP_ID,
+                TestConstants.TEST_STUDY_ID, JOB_GUID);
+        assertEquals(jobResult.getStatus(), UploadTableJob.Status.FAILED);
+        assertNull(jobResult.getUrl());
+
+        verify(mockUploadTableJobDao).saveUploadTableJob(same(job));
+        assertEquals(job.getStatus(), UploadTableJob.Status.FAILED);
+        assertEquals(job.getFinishedOn().getMillis(), MOCK_NOW.getMillis());
+    }
+
+    @Test
+    public void getUploadTableJobResult_InProgress() {
+        // Set up mocks.
+        setRequestContextWithRole(DEVELOPER);
+
+        UploadTableJob job = makeValidJob();
+        job.setStatus(UploadTableJob.Status.IN_PROGRESS);
+        job.setRequestedOn(MOCK_NOW.minusHours(UploadTableService.STALE_JOB_HOURS).plusMinutes(1));
+        when(mockUploadTableJobDao.getUploadTableJob(JOB_GUID)).thenReturn(Optional.of(job));
+
+        // Execute and verify.
+        UploadTableJobResult jobResult = service.getUploadTableJobResult(TestConstants.TEST_APP_ID,
+                TestConstants.TEST_STUDY_ID, JOB_GUID);
+        assertEquals(jobResult.getStatus(), UploadTableJob.Status.IN_PROGRESS);
+        verify(mockUploadTableJobDao, never()).saveUploadTableJob(any());
+    }
+
+    @Test
+    public void getUploadTableJobResult_LongQueuedJobStartedRecently() {
+        // Set up mocks.
+        setRequestContextWithRole(DEVELOPER);
+
+        // The job waited a long time, but it is measured from when it started.
+        UploadTableJob job = makeValidJob();
+        job.setStatus(UploadTableJob.Status.IN_PROGRESS);
+        job.setRequestedOn(MOCK_NOW.minusHours(UploadTableService.STALE_JOB_HOURS).minusMinutes(1));
+        job.setStartedOn(MOCK_NOW.minusMinutes(1));
+        when(mockUploadTableJobDao.getUploadTableJob(JOB_GUID)).thenReturn(Optional.of(job));
+
+        // Execute and verify.
+        UploadTableJobResult jobResult = service.getUploadTableJobResult(TestConstants.TEST_APP_ID,
+                TestConstants.TEST_STUDY_ID, JOB_GUID);
+        assertEquals(jobResult.getStatus(), UploadTableJob.Status.IN_PROGRESS);
+        verify(mockUploadTableJobDao, never()).saveUploadTableJob(any());
+    }
+
+    @Test
+    public void getUploadTableJobResult_JobHeldByThisServerIsNotStale() {
+        // Set up mocks.
+        setRequestContextWithRole(DEVELOPER);
+
+        UploadTableJob job = makeValidJob();
+        job.setStatus(UploadTableJob.Status.IN_PROGRESS);
+        job.setRequestedOn(MOCK_NOW.minusHours(UploadTableService.STALE_JOB_HOURS).minusMinutes(1));
+        job.setStartedOn(MOCK_NOW.minusHours(UploadTableService.STALE_JOB_HOURS).minusMinutes(1));
+        when(mockUploadTableJobDao.getUploadTableJob(JOB_GUID)).thenReturn(Optional.of(job));
+        when(mockUploadTableCsvGenerator.isHolding(JOB_GUID)).thenReturn(true);
+
+        // Execute and verify.
+        UploadTableJobResult jobResult = service.getUploadTableJobResult(TestConstants.TEST_APP_ID,
+                TestConstants.TEST_STUDY_ID, JOB_GUID);
+        assertEquals(jobResult.getStatus(), UploadTableJob.Status.IN_PROGRESS);
+        verify(mockUploadTableJobDao, never()).saveUploadTableJob(any());
+    }
+
     @Test(expectedExceptions = UnauthorizedException.class)
     public void requestUploadTableForStudy_PermissionsCheck() {
         setRequestContextWithRole(ORG_ADMIN);
@@ -305,6 +387,84 @@ public class UploadTableServiceTest {
         assertEquals(jobGuidHolder.getJobGuid(), OLD_JOB_GUID);
     }
 
+    @Test
+    public void requestUploadTableForStudy_InProgressJobReused() {
+        // Set up mocks.
+        setRequestContextWithRole(DEVELOPER);
+
+        UploadTableJob job = makeValidJob();
+        job.setJobGuid(OLD_JOB_GUID);
+        job.setStatus(UploadTableJob.Status.IN_PROGRESS);
+        job.setRequestedOn(MOCK_NOW.minusHours(UploadTableService.STALE_JOB_HOURS).plusMinutes(1));
+        PagedResourceList<UploadTableJob> jobList = new PagedResourceList<>(ImmutableList.of(job), 1);
+        when(mockUploadTableJobDao.listUploadTableJobsForStudy(TestConstants.TEST_APP_ID,
+                TestConstants.TEST_STUDY_ID, 0, 1)).thenReturn(jobList);
+
+        when(mockUploadService.getAppUploads(TestConstants.TEST_APP_ID, job.getRequestedOn(), MOCK_NOW, 1, null))
+                .thenReturn(new ForwardCursorPagedResourceList<>(ImmutableList.of(), null));
+
+        // Execute and verify.
+        UploadTableJobGuidHolder jobGuidHolder = service.requestUploadTableForStudy(TestConstants.TEST_APP_ID,
+                TestConstants.TEST_STUDY_ID);
+        assertEquals(jobGuidHolder.getJobGuid(), OLD_JOB_GUID);
+        verify(mockUploadTableJobDao, never()).saveUploadTableJob(any());
+    }
+
+    @Test
+    public void requestUploadTableForStudy_StaleJobIsFailed() {
+        // Set up mocks.
+        setRequestContextWithRole(DEVELOPER);
+
+        UploadTableJob job = makeValidJob();
+        job.setJobGuid(OLD_JOB_GUID);
+        job.setStatus(UploadTableJob.Status.IN_PROGRESS);
+        job.setRequestedOn(MOCK_NOW.minusHours(UploadTableService.STALE_JOB_HOURS).minusMinutes(1));
+        PagedResourceList<UploadTableJob> jobList = new PagedResourceList<>(ImmutableList.of(job), 1);
+        when(mockUploadTableJobDao.listUploadTableJobsForStudy(TestConstants.TEST_APP_ID,
+                TestConstants.TEST_STUDY_ID, 0, 1)).thenReturn(jobList);
+
+        when(mockSqsClient.sendMessage(any(), any())).thenReturn(new SendMessageResult());
+
+        // Execute and verify. Even with no new uploads, the lost job isn't returned.
+        UploadTableJobGuidHolder jobGuidHolder = service.requestUploadTableForStudy(TestConstants.TEST_APP_ID,
+                TestConstants.TEST_STUDY_ID);
+        assertEquals(jobGuidHolder.getJobGuid(), JOB_GUID);
+        verify(mockUploadService, never()).getAppUploads(any(), any(), any(), any(), any());
+
+        // The lost job is marked failed, and a new job is created.
+        ArgumentCaptor<UploadTableJob> jobCaptor = ArgumentCaptor.forClass(UploadTableJob.class);
+        verify(mockUploadTableJobDao, times(2)).saveUploadTableJob(jobCaptor.capture());
+        List<UploadTableJob> savedJobList = jobCaptor.getAllValues();
+        assertSame(savedJobList.get(0), job);
+        assertEquals(job.getStatus(), UploadTableJob.Status.FAILED);
+        assertEquals(job.getFinishedOn().getMillis(), MOCK_NOW.getMillis());
+        assertEquals(savedJobList.get(1).getJobGuid(), JOB_GUID);
+        assertEquals(savedJobList.get(1).getStatus(), UploadTableJob.Status.IN_PROGRESS);
+        verify(mockSqsClient).sendMessage(eq(WORKER_QUEUE_URL), any());
+    }
+
+    @Test
+    public void requestUploadTableForStudy_FailedJobNotReused() {
+        // Set up mocks.
+        setRequestContextWithRole(DEVELOPER);
+
+        UploadTableJob job = makeValidJob();
+        job.setJobGuid(OLD_JOB_GUID);
+        job.setStatus(UploadTableJob.Status.FAILED);
+        job.setRequestedOn(MOCK_NOW.minusMinutes(UploadTableService.DEDUPE_WINDOW_MINUTES - 1));
+        PagedResourceList<UploadTableJob> jobList = new PagedResourceList<>(ImmutableList.of(job), 1);
+        when(mockUploadTableJobDao.listUploadTableJobsForStudy(TestConstants.TEST_APP_ID,
+                TestConstants.TEST_STUDY_ID, 0, 1)).thenReturn(jobList);
+
+        when(mockSqsClient.sendMessage(any(), any())).thenReturn(new SendMessageResult());
+
+        // Execute and verify.
+        UploadTableJobGuidHolder jobGuidHolder = service.requestUploadTableForStudy(TestConstants.TEST_APP_ID,
+                TestConstants.TEST_STUDY_ID);
+        assertEquals(jobGuidHolder.getJobGuid(), JOB_GUID);
+        verify(mockUploadTableJobDao).saveUploadTableJob(any());
+    }
+
     @Test
     public void requestUploadTableForStudy_NoPreviousJob() throws JsonProcessingException {
         // Set up mocks.
@@ -377,6 +537,29 @@ public class UploadTableServiceTest {
         verify(mockSqsClient).sendMessage(eq(WORKER_QUEUE_URL), any());
     }
 
+    @Test
+    public void requestUploadTableForStudy_GeneratedInServer() {
+        // Set up mocks.
+        setRequestContextWithRole(DEVELOPER);
+
+        PagedResourceList<UploadTableJob> jobList = new PagedResourceList<>(ImmutableList.of(), 0);
+        when(mockUploadTableJobDao.listUploadTableJobsForStudy(TestConstants.TEST_APP_ID,
+                TestConstants.TEST_STUDY_ID, 0, 1)).thenReturn(jobList);
+
+        when(mockUploadTableCsvGenerator.submit(any())).thenReturn(true);
+
+        // Execute and verify.
+        UploadTableJobGuidHolder jobGuidHolder = service.requestUploadTableForStudy(TestConstants.TEST_APP_ID,
+                TestConstants.TEST_STUDY_ID);
+        assertEquals(jobGuidHolder.getJobGuid(), JOB_GUID);
+
+        // The saved job is the one that's generated, and the worker isn't called.
+        ArgumentCaptor<UploadTableJob> createdJobCaptor = ArgumentCaptor.forClass(UploadTableJob.class);
+        verify(mockUploadTableJobDao).saveUploadTableJob(createdJobCaptor.capture());
+        verify(mockUploadTableCsvGenerator).submit(same(createdJobCaptor.getValue()));
+        verify(mockSqsClient, never()).sendMessage(any(), any());
+    }
+
     @Test(expectedExceptions = EntityNotFoundException.class)
     public void getUploadTableJobForWorker_NotFound() {
         when(mockUploadTableJobDao.getUploadTableJob(JOB_GUID)).thenReturn(Optional.empty());
@@ -581,6 +764,84 @@ public class UploadTableServiceTest {
         }
     }
 
+    @Test
+    public void queryUploadTableRowsByCursor() {
+        // Execute and verify.
+        UploadTableRowQuery query = new UploadTableRowQuery();
+        query.setOffsetKey("offset-key");
+        service.queryUploadTableRowsByCursor(TestConstants.TEST_APP_ID, TestConstants.TEST_STUDY_ID, query);
+        verify(mockUploadTableRowDao).queryUploadTableRowsByCursor(same(query));
+
+        // Verify that the query was updated with appId and studyId.
+        assertEquals(query.getAppId(), TestConstants.TEST_APP_ID);
+        assertEquals(query.getStudyId(), TestConstants.TEST_STUDY_ID);
+    }
+
+    @Test
+    public void queryUploadTableRowsByCursor_invalidQuery() {
+        UploadTableRowQuery query = new UploadTableRowQuery();
+        query.setPageSize(1000);
+
+        // Execute - This throws.
+        try {
+            service.queryUploadTableRowsByCursor(TestConstants.TEST_APP_ID, TestConstants.TEST_STUDY_ID, query);
+            fail("expected exception");
+        } catch (InvalidEntityException ex) {
+            verify(mockUploadTableRowDao, never()).queryUploadTableRowsByCursor(any());
+        }
+    }
+
+    @Test
+    public void saveUploadTableRows() {
+        // Execute and verify.
+        UploadTableRow row1 = makeValidRow();
+        UploadTableRow row2 = makeValidRow();
+        row2.setRecordId("record-2");
+        row2.setCreatedOn(TestConstants.CREATED_ON);
+        List<UploadTableRow> rowList = ImmutableList.of(row1, row2);
+        service.saveUploadTableRows(TestConstants.TEST_APP_ID, TestConstants.TEST_STUDY_ID, rowList);
+        verify(mockUploadTableRowDao).saveUploadTableRows(same(rowList));
+        verify(mockStudyService).getStudy(TestConstants.TEST_APP_ID, TestConstants.TEST_STUDY_ID, true);
+
+        // Verify that the rows were updated with appId and studyId, and createdOn if it was missing.
+        for (UploadTableRow row : rowList) {
+            assertEquals(row.getAppId(), TestConstants.TEST_APP_ID);
+            assertEquals(row.getStudyId(), TestConstants.TEST_STUDY_ID);
+        }
+        assertNotNull(row1.getCreatedOn());
+        assertEquals(row2.getCreatedOn(), TestConstants.CREATED_ON);
+    }
+
+    @Test
+    public void saveUploadTableRows_invalidRow() {
+        // One invalid row means no rows are written.
+        UploadTableRow invalidRow = makeValidRow();
+        invalidRow.setRecordId("   ");
+
+        // Execute - This throws.
+        try {
+            service.saveUploadTableRows(TestConstants.TEST_APP_ID, TestConstants.TEST_STUDY_ID,
+                    ImmutableList.of(makeValidRow(), invalidRow));
+            fail("expected exception");
+        } catch (InvalidEntityException ex) {
+            verify(mockUploadTableRowDao, never()).saveUploadTableRows(any());
+        }
+    }
+
+    @Test(expectedExceptions = BadRequestException.class)
+    public void saveUploadTableRows_empty() {
+        service.saveUploadTableRows(TestConstants.TEST_APP_ID, TestConstants.TEST_STUDY_ID, ImmutableList.of());
+    }
+
+    @Test(expectedExceptions = BadRequestException.class)
+    public void saveUploadTableRows_tooMany() {
+        List<UploadTableRow> rowList = new ArrayList<>();
+        for (int i = 0; i <= UploadTableService.MAX_ROW_BATCH_SIZE; i++) {
+            rowList.add(makeValidRow());
+        }
+        service.saveUploadTableRows(TestConstants.TEST_APP_ID, TestConstants.TEST_STUDY_ID, rowList);
+    }
+
     @Test
     public void saveUploadTableRow() {
         // Execute and verify.
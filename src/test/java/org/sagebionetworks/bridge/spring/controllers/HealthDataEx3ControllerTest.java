@@ -16,6 +16,7 @@ import static org.sagebionetworks.bridge.TestUtils.mockRequestBody;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertSame;
 
+import java.util.List;
 import java.util.Optional;
 import javax.servlet.http.HttpServletRequest;
 
@@ -105,6 +106,7 @@ public class HealthDataEx3ControllerTest {
         assertGet(HealthDataEx3Controller.class, "getRecordsForStudy");
         assertGet(HealthDataEx3Controller.class, "getRecordForSelf");
         assertGet(HealthDataEx3Controller.class, "getRecordsForUserForSelf");
+        assertPost(HealthDataEx3Controller.class, "getRecordsWithDownloadUrlsForSelf");
     }
 
     @Test
@@ -410,6 +412,27 @@ public class HealthDataEx3ControllerTest {
         controller.getRecordForSelf(RECORD_ID, "false");
     }
 
+    // Tests of getRecordsWithDownloadUrlsForSelf API.
+    @Test
+    public void getRecordsWithDownloadUrlsForSelf() throws Exception {
+        when(mockDeveloperTestAccountSession.getAppId()).thenReturn(TEST_APP_ID);
+        when(mockDeveloperTestAccountSession.getHealthCode()).thenReturn(HEALTH_CODE);
+
+        List<String> recordIdList = ImmutableList.of(RECORD_ID, "other-record");
+        mockRequestBody(mockRequest, recordIdList);
+
+        HealthDataRecordEx3 record = HealthDataRecordEx3.create();
+        when(mockHealthDataEx3Service.getRecordsWithDownloadUrls(TEST_APP_ID, HEALTH_CODE, recordIdList))
+                .thenReturn(ImmutableList.of(record));
+
+        // Execute and verify.
+        ResourceList<HealthDataRecordEx3> resultList = controller.getRecordsWithDownloadUrlsForSelf();
+        assertEquals(resultList.getItems().size(), 1);
+        assertSame(resultList.getItems().get(0), record);
+
+        verify(mockHealthDataEx3Service).getRecordsWithDownloadUrls(TEST_APP_ID, HEALTH_CODE, recordIdList);
+    }
+
     // Tests of getRecordsForUserForSelf API.
     @Test
     public void getRecordsForUserForSelf_Success() {
@@ -0,0 +1,174 @@
+package org.sagebionetworks.bridge.spring.controllers;
+
+import static org.sagebionetworks.bridge.Roles.SUPERADMIN;
+import static org.sagebionetworks.bridge.TestUtils.assertCrossOrigin;
+import static org.sagebionetworks.bridge.TestUtils.assertGet;
+import static org.testng.Assert.assertSame;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.dynamodb.DynamoPageReader;
+import org.sagebionetworks.bridge.hibernate.ConnectionPoolMetrics;
+import org.sagebionetworks.bridge.models.ConnectionPoolStatus;
+import org.sagebionetworks.bridge.models.ConsentDeliveryStatus;
+import org.sagebionetworks.bridge.models.DistributedLockStatus;
+import org.sagebionetworks.bridge.models.DynamoQueryStatus;
+import org.sagebionetworks.bridge.models.OutboundChannelStatus;
+import org.sagebionetworks.bridge.models.ParticipantVersionQueueStatus;
+import org.sagebionetworks.bridge.models.ReportIndexCacheStatus;
+import org.sagebionetworks.bridge.models.TagCacheStatus;
+import org.sagebionetworks.bridge.models.accounts.UserSession;
+import org.sagebionetworks.bridge.services.ConsentDeliveryQueue;
+import org.sagebionetworks.bridge.services.DistributedLockService;
+import org.sagebionetworks.bridge.services.OutboundMessageQueue;
+import org.sagebionetworks.bridge.services.ParticipantVersionExportQueue;
+import org.sagebionetworks.bridge.services.ReportService;
+import org.sagebionetworks.bridge.services.TagService;
+
+public class MetricsControllerTest extends Mockito {
+
+    @Mock
+    ConnectionPoolMetrics mockConnectionPoolMetrics;
+
+    @Mock
+    ConsentDeliveryQueue mockConsentDeliveryQueue;
+
+    @Mock
+    DistributedLockService mockDistributedLockService;
+
+    @Mock
+    DynamoPageReader mockDynamoPageReader;
+
+    @Mock
+    OutboundMessageQueue mockOutboundMessageQueue;
+
+    @Mock
+    ParticipantVersionExportQueue mockParticipantVersionExportQueue;
+
+    @Mock
+    ReportService mockReportService;
+
+    @Mock
+    TagService mockTagService;
+
+    @InjectMocks
+    @Spy
+    MetricsController controller;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        MockitoAnnotations.initMocks(this);
+
+        doReturn(new UserSession()).when(controller).getAuthenticatedSession(SUPERADMIN);
+    }
+
+    @Test
+    public void verifyAnnotations() throws Exception {
+        assertCrossOrigin(MetricsController.class);
+        assertGet(MetricsController.class, "getConnectionPoolStatus");
+        assertGet(MetricsController.class, "getConsentDeliveryStatus");
+        assertGet(MetricsController.class, "getDistributedLockStatus");
+        assertGet(MetricsController.class, "getDynamoQueryStatus");
+        assertGet(MetricsController.class, "getOutboundMessageStatus");
+        assertGet(MetricsController.class, "getParticipantVersionQueueStatus");
+        assertGet(MetricsController.class, "getReportIndexCacheStatus");
+        assertGet(MetricsController.class, "getTagCacheStatus");
+    }
+
+    @Test
+    public void getConnectionPoolStatus() {
+        ConnectionPoolStatus status = new ConnectionPoolStatus();
+        when(mockConnectionPoolMetrics.getStatus()).thenReturn(status);
+
+        ConnectionPoolStatus retValue = controller.getConnectionPoolStatus();
+        assertSame(retValue, status);
+
+        verify(controller).getAuthenticatedSession(SUPERADMIN);
+    }
+
+    @Test
+    public void getConsentDeliveryStatus() {
+        ConsentDeliveryStatus status = new ConsentDeliveryStatus();
+        when(mockConsentDeliveryQueue.getStatus()).thenReturn(status);
+
+        ConsentDeliveryStatus retValue = controller.getConsentDeliveryStatus();
+        assertSame(retValue, status);
+
+        verify(controller).getAuthenticatedSession(SUPERADMIN);
+    }
+
+    @Test
+    public void getDistributedLockStatus() {
+        DistributedLockStatus status = new DistributedLockStatus();
+        when(mockDistributedLockService.getStatus()).thenReturn(status);
+
+        DistributedLockStatus retValue = controller.getDistributedLockStatus();
+        assertSame(retValue, status);
+
+        verify(controller).getAuthenticatedSession(SUPERADMIN);
+    }
+
+    @Test
+    public void getDynamoQueryStatus() {
+        List<DynamoQueryStatus> statusList = ImmutableList.of(new DynamoQueryStatus());
+        when(mockDynamoPageReader.getStatus()).thenReturn(statusList);
+
+        List<DynamoQueryStatus> retValue = controller.getDynamoQueryStatus();
+        assertSame(retValue, statusList);
+
+        verify(controller).getAuthenticatedSession(SUPERADMIN);
+    }
+
+    @Test
+    public void getOutboundMessageStatus() {
+        List<OutboundChannelStatus> statusList = ImmutableList.of(new OutboundChannelStatus());
+        when(mockOutboundMessageQueue.getStatus()).thenReturn(statusList);
+
+        List<OutboundChannelStatus> retValue = controller.getOutboundMessageStatus();
+        assertSame(retValue, statusList);
+
+        verify(controller).getAuthenticatedSession(SUPERADMIN);
+    }
+
+    @Test
+    public void getParticipantVersionQueueStatus() {
+        ParticipantVersionQueueStatus status = new ParticipantVersionQueueStatus();
+        when(mockParticipantVersionExportQueue.getStatus()).thenReturn(status);
+
+        ParticipantVersionQueueStatus retValue = controller.getParticipantVersionQueueStatus();
+        assertSame(retValue, status);
+
+        verify(controller).getAuthenticatedSession(SUPERADMIN);
+    }
+
+    @Test
+    public void getReportIndexCacheStatus() {
+        ReportIndexCacheStatus status = new ReportIndexCacheStatus();
+        when(mockReportService.getReportIndexCacheStatus()).thenReturn(status);
+
+        ReportIndexCacheStatus retValue = controller.getReportIndexCacheStatus();
+        assertSame(retValue, status);
+
+        verify(controller).getAuthenticatedSession(SUPERADMIN);
+    }
+
+    @Test
+    public void getTagCacheStatus() {
+        TagCacheStatus status = new TagCacheStatus();
+        when(mockTagService.getTagCacheStatus()).thenReturn(status);
+
+        TagCacheStatus retValue = controller.getTagCacheStatus();
+        assertSame(retValue, status);
+
+        verify(controller).getAuthenticatedSession(SUPERADMIN);
+    }
+}
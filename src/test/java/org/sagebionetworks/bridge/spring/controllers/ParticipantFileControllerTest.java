@@ -86,6 +86,7 @@ public class ParticipantFileControllerTest {
         assertGet(ParticipantFileController.class, "getParticipantFile");
         assertGet(ParticipantFileController.class, "getParticipantFiles");
         assertPost(ParticipantFileController.class, "createParticipantFile");
+        assertPost(ParticipantFileController.class, "completeParticipantFile");
         assertDelete(ParticipantFileController.class, "deleteParticipantFile");
     }
 
@@ -132,6 +133,15 @@ public class ParticipantFileControllerTest {
         assertEquals(captured.getMimeType(), "dummy-type");
     }
 
+    @Test
+    public void completeParticipantFile() {
+        ParticipantFile file = ParticipantFile.create();
+        when(mockFileService.completeParticipantFile("test_user", "file_id")).thenReturn(file);
+
+        ParticipantFile result = controller.completeParticipantFile("file_id");
+        assertSame(result, file);
+    }
+
     @Test
     public void deleteParticipantFile() {
         StatusMessage message = controller.deleteParticipantFile("file_id");
@@ -13,6 +13,7 @@ import static org.sagebionetworks.bridge.TestUtils.assertCreate;
 import static org.sagebionetworks.bridge.TestUtils.assertCrossOrigin;
 import static org.sagebionetworks.bridge.TestUtils.assertDelete;
 import static org.sagebionetworks.bridge.TestUtils.assertGet;
+import static org.sagebionetworks.bridge.TestUtils.assertPost;
 import static org.sagebionetworks.bridge.TestUtils.mockRequestBody;
 import static org.sagebionetworks.bridge.models.reports.ReportType.PARTICIPANT;
 import static org.testng.Assert.assertEquals;
@@ -28,6 +29,7 @@ import javax.servlet.http.HttpServletRequest;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -181,6 +183,8 @@ public class ParticipantReportControllerTest extends Mockito {
         assertDelete(ParticipantReportController.class, "deleteParticipantReport");
         assertDelete(ParticipantReportController.class, "deleteParticipantReportRecord");
         assertDelete(ParticipantReportController.class, "deleteParticipantReportIndex");
+        assertCreate(ParticipantReportController.class, "saveParticipantReportBatch");
+        assertPost(ParticipantReportController.class, "deleteParticipantReportRecords");
     }
     
     @Test
@@ -510,6 +514,40 @@ public class ParticipantReportControllerTest extends Mockito {
                 "2014-05-10", OTHER_PARTICIPANT_HEALTH_CODE);
     }
     
+    @SuppressWarnings("unchecked")
+    @Test
+    public void saveParticipantReportBatch() throws Exception {
+        when(mockAccountService.getAccount(any())).thenReturn(Optional.of(mockOtherAccount));
+        String json = TestUtils.createJson("[{'date':'2015-02-12','data':{'field1':'First'}}," +
+                "{'date':'2015-02-13','data':{'field1':'Last'}}]");
+        mockRequestBody(mockRequest, json);
+        
+        StatusMessage result = controller.saveParticipantReportBatch(OTHER_PARTICIPANT_ID, REPORT_ID);
+        assertEquals(result.getMessage(), "Report data saved.");
+        verify(controller).getAuthenticatedSession(DEVELOPER, RESEARCHER);
+        
+        ArgumentCaptor<List<ReportData>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mockReportService).saveParticipantReportBatch(eq(TEST_APP_ID), eq(OTHER_PARTICIPANT_ID),
+                eq(REPORT_ID), eq(OTHER_PARTICIPANT_HEALTH_CODE), captor.capture());
+        List<ReportData> reportDataList = captor.getValue();
+        assertEquals(reportDataList.size(), 2);
+        assertEquals(reportDataList.get(0).getDate(), "2015-02-12");
+        assertNull(reportDataList.get(0).getKey());
+        assertEquals(reportDataList.get(1).getData().get("field1").asText(), "Last");
+    }
+    
+    @Test
+    public void deleteParticipantReportRecords() throws Exception {
+        when(mockAccountService.getAccount(any())).thenReturn(Optional.of(mockOtherAccount));
+        mockRequestBody(mockRequest, "[\"2015-02-12\",\"2015-02-13\"]");
+        
+        StatusMessage result = controller.deleteParticipantReportRecords(OTHER_PARTICIPANT_ID, REPORT_ID);
+        assertEquals(result.getMessage(), "Report records deleted.");
+        
+        verify(mockReportService).deleteParticipantReportRecords(TEST_APP_ID, null, REPORT_ID,
+                ImmutableList.of("2015-02-12", "2015-02-13"), OTHER_PARTICIPANT_HEALTH_CODE);
+    }
+    
     @Test(expectedExceptions = UnauthorizedException.class)
     public void deleteParticipantRecordDataRecordDeveloper() {
         StudyParticipant regularUser = new StudyParticipant.Builder().copyOf(session.getParticipant())
@@ -24,6 +24,7 @@ import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
@@ -44,10 +45,10 @@ import org.sagebionetworks.bridge.dynamodb.DynamoApp;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.exceptions.UnauthorizedException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
-import org.sagebionetworks.bridge.models.DateRangeResourceList;
 import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.ResourceList;
 import org.sagebionetworks.bridge.models.StatusMessage;
+import org.sagebionetworks.bridge.models.StreamingDateRangeResourceList;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
@@ -206,20 +207,20 @@ public class StudyReportControllerTest extends Mockito {
     @Test
     public void getStudyReportData() throws Exception {
         mockRequestBody(mockRequest, "{}");
-        doReturn(makeResults(START_DATE, END_DATE)).when(mockReportService).getStudyReport(session.getAppId(),
+        doReturn(makeResults(START_DATE, END_DATE)).when(mockReportService).streamStudyReport(session.getAppId(),
                 REPORT_ID, START_DATE, END_DATE);
         
-        DateRangeResourceList<? extends ReportData> result = controller.getStudyReport(REPORT_ID, START_DATE.toString(), END_DATE.toString());
+        StreamingDateRangeResourceList<ReportData> result = controller.getStudyReport(REPORT_ID, START_DATE.toString(), END_DATE.toString());
         assertResult(result);
     }
     
     @Test
     public void getStudyReportDataWithNoDates() throws Exception {
         mockRequestBody(mockRequest, "{}");
-        doReturn(makeResults(START_DATE, END_DATE)).when(mockReportService).getStudyReport(session.getAppId(),
+        doReturn(makeResults(START_DATE, END_DATE)).when(mockReportService).streamStudyReport(session.getAppId(),
                 REPORT_ID, null, null);
         
-        DateRangeResourceList<? extends ReportData>result = controller.getStudyReport(REPORT_ID, null, null);
+        StreamingDateRangeResourceList<ReportData> result = controller.getStudyReport(REPORT_ID, null, null);
         assertResult(result);
     }
     
@@ -239,6 +240,37 @@ public class StudyReportControllerTest extends Mockito {
         assertEquals("Name", reportData.getData().get("field2").asText());
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void saveStudyReportBatch() throws Exception {
+        String json = TestUtils.createJson("[{'date':'2015-02-12','data':{'field1':'First'}}," +
+                "{'date':'2015-02-13','data':{'field1':'Last'}}]");
+        mockRequestBody(mockRequest, json);
+        
+        StatusMessage result = controller.saveStudyReportBatch(REPORT_ID);
+        assertEquals(result, StudyReportController.SAVED_MSG);
+        
+        ArgumentCaptor<List<ReportData>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mockReportService).saveStudyReportBatch(eq(TEST_APP_ID), eq(REPORT_ID), captor.capture());
+        List<ReportData> reportDataList = captor.getValue();
+        assertEquals(reportDataList.size(), 2);
+        assertEquals(reportDataList.get(0).getDate(), "2015-02-12");
+        assertEquals(reportDataList.get(0).getData().get("field1").asText(), "First");
+        assertNull(reportDataList.get(0).getKey());
+        assertEquals(reportDataList.get(1).getDate(), "2015-02-13");
+    }
+    
+    @Test
+    public void deleteStudyReportRecords() throws Exception {
+        mockRequestBody(mockRequest, "[\"2015-02-12\",\"2015-02-13\"]");
+        
+        StatusMessage result = controller.deleteStudyReportRecords(REPORT_ID);
+        assertEquals(result, StudyReportController.DELETED_RECORDS_MSG);
+        
+        verify(mockReportService).deleteStudyReportRecords(TEST_APP_ID, REPORT_ID,
+                ImmutableList.of("2015-02-12", "2015-02-13"));
+    }
+    
     @Test
     public void deleteStudyReportData() throws Exception {
         StatusMessage result = controller.deleteStudyReport(REPORT_ID);
@@ -288,17 +320,17 @@ public class StudyReportControllerTest extends Mockito {
         index.setIdentifier(REPORT_ID);
         doReturn(index).when(mockReportService).getReportIndex(key);
         
-        doReturn(makeResults(START_DATE, END_DATE)).when(mockReportService).getStudyReport(session.getAppId(),
+        doReturn(makeResults(START_DATE, END_DATE)).when(mockReportService).streamStudyReport(session.getAppId(),
                 REPORT_ID, START_DATE, END_DATE);
         
-        DateRangeResourceList<? extends ReportData>result = controller.getPublicStudyReport(
+        StreamingDateRangeResourceList<ReportData> result = controller.getPublicStudyReport(
                 TEST_APP_ID, REPORT_ID, START_DATE.toString(), END_DATE.toString());
 
-        assertEquals(2, result.getItems().size());
+        assertEquals(2, Iterables.size(result.getItems()));
         
         assertEquals(NULL_INSTANCE, RequestContext.get());
         verify(mockReportService).getReportIndex(key);
-        verify(mockReportService).getStudyReport(TEST_APP_ID, REPORT_ID, START_DATE, END_DATE);
+        verify(mockReportService).streamStudyReport(TEST_APP_ID, REPORT_ID, START_DATE, END_DATE);
     }
     
     @Test(expectedExceptions = EntityNotFoundException.class)
@@ -347,12 +379,13 @@ public class StudyReportControllerTest extends Mockito {
         assertEquals(result.getRequestParams().get(ResourceList.END_TIME), END_TIME.toString());
     }
     
-    private void assertResult(DateRangeResourceList<? extends ReportData> result) throws Exception {
+    private void assertResult(StreamingDateRangeResourceList<ReportData> result) throws Exception {
         JsonNode node = BridgeObjectMapper.get().readTree(BridgeObjectMapper.get().writeValueAsString(result));
         
         assertEquals("2015-01-02", node.get("startDate").asText());
         assertEquals("2015-02-02", node.get("endDate").asText());
         assertEquals(2, node.get("items").size());
+        assertEquals(2, node.get("total").intValue());
         assertEquals("DateRangeResourceList", node.get("type").asText());
         
         JsonNode child1 = node.get("items").get(0);
@@ -370,11 +403,11 @@ public class StudyReportControllerTest extends Mockito {
         assertEquals("Name", child2Data.get("field2").asText());
     }
     
-    private DateRangeResourceList<ReportData> makeResults(LocalDate startDate, LocalDate endDate){
+    private StreamingDateRangeResourceList<ReportData> makeResults(LocalDate startDate, LocalDate endDate){
         List<ReportData> list = ImmutableList.of(createReport(LocalDate.parse("2015-02-10"), "First", "Name"),
                 createReport(LocalDate.parse("2015-02-12"), "Last", "Name"));
         
-        return new DateRangeResourceList<ReportData>(list)
+        return new StreamingDateRangeResourceList<ReportData>(list)
                 .withRequestParam("startDate", startDate)
                 .withRequestParam("endDate", endDate);
     }
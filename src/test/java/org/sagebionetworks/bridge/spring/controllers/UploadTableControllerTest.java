@@ -28,6 +28,7 @@ import org.testng.annotations.Test;
 import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.StatusMessage;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
@@ -78,6 +79,8 @@ public class UploadTableControllerTest {
         assertGet(UploadTableController.class, "getUploadTableRowForSuperadmin");
         assertPost(UploadTableController.class, "queryUploadTableRowsForWorker");
         assertPost(UploadTableController.class, "saveUploadTableRowForWorker");
+        assertPost(UploadTableController.class, "queryUploadTableRowsByCursorForWorker");
+        assertPost(UploadTableController.class, "saveUploadTableRowsForWorker");
     }
 
     @Test
@@ -240,4 +243,58 @@ public class UploadTableControllerTest {
         UploadTableRow capturedRow = rowCaptor.getValue();
         assertEquals(capturedRow.getAssessmentGuid(), TestConstants.ASSESSMENT_1_GUID);
     }
+
+    @Test
+    public void queryByCursor() throws Exception {
+        // Mock request. Since this is parsed from JSON, set one of the fields so we can verify it later.
+        UploadTableRowQuery query = new UploadTableRowQuery();
+        query.setAssessmentGuid(TestConstants.ASSESSMENT_1_GUID);
+        query.setOffsetKey("dummy-offset-key");
+        mockRequestBody(mockRequest, query);
+
+        // Mock service.
+        List<UploadTableRow> rowList = ImmutableList.of(UploadTableRow.create());
+        ForwardCursorPagedResourceList<UploadTableRow> pagedResourceList = new ForwardCursorPagedResourceList<>(
+                rowList, "next-offset-key", true);
+        doReturn(pagedResourceList).when(mockSvc).queryUploadTableRowsByCursor(eq(TestConstants.TEST_APP_ID),
+                eq(TestConstants.TEST_STUDY_ID), any());
+
+        // Execute and verify.
+        ForwardCursorPagedResourceList<UploadTableRow> result = controller.queryUploadTableRowsByCursorForWorker(
+                TestConstants.TEST_APP_ID, TestConstants.TEST_STUDY_ID);
+        assertSame(result, pagedResourceList);
+        verify(controller).getAuthenticatedSession(Roles.WORKER);
+
+        ArgumentCaptor<UploadTableRowQuery> queryCaptor = ArgumentCaptor.forClass(UploadTableRowQuery.class);
+        verify(mockSvc).queryUploadTableRowsByCursor(eq(TestConstants.TEST_APP_ID), eq(TestConstants.TEST_STUDY_ID),
+                queryCaptor.capture());
+        UploadTableRowQuery capturedQuery = queryCaptor.getValue();
+        assertEquals(capturedQuery.getAssessmentGuid(), TestConstants.ASSESSMENT_1_GUID);
+        assertEquals(capturedQuery.getOffsetKey(), "dummy-offset-key");
+    }
+
+    @Test
+    public void saveBatch() throws Exception {
+        // Mock request. Since this is parsed from JSON, set one of the fields so we can verify it later.
+        UploadTableRow row1 = UploadTableRow.create();
+        row1.setRecordId("record-1");
+        UploadTableRow row2 = UploadTableRow.create();
+        row2.setRecordId("record-2");
+        mockRequestBody(mockRequest, ImmutableList.of(row1, row2));
+
+        // Execute and verify.
+        StatusMessage result = controller.saveUploadTableRowsForWorker(TestConstants.TEST_APP_ID,
+                TestConstants.TEST_STUDY_ID);
+        assertNotNull(result);
+        verify(controller).getAuthenticatedSession(Roles.WORKER);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<UploadTableRow>> rowsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(mockSvc).saveUploadTableRows(eq(TestConstants.TEST_APP_ID), eq(TestConstants.TEST_STUDY_ID),
+                rowsCaptor.capture());
+        List<UploadTableRow> capturedRows = rowsCaptor.getValue();
+        assertEquals(capturedRows.size(), 2);
+        assertEquals(capturedRows.get(0).getRecordId(), "record-1");
+        assertEquals(capturedRows.get(1).getRecordId(), "record-2");
+    }
 }
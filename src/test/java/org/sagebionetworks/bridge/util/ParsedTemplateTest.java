@@ -0,0 +1,69 @@
+package org.sagebionetworks.bridge.util;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.BridgeUtils;
+
+public class ParsedTemplateTest {
+
+    @Test
+    public void resolvesVariables() {
+        ParsedTemplate template = ParsedTemplate.parse("${greeting}, ${name}! ${name} is ${age}.");
+        Map<String, String> values = ImmutableMap.of("greeting", "Hello", "name", "Bob", "age", "42");
+
+        assertEquals(template.resolve(values), "Hello, Bob! Bob is 42.");
+    }
+
+    @Test
+    public void leavesMissingAndNullVariables() {
+        Map<String, String> values = new HashMap<>();
+        values.put("name", null);
+
+        ParsedTemplate template = ParsedTemplate.parse("Hello ${name} from ${app.name}");
+        assertEquals(template.resolve(values), "Hello ${name} from ${app.name}");
+    }
+
+    @Test
+    public void textWithoutVariables() {
+        assertEquals(ParsedTemplate.parse("").resolve(ImmutableMap.of()), "");
+        assertEquals(ParsedTemplate.parse("No variables").resolve(ImmutableMap.of("a", "b")), "No variables");
+    }
+
+    @Test
+    public void unterminatedAndNestedVariables() {
+        Map<String, String> values = ImmutableMap.of("a", "1", "b", "2");
+
+        assertEquals(ParsedTemplate.parse("${a} and ${b").resolve(values), "1 and ${b");
+        assertEquals(ParsedTemplate.parse("${a ${b}").resolve(values), "${a 2");
+        assertEquals(ParsedTemplate.parse("$${a}}").resolve(values), "$1}");
+    }
+
+    @Test
+    public void valuesAreNotResolved() {
+        Map<String, String> values = ImmutableMap.of("a", "${b}", "b", "2");
+
+        assertEquals(ParsedTemplate.parse("${a}").resolve(values), "${b}");
+    }
+
+    @Test
+    public void matchesResolveTemplate() {
+        String text = "<p>${studyName} is sponsored by ${sponsorName}.</p><p>${participant.name}</p>${missing}";
+        Map<String, String> values = ImmutableMap.of("studyName", "Study", "sponsorName", "Sponsor",
+                "participant.name", "Name");
+
+        assertEquals(ParsedTemplate.parse(text).resolve(values), BridgeUtils.resolveTemplate(text, values));
+    }
+
+    @Test
+    public void getText() {
+        ParsedTemplate template = ParsedTemplate.parse("Hello ${name}");
+        assertEquals(template.getText(), "Hello ${name}");
+        assertEquals(template.toString(), "Hello ${name}");
+    }
+}
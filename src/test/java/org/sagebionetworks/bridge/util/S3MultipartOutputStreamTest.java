@@ -0,0 +1,162 @@
+package org.sagebionetworks.bridge.util;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.sagebionetworks.bridge.util.S3MultipartOutputStream.MIN_PART_SIZE;
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class S3MultipartOutputStreamTest {
+    private static final String BUCKET = "test-bucket";
+    private static final String KEY = "test-key";
+    private static final String UPLOAD_ID = "test-upload-id";
+
+    private AmazonS3 mockS3Client;
+
+    @BeforeMethod
+    public void before() {
+        mockS3Client = mock(AmazonS3.class);
+
+        InitiateMultipartUploadResult initResult = new InitiateMultipartUploadResult();
+        initResult.setUploadId(UPLOAD_ID);
+        when(mockS3Client.initiateMultipartUpload(any())).thenReturn(initResult);
+
+        when(mockS3Client.uploadPart(any())).thenAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag("etag-" + request.getPartNumber());
+            return result;
+        });
+    }
+
+    @Test
+    public void multipleParts() throws Exception {
+        // Two full parts, written one byte and one array at a time, and a partial last part.
+        S3MultipartOutputStream stream = new S3MultipartOutputStream(mockS3Client, BUCKET, KEY, MIN_PART_SIZE);
+        for (int i = 0; i < MIN_PART_SIZE; i++) {
+            stream.write(i);
+        }
+        stream.write(new byte[MIN_PART_SIZE + 10]);
+        stream.close();
+
+        ArgumentCaptor<InitiateMultipartUploadRequest> initCaptor = ArgumentCaptor.forClass(
+                InitiateMultipartUploadRequest.class);
+        verify(mockS3Client).initiateMultipartUpload(initCaptor.capture());
+        assertEquals(initCaptor.getValue().getBucketName(), BUCKET);
+        assertEquals(initCaptor.getValue().getKey(), KEY);
+        assertEquals(initCaptor.getValue().getObjectMetadata().getSSEAlgorithm(),
+                ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+
+        ArgumentCaptor<UploadPartRequest> partCaptor = ArgumentCaptor.forClass(UploadPartRequest.class);
+        verify(mockS3Client, times(3)).uploadPart(partCaptor.capture());
+        List<UploadPartRequest> partList = partCaptor.getAllValues();
+        assertEquals(partList.get(0).getPartNumber(), 1);
+        assertEquals(partList.get(0).getPartSize(), MIN_PART_SIZE);
+        assertEquals(partList.get(1).getPartNumber(), 2);
+        assertEquals(partList.get(1).getPartSize(), MIN_PART_SIZE);
+        assertEquals(partList.get(2).getPartNumber(), 3);
+        assertEquals(partList.get(2).getPartSize(), 10);
+        assertEquals(partList.get(2).getUploadId(), UPLOAD_ID);
+
+        ArgumentCaptor<CompleteMultipartUploadRequest> completeCaptor = ArgumentCaptor.forClass(
+                CompleteMultipartUploadRequest.class);
+        verify(mockS3Client).completeMultipartUpload(completeCaptor.capture());
+        assertEquals(completeCaptor.getValue().getUploadId(), UPLOAD_ID);
+        assertEquals(completeCaptor.getValue().getPartETags().size(), 3);
+        assertEquals(completeCaptor.getValue().getPartETags().get(2).getETag(), "etag-3");
+
+        verify(mockS3Client, never()).putObject(any(PutObjectRequest.class));
+    }
+
+    @Test
+    public void exactMultipleOfPartSize() throws Exception {
+        S3MultipartOutputStream stream = new S3MultipartOutputStream(mockS3Client, BUCKET, KEY, MIN_PART_SIZE);
+        stream.write(new byte[MIN_PART_SIZE]);
+        stream.close();
+
+        // There is no empty last part.
+        verify(mockS3Client, times(1)).uploadPart(any());
+        verify(mockS3Client).completeMultipartUpload(any());
+    }
+
+    @Test
+    public void smallObjectIsPut() throws Exception {
+        S3MultipartOutputStream stream = new S3MultipartOutputStream(mockS3Client, BUCKET, KEY, MIN_PART_SIZE);
+        stream.write(new byte[] { 1, 2, 3 });
+        stream.close();
+
+        // Closing twice does nothing.
+        stream.close();
+
+        ArgumentCaptor<PutObjectRequest> putCaptor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(mockS3Client).putObject(putCaptor.capture());
+        PutObjectRequest putRequest = putCaptor.getValue();
+        assertEquals(putRequest.getBucketName(), BUCKET);
+        assertEquals(putRequest.getKey(), KEY);
+        assertEquals(putRequest.getMetadata().getContentLength(), 3);
+        assertEquals(putRequest.getMetadata().getSSEAlgorithm(), ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+
+        verify(mockS3Client, never()).initiateMultipartUpload(any());
+        verify(mockS3Client, never()).completeMultipartUpload(any());
+    }
+
+    @Test
+    public void abort() throws Exception {
+        S3MultipartOutputStream stream = new S3MultipartOutputStream(mockS3Client, BUCKET, KEY, MIN_PART_SIZE);
+        stream.write(new byte[MIN_PART_SIZE + 1]);
+        stream.abort();
+
+        // Closing after aborting does nothing.
+        stream.close();
+
+        ArgumentCaptor<AbortMultipartUploadRequest> abortCaptor = ArgumentCaptor.forClass(
+                AbortMultipartUploadRequest.class);
+        verify(mockS3Client).abortMultipartUpload(abortCaptor.capture());
+        assertEquals(abortCaptor.getValue().getUploadId(), UPLOAD_ID);
+        verify(mockS3Client, never()).completeMultipartUpload(any());
+        verify(mockS3Client, never()).putObject(any(PutObjectRequest.class));
+    }
+
+    @Test
+    public void abortBeforeFirstPart() throws Exception {
+        S3MultipartOutputStream stream = new S3MultipartOutputStream(mockS3Client, BUCKET, KEY, MIN_PART_SIZE);
+        stream.write(1);
+        stream.abort();
+
+        // Nothing was uploaded, so there's nothing to abort.
+        verify(mockS3Client, never()).abortMultipartUpload(any());
+        verify(mockS3Client, never()).putObject(any(PutObjectRequest.class));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void writeAfterClose() throws Exception {
+        S3MultipartOutputStream stream = new S3MultipartOutputStream(mockS3Client, BUCKET, KEY, MIN_PART_SIZE);
+        stream.close();
+        stream.write(1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void partSizeTooSmall() {
+        new S3MultipartOutputStream(mockS3Client, BUCKET, KEY, MIN_PART_SIZE - 1);
+    }
+}